@@ -0,0 +1,90 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DogDetector;
+import fiji.plugin.trackmate.detection.LogDetector;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the LoG and DoG detectors on synthetic blob images.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class DetectionBenchmark
+{
+
+	private static final double RADIUS = 3d;
+
+	private static final double THRESHOLD = 50d;
+
+	@Param( { "2", "3" } )
+	public int nDims;
+
+	@Param( { "200" } )
+	public int nBlobs;
+
+	@Param( { "1" } )
+	public int numThreads;
+
+	private Img< UnsignedShortType > img;
+
+	private double[] calibration;
+
+	@Setup
+	public void setUp() throws IncompatibleTypeException
+	{
+		final long[] dims = nDims == 2 ? new long[] { 512, 512 } : new long[] { 128, 128, 64 };
+		img = SyntheticData.blobImage( 1l, dims, nBlobs, RADIUS );
+		calibration = new double[ nDims ];
+		for ( int d = 0; d < nDims; d++ )
+		{
+			calibration[ d ] = 1d;
+		}
+	}
+
+	@Benchmark
+	public List< Spot > log()
+	{
+		final LogDetector< UnsignedShortType > detector = new LogDetector< UnsignedShortType >( img, img, calibration, RADIUS, THRESHOLD, true, false );
+		detector.setNumThreads( numThreads );
+		return run( detector );
+	}
+
+	@Benchmark
+	public List< Spot > dog()
+	{
+		final DogDetector< UnsignedShortType > detector = new DogDetector< UnsignedShortType >( img, img, calibration, RADIUS, THRESHOLD, true, false );
+		detector.setNumThreads( numThreads );
+		return run( detector );
+	}
+
+	private static List< Spot > run( final LogDetector< UnsignedShortType > detector )
+	{
+		if ( !detector.checkInput() || !detector.process() ) { throw new IllegalStateException( detector.getErrorMessage() ); }
+		return detector.getResult();
+	}
+}
@@ -0,0 +1,122 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
+import fiji.plugin.trackmate.features.SpotFeatureCalculator;
+import fiji.plugin.trackmate.features.TrackFeatureCalculator;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeVelocityAnalyzer;
+import fiji.plugin.trackmate.features.spot.SpotContrastAndSNRAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotRadiusEstimatorFactory;
+import fiji.plugin.trackmate.features.track.TrackBranchingAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackLocationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+import ij.ImagePlus;
+
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the spot, edge and track feature calculators on Brownian tracks
+ * over a synthetic 2D movie.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class FeatureBenchmark
+{
+
+	private static final int N_FRAMES = 20;
+
+	private static final int SIZE = 256;
+
+	/** Number of particles in the first frame. */
+	@Param( { "200", "1000" } )
+	public int nParticles;
+
+	@Param( { "1" } )
+	public int numThreads;
+
+	private Model model;
+
+	private Settings settings;
+
+	@Setup
+	public void setUp() throws IncompatibleTypeException
+	{
+		model = SyntheticData.brownianModel( 1l, N_FRAMES, nParticles, SIZE, 2, 1d, 0.01, 0d );
+		model.setLogger( Logger.VOID_LOGGER );
+
+		final Img< UnsignedShortType > img = SyntheticData.blobImage( 1l, new long[] { SIZE, SIZE, N_FRAMES }, nParticles * N_FRAMES, 2d );
+		final ImagePlus imp = ImageJFunctions.wrap( img, "Synthetic" );
+		imp.setDimensions( 1, 1, N_FRAMES );
+
+		settings = new Settings();
+		settings.setFrom( imp );
+		settings.addSpotAnalyzerFactory( new SpotIntensityAnalyzerFactory< UnsignedShortType >() );
+		settings.addSpotAnalyzerFactory( new SpotContrastAndSNRAnalyzerFactory< UnsignedShortType >() );
+		settings.addSpotAnalyzerFactory( new SpotRadiusEstimatorFactory< UnsignedShortType >() );
+		settings.addEdgeAnalyzer( new EdgeTargetAnalyzer() );
+		settings.addEdgeAnalyzer( new EdgeTimeLocationAnalyzer() );
+		settings.addEdgeAnalyzer( new EdgeVelocityAnalyzer() );
+		settings.addTrackAnalyzer( new TrackIndexAnalyzer() );
+		settings.addTrackAnalyzer( new TrackDurationAnalyzer() );
+		settings.addTrackAnalyzer( new TrackBranchingAnalyzer() );
+		settings.addTrackAnalyzer( new TrackLocationAnalyzer() );
+		settings.addTrackAnalyzer( new TrackSpeedStatisticsAnalyzer() );
+	}
+
+	@Benchmark
+	public Model spotFeatures()
+	{
+		final SpotFeatureCalculator calculator = new SpotFeatureCalculator( model, settings );
+		calculator.setNumThreads( numThreads );
+		if ( !calculator.checkInput() || !calculator.process() ) { throw new IllegalStateException( calculator.getErrorMessage() ); }
+		return model;
+	}
+
+	@Benchmark
+	public Model edgeFeatures()
+	{
+		final EdgeFeatureCalculator calculator = new EdgeFeatureCalculator( model, settings );
+		calculator.setNumThreads( numThreads );
+		if ( !calculator.checkInput() || !calculator.process() ) { throw new IllegalStateException( calculator.getErrorMessage() ); }
+		return model;
+	}
+
+	@Benchmark
+	public Model trackFeatures()
+	{
+		final TrackFeatureCalculator calculator = new TrackFeatureCalculator( model, settings );
+		calculator.setNumThreads( numThreads );
+		if ( !calculator.checkInput() || !calculator.process() ) { throw new IllegalStateException( calculator.getErrorMessage() ); }
+		return model;
+	}
+}
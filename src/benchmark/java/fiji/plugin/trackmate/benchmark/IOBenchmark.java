@@ -0,0 +1,106 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.io.TmBinaryReader;
+import fiji.plugin.trackmate.io.TmBinaryWriter;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing and reading a model to and from the XML and binary file
+ * formats.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class IOBenchmark
+{
+
+	private static final int N_FRAMES = 50;
+
+	/** Number of particles in the first frame. */
+	@Param( { "1000", "10000" } )
+	public int nParticles;
+
+	private Model model;
+
+	private File xmlFile;
+
+	private File binaryFile;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		model = SyntheticData.brownianModel( 1l, N_FRAMES, nParticles, 1000d, 2, 1d, 0.01, 0.05 );
+		xmlFile = File.createTempFile( "TrackMateBenchmark", ".xml" );
+		binaryFile = File.createTempFile( "TrackMateBenchmark", ".tmb" );
+		writeXml();
+		writeBinary();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		xmlFile.delete();
+		binaryFile.delete();
+	}
+
+	@Benchmark
+	public File writeXml() throws IOException
+	{
+		final TmXmlWriter writer = new TmXmlWriter( xmlFile, Logger.VOID_LOGGER );
+		writer.appendModel( model );
+		writer.writeToFile();
+		return xmlFile;
+	}
+
+	@Benchmark
+	public Model readXml()
+	{
+		final TmXmlReader reader = new TmXmlReader( xmlFile );
+		final Model loaded = reader.getModel();
+		if ( !reader.isReadingOk() ) { throw new IllegalStateException( reader.getErrorMessage() ); }
+		return loaded;
+	}
+
+	@Benchmark
+	public File writeBinary() throws IOException
+	{
+		final TmBinaryWriter writer = new TmBinaryWriter( binaryFile, Logger.VOID_LOGGER );
+		writer.appendModel( model );
+		writer.writeToFile();
+		return binaryFile;
+	}
+
+	@Benchmark
+	public Model readBinary()
+	{
+		final TmBinaryReader reader = new TmBinaryReader( binaryFile );
+		final Model loaded = reader.getModel();
+		if ( !reader.isReadingOk() ) { throw new IllegalStateException( reader.getErrorMessage() ); }
+		return loaded;
+	}
+}
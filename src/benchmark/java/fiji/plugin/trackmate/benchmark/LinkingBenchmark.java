@@ -0,0 +1,113 @@
+package fiji.plugin.trackmate.benchmark;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.sparselap.SparseLAPFrameToFrameTracker;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the frame-to-frame linking step of the LAP trackers: the
+ * Jaqaman cost matrix creation and its solving by the LAPJV solver, for one
+ * pair of frames, and the frame-to-frame tracker over a whole movie.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class LinkingBenchmark
+{
+
+	private static final int N_FRAMES = 20;
+
+	private static final double MAX_DISTANCE = 5d;
+
+	/** Number of particles per frame. */
+	@Param( { "1000", "10000" } )
+	public int nParticles;
+
+	/** Size of the square particles are drawn in. Sets the density. */
+	@Param( { "500" } )
+	public double size;
+
+	@Param( { "1" } )
+	public int numThreads;
+
+	private SpotCollection spots;
+
+	private List< Spot > sources;
+
+	private List< Spot > targets;
+
+	@Setup
+	public void setUp()
+	{
+		final Model model = SyntheticData.brownianModel( 1l, N_FRAMES, nParticles, size, 2, 1d, 0d, 0d );
+		spots = model.getSpots();
+		sources = new ArrayList< Spot >();
+		for ( final Spot spot : spots.iterable( 0, true ) )
+		{
+			sources.add( spot );
+		}
+		targets = new ArrayList< Spot >();
+		for ( final Spot spot : spots.iterable( 1, true ) )
+		{
+			targets.add( spot );
+		}
+	}
+
+	@Benchmark
+	public Map< Spot, Spot > jaqamanLinker()
+	{
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, new SquareDistCostFunction(), MAX_DISTANCE * MAX_DISTANCE, 1.05, 1d );
+		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
+		linker.setNumThreads( numThreads );
+		if ( !linker.checkInput() || !linker.process() ) { throw new IllegalStateException( linker.getErrorMessage() ); }
+		return linker.getResult();
+	}
+
+	@Benchmark
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > frameToFrameTracker()
+	{
+		final Map< String, Object > defaults = LAPUtils.getDefaultLAPSettingsMap();
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, Double.valueOf( MAX_DISTANCE ) );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, defaults.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR ) );
+		settings.put( KEY_LINKING_FEATURE_PENALTIES, defaults.get( KEY_LINKING_FEATURE_PENALTIES ) );
+
+		final SparseLAPFrameToFrameTracker tracker = new SparseLAPFrameToFrameTracker( spots, settings );
+		tracker.setNumThreads( numThreads );
+		if ( !tracker.checkInput() || !tracker.process() ) { throw new IllegalStateException( tracker.getErrorMessage() ); }
+		return tracker.getResult();
+	}
+}
@@ -0,0 +1,116 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.detection.DetectionUtils;
+import fiji.plugin.trackmate.detection.util.LogConvolutionCache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.Cursor;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the separable and FFT LoG convolutions against the blob radius,
+ * to locate the crossover that
+ * {@link DetectionUtils#isSeparableLoGFaster(long[], double, double[], int, int)}
+ * estimates. Also checks at setup that both give the same result.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class LoGConvolutionBenchmark
+{
+
+	/** Maximal difference between the two methods, relative to the range. */
+	private static final double TOLERANCE = 1e-4;
+
+	@Param( { "2", "3" } )
+	public int nDims;
+
+	@Param( { "1", "2", "4", "8", "16" } )
+	public double radius;
+
+	@Param( { "1" } )
+	public int numThreads;
+
+	private Img< FloatType > img;
+
+	private double[] calibration;
+
+	private LogConvolutionCache cache;
+
+	private ExecutorService service;
+
+	@Setup
+	public void setUp() throws IncompatibleTypeException
+	{
+		final long[] dims = nDims == 2 ? new long[] { 512, 512 } : new long[] { 128, 128, 64 };
+		final Img< UnsignedShortType > blobs = SyntheticData.blobImage( 1l, dims, 200, radius );
+		img = DetectionUtils.copyToFloatImg( blobs, blobs, new ArrayImgFactory< FloatType >() );
+		calibration = new double[ nDims ];
+		for ( int d = 0; d < nDims; d++ )
+		{
+			calibration[ d ] = 1d;
+		}
+		cache = new LogConvolutionCache();
+		service = Executors.newFixedThreadPool( numThreads );
+
+		final Img< FloatType > separable = separable();
+		final Img< FloatType > fft = fft();
+		double max = 0d;
+		double diff = 0d;
+		final Cursor< FloatType > cs = separable.cursor();
+		final Cursor< FloatType > cf = fft.cursor();
+		while ( cs.hasNext() )
+		{
+			final double vs = cs.next().getRealDouble();
+			final double vf = cf.next().getRealDouble();
+			max = Math.max( max, Math.abs( vf ) );
+			diff = Math.max( diff, Math.abs( vs - vf ) );
+		}
+		if ( diff > TOLERANCE * max ) { throw new IllegalStateException( "Separable and FFT convolutions differ by " + diff + " for a maximum of " + max + "." ); }
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		service.shutdown();
+	}
+
+	@Benchmark
+	public Img< FloatType > separable() throws IncompatibleTypeException
+	{
+		return DetectionUtils.convolveLoGSeparable( img, radius, calibration, service );
+	}
+
+	@Benchmark
+	public Img< FloatType > fft()
+	{
+		final Img< FloatType > copy = img.copy();
+		cache.convolve( copy, radius, calibration, service );
+		return copy;
+	}
+}
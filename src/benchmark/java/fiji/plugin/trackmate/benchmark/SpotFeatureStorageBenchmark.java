@@ -0,0 +1,165 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the primitive-backed feature storage of {@link Spot} against the
+ * per-spot <code>ConcurrentHashMap&lt;String, Double&gt;</code> it replaced.
+ * The memory per spot is the allocation rate reported by the GC profiler for
+ * {@link #createMaps()} and {@link #createSpots()}, divided by the number of
+ * spots.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class SpotFeatureStorageBenchmark
+{
+
+	private static final int N_FRAMES = 100;
+
+	private static final int N_FEATURES = 30;
+
+	@Param( { "200000" } )
+	public int nSpots;
+
+	private String[] features;
+
+	private List< Spot > spots;
+
+	private List< ConcurrentHashMap< String, Double > > maps;
+
+	private SpotCollection collection;
+
+	private List< FeatureFilter > filters;
+
+	private final SquareDistCostFunction costFunction = new SquareDistCostFunction();
+
+	@Setup
+	public void setUp()
+	{
+		features = new String[ N_FEATURES ];
+		for ( int i = 0; i < Spot.POSITION_FEATURES.length; i++ )
+		{
+			features[ i ] = Spot.POSITION_FEATURES[ i ];
+		}
+		for ( int i = Spot.POSITION_FEATURES.length; i < N_FEATURES; i++ )
+		{
+			features[ i ] = "FEATURE_" + i;
+		}
+
+		spots = createSpots();
+		maps = new ArrayList< ConcurrentHashMap< String, Double > >( spots.size() );
+		for ( final Spot spot : spots )
+		{
+			maps.add( new ConcurrentHashMap< String, Double >( spot.getFeatures() ) );
+		}
+
+		collection = new SpotCollection();
+		final int nPerFrame = spots.size() / N_FRAMES;
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			collection.put( t, new HashSet< Spot >( spots.subList( t * nPerFrame, ( t + 1 ) * nPerFrame ) ) );
+		}
+		filters = new ArrayList< FeatureFilter >( 3 );
+		filters.add( new FeatureFilter( features[ N_FEATURES - 1 ], 0.2, true ) );
+		filters.add( new FeatureFilter( features[ N_FEATURES - 2 ], 0.9, false ) );
+		filters.add( new FeatureFilter( Spot.QUALITY, 0.1, true ) );
+	}
+
+	@Benchmark
+	public List< ConcurrentHashMap< String, Double > > createMaps()
+	{
+		final Random ran = new Random( 1l );
+		final List< ConcurrentHashMap< String, Double > > created = new ArrayList< ConcurrentHashMap< String, Double > >( nSpots );
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final ConcurrentHashMap< String, Double > map = new ConcurrentHashMap< String, Double >();
+			for ( final String feature : features )
+			{
+				map.put( feature, Double.valueOf( ran.nextDouble() ) );
+			}
+			created.add( map );
+		}
+		return created;
+	}
+
+	@Benchmark
+	public List< Spot > createSpots()
+	{
+		final Random ran = new Random( 1l );
+		final List< Spot > created = new ArrayList< Spot >( nSpots );
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final Spot spot = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 100 * ran.nextDouble(), 1d, ran.nextDouble() );
+			for ( int j = Spot.POSITION_FEATURES.length; j < N_FEATURES; j++ )
+			{
+				spot.putFeature( features[ j ], Double.valueOf( ran.nextDouble() ) );
+			}
+			created.add( spot );
+		}
+		return created;
+	}
+
+	@Benchmark
+	public double linkingCostMaps()
+	{
+		double sum = 0;
+		for ( int i = 1; i < maps.size(); i++ )
+		{
+			final ConcurrentHashMap< String, Double > source = maps.get( i - 1 );
+			final ConcurrentHashMap< String, Double > target = maps.get( i );
+			for ( final String f : Spot.POSITION_FEATURES )
+			{
+				final double d = target.get( f ).doubleValue() - source.get( f ).doubleValue();
+				sum += d * d;
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double linkingCostSpots()
+	{
+		double sum = 0;
+		for ( int i = 1; i < spots.size(); i++ )
+		{
+			sum += costFunction.linkingCost( spots.get( i - 1 ), spots.get( i ) );
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int filter()
+	{
+		collection.featuresChanged();
+		collection.filter( filters );
+		return collection.getNSpots( true );
+	}
+}
@@ -0,0 +1,98 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.FeatureFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the filtering of a spot collection on one and on several
+ * features, from scratch, and the incremental filtering that happens when a
+ * threshold is dragged in the GUI.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class SpotFilterBenchmark
+{
+
+	private static final int N_FRAMES = 100;
+
+	/** Number of particles per frame. */
+	@Param( { "1000", "10000" } )
+	public int nParticles;
+
+	private SpotCollection spots;
+
+	private FeatureFilter qualityFilter;
+
+	private List< FeatureFilter > filters;
+
+	private List< FeatureFilter > drag;
+
+	private int step;
+
+	@Setup
+	public void setUp()
+	{
+		spots = SyntheticData.brownianModel( 1l, N_FRAMES, nParticles, 1000d, 2, 1d, 0d, 0d ).getSpots();
+
+		qualityFilter = new FeatureFilter( Spot.QUALITY, 0.5, true );
+		filters = new ArrayList< FeatureFilter >();
+		filters.add( qualityFilter );
+		filters.add( new FeatureFilter( Spot.POSITION_X, 500d, false ) );
+		filters.add( new FeatureFilter( Spot.POSITION_Y, 250d, true ) );
+
+		drag = new ArrayList< FeatureFilter >( filters );
+		spots.filter( drag );
+	}
+
+	@Benchmark
+	public SpotCollection filterOne()
+	{
+		spots.featuresChanged();
+		spots.filter( qualityFilter );
+		return spots;
+	}
+
+	@Benchmark
+	public SpotCollection filterMany()
+	{
+		spots.featuresChanged();
+		spots.filter( filters );
+		return spots;
+	}
+
+	/**
+	 * Moves the X threshold by one slider step back and forth, as when
+	 * dragging it in the GUI.
+	 */
+	@Benchmark
+	public int dragThreshold()
+	{
+		step = ( step + 1 ) % 100;
+		final double threshold = 500d + ( step < 50 ? step : 100 - step );
+		drag.set( 1, new FeatureFilter( Spot.POSITION_X, threshold, false ) );
+		return spots.filter( drag ).size();
+	}
+}
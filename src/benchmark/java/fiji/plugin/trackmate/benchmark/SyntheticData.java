@@ -0,0 +1,157 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+/**
+ * Seeded generators of synthetic data for the benchmarks. The same seed and
+ * parameters always give the same data.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class SyntheticData
+{
+
+	private SyntheticData()
+	{}
+
+	/**
+	 * Generates a model made of particles undergoing Brownian motion, and that
+	 * can divide. The particles are linked by their true trajectories.
+	 *
+	 * @param seed
+	 *            the random seed.
+	 * @param nFrames
+	 *            the number of frames.
+	 * @param nParticles
+	 *            the number of particles in the first frame.
+	 * @param size
+	 *            the size of the square or cube particles are initially drawn
+	 *            in.
+	 * @param nDims
+	 *            2 or 3.
+	 * @param diffusion
+	 *            the diffusion coefficient, in square units per frame.
+	 * @param divisionProbability
+	 *            the probability for a particle to divide at each frame.
+	 * @param missProbability
+	 *            the probability for a particle to be missed in a frame. This
+	 *            creates gaps in the tracks, for gap-closing.
+	 * @return a new model.
+	 */
+	public static Model brownianModel( final long seed, final int nFrames, final int nParticles, final double size, final int nDims, final double diffusion, final double divisionProbability, final double missProbability )
+	{
+		final Random ran = new Random( seed );
+		final double sigma = Math.sqrt( 2 * diffusion );
+
+		List< double[] > positions = new ArrayList< double[] >( nParticles );
+		List< Spot > previous = new ArrayList< Spot >( nParticles );
+		for ( int i = 0; i < nParticles; i++ )
+		{
+			final double[] pos = new double[ 3 ];
+			for ( int d = 0; d < nDims; d++ )
+			{
+				pos[ d ] = size * ran.nextDouble();
+			}
+			positions.add( pos );
+			previous.add( null );
+		}
+
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int frame = 0; frame < nFrames; frame++ )
+			{
+				final List< double[] > nextPositions = new ArrayList< double[] >( positions.size() );
+				final List< Spot > nextPrevious = new ArrayList< Spot >( positions.size() );
+				for ( int i = 0; i < positions.size(); i++ )
+				{
+					final double[] pos = positions.get( i );
+					Spot parent = previous.get( i );
+
+					if ( ran.nextDouble() >= missProbability )
+					{
+						final Spot spot = new Spot( pos[ 0 ], pos[ 1 ], pos[ 2 ], 1d, ran.nextDouble() );
+						spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+						model.addSpotTo( spot, frame );
+						if ( null != parent )
+						{
+							model.addEdge( parent, spot, spot.squareDistanceTo( parent ) );
+						}
+						parent = spot;
+					}
+
+					final int nChildren = ran.nextDouble() < divisionProbability ? 2 : 1;
+					for ( int c = 0; c < nChildren; c++ )
+					{
+						final double[] next = new double[ 3 ];
+						for ( int d = 0; d < nDims; d++ )
+						{
+							next[ d ] = pos[ d ] + sigma * ran.nextGaussian();
+						}
+						nextPositions.add( next );
+						nextPrevious.add( parent );
+					}
+				}
+				positions = nextPositions;
+				previous = nextPrevious;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Generates an image of Gaussian blobs over a noisy background.
+	 *
+	 * @param seed
+	 *            the random seed.
+	 * @param dims
+	 *            the image dimensions.
+	 * @param nBlobs
+	 *            the number of blobs.
+	 * @param radius
+	 *            the blob radius, in pixels.
+	 * @return a new image.
+	 * @throws IncompatibleTypeException
+	 *             if the blobs cannot be blurred.
+	 */
+	public static Img< UnsignedShortType > blobImage( final long seed, final long[] dims, final int nBlobs, final double radius ) throws IncompatibleTypeException
+	{
+		final Random ran = new Random( seed );
+		final Img< UnsignedShortType > img = ArrayImgs.unsignedShorts( dims );
+
+		final RandomAccess< UnsignedShortType > ra = img.randomAccess();
+		for ( int i = 0; i < nBlobs; i++ )
+		{
+			for ( int d = 0; d < dims.length; d++ )
+			{
+				ra.setPosition( ran.nextInt( ( int ) dims[ d ] ), d );
+			}
+			ra.get().set( 60000 );
+		}
+		Gauss3.gauss( radius / Math.sqrt( dims.length ), Views.extendZero( img ), img );
+
+		for ( final UnsignedShortType pixel : img )
+		{
+			pixel.set( pixel.get() + 100 + ran.nextInt( 20 ) );
+		}
+		return img;
+	}
+}
@@ -0,0 +1,133 @@
+package fiji.plugin.trackmate.benchmark;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.kalman.KalmanTracker;
+import fiji.plugin.trackmate.tracking.sparselap.SparseLAPSegmentTracker;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the gap-closing and splitting step of the LAP tracker, and the
+ * Kalman tracker, on Brownian particles that divide and are sometimes missed.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class TrackingBenchmark
+{
+
+	private static final int N_FRAMES = 30;
+
+	private static final double MAX_DISTANCE = 5d;
+
+	/** Number of particles in the first frame. */
+	@Param( { "500", "2000" } )
+	public int nParticles;
+
+	/** Size of the square particles are drawn in. Sets the density. */
+	@Param( { "500" } )
+	public double size;
+
+	@Param( { "1" } )
+	public int numThreads;
+
+	private SpotCollection spots;
+
+	/** The true tracks, without the gaps and splits. */
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > segments;
+
+	/** A copy of the segments, that the segment tracker modifies. */
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private Map< String, Object > settings;
+
+	@Setup
+	public void setUp()
+	{
+		final Model model = SyntheticData.brownianModel( 1l, N_FRAMES, nParticles, size, 2, 1d, 0.01, 0.05 );
+		spots = model.getSpots();
+
+		/*
+		 * Segments: the true tracks, cut at each gap and division, as the
+		 * frame-to-frame linker would give them.
+		 */
+		segments = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		for ( final Spot spot : model.getTrackModel().vertexSet() )
+		{
+			segments.addVertex( spot );
+		}
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final Spot source = model.getTrackModel().getEdgeSource( edge );
+			final Spot target = model.getTrackModel().getEdgeTarget( edge );
+			final int dt = Math.abs( target.getFeature( Spot.FRAME ).intValue() - source.getFeature( Spot.FRAME ).intValue() );
+			if ( dt > 1 || model.getTrackModel().edgesOf( source ).size() > 2 || model.getTrackModel().edgesOf( target ).size() > 2 )
+			{
+				continue;
+			}
+			final DefaultWeightedEdge copy = segments.addEdge( source, target );
+			segments.setEdgeWeight( copy, model.getTrackModel().getEdgeWeight( edge ) );
+		}
+
+		settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put( KEY_ALLOW_GAP_CLOSING, Boolean.TRUE );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, Double.valueOf( 2 * MAX_DISTANCE ) );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, Integer.valueOf( 2 ) );
+		settings.put( KEY_ALLOW_TRACK_SPLITTING, Boolean.TRUE );
+		settings.put( KEY_SPLITTING_MAX_DISTANCE, Double.valueOf( MAX_DISTANCE ) );
+	}
+
+	@Setup( Level.Invocation )
+	public void copySegments()
+	{
+		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		Graphs.addGraph( graph, segments );
+	}
+
+	@Benchmark
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > segmentTracker()
+	{
+		final SparseLAPSegmentTracker tracker = new SparseLAPSegmentTracker( graph, settings );
+		tracker.setNumThreads( numThreads );
+		if ( !tracker.checkInput() || !tracker.process() ) { throw new IllegalStateException( tracker.getErrorMessage() ); }
+		return tracker.getResult();
+	}
+
+	@Benchmark
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > kalmanTracker()
+	{
+		final KalmanTracker tracker = new KalmanTracker( spots, 2 * MAX_DISTANCE, 2, MAX_DISTANCE );
+		if ( !tracker.checkInput() || !tracker.process() ) { throw new IllegalStateException( tracker.getErrorMessage() ); }
+		return tracker.getResult();
+	}
+}
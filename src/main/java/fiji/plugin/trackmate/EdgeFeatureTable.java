@@ -0,0 +1,206 @@
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Columnar storage for edge feature values.
+ * <p>
+ * Each edge is given a row, and each feature is stored as a primitive
+ * <code>double</code> column indexed by rows, along with a mask of the rows
+ * that hold a value. This replaces a map of boxed values per edge, whose
+ * footprint dominated the memory used by large models. Rows of removed edges
+ * are recycled.
+ * <p>
+ * Edges are matched by identity, which is how {@link DefaultWeightedEdge}
+ * defines equality. This class is not thread-safe: the owning
+ * {@link FeatureModel} guards it with a read-write lock. Reads do not modify
+ * it, and can run concurrently.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+class EdgeFeatureTable
+{
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final IdentityHashMap< DefaultWeightedEdge, Integer > rows = new IdentityHashMap< DefaultWeightedEdge, Integer >();
+
+	private final Map< String, Column > columns = new LinkedHashMap< String, Column >();
+
+	/** Maps rows to their edge, <code>null</code> for free rows. */
+	private DefaultWeightedEdge[] edges = new DefaultWeightedEdge[ INITIAL_CAPACITY ];
+
+	/** Number of rows ever allocated. */
+	private int nRows = 0;
+
+	/** Stack of rows released by removed edges. */
+	private int[] free = new int[ INITIAL_CAPACITY ];
+
+	private int nFree = 0;
+
+	/**
+	 * Stores a feature value for the specified edge.
+	 */
+	void put( final DefaultWeightedEdge edge, final String feature, final double value )
+	{
+		final int row = rowOf( edge );
+		Column column = columns.get( feature );
+		if ( null == column )
+		{
+			column = new Column( edges.length );
+			columns.put( feature, column );
+		}
+		column.put( row, value );
+	}
+
+	/**
+	 * Returns the value of the specified feature for the specified edge, or
+	 * <code>null</code> if it was never set.
+	 */
+	Double get( final DefaultWeightedEdge edge, final String feature )
+	{
+		final Integer row = rows.get( edge );
+		if ( null == row ) { return null; }
+		final Column column = columns.get( feature );
+		if ( null == column || !column.set.get( row.intValue() ) ) { return null; }
+		return Double.valueOf( column.values[ row.intValue() ] );
+	}
+
+	/**
+	 * Returns the value of the specified feature for the specified edge, or
+	 * {@link Double#NaN} if it was never set. Does not box the value.
+	 */
+	double getDouble( final DefaultWeightedEdge edge, final String feature )
+	{
+		final Integer row = rows.get( edge );
+		if ( null == row ) { return Double.NaN; }
+		final Column column = columns.get( feature );
+		if ( null == column || !column.set.get( row.intValue() ) ) { return Double.NaN; }
+		return column.values[ row.intValue() ];
+	}
+
+	/**
+	 * Forgets all the feature values of the specified edge, and recycles its
+	 * row.
+	 */
+	void remove( final DefaultWeightedEdge edge )
+	{
+		final Integer row = rows.remove( edge );
+		if ( null == row ) { return; }
+		final int r = row.intValue();
+		for ( final Column column : columns.values() )
+		{
+			column.set.clear( r );
+		}
+		edges[ r ] = null;
+		if ( nFree == free.length )
+		{
+			free = Arrays.copyOf( free, 2 * free.length );
+		}
+		free[ nFree++ ] = r;
+	}
+
+	/**
+	 * Forgets all the edges and their feature values.
+	 */
+	void clear()
+	{
+		rows.clear();
+		columns.clear();
+		edges = new DefaultWeightedEdge[ INITIAL_CAPACITY ];
+		nRows = 0;
+		free = new int[ INITIAL_CAPACITY ];
+		nFree = 0;
+	}
+
+	/**
+	 * Returns the number of edges that have at least one feature value.
+	 */
+	int size()
+	{
+		return rows.size();
+	}
+
+	/**
+	 * Returns a new map of map copy of the content of this table, for
+	 * printing.
+	 */
+	Map< DefaultWeightedEdge, Map< String, Double >> toMap()
+	{
+		final Map< DefaultWeightedEdge, Map< String, Double >> map = new LinkedHashMap< DefaultWeightedEdge, Map< String, Double >>( rows.size() );
+		for ( int row = 0; row < nRows; row++ )
+		{
+			if ( null == edges[ row ] )
+			{
+				continue;
+			}
+			final Map< String, Double > values = new LinkedHashMap< String, Double >();
+			for ( final String feature : columns.keySet() )
+			{
+				final Column column = columns.get( feature );
+				if ( column.set.get( row ) )
+				{
+					values.put( feature, Double.valueOf( column.values[ row ] ) );
+				}
+			}
+			map.put( edges[ row ], values );
+		}
+		return map;
+	}
+
+	private int rowOf( final DefaultWeightedEdge edge )
+	{
+		final Integer row = rows.get( edge );
+		if ( null != row ) { return row.intValue(); }
+
+		final int r;
+		if ( nFree > 0 )
+		{
+			r = free[ --nFree ];
+		}
+		else
+		{
+			r = nRows++;
+			if ( r == edges.length )
+			{
+				edges = Arrays.copyOf( edges, 2 * edges.length );
+			}
+		}
+		edges[ r ] = edge;
+		rows.put( edge, Integer.valueOf( r ) );
+		return r;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Column
+	{
+
+		private double[] values;
+
+		private final BitSet set = new BitSet();
+
+		private Column( final int capacity )
+		{
+			this.values = new double[ capacity ];
+		}
+
+		private void put( final int row, final double value )
+		{
+			if ( row >= values.length )
+			{
+				values = Arrays.copyOf( values, Math.max( row + 1, 2 * values.length ) );
+			}
+			values[ row ] = value;
+			set.set( row );
+		}
+	}
+}
@@ -6,6 +6,8 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -41,9 +43,16 @@ public class FeatureModel
 	Map< Integer, Map< String, Double >> trackFeatureValues = new ConcurrentHashMap< Integer, Map< String, Double >>();
 
 	/**
-	 * Feature storage for edges.
+	 * Feature storage for edges. One primitive column per feature, rather than
+	 * one map per edge. Guarded by {@link #edgeFeatureLock}.
 	 */
-	private final ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double >> edgeFeatureValues = new ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double >>();
+	private final EdgeFeatureTable edgeFeatureValues = new EdgeFeatureTable();
+
+	/**
+	 * Lets the edge feature values be read concurrently, for instance by the
+	 * renderers and the analyzers, while writes are exclusive.
+	 */
+	private final ReadWriteLock edgeFeatureLock = new ReentrantReadWriteLock();
 
 	private final Collection< String > edgeFeatures = new LinkedHashSet< String >();
 
@@ -140,13 +149,21 @@ public class FeatureModel
 
 		final double[] val = new double[ nvals ];
 		int index = 0;
-		for ( final Integer trackID : keys )
+		edgeFeatureLock.readLock().lock();
+		try
 		{
-			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+			for ( final Integer trackID : keys )
 			{
-				val[ index++ ] = getEdgeFeature( edge, edgeFeature ).doubleValue();
+				for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+				{
+					val[ index++ ] = edgeFeatureValues.getDouble( edge, edgeFeature );
+				}
 			}
 		}
+		finally
+		{
+			edgeFeatureLock.readLock().unlock();
+		}
 		return val;
 	}
 
@@ -168,22 +185,79 @@ public class FeatureModel
 	 * @param value
 	 *            the feature value
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
+		edgeFeatureLock.writeLock().lock();
+		try
 		{
-			map = new ConcurrentHashMap< String, Double >();
-			edgeFeatureValues.put( edge, map );
+			edgeFeatureValues.put( edge, feature, value.doubleValue() );
+		}
+		finally
+		{
+			edgeFeatureLock.writeLock().unlock();
 		}
-		map.put( feature, value );
 	}
 
+	/**
+	 * Returns the value of a numerical feature for an edge of this model.
+	 * Concurrent calls do not block each other.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @param featureName
+	 *            the feature.
+	 * @return the feature value, or <code>null</code> if it was never set.
+	 */
 	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map ) { return null; }
-		return map.get( featureName );
+		edgeFeatureLock.readLock().lock();
+		try
+		{
+			return edgeFeatureValues.get( edge, featureName );
+		}
+		finally
+		{
+			edgeFeatureLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Forgets the feature values of the specified edges, which must have been
+	 * removed from the model. Their storage is recycled for new edges.
+	 *
+	 * @param edges
+	 *            the edges to forget.
+	 */
+	void removeEdges( final Collection< DefaultWeightedEdge > edges )
+	{
+		edgeFeatureLock.writeLock().lock();
+		try
+		{
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				edgeFeatureValues.remove( edge );
+			}
+		}
+		finally
+		{
+			edgeFeatureLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Forgets the feature values of all edges.
+	 */
+	void clearEdgeFeatures()
+	{
+		edgeFeatureLock.writeLock().lock();
+		try
+		{
+			edgeFeatureValues.clear();
+		}
+		finally
+		{
+			edgeFeatureLock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -589,7 +663,15 @@ public class FeatureModel
 		appendFeatureDeclarations( str, edgeFeatures, edgeFeatureNames, edgeFeatureShortNames, edgeFeatureDimensions, edgeFeatureIsInt );
 		str.append( '\n' );
 		str.append( " - Values:\n" );
-		appendFeatureValues( str, edgeFeatureValues );
+		edgeFeatureLock.readLock().lock();
+		try
+		{
+			appendFeatureValues( str, edgeFeatureValues.toMap() );
+		}
+		finally
+		{
+			edgeFeatureLock.readLock().unlock();
+		}
 
 		// Track
 		str.append( "Track features:\n" );
@@ -0,0 +1,37 @@
+package fiji.plugin.trackmate;
+
+/**
+ * The validity flag of an index built over the position or the radius of
+ * spots, such as {@link SpotGridIndex} and {@link SpotFilterIndex}.
+ * <p>
+ * An index registers its stamp with each of its spots (see
+ * {@link Spot#addStamp(GeometryStamp)}). A spot marks the stamps it holds as
+ * stale when its position or radius changes, so that moving a spot only
+ * invalidates the indices it is in. The owner of an index marks its stamp
+ * stale when it discards it, so that spots can drop it. The stamp holds no
+ * reference to its index, so spots do not retain discarded indices.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+final class GeometryStamp
+{
+
+	private volatile boolean stale = false;
+
+	/**
+	 * Marks the index this stamp belongs to as stale.
+	 */
+	void invalidate()
+	{
+		stale = true;
+	}
+
+	/**
+	 * Returns <code>true</code> if a spot of the index was moved or resized,
+	 * or if the index was discarded.
+	 */
+	boolean isStale()
+	{
+		return stale;
+	}
+}
@@ -8,6 +8,7 @@ import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.descriptors.ConfigureViewsDescriptor;
 import fiji.plugin.trackmate.gui.descriptors.SomeDialogDescriptor;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.TmBinaryReader;
 import fiji.plugin.trackmate.io.TmXmlReader;
 import fiji.plugin.trackmate.io.TmXmlReader_v12;
 import fiji.plugin.trackmate.io.TmXmlReader_v20;
@@ -338,12 +339,13 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 	/**
 	 * Hook for subclassers: <br>
 	 * Creates the {@link TmXmlReader} instance that will be used to load the
-	 * file.
+	 * file. TrackMate binary files are read by a {@link TmBinaryReader}.
 	 *
 	 * @return a new {@link TmXmlReader} instance.
 	 */
 	protected TmXmlReader createReader( final File file )
 	{
+		if ( TmBinaryReader.isBinaryFile( file ) ) { return new TmBinaryReader( file ); }
 		return new TmXmlReader( file );
 	}
 
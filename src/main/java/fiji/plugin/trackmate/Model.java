@@ -2,9 +2,11 @@ package fiji.plugin.trackmate;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -291,6 +293,7 @@ public class Model
 	public void clearTracks( final boolean doNotify )
 	{
 		trackModel.clear();
+		featureModel.clearEdgeFeatures();
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
@@ -324,6 +327,7 @@ public class Model
 	public void setTracks( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final boolean doNotify )
 	{
 		trackModel.setGraph( graph );
+		featureModel.clearEdgeFeatures();
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
@@ -392,14 +396,15 @@ public class Model
 	 *            the {@link FeatureFilter} collection to use for filtering.
 	 * @param doNotify
 	 *            if true, will file a {@link ModelChangeEvent#SPOTS_FILTERED}
-	 *            event.
+	 *            event, carrying the spots whose visibility changed.
 	 */
 	public void filterSpots( final Collection< FeatureFilter > spotFilters, final boolean doNotify )
 	{
-		spots.filter( spotFilters );
+		final List< Spot > changed = spots.filter( spotFilters );
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.SPOTS_FILTERED );
+			event.addAllSpots( changed );
 			for ( final ModelChangeListener listener : modelChangeListeners )
 				listener.modelChanged( event );
 		}
@@ -768,6 +773,7 @@ public class Model
 			spotsToUpdate.addAll( spotsAdded );
 			spotsToUpdate.addAll( spotsMoved );
 			spotsToUpdate.addAll( spotsUpdated );
+			spots.featuresChanged();
 		}
 
 		// Initialize event
@@ -823,6 +829,7 @@ public class Model
 
 		// Configure it with the tracks we found need updating
 		event.setTracksUpdated( tracksToUpdate );
+		event.setEdgesRelabelled( new HashSet< DefaultWeightedEdge >( trackModel.edgesRelabelled ) );
 
 		try
 		{
@@ -857,6 +864,21 @@ public class Model
 		}
 		finally
 		{
+			// Recycle the feature storage of edges that are gone for good.
+			if ( !trackModel.edgesRemoved.isEmpty() )
+			{
+				final List< DefaultWeightedEdge > gone = new ArrayList< DefaultWeightedEdge >( trackModel.edgesRemoved.size() );
+				for ( final DefaultWeightedEdge edge : trackModel.edgesRemoved )
+				{
+					if ( !trackModel.edgeSet().contains( edge ) )
+					{
+						gone.add( edge );
+					}
+				}
+				featureModel.removeEdges( gone );
+				trackModel.releaseRemovedEdges();
+			}
+
 			spotsAdded.clear();
 			spotsRemoved.clear();
 			spotsMoved.clear();
@@ -865,6 +887,7 @@ public class Model
 			trackModel.edgesRemoved.clear();
 			trackModel.edgesModified.clear();
 			trackModel.tracksUpdated.clear();
+			trackModel.edgesRelabelled.clear();
 			eventCache.clear();
 		}
 
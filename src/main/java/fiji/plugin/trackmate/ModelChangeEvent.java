@@ -57,6 +57,11 @@ public class ModelChangeEvent extends EventObject {
 	public static final int 	SPOTS_COMPUTED = 4;
 	/**
 	 * Event type indicating that the spots of the model were filtered.
+	 * <p>
+	 * The event carries a delta: {@link #getSpots()} returns only the spots
+	 * whose visibility changed, and is empty if no visibility changed. Their
+	 * new visibility is given by their {@link Spot#VISIBILITY_INDEX} feature.
+	 * Listeners must not expect to receive all the visible spots.
 	 */
 	public static final int 	SPOTS_FILTERED = 5;
 	/**
@@ -93,6 +98,7 @@ public class ModelChangeEvent extends EventObject {
 	/** The event type for this instance. */
 	private final int eventID;
 	private Set<Integer> trackUpdated;
+	private Set<DefaultWeightedEdge> edgesRelabelled = new HashSet<DefaultWeightedEdge>();
 
 	/**
 	 * Create a new event, reflecting a change in a {@link Model}.
@@ -196,7 +202,7 @@ public class ModelChangeEvent extends EventObject {
 			str.append("Spots computed\n");
 			break;
 		case SPOTS_FILTERED:
-			str.append("Spots filtered\n");
+			str.append("Spots filtered, visibility changed for " + spots.size() + " spots\n");
 			break;
 		case TRACKS_COMPUTED:
 			str.append("Tracks computed\n");
@@ -215,6 +221,7 @@ public class ModelChangeEvent extends EventObject {
 				str.append("\t\t" + edge + ": " + flagsToString.get(edgeFlags.get(edge)) + "\n");
 			}
 			str.append("\t- tracks to update: " + trackUpdated + "\n");
+			str.append("\t- edges moved to another track: " + edgesRelabelled.size() + "\n");
 		}
 		return str.toString();
 	}
@@ -229,4 +236,18 @@ public class ModelChangeEvent extends EventObject {
 	public Set<Integer> getTrackUpdated() {
 		return trackUpdated;
 	}
+
+	public void setEdgesRelabelled(final Set<DefaultWeightedEdge> edgesRelabelled) {
+		this.edgesRelabelled = edgesRelabelled;
+	}
+
+	/**
+	 * @return the edges that were moved from one track to another by this
+	 * event, because their tracks were merged or split. These edges were not
+	 * added nor removed, and are therefore not listed in {@link #getEdges()}.
+	 * Is empty if no edge was moved.
+	 */
+	public Set<DefaultWeightedEdge> getEdgesRelabelled() {
+		return edgesRelabelled;
+	}
 }
@@ -3,12 +3,17 @@ package fiji.plugin.trackmate;
 import static fiji.plugin.trackmate.SpotCollection.VISIBLITY;
 import fiji.plugin.trackmate.util.AlphanumComparator;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.AbstractEuclideanSpace;
@@ -30,6 +35,14 @@ import net.imglib2.util.Util;
  * Each spot received at creation a unique ID (as an <code>int</code>), used
  * later for saving, retrieving and loading. Interfering with this value will
  * predictively cause undesired behavior.
+ * <p>
+ * Feature values are stored in a primitive <code>double</code> array, indexed
+ * by slots that are shared by all spots and allocated once per feature key
+ * (see {@link #featureIndex(String)}). Performance-critical code should
+ * resolve the slot of the features it needs once, and use the index-based
+ * accessors {@link #getFeature(int)} and {@link #putFeature(int, double)}. The
+ * {@link String}-based accessors and the {@link #getFeatures()} map view are
+ * kept for convenience and compatibility.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> 2010, 2013
  *
@@ -43,12 +56,32 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 
 	public static AtomicInteger IDcounter = new AtomicInteger( -1 );
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap< String, Double > features = new ConcurrentHashMap< String, Double >();
+	/**
+	 * The bit pattern used to mark a feature slot as not set. It is a NaN
+	 * value that is never produced by arithmetic operations, and is never
+	 * returned to the caller.
+	 */
+	private static final long MISSING_BITS = 0x7ff4dead0000beefL;
+
+	private static final double MISSING = Double.longBitsToDouble( MISSING_BITS );
+
+	private static final GeometryStamp[] NO_STAMPS = new GeometryStamp[ 0 ];
+
+	/**
+	 * Store the individual feature values, indexed by their slot in the
+	 * {@link SpotFeatureRegistry}.
+	 */
+	private volatile double[] values;
 
 	/** A user-supplied name for this spot. */
 	private String name;
 
+	/**
+	 * The stamps of the indices this spot is in. They are marked stale when
+	 * the position or the radius of this spot changes. Guarded by this.
+	 */
+	private GeometryStamp[] stamps = NO_STAMPS;
+
 	/** This spot ID */
 	private final int ID;
 
@@ -76,11 +109,14 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	{
 		super( 3 );
 		this.ID = IDcounter.incrementAndGet();
-		putFeature( POSITION_X, Double.valueOf( x ) );
-		putFeature( POSITION_Y, Double.valueOf( y ) );
-		putFeature( POSITION_Z, Double.valueOf( z ) );
-		putFeature( RADIUS, Double.valueOf( radius ) );
-		putFeature( QUALITY, Double.valueOf( quality ) );
+		// Not published yet, we can write the array directly.
+		final double[] v = newValues( SpotFeatureRegistry.size() );
+		v[ POSITION_X_INDEX ] = x;
+		v[ POSITION_Y_INDEX ] = y;
+		v[ POSITION_Z_INDEX ] = z;
+		v[ RADIUS_INDEX ] = radius;
+		v[ QUALITY_INDEX ] = quality;
+		this.values = v;
 		if ( null == name )
 		{
 			this.name = "ID" + ID;
@@ -171,6 +207,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	{
 		super( 3 );
 		this.ID = ID;
+		this.values = newValues( SpotFeatureRegistry.size() );
 		synchronized ( IDcounter )
 		{
 			if ( IDcounter.get() < ID )
@@ -263,7 +300,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 		s.append( "Position: " + Util.printCoordinates( coordinates ) + "\n" );
 
 		// Feature list
-		if ( null == features || features.size() < 1 )
+		final Map< String, Double > features = getFeatures();
+		if ( features.size() < 1 )
 			s.append( "No features calculated\n" );
 		else
 		{
@@ -288,14 +326,14 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 
 	/**
-	 * Exposes the storage map of features for this spot. Altering the returned
+	 * Exposes a map view of the features of this spot. Altering the returned
 	 * map will alter the spot.
 	 *
 	 * @return a map of {@link String}s to {@link Double}s.
 	 */
 	public Map< String, Double > getFeatures()
 	{
-		return features;
+		return new FeatureMap();
 	}
 
 	/**
@@ -308,7 +346,13 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public final Double getFeature( final String feature )
 	{
-		return features.get( feature );
+		final int index = SpotFeatureRegistry.indexOrMissing( feature );
+		if ( index < 0 ) { return null; }
+		final double[] v = values;
+		if ( index >= v.length ) { return null; }
+		final double val = v[ index ];
+		if ( isMissing( val ) ) { return null; }
+		return Double.valueOf( val );
 	}
 
 	/**
@@ -322,7 +366,133 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public final void putFeature( final String feature, final Double value )
 	{
-		features.put( feature, value );
+		putFeature( SpotFeatureRegistry.index( feature ), value.doubleValue() );
+	}
+
+	/**
+	 * Returns the value stored at the specified feature slot.
+	 *
+	 * @param index
+	 *            the feature slot, as returned by
+	 *            {@link #featureIndex(String)}.
+	 * @return the feature value, or {@link Double#NaN} if it has not been set.
+	 */
+	public final double getFeature( final int index )
+	{
+		final double[] v = values;
+		if ( index >= v.length ) { return Double.NaN; }
+		final double val = v[ index ];
+		if ( isMissing( val ) ) { return Double.NaN; }
+		return val;
+	}
+
+	/**
+	 * Returns <code>true</code> if a value is stored at the specified feature
+	 * slot.
+	 *
+	 * @param index
+	 *            the feature slot, as returned by
+	 *            {@link #featureIndex(String)}.
+	 * @return <code>true</code> if the feature has been set.
+	 */
+	public final boolean hasFeature( final int index )
+	{
+		final double[] v = values;
+		return index < v.length && !isMissing( v[ index ] );
+	}
+
+	/**
+	 * Stores the specified feature value at the specified feature slot.
+	 *
+	 * @param index
+	 *            the feature slot, as returned by
+	 *            {@link #featureIndex(String)}.
+	 * @param value
+	 *            the value to store.
+	 */
+	public final synchronized void putFeature( final int index, final double value )
+	{
+		double[] v = values;
+		if ( index >= v.length )
+		{
+			final int oldLength = v.length;
+			v = Arrays.copyOf( v, Math.max( index + 1, SpotFeatureRegistry.size() ) );
+			Arrays.fill( v, oldLength, v.length, MISSING );
+		}
+		v[ index ] = value;
+		// Volatile write, publishes the new value to readers.
+		values = v;
+		if ( isGeometric( index ) )
+			geometryChanged();
+	}
+
+	/**
+	 * Removes the value stored at the specified feature slot.
+	 *
+	 * @param index
+	 *            the feature slot, as returned by
+	 *            {@link #featureIndex(String)}.
+	 */
+	private synchronized void removeFeature( final int index )
+	{
+		final double[] v = values;
+		if ( index >= v.length ) { return; }
+		v[ index ] = MISSING;
+		values = v;
+		if ( isGeometric( index ) )
+			geometryChanged();
+	}
+
+	/**
+	 * Marks the indices this spot is in as stale, and forgets them.
+	 * Must be called with the lock on this spot held.
+	 */
+	private void geometryChanged()
+	{
+		for ( final GeometryStamp stamp : stamps )
+			stamp.invalidate();
+		stamps = NO_STAMPS;
+	}
+
+	/**
+	 * Registers the stamp of an index this spot was added to. The stamps of
+	 * discarded indices are dropped.
+	 */
+	synchronized void addStamp( final GeometryStamp stamp )
+	{
+		int n = 0;
+		for ( final GeometryStamp s : stamps )
+		{
+			if ( !s.isStale() )
+				n++;
+		}
+		final GeometryStamp[] ns = new GeometryStamp[ n + 1 ];
+		int i = 0;
+		for ( final GeometryStamp s : stamps )
+		{
+			if ( !s.isStale() )
+				ns[ i++ ] = s;
+		}
+		ns[ n ] = stamp;
+		stamps = ns;
+	}
+
+	/**
+	 * Unregisters the stamp of an index this spot was removed from.
+	 */
+	synchronized void removeStamp( final GeometryStamp stamp )
+	{
+		for ( int i = 0; i < stamps.length; i++ )
+		{
+			if ( stamps[ i ] == stamp )
+			{
+				final GeometryStamp[] ns = new GeometryStamp[ stamps.length - 1 ];
+				System.arraycopy( stamps, 0, ns, 0, i );
+				System.arraycopy( stamps, i + 1, ns, i, ns.length - i );
+				stamps = ns;
+				return;
+			}
+		}
 	}
 
 	/**
@@ -340,7 +510,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double diffTo( final Spot s, final String feature )
 	{
-		final double f1 = features.get( feature ).doubleValue();
+		final double f1 = getFeature( feature ).doubleValue();
 		final double f2 = s.getFeature( feature ).doubleValue();
 		return f1 - f2;
 	}
@@ -367,7 +537,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double normalizeDiffTo( final Spot s, final String feature )
 	{
-		final double a = features.get( feature ).doubleValue();
+		final double a = getFeature( feature ).doubleValue();
 		final double b = s.getFeature( feature ).doubleValue();
 		if ( a == -b )
 			return 0d;
@@ -384,16 +554,67 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double squareDistanceTo( final Spot s )
 	{
-		double sumSquared = 0d;
-		double thisVal, otherVal;
+		final double[] v1 = values;
+		final double[] v2 = s.values;
+		final double dx = v2[ POSITION_X_INDEX ] - v1[ POSITION_X_INDEX ];
+		final double dy = v2[ POSITION_Y_INDEX ] - v1[ POSITION_Y_INDEX ];
+		final double dz = v2[ POSITION_Z_INDEX ] - v1[ POSITION_Z_INDEX ];
+		return dx * dx + dy * dy + dz * dz;
+	}
 
-		for ( final String f : POSITION_FEATURES )
-		{
-			thisVal = features.get( f ).doubleValue();
-			otherVal = s.getFeature( f ).doubleValue();
-			sumSquared += ( otherVal - thisVal ) * ( otherVal - thisVal );
-		}
-		return sumSquared;
+	/**
+	 * Returns the slot of the specified feature, to be used with the
+	 * index-based feature accessors. Slots are shared by all spots, and a
+	 * feature keeps its slot for the lifetime of the JVM, so it is safe to
+	 * cache the returned value.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @return the feature slot.
+	 */
+	public static int featureIndex( final String feature )
+	{
+		return SpotFeatureRegistry.index( feature );
+	}
+
+	/**
+	 * Returns the feature key registered at the specified slot.
+	 *
+	 * @param index
+	 *            the feature slot.
+	 * @return the feature key.
+	 */
+	public static String featureKey( final int index )
+	{
+		return SpotFeatureRegistry.key( index );
+	}
+
+	/**
+	 * Returns the number of feature slots allocated so far. Valid slots range
+	 * from <code>0</code> to this number minus one.
+	 *
+	 * @return the number of feature slots.
+	 */
+	public static int featureCount()
+	{
+		return SpotFeatureRegistry.size();
+	}
+
+	private static final boolean isGeometric( final int index )
+	{
+		return index == POSITION_X_INDEX || index == POSITION_Y_INDEX || index == POSITION_Z_INDEX || index == RADIUS_INDEX;
+	}
+
+	private static final boolean isMissing( final double val )
+	{
+		return Double.doubleToRawLongBits( val ) == MISSING_BITS;
+	}
+
+	private static final double[] newValues( final int length )
+	{
+		final double[] v = new double[ length ];
+		Arrays.fill( v, MISSING );
+		return v;
 	}
 
 	/*
@@ -428,6 +649,38 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	/** The position features. */
 	public final static String[] POSITION_FEATURES = new String[] { POSITION_X, POSITION_Y, POSITION_Z };
 
+	/*
+	 * STATIC SLOTS. They must be registered before any spot is created, so
+	 * that the position and radius slots always exist in the value arrays.
+	 */
+
+	/** The slot of the spot quality feature. */
+	public static final int QUALITY_INDEX = SpotFeatureRegistry.index( QUALITY );
+
+	/** The slot of the radius spot feature. */
+	public static final int RADIUS_INDEX = SpotFeatureRegistry.index( RADIUS );
+
+	/** The slot of the spot X position feature. */
+	public static final int POSITION_X_INDEX = SpotFeatureRegistry.index( POSITION_X );
+
+	/** The slot of the spot Y position feature. */
+	public static final int POSITION_Y_INDEX = SpotFeatureRegistry.index( POSITION_Y );
+
+	/** The slot of the spot Z position feature. */
+	public static final int POSITION_Z_INDEX = SpotFeatureRegistry.index( POSITION_Z );
+
+	/** The slot of the spot T position feature. */
+	public static final int POSITION_T_INDEX = SpotFeatureRegistry.index( POSITION_T );
+
+	/** The slot of the frame feature. */
+	public static final int FRAME_INDEX = SpotFeatureRegistry.index( FRAME );
+
+	/** The slot of the visibility feature. */
+	public static final int VISIBILITY_INDEX = SpotFeatureRegistry.index( VISIBLITY );
+
+	/** The slots of the position features. */
+	public final static int[] POSITION_FEATURE_INDICES = new int[] { POSITION_X_INDEX, POSITION_Y_INDEX, POSITION_Z_INDEX };
+
 	/**
 	 * The 7 privileged spot features that must be set by a spot detector:
 	 * {@link #QUALITY}, {@link #POSITION_X}, {@link #POSITION_Y},
@@ -521,7 +774,145 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	@Override
 	public double getDoublePosition( final int d )
 	{
-		return getFeature( POSITION_FEATURES[ d ] );
+		return getFeature( POSITION_FEATURE_INDICES[ d ] );
+	}
+
+	/*
+	 * PRIVATE CLASSES
+	 */
+
+	/**
+	 * A {@link Map} view over the feature values of this spot.
+	 */
+	private final class FeatureMap extends AbstractMap< String, Double >
+	{
+
+		@Override
+		public Double get( final Object key )
+		{
+			if ( !( key instanceof String ) ) { return null; }
+			return getFeature( ( String ) key );
+		}
+
+		@Override
+		public boolean containsKey( final Object key )
+		{
+			return null != get( key );
+		}
+
+		@Override
+		public Double put( final String key, final Double value )
+		{
+			final Double previous = getFeature( key );
+			putFeature( key, value );
+			return previous;
+		}
+
+		@Override
+		public Double remove( final Object key )
+		{
+			if ( !( key instanceof String ) ) { return null; }
+			final int index = SpotFeatureRegistry.indexOrMissing( ( String ) key );
+			if ( index < 0 ) { return null; }
+			final Double previous = getFeature( ( String ) key );
+			removeFeature( index );
+			return previous;
+		}
+
+		@Override
+		public int size()
+		{
+			final double[] v = values;
+			int size = 0;
+			for ( int i = 0; i < v.length; i++ )
+			{
+				if ( !isMissing( v[ i ] ) )
+					size++;
+			}
+			return size;
+		}
+
+		@Override
+		public Set< Map.Entry< String, Double >> entrySet()
+		{
+			return new AbstractSet< Map.Entry< String, Double > >()
+			{
+				@Override
+				public Iterator< Map.Entry< String, Double >> iterator()
+				{
+					return new FeatureIterator();
+				}
+
+				@Override
+				public int size()
+				{
+					return FeatureMap.this.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the feature slots of this spot that are set. The iterator
+	 * walks the live value array, not a copy: values written to existing
+	 * slots during the iteration are visible, depending on whether the
+	 * iterator already passed them. Slots added after the iterator was
+	 * created, which reallocate the array, are not visited.
+	 */
+	private final class FeatureIterator implements Iterator< Map.Entry< String, Double > >
+	{
+
+		/** The value array at creation. Not a copy. */
+		private final double[] array = values;
+
+		private int next = -1;
+
+		private int current = -1;
+
+		private FeatureIterator()
+		{
+			advance();
+		}
+
+		private void advance()
+		{
+			next++;
+			while ( next < array.length && isMissing( array[ next ] ) )
+				next++;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < array.length;
+		}
+
+		@Override
+		public Map.Entry< String, Double > next()
+		{
+			if ( !hasNext() ) { throw new NoSuchElementException(); }
+			current = next;
+			advance();
+			return new AbstractMap.SimpleEntry< String, Double >( SpotFeatureRegistry.key( current ), Double.valueOf( array[ current ] ) )
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Double setValue( final Double value )
+				{
+					putFeature( getKey(), value );
+					return super.setValue( value );
+				}
+			};
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( current < 0 ) { throw new IllegalStateException(); }
+			removeFeature( current );
+			current = -1;
+		}
 	}
 
 	/*
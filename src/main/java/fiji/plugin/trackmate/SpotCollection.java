@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,12 +13,9 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import net.imglib2.algorithm.MultiThreaded;
 
@@ -28,13 +27,27 @@ import net.imglib2.algorithm.MultiThreaded;
  * without clashes.
  * <p>
  * This class is {@link MultiThreaded}. There are a few processes that can
- * benefit from multithreaded computation ({@link #filter(Collection)},
- * {@link #filter(FeatureFilter)}
+ * benefit from multithreaded computation ({@link #setVisible(boolean)},
+ * {@link #collectValues(Collection, boolean)}, {@link #crop()}).
+ * <p>
+ * Spatial queries ({@link #getClosestSpot(Spot, int, boolean)},
+ * {@link #getSpotAt(Spot, int, boolean)},
+ * {@link #getNClosestSpots(Spot, int, int, boolean)} and
+ * {@link #getSpotsWithin(Spot, int, double, boolean)}) go through a per-frame
+ * spatial index, built lazily on first query and kept in sync with additions
+ * and removals. It is rebuilt transparently when a spot is moved.
+ * <p>
+ * Filtering ({@link #filter(Collection)}) goes through an index of the sorted
+ * feature values, built on the first filtering, so that moving a threshold
+ * only visits the spots whose visibility changes. The index assumes it is the
+ * only one to change spot visibility: visibility should be changed through
+ * this collection, and {@link #featuresChanged()} should be called after spot
+ * features were modified without the feature calculators.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  *
  */
-public class SpotCollection implements MultiThreaded
+public class SpotCollection implements MultiThreaded, ExecutorServiceAware
 {
 
 	public static final Double ZERO = Double.valueOf( 0d );
@@ -43,22 +56,33 @@ public class SpotCollection implements MultiThreaded
 
 	public static final String VISIBLITY = "VISIBILITY";
 
+	/** The frame by frame list of spot this object wrap. */
+	private ConcurrentSkipListMap< Integer, Set< Spot >> content = new ConcurrentSkipListMap< Integer, Set< Spot >>();
+
+	private int numThreads;
+
 	/**
-	 * Time units for filtering and cropping operation timeouts. Filtering
-	 * should not take more than 1 minute.
+	 * The executor service multi-threaded operations run on. If
+	 * <code>null</code>, they run on a {@link ComputePool}, that shares the
+	 * global thread budget.
 	 */
-	private static final TimeUnit TIME_OUT_UNITS = TimeUnit.MINUTES;
+	private ExecutorService executorService;
+
+	/** The per-frame spatial indices, built on demand. */
+	private final ConcurrentHashMap< Integer, SpotGridIndex > indices = new ConcurrentHashMap< Integer, SpotGridIndex >();
 
 	/**
-	 * Time for filtering and cropping operation timeouts. Filtering should not
-	 * take more than 1 minute.
+	 * The map of spot IDs to spots, built on the first call to
+	 * {@link #search(int)} and maintained afterwards.
 	 */
-	private static final long TIME_OUT_DELAY = 1;
-
-	/** The frame by frame list of spot this object wrap. */
-	private ConcurrentSkipListMap< Integer, Set< Spot >> content = new ConcurrentSkipListMap< Integer, Set< Spot >>();
+	private volatile ConcurrentHashMap< Integer, Spot > idMap;
 
-	private int numThreads;
+	/**
+	 * The index used for filtering, built on the first call to
+	 * {@link #filter(Collection)} and discarded when the content or the
+	 * features change.
+	 */
+	private volatile SpotFilterIndex filterIndex;
 
 	/*
 	 * CONSTRUCTORS
@@ -88,16 +112,24 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public Spot search( final int ID )
 	{
-		Spot spot = null;
-		for ( final Spot s : iterable( false ) )
+		ConcurrentHashMap< Integer, Spot > map = idMap;
+		if ( null == map )
 		{
-			if ( s.ID() == ID )
+			synchronized ( this )
 			{
-				spot = s;
-				break;
+				map = idMap;
+				if ( null == map )
+				{
+					map = new ConcurrentHashMap< Integer, Spot >( getNSpots( false ) );
+					for ( final Spot s : iterable( false ) )
+					{
+						map.put( Integer.valueOf( s.ID() ), s );
+					}
+					idMap = map;
+				}
 			}
 		}
-		return spot;
+		return map.get( Integer.valueOf( ID ) );
 	}
 
 	@Override
@@ -128,9 +160,22 @@ public class SpotCollection implements MultiThreaded
 			spots = new HashSet< Spot >();
 			content.put( frame, spots );
 		}
-		spots.add( spot );
 		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
-		spot.putFeature( VISIBLITY, ONE );
+		spot.putFeature( Spot.VISIBILITY_INDEX, 1d );
+		if ( spots.add( spot ) )
+		{
+			discardFilterIndex();
+			final SpotGridIndex index = indices.get( frame );
+			if ( null != index )
+			{
+				index.add( spot );
+			}
+			final ConcurrentHashMap< Integer, Spot > map = idMap;
+			if ( null != map )
+			{
+				map.put( Integer.valueOf( spot.ID() ), spot );
+			}
+		}
 	}
 
 	/**
@@ -144,7 +189,20 @@ public class SpotCollection implements MultiThreaded
 	{
 		final Set< Spot > spots = content.get( frame );
 		if ( null == spots ) { return false; }
-		return spots.remove( spot );
+		if ( !spots.remove( spot ) ) { return false; }
+		discardFilterIndex();
+
+		final SpotGridIndex index = indices.get( frame );
+		if ( null != index )
+		{
+			index.remove( spot );
+		}
+		final ConcurrentHashMap< Integer, Spot > map = idMap;
+		if ( null != map )
+		{
+			map.remove( Integer.valueOf( spot.ID() ) );
+		}
+		return true;
 	}
 
 	/**
@@ -155,10 +213,10 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public void setVisible( final boolean visible )
 	{
-		final Double val = visible ? ONE : ZERO;
+		final double val = visible ? 1d : 0d;
 		final Collection< Integer > frames = content.keySet();
 
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >();
 		for ( final Integer frame : frames )
 		{
 
@@ -171,108 +229,77 @@ public class SpotCollection implements MultiThreaded
 					final Set< Spot > spots = content.get( frame );
 					for ( final Spot spot : spots )
 					{
-						spot.putFeature( VISIBLITY, val );
+						spot.putFeature( Spot.VISIBILITY_INDEX, val );
 					}
 
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.setVisible()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "setVisible()" );
+		discardFilterIndex();
 	}
 
 	/**
 	 * Filters out the content of this collection using the specified
 	 * {@link FeatureFilter}. Spots that are filtered out are marked as
 	 * invisible, and visible otherwise.
+	 * <p>
+	 * Unlike {@link #filter(Collection)}, this method does not build a filter
+	 * index, and visits all the spots in a single multithreaded pass. It is
+	 * meant for one-off filtering, such as the initial filtering.
 	 *
 	 * @param featurefilter
 	 *            the filter to use.
+	 * @return a new list containing the spots whose visibility changed.
 	 */
-	public final void filter( final FeatureFilter featurefilter )
+	public final synchronized List< Spot > filter( final FeatureFilter featurefilter )
 	{
 
 		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >();
+		final List< List< Spot >> changes = new ArrayList< List< Spot >>();
+		final int featureIndex = Spot.featureIndex( featurefilter.feature );
+		final double tval = featurefilter.value.doubleValue();
+		final boolean isAbove = featurefilter.isAbove;
 
 		for ( final Integer frame : frames )
 		{
-
+			final List< Spot > changed = new ArrayList< Spot >();
+			changes.add( changed );
 			final Runnable command = new Runnable()
 			{
 				@Override
 				public void run()
 				{
 
-					Double val, tval;
-
 					final Set< Spot > spots = content.get( frame );
-					tval = featurefilter.value;
-
-					if ( featurefilter.isAbove )
-					{
-
-						for ( final Spot spot : spots )
-						{
-							val = spot.getFeature( featurefilter.feature );
-							if ( val.compareTo( tval ) < 0 )
-							{
-								spot.putFeature( VISIBLITY, ZERO );
-							}
-							else
-							{
-								spot.putFeature( VISIBLITY, ONE );
-							}
-						}
-
-					}
-					else
+					for ( final Spot spot : spots )
 					{
-
-						for ( final Spot spot : spots )
+						final int comparison = Double.compare( spot.getFeature( featureIndex ), tval );
+						final boolean visible = isAbove ? comparison >= 0 : comparison <= 0;
+						final double oldVisibility = spot.getFeature( Spot.VISIBILITY_INDEX );
+						if ( visible != oldVisibility > 0d || Double.isNaN( oldVisibility ) )
 						{
-							val = spot.getFeature( featurefilter.feature );
-							if ( val.compareTo( tval ) > 0 )
-							{
-								spot.putFeature( VISIBLITY, ZERO );
-							}
-							else
-							{
-								spot.putFeature( VISIBLITY, ONE );
-							}
+							spot.putFeature( Spot.VISIBILITY_INDEX, visible ? 1d : 0d );
+							changed.add( spot );
 						}
 					}
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-			}
-		}
-		catch ( final InterruptedException e )
+		execute( commands, "filter()" );
+		discardFilterIndex();
+
+		final List< Spot > changed = new ArrayList< Spot >();
+		for ( final List< Spot > list : changes )
 		{
-			e.printStackTrace();
+			changed.addAll( list );
 		}
+		return changed;
 	}
 
 	/**
@@ -280,74 +307,40 @@ public class SpotCollection implements MultiThreaded
 	 * {@link FeatureFilter} collection. Spots that are filtered out are marked
 	 * as invisible, and visible otherwise. To be marked as visible, a spot must
 	 * pass <b>all</b> of the specified filters (AND chaining).
+	 * <p>
+	 * Successive calls are incremental: when only the thresholds changed since
+	 * the previous call, only the spots whose visibility changes are visited.
 	 *
 	 * @param filters
 	 *            the filter collection to use.
+	 * @return a new list containing the spots whose visibility changed.
 	 */
-	public final void filter( final Collection< FeatureFilter > filters )
+	public final synchronized List< Spot > filter( final Collection< FeatureFilter > filters )
 	{
-
-		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
-
-		for ( final Integer frame : frames )
+		SpotFilterIndex index = filterIndex;
+		if ( null == index || !index.isValid() || index.size() != getNSpots( false ) )
 		{
-			final Runnable command = new Runnable()
+			discardFilterIndex();
+			final Spot[] spots = new Spot[ getNSpots( false ) ];
+			int i = 0;
+			for ( final Spot spot : iterable( false ) )
 			{
-				@Override
-				public void run()
-				{
-					final Set< Spot > spots = content.get( frame );
-
-					Double val, tval;
-					boolean isAbove, shouldNotBeVisible;
-					for ( final Spot spot : spots )
-					{
-
-						shouldNotBeVisible = false;
-						for ( final FeatureFilter featureFilter : filters )
-						{
-
-							val = spot.getFeature( featureFilter.feature );
-							tval = featureFilter.value;
-							isAbove = featureFilter.isAbove;
-
-							if ( isAbove && val.compareTo( tval ) < 0 || !isAbove && val.compareTo( tval ) > 0 )
-							{
-								shouldNotBeVisible = true;
-								break;
-							}
-						} // loop over filters
-
-						if ( shouldNotBeVisible )
-						{
-							spot.putFeature( VISIBLITY, ZERO );
-						}
-						else
-						{
-							spot.putFeature( VISIBLITY, ONE );
-						}
-					} // loop over spots
-
-				}
-
-			};
-			executors.execute( command );
-		}
-
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
+				spots[ i++ ] = spot;
 			}
+			index = new SpotFilterIndex( spots );
 		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		final List< Spot > changed = index.filter( filters );
+		filterIndex = index;
+		return changed;
+	}
+
+	/**
+	 * Notifies this collection that the features of some of its spots were
+	 * modified. The next filtering will visit all the spots again.
+	 */
+	public void featuresChanged()
+	{
+		discardFilterIndex();
 	}
 
 	/**
@@ -367,29 +360,10 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final Spot getClosestSpot( final Spot location, final int frame, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		if ( null == spots )
+		final SpotGridIndex index = getIndex( frame );
+		if ( null == index )
 			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		Spot target = null;
-		for ( final Spot s : spots )
-		{
-
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
-
-			d2 = s.squareDistanceTo( location );
-			if ( d2 < minDist )
-			{
-				minDist = d2;
-				target = s;
-			}
-
-		}
-		return target;
+		return index.closest( location, visibleSpotsOnly );
 	}
 
 	/**
@@ -411,33 +385,9 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final Spot getSpotAt( final Spot location, final int frame, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		if ( null == spots || spots.isEmpty() ) { return null; }
-
-		final TreeMap< Double, Spot > distanceToSpot = new TreeMap< Double, Spot >();
-		double d2;
-		for ( final Spot s : spots )
-		{
-
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
-
-			d2 = s.squareDistanceTo( location );
-			if ( d2 < s.getFeature( Spot.RADIUS ) * s.getFeature( Spot.RADIUS ) )
-			{
-				distanceToSpot.put( d2, s );
-			}
-		}
-		if ( distanceToSpot.isEmpty() )
-		{
-			return null;
-		}
-		else
-		{
-			return distanceToSpot.firstEntry().getValue();
-		}
+		final SpotGridIndex index = getIndex( frame );
+		if ( null == index ) { return null; }
+		return index.spotAt( location, visibleSpotsOnly );
 	}
 
 	/**
@@ -459,32 +409,71 @@ public class SpotCollection implements MultiThreaded
 	 * @return a new list, with of at most <code>n</code> spots, ordered by
 	 *         increasing distance from the specified location.
 	 */
-	public final List< Spot > getNClosestSpots( final Spot location, final int frame, int n, final boolean visibleSpotsOnly )
+	public final List< Spot > getNClosestSpots( final Spot location, final int frame, final int n, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		final TreeMap< Double, Spot > distanceToSpot = new TreeMap< Double, Spot >();
-
-		double d2;
-		for ( final Spot s : spots )
-		{
+		final SpotGridIndex index = getIndex( frame );
+		if ( null == index ) { return new ArrayList< Spot >( 0 ); }
+		return index.nClosest( location, n, visibleSpotsOnly );
+	}
 
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
+	/**
+	 * Returns the {@link Spot}s whose center lies within the specified distance
+	 * of the given location (encoded as a Spot), contained in the frame
+	 * <code>frame</code>. The returned list is not sorted.
+	 *
+	 * @param location
+	 *            the location to search around.
+	 * @param frame
+	 *            the frame to inspect.
+	 * @param radius
+	 *            the search radius, in physical units.
+	 * @param visibleSpotsOnly
+	 *            if true, will only search though visible spots. If false, will
+	 *            search through all spots.
+	 * @return a new list of spots, possibly empty.
+	 */
+	public final List< Spot > getSpotsWithin( final Spot location, final int frame, final double radius, final boolean visibleSpotsOnly )
+	{
+		final SpotGridIndex index = getIndex( frame );
+		if ( null == index ) { return new ArrayList< Spot >( 0 ); }
+		return index.within( location, radius, visibleSpotsOnly );
+	}
 
-			d2 = s.squareDistanceTo( location );
-			distanceToSpot.put( d2, s );
+	/**
+	 * Drops the filter index, so that the next filtering builds a new one.
+	 */
+	private void discardFilterIndex()
+	{
+		final SpotFilterIndex index = filterIndex;
+		filterIndex = null;
+		if ( null != index )
+		{
+			index.discard();
 		}
+	}
 
-		final List< Spot > selectedSpots = new ArrayList< Spot >( n );
-		final Iterator< Double > it = distanceToSpot.keySet().iterator();
-		while ( n > 0 && it.hasNext() )
+	/**
+	 * Returns the spatial index for the specified frame, building or
+	 * rebuilding it if needed. Returns <code>null</code> if the frame does not
+	 * exist.
+	 */
+	private SpotGridIndex getIndex( final int frame )
+	{
+		final Integer key = Integer.valueOf( frame );
+		final Set< Spot > spots = content.get( key );
+		if ( null == spots ) { return null; }
+
+		SpotGridIndex index = indices.get( key );
+		if ( null == index || !index.isValidFor( spots ) || index.needsRebuild() )
 		{
-			selectedSpots.add( distanceToSpot.get( it.next() ) );
-			n--;
+			if ( null != index )
+			{
+				index.discard();
+			}
+			index = new SpotGridIndex( spots );
+			indices.put( key, index );
 		}
-		return selectedSpots;
+		return index;
 	}
 
 	/**
@@ -501,6 +490,9 @@ public class SpotCollection implements MultiThreaded
 		if ( visibleSpotsOnly )
 		{
 
+			final SpotFilterIndex index = filterIndex;
+			if ( null != index && index.size() == getNSpots( false ) ) { return index.getNVisible(); }
+
 			final Iterator< Spot > it = iterator( true );
 			while ( it.hasNext() )
 			{
@@ -570,7 +562,7 @@ public class SpotCollection implements MultiThreaded
 	public Map< String, double[] > collectValues( final Collection< String > features, final boolean visibleOnly )
 	{
 		final Map< String, double[] > featureValues = new ConcurrentHashMap< String, double[] >( features.size() );
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >();
 
 		for ( final String feature : features )
 		{
@@ -584,22 +576,10 @@ public class SpotCollection implements MultiThreaded
 				}
 
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.collectValues()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "collectValues()" );
 
 		return featureValues;
 	}
@@ -752,9 +732,31 @@ public class SpotCollection implements MultiThreaded
 		for ( final Spot spot : value )
 		{
 			spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
-			spot.putFeature( VISIBLITY, ZERO );
+			spot.putFeature( Spot.VISIBILITY_INDEX, 0d );
+		}
+		final Set< Spot > previous = content.put( frame, value );
+		final SpotGridIndex index = indices.remove( Integer.valueOf( frame ) );
+		if ( null != index )
+		{
+			index.discard();
+		}
+		discardFilterIndex();
+
+		final ConcurrentHashMap< Integer, Spot > map = idMap;
+		if ( null != map )
+		{
+			if ( null != previous )
+			{
+				for ( final Spot spot : previous )
+				{
+					map.remove( Integer.valueOf( spot.ID() ) );
+				}
+			}
+			for ( final Spot spot : value )
+			{
+				map.put( Integer.valueOf( spot.ID() ), spot );
+			}
 		}
-		content.put( frame, value );
 	}
 
 	/**
@@ -807,6 +809,13 @@ public class SpotCollection implements MultiThreaded
 	public void clear()
 	{
 		content.clear();
+		for ( final SpotGridIndex index : indices.values() )
+		{
+			index.discard();
+		}
+		indices.clear();
+		idMap = null;
+		discardFilterIndex();
 	}
 
 	/*
@@ -831,6 +840,48 @@ public class SpotCollection implements MultiThreaded
 		return numThreads;
 	}
 
+	/**
+	 * Sets the executor service the multi-threaded operations of this
+	 * collection run on. If <code>null</code> or shut down, they run on a
+	 * {@link ComputePool}, that shares the global thread budget.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Runs the specified commands on the executor service of this collection,
+	 * and waits for them to complete.
+	 *
+	 * @param commands
+	 *            the commands to run.
+	 * @param caller
+	 *            the name of the calling method, for error messages.
+	 */
+	private void execute( final Collection< Runnable > commands, final String caller )
+	{
+		ExecutorService service = executorService;
+		if ( null == service || service.isShutdown() )
+		{
+			// Does not create threads: it submits to the shared pool.
+			service = new ComputePool( numThreads );
+		}
+		try
+		{
+			if ( !ComputePool.invokeAll( service, commands ) )
+			{
+				System.err.println( "[SpotCollection." + caller + "] Cancelled." );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			System.err.println( "[SpotCollection." + caller + "] Interrupted." );
+		}
+	}
+
 	/*
 	 * PRIVATE CLASSES
 	 */
@@ -962,7 +1013,7 @@ public class SpotCollection implements MultiThreaded
 				}
 				next = contentIterator.next();
 				// Is it visible?
-				if ( next.getFeature( VISIBLITY ).compareTo( ZERO ) > 0 )
+				if ( next.getFeature( Spot.VISIBILITY_INDEX ) > 0 )
 				{
 					// Yes! Be happy and return
 					return;
@@ -1027,7 +1078,7 @@ public class SpotCollection implements MultiThreaded
 				}
 				next = contentIterator.next();
 				// Is it visible?
-				if ( next.getFeature( VISIBLITY ).compareTo( ZERO ) > 0 )
+				if ( next.getFeature( Spot.VISIBILITY_INDEX ) > 0 )
 				{
 					// Yes. Be happy, and return.
 					return;
@@ -1067,9 +1118,10 @@ public class SpotCollection implements MultiThreaded
 	{
 		final SpotCollection ns = new SpotCollection();
 		ns.setNumThreads( numThreads );
+		ns.setExecutorService( executorService );
 
 		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >();
 		for ( final Integer frame : frames )
 		{
 
@@ -1083,31 +1135,21 @@ public class SpotCollection implements MultiThreaded
 
 					for ( final Spot spot : fc )
 					{
-						if ( spot.getFeature( VISIBLITY ).compareTo( ZERO ) > 0 )
+						if ( spot.getFeature( Spot.VISIBILITY_INDEX ) > 0 )
 						{
 							nfc.add( spot );
-							spot.putFeature( VISIBLITY, ZERO );
+							spot.putFeature( Spot.VISIBILITY_INDEX, 0d );
 						}
 					}
 					ns.content.put( frame, nfc );
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.crop()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while cropping." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "crop()" );
+		// Visibility was changed behind the filter index.
+		discardFilterIndex();
 		return ns;
 	}
 
@@ -0,0 +1,93 @@
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global registry that interns spot feature keys to integer slots.
+ * <p>
+ * Each {@link Spot} stores its feature values in a primitive
+ * <code>double</code> array, indexed by the slots handed out by this registry.
+ * A slot is allocated the first time a feature key is seen, and is never
+ * released nor reassigned afterwards, so that slot indices can be safely
+ * cached by hot code paths (cost functions, filters, overlays).
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+final class SpotFeatureRegistry
+{
+
+	/** Maps feature keys to their slot. */
+	private static final ConcurrentHashMap< String, Integer > INDICES = new ConcurrentHashMap< String, Integer >();
+
+	/** Maps slots to their feature key. */
+	private static volatile String[] keys = new String[ 0 ];
+
+	private SpotFeatureRegistry()
+	{}
+
+	/**
+	 * Returns the slot of the specified feature key, allocating a new one if
+	 * the key was never seen before.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @return the slot of this feature.
+	 */
+	static int index( final String feature )
+	{
+		final Integer index = INDICES.get( feature );
+		if ( null != index ) { return index.intValue(); }
+		return register( feature );
+	}
+
+	/**
+	 * Returns the slot of the specified feature key, or <code>-1</code> if
+	 * this key was never registered. Does not allocate a new slot.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @return the slot of this feature, or <code>-1</code>.
+	 */
+	static int indexOrMissing( final String feature )
+	{
+		final Integer index = INDICES.get( feature );
+		if ( null == index ) { return -1; }
+		return index.intValue();
+	}
+
+	/**
+	 * Returns the feature key registered at the specified slot.
+	 *
+	 * @param index
+	 *            the slot.
+	 * @return the feature key.
+	 */
+	static String key( final int index )
+	{
+		return keys[ index ];
+	}
+
+	/**
+	 * Returns the number of slots currently allocated.
+	 *
+	 * @return the number of registered features.
+	 */
+	static int size()
+	{
+		return keys.length;
+	}
+
+	private static synchronized int register( final String feature )
+	{
+		final Integer existing = INDICES.get( feature );
+		if ( null != existing ) { return existing.intValue(); }
+
+		final int index = keys.length;
+		final String[] newKeys = Arrays.copyOf( keys, index + 1 );
+		newKeys[ index ] = feature;
+		keys = newKeys;
+		INDICES.put( feature, Integer.valueOf( index ) );
+		return index;
+	}
+}
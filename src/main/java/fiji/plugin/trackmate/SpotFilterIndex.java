@@ -0,0 +1,111 @@
+package fiji.plugin.trackmate;
+
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureFilterIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link FeatureFilterIndex} over all the spots of a {@link SpotCollection},
+ * that writes the result of filtering in the {@link Spot#VISIBILITY_INDEX}
+ * feature of the spots whose visibility changed.
+ * <p>
+ * The first filtering synchronizes the visibility of all the spots with the
+ * index. Afterwards, the index assumes that it is the only one to change spot
+ * visibility. The owner is responsible for discarding the index when spots
+ * are added or removed, or when their features change, and for calling
+ * {@link #discard()} on the indices it drops. Changes to spot geometry are
+ * detected (see {@link #isValid()}).
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+class SpotFilterIndex extends FeatureFilterIndex
+{
+
+	private final Spot[] spots;
+
+	/** Marked stale when a spot of this index is moved or resized. */
+	private final GeometryStamp stamp = new GeometryStamp();
+
+	private boolean synced = false;
+
+	SpotFilterIndex( final Spot[] spots )
+	{
+		super( spots.length );
+		this.spots = spots;
+		for ( final Spot spot : spots )
+		{
+			spot.addStamp( stamp );
+		}
+	}
+
+	@Override
+	protected double[] collect( final String feature )
+	{
+		final int featureIndex = Spot.featureIndex( feature );
+		final double[] values = new double[ spots.length ];
+		for ( int i = 0; i < spots.length; i++ )
+		{
+			values[ i ] = spots[ i ].getFeature( featureIndex );
+		}
+		return values;
+	}
+
+	/**
+	 * Returns <code>false</code> if the position or the radius of a spot was
+	 * modified since this index was built.
+	 */
+	boolean isValid()
+	{
+		return !stamp.isStale();
+	}
+
+	/**
+	 * Marks this index as stale, so that its spots drop its stamp. Called by
+	 * the owner when it stops using this index.
+	 */
+	void discard()
+	{
+		stamp.invalidate();
+	}
+
+	/**
+	 * Applies the specified filters and updates the visibility of the spots
+	 * accordingly.
+	 *
+	 * @param filters
+	 *            the filters to apply.
+	 * @return a new list containing the spots whose visibility changed.
+	 */
+	synchronized List< Spot > filter( final Collection< FeatureFilter > filters )
+	{
+		final int[] changed = update( filters );
+		if ( !synced )
+		{
+			synced = true;
+			final List< Spot > list = new ArrayList< Spot >();
+			for ( int i = 0; i < spots.length; i++ )
+			{
+				final boolean visible = isVisible( i );
+				final double oldVisibility = spots[ i ].getFeature( Spot.VISIBILITY_INDEX );
+				if ( visible != oldVisibility > 0d || Double.isNaN( oldVisibility ) )
+				{
+					spots[ i ].putFeature( Spot.VISIBILITY_INDEX, visible ? 1d : 0d );
+					list.add( spots[ i ] );
+				}
+			}
+			return list;
+		}
+
+		final List< Spot > list = new ArrayList< Spot >( changed.length );
+		for ( final int ordinal : changed )
+		{
+			final Spot spot = spots[ ordinal ];
+			spot.putFeature( Spot.VISIBILITY_INDEX, isVisible( ordinal ) ? 1d : 0d );
+			list.add( spot );
+		}
+		return list;
+	}
+}
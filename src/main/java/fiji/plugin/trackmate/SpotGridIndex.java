@@ -0,0 +1,566 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A uniform-grid spatial index over the spots of a single frame of a
+ * {@link SpotCollection}, used to answer closest-spot, spot-at, radius and
+ * k-nearest neighbor queries without scanning the whole frame.
+ * <p>
+ * The grid is laid over the bounding box of the spots it is built from, with
+ * cubic cells sized so that each cell holds a few spots on average. Spots are
+ * stored cell by cell in a single array (compressed-row layout). Spots added
+ * after construction are kept in a small overflow list that is scanned
+ * linearly; spots removed after construction are cleared from their cell. The
+ * owner is responsible for rebuilding the index when the overflow becomes too
+ * large (see {@link #needsRebuild()}) or when spots are moved (see
+ * {@link #isValidFor(Collection)}), and for calling {@link #discard()} on the
+ * indices it drops.
+ * <p>
+ * Moving a spot only invalidates the indices of the frames it is in (see
+ * {@link GeometryStamp}).
+ * <p>
+ * Visibility is not indexed: it is checked at query time, so that filtering
+ * does not invalidate the index.
+ * <p>
+ * All methods are synchronized, so that an index can be shared by the UI and
+ * processing threads.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+class SpotGridIndex
+{
+
+	/** Target mean number of spots per cell. */
+	private static final double SPOTS_PER_CELL = 2d;
+
+	/**
+	 * Do not let the grid grow larger than this factor times the number of
+	 * spots.
+	 */
+	private static final int MAX_CELLS_PER_SPOT = 4;
+
+	private final double cellSize;
+
+	private final double[] origin = new double[ 3 ];
+
+	private final int[] dims = new int[ 3 ];
+
+	/** Spots, sorted by cell. Removed spots are set to <code>null</code>. */
+	private final Spot[] spots;
+
+	/**
+	 * Start index of each cell in {@link #spots}. Has one more element than
+	 * the number of cells.
+	 */
+	private final int[] cellStart;
+
+	/** Spots added after construction. */
+	private final List< Spot > overflow = new ArrayList< Spot >();
+
+	/** Largest radius of the spots in this index. */
+	private double maxRadius;
+
+	/** Marked stale when a spot of this index is moved or resized. */
+	private final GeometryStamp stamp = new GeometryStamp();
+
+	/** The collection this index was built from. */
+	private final Collection< Spot > source;
+
+	/** Number of spots currently in this index. */
+	private int count;
+
+	SpotGridIndex( final Collection< Spot > content )
+	{
+		this.source = content;
+		final int nspots = content.size();
+		this.count = nspots;
+		this.spots = new Spot[ nspots ];
+
+		// Bounding box and max radius.
+		final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		double mr = 0d;
+		for ( final Spot spot : content )
+		{
+			// Registered before reading, so that a concurrent move is seen.
+			spot.addStamp( stamp );
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double x = spot.getFeature( Spot.POSITION_FEATURE_INDICES[ d ] );
+				if ( x < min[ d ] )
+					min[ d ] = x;
+				if ( x > max[ d ] )
+					max[ d ] = x;
+			}
+			final double r = spot.getFeature( Spot.RADIUS_INDEX );
+			if ( r > mr )
+				mr = r;
+		}
+		this.maxRadius = mr;
+
+		if ( nspots == 0 )
+		{
+			cellSize = 1d;
+			dims[ 0 ] = dims[ 1 ] = dims[ 2 ] = 1;
+			cellStart = new int[] { 0, 0 };
+			return;
+		}
+
+		/*
+		 * Cell size. We only account for the dimensions that have a non-zero
+		 * extent, so that 2D frames (all Z equal) get a 2D grid.
+		 */
+		double volume = 1d;
+		int ndims = 0;
+		double largestExtent = 0d;
+		for ( int d = 0; d < 3; d++ )
+		{
+			origin[ d ] = min[ d ];
+			final double extent = max[ d ] - min[ d ];
+			if ( extent > 0 )
+			{
+				volume *= extent;
+				ndims++;
+				largestExtent = Math.max( largestExtent, extent );
+			}
+		}
+		double cs = ( ndims == 0 ) ? 1d : Math.pow( volume * SPOTS_PER_CELL / nspots, 1d / ndims );
+		if ( !( cs > 0 ) || Double.isInfinite( cs ) )
+			cs = Math.max( 1d, largestExtent );
+
+		// Cap the number of cells.
+		while ( numCells( min, max, cs ) > ( double ) MAX_CELLS_PER_SPOT * nspots + 1 )
+			cs *= 1.5;
+		this.cellSize = cs;
+		for ( int d = 0; d < 3; d++ )
+			dims[ d ] = 1 + ( int ) ( ( max[ d ] - min[ d ] ) / cs );
+
+		// Counting sort of the spots into cells.
+		final int ncells = dims[ 0 ] * dims[ 1 ] * dims[ 2 ];
+		final int[] cellOf = new int[ nspots ];
+		final Spot[] unsorted = new Spot[ nspots ];
+		cellStart = new int[ ncells + 1 ];
+		int index = 0;
+		for ( final Spot spot : content )
+		{
+			final int cell = cellOf( spot );
+			cellOf[ index ] = cell;
+			unsorted[ index ] = spot;
+			cellStart[ cell + 1 ]++;
+			index++;
+		}
+		for ( int c = 0; c < ncells; c++ )
+			cellStart[ c + 1 ] += cellStart[ c ];
+		final int[] fill = new int[ ncells ];
+		for ( int i = 0; i < nspots; i++ )
+		{
+			final int cell = cellOf[ i ];
+			spots[ cellStart[ cell ] + fill[ cell ] ] = unsorted[ i ];
+			fill[ cell ]++;
+		}
+	}
+
+	/*
+	 * MAINTENANCE
+	 */
+
+	/**
+	 * Returns <code>true</code> if this index is still valid for the specified
+	 * frame content, that is: if it was built from and kept in sync with this
+	 * content, and if no spot was moved or resized since it was built.
+	 */
+	synchronized boolean isValidFor( final Collection< Spot > content )
+	{
+		return content == source && count == content.size() && !stamp.isStale();
+	}
+
+	/**
+	 * Marks this index as stale, so that its spots drop its stamp. Called by
+	 * the owner when it stops using this index.
+	 */
+	void discard()
+	{
+		stamp.invalidate();
+	}
+
+	/**
+	 * Returns <code>true</code> if the overflow list became too large for
+	 * queries to stay efficient.
+	 */
+	synchronized boolean needsRebuild()
+	{
+		return overflow.size() > 32 && overflow.size() > spots.length / 4;
+	}
+
+	synchronized void add( final Spot spot )
+	{
+		spot.addStamp( stamp );
+		overflow.add( spot );
+		count++;
+		final double r = spot.getFeature( Spot.RADIUS_INDEX );
+		if ( r > maxRadius )
+			maxRadius = r;
+	}
+
+	synchronized void remove( final Spot spot )
+	{
+		spot.removeStamp( stamp );
+		if ( overflow.remove( spot ) )
+		{
+			count--;
+			return;
+		}
+		final int cell = cellOf( spot );
+		for ( int i = cellStart[ cell ]; i < cellStart[ cell + 1 ]; i++ )
+		{
+			if ( spot.equals( spots[ i ] ) )
+			{
+				spots[ i ] = null;
+				count--;
+				return;
+			}
+		}
+	}
+
+	/*
+	 * QUERIES
+	 */
+
+	/**
+	 * Returns the closest spot to the specified location, or <code>null</code>
+	 * if there are no candidates.
+	 */
+	synchronized Spot closest( final Spot location, final boolean visibleSpotsOnly )
+	{
+		final NearestCollector collector = new NearestCollector( 1 );
+		search( location, visibleSpotsOnly, collector );
+		return collector.size == 0 ? null : collector.spots[ 0 ];
+	}
+
+	/**
+	 * Returns at most <code>n</code> closest spots to the specified location,
+	 * ordered by increasing distance.
+	 */
+	synchronized List< Spot > nClosest( final Spot location, final int n, final boolean visibleSpotsOnly )
+	{
+		if ( n <= 0 ) { return new ArrayList< Spot >( 0 ); }
+		final NearestCollector collector = new NearestCollector( Math.min( n, size() ) );
+		search( location, visibleSpotsOnly, collector );
+		return collector.sorted();
+	}
+
+	/**
+	 * Returns the closest spot such that the location is strictly within its
+	 * radius, or <code>null</code>.
+	 */
+	synchronized Spot spotAt( final Spot location, final boolean visibleSpotsOnly )
+	{
+		final double[] pos = position( location );
+		Spot target = null;
+		double best = Double.POSITIVE_INFINITY;
+
+		for ( final Spot s : overflow )
+		{
+			if ( visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+				continue;
+			final double d2 = s.squareDistanceTo( location );
+			final double r = s.getFeature( Spot.RADIUS_INDEX );
+			if ( d2 < r * r && d2 < best )
+			{
+				best = d2;
+				target = s;
+			}
+		}
+
+		final int[] lo = new int[ 3 ];
+		final int[] hi = new int[ 3 ];
+		if ( !cellRange( pos, maxRadius, lo, hi ) ) { return target; }
+		for ( int z = lo[ 2 ]; z <= hi[ 2 ]; z++ )
+		{
+			for ( int y = lo[ 1 ]; y <= hi[ 1 ]; y++ )
+			{
+				for ( int x = lo[ 0 ]; x <= hi[ 0 ]; x++ )
+				{
+					final int cell = x + dims[ 0 ] * ( y + dims[ 1 ] * z );
+					for ( int i = cellStart[ cell ]; i < cellStart[ cell + 1 ]; i++ )
+					{
+						final Spot s = spots[ i ];
+						if ( null == s || visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+							continue;
+						final double d2 = s.squareDistanceTo( location );
+						final double r = s.getFeature( Spot.RADIUS_INDEX );
+						if ( d2 < r * r && d2 < best )
+						{
+							best = d2;
+							target = s;
+						}
+					}
+				}
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Returns the spots whose center is within the specified radius of the
+	 * specified location, in no particular order.
+	 */
+	synchronized List< Spot > within( final Spot location, final double radius, final boolean visibleSpotsOnly )
+	{
+		final List< Spot > found = new ArrayList< Spot >();
+		final double r2 = radius * radius;
+		for ( final Spot s : overflow )
+		{
+			if ( visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+				continue;
+			if ( s.squareDistanceTo( location ) <= r2 )
+				found.add( s );
+		}
+
+		final int[] lo = new int[ 3 ];
+		final int[] hi = new int[ 3 ];
+		if ( !cellRange( position( location ), radius, lo, hi ) ) { return found; }
+		for ( int z = lo[ 2 ]; z <= hi[ 2 ]; z++ )
+		{
+			for ( int y = lo[ 1 ]; y <= hi[ 1 ]; y++ )
+			{
+				for ( int x = lo[ 0 ]; x <= hi[ 0 ]; x++ )
+				{
+					final int cell = x + dims[ 0 ] * ( y + dims[ 1 ] * z );
+					for ( int i = cellStart[ cell ]; i < cellStart[ cell + 1 ]; i++ )
+					{
+						final Spot s = spots[ i ];
+						if ( null == s || visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+							continue;
+						if ( s.squareDistanceTo( location ) <= r2 )
+							found.add( s );
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Ring search around the cell of the location: rings of cells of growing
+	 * Chebyshev radius are visited until the collector is full and its worst
+	 * candidate is closer than any cell of the next ring can be.
+	 */
+	private void search( final Spot location, final boolean visibleSpotsOnly, final NearestCollector collector )
+	{
+		if ( collector.capacity == 0 ) { return; }
+
+		for ( final Spot s : overflow )
+		{
+			if ( visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+				continue;
+			collector.offer( s, s.squareDistanceTo( location ) );
+		}
+
+		final double[] pos = position( location );
+		final int[] c = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			c[ d ] = clamp( ( int ) Math.floor( ( pos[ d ] - origin[ d ] ) / cellSize ), dims[ d ] );
+		final int maxRing = Math.max( dims[ 0 ], Math.max( dims[ 1 ], dims[ 2 ] ) );
+
+		for ( int r = 0; r <= maxRing; r++ )
+		{
+			for ( int z = c[ 2 ] - r; z <= c[ 2 ] + r; z++ )
+			{
+				if ( z < 0 || z >= dims[ 2 ] )
+					continue;
+				final boolean zOnShell = Math.abs( z - c[ 2 ] ) == r;
+				for ( int y = c[ 1 ] - r; y <= c[ 1 ] + r; y++ )
+				{
+					if ( y < 0 || y >= dims[ 1 ] )
+						continue;
+					final boolean onShell = zOnShell || Math.abs( y - c[ 1 ] ) == r;
+					// Inside the shell, only the two extreme cells along X.
+					final int step = ( onShell || r == 0 ) ? 1 : 2 * r;
+					for ( int x = c[ 0 ] - r; x <= c[ 0 ] + r; x += step )
+					{
+						if ( x < 0 || x >= dims[ 0 ] )
+							continue;
+						final int cell = x + dims[ 0 ] * ( y + dims[ 1 ] * z );
+						for ( int i = cellStart[ cell ]; i < cellStart[ cell + 1 ]; i++ )
+						{
+							final Spot s = spots[ i ];
+							if ( null == s || visibleSpotsOnly && s.getFeature( Spot.VISIBILITY_INDEX ) <= 0 )
+								continue;
+							collector.offer( s, s.squareDistanceTo( location ) );
+						}
+					}
+				}
+			}
+
+			// Any cell in ring r+1 is at least r cells away.
+			if ( collector.isFull() )
+			{
+				final double bound = r * cellSize;
+				if ( collector.worst() <= bound * bound )
+					break;
+			}
+		}
+	}
+
+	private int size()
+	{
+		return spots.length + overflow.size();
+	}
+
+	private int cellOf( final Spot spot )
+	{
+		int cell = 0;
+		for ( int d = 2; d >= 0; d-- )
+		{
+			final double x = spot.getFeature( Spot.POSITION_FEATURE_INDICES[ d ] );
+			final int i = clamp( ( int ) Math.floor( ( x - origin[ d ] ) / cellSize ), dims[ d ] );
+			cell = cell * dims[ d ] + i;
+		}
+		return cell;
+	}
+
+	/**
+	 * Computes the range of cells that intersect the box of half-size
+	 * <code>radius</code> centered on the specified position. Returns
+	 * <code>false</code> if this box does not intersect the grid.
+	 */
+	private boolean cellRange( final double[] pos, final double radius, final int[] lo, final int[] hi )
+	{
+		for ( int d = 0; d < 3; d++ )
+		{
+			final int l = ( int ) Math.floor( ( pos[ d ] - radius - origin[ d ] ) / cellSize );
+			final int h = ( int ) Math.floor( ( pos[ d ] + radius - origin[ d ] ) / cellSize );
+			if ( h < 0 || l >= dims[ d ] )
+				return false;
+			lo[ d ] = Math.max( 0, l );
+			hi[ d ] = Math.min( dims[ d ] - 1, h );
+		}
+		return true;
+	}
+
+	private static final double[] position( final Spot location )
+	{
+		final double[] pos = new double[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			pos[ d ] = location.getFeature( Spot.POSITION_FEATURE_INDICES[ d ] );
+		return pos;
+	}
+
+	private static final int clamp( final int i, final int dim )
+	{
+		return i < 0 ? 0 : ( i >= dim ? dim - 1 : i );
+	}
+
+	private static final double numCells( final double[] min, final double[] max, final double cs )
+	{
+		double n = 1;
+		for ( int d = 0; d < 3; d++ )
+			n *= 1 + Math.floor( ( max[ d ] - min[ d ] ) / cs );
+		return n;
+	}
+
+	/**
+	 * Bounded max-heap of the closest candidates found so far.
+	 */
+	private static final class NearestCollector
+	{
+
+		private final int capacity;
+
+		private final Spot[] spots;
+
+		private final double[] d2s;
+
+		private int size = 0;
+
+		private NearestCollector( final int capacity )
+		{
+			this.capacity = capacity;
+			this.spots = new Spot[ capacity ];
+			this.d2s = new double[ capacity ];
+		}
+
+		private boolean isFull()
+		{
+			return size == capacity;
+		}
+
+		private double worst()
+		{
+			return d2s[ 0 ];
+		}
+
+		private void offer( final Spot spot, final double d2 )
+		{
+			if ( size < capacity )
+			{
+				// Sift up.
+				int i = size++;
+				while ( i > 0 )
+				{
+					final int parent = ( i - 1 ) / 2;
+					if ( d2s[ parent ] >= d2 )
+						break;
+					d2s[ i ] = d2s[ parent ];
+					spots[ i ] = spots[ parent ];
+					i = parent;
+				}
+				d2s[ i ] = d2;
+				spots[ i ] = spot;
+			}
+			else if ( d2 < d2s[ 0 ] )
+			{
+				siftDown( spot, d2, size );
+			}
+		}
+
+		private void siftDown( final Spot spot, final double d2, final int n )
+		{
+			int i = 0;
+			while ( true )
+			{
+				final int left = 2 * i + 1;
+				if ( left >= n )
+					break;
+				int child = left;
+				if ( left + 1 < n && d2s[ left + 1 ] > d2s[ left ] )
+					child = left + 1;
+				if ( d2s[ child ] <= d2 )
+					break;
+				d2s[ i ] = d2s[ child ];
+				spots[ i ] = spots[ child ];
+				i = child;
+			}
+			d2s[ i ] = d2;
+			spots[ i ] = spot;
+		}
+
+		/**
+		 * Empties the heap into a list sorted by increasing distance.
+		 */
+		private List< Spot > sorted()
+		{
+			final Spot[] result = new Spot[ size ];
+			for ( int n = size; n > 0; n-- )
+			{
+				result[ n - 1 ] = spots[ 0 ];
+				final Spot last = spots[ n - 1 ];
+				final double lastD2 = d2s[ n - 1 ];
+				siftDown( last, lastD2, n - 1 );
+			}
+			size = 0;
+			final List< Spot > list = new ArrayList< Spot >( result.length );
+			for ( final Spot spot : result )
+				list.add( spot );
+			return list;
+		}
+	}
+}
@@ -1,28 +1,29 @@
 package fiji.plugin.trackmate;
 
-import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
-
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imagej.ImgPlus;
-import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.SimpleWeightedGraph;
 
 import fiji.plugin.trackmate.detection.SpotDetector;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
+import fiji.plugin.trackmate.detection.stream.FrameSource;
+import fiji.plugin.trackmate.detection.stream.StreamingDetection;
 import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.SpotFeatureCalculator;
 import fiji.plugin.trackmate.features.TrackFeatureCalculator;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 import fiji.plugin.trackmate.util.TMUtils;
 
 /**
@@ -59,6 +60,12 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 
 	protected int numThreads = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * The compute pool all the stages of this session run on. Replaced by a
+	 * new one after it is cancelled.
+	 */
+	private ComputePool computePool;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -142,6 +149,35 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		return settings;
 	}
 
+	/**
+	 * Returns the compute pool the stages of this session run on. It is
+	 * created on the first call, and a new one is created if the previous one
+	 * was cancelled.
+	 *
+	 * @return the compute pool.
+	 */
+	public synchronized ComputePool getComputePool()
+	{
+		if ( null == computePool || computePool.isShutdown() )
+		{
+			computePool = new ComputePool( numThreads );
+		}
+		return computePool;
+	}
+
+	/**
+	 * Cancels the stage currently running, if any. Tasks not started yet are
+	 * skipped, and the running ones stop as soon as they check for
+	 * cancellation. The stage then returns <code>false</code>.
+	 */
+	public synchronized void cancel()
+	{
+		if ( null != computePool )
+		{
+			computePool.cancel();
+		}
+	}
+
 	/*
 	 * PROCESSES
 	 */
@@ -163,7 +199,10 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	{
 		final Logger logger = model.getLogger();
 		logger.log( "Computing spot features.\n" );
+		final ComputePool pool = getComputePool();
 		final SpotFeatureCalculator calculator = new SpotFeatureCalculator( model, settings );
+		calculator.setNumThreads( pool.getNumThreads() );
+		calculator.setExecutorService( pool );
 		if ( calculator.checkInput() && calculator.process() )
 		{
 			if ( doLogIt )
@@ -195,7 +234,10 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	public boolean computeEdgeFeatures( final boolean doLogIt )
 	{
 		final Logger logger = model.getLogger();
+		final ComputePool pool = getComputePool();
 		final EdgeFeatureCalculator calculator = new EdgeFeatureCalculator( model, settings );
+		calculator.setNumThreads( pool.getNumThreads() );
+		calculator.setExecutorService( pool );
 		if ( !calculator.checkInput() || !calculator.process() )
 		{
 			errorMessage = "Edge features calculation failed:\n" + calculator.getErrorMessage();
@@ -216,7 +258,10 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	public boolean computeTrackFeatures( final boolean doLogIt )
 	{
 		final Logger logger = model.getLogger();
+		final ComputePool pool = getComputePool();
 		final TrackFeatureCalculator calculator = new TrackFeatureCalculator( model, settings );
+		calculator.setNumThreads( pool.getNumThreads() );
+		calculator.setExecutorService( pool );
 		if ( calculator.checkInput() && calculator.process() )
 		{
 			if ( doLogIt )
@@ -249,17 +294,22 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	{
 		final Logger logger = model.getLogger();
 		logger.log( "Starting tracking process.\n" );
+		final ComputePool pool = getComputePool();
 		final SpotTracker tracker = settings.trackerFactory.create( model.getSpots(), settings.trackerSettings );
-		tracker.setNumThreads( numThreads );
+		tracker.setNumThreads( pool.getNumThreads() );
+		if ( tracker instanceof ExecutorServiceAware )
+		{
+			( ( ExecutorServiceAware ) tracker ).setExecutorService( pool );
+		}
 		tracker.setLogger( logger );
-		if ( tracker.checkInput() && tracker.process() )
+		if ( tracker.checkInput() && tracker.process() && !pool.isCancelled() )
 		{
 			model.setTracks( tracker.getResult(), true );
 			return true;
 		}
 		else
 		{
-			errorMessage = "Tracking process failed:\n" + tracker.getErrorMessage();
+			errorMessage = pool.isCancelled() ? "Tracking process cancelled.\n" : "Tracking process failed:\n" + tracker.getErrorMessage();
 			return false;
 		}
 	}
@@ -297,9 +347,6 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		 */
 		final ImgPlus img = TMUtils.rawWraps( settings.imp );
 
-		final long[] max = new long[ img.numDimensions() ];
-		final long[] min = new long[ img.numDimensions() ];
-
 		// X, we must have it
 		final int xindex = TMUtils.findXAxisIndex( img );
 		if ( xindex < 0 )
@@ -307,8 +354,6 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 			errorMessage = "Source image has no X axis.\n";
 			return false;
 		}
-		min[ xindex ] = settings.xstart;
-		max[ xindex ] = settings.xend;
 		// Y, we must have it
 		final int yindex = TMUtils.findYAxisIndex( img );
 		if ( yindex < 0 )
@@ -316,55 +361,9 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 			errorMessage = "Source image has no Y axis.\n";
 			return false;
 		}
-		min[ yindex ] = settings.ystart;
-		max[ yindex ] = settings.yend;
 		// Z, we MIGHT have it
 		final int zindex = TMUtils.findZAxisIndex( img );
-		if ( zindex >= 0 )
-		{
-			min[ zindex ] = settings.zstart;
-			max[ zindex ] = settings.zend;
-		}
-		// CHANNEL, we might have it
-		final int cindex = TMUtils.findCAxisIndex( img );
-		if ( cindex >= 0 )
-		{
-			min[ cindex ] = ( Integer ) settings.detectorSettings.get( KEY_TARGET_CHANNEL ) - 1;
-			max[ cindex ] = min[ cindex ];
-		}
-		// TIME, we might have it, but anyway we leave the start & end
-		// management to the threads below
-		final int tindex = TMUtils.findTAxisIndex( img );
-
-		/*
-		 * We want to exclude time (if we have it) from out interval and source,
-		 * so that we can provide the detector instance with a hyperslice that
-		 * does NOT have time as a dimension.
-		 */
-		final long[] intervalMin;
-		final long[] intervalMax;
-		if ( tindex >= 0 )
-		{
-			intervalMin = new long[ min.length - 1 ];
-			intervalMax = new long[ min.length - 1 ];
-			int nindex = -1;
-			for ( int d = 0; d < min.length; d++ )
-			{
-				if ( d == tindex )
-				{
-					continue;
-				}
-				nindex++;
-				intervalMin[ nindex ] = Math.max( 0l, min[ d ] );
-				intervalMax[ nindex ] = Math.min( img.max( d ), max[ d ] );
-			}
-		}
-		else
-		{
-			intervalMin = min;
-			intervalMax = max;
-		}
-		final FinalInterval interval = new FinalInterval( intervalMin, intervalMax );
+		final Interval interval = TMUtils.getInterval( img, settings );
 		factory.setTarget( img, settings.detectorSettings );
 
 		final int numFrames = settings.tend - settings.tstart + 1;
@@ -383,152 +382,123 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		 * frame. But if we have 10 threads and 2 frames, we process the 2
 		 * frames at once, and allocate 5 threads per frame if we can.
 		 */
-		final int nSimultaneousFrames = Math.min( numThreads, numFrames );
-		final int threadsPerFrame = Math.max( 1, numThreads / nSimultaneousFrames );
+		final ComputePool pool = getComputePool();
+		final int nSimultaneousFrames = Math.min( pool.getNumThreads(), numFrames );
+		final int threadsPerFrame = Math.max( 1, pool.getNumThreads() / nSimultaneousFrames );
+		spots.setExecutorService( pool );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( nSimultaneousFrames );
 		final AtomicBoolean ok = new AtomicBoolean( true );
 
-		// Prepare the thread array
+		/*
+		 * Frame workers run on the compute pool, and so do the detectors that
+		 * can use it.
+		 */
 		final AtomicInteger ai = new AtomicInteger( settings.tstart );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		final Runnable worker = new Runnable()
 		{
-
-			threads[ ithread ] = new Thread( "TrackMate spot detection thread " + ( 1 + ithread ) + "/" + threads.length )
+			@Override
+			public void run()
 			{
-				private boolean wasInterrupted()
+
+				for ( int frame = ai.getAndIncrement(); frame <= settings.tend; frame = ai.getAndIncrement() )
 				{
-					try
+					if ( !ok.get() || pool.isCancelled() )
+						return;
+
+					// Yield detector for target frame
+					final SpotDetector< ? > detector = factory.getDetector( interval, frame );
+					if ( detector instanceof MultiThreaded )
 					{
-						if ( isInterrupted() )
-							return true;
-						sleep( 0 );
-						return false;
+						final MultiThreaded md = ( MultiThreaded ) detector;
+						md.setNumThreads( threadsPerFrame );
 					}
-					catch ( final InterruptedException e )
+					if ( detector instanceof ExecutorServiceAware )
 					{
-						return true;
+						( ( ExecutorServiceAware ) detector ).setExecutorService( pool );
 					}
-				}
-
-				@Override
-				public void run()
-				{
 
-					for ( int frame = ai.getAndIncrement(); frame <= settings.tend; frame = ai.getAndIncrement() )
-						try
+					// Execute detection
+					if ( detector.checkInput() && detector.process() )
+					{
+						// On success, get results.
+						final List< Spot > spotsThisFrame = detector.getResult();
+
+						/*
+						 * Special case: if we have a single column image, then
+						 * the detectors internally dealt with a single line
+						 * image. We need to permute back the X & Y coordinates
+						 * if it's the case.
+						 */
+						if ( img.dimension( 0 ) < 2 && zindex < 0 )
 						{
-							// Yield detector for target frame
-							final SpotDetector< ? > detector = factory.getDetector( interval, frame );
-							if ( detector instanceof MultiThreaded )
+							for ( final Spot spot : spotsThisFrame )
 							{
-								final MultiThreaded md = ( MultiThreaded ) detector;
-								md.setNumThreads( threadsPerFrame );
+								spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
+								spot.putFeature( Spot.POSITION_X, 0d );
 							}
+						}
 
-							if ( wasInterrupted() )
-								return;
-
-							// Execute detection
-							if ( ok.get() && detector.checkInput() && detector.process() )
-							{
-								// On success, get results.
-								final List< Spot > spotsThisFrame = detector.getResult();
-
-								/*
-								 * Special case: if we have a single column
-								 * image, then the detectors internally dealt
-								 * with a single line image. We need to permute
-								 * back the X & Y coordinates if it's the case.
-								 */
-								if ( img.dimension( 0 ) < 2 && zindex < 0 )
-								{
-									for ( final Spot spot : spotsThisFrame )
-									{
-										spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
-										spot.putFeature( Spot.POSITION_X, 0d );
-									}
-								}
-
-								List< Spot > prunedSpots;
-								if ( null != settings.polygon )
-								{
-									prunedSpots = new ArrayList< Spot >();
-									for ( final Spot spot : spotsThisFrame )
-									{
-										if ( settings.polygon.contains( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ], spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) )
-											prunedSpots.add( spot );
-									}
-								}
-								else
-								{
-									prunedSpots = spotsThisFrame;
-								}
-								// Add detection feature other than position
-								for ( final Spot spot : prunedSpots )
-								{
-									// FRAME will be set upon adding to
-									// SpotCollection.
-									spot.putFeature( Spot.POSITION_T, frame * settings.dt );
-								}
-								// Store final results for this frame
-								spots.put( frame, prunedSpots );
-								// Report
-								spotFound.addAndGet( prunedSpots.size() );
-								logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
-
-							}
-							else
+						List< Spot > prunedSpots;
+						if ( null != settings.polygon )
+						{
+							prunedSpots = new ArrayList< Spot >();
+							for ( final Spot spot : spotsThisFrame )
 							{
-								// Fail: exit and report error.
-								ok.set( false );
-								errorMessage = detector.getErrorMessage();
-								return;
+								if ( settings.polygon.contains( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ], spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) )
+									prunedSpots.add( spot );
 							}
-
 						}
-						catch ( final RuntimeException e )
+						else
 						{
-							final Throwable cause = e.getCause();
-							if ( cause != null && cause instanceof InterruptedException ) { return; }
-							throw e;
+							prunedSpots = spotsThisFrame;
 						}
+						// Add detection feature other than position
+						for ( final Spot spot : prunedSpots )
+						{
+							// FRAME will be set upon adding to SpotCollection.
+							spot.putFeature( Spot.POSITION_T, frame * settings.dt );
+						}
+						// Store final results for this frame
+						spots.put( frame, prunedSpots );
+						// Report
+						spotFound.addAndGet( prunedSpots.size() );
+						logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
+
+					}
+					else
+					{
+						// Fail: exit and report error.
+						ok.set( false );
+						errorMessage = detector.getErrorMessage();
+						return;
+					}
 				}
-			};
-		}
+			}
+		};
 
 		logger.setStatus( "Detection..." );
 		logger.setProgress( 0 );
 
 		try
 		{
-			SimpleMultiThreading.startAndJoin( threads );
+			if ( !ComputePool.runAll( pool, worker, nSimultaneousFrames, "TrackMate spot detection thread" ) )
+			{
+				ok.set( false );
+				errorMessage = "Detection cancelled.\n";
+			}
 		}
-		catch ( final RuntimeException e )
+		catch ( final InterruptedException e )
 		{
+			pool.cancel();
 			ok.set( false );
-			if ( e.getCause() != null && e.getCause() instanceof InterruptedException )
-			{
-				errorMessage = "Detection workers interrupted.\n";
-				for ( final Thread thread : threads )
-					thread.interrupt();
-				for ( final Thread thread : threads )
-				{
-					if ( thread.isAlive() )
-						try
-						{
-							thread.join();
-						}
-						catch ( final InterruptedException e2 )
-						{
-							// ignore
-						}
-				}
-			}
-			else
-			{
+			errorMessage = "Detection workers interrupted.\n";
+		}
+		catch ( final RuntimeException e )
+		{
+			if ( !pool.isCancelled() )
 				throw e;
-			}
+			ok.set( false );
+			errorMessage = "Detection cancelled.\n";
 		}
 		model.setSpots( spots, true );
 
@@ -580,6 +550,7 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		final FeatureFilter featureFilter = new FeatureFilter( Spot.QUALITY, initialSpotFilterValue, true );
 
 		SpotCollection spots = model.getSpots();
+		spots.setExecutorService( getComputePool() );
 		spots.filter( featureFilter );
 
 		spots = spots.crop();
@@ -588,6 +559,47 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		return true;
 	}
 
+	/**
+	 * Execute the detection, the initial spot filtering and the spot feature
+	 * calculation in a single pass over the frames of the specified source.
+	 * <p>
+	 * Contrary to {@link #execDetection()}, the source image does not have to
+	 * fit in memory: at most <code>framesInFlight</code> frames are loaded at
+	 * the same time. The {@link Settings#imp} field is not used, but the crop
+	 * fields of the settings must be set to match the frames of the source.
+	 * <p>
+	 * The {@link ModelChangeListener}s of the model will be notified with a
+	 * {@link ModelChangeEvent#SPOTS_COMPUTED} event. The detected spots are
+	 * not visible until {@link #execSpotFiltering(boolean)} is called.
+	 *
+	 * @param source
+	 *            the source to load frames from.
+	 * @param framesInFlight
+	 *            the maximal number of frames loaded at the same time.
+	 * @return true if the whole detection step has executed correctly.
+	 * @see StreamingDetection
+	 */
+	public boolean execStreamingDetection( final FrameSource source, final int framesInFlight )
+	{
+		final Logger logger = model.getLogger();
+		logger.log( "Starting streaming detection process.\n" );
+
+		final ComputePool pool = getComputePool();
+		final StreamingDetection detection = new StreamingDetection( model, settings, source, framesInFlight );
+		detection.setNumThreads( pool.getNumThreads() );
+		detection.setExecutorService( pool );
+		if ( detection.checkInput() && detection.process() )
+		{
+			logger.log( "Detection, filtering and feature calculation done in " + detection.getProcessingTime() + " ms.\n" );
+			return true;
+		}
+		else
+		{
+			errorMessage = "Streaming detection failed:\n" + detection.getErrorMessage();
+			return false;
+		}
+	}
+
 	/**
 	 * Execute the spot feature filtering part.
 	 * <p>
@@ -614,6 +626,7 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 			final Logger logger = model.getLogger();
 			logger.log( "Starting spot filtering process.\n" );
 		}
+		model.getSpots().setExecutorService( getComputePool() );
 		model.filterSpots( settings.getSpotFilters(), true );
 		return true;
 	}
@@ -733,14 +746,17 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	@Override
 	public void setNumThreads()
 	{
-		this.numThreads = Runtime.getRuntime().availableProcessors();
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
 	}
 
 	@Override
-	public void setNumThreads( final int numThreads )
+	public synchronized void setNumThreads( final int numThreads )
 	{
 		this.numThreads = numThreads;
-
+		if ( null != computePool )
+		{
+			computePool.setNumThreads( numThreads );
+		}
 	}
 
 	@Override
@@ -1,5 +1,6 @@
 package fiji.plugin.trackmate;
 
+import fiji.plugin.trackmate.graph.CompactWeightedGraph;
 import fiji.plugin.trackmate.graph.Function1;
 import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedDepthFirstIterator;
@@ -8,6 +9,8 @@ import fiji.plugin.trackmate.graph.TimeDirectedSortedDepthFirstIterator;
 import fiji.plugin.trackmate.util.AlphanumComparator;
 import fiji.plugin.trackmate.util.TMUtils;
 
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -16,6 +19,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.jgrapht.Graph;
@@ -52,10 +56,16 @@ public class TrackModel
 	 * graph is not made accessible to the outside world. Editing it must be
 	 * trough the model methods {@link #addEdge(Spot, Spot, double)},
 	 * {@link #removeEdge(DefaultWeightedEdge)}, {@link #removeEdge(Spot, Spot)}
-	 * .
+	 * . It wraps a {@link CompactWeightedGraph}, so that the spots and links
+	 * are stored in primitive arrays rather than in maps of objects.
 	 */
 	private ListenableUndirectedGraph< Spot, DefaultWeightedEdge > graph;
 
+	/**
+	 * The graph wrapped by {@link #graph}.
+	 */
+	private CompactWeightedGraph< Spot > storage;
+
 	private final MyGraphListener mgl;
 
 	/*
@@ -103,6 +113,16 @@ public class TrackModel
 	 */
 	final Set< Integer > tracksUpdated = new HashSet< Integer >();
 
+	/**
+	 * The edges that have been moved from one track to another, without being
+	 * added or removed themselves, because the tracks they belonged to have
+	 * been merged or split.
+	 * <p>
+	 * It is the parent instance responsibility to clear this field when it is
+	 * fit to do so.
+	 */
+	final Set< DefaultWeightedEdge > edgesRelabelled = new HashSet< DefaultWeightedEdge >();
+
 	private static final Boolean DEFAULT_VISIBILITY = Boolean.TRUE;
 
 	// ~ Instance fields
@@ -110,9 +130,11 @@ public class TrackModel
 
 	private int IDcounter = 0;
 
-	private Map< Integer, Set< DefaultWeightedEdge >> connectedEdgeSets;
-
-	Map< DefaultWeightedEdge, Integer > edgeToID;
+	/*
+	 * The edges of a track, and the track of an edge, are not stored: they
+	 * are found from the spots of the track and from the graph. Per-edge maps
+	 * would cost more than the graph itself.
+	 */
 
 	private Map< Integer, Set< Spot >> connectedVertexSets;
 
@@ -122,6 +144,19 @@ public class TrackModel
 
 	private Map< Integer, String > names;
 
+	/**
+	 * The track IDs sorted by track name. Cached until a track is created,
+	 * removed or renamed. <code>null</code> when it must be rebuilt.
+	 */
+	private Set< Integer > sortedIDs;
+
+	/**
+	 * The visible track IDs sorted by track name. Cached until a track is
+	 * created, removed, renamed or has its visibility changed.
+	 * <code>null</code> when it must be rebuilt.
+	 */
+	private Set< Integer > sortedVisibleIDs;
+
 	private final Iterator< String > nameGenerator = new DefaultNameGenerator();
 
 	/*
@@ -129,14 +164,9 @@ public class TrackModel
 	 */
 
 	TrackModel()
-	{
-		this( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
-	}
-
-	private TrackModel( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
 	{
 		this.mgl = new MyGraphListener();
-		setGraph( graph );
+		clear();
 	}
 
 	/*
@@ -148,27 +178,48 @@ public class TrackModel
 	 * Clears the content of this model and replace it by the tracks found by
 	 * inspecting the specified graph. All new tracks found will be made visible
 	 * and will be given a default name.
+	 * <p>
+	 * The content of the specified graph is copied, and later changes to it are
+	 * not reflected in this model. Its edge instances are kept.
 	 *
 	 * @param graph
 	 *            the graph to parse for tracks.
 	 */
 	void setGraph( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		setStorage( new CompactWeightedGraph< Spot >( graph ) );
+		init( storage );
+	}
+
+	/**
+	 * Removes all the tracks from this model.
+	 */
+	void clear()
+	{
+		setStorage( new CompactWeightedGraph< Spot >() );
+		init( storage );
+	}
+
+	private void setStorage( final CompactWeightedGraph< Spot > storage )
 	{
 		if ( null != this.graph )
 		{
 			this.graph.removeGraphListener( mgl );
 		}
-		this.graph = new ListenableUndirectedGraph< Spot, DefaultWeightedEdge >( graph );
+		this.storage = storage;
+		this.graph = new ListenableUndirectedGraph< Spot, DefaultWeightedEdge >( storage );
 		this.graph.addGraphListener( mgl );
-		init( graph );
 	}
 
 	/**
-	 * Removes all the tracks from this model.
+	 * Forgets the links removed from this model so far. Their source, target
+	 * and weight cannot be queried after this call. It is the parent instance
+	 * responsibility to call this method once the removal has been signaled to
+	 * its listeners.
 	 */
-	void clear()
+	void releaseRemovedEdges()
 	{
-		setGraph( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
+		storage.releaseRemovedEdges();
 	}
 
 	/**
@@ -179,7 +230,8 @@ public class TrackModel
 	 * components (both in spots and edges), visibility and naming.
 	 * <p>
 	 * It is the caller responsibility to ensure that the graph and provided
-	 * component are coherent. Unexpected behavior might result otherwise.
+	 * component are coherent. Unexpected behavior might result otherwise. The
+	 * content of the graph is copied, and its edge instances are kept.
 	 *
 	 * @param graph
 	 *            the mother graph for the model.
@@ -188,7 +240,8 @@ public class TrackModel
 	 *            of spots.
 	 * @param trackEdges
 	 *            the mapping of track IDs vs the connected components as sets
-	 *            of edges.
+	 *            of edges. It is not stored: the edges of a track are found
+	 *            from its spots.
 	 * @param trackVisibility
 	 *            the track visibility.
 	 * @param trackNames
@@ -197,22 +250,18 @@ public class TrackModel
 	public void from( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< Integer, Set< Spot >> trackSpots, final Map< Integer, Set< DefaultWeightedEdge >> trackEdges, final Map< Integer, Boolean > trackVisibility, final Map< Integer, String > trackNames )
 	{
 
-		if ( null != this.graph )
-		{
-			this.graph.removeGraphListener( mgl );
-		}
-		this.graph = new ListenableUndirectedGraph< Spot, DefaultWeightedEdge >( graph );
-		this.graph.addGraphListener( mgl );
+		setStorage( new CompactWeightedGraph< Spot >( graph ) );
 
 		edgesAdded.clear();
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		edgesRelabelled.clear();
 
 		visibility = trackVisibility;
 		names = trackNames;
 		connectedVertexSets = trackSpots;
-		connectedEdgeSets = trackEdges;
+		invalidateTrackIDs();
 
 		// Rebuild the id maps
 		IDcounter = 0;
@@ -229,16 +278,6 @@ public class TrackModel
 			}
 		}
 		IDcounter++;
-
-		edgeToID = new HashMap< DefaultWeightedEdge, Integer >();
-		for ( final Integer id : trackEdges.keySet() )
-		{
-			for ( final DefaultWeightedEdge edge : trackEdges.get( id ) )
-			{
-				edgeToID.put( edge, id );
-			}
-		}
-
 	}
 
 	/*
@@ -288,6 +327,7 @@ public class TrackModel
 
 	Boolean setVisibility( final Integer trackID, final boolean visible )
 	{
+		sortedVisibleIDs = null;
 		return visibility.put( trackID, Boolean.valueOf( visible ) );
 	}
 
@@ -442,30 +482,41 @@ public class TrackModel
 	/**
 	 * Returns the set of track IDs managed by this model, ordered by track
 	 * names (alpha-numerically sorted).
+	 * <p>
+	 * The sorted sets are cached, and are only rebuilt after a track was
+	 * created, removed, renamed or had its visibility changed. The returned
+	 * set is therefore unmodifiable, and is not updated when the model
+	 * changes.
 	 *
 	 * @param visibleOnly
 	 *            if <code>true</code>, only visible track IDs will be returned.
-	 * @return a new set of track IDs.
+	 * @return an unmodifiable set of track IDs.
 	 */
 	public Set< Integer > trackIDs( final boolean visibleOnly )
 	{
-		final Set< Integer > ids = TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet();
-		if ( !visibleOnly )
+		Set< Integer > ids = sortedIDs;
+		if ( null == ids )
 		{
-			return ids;
+			ids = Collections.unmodifiableSet( TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet() );
+			sortedIDs = ids;
 		}
-		else
+		if ( !visibleOnly ) { return ids; }
+
+		Set< Integer > vids = sortedVisibleIDs;
+		if ( null == vids )
 		{
-			final Set< Integer > vids = new LinkedHashSet< Integer >( ids.size() );
+			final Set< Integer > set = new LinkedHashSet< Integer >( ids.size() );
 			for ( final Integer id : ids )
 			{
 				if ( visibility.get( id ) )
 				{
-					vids.add( id );
+					set.add( id );
 				}
 			}
-			return vids;
+			vids = Collections.unmodifiableSet( set );
+			sortedVisibleIDs = vids;
 		}
+		return vids;
 	}
 
 	/**
@@ -520,18 +571,25 @@ public class TrackModel
 	public void setName( final Integer id, final String name )
 	{
 		names.put( id, name );
+		invalidateTrackIDs();
 	}
 
 	/**
 	 * Returns the edges of the track with the specified ID.
+	 * <p>
+	 * The returned set is an unmodifiable view, built from the spots of the
+	 * track. Its size is computed from their degrees.
 	 *
 	 * @param trackID
 	 *            the track ID.
-	 * @return the set of edges.
+	 * @return the set of edges, or <code>null</code> if the track ID is
+	 *         unknown to this model.
 	 */
 	public Set< DefaultWeightedEdge > trackEdges( final Integer trackID )
 	{
-		return connectedEdgeSets.get( trackID );
+		final Set< Spot > spots = connectedVertexSets.get( trackID );
+		if ( null == spots ) { return null; }
+		return new TrackEdges( trackID, spots );
 	}
 
 	/**
@@ -550,10 +608,11 @@ public class TrackModel
 	{
 		if ( !visibleOnly )
 		{
-			return connectedEdgeSets.size();
+			return connectedVertexSets.size();
 		}
 		else
 		{
+			if ( null != sortedVisibleIDs ) { return sortedVisibleIDs.size(); }
 			int ntracks = 0;
 			for ( final Boolean visible : visibility.values() )
 			{
@@ -576,7 +635,8 @@ public class TrackModel
 	 */
 	public Integer trackIDOf( final DefaultWeightedEdge edge )
 	{
-		return edgeToID.get( edge );
+		if ( !graph.containsEdge( edge ) ) { return null; }
+		return vertexToID.get( graph.getEdgeSource( edge ) );
 	}
 
 	/**
@@ -603,17 +663,17 @@ public class TrackModel
 	private void init( final UndirectedGraph< Spot, DefaultWeightedEdge > graph )
 	{
 		vertexToID = new HashMap< Spot, Integer >();
-		edgeToID = new HashMap< DefaultWeightedEdge, Integer >();
 		IDcounter = 0;
 		visibility = new HashMap< Integer, Boolean >();
 		names = new HashMap< Integer, String >();
 		connectedVertexSets = new HashMap< Integer, Set< Spot >>();
-		connectedEdgeSets = new HashMap< Integer, Set< DefaultWeightedEdge >>();
+		invalidateTrackIDs();
 
 		edgesAdded.clear();
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		edgesRelabelled.clear();
 
 		final Set< Spot > vertexSet = graph.vertexSet();
 		if ( vertexSet.size() > 0 )
@@ -628,6 +688,16 @@ public class TrackModel
 		}
 	}
 
+	/**
+	 * Discards the cached sorted track IDs. Must be called every time a track
+	 * is created, removed, renamed or has its visibility changed.
+	 */
+	private void invalidateTrackIDs()
+	{
+		sortedIDs = null;
+		sortedVisibleIDs = null;
+	}
+
 	/*
 	 * UTILS
 	 */
@@ -637,15 +707,12 @@ public class TrackModel
 		if ( null == connectedVertexSets ) { return "Uninitialized.\n"; }
 
 		final StringBuilder str = new StringBuilder();
-		final Set< Integer > vid = connectedVertexSets.keySet();
-		final HashSet< Integer > eid = new HashSet< Integer >( connectedEdgeSets.keySet() );
-
-		for ( final Integer id : vid )
+		for ( final Integer id : connectedVertexSets.keySet() )
 		{
 			str.append( id + ":\n" );
 			str.append( " - " + connectedVertexSets.get( id ) + "\n" );
-			final Set< DefaultWeightedEdge > es = connectedEdgeSets.get( id );
-			if ( es == null )
+			final Set< DefaultWeightedEdge > es = trackEdges( id );
+			if ( es.isEmpty() )
 			{
 				str.append( " - no matching edges!\n" );
 			}
@@ -653,21 +720,6 @@ public class TrackModel
 			{
 				str.append( " - " + es + "\n" );
 			}
-			eid.remove( id );
-		}
-
-		if ( eid.isEmpty() )
-		{
-			str.append( "No remaining edges ID.\n" );
-		}
-		else
-		{
-			str.append( "Found non-matching edge IDs!\n" );
-			for ( final Integer id : eid )
-			{
-				str.append( id + ":\n" );
-				str.append( " - " + connectedEdgeSets.get( id ) + "\n" );
-			}
 		}
 
 		return str.toString();
@@ -768,7 +820,7 @@ public class TrackModel
 	{
 		private Set< Spot > currentConnectedVertexSet;
 
-		private Set< DefaultWeightedEdge > currentConnectedEdgeSet;
+		private boolean currentHasEdges;
 
 		private Integer ID;
 
@@ -780,13 +832,9 @@ public class TrackModel
 		@Override
 		public void connectedComponentFinished( final ConnectedComponentTraversalEvent event )
 		{
-			if ( currentConnectedVertexSet.size() <= 1 || currentConnectedEdgeSet.size() == 0 )
+			if ( currentConnectedVertexSet.size() <= 1 || !currentHasEdges )
 			{
 				// Forget them
-				for ( final DefaultWeightedEdge e : currentConnectedEdgeSet )
-				{
-					edgeToID.remove( e );
-				}
 				for ( final Spot v : currentConnectedVertexSet )
 				{
 					vertexToID.remove( v );
@@ -795,9 +843,9 @@ public class TrackModel
 			}
 			// Adds them
 			connectedVertexSets.put( ID, currentConnectedVertexSet );
-			connectedEdgeSets.put( ID, currentConnectedEdgeSet );
 			visibility.put( ID, DEFAULT_VISIBILITY );
 			names.put( ID, nameGenerator.next() );
+			invalidateTrackIDs();
 		}
 
 		/**
@@ -807,7 +855,7 @@ public class TrackModel
 		public void connectedComponentStarted( final ConnectedComponentTraversalEvent e )
 		{
 			currentConnectedVertexSet = new HashSet< Spot >();
-			currentConnectedEdgeSet = new HashSet< DefaultWeightedEdge >();
+			currentHasEdges = false;
 			ID = IDcounter++;
 		}
 
@@ -825,9 +873,7 @@ public class TrackModel
 		@Override
 		public void edgeTraversed( final EdgeTraversalEvent< Spot, DefaultWeightedEdge > event )
 		{
-			final DefaultWeightedEdge e = event.getEdge();
-			currentConnectedEdgeSet.add( e );
-			edgeToID.put( e, ID );
+			currentHasEdges = true;
 		}
 
 		@Override
@@ -882,11 +928,10 @@ public class TrackModel
 		@Override
 		public void vertexRemoved( final GraphVertexChangeEvent< Spot > event )
 		{
-			if ( null == connectedEdgeSets ) { return; }
+			if ( null == connectedVertexSets ) { return; }
 
 			final Spot v = event.getVertex();
-			vertexToID.remove( v );
-			final Integer id = vertexToID.get( v );
+			final Integer id = vertexToID.remove( v );
 			if ( id != null )
 			{
 				final Set< Spot > set = connectedVertexSets.get( id );
@@ -898,10 +943,10 @@ public class TrackModel
 
 				if ( set.isEmpty() )
 				{
-					connectedEdgeSets.remove( id );
 					connectedVertexSets.remove( id );
 					names.remove( id );
 					visibility.remove( id );
+					invalidateTrackIDs();
 				}
 			}
 		}
@@ -939,64 +984,48 @@ public class TrackModel
 				if ( tid.equals( sid ) )
 				{
 					// They come from the same set (equals ID). Not much to do.
-					final Set< DefaultWeightedEdge > ses = connectedEdgeSets.get( sid );
-					ses.add( e );
-					edgeToID.put( e, sid );
+					// Transaction: we mark the track as updated
+					tracksUpdated.add( sid );
 
 				}
 				else
 				{
 					// They come from different sets.
-
-					// Edges:
-					final Set< DefaultWeightedEdge > ses = connectedEdgeSets.get( sid );
-					final Set< DefaultWeightedEdge > tes = connectedEdgeSets.get( tid );
-					final HashSet< DefaultWeightedEdge > nes = new HashSet< DefaultWeightedEdge >( ses.size() + tes.size() + 1 );
-					nes.addAll( ses );
-					nes.addAll( tes );
-					nes.add( e );
-
-					// Vertices:
 					final Set< Spot > svs = connectedVertexSets.get( sid );
 					final Set< Spot > tvs = connectedVertexSets.get( tid );
-					final HashSet< Spot > nvs = new HashSet< Spot >( ses.size() + tes.size() );
-					nvs.addAll( svs );
-					nvs.addAll( tvs );
 
-					Integer nid, rid;
-					if ( nvs.size() > tvs.size() )
+					/*
+					 * The largest set (in vertices) keeps its id, its name and
+					 * its collections. Only the elements of the smallest one
+					 * are relabelled and moved, so that the cost of a merge
+					 * does not depend on the size of the largest track.
+					 */
+					final Integer nid, rid;
+					if ( tvs.size() > svs.size() )
+					{
+						nid = tid;
+						rid = sid;
+					}
+					else
 					{
 						nid = sid;
 						rid = tid;
-						for ( final Spot v : tvs )
-						{
-							// Vertices of target set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge te : tes )
-						{
-							edgeToID.put( te, nid );
-						}
 					}
-					else
+
+					final Set< Spot > nvs = connectedVertexSets.get( nid );
+					for ( final Spot v : connectedVertexSets.remove( rid ) )
 					{
-						nid = tid;
-						rid = sid;
-						for ( final Spot v : svs )
-						{
-							// Vertices of source set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge se : ses )
+						vertexToID.put( v, nid );
+						nvs.add( v );
+						// The edges of the small set, each seen from its source.
+						for ( final DefaultWeightedEdge re : graph.edgesOf( v ) )
 						{
-							edgeToID.put( se, nid );
+							if ( re != e && graph.getEdgeSource( re ).equals( v ) )
+							{
+								edgesRelabelled.add( re );
+							}
 						}
 					}
-					edgeToID.put( e, nid );
-					connectedVertexSets.put( nid, nvs );
-					connectedVertexSets.remove( rid );
-					connectedEdgeSets.put( nid, nes );
-					connectedEdgeSets.remove( rid );
 
 					// Transaction: we signal that the large id is to be
 					// updated, and forget about the small one
@@ -1011,6 +1040,7 @@ public class TrackModel
 
 					// Name: the new set gets the name of the largest one.
 					names.remove( rid ); // 'nid' already has the right name.
+					invalidateTrackIDs();
 				}
 
 			}
@@ -1022,20 +1052,16 @@ public class TrackModel
 				nvs.add( graph.getEdgeSource( e ) );
 				nvs.add( graph.getEdgeTarget( e ) );
 
-				final HashSet< DefaultWeightedEdge > nes = new HashSet< DefaultWeightedEdge >( 1 );
-				nes.add( e );
-
 				final int nid = IDcounter++;
-				connectedEdgeSets.put( nid, nes );
 				connectedVertexSets.put( nid, nvs );
 				vertexToID.put( sv, nid );
 				vertexToID.put( tv, nid );
-				edgeToID.put( e, nid );
 
 				// Give it visibility
 				visibility.put( nid, Boolean.TRUE );
 				// and a default name.
 				names.put( nid, nameGenerator.next() );
+				invalidateTrackIDs();
 				// Transaction: we mark the new track as updated
 				tracksUpdated.add( nid );
 
@@ -1045,8 +1071,6 @@ public class TrackModel
 				// Case 2: the edge was added to the target set. No source set,
 				// but there is a source vertex.
 				// Add it, with the source vertex, to the target id.
-				connectedEdgeSets.get( tid ).add( e );
-				edgeToID.put( e, tid );
 				connectedVertexSets.get( tid ).add( sv );
 				vertexToID.put( sv, tid );
 				// We do not change the visibility, nor the name.
@@ -1059,8 +1083,6 @@ public class TrackModel
 				// Case 3: the edge was added to the source set. No target set,
 				// but there is a target vertex.
 				// Add it, with the target vertex, to the source id.
-				connectedEdgeSets.get( sid ).add( e );
-				edgeToID.put( e, sid );
 				connectedVertexSets.get( sid ).add( tv );
 				vertexToID.put( tv, sid );
 				// We do not change the visibility, nor the name.
@@ -1079,30 +1101,30 @@ public class TrackModel
 
 			// To maintain connected sets coherence
 
+			/*
+			 * The edge is already removed from the graph, but its source and
+			 * target can still be queried, and still belong to its track.
+			 */
 			final DefaultWeightedEdge e = event.getEdge();
-			final Integer id = edgeToID.get( e );
+			final Spot source = graph.getEdgeSource( e );
+			final Spot target = graph.getEdgeTarget( e );
+			final Integer id = vertexToID.get( source );
 			if ( null == id ) { throw new RuntimeException( "Edge is unkown to this model: " + e ); }
-			final Set< DefaultWeightedEdge > set = connectedEdgeSets.get( id );
-			if ( null == set ) { throw new RuntimeException( "Unknown set ID: " + id ); }
-
-			// Remove edge from set.
-			final boolean removed = set.remove( e );
-			if ( !removed ) { throw new RuntimeException( "Could not removed edge " + e + " from set with ID: " + id ); }
-			// Forget about edge.
-			edgeToID.remove( e );
+			if ( !connectedVertexSets.containsKey( id ) ) { throw new RuntimeException( "Unknown set ID: " + id ); }
 
 			/*
 			 * Ok the trouble is that now we might be left with 2 sets if the
 			 * edge "was in the middle". Or 1 if it was in the end. Or 0 if it
-			 * was the last edge of the set.
+			 * was the last edge of the set, which is when its source and
+			 * target have no edges left.
 			 */
 
-			if ( set.size() == 0 )
+			if ( graph.degreeOf( source ) == 0 && graph.degreeOf( target ) == 0 )
 			{
 				// The set is empty, remove it from the map.
-				connectedEdgeSets.remove( id );
 				names.remove( id );
 				visibility.remove( id );
+				invalidateTrackIDs();
 				/* We need to remove also the vertices */
 				final Set< Spot > vertexSet = connectedVertexSets.get( id );
 				// Forget the vertices were in a set
@@ -1125,159 +1147,235 @@ public class TrackModel
 			{
 				// So there are some edges remaining in the set.
 				// Look at the connected component of its source and target.
-				// Source
-				final HashSet< Spot > sourceVCS = new HashSet< Spot >();
-				final HashSet< DefaultWeightedEdge > sourceECS = new HashSet< DefaultWeightedEdge >();
+				/*
+				 * Both components are explored in lockstep, one vertex at a
+				 * time. If the two searches meet, the edge was an "internal"
+				 * edge: because there is another path that connect its source
+				 * and target, removing it did NOT split the track in 2. If
+				 * one search runs out of vertices first, it has found the
+				 * smallest part, and we only need to explore the other one
+				 * until it is known to be larger. Either way, the cost is
+				 * proportional to the smallest part, not to the track size.
+				 */
+				final ComponentSearch sourceSearch = new ComponentSearch( source );
+				final ComponentSearch targetSearch = new ComponentSearch( target );
+				while ( !sourceSearch.isExhausted() && !targetSearch.isExhausted() )
 				{
-					final Spot source = graph.getEdgeSource( e );
-					// Get its connected set
-					final BreadthFirstIterator< Spot, DefaultWeightedEdge > i = new BreadthFirstIterator< Spot, DefaultWeightedEdge >( graph, source );
-					while ( i.hasNext() )
+					if ( sourceSearch.step( targetSearch ) || targetSearch.step( sourceSearch ) )
 					{
-						final Spot sv = i.next();
-						sourceVCS.add( sv );
-						sourceECS.addAll( graph.edgesOf( sv ) );
+						tracksUpdated.add( id );
+						return;
 					}
 				}
-				// Target
-				final HashSet< Spot > targetVCS = new HashSet< Spot >();
-				final HashSet< DefaultWeightedEdge > targetECS = new HashSet< DefaultWeightedEdge >();
+				while ( !sourceSearch.isExhausted() && sourceSearch.vertices.size() <= targetSearch.vertices.size() )
 				{
-					final Spot target = graph.getEdgeTarget( e );
-					// Get its connected set
-					final BreadthFirstIterator< Spot, DefaultWeightedEdge > i = new BreadthFirstIterator< Spot, DefaultWeightedEdge >( graph, target );
-					while ( i.hasNext() )
-					{
-						final Spot sv = i.next();
-						targetVCS.add( sv );
-						targetECS.addAll( graph.edgesOf( sv ) );
-					}
+					sourceSearch.step( targetSearch );
 				}
-
-				/*
-				 * If the two connected components are the same, it means that
-				 * the edge was an "internal" edge: Because there is another
-				 * path that connect its source and target, removing it did NOT
-				 * split the track in 2. We therefore need not to re-attribute
-				 * it.
-				 */
-				if ( targetVCS.equals( sourceVCS ) )
+				while ( !targetSearch.isExhausted() && targetSearch.vertices.size() <= sourceSearch.vertices.size() )
 				{
-					tracksUpdated.add( id );
-					connectedEdgeSets.get( id ).remove( e );
-					return;
+					targetSearch.step( sourceSearch );
 				}
 
 				/*
 				 * Re-attribute the found connected sets to the model. The
-				 * largest one (in vertices) gets the original id, the other
+				 * largest one (in vertices) keeps the original id, the other
 				 * gets a new id. As for names: the largest one keeps its name,
-				 * the small one gets a new name.
+				 * the small one gets a new name. Only the small part is
+				 * removed from the original sets and relabelled.
 				 */
-
-				if ( targetVCS.size() > sourceVCS.size() )
+				final ComponentSearch small;
+				if ( targetSearch.isExhausted() && ( !sourceSearch.isExhausted() || targetSearch.vertices.size() <= sourceSearch.vertices.size() ) )
 				{
+					small = targetSearch;
+				}
+				else
+				{
+					small = sourceSearch;
+				}
 
-					connectedEdgeSets.put( id, targetECS );
-					connectedVertexSets.put( id, targetVCS ); // they already
-																// have the
-																// right id in
-																// #vertexToId
-					tracksUpdated.add( id ); // old track has changed
-
-					if ( sourceECS.size() > 0 )
-					{
-						// the smaller part is still a track
-						final int newid = IDcounter++;
-						connectedEdgeSets.put( newid, sourceECS ); // otherwise
-																	// forget it
-						for ( final DefaultWeightedEdge te : sourceECS )
-						{
-							edgeToID.put( te, newid );
-						}
-						connectedVertexSets.put( newid, sourceVCS );
-						for ( final Spot tv : sourceVCS )
-						{
-							vertexToID.put( tv, newid );
-						}
-						final Boolean targetVisibility = visibility.get( id );
-						visibility.put( newid, targetVisibility );
-						names.put( newid, nameGenerator.next() );
-						// Transaction: both children tracks are marked for
-						// update.
-						tracksUpdated.add( newid );
+				final Set< Spot > vertexSet = connectedVertexSets.get( id );
+				for ( final Spot v : small.vertices )
+				{
+					vertexSet.remove( v );
+				}
+				tracksUpdated.add( id ); // old track has changed
 
-					}
-					else
+				if ( small.edges.size() > 0 )
+				{
+					// the smaller part is still a track
+					final int newid = IDcounter++;
+					edgesRelabelled.addAll( small.edges );
+					connectedVertexSets.put( newid, small.vertices );
+					for ( final Spot v : small.vertices )
 					{
-						/*
-						 * Nothing remains from the smallest part. The remaining
-						 * solitary vertex has no right to be called a track.
-						 */
-						final Spot solitary = sourceVCS.iterator().next();
-						vertexToID.remove( solitary );
+						vertexToID.put( v, newid );
 					}
-
+					final Boolean targetVisibility = visibility.get( id );
+					visibility.put( newid, targetVisibility );
+					names.put( newid, nameGenerator.next() );
+					invalidateTrackIDs();
+					// Transaction: both children tracks are marked for
+					// update.
+					tracksUpdated.add( newid );
 				}
 				else
 				{
+					/*
+					 * Nothing remains from the smallest part. The remaining
+					 * solitary vertex has no right to be called a track.
+					 */
+					final Spot solitary = small.vertices.iterator().next();
+					vertexToID.remove( solitary );
+				}
+			}
+		}
 
-					if ( sourceECS.size() > 0 )
-					{
-						// There are still some pieces left. It is worth noting
-						// it.
-						connectedEdgeSets.put( id, sourceECS );
-						connectedVertexSets.put( id, sourceVCS );
-						tracksUpdated.add( id );
+	}
 
-						if ( targetECS.size() > 0 )
-						{
-							// the small part is still a track
-							final int newid = IDcounter++;
-							connectedEdgeSets.put( newid, targetECS );
-							for ( final DefaultWeightedEdge te : targetECS )
-							{
-								edgeToID.put( te, newid );
-							}
-							connectedVertexSets.put( newid, targetVCS );
-							for ( final Spot v : targetVCS )
-							{
-								vertexToID.put( v, newid );
-							}
-							final Boolean targetVisibility = visibility.get( id );
-							visibility.put( newid, targetVisibility );
-							names.put( newid, nameGenerator.next() );
-							// Transaction: both children tracks are marked for
-							// update.
-							tracksUpdated.add( newid );
-						}
-						else
-						{
-							/*
-							 * Nothing remains from the smallest part. The
-							 * remaining solitary vertex has no right to be
-							 * called a track.
-							 */
-							final Spot solitary = targetVCS.iterator().next();
-							vertexToID.remove( solitary );
-						}
+	/**
+	 * A breadth-first search of the connected component of a vertex, that can
+	 * be advanced one vertex at a time, and that stops when it reaches a
+	 * vertex already found by another search.
+	 */
+	private class ComponentSearch
+	{
 
-					}
-					else
+		private final HashSet< Spot > vertices = new HashSet< Spot >();
+
+		private final HashSet< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+
+		private final ArrayDeque< Spot > queue = new ArrayDeque< Spot >();
+
+		private ComponentSearch( final Spot start )
+		{
+			vertices.add( start );
+			queue.add( start );
+		}
+
+		private boolean isExhausted()
+		{
+			return queue.isEmpty();
+		}
+
+		/**
+		 * Visits the next vertex in the queue.
+		 *
+		 * @param other
+		 *            the search exploring from the other end of the removed
+		 *            edge.
+		 * @return <code>true</code> if this search reached a vertex found by
+		 *         the other search, that is, if they explore the same
+		 *         component.
+		 */
+		private boolean step( final ComponentSearch other )
+		{
+			final Spot v = queue.poll();
+			for ( final DefaultWeightedEdge edge : graph.edgesOf( v ) )
+			{
+				edges.add( edge );
+				final Spot source = graph.getEdgeSource( edge );
+				final Spot w = source.equals( v ) ? graph.getEdgeTarget( edge ) : source;
+				if ( other.vertices.contains( w ) ) { return true; }
+				if ( vertices.add( w ) )
+				{
+					queue.add( w );
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The edges of a track, found from its spots. Each edge is returned once,
+	 * when its source spot is visited.
+	 */
+	private class TrackEdges extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		private final Integer trackID;
+
+		private final Set< Spot > spots;
+
+		private TrackEdges( final Integer trackID, final Set< Spot > spots )
+		{
+			this.trackID = trackID;
+			this.spots = spots;
+		}
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new Iterator< DefaultWeightedEdge >()
+			{
+				private final Iterator< Spot > spotIterator = spots.iterator();
+
+				private Spot spot;
+
+				private Iterator< DefaultWeightedEdge > edgeIterator = Collections.< DefaultWeightedEdge >emptySet().iterator();
+
+				private DefaultWeightedEdge next = advance();
+
+				private DefaultWeightedEdge advance()
+				{
+					while ( true )
 					{
-						// Nothing remains (maybe a solitary vertex) -> forget
-						// about it all.
-						connectedEdgeSets.remove( id );
-						connectedVertexSets.remove( id );
-						names.remove( id );
-						visibility.remove( id );
-						tracksUpdated.remove( id );
+						while ( edgeIterator.hasNext() )
+						{
+							final DefaultWeightedEdge edge = edgeIterator.next();
+							if ( graph.getEdgeSource( edge ).equals( spot ) ) { return edge; }
+						}
+						if ( !spotIterator.hasNext() ) { return null; }
+						spot = spotIterator.next();
+						edgeIterator = graph.edgesOf( spot ).iterator();
 					}
+				}
+
+				@Override
+				public boolean hasNext()
+				{
+					return null != next;
+				}
+
+				@Override
+				public DefaultWeightedEdge next()
+				{
+					if ( null == next ) { throw new NoSuchElementException(); }
+					final DefaultWeightedEdge edge = next;
+					next = advance();
+					return edge;
+				}
 
+				@Override
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
 				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			int degrees = 0;
+			for ( final Spot spot : spots )
+			{
+				degrees += graph.degreeOf( spot );
 			}
+			return degrees / 2;
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return !iterator().hasNext();
 		}
 
+		@Override
+		public boolean contains( final Object o )
+		{
+			if ( !( o instanceof DefaultWeightedEdge ) ) { return false; }
+			return trackID.equals( trackIDOf( ( DefaultWeightedEdge ) o ) );
+		}
 	}
 
 	private static class DefaultNameGenerator implements Iterator< String >
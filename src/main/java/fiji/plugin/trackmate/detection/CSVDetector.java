@@ -1,28 +1,23 @@
 package fiji.plugin.trackmate.detection;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.algorithm.fft2.FFTConvolution;
-import net.imglib2.img.Img;
-import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Util;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-
-public class CSVDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded
+/**
+ * A detector that imports the spots of a frame from CSV tables, through a
+ * {@link CSVSpotReader} shared with the detectors of the other frames.
+ */
+public class CSVDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded, ExecutorServiceAware
 {
 
 	/*
@@ -34,8 +29,6 @@ public class CSVDetector< T extends RealType< T > & NativeType< T >> implements
 	/** The image to segment. Will not modified. */
 	protected RandomAccessible< T > img;
 
-        protected final String folder;
-
 	protected String baseErrorMessage;
 
 	protected String errorMessage;
@@ -50,43 +43,36 @@ public class CSVDetector< T extends RealType< T > & NativeType< T >> implements
 
 	protected final Interval interval;
 
-	protected final double[] calibration;
-/** The frame we operate in. */
-        private final int frame;
-
-        private final int xcolumn;
+	/** The frame we operate in. */
+	private final int frame;
 
-        private final int ycolumn;
+	private final CSVSpotReader reader;
 
-        private final int zcolumn;
+	private ExecutorService service;
 
-        private final int icolumn;
-
-        private final int acolumn;
-
-        private final long dimT;
- 
 	/*
 	 * CONSTRUCTORS
 	 */
 
-	public CSVDetector( final RandomAccessible< T > img, final Interval interval, final double[] calibration, final int frame, final int xcolumn, final int ycolumn, final int zcolumn, final int acolumn, final int icolumn, final String folder, final long dimT )
+	public CSVDetector( final RandomAccessible< T > img, final Interval interval, final int frame, final CSVSpotReader reader )
 	{
 		this.img = img;
 		this.interval = DetectionUtils.squeeze( interval );
-		this.calibration = calibration;
-		this.xcolumn = xcolumn;
-		this.ycolumn = ycolumn;
-		this.zcolumn = zcolumn;
-		this.acolumn = acolumn;
-		this.icolumn = icolumn;
+		this.frame = frame;
+		this.reader = reader;
 		this.baseErrorMessage = BASE_ERROR_MESSAGE;
-                this.frame = frame;
-                this.folder = folder;
-                this.dimT = dimT;
 		setNumThreads();
 	}
 
+	/**
+	 * Creates a detector that reads the files <code>frame_N.csv</code> of the
+	 * specified folder, one per frame.
+	 */
+	public CSVDetector( final RandomAccessible< T > img, final Interval interval, final double[] calibration, final int frame, final int xcolumn, final int ycolumn, final int zcolumn, final int acolumn, final int icolumn, final String folder, final long dimT )
+	{
+		this( img, interval, frame, new CSVSpotReader( folder, "", -1, xcolumn, ycolumn, zcolumn, acolumn, icolumn, calibration, dimT ) );
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -110,86 +96,24 @@ public class CSVDetector< T extends RealType< T > & NativeType< T >> implements
 	@Override
 	public boolean process()
 	{
-            final long start = System.currentTimeMillis();
-
-            String fn1 = folder + "/frame_";
-            String fn;
-            if ( dimT <= 10 )
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100 && frame < 10 )
-            {
-                fn = fn1 + "0" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100 && frame >= 10 )
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 1000 && frame < 10 )
-            {
-                fn = fn1 + "00" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 1000 && frame < 100 )
-            {
-                fn = fn1 + "0" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 1000 && frame >= 100 )
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 10000 && frame < 10 )
-            {
-                fn = fn1 + "000" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 10000 && frame < 100 )
-            {
-                fn = fn1 + "00" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 10000 && frame < 1000 )
-            {
-                fn = fn1 + "0" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 10000 && frame >= 1000 )
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100000 && frame < 10 )
-            {
-                fn = fn1 + "0000" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100000 && frame < 100 )
-            {
-                fn = fn1 + "000" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100000 && frame < 1000 )
-            {
-                fn = fn1 + "00" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100000 && frame < 10000 )
-            {
-                fn = fn1 + "0" + String.valueOf(frame) + ".csv";
-            } else if ( dimT <= 100000 && frame >= 10000 )
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            } else
-            {
-                fn = fn1 + String.valueOf(frame) + ".csv";
-            }
-            System.out.println("frame:" + String.valueOf(frame) + " " + fn);
-            int done = 0;
-            try 
-            {
-                BufferedReader br = new BufferedReader(new FileReader(fn));
-                String line;
-                line = br.readLine();// skip header
-                while ((line = br.readLine()) != null) {
-                    String[] data = line.split(",");
-                    double spot_radius = Math.sqrt(Double.parseDouble(data[acolumn])/Math.PI); // if it is a circle
-                    double quality = Double.parseDouble(data[icolumn]); //mean intensity
-                    double x = Double.parseDouble(data[xcolumn]);
-                    double y = Double.parseDouble(data[ycolumn]);
-                    double z = Double.parseDouble(data[zcolumn]);
-                    final Spot spot = new Spot( x * calibration[ 0 ], y * calibration[ 1 ], z * calibration[ 2 ], spot_radius * calibration[ 0 ], quality );
-                    if (done == 0) {
-                        System.out.println("frame:" + String.valueOf(frame) + " " + spot.echo());
-                        done = 1;
-                    }
-                    spots.add( spot );
-                }
-            } catch (Exception e) { 
-                e.printStackTrace(); 
-            }
-            final long end = System.currentTimeMillis();
-            this.processingTime = end - start;
-            return true;
+		final long start = System.currentTimeMillis();
+		try
+		{
+			/*
+			 * Frames get few threads each, but a single file is indexed once
+			 * for all of them: index it with all the threads of the pool.
+			 */
+			final int indexingThreads = service instanceof MultiThreaded ? ( ( MultiThreaded ) service ).getNumThreads() : numThreads;
+			spots = reader.read( frame, service, indexingThreads );
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = baseErrorMessage + e.getMessage();
+			return false;
+		}
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+		return true;
 	}
 
 	@Override
@@ -227,4 +151,10 @@ public class CSVDetector< T extends RealType< T > & NativeType< T >> implements
 	{
 		return numThreads;
 	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
 }
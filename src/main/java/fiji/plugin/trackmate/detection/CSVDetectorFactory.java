@@ -7,6 +7,8 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_YCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_ZCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_ACOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_ICOLUMN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_FILE_PATTERN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_FRAME_COLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FOLDER;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_XCOLUMN;
@@ -14,6 +16,8 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_YCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ZCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ACOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ICOLUMN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FILE_PATTERN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FRAME_COLUMN;
 import static fiji.plugin.trackmate.io.IOUtils.readDoubleAttribute;
 import static fiji.plugin.trackmate.io.IOUtils.readIntegerAttribute;
 import static fiji.plugin.trackmate.io.IOUtils.readStringAttribute;
@@ -24,12 +28,16 @@ import static fiji.plugin.trackmate.io.IOUtils.writeZcolumn;
 import static fiji.plugin.trackmate.io.IOUtils.writeAcolumn;
 import static fiji.plugin.trackmate.io.IOUtils.writeIcolumn;
 import static fiji.plugin.trackmate.io.IOUtils.writeFolder;
+import static fiji.plugin.trackmate.io.IOUtils.writeFilePattern;
+import static fiji.plugin.trackmate.io.IOUtils.writeFrameColumn;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IllegalFormatException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.swing.ImageIcon;
@@ -65,7 +73,7 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	public static final String NAME = "CSV detector";
 
 	/** An html information text. */
-	public static final String INFO_TEXT = "<html>" + "This detector reads csv tables" + "</html>";
+	public static final String INFO_TEXT = "<html>" + "This detector reads csv tables, either one file per frame, or a single file with a frame column." + "</html>";
 
 	/*
 	 * FIELDS
@@ -78,6 +86,9 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 	protected String errorMessage;
 
+	/** Reads the spots of all the frames of the target. */
+	protected CSVSpotReader reader;
+
 	/*
 	 * METHODS
 	 */
@@ -87,20 +98,35 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	{
 		this.img = img;
 		this.settings = settings;
-		return checkSettings( settings );
-	}
+		if ( !checkSettings( settings ) ) { return false; }
 
-	@Override
-	public SpotDetector< T > getDetector( final Interval interval, final int frame )
-	{
 		final int xcolumn = ( Integer ) settings.get( KEY_XCOLUMN );
 		final int ycolumn = ( Integer ) settings.get( KEY_YCOLUMN );
 		final int zcolumn = ( Integer ) settings.get( KEY_ZCOLUMN );
 		final int acolumn = ( Integer ) settings.get( KEY_ACOLUMN );
 		final int icolumn = ( Integer ) settings.get( KEY_ICOLUMN );
+		final String folder = ( String ) settings.get( KEY_FOLDER );
+		final String filePattern = getFilePattern( settings );
+		final int frameColumn = getFrameColumn( settings );
+
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
-                final String folder = ( String ) settings.get( KEY_FOLDER );
-                RandomAccessible< T > imFrame;
+		if ( img.dimension( 0 ) < 2 )
+		{ // Single column image, will be rotated internally.
+			calibration[ 0 ] = calibration[ 1 ]; // It gets NaN otherwise
+			calibration[ 1 ] = 1;
+		}
+		final int timeDim = TMUtils.findTAxisIndex( img );
+		final long dimT = timeDim < 0 ? 1 : img.dimension( timeDim );
+
+		// One reader for all the frames, so that a single file is indexed once.
+		reader = new CSVSpotReader( folder, filePattern, frameColumn, xcolumn, ycolumn, zcolumn, acolumn, icolumn, calibration, dimT );
+		return true;
+	}
+
+	@Override
+	public SpotDetector< T > getDetector( final Interval interval, final int frame )
+	{
+		RandomAccessible< T > imFrame;
 		final int cDim = TMUtils.findCAxisIndex( img );
 		if ( cDim < 0 )
 		{
@@ -126,16 +152,13 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		// In case we have a 1D image.
 		if ( img.dimension( 0 ) < 2 )
 		{ // Single column image, will be rotated internally.
-			calibration[ 0 ] = calibration[ 1 ]; // It gets NaN otherwise
-			calibration[ 1 ] = 1;
 			imFrame = Views.hyperSlice( imFrame, 0, 0 );
 		}
 		if ( img.dimension( 1 ) < 2 )
 		{ // Single line image
 			imFrame = Views.hyperSlice( imFrame, 1, 0 );
 		}
-                final long dimT = img.dimension( timeDim );
-		final CSVDetector< T > detector = new CSVDetector< T >( imFrame, interval, calibration, frame, xcolumn, ycolumn, zcolumn, acolumn, icolumn, folder, dimT);
+		final CSVDetector< T > detector = new CSVDetector< T >( imFrame, interval, frame, reader );
 		detector.setNumThreads( 1 );
 		return detector;
 	}
@@ -164,6 +187,14 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		ok = ok & checkParameter( settings, KEY_ACOLUMN, Integer.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_ICOLUMN, Integer.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_FOLDER, String.class, errorHolder );
+		if ( settings.containsKey( KEY_FILE_PATTERN ) )
+		{
+			ok = ok & checkParameter( settings, KEY_FILE_PATTERN, String.class, errorHolder );
+		}
+		if ( settings.containsKey( KEY_FRAME_COLUMN ) )
+		{
+			ok = ok & checkParameter( settings, KEY_FRAME_COLUMN, Integer.class, errorHolder );
+		}
 		final List< String > mandatoryKeys = new ArrayList< String >();
 		mandatoryKeys.add( KEY_TARGET_CHANNEL );
 		mandatoryKeys.add( KEY_XCOLUMN );
@@ -171,8 +202,15 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		mandatoryKeys.add( KEY_ZCOLUMN );
 		mandatoryKeys.add( KEY_ACOLUMN );
 		mandatoryKeys.add( KEY_ICOLUMN );
-                mandatoryKeys.add( KEY_FOLDER );
-		ok = ok & checkMapKeys( settings, mandatoryKeys, null, errorHolder );
+		mandatoryKeys.add( KEY_FOLDER );
+		final List< String > optionalKeys = new ArrayList< String >();
+		optionalKeys.add( KEY_FILE_PATTERN );
+		optionalKeys.add( KEY_FRAME_COLUMN );
+		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, errorHolder );
+		if ( ok )
+		{
+			ok = checkFilePattern( settings, errorHolder );
+		}
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -184,7 +222,7 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	public boolean marshall( final Map< String, Object > settings, final Element element )
 	{
 		final StringBuilder errorHolder = new StringBuilder();
-		final boolean ok = writeTargetChannel( settings, element, errorHolder ) && writeXcolumn( settings, element, errorHolder ) && writeYcolumn( settings, element, errorHolder ) && writeZcolumn( settings, element, errorHolder ) && writeAcolumn( settings, element, errorHolder ) && writeIcolumn( settings, element, errorHolder ) && writeFolder( settings, element, errorHolder );
+		final boolean ok = writeTargetChannel( settings, element, errorHolder ) && writeXcolumn( settings, element, errorHolder ) && writeYcolumn( settings, element, errorHolder ) && writeZcolumn( settings, element, errorHolder ) && writeAcolumn( settings, element, errorHolder ) && writeIcolumn( settings, element, errorHolder ) && writeFolder( settings, element, errorHolder ) && ( !settings.containsKey( KEY_FILE_PATTERN ) || writeFilePattern( settings, element, errorHolder ) ) && ( !settings.containsKey( KEY_FRAME_COLUMN ) || writeFrameColumn( settings, element, errorHolder ) );
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -205,6 +243,15 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		ok = ok & readIntegerAttribute( element, settings, KEY_ICOLUMN, errorHolder );
 		ok = ok & readIntegerAttribute( element, settings, KEY_TARGET_CHANNEL, errorHolder );
 		ok = ok & readStringAttribute( element, settings, KEY_FOLDER, errorHolder );
+		// Absent from files saved before they were introduced.
+		if ( null != element.getAttributeValue( KEY_FILE_PATTERN ) )
+		{
+			ok = ok & readStringAttribute( element, settings, KEY_FILE_PATTERN, errorHolder );
+		}
+		if ( null != element.getAttributeValue( KEY_FRAME_COLUMN ) )
+		{
+			ok = ok & readIntegerAttribute( element, settings, KEY_FRAME_COLUMN, errorHolder );
+		}
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -242,6 +289,8 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		settings.put( KEY_ACOLUMN, DEFAULT_ACOLUMN );
 		settings.put( KEY_ICOLUMN, DEFAULT_ICOLUMN );
 		settings.put( KEY_FOLDER, DEFAULT_FOLDER );
+		settings.put( KEY_FILE_PATTERN, DEFAULT_FILE_PATTERN );
+		settings.put( KEY_FRAME_COLUMN, DEFAULT_FRAME_COLUMN );
 		return settings;
 	}
 
@@ -251,4 +300,49 @@ public class CSVDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		return null;
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static String getFilePattern( final Map< String, Object > settings )
+	{
+		final Object obj = settings.get( KEY_FILE_PATTERN );
+		return null == obj ? DEFAULT_FILE_PATTERN : ( String ) obj;
+	}
+
+	private static int getFrameColumn( final Map< String, Object > settings )
+	{
+		final Object obj = settings.get( KEY_FRAME_COLUMN );
+		return null == obj ? DEFAULT_FRAME_COLUMN : ( Integer ) obj;
+	}
+
+	/**
+	 * Checks that a single file is named, and that a file name pattern can be
+	 * formatted with a frame.
+	 */
+	private static boolean checkFilePattern( final Map< String, Object > settings, final StringBuilder errorHolder )
+	{
+		final String filePattern = getFilePattern( settings );
+		if ( getFrameColumn( settings ) >= 0 )
+		{
+			if ( filePattern.isEmpty() )
+			{
+				errorHolder.append( "The name of the file must be set when frames are read from a column.\n" );
+				return false;
+			}
+			return true;
+		}
+		if ( filePattern.isEmpty() ) { return true; }
+		try
+		{
+			String.format( Locale.US, filePattern, 0 );
+		}
+		catch ( final IllegalFormatException e )
+		{
+			errorHolder.append( "Invalid file name pattern " + filePattern + ": " + e.getMessage() + ".\n" );
+			return false;
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,732 @@
+package fiji.plugin.trackmate.detection;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the spots of the CSV tables imported by the {@link CSVDetector}.
+ * <p>
+ * Tables are either one file per frame, whose names are given by a file name
+ * pattern, or a single file with a column that gives the frame of each line.
+ * In the latter case, the file is scanned once, in parallel, to find the byte
+ * ranges of each frame, and reading the spots of a frame only parses these
+ * ranges.
+ * <p>
+ * Files are read through memory-mapped buffers, and numbers are parsed
+ * directly from the bytes, without creating strings for the lines and the
+ * fields. The first line of each file is a header and is skipped, as are
+ * blank lines. Parse errors are reported with the file name and the line
+ * number.
+ * <p>
+ * A reader is shared by the detectors of all the frames, and can be used
+ * concurrently.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class CSVSpotReader
+{
+
+	/*
+	 * CONSTANTS
+	 */
+
+	/** Files are mapped in windows of at most this size. */
+	private static final long MAX_WINDOW_SIZE = 1l << 30;
+
+	/** Default size of the chunks a single file is split in for indexing. */
+	private static final long INDEX_CHUNK_SIZE = 32l << 20;
+
+	/** Mantissas below this value are exactly represented as doubles. */
+	private static final long MAX_EXACT_MANTISSA = 1l << 53;
+
+	/** Powers of ten that are exactly represented as doubles. */
+	private static final double[] POWERS_OF_TEN = new double[] {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+			1e21, 1e22 };
+
+	/*
+	 * FIELDS
+	 */
+
+	private final String folder;
+
+	private final String filePattern;
+
+	private final int frameColumn;
+
+	private final int xcolumn;
+
+	private final int ycolumn;
+
+	private final int zcolumn;
+
+	private final int acolumn;
+
+	private final int icolumn;
+
+	/** The number of columns a line must have at least. */
+	private final int nColumns;
+
+	private final double[] calibration;
+
+	/**
+	 * For a single file, the slices of each frame, as <code>{ start, end,
+	 * line number }</code> arrays. <code>null</code> until it is built.
+	 */
+	private Map< Integer, List< long[] >> index;
+
+	/** Size of the chunks a single file is split in for indexing. */
+	private long indexChunkSize = INDEX_CHUNK_SIZE;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param folder
+	 *            the folder the files are in.
+	 * @param filePattern
+	 *            if the frame column is negative, the pattern of the file
+	 *            names, formatted with the frame as single argument, for
+	 *            instance <code>frame_%03d.csv</code>. If it is empty, the
+	 *            names are <code>frame_N.csv</code>, with the frame zero-padded
+	 *            to the number of digits of the last frame. If the frame column
+	 *            is positive or 0, the name of the single file to read.
+	 * @param frameColumn
+	 *            the column that gives the frame of each line in a single
+	 *            file, or a negative value to read one file per frame.
+	 * @param xcolumn
+	 *            the column of the X position, in pixel units.
+	 * @param ycolumn
+	 *            the column of the Y position, in pixel units.
+	 * @param zcolumn
+	 *            the column of the Z position, in pixel units.
+	 * @param acolumn
+	 *            the column of the object area, in pixel units, from which the
+	 *            spot radius is computed.
+	 * @param icolumn
+	 *            the column of the value used as spot quality.
+	 * @param calibration
+	 *            the spatial calibration of the image.
+	 * @param nFrames
+	 *            the number of frames of the image, used for the default file
+	 *            names.
+	 */
+	public CSVSpotReader( final String folder, final String filePattern, final int frameColumn, final int xcolumn, final int ycolumn, final int zcolumn, final int acolumn, final int icolumn, final double[] calibration, final long nFrames )
+	{
+		this.folder = folder;
+		this.filePattern = ( null == filePattern || filePattern.isEmpty() ) ? defaultFilePattern( nFrames ) : filePattern;
+		this.frameColumn = frameColumn;
+		this.xcolumn = xcolumn;
+		this.ycolumn = ycolumn;
+		this.zcolumn = zcolumn;
+		this.acolumn = acolumn;
+		this.icolumn = icolumn;
+		this.nColumns = 1 + Math.max( Math.max( xcolumn, ycolumn ), Math.max( zcolumn, Math.max( acolumn, icolumn ) ) );
+		this.calibration = calibration;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the file the spots of the specified frame are read from.
+	 */
+	public File getFile( final int frame )
+	{
+		if ( frameColumn >= 0 ) { return new File( folder, filePattern ); }
+		return new File( folder, String.format( Locale.US, filePattern, frame ) );
+	}
+
+	/**
+	 * Reads the spots of the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param service
+	 *            the executor service to index a single file on. May be
+	 *            <code>null</code>.
+	 * @param numThreads
+	 *            the number of tasks to index a single file with.
+	 * @return a new list of spots.
+	 * @throws IOException
+	 *             if the file cannot be read, or if a line cannot be parsed.
+	 *             The message gives the file and the line.
+	 */
+	public List< Spot > read( final int frame, final ExecutorService service, final int numThreads ) throws IOException
+	{
+		final File file = getFile( frame );
+		final List< Spot > spots = new ArrayList< Spot >();
+		if ( frameColumn < 0 )
+		{
+			final FileChannel channel = open( file );
+			try
+			{
+				parseSpots( channel, file, 0l, channel.size(), 1l, true, spots );
+			}
+			finally
+			{
+				channel.close();
+			}
+			return spots;
+		}
+
+		final List< long[] > slices = getIndex( service, numThreads ).get( Integer.valueOf( frame ) );
+		if ( null == slices ) { return spots; }
+		final FileChannel channel = open( file );
+		try
+		{
+			for ( final long[] slice : slices )
+			{
+				parseSpots( channel, file, slice[ 0 ], slice[ 1 ], slice[ 2 ], false, spots );
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		return spots;
+	}
+
+	/**
+	 * Sets the size of the chunks a single file is split in for indexing. Must
+	 * be called before the first frame is read.
+	 */
+	void setIndexChunkSize( final long indexChunkSize )
+	{
+		this.indexChunkSize = indexChunkSize;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Parses the lines between the specified byte offsets, which must be the
+	 * start of a line and the end of a line or of the file.
+	 */
+	private void parseSpots( final FileChannel channel, final File file, final long start, final long end, final long firstLine, final boolean skipFirstLine, final List< Spot > spots ) throws IOException
+	{
+		final int[] fieldStarts = new int[ nColumns ];
+		final int[] fieldEnds = new int[ nColumns ];
+		long line = firstLine;
+		boolean skip = skipFirstLine;
+		long windowStart = start;
+		while ( windowStart < end )
+		{
+			final MappedByteBuffer buffer = map( channel, file, windowStart, end );
+			final int limit = buffer.limit();
+			int lineStart = 0;
+			while ( lineStart < limit )
+			{
+				final int lineEnd = lineEnd( buffer, lineStart, limit );
+				if ( skip )
+				{
+					skip = false;
+				}
+				else if ( !isBlank( buffer, lineStart, lineEnd ) )
+				{
+					final int found = splitFields( buffer, lineStart, lineEnd, fieldStarts, fieldEnds );
+					if ( found < nColumns ) { throw new IOException( "Expected at least " + nColumns + " columns in " + file + " at line " + line + ", found " + found + "." ); }
+					final double x = parseField( buffer, fieldStarts, fieldEnds, xcolumn, file, line );
+					final double y = parseField( buffer, fieldStarts, fieldEnds, ycolumn, file, line );
+					final double z = parseField( buffer, fieldStarts, fieldEnds, zcolumn, file, line );
+					final double area = parseField( buffer, fieldStarts, fieldEnds, acolumn, file, line );
+					final double quality = parseField( buffer, fieldStarts, fieldEnds, icolumn, file, line );
+					// If it is a circle.
+					final double radius = Math.sqrt( area / Math.PI );
+					spots.add( new Spot( x * calibration[ 0 ], y * calibration[ 1 ], z * calibration[ 2 ], radius * calibration[ 0 ], quality ) );
+				}
+				line++;
+				lineStart = lineEnd + 1;
+			}
+			windowStart += limit;
+		}
+	}
+
+	private double parseField( final ByteBuffer buffer, final int[] fieldStarts, final int[] fieldEnds, final int column, final File file, final long line ) throws IOException
+	{
+		try
+		{
+			return parseDouble( buffer, fieldStarts[ column ], fieldEnds[ column ] );
+		}
+		catch ( final NumberFormatException nfe )
+		{
+			throw new IOException( "Could not parse column " + column + " in " + file + " at line " + line + ": '" + asString( buffer, fieldStarts[ column ], fieldEnds[ column ] ).trim() + "'." );
+		}
+	}
+
+	/**
+	 * Returns the frame index of a single file, building it the first time.
+	 */
+	private synchronized Map< Integer, List< long[] >> getIndex( final ExecutorService service, final int numThreads ) throws IOException
+	{
+		if ( null == index )
+		{
+			index = buildIndex( service, numThreads );
+		}
+		return index;
+	}
+
+	/**
+	 * Scans the single file in chunks, in parallel, and records the byte ranges
+	 * of the consecutive lines that belong to the same frame.
+	 */
+	private Map< Integer, List< long[] >> buildIndex( final ExecutorService service, final int numThreads ) throws IOException
+	{
+		final File file = getFile( 0 );
+		final FileChannel channel = open( file );
+		try
+		{
+			// Chunk boundaries, moved to the start of the next line.
+			final long size = channel.size();
+			final int nChunks = ( int ) Math.max( 1l, Math.min( Integer.MAX_VALUE, ( size + indexChunkSize - 1 ) / indexChunkSize ) );
+			final long[] bounds = new long[ nChunks + 1 ];
+			bounds[ nChunks ] = size;
+			final ByteBuffer probe = ByteBuffer.allocate( 4096 );
+			for ( int i = 1; i < nChunks; i++ )
+			{
+				bounds[ i ] = Math.max( bounds[ i - 1 ], nextLineStart( channel, i * indexChunkSize, size, probe ) );
+			}
+
+			final IndexChunk[] chunks = new IndexChunk[ nChunks ];
+			final AtomicInteger ai = new AtomicInteger( 0 );
+			final Runnable worker = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for ( int i = ai.getAndIncrement(); i < nChunks; i = ai.getAndIncrement() )
+					{
+						if ( ComputePool.isCancelled( service ) ) { return; }
+						final IndexChunk chunk = new IndexChunk();
+						chunks[ i ] = chunk;
+						try
+						{
+							chunk.scan( channel, file, bounds[ i ], bounds[ i + 1 ], i == 0 );
+						}
+						catch ( final IOException e )
+						{
+							chunk.error = e.getMessage();
+						}
+					}
+				}
+			};
+			try
+			{
+				if ( !ComputePool.runAll( service, worker, Math.max( 1, Math.min( numThreads, nChunks ) ), "CSVSpotReader indexing thread" ) ) { throw new IOException( "Indexing of " + file + " was cancelled." ); }
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException( "Indexing of " + file + " was interrupted." );
+			}
+
+			// Merge the chunks, now that we know their first line number.
+			final Map< Integer, List< long[] >> slices = new HashMap< Integer, List< long[] >>();
+			long firstLine = 1l;
+			for ( final IndexChunk chunk : chunks )
+			{
+				if ( null != chunk.error ) { throw new IOException( chunk.error.replace( IndexChunk.LINE_PLACEHOLDER, Long.toString( firstLine + chunk.errorLine ) ) ); }
+				for ( int i = 0; i < chunk.nRuns; i++ )
+				{
+					final Integer frame = Integer.valueOf( chunk.runFrames[ i ] );
+					List< long[] > list = slices.get( frame );
+					if ( null == list )
+					{
+						list = new ArrayList< long[] >();
+						slices.put( frame, list );
+					}
+					list.add( new long[] { chunk.runStarts[ i ], chunk.runEnds[ i ], firstLine + chunk.runLines[ i ] } );
+				}
+				firstLine += chunk.nLines;
+			}
+			return slices;
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/*
+	 * STATIC UTILS
+	 */
+
+	/**
+	 * Returns the file name pattern of the legacy naming scheme:
+	 * <code>frame_N.csv</code>, with the frame zero-padded to the number of
+	 * digits of the last frame, and not padded beyond 100000 frames.
+	 */
+	static String defaultFilePattern( final long nFrames )
+	{
+		if ( nFrames > 100000 ) { return "frame_%d.csv"; }
+		final int width = Long.toString( Math.max( 0l, nFrames - 1 ) ).length();
+		return "frame_%0" + width + "d.csv";
+	}
+
+	private static FileChannel open( final File file ) throws IOException
+	{
+		try
+		{
+			return new RandomAccessFile( file, "r" ).getChannel();
+		}
+		catch ( final IOException e )
+		{
+			throw new IOException( "Cannot open " + e.getMessage() + "." );
+		}
+	}
+
+	/**
+	 * Maps the largest window that starts at the specified offset and ends at
+	 * the end of a line, or at the specified end.
+	 */
+	private static MappedByteBuffer map( final FileChannel channel, final File file, final long start, final long end ) throws IOException
+	{
+		final long size = Math.min( end - start, MAX_WINDOW_SIZE );
+		final MappedByteBuffer buffer = channel.map( MapMode.READ_ONLY, start, size );
+		if ( start + size < end )
+		{
+			int limit = ( int ) size;
+			while ( limit > 0 && buffer.get( limit - 1 ) != '\n' )
+			{
+				limit--;
+			}
+			if ( limit == 0 ) { throw new IOException( "Line too long in " + file + " at byte " + start + "." ); }
+			buffer.limit( limit );
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns the offset of the first line that starts at or after the
+	 * specified offset.
+	 */
+	private static long nextLineStart( final FileChannel channel, final long from, final long size, final ByteBuffer probe ) throws IOException
+	{
+		// A line starts at 'from' if the previous byte ends a line.
+		long position = from - 1;
+		while ( position < size )
+		{
+			probe.clear();
+			final int read = channel.read( probe, position );
+			if ( read <= 0 )
+			{
+				break;
+			}
+			for ( int i = 0; i < read; i++ )
+			{
+				if ( probe.get( i ) == '\n' ) { return position + i + 1; }
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the index of the newline that ends the line starting at the
+	 * specified index, or the limit if the line is not terminated.
+	 */
+	private static int lineEnd( final ByteBuffer buffer, final int lineStart, final int limit )
+	{
+		int i = lineStart;
+		while ( i < limit && buffer.get( i ) != '\n' )
+		{
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isBlank( final ByteBuffer buffer, final int start, final int end )
+	{
+		for ( int i = start; i < end; i++ )
+		{
+			if ( buffer.get( i ) > ' ' ) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the bounds of the first comma-separated fields of a line.
+	 *
+	 * @return the number of fields found, at most the length of the arrays.
+	 */
+	private static int splitFields( final ByteBuffer buffer, final int lineStart, final int lineEnd, final int[] fieldStarts, final int[] fieldEnds )
+	{
+		int field = 0;
+		fieldStarts[ 0 ] = lineStart;
+		for ( int i = lineStart; i < lineEnd; i++ )
+		{
+			if ( buffer.get( i ) == ',' )
+			{
+				fieldEnds[ field ] = i;
+				field++;
+				if ( field == fieldStarts.length ) { return field; }
+				fieldStarts[ field ] = i + 1;
+			}
+		}
+		fieldEnds[ field ] = lineEnd;
+		return field + 1;
+	}
+
+	/**
+	 * Parses a decimal number from the specified bytes, ignoring leading and
+	 * trailing white spaces, as {@link Double#parseDouble(String)} does.
+	 * <p>
+	 * Numbers with at most 18 significant digits, whose mantissa is exactly
+	 * represented as a double and whose decimal exponent is small enough for
+	 * the power of ten to be exact too, are computed with a single correctly
+	 * rounded operation, without allocating anything. Other numbers are
+	 * handed to {@link Double#parseDouble(String)}.
+	 *
+	 * @throws NumberFormatException
+	 *             if the bytes are not a number.
+	 */
+	static double parseDouble( final ByteBuffer buffer, final int from, final int to )
+	{
+		int start = from;
+		int end = to;
+		while ( start < end && buffer.get( start ) <= ' ' )
+		{
+			start++;
+		}
+		while ( end > start && buffer.get( end - 1 ) <= ' ' )
+		{
+			end--;
+		}
+		if ( start == end ) { throw new NumberFormatException( "Empty field." ); }
+
+		int i = start;
+		boolean negative = false;
+		byte b = buffer.get( i );
+		if ( b == '-' || b == '+' )
+		{
+			negative = b == '-';
+			i++;
+		}
+
+		long mantissa = 0l;
+		int nDigits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		boolean exact = true;
+		while ( i < end && ( b = buffer.get( i ) ) >= '0' && b <= '9' )
+		{
+			if ( nDigits < 18 )
+			{
+				mantissa = 10 * mantissa + ( b - '0' );
+				if ( mantissa > 0 )
+				{
+					nDigits++;
+				}
+			}
+			else
+			{
+				exact = false;
+			}
+			anyDigit = true;
+			i++;
+		}
+		if ( i < end && buffer.get( i ) == '.' )
+		{
+			i++;
+			while ( i < end && ( b = buffer.get( i ) ) >= '0' && b <= '9' )
+			{
+				if ( nDigits < 18 )
+				{
+					mantissa = 10 * mantissa + ( b - '0' );
+					if ( mantissa > 0 )
+					{
+						nDigits++;
+					}
+					exponent--;
+				}
+				else if ( b != '0' )
+				{
+					exact = false;
+				}
+				anyDigit = true;
+				i++;
+			}
+		}
+		if ( anyDigit && i < end && ( ( b = buffer.get( i ) ) == 'e' || b == 'E' ) )
+		{
+			i++;
+			boolean negativeExponent = false;
+			if ( i < end && ( ( b = buffer.get( i ) ) == '-' || b == '+' ) )
+			{
+				negativeExponent = b == '-';
+				i++;
+			}
+			int e = 0;
+			boolean anyExponentDigit = false;
+			while ( i < end && ( b = buffer.get( i ) ) >= '0' && b <= '9' )
+			{
+				if ( e < 10000 )
+				{
+					e = 10 * e + ( b - '0' );
+				}
+				anyExponentDigit = true;
+				i++;
+			}
+			if ( !anyExponentDigit )
+			{
+				exact = false;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if ( anyDigit && exact && i == end )
+		{
+			if ( mantissa == 0l ) { return negative ? -0d : 0d; }
+			if ( mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22 )
+			{
+				final double value = exponent < 0 ? mantissa / POWERS_OF_TEN[ -exponent ] : mantissa * POWERS_OF_TEN[ exponent ];
+				return negative ? -value : value;
+			}
+		}
+		// Slow path: NaN, Infinity, long mantissas, large exponents...
+		return Double.parseDouble( asString( buffer, start, end ) );
+	}
+
+	private static String asString( final ByteBuffer buffer, final int start, final int end )
+	{
+		final byte[] bytes = new byte[ end - start ];
+		for ( int i = 0; i < bytes.length; i++ )
+		{
+			bytes[ i ] = buffer.get( start + i );
+		}
+		return new String( bytes, StandardCharsets.ISO_8859_1 );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The runs of consecutive lines of the same frame found in a chunk of a
+	 * single file. Line numbers are relative to the chunk, since the number of
+	 * lines in the previous chunks is not known while it is scanned.
+	 */
+	private final class IndexChunk
+	{
+
+		private static final String LINE_PLACEHOLDER = "%LINE%";
+
+		private int nRuns = 0;
+
+		private int[] runFrames = new int[ 16 ];
+
+		private long[] runStarts = new long[ 16 ];
+
+		private long[] runEnds = new long[ 16 ];
+
+		private long[] runLines = new long[ 16 ];
+
+		private long nLines = 0l;
+
+		private String error;
+
+		private long errorLine;
+
+		private void scan( final FileChannel channel, final File file, final long start, final long end, final boolean skipFirstLine ) throws IOException
+		{
+			final int[] fieldStarts = new int[ frameColumn + 1 ];
+			final int[] fieldEnds = new int[ frameColumn + 1 ];
+			boolean skip = skipFirstLine;
+			long windowStart = start;
+			while ( windowStart < end )
+			{
+				final MappedByteBuffer buffer = map( channel, file, windowStart, end );
+				final int limit = buffer.limit();
+				int lineStart = 0;
+				while ( lineStart < limit )
+				{
+					final int lineEnd = lineEnd( buffer, lineStart, limit );
+					if ( skip )
+					{
+						skip = false;
+					}
+					else if ( !isBlank( buffer, lineStart, lineEnd ) )
+					{
+						final int found = splitFields( buffer, lineStart, lineEnd, fieldStarts, fieldEnds );
+						if ( found <= frameColumn )
+						{
+							fail( "Expected at least " + ( frameColumn + 1 ) + " columns in " + file + " at line " + LINE_PLACEHOLDER + ", found " + found + "." );
+							return;
+						}
+						final double value;
+						try
+						{
+							value = parseDouble( buffer, fieldStarts[ frameColumn ], fieldEnds[ frameColumn ] );
+						}
+						catch ( final NumberFormatException nfe )
+						{
+							fail( "Could not parse frame column " + frameColumn + " in " + file + " at line " + LINE_PLACEHOLDER + ": '" + asString( buffer, fieldStarts[ frameColumn ], fieldEnds[ frameColumn ] ).trim() + "'." );
+							return;
+						}
+						final int frame = ( int ) value;
+						if ( frame != value )
+						{
+							fail( "Frame is not an integer in " + file + " at line " + LINE_PLACEHOLDER + ": " + value + "." );
+							return;
+						}
+						addLine( frame, windowStart + lineStart, windowStart + Math.min( limit, lineEnd + 1 ) );
+					}
+					nLines++;
+					lineStart = lineEnd + 1;
+				}
+				windowStart += limit;
+			}
+		}
+
+		private void addLine( final int frame, final long lineStart, final long lineEnd )
+		{
+			if ( nRuns > 0 && runFrames[ nRuns - 1 ] == frame && runEnds[ nRuns - 1 ] == lineStart )
+			{
+				runEnds[ nRuns - 1 ] = lineEnd;
+				return;
+			}
+			if ( nRuns == runFrames.length )
+			{
+				final int capacity = 2 * nRuns;
+				runFrames = Arrays.copyOf( runFrames, capacity );
+				runStarts = Arrays.copyOf( runStarts, capacity );
+				runEnds = Arrays.copyOf( runEnds, capacity );
+				runLines = Arrays.copyOf( runLines, capacity );
+			}
+			runFrames[ nRuns ] = frame;
+			runStarts[ nRuns ] = lineStart;
+			runEnds[ nRuns ] = lineEnd;
+			runLines[ nRuns ] = nLines;
+			nRuns++;
+		}
+
+		private void fail( final String message )
+		{
+			error = message;
+			errorLine = nLines;
+		}
+	}
+}
@@ -1,23 +1,16 @@
 package fiji.plugin.trackmate.detection;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
-import net.imglib2.Point;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.localextrema.LocalExtrema;
-import net.imglib2.algorithm.localextrema.LocalExtrema.LocalNeighborhoodCheck;
-import net.imglib2.algorithm.localextrema.RefinedPeak;
-import net.imglib2.algorithm.localextrema.SubpixelLocalization;
+import net.imglib2.algorithm.gauss3.SeparableSymmetricConvolution;
 import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayCursor;
@@ -27,15 +20,28 @@ import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.util.LocalMaximaFinder;
 import fiji.plugin.trackmate.detection.util.MedianFilter;
 
 public class DetectionUtils
 {
 
+	/**
+	 * The maximal number of times sub-pixel localization can move a maximum by
+	 * one pixel to refine its position.
+	 */
+	public static final int SUBPIXEL_MAX_NUM_MOVES = 10;
+
+	/**
+	 * Cost of the forward and inverse FFTs of an image, per pixel and per
+	 * log2 of the number of pixels, relative to the cost of one multiply-add
+	 * of a spatial convolution. Used to pick the fastest LoG convolution;
+	 * <code>LoGConvolutionBenchmark</code> measures the crossover.
+	 */
+	private static final double FFT_COST = 8d;
+
 	/**
 	 * Creates a laplacian of gaussian (LoG) kernel tuned for blobs with a
 	 * radius specified <b>using calibrated units</b>. The specified calibration
@@ -103,6 +109,174 @@ public class DetectionUtils
 		return kernel;
 	}
 
+	/**
+	 * Returns, for each dimension, the number of pixels the LoG kernel created
+	 * by {@link #createLoGKernel(double, int, double[])} extends on each side
+	 * of its center.
+	 *
+	 * @param radius
+	 *            the blob radius (in image unit).
+	 * @param nDims
+	 *            the dimensionality of the kernel.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @return a new <code>long[]</code> array.
+	 */
+	public static final long[] getLoGKernelHalfSize( final double radius, final int nDims, final double[] calibration )
+	{
+		final double sigma = radius / Math.sqrt( nDims );
+		final long[] halfSize = new long[ nDims ];
+		for ( int d = 0; d < nDims; d++ )
+		{
+			final double sigmaPixels = sigma / calibration[ d ];
+			halfSize[ d ] = 1 + Math.max( 2, ( int ) ( 3 * sigmaPixels + 0.5 ) + 1 );
+		}
+		return halfSize;
+	}
+
+	/**
+	 * Creates the 1D half kernels whose products sum to the LoG kernel created
+	 * by {@link #createLoGKernel(double, int, double[])}.
+	 * <p>
+	 * The LoG kernel is a sum over dimensions of terms that are each separable:
+	 * the term of dimension <code>d</code> is the product of a second
+	 * derivative-like kernel along <code>d</code> and of Gaussian kernels along
+	 * the other dimensions. Half kernels are in the format of
+	 * {@link SeparableSymmetricConvolution}: the value at the center first,
+	 * then the values at increasing distances.
+	 *
+	 * @param radius
+	 *            the blob radius (in image unit).
+	 * @param nDims
+	 *            the dimensionality of the kernel.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @return a new <code>double[2][nDims][]</code> array, holding the
+	 *         Gaussian half kernels, then the second derivative half kernels,
+	 *         for each dimension.
+	 */
+	public static final double[][][] createLoGHalfKernels( final double radius, final int nDims, final double[] calibration )
+	{
+		final double sigma = radius / Math.sqrt( nDims );
+		// Same fudge factor as for the full kernel.
+		final double C = 1d / 20d * Math.pow( 1d / sigma / Math.sqrt( 2 * Math.PI ), nDims );
+		final long[] halfSize = getLoGKernelHalfSize( radius, nDims, calibration );
+
+		final double[][][] halfkernels = new double[ 2 ][ nDims ][];
+		for ( int d = 0; d < nDims; d++ )
+		{
+			final double[] gaussian = new double[ ( int ) halfSize[ d ] + 1 ];
+			final double[] derivative = new double[ gaussian.length ];
+			for ( int i = 0; i < gaussian.length; i++ )
+			{
+				final double x = calibration[ d ] * i;
+				gaussian[ i ] = Math.exp( -x * x / 2d / sigma / sigma );
+				derivative[ i ] = -C * ( x * x / sigma / sigma - 1d ) * gaussian[ i ];
+			}
+			halfkernels[ 0 ][ d ] = gaussian;
+			halfkernels[ 1 ][ d ] = derivative;
+		}
+		return halfkernels;
+	}
+
+	/**
+	 * Convolves the specified image with a LoG kernel in the spatial domain,
+	 * using the separable decomposition returned by
+	 * {@link #createLoGHalfKernels(double, int, double[])}. The result is the
+	 * same as the FFT convolution with the kernel created by
+	 * {@link #createLoGKernel(double, int, double[])}, up to round-off errors.
+	 * Image borders are mirrored.
+	 *
+	 * @param img
+	 *            the image to convolve. Must not have singleton dimensions.
+	 *            Is not modified.
+	 * @param radius
+	 *            the blob radius (in image unit).
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @param service
+	 *            the executor service to run the computation on.
+	 * @return a new image.
+	 * @throws IncompatibleTypeException
+	 *             if the image cannot be convolved in place of its own type.
+	 */
+	public static final Img< FloatType > convolveLoGSeparable( final Img< FloatType > img, final double radius, final double[] calibration, final ExecutorService service ) throws IncompatibleTypeException
+	{
+		final int nDims = img.numDimensions();
+		final double[][][] halfkernels = createLoGHalfKernels( radius, nDims, calibration );
+		final RandomAccessible< FloatType > extended = Views.extendMirrorSingle( img );
+
+		final Img< FloatType > output = img.factory().create( img, new FloatType() );
+		final Img< FloatType > term = nDims > 1 ? img.factory().create( img, new FloatType() ) : null;
+		final double[][] termkernels = new double[ nDims ][];
+		for ( int d = 0; d < nDims; d++ )
+		{
+			for ( int e = 0; e < nDims; e++ )
+			{
+				termkernels[ e ] = halfkernels[ e == d ? 1 : 0 ][ e ];
+			}
+
+			if ( d == 0 )
+			{
+				SeparableSymmetricConvolution.convolve( termkernels, extended, output, service );
+				continue;
+			}
+			SeparableSymmetricConvolution.convolve( termkernels, extended, term, service );
+			final Cursor< FloatType > co = output.cursor();
+			final Cursor< FloatType > ct = term.cursor();
+			while ( co.hasNext() )
+			{
+				co.next().add( ct.next() );
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Estimates whether convolving an image of the specified size with a LoG
+	 * kernel is faster with
+	 * {@link #convolveLoGSeparable(Img, double, double[], ExecutorService)} than with an
+	 * FFT convolution.
+	 * <p>
+	 * The cost of the separable convolution is one multiply-add per pixel and
+	 * per kernel element, for the <code>nDims</code> passes of each of the
+	 * <code>nDims</code> terms. The cost of the FFT convolution is dominated
+	 * by the forward and inverse transforms of the image padded by the kernel,
+	 * the kernel transform being cached. Each is divided by the number of
+	 * threads it runs on.
+	 *
+	 * @param dims
+	 *            the image dimensions.
+	 * @param radius
+	 *            the blob radius (in image unit).
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @param numThreads
+	 *            the number of threads the separable convolution runs on.
+	 * @param fftThreads
+	 *            the number of threads the FFT convolution runs on.
+	 * @return <code>true</code> if the separable convolution is expected to be
+	 *         faster.
+	 */
+	public static final boolean isSeparableLoGFaster( final long[] dims, final double radius, final double[] calibration, final int numThreads, final int fftThreads )
+	{
+		final int nDims = dims.length;
+		final long[] halfSize = getLoGKernelHalfSize( radius, nDims, calibration );
+		double nPixels = 1d;
+		double nPaddedPixels = 1d;
+		long kernelLengths = 0;
+		for ( int d = 0; d < nDims; d++ )
+		{
+			nPixels *= dims[ d ];
+			nPaddedPixels *= dims[ d ] + 2 * halfSize[ d ];
+			kernelLengths += 2 * halfSize[ d ] + 1;
+		}
+
+		final double separableCost = nDims * kernelLengths * nPixels / Math.max( 1, numThreads );
+		final double fftCost = FFT_COST * nPaddedPixels * Math.log( nPaddedPixels ) / Math.log( 2d ) / Math.max( 1, fftThreads );
+		return separableCost < fftCost;
+	}
+
 	/**
 	 * Copy an interval of the specified source image on a float image.
 	 *
@@ -169,7 +343,8 @@ public class DetectionUtils
 	}
 
 	/**
-	 * Apply a simple 3x3 median filter to the target image.
+	 * Apply a simple 3x3 median filter to the target image, or 3x3x3 if it is
+	 * 3D.
 	 */
 	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image )
 	{
@@ -178,137 +353,74 @@ public class DetectionUtils
 		return medFilt.getResult();
 	}
 
-	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads )
+	/**
+	 * Apply a simple 3x3 median filter to the target image, or 3x3x3 if it is
+	 * 3D, splitting the work in the specified number of tasks run on the
+	 * specified executor service.
+	 *
+	 * @param service
+	 *            the executor service to run on. If <code>null</code>, new
+	 *            threads are created.
+	 * @return the filtered image, with its origin at 0, or <code>null</code>
+	 *         if filtering failed.
+	 */
+	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image, final int numThreads, final ExecutorService service )
 	{
-		/*
-		 * Find maxima.
-		 */
-
-		final FloatType val = new FloatType();
-		val.setReal( threshold );
-		final LocalNeighborhoodCheck< Point, FloatType > localNeighborhoodCheck = new LocalExtrema.MaximumCheck< FloatType >( val );
-		final IntervalView< FloatType > dogWithBorder = Views.interval( Views.extendMirrorSingle( source ), Intervals.expand( source, 1 ) );
-		//		TODO: The "numThreads"-version of LocalExtrema.findLocalExtrema should really exist in imglib. After it does, replace the following lines by
-		//		final ArrayList< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, numThreads );
-		final ExecutorService service = Executors.newFixedThreadPool( numThreads );
-		final List< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, service );
-		service.shutdown();
-
-		if ( peaks.isEmpty() ) { return Collections.emptyList(); }
-
-		final List< Spot > spots;
-		if ( doSubPixelLocalization )
-		{
-
-			/*
-			 * Sub-pixel localize them.
-			 */
-
-			final SubpixelLocalization< Point, FloatType > spl = new SubpixelLocalization< Point, FloatType >( source.numDimensions() );
-			spl.setNumThreads( numThreads );
-			spl.setReturnInvalidPeaks( true );
-			spl.setCanMoveOutside( true );
-			spl.setAllowMaximaTolerance( true );
-			spl.setMaxNumMoves( 10 );
-			final ArrayList< RefinedPeak< Point >> refined = spl.process( peaks, dogWithBorder, source );
-
-			spots = new ArrayList< Spot >( refined.size() );
-			final RandomAccess< FloatType > ra = source.randomAccess();
-
-			/*
-			 * Deal with different dimensionality manually. Profound comment:
-			 * this is the proof that this part of the code is sloppy. ImgLib2
-			 * is supposed to be dimension-generic. I just did not use properly
-			 * here.
-			 */
+		final MedianFilter< R > medFilt = new MedianFilter< R >( image, 1 );
+		medFilt.setNumThreads( numThreads );
+		medFilt.setExecutorService( service );
+		if ( !medFilt.checkInput() || !medFilt.process() ) { return null; }
+		return medFilt.getResult();
+	}
 
-			if ( source.numDimensions() > 2 )
-			{ // 3D
-				for ( final RefinedPeak< Point > refinedPeak : refined )
-				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = refinedPeak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final double z = refinedPeak.getDoublePosition( 2 ) * calibration[ 2 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else if ( source.numDimensions() > 1 )
-			{ // 2D
-				final double z = 0;
-				for ( final RefinedPeak< Point > refinedPeak : refined )
-				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = refinedPeak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else
-			{ // 1D
-				final double z = 0;
-				final double y = 0;
-				for ( final RefinedPeak< Point > refinedPeak : refined )
-				{
-					ra.setPosition( refinedPeak.getOriginalPeak() );
-					final double quality = ra.get().getRealDouble();
-					final double x = refinedPeak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
+	/**
+	 * Finds the local maxima of the specified image above the specified
+	 * threshold, and returns them as spots. The search runs in new threads.
+	 */
+	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads )
+	{
+		return findLocalMaxima( source, source, threshold, calibration, radius, doSubPixelLocalization, 0, numThreads, null );
+	}
 
-			}
-		}
-		else
-		{
-			spots = new ArrayList< Spot >( peaks.size() );
-			final RandomAccess< FloatType > ra = source.randomAccess();
-			if ( source.numDimensions() > 2 )
-			{ // 3D
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = peak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final double z = peak.getDoublePosition( 2 ) * calibration[ 2 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else if ( source.numDimensions() > 1 )
-			{ // 2D
-				final double z = 0;
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final double y = peak.getDoublePosition( 1 ) * calibration[ 1 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
-			}
-			else
-			{ // 1D
-				final double z = 0;
-				final double y = 0;
-				for ( final Point peak : peaks )
-				{
-					ra.setPosition( peak );
-					final double quality = ra.get().getRealDouble();
-					final double x = peak.getDoublePosition( 0 ) * calibration[ 0 ];
-					final Spot spot = new Spot( x, y, z, radius, quality );
-					spots.add( spot );
-				}
+	/**
+	 * Finds the local maxima of the specified image above the specified
+	 * threshold, and returns them as spots. The search for maxima is run on
+	 * the specified executor service, which is not shut down by this method.
+	 */
+	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads, final ExecutorService service )
+	{
+		return findLocalMaxima( source, source, threshold, calibration, radius, doSubPixelLocalization, 0, numThreads, service );
+	}
 
-			}
-		}
+	/**
+	 * Finds the local maxima of the specified image above the specified
+	 * threshold that lie in the specified search interval, and returns them as
+	 * spots. Neighbors and sub-pixel localization use all the source image,
+	 * so that a tile can be searched in its core only while its halo is used
+	 * to check and refine the maxima close to the core borders. The search is
+	 * run on the specified executor service, which is not shut down by this
+	 * method.
+	 */
+	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final Interval searchInterval, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads, final ExecutorService service )
+	{
+		return findLocalMaxima( source, searchInterval, threshold, calibration, radius, doSubPixelLocalization, 0, numThreads, service );
+	}
 
-		return spots;
+	/**
+	 * Finds the local maxima of the specified image above the specified
+	 * threshold that lie in the specified search interval, keeps at most the
+	 * specified number of them with the largest quality, and returns them as
+	 * spots. See {@link LocalMaximaFinder}.
+	 *
+	 * @param maxNumSpots
+	 *            the maximal number of spots to return. If 0 or less, all the
+	 *            maxima are returned.
+	 * @param service
+	 *            the executor service to run on, not shut down by this
+	 *            method. If <code>null</code>, new threads are created.
+	 */
+	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final Interval searchInterval, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int maxNumSpots, final int numThreads, final ExecutorService service )
+	{
+		return LocalMaximaFinder.findLocalMaxima( source, searchInterval, threshold, calibration, radius, doSubPixelLocalization, maxNumSpots, numThreads, service );
 	}
 }
@@ -143,6 +143,40 @@ public class DetectorKeys
 	/** A default value for the {@link #KEY_ICOLUMN} parameter. */
 	public static final int DEFAULT_ICOLUMN = 38;
 
+	/**
+	 * The key identifying the parameter that sets the name of the CSV files.
+	 * If the frame column is negative, this is a pattern formatted with the
+	 * frame as single argument, for instance <code>frame_%03d.csv</code>, and
+	 * an empty string stands for <code>frame_N.csv</code>, zero-padded to the
+	 * number of digits of the last frame. Otherwise this is the name of the
+	 * single file that contains all the frames. Expected values are
+	 * {@link String}s.
+	 * <p>
+	 * Currently used by:
+	 * <ul>
+	 * <li> {@link CSVDetector}
+	 * </ul>
+	 */
+	public static final String KEY_FILE_PATTERN = "FILE_PATTERN";
+
+	/** A default value for the {@link #KEY_FILE_PATTERN} parameter. */
+	public static final String DEFAULT_FILE_PATTERN = "";
+
+	/**
+	 * The key identifying the parameter that sets the frame column, when all
+	 * the frames are read from a single file. A negative value means that
+	 * there is one file per frame. Expected values are {@link Integer}s.
+	 * <p>
+	 * Currently used by:
+	 * <ul>
+	 * <li> {@link CSVDetector}
+	 * </ul>
+	 */
+	public static final String KEY_FRAME_COLUMN = "FRAME_COLUMN";
+
+	/** A default value for the {@link #KEY_FRAME_COLUMN} parameter. */
+	public static final int DEFAULT_FRAME_COLUMN = -1;
+
 	/**
 	 * The key identifying the parameter that sets the downsampling factor
 	 * applied to the source image prior to segmentation. Expected values are
@@ -186,4 +220,31 @@ public class DetectorKeys
 	/** A default value for the {@link #KEY_DO_SUBPIXEL_LOCALIZATION} parameter. */
 	public static final boolean DEFAULT_DO_SUBPIXEL_LOCALIZATION = true;
 
+	/**
+	 * The key identifying the parameter that sets how the LoG filter is
+	 * computed: with a separable convolution in the spatial domain
+	 * ({@link #CONVOLUTION_SEPARABLE}), with an FFT convolution
+	 * ({@link #CONVOLUTION_FFT}), or with the one estimated to be the fastest
+	 * for the image size, radius and number of threads
+	 * ({@link #CONVOLUTION_AUTO}). Expected values are {@link String}s.
+	 * <p>
+	 * Currently used by:
+	 * <ul>
+	 * <li> {@link LogDetector}
+	 * </ul>
+	 */
+	public static final String KEY_CONVOLUTION_METHOD = "CONVOLUTION_METHOD";
+
+	/** A value for the {@link #KEY_CONVOLUTION_METHOD} parameter. */
+	public static final String CONVOLUTION_AUTO = "AUTO";
+
+	/** A value for the {@link #KEY_CONVOLUTION_METHOD} parameter. */
+	public static final String CONVOLUTION_SEPARABLE = "SEPARABLE";
+
+	/** A value for the {@link #KEY_CONVOLUTION_METHOD} parameter. */
+	public static final String CONVOLUTION_FFT = "FFT";
+
+	/** A default value for the {@link #KEY_CONVOLUTION_METHOD} parameter. */
+	public static final String DEFAULT_CONVOLUTION_METHOD = CONVOLUTION_AUTO;
+
 }
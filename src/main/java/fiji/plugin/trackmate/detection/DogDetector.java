@@ -1,5 +1,8 @@
 package fiji.plugin.trackmate.detection;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
@@ -8,11 +11,13 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.dog.DifferenceOfGaussian;
 import net.imglib2.algorithm.gauss3.Gauss3;
 import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
+import fiji.plugin.trackmate.Spot;
 
 public class DogDetector< T extends RealType< T > & NativeType< T >> extends LogDetector< T >
 {
@@ -38,12 +43,9 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 	 */
 
 	@Override
-	public boolean process()
+	protected List< Spot > detectIn( final Interval region, final Interval core, final ExecutorService es )
 	{
-
-		final long start = System.currentTimeMillis();
-
-		RandomAccessibleInterval< T > view = Views.interval( img, interval );
+		RandomAccessibleInterval< T > view = Views.interval( img, region );
 
 		/*
 		 * Do median filtering (or not).
@@ -51,12 +53,16 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 
 		if ( doMedianFilter )
 		{
-			view = DetectionUtils.applyMedianFilter( view );
-			if ( null == view )
+			final Img< T > filtered = DetectionUtils.applyMedianFilter( view, numThreads, es );
+			if ( null == filtered )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				errorMessage = baseErrorMessage + "Failed to apply median filter.";
+				return null;
 			}
+			// The filtered image starts at 0, move it back over the region.
+			final long[] origin = new long[ region.numDimensions() ];
+			region.min( origin );
+			view = Views.translate( filtered, origin );
 		}
 
 		/*
@@ -65,24 +71,22 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 
 		final RandomAccessible< T > extended = Views.extendMirrorSingle( view );
 		// We need to shift coordinates by -min[] to have the correct location.
-		final long[] min = new long[ interval.numDimensions() ];
-		interval.min( min );
+		final long[] min = new long[ region.numDimensions() ];
+		region.min( min );
 		for ( int d = 0; d < min.length; d++ )
 		{
 			min[ d ] = -min[ d ];
 		}
 
 		final FloatType type = new FloatType();
-		final RandomAccessibleInterval< FloatType > dog = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
-		final RandomAccessibleInterval< FloatType > dog2 = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
+		final RandomAccessibleInterval< FloatType > dog = Views.offset( Util.getArrayOrCellImgFactory( region, type ).create( region, type ), min );
+		final RandomAccessibleInterval< FloatType > dog2 = Views.offset( Util.getArrayOrCellImgFactory( region, type ).create( region, type ), min );
 
-		final double sigma1 = radius / Math.sqrt( interval.numDimensions() ) * 0.9;
-		final double sigma2 = radius / Math.sqrt( interval.numDimensions() ) * 1.1;
-		final double[][] sigmas = DifferenceOfGaussian.computeSigmas( 0.5, 2, calibration, sigma1, sigma2 );
+		final double[][] sigmas = computeSigmas();
 		try
 		{
-			Gauss3.gauss( sigmas[ 1 ], extended, dog2, numThreads );
-			Gauss3.gauss( sigmas[ 0 ], extended, dog, numThreads );
+			Gauss3.gauss( sigmas[ 1 ], extended, dog2, es );
+			Gauss3.gauss( sigmas[ 0 ], extended, dog, es );
 		}
 		catch ( final IncompatibleTypeException e )
 		{
@@ -96,11 +100,29 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 		while ( dogCursor.hasNext() )
 			dogCursor.next().sub( tmpCursor.next() );
 
-		spots = DetectionUtils.findLocalMaxima( dog, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		return DetectionUtils.findLocalMaxima( dog, core == region ? dog : core, threshold, calibration, radius, doSubPixelLocalization, maxNumSpots, numThreads, es );
+	}
 
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Returns the half size of the larger of the two Gaussian kernels, as
+	 * computed by {@link Gauss3}.
+	 */
+	@Override
+	protected long[] getFilterSupport()
+	{
+		final double[][] sigmas = computeSigmas();
+		final long[] support = new long[ interval.numDimensions() ];
+		for ( int d = 0; d < support.length; d++ )
+		{
+			support[ d ] = Math.max( 2, ( int ) ( 3 * sigmas[ 1 ][ d ] + 0.5 ) + 1 );
+		}
+		return support;
+	}
 
-		return true;
+	private double[][] computeSigmas()
+	{
+		final double sigma1 = radius / Math.sqrt( interval.numDimensions() ) * 0.9;
+		final double sigma2 = radius / Math.sqrt( interval.numDimensions() ) * 1.1;
+		return DifferenceOfGaussian.computeSigmas( 0.5, 2, calibration, sigma1, sigma2 );
 	}
 }
@@ -12,6 +12,7 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.util.LogConvolutionCache;
 
 public class DownsampleLogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >
 {
@@ -45,6 +46,12 @@ public class DownsampleLogDetector< T extends RealType< T > & NativeType< T >> i
 
 	private final double[] calibration;
 
+	/**
+	 * The cache of LoG kernel FFTs, shared with the detectors of the other
+	 * frames.
+	 */
+	private LogConvolutionCache convolutionCache;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -167,6 +174,7 @@ public class DownsampleLogDetector< T extends RealType< T > & NativeType< T >> i
 		// 2.1 Instantiate detector
 		final LogDetector< T > detector = new LogDetector< T >( downsampled, downsampled, dwnCalibration, radius, threshold, false, false );
 		detector.setNumThreads( 1 );
+		detector.setConvolutionCache( convolutionCache );
 
 		// 2.2 Execute detection
 		if ( !detector.checkInput() || !detector.process() )
@@ -184,6 +192,19 @@ public class DownsampleLogDetector< T extends RealType< T > & NativeType< T >> i
 		return true;
 	}
 
+	/**
+	 * Sets the cache of LoG kernel FFTs to use. Detectors processing the
+	 * frames of the same movie can share one cache.
+	 *
+	 * @param convolutionCache
+	 *            the cache. If <code>null</code>, the kernel FFT is recomputed
+	 *            at each call to {@link #process()}.
+	 */
+	public void setConvolutionCache( final LogConvolutionCache convolutionCache )
+	{
+		this.convolutionCache = convolutionCache;
+	}
+
 	@Override
 	public List< Spot > getResult()
 	{
@@ -103,6 +103,7 @@ public class DownsampleLogDetectorFactory< T extends RealType< T > & NativeType<
 		}
 
 		final DownsampleLogDetector< T > detector = new DownsampleLogDetector< T >( imFrame, interval, calibration, radius, threshold, downsamplingFactor );
+		detector.setConvolutionCache( convolutionCache );
 		return detector;
 	}
 
@@ -1,13 +1,17 @@
 package fiji.plugin.trackmate.detection;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
@@ -17,8 +21,11 @@ import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.util.LogConvolutionCache;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
-public class LogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded
+public class LogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded, ExecutorServiceAware
 {
 
 	/*
@@ -27,6 +34,15 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 	private final static String BASE_ERROR_MESSAGE = "LogDetector: ";
 
+	/**
+	 * Estimate of the bytes needed per pixel of a processed region: the float
+	 * copy, and the padded complex FFTs of the image and of the kernel.
+	 */
+	private static final long BYTES_PER_PIXEL = 24;
+
+	/** Tiles are not made smaller than this, halo excluded. */
+	private static final long MIN_TILE_SIZE = 32;
+
 	/** The image to segment. Will not modified. */
 	protected RandomAccessible< T > img;
 
@@ -54,6 +70,37 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 	protected final double[] calibration;
 
+	/**
+	 * The executor service to run on. If <code>null</code>, a new one is
+	 * created for each call to {@link #process()}.
+	 */
+	protected ExecutorService service;
+
+	/**
+	 * The cache of LoG kernel FFTs, shared with the detectors of the other
+	 * frames. By default, this detector has its own cache, reused by its
+	 * tiles.
+	 */
+	protected LogConvolutionCache convolutionCache = new LogConvolutionCache();
+
+	/**
+	 * The size of the tiles, halo excluded. If 0 or less, tiles are used only
+	 * if the interval does not fit in memory.
+	 */
+	protected long tileSize = 0;
+
+	/**
+	 * How the LoG filter is computed, one of the
+	 * {@link DetectorKeys#KEY_CONVOLUTION_METHOD} values.
+	 */
+	protected String convolutionMethod = DetectorKeys.DEFAULT_CONVOLUTION_METHOD;
+
+	/**
+	 * The maximal number of spots to return, the ones with the largest
+	 * quality. If 0 or less, all the spots are returned.
+	 */
+	protected int maxNumSpots = 0;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -96,12 +143,62 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 	{
 		final long start = System.currentTimeMillis();
 
+		// Does not create threads: it submits to the shared pool.
+		final ExecutorService es = null == service ? new ComputePool( numThreads ) : service;
+		try
+		{
+			final long[] coreSize = getTileCoreSize();
+			if ( null == coreSize )
+			{
+				spots = detectIn( interval, interval, es );
+			}
+			else
+			{
+				spots = detectInTiles( coreSize, es );
+			}
+		}
+		finally
+		{
+			if ( es != service )
+			{
+				es.shutdown();
+			}
+		}
+		if ( null == spots )
+		{
+			spots = new ArrayList< Spot >();
+			return false;
+		}
+
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Filters the specified region of the source image and returns the
+	 * maxima found in the specified core of the region. The region is the
+	 * whole interval, or a tile and its halo.
+	 *
+	 * @param region
+	 *            the region to filter.
+	 * @param core
+	 *            the interval to search for maxima in, included in the
+	 *            region.
+	 * @param es
+	 *            the executor service to run on.
+	 * @return the spots found, or <code>null</code> if detection failed, in
+	 *         which case the error message is set.
+	 */
+	protected List< Spot > detectIn( final Interval region, final Interval core, final ExecutorService es )
+	{
 		/*
 		 * Copy to float for convolution.
 		 */
 
-		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( interval, new FloatType() );
-		Img< FloatType > floatImg = DetectionUtils.copyToFloatImg( img, interval, factory );
+		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( region, new FloatType() );
+		Img< FloatType > floatImg = DetectionUtils.copyToFloatImg( img, region, factory );
 
 		/*
 		 * Do median filtering (or not).
@@ -109,43 +206,327 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 		if ( doMedianFilter )
 		{
-			floatImg = DetectionUtils.applyMedianFilter( floatImg );
+			floatImg = DetectionUtils.applyMedianFilter( floatImg, numThreads, es );
 			if ( null == floatImg )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				errorMessage = baseErrorMessage + "Failed to apply median filter.";
+				return null;
 			}
 		}
 
+		/*
+		 * Convolve with the LoG kernel. Singleton dimensions were squeezed
+		 * out of the interval, so the float image has the dimensionality of
+		 * the kernel.
+		 */
 
-		int ndims = interval.numDimensions();
-		for ( int d = 0; d < interval.numDimensions(); d++ )
+		if ( useSeparableConvolution( floatImg, es ) )
 		{
-			// Squeeze singleton dimensions
-			if ( interval.dimension( d ) <= 1 )
+			try
 			{
-				ndims--;
+				floatImg = DetectionUtils.convolveLoGSeparable( floatImg, radius, calibration, es );
+			}
+			catch ( final IncompatibleTypeException e )
+			{
+				errorMessage = baseErrorMessage + "Failed to convolve with the LoG kernel: " + e.getMessage();
+				return null;
 			}
 		}
+		else
+		{
+			convolutionCache.convolve( floatImg, radius, calibration, es );
+		}
 
-		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, ndims, calibration );
-		final FFTConvolution< FloatType > fftconv = new FFTConvolution< FloatType >( floatImg, kernel );
-		fftconv.setExecutorService(Executors.newFixedThreadPool( numThreads ));
-		fftconv.convolve();
-
-		final long[] minopposite = new long[ interval.numDimensions() ];
-		interval.min( minopposite );
+		final long[] minopposite = new long[ region.numDimensions() ];
+		region.min( minopposite );
 		for ( int d = 0; d < minopposite.length; d++ )
 		{
 			minopposite[ d ] = -minopposite[ d ];
 		}
 		final IntervalView< FloatType > to = Views.offset( floatImg, minopposite );
-		spots = DetectionUtils.findLocalMaxima( to, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		return DetectionUtils.findLocalMaxima( to, core == region ? to : core, threshold, calibration, radius, doSubPixelLocalization, maxNumSpots, numThreads, es );
+	}
 
-		final long end = System.currentTimeMillis();
-		this.processingTime = end - start;
+	/**
+	 * Returns <code>true</code> if the specified image is to be convolved with
+	 * the separable LoG kernels rather than with an FFT, depending on the
+	 * convolution method. Both convolutions run on the executor service, so
+	 * they use its threads if it is multi-threaded.
+	 */
+	private boolean useSeparableConvolution( final Img< FloatType > floatImg, final ExecutorService es )
+	{
+		if ( DetectorKeys.CONVOLUTION_SEPARABLE.equals( convolutionMethod ) ) { return true; }
+		if ( DetectorKeys.CONVOLUTION_FFT.equals( convolutionMethod ) ) { return false; }
 
-		return true;
+		final long[] dims = new long[ floatImg.numDimensions() ];
+		floatImg.dimensions( dims );
+		final int nThreads = es instanceof MultiThreaded ? ( ( MultiThreaded ) es ).getNumThreads() : numThreads;
+		return DetectionUtils.isSeparableLoGFaster( dims, radius, calibration, nThreads, nThreads );
+	}
+
+	/**
+	 * Returns, for each dimension, the number of pixels the filter reads on
+	 * each side of a pixel to compute its value. For the LoG detector, this is
+	 * the half size of the LoG kernel.
+	 */
+	protected long[] getFilterSupport()
+	{
+		return DetectionUtils.getLoGKernelHalfSize( radius, interval.numDimensions(), calibration );
+	}
+
+	/**
+	 * Returns the number of pixels tiles must be extended by, along each
+	 * dimension, so that the filtered values around their core, and therefore
+	 * the maxima found in it and their sub-pixel position, are the same as
+	 * for the whole interval.
+	 */
+	protected long[] getHalo()
+	{
+		final long[] halo = getFilterSupport();
+		for ( int d = 0; d < halo.length; d++ )
+		{
+			// Neighbors of the maxima.
+			halo[ d ] += 1;
+			if ( doMedianFilter )
+			{
+				halo[ d ] += 1;
+			}
+			if ( doSubPixelLocalization )
+			{
+				halo[ d ] += DetectionUtils.SUBPIXEL_MAX_NUM_MOVES;
+			}
+		}
+		return halo;
+	}
+
+	/**
+	 * Returns the size of the tile cores, or <code>null</code> if the
+	 * interval is to be processed at once.
+	 * <p>
+	 * In auto mode, the frames detected at the same time share half the free
+	 * memory.
+	 */
+	private long[] getTileCoreSize()
+	{
+		final int n = interval.numDimensions();
+		final long[] dims = new long[ n ];
+		interval.dimensions( dims );
+		final long[] halo = getHalo();
+
+		long edge;
+		if ( tileSize > 0 )
+		{
+			edge = tileSize;
+		}
+		else
+		{
+			final Runtime runtime = Runtime.getRuntime();
+			final long budget = ( runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory() ) / 2 / getNumConcurrentFrames();
+			if ( regionSize( dims, halo, Long.MAX_VALUE / 4 ) * BYTES_PER_PIXEL <= budget ) { return null; }
+
+			// Halve the tiles until as many as threads fit in memory.
+			edge = 1;
+			for ( int d = 0; d < n; d++ )
+			{
+				edge = Math.max( edge, dims[ d ] );
+			}
+			while ( edge > MIN_TILE_SIZE && regionSize( dims, halo, edge ) * BYTES_PER_PIXEL * numThreads > budget )
+			{
+				edge /= 2;
+			}
+		}
+
+		final long[] coreSize = new long[ n ];
+		boolean tiled = false;
+		for ( int d = 0; d < n; d++ )
+		{
+			coreSize[ d ] = Math.min( dims[ d ], edge );
+			tiled = tiled || coreSize[ d ] < dims[ d ];
+		}
+		return tiled ? coreSize : null;
+	}
+
+	/**
+	 * Returns the number of frames detected at the same time as this one, on
+	 * the same executor service. TrackMate splits the threads of its pool
+	 * evenly between the frames it processes at once, so this is the number of
+	 * threads of the pool divided by the number of threads of this detector.
+	 */
+	private int getNumConcurrentFrames()
+	{
+		if ( !( service instanceof MultiThreaded ) ) { return 1; }
+		return Math.max( 1, ( ( MultiThreaded ) service ).getNumThreads() / Math.max( 1, numThreads ) );
+	}
+
+	/**
+	 * Returns the number of pixels of a tile with the specified core edge and
+	 * halo, clipped to the interval dimensions.
+	 */
+	private static long regionSize( final long[] dims, final long[] halo, final long edge )
+	{
+		long size = 1;
+		for ( int d = 0; d < dims.length; d++ )
+		{
+			size *= Math.min( dims[ d ], edge + 2 * halo[ d ] );
+		}
+		return size;
+	}
+
+	/**
+	 * Splits the interval in tiles with the specified core size, processes
+	 * them in parallel and merges their spots.
+	 * <p>
+	 * Tiles are the core plus the halo on each side. Tiles that would extend
+	 * beyond the interval are shifted inside it rather than cropped, so that
+	 * they all have the same size and share the same convolution buffers.
+	 */
+	private List< Spot > detectInTiles( final long[] coreSize, final ExecutorService es )
+	{
+		final int n = interval.numDimensions();
+		final long[] halo = getHalo();
+		final long[] nTilesAlong = new long[ n ];
+		final long[] regionSize = new long[ n ];
+		long nTilesTotal = 1;
+		for ( int d = 0; d < n; d++ )
+		{
+			nTilesAlong[ d ] = ( interval.dimension( d ) + coreSize[ d ] - 1 ) / coreSize[ d ];
+			regionSize[ d ] = Math.min( interval.dimension( d ), coreSize[ d ] + 2 * halo[ d ] );
+			nTilesTotal *= nTilesAlong[ d ];
+		}
+		final long nTiles = nTilesTotal;
+
+		final List< Spot > allSpots = Collections.synchronizedList( new ArrayList< Spot >() );
+		final AtomicLong al = new AtomicLong( 0 );
+		final AtomicBoolean ok = new AtomicBoolean( true );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final long[] coreMin = new long[ n ];
+				final long[] coreMax = new long[ n ];
+				final long[] regionMin = new long[ n ];
+				final long[] regionMax = new long[ n ];
+				for ( long t = al.getAndIncrement(); t < nTiles && ok.get(); t = al.getAndIncrement() )
+				{
+					if ( ComputePool.isCancelled( es ) ) { return; }
+
+					long index = t;
+					for ( int d = 0; d < n; d++ )
+					{
+						final long td = index % nTilesAlong[ d ];
+						index /= nTilesAlong[ d ];
+						coreMin[ d ] = interval.min( d ) + td * coreSize[ d ];
+						coreMax[ d ] = Math.min( interval.max( d ), coreMin[ d ] + coreSize[ d ] - 1 );
+						regionMin[ d ] = Math.max( interval.min( d ), Math.min( interval.max( d ) - regionSize[ d ] + 1, coreMin[ d ] - halo[ d ] ) );
+						regionMax[ d ] = regionMin[ d ] + regionSize[ d ] - 1;
+					}
+
+					final List< Spot > tileSpots = detectIn( new FinalInterval( regionMin, regionMax ), new FinalInterval( coreMin, coreMax ), es );
+					if ( null == tileSpots )
+					{
+						ok.set( false );
+						return;
+					}
+					allSpots.addAll( tileSpots );
+				}
+			}
+		};
+
+		/*
+		 * Tiles submit their own tasks and wait for them. Only the compute
+		 * pool lets waiting tasks run them; on other executors, tiles get
+		 * their own threads so as not to starve the executor.
+		 */
+		final ExecutorService tileService = es instanceof ComputePool ? es : null;
+		final int nTasks = ( int ) Math.max( 1, Math.min( numThreads, nTiles ) );
+		try
+		{
+			if ( !ComputePool.runAll( tileService, worker, nTasks, "LogDetector tile thread" ) )
+			{
+				errorMessage = baseErrorMessage + "Detection was cancelled.";
+				return null;
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errorMessage = baseErrorMessage + "Detection was interrupted.";
+			return null;
+		}
+		if ( !ok.get() ) { return null; }
+
+		final List< Spot > merged = new ArrayList< Spot >( allSpots );
+		if ( maxNumSpots > 0 && merged.size() > maxNumSpots )
+		{
+			// Each tile kept its best spots, keep the best of all tiles.
+			Collections.sort( merged, Collections.reverseOrder( Spot.featureComparator( Spot.QUALITY ) ) );
+			return new ArrayList< Spot >( merged.subList( 0, maxNumSpots ) );
+		}
+		return merged;
+	}
+
+	/**
+	 * Sets the size of the tiles the interval is split in, in pixels along
+	 * each dimension, halo excluded. Tiles are processed independently, so
+	 * that memory is bounded by the tile size times the number of threads,
+	 * and give the same spots as the whole interval.
+	 *
+	 * @param tileSize
+	 *            the tile size. If 0 or less, the interval is tiled only if
+	 *            it does not fit in the available memory.
+	 */
+	public void setTileSize( final long tileSize )
+	{
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Sets the cache of LoG kernel FFTs to use. Detectors processing the
+	 * frames of the same movie can share one cache.
+	 *
+	 * @param convolutionCache
+	 *            the cache. If <code>null</code>, this detector uses its own
+	 *            cache, and the kernel FFT is only reused by its tiles.
+	 */
+	public void setConvolutionCache( final LogConvolutionCache convolutionCache )
+	{
+		this.convolutionCache = null == convolutionCache ? new LogConvolutionCache() : convolutionCache;
+	}
+
+	/**
+	 * Sets how the LoG filter is computed.
+	 *
+	 * @param convolutionMethod
+	 *            {@link DetectorKeys#CONVOLUTION_SEPARABLE} to convolve in the
+	 *            spatial domain with separable kernels,
+	 *            {@link DetectorKeys#CONVOLUTION_FFT} to convolve in the
+	 *            Fourier domain, or {@link DetectorKeys#CONVOLUTION_AUTO} to
+	 *            pick the one estimated to be the fastest.
+	 */
+	public void setConvolutionMethod( final String convolutionMethod )
+	{
+		this.convolutionMethod = convolutionMethod;
+	}
+
+	/**
+	 * Sets the maximal number of spots this detector returns. Only the spots
+	 * with the largest quality are kept, and the others are discarded before
+	 * they are created.
+	 *
+	 * @param maxNumSpots
+	 *            the maximal number of spots. If 0 or less, all the spots
+	 *            above the threshold are returned.
+	 */
+	public void setMaxNumSpots( final int maxNumSpots )
+	{
+		this.maxNumSpots = maxNumSpots;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
 	}
 
 	@Override
@@ -1,10 +1,15 @@
 package fiji.plugin.trackmate.detection;
 
+import static fiji.plugin.trackmate.detection.DetectorKeys.CONVOLUTION_AUTO;
+import static fiji.plugin.trackmate.detection.DetectorKeys.CONVOLUTION_FFT;
+import static fiji.plugin.trackmate.detection.DetectorKeys.CONVOLUTION_SEPARABLE;
+import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_CONVOLUTION_METHOD;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_DO_MEDIAN_FILTERING;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_DO_SUBPIXEL_LOCALIZATION;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_RADIUS;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_THRESHOLD;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_CONVOLUTION_METHOD;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_MEDIAN_FILTERING;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
@@ -13,6 +18,8 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_THRESHOLD;
 import static fiji.plugin.trackmate.io.IOUtils.readBooleanAttribute;
 import static fiji.plugin.trackmate.io.IOUtils.readDoubleAttribute;
 import static fiji.plugin.trackmate.io.IOUtils.readIntegerAttribute;
+import static fiji.plugin.trackmate.io.IOUtils.readStringAttribute;
+import static fiji.plugin.trackmate.io.IOUtils.writeConvolutionMethod;
 import static fiji.plugin.trackmate.io.IOUtils.writeDoMedian;
 import static fiji.plugin.trackmate.io.IOUtils.writeDoSubPixel;
 import static fiji.plugin.trackmate.io.IOUtils.writeRadius;
@@ -40,6 +47,7 @@ import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.detection.util.LogConvolutionCache;
 import fiji.plugin.trackmate.gui.ConfigurationPanel;
 import fiji.plugin.trackmate.gui.panels.detector.LogDetectorConfigurationPanel;
 import fiji.plugin.trackmate.util.TMUtils;
@@ -59,7 +67,7 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	public static final String NAME = "LoG detector";
 
 	/** An html information text. */
-	public static final String INFO_TEXT = "<html>" + "This detector applies a LoG (Laplacian of Gaussian) filter <br>" + "to the image, with a sigma suited to the blob estimated size. <br>" + "Calculations are made in the Fourier space. The maxima in the <br>" + "filtered image are searched for, and maxima too close from each <br>" + "other are suppressed. A quadratic fitting scheme allows to do <br>" + "sub-pixel localization. " + "</html>";
+	public static final String INFO_TEXT = "<html>" + "This detector applies a LoG (Laplacian of Gaussian) filter <br>" + "to the image, with a sigma suited to the blob estimated size. <br>" + "Calculations are made in the Fourier space or with separable <br>" + "kernels, whichever is faster. The maxima in the <br>" + "filtered image are searched for, and maxima too close from each <br>" + "other are suppressed. A quadratic fitting scheme allows to do <br>" + "sub-pixel localization. " + "</html>";
 
 	/*
 	 * FIELDS
@@ -72,6 +80,9 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 	protected String errorMessage;
 
+	/** The LoG kernel FFTs, shared by the detectors of all the frames. */
+	protected final LogConvolutionCache convolutionCache = new LogConvolutionCache();
+
 	/*
 	 * METHODS
 	 */
@@ -129,6 +140,8 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 		final LogDetector< T > detector = new LogDetector< T >( imFrame, interval, calibration, radius, threshold, doSubpixel, doMedian );
 		detector.setNumThreads( 1 );
+		detector.setConvolutionCache( convolutionCache );
+		detector.setConvolutionMethod( getConvolutionMethod( settings ) );
 		return detector;
 	}
 
@@ -154,13 +167,19 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		ok = ok & checkParameter( settings, KEY_THRESHOLD, Double.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_DO_MEDIAN_FILTERING, Boolean.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_DO_SUBPIXEL_LOCALIZATION, Boolean.class, errorHolder );
+		if ( settings.containsKey( KEY_CONVOLUTION_METHOD ) )
+		{
+			ok = ok & checkParameter( settings, KEY_CONVOLUTION_METHOD, String.class, errorHolder ) && checkConvolutionMethod( settings, errorHolder );
+		}
 		final List< String > mandatoryKeys = new ArrayList< String >();
 		mandatoryKeys.add( KEY_TARGET_CHANNEL );
 		mandatoryKeys.add( KEY_RADIUS );
 		mandatoryKeys.add( KEY_THRESHOLD );
 		mandatoryKeys.add( KEY_DO_MEDIAN_FILTERING );
 		mandatoryKeys.add( KEY_DO_SUBPIXEL_LOCALIZATION );
-		ok = ok & checkMapKeys( settings, mandatoryKeys, null, errorHolder );
+		final List< String > optionalKeys = new ArrayList< String >();
+		optionalKeys.add( KEY_CONVOLUTION_METHOD );
+		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, errorHolder );
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -172,7 +191,7 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	public boolean marshall( final Map< String, Object > settings, final Element element )
 	{
 		final StringBuilder errorHolder = new StringBuilder();
-		final boolean ok = writeTargetChannel( settings, element, errorHolder ) && writeRadius( settings, element, errorHolder ) && writeThreshold( settings, element, errorHolder ) && writeDoMedian( settings, element, errorHolder ) && writeDoSubPixel( settings, element, errorHolder );
+		final boolean ok = writeTargetChannel( settings, element, errorHolder ) && writeRadius( settings, element, errorHolder ) && writeThreshold( settings, element, errorHolder ) && writeDoMedian( settings, element, errorHolder ) && writeDoSubPixel( settings, element, errorHolder ) && ( !settings.containsKey( KEY_CONVOLUTION_METHOD ) || writeConvolutionMethod( settings, element, errorHolder ) );
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -191,6 +210,11 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		ok = ok & readBooleanAttribute( element, settings, KEY_DO_SUBPIXEL_LOCALIZATION, errorHolder );
 		ok = ok & readBooleanAttribute( element, settings, KEY_DO_MEDIAN_FILTERING, errorHolder );
 		ok = ok & readIntegerAttribute( element, settings, KEY_TARGET_CHANNEL, errorHolder );
+		// Absent from files saved before it was introduced.
+		if ( null != element.getAttributeValue( KEY_CONVOLUTION_METHOD ) )
+		{
+			ok = ok & readStringAttribute( element, settings, KEY_CONVOLUTION_METHOD, errorHolder );
+		}
 		if ( !ok )
 		{
 			errorMessage = errorHolder.toString();
@@ -235,4 +259,22 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		return null;
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static String getConvolutionMethod( final Map< String, Object > settings )
+	{
+		final Object obj = settings.get( KEY_CONVOLUTION_METHOD );
+		return null == obj ? DEFAULT_CONVOLUTION_METHOD : ( String ) obj;
+	}
+
+	private static boolean checkConvolutionMethod( final Map< String, Object > settings, final StringBuilder errorHolder )
+	{
+		final String method = ( String ) settings.get( KEY_CONVOLUTION_METHOD );
+		if ( method.equals( CONVOLUTION_AUTO ) || method.equals( CONVOLUTION_SEPARABLE ) || method.equals( CONVOLUTION_FFT ) ) { return true; }
+		errorHolder.append( "Unknown convolution method: " + method + ". Expected " + CONVOLUTION_AUTO + ", " + CONVOLUTION_SEPARABLE + " or " + CONVOLUTION_FFT + ".\n" );
+		return false;
+	}
+
 }
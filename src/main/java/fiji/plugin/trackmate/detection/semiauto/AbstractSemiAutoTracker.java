@@ -1,17 +1,21 @@
 package fiji.plugin.trackmate.detection.semiauto;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -21,7 +25,10 @@ import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.detection.LogDetector;
 import fiji.plugin.trackmate.detection.SpotDetector;
+import fiji.plugin.trackmate.detection.util.LogConvolutionCache;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 /**
  * A class made to perform semi-automated tracking of spots in TrackMate &
@@ -35,7 +42,9 @@ import fiji.plugin.trackmate.tracking.SpotTracker;
  * center, then it is added to the model and linked with the first spot.
  * <p>
  * The process is then repeated, taking the newly found spot as a source for the
- * next neighborhood. The model is updated live for every spot found.
+ * next neighborhood. The model is updated live for every frame processed.
+ * Several spots are tracked together, frame by frame, so that detection is
+ * run once in the neighborhoods they share.
  * <p>
  * The process halts when:
  * <ul>
@@ -50,7 +59,7 @@ import fiji.plugin.trackmate.tracking.SpotTracker;
  *            {@link NativeType} to use with most TrackMate {@link SpotDetector}
  *            s.
  */
-public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeType< T >> implements Algorithm, MultiThreaded
+public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeType< T >> implements Algorithm, MultiThreaded, ExecutorServiceAware
 {
 
 	/** Minimal size of neighborhoods, in spot diameter units. */
@@ -70,7 +79,10 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 
 	private int numThreads;
 
-	protected boolean ok;
+	private ExecutorService service;
+
+	/** Written by the detection threads. */
+	protected volatile boolean ok;
 
 	protected final Logger logger;
 
@@ -85,6 +97,9 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 
 	private int nFrames;
 
+	/** The LoG kernel FFTs, shared by the detectors of all the steps. */
+	private final LogConvolutionCache convolutionCache = new LogConvolutionCache();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -131,28 +146,8 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 		}
 		selectionModel.clearSelection();
 
-		final int nThreads = Math.min( numThreads, spots.size() );
-		final ArrayBlockingQueue< Spot > queue = new ArrayBlockingQueue< Spot >( spots.size(), false, spots );
-
 		ok = true;
-		final ThreadGroup semiAutoTrackingThreadgroup = new ThreadGroup( "Semi-automatic tracking threads" );
-		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
-		for ( int i = 0; i < threads.length; i++ )
-		{
-			threads[ i ] = new Thread( semiAutoTrackingThreadgroup, new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					Spot spot;
-					while ( ( spot = queue.poll() ) != null )
-					{
-						processSpot( spot );
-					}
-				}
-			} );
-		}
-		SimpleMultiThreading.startAndJoin( threads );
+		processSpots( spots );
 		return ok;
 	}
 
@@ -170,146 +165,280 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 	 *
 	 * @param initialSpot
 	 *            the spot to start detection with.
+	 * @see #processSpots(Collection)
 	 */
 	public void processSpot( final Spot initialSpot )
 	{
-		/*
-		 * Initial spot
-		 */
-		Spot spot = initialSpot;
-		int nSpotProcessed = 0;
+		processSpots( Collections.singleton( initialSpot ) );
+	}
 
-		while ( nFrames < 1 || nSpotProcessed < nFrames )
+	/**
+	 * Tracks several spots at once, as {@link #processSpot(Spot)} does for one
+	 * spot.
+	 * <p>
+	 * Spots are advanced frame by frame together: at each step, the spots
+	 * that are the earliest in time look for their successor in the next
+	 * frame. Their neighborhoods that overlap and share the same source,
+	 * calibration, transform and radius are merged, and detection is run
+	 * once per merged neighborhood, in parallel. Each spot then picks its
+	 * successor among the spots found in its merged neighborhood, and the
+	 * model is updated once per frame.
+	 *
+	 * @param initialSpots
+	 *            the spots to start detection with.
+	 */
+	public void processSpots( final Collection< Spot > initialSpots )
+	{
+		List< Seed > active = new ArrayList< Seed >( initialSpots.size() );
+		for ( final Spot spot : initialSpots )
 		{
+			active.add( new Seed( spot ) );
+		}
 
-			nSpotProcessed++;
-			
-			/*
-			 * Extract spot & features
-			 */
-
-			// We want to segment in the next frame.
-			final int frame = spot.getFeature( Spot.FRAME ).intValue() + 1;
-			final double radius = spot.getFeature( Spot.RADIUS );
-			final double quality = spot.getFeature( Spot.QUALITY );
-
-			/*
-			 * Get neighborhood
-			 */
-
-			final SearchRegion< T > sn = getNeighborhood( spot, frame );
-			if ( null == sn ) { return; }
-
-			final RandomAccessible< T > source = sn.source;
-			final Interval interval = sn.interval;
-			final AffineTransform3D transform = sn.transform;
-			final double[] calibration = sn.calibration;
-
-			/*
-			 * Detect spots
-			 */
-
-			final SpotDetector< T > detector = createDetector( source, interval, calibration, radius, quality * qualityThreshold );
+		while ( !active.isEmpty() )
+		{
+			// Late seeds wait for the others to catch up, so that they share
+			// frames.
+			int frame = Integer.MAX_VALUE;
+			for ( final Seed seed : active )
+			{
+				frame = Math.min( frame, seed.nextFrame() );
+			}
 
-			if ( !detector.checkInput() || !detector.process() )
+			final List< Seed > batch = new ArrayList< Seed >();
+			final List< Seed > next = new ArrayList< Seed >();
+			for ( final Seed seed : active )
 			{
-				ok = false;
-				errorMessage = detector.getErrorMessage();
-				return;
+				if ( seed.nextFrame() == frame )
+				{
+					batch.add( seed );
+				}
+				else
+				{
+					next.add( seed );
+				}
 			}
+			next.addAll( step( batch, frame ) );
+			active = next;
+		}
+	}
 
-			/*
-			 * Get results
-			 */
+	/**
+	 * Looks for the successors of the specified seeds in the specified frame,
+	 * and adds them to the model.
+	 *
+	 * @return the seeds whose tracking goes on.
+	 */
+	private List< Seed > step( final List< Seed > batch, final int frame )
+	{
+		/*
+		 * Get neighborhoods
+		 */
 
-			final List< Spot > detectedSpots = detector.getResult();
-			if ( detectedSpots.isEmpty() )
+		final List< Seed > searching = new ArrayList< Seed >( batch.size() );
+		for ( final Seed seed : batch )
+		{
+			seed.nProcessed++;
+			seed.region = getNeighborhood( seed.spot, frame );
+			if ( null != seed.region )
 			{
-				logger.log( "Spot: " + initialSpot + ": No suitable spot found.\n" );
-				return;
+				searching.add( seed );
 			}
+		}
+		final List< Group > groups = merge( searching );
 
-			/*
-			 * Translate spots
-			 */
+		/*
+		 * Detect spots
+		 */
 
-			final String[] features = new String[] { Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z };
-			for ( final Spot ds : detectedSpots )
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
 			{
-				final double[] coords = new double[ 3 ];
-				ds.localize( coords );
-				final double[] target = new double[ 3 ];
-				transform.apply( coords, target );
-				for ( int i = 0; i < target.length; i++ )
+				for ( int i = ai.getAndIncrement(); i < groups.size(); i = ai.getAndIncrement() )
 				{
-					ds.putFeature( features[ i ], target[ i ] );
+					detect( groups.get( i ) );
 				}
 			}
+		};
+		try
+		{
+			if ( !ComputePool.runAll( service, worker, Math.min( numThreads, groups.size() ), "Semi-automatic tracking thread" ) )
+			{
+				ok = false;
+				errorMessage = BASE_ERROR_MESSAGE + "Cancelled.\n";
+				return Collections.emptyList();
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			ok = false;
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted.\n";
+			return Collections.emptyList();
+		}
 
-			// Sort then by ascending quality
-			Collections.sort( detectedSpots, Spot.featureComparator( Spot.QUALITY ) );
-			Collections.reverse( detectedSpots );
+		/*
+		 * Update model
+		 */
 
-			boolean found = false;
-			Spot target = null;
-			for ( final Iterator< Spot > iterator = detectedSpots.iterator(); iterator.hasNext(); )
+		final List< Seed > continuing = new ArrayList< Seed >( searching.size() );
+		model.beginUpdate();
+		try
+		{
+			for ( final Group group : groups )
 			{
-				final Spot candidate = iterator.next();
-				if ( candidate.squareDistanceTo( spot ) < distanceTolerance * distanceTolerance * radius * radius )
+				if ( null == group.detectedSpots )
 				{
-					found = true;
-					target = candidate;
-					break;
+					continue;
 				}
-			}
 
-			if ( !found )
-			{
-				logger.log( "Spot: " + initialSpot + ": Suitable spot found, but outside the tolerance radius.\n" );
-				return;
-			}
+				final Set< Spot > claimed = new HashSet< Spot >( group.seeds.size() );
+				for ( final Seed seed : group.seeds )
+				{
+					final Spot target = findSuccessor( seed, group.detectedSpots, claimed );
+					if ( null == target )
+					{
+						continue;
+					}
+
+					/*
+					 * Default POSITION_T features. Concrete implementations
+					 * MUST fix this so that this feature represent a physical
+					 * time.
+					 */
+					target.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+					exposeSpot( target, seed.spot );
+					target.putFeature( Spot.RADIUS, group.radius );
 
-			/*
-			 * Default POSITION_T features. Concrete implementations MUST fix
-			 * this so that this feature represent a physical time.
-			 */
-			target.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+					model.addSpotTo( target, frame );
+					model.addEdge( seed.spot, target, seed.spot.squareDistanceTo( target ) );
+					seed.spot = target;
 
-			/*
-			 * Expose new spot
-			 */
+					if ( nFrames < 1 || seed.nProcessed < nFrames )
+					{
+						continuing.add( seed );
+					}
+					else
+					{
+						logger.log( "Finished semi-auto tracking after processing " + seed.nProcessed + " spots from " + seed.initialSpot + " to " + seed.spot + ".\n" );
+					}
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return continuing;
+	}
+
+	/**
+	 * Runs detection in the specified merged neighborhood, with the lowest
+	 * quality threshold of its seeds. The spots found are put back in the
+	 * global coordinate system and sorted by decreasing quality.
+	 */
+	private void detect( final Group group )
+	{
+		final SpotDetector< T > detector = createDetector( group.source, new FinalInterval( group.min, group.max ), group.calibration, group.radius, group.threshold );
+		if ( !detector.checkInput() || !detector.process() )
+		{
+			ok = false;
+			errorMessage = detector.getErrorMessage();
+			return;
+		}
 
-			exposeSpot( target, spot );
+		final List< Spot > detectedSpots = detector.getResult();
+		final String[] features = new String[] { Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z };
+		final double[] coords = new double[ 3 ];
+		final double[] target = new double[ 3 ];
+		for ( final Spot ds : detectedSpots )
+		{
+			ds.localize( coords );
+			group.transform.apply( coords, target );
+			for ( int i = 0; i < target.length; i++ )
+			{
+				ds.putFeature( features[ i ], target[ i ] );
+			}
+		}
 
-			/*
-			 * Update model
-			 */
+		// Sort then by descending quality
+		Collections.sort( detectedSpots, Spot.featureComparator( Spot.QUALITY ) );
+		Collections.reverse( detectedSpots );
+		group.detectedSpots = detectedSpots;
+	}
 
-			// spot
-			target.putFeature( Spot.RADIUS, radius );
+	/**
+	 * Returns the best spot found for the specified seed: the one with the
+	 * highest quality, above the seed threshold, within the distance
+	 * tolerance. Returns <code>null</code> if there is none. Several seeds can
+	 * pick the same spot: the first one gets it, the next ones get a copy with
+	 * a default name.
+	 */
+	private Spot findSuccessor( final Seed seed, final List< Spot > detectedSpots, final Set< Spot > claimed )
+	{
+		final Spot spot = seed.spot;
+		final double radius = spot.getFeature( Spot.RADIUS );
+		final double threshold = spot.getFeature( Spot.QUALITY ) * qualityThreshold;
+		final double maxSquareDistance = distanceTolerance * distanceTolerance * radius * radius;
 
-			model.beginUpdate();
-			try
+		boolean suitable = false;
+		for ( final Spot candidate : detectedSpots )
+		{
+			if ( candidate.getFeature( Spot.QUALITY ) < threshold )
 			{
-				model.addSpotTo( target, frame );
-				model.addEdge( spot, target, spot.squareDistanceTo( target ) );
+				break;
 			}
-			finally
+			suitable = true;
+			if ( candidate.squareDistanceTo( spot ) < maxSquareDistance )
 			{
-				model.endUpdate();
+				if ( claimed.add( candidate ) ) { return candidate; }
+				return new Spot( candidate, candidate.getFeature( Spot.RADIUS ), candidate.getFeature( Spot.QUALITY ) );
 			}
+		}
 
-			/*
-			 * Loop
-			 */
-
-			spot = target;
+		if ( suitable )
+		{
+			logger.log( "Spot: " + seed.initialSpot + ": Suitable spot found, but outside the tolerance radius.\n" );
+		}
+		else
+		{
+			logger.log( "Spot: " + seed.initialSpot + ": No suitable spot found.\n" );
 		}
+		return null;
+	}
 
-		if ( nSpotProcessed > 0 )
+	/**
+	 * Groups the neighborhoods of the specified seeds, merging the ones that
+	 * overlap until no group overlaps another.
+	 */
+	private List< Group > merge( final List< Seed > seeds )
+	{
+		final List< Group > groups = new ArrayList< Group >();
+		for ( final Seed seed : seeds )
 		{
-			logger.log( "Finished semi-auto tracking after processing " + nSpotProcessed + " spots from " + initialSpot + " to " + spot + ".\n" );
+			final Group merged = new Group( seed );
+			boolean changed = true;
+			while ( changed )
+			{
+				// Growing the group can make it overlap other groups.
+				changed = false;
+				for ( final Iterator< Group > it = groups.iterator(); it.hasNext(); )
+				{
+					final Group group = it.next();
+					if ( merged.canMerge( group ) )
+					{
+						merged.absorb( group );
+						it.remove();
+						changed = true;
+					}
+				}
+			}
+			groups.add( merged );
 		}
+		return groups;
 	}
 
 	/**
@@ -369,6 +498,8 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 	{
 		final LogDetector< T > detector = new LogDetector< T >( img, interval, calibration, radius, quality, true, false );
 		detector.setNumThreads( 1 );
+		detector.setExecutorService( service );
+		detector.setConvolutionCache( convolutionCache );
 		return detector;
 	}
 
@@ -412,6 +543,12 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 		return numThreads;
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	/**
 	 * A utility class made to return the information on a neighborhood
 	 * generated from a source around a {@link Spot}.
@@ -447,4 +584,108 @@ public abstract class AbstractSemiAutoTracker< T extends RealType< T > & NativeT
 		public AffineTransform3D transform;
 	}
 
+	/**
+	 * A spot being tracked.
+	 */
+	private static final class Seed
+	{
+
+		private final Spot initialSpot;
+
+		/** The last spot found. */
+		private Spot spot;
+
+		private int nProcessed;
+
+		/** The neighborhood of the current step. */
+		private SearchRegion< ? > region;
+
+		private Seed( final Spot initialSpot )
+		{
+			this.initialSpot = initialSpot;
+			this.spot = initialSpot;
+		}
+
+		/** The frame the successor is searched in. */
+		private int nextFrame()
+		{
+			return spot.getFeature( Spot.FRAME ).intValue() + 1;
+		}
+	}
+
+	/**
+	 * Overlapping neighborhoods merged into one, to run detection once.
+	 */
+	private final class Group
+	{
+
+		private final RandomAccessible< T > source;
+
+		private final double[] calibration;
+
+		private final AffineTransform3D transform;
+
+		private final double[] transformValues;
+
+		private final double radius;
+
+		private final long[] min;
+
+		private final long[] max;
+
+		private double threshold;
+
+		private final List< Seed > seeds = new ArrayList< Seed >();
+
+		/**
+		 * The spots found in the neighborhood, or <code>null</code> if
+		 * detection failed.
+		 */
+		private List< Spot > detectedSpots;
+
+		@SuppressWarnings( "unchecked" )
+		private Group( final Seed seed )
+		{
+			final SearchRegion< T > region = ( SearchRegion< T > ) seed.region;
+			this.source = region.source;
+			this.calibration = region.calibration;
+			this.transform = region.transform;
+			this.transformValues = region.transform.getRowPackedCopy();
+			this.radius = seed.spot.getFeature( Spot.RADIUS );
+			this.min = new long[ region.interval.numDimensions() ];
+			this.max = new long[ min.length ];
+			region.interval.min( min );
+			region.interval.max( max );
+			this.threshold = seed.spot.getFeature( Spot.QUALITY ) * qualityThreshold;
+			seeds.add( seed );
+		}
+
+		/**
+		 * Returns <code>true</code> if both groups can be detected together:
+		 * they share source, calibration, transform and radius, and their
+		 * neighborhoods overlap.
+		 */
+		private boolean canMerge( final Group other )
+		{
+			if ( source != other.source || Double.compare( radius, other.radius ) != 0 || min.length != other.min.length ) { return false; }
+			if ( !Arrays.equals( calibration, other.calibration ) || !Arrays.equals( transformValues, other.transformValues ) ) { return false; }
+			for ( int d = 0; d < min.length; d++ )
+			{
+				if ( min[ d ] > other.max[ d ] || other.min[ d ] > max[ d ] ) { return false; }
+			}
+			return true;
+		}
+
+		private void absorb( final Group other )
+		{
+			for ( int d = 0; d < min.length; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], other.min[ d ] );
+				max[ d ] = Math.max( max[ d ], other.max[ d ] );
+			}
+			threshold = Math.min( threshold, other.threshold );
+			seeds.addAll( other.seeds );
+		}
+	}
+
 }
@@ -1,6 +1,9 @@
 package fiji.plugin.trackmate.detection.semiauto;
 
 import ij.ImagePlus;
+
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.imagej.ImgPlus;
 import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessible;
@@ -21,6 +24,8 @@ public class SemiAutoTracker< T extends RealType< T > & NativeType< T >> extends
 
 	private final double dt;
 
+	private final ConcurrentHashMap< Integer, RandomAccessible< T > > frameSources = new ConcurrentHashMap< Integer, RandomAccessible< T > >();
+
 	@SuppressWarnings( "unchecked" )
 	public SemiAutoTracker( final Model model, final SelectionModel selectionModel, final ImagePlus imp, final Logger logger )
 	{
@@ -125,6 +130,24 @@ public class SemiAutoTracker< T extends RealType< T > & NativeType< T >> extends
 		final AffineTransform3D transform = new AffineTransform3D();
 
 		final SearchRegion< T > sn = new SearchRegion< T >();
+		sn.source = getFrameSource( frame, tindex, cindex, targetChannel );
+		sn.transform = transform;
+		sn.interval = interval;
+		sn.calibration = cal;
+
+		return sn;
+	}
+
+	/**
+	 * Returns the view on the specified frame and channel of the source. Views
+	 * are created once per frame, so that the neighborhoods taken in the same
+	 * frame share their source and can be merged.
+	 */
+	private RandomAccessible< T > getFrameSource( final int frame, final int tindex, final int cindex, final int targetChannel )
+	{
+		final RandomAccessible< T > cached = frameSources.get( Integer.valueOf( frame ) );
+		if ( null != cached ) { return cached; }
+
 		RandomAccessible< T > source = img;
 		if ( tindex >= 0 )
 		{
@@ -134,12 +157,8 @@ public class SemiAutoTracker< T extends RealType< T > & NativeType< T >> extends
 		{
 			source = Views.hyperSlice( source, cindex, targetChannel );
 		}
-		sn.source = source;
-		sn.transform = transform;
-		sn.interval = interval;
-		sn.calibration = cal;
-
-		return sn;
+		final RandomAccessible< T > previous = frameSources.putIfAbsent( Integer.valueOf( frame ), source );
+		return null == previous ? source : previous;
 	}
 
 	@Override
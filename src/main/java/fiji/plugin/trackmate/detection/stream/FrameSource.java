@@ -0,0 +1,44 @@
+package fiji.plugin.trackmate.detection.stream;
+
+import java.io.IOException;
+
+import net.imagej.ImgPlus;
+
+/**
+ * Interface for classes that can load the frames of a movie one by one, for
+ * movies that cannot be entirely resident in memory.
+ * <p>
+ * The images returned have no parameterized type, for the type of the pixels
+ * is generally only known at runtime.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@SuppressWarnings( "rawtypes" )
+public interface FrameSource
+{
+
+	/**
+	 * Returns the number of frames in the movie.
+	 *
+	 * @return the number of frames.
+	 */
+	public int getNFrames();
+
+	/**
+	 * Loads and returns the image of the specified frame. The image has all
+	 * the axes of the movie (X, Y, and possibly Z and C), but time. Its axes
+	 * must be calibrated.
+	 * <p>
+	 * Frames are loaded by a single thread, so implementations do not have to
+	 * be thread-safe. They must not keep a reference to the frames they
+	 * return.
+	 *
+	 * @param frame
+	 *            the frame to load, 0-based.
+	 * @return a new image.
+	 * @throws IOException
+	 *             if the frame cannot be loaded.
+	 */
+	public ImgPlus getFrame( int frame ) throws IOException;
+
+}
@@ -0,0 +1,39 @@
+package fiji.plugin.trackmate.detection.stream;
+
+import ij.ImagePlus;
+import ij.plugin.Duplicator;
+import net.imagej.ImgPlus;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * A {@link FrameSource} that loads the frames of an {@link ImagePlus}. It is
+ * mainly useful for virtual stacks, for which only the planes of the frame
+ * requested are read.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@SuppressWarnings( "rawtypes" )
+public class ImagePlusFrameSource implements FrameSource
+{
+
+	private final ImagePlus imp;
+
+	public ImagePlusFrameSource( final ImagePlus imp )
+	{
+		this.imp = imp;
+	}
+
+	@Override
+	public int getNFrames()
+	{
+		return imp.getNFrames();
+	}
+
+	@Override
+	public ImgPlus getFrame( final int frame )
+	{
+		final ImagePlus frameImp = new Duplicator().run( imp, 1, imp.getNChannels(), 1, imp.getNSlices(), frame + 1, frame + 1 );
+		return TMUtils.rawWraps( frameImp );
+	}
+
+}
@@ -0,0 +1,158 @@
+package fiji.plugin.trackmate.detection.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+
+/**
+ * A {@link FrameSource} that reads frames from a raw file, through memory
+ * mapping.
+ * <p>
+ * The file is expected to store the frames one after the other, after an
+ * optional header, each frame being a X, Y, Z block of pixels without padding.
+ * Only single-channel files are supported, with 8-bit, 16-bit unsigned
+ * integer or 32-bit float pixels. Only the portion of the file for the frame
+ * requested is mapped.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@SuppressWarnings( "rawtypes" )
+public class RawFileFrameSource implements FrameSource
+{
+
+	private final File file;
+
+	private final int width;
+
+	private final int height;
+
+	private final int nSlices;
+
+	private final int nFrames;
+
+	private final int bitDepth;
+
+	private final ByteOrder byteOrder;
+
+	private final long headerSize;
+
+	private final double[] calibration;
+
+	/**
+	 * Creates a new frame source for a raw file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param width
+	 *            the frame width, in pixels.
+	 * @param height
+	 *            the frame height, in pixels.
+	 * @param nSlices
+	 *            the number of Z slices per frame.
+	 * @param nFrames
+	 *            the number of frames in the file.
+	 * @param bitDepth
+	 *            the pixel bit depth. Must be 8, 16 or 32. 32-bit pixels are
+	 *            read as floats.
+	 * @param littleEndian
+	 *            the byte order of 16-bit and 32-bit pixels.
+	 * @param headerSize
+	 *            the number of bytes to skip at the beginning of the file.
+	 * @param calibration
+	 *            the pixel sizes in X, Y and Z.
+	 */
+	public RawFileFrameSource( final File file, final int width, final int height, final int nSlices, final int nFrames, final int bitDepth, final boolean littleEndian, final long headerSize, final double[] calibration )
+	{
+		if ( bitDepth != 8 && bitDepth != 16 && bitDepth != 32 ) { throw new IllegalArgumentException( "Unsupported bit depth: " + bitDepth + ". Must be 8, 16 or 32." ); }
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.nSlices = nSlices;
+		this.nFrames = nFrames;
+		this.bitDepth = bitDepth;
+		this.byteOrder = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		this.headerSize = headerSize;
+		this.calibration = calibration;
+	}
+
+	@Override
+	public int getNFrames()
+	{
+		return nFrames;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public ImgPlus getFrame( final int frame ) throws IOException
+	{
+		final long nPixels = ( long ) width * height * nSlices;
+		final long frameSize = nPixels * ( bitDepth / 8 );
+		if ( frameSize > Integer.MAX_VALUE ) { throw new IOException( "Frames larger than 2 GB are not supported. Got " + frameSize + " bytes." ); }
+
+		final long[] dims;
+		final AxisType[] axes;
+		final double[] cal;
+		if ( nSlices > 1 )
+		{
+			dims = new long[] { width, height, nSlices };
+			axes = new AxisType[] { Axes.X, Axes.Y, Axes.Z };
+			cal = new double[] { calibration[ 0 ], calibration[ 1 ], calibration[ 2 ] };
+		}
+		else
+		{
+			dims = new long[] { width, height };
+			axes = new AxisType[] { Axes.X, Axes.Y };
+			cal = new double[] { calibration[ 0 ], calibration[ 1 ] };
+		}
+
+		final Img img;
+		final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try
+		{
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer buffer = channel.map( MapMode.READ_ONLY, headerSize + frame * frameSize, frameSize );
+			buffer.order( byteOrder );
+			switch ( bitDepth )
+			{
+			case 8:
+			{
+				final byte[] data = new byte[ ( int ) nPixels ];
+				buffer.get( data );
+				img = ArrayImgs.unsignedBytes( data, dims );
+				break;
+			}
+			case 16:
+			{
+				final short[] data = new short[ ( int ) nPixels ];
+				buffer.asShortBuffer().get( data );
+				img = ArrayImgs.unsignedShorts( data, dims );
+				break;
+			}
+			default:
+			{
+				final float[] data = new float[ ( int ) nPixels ];
+				buffer.asFloatBuffer().get( data );
+				img = ArrayImgs.floats( data, dims );
+				break;
+			}
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		return new ImgPlus( img, file.getName() + " - frame " + frame, axes, cal );
+	}
+
+}
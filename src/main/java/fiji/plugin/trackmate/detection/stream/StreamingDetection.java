@@ -0,0 +1,390 @@
+package fiji.plugin.trackmate.detection.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Interval;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.detection.SpotDetector;
+import fiji.plugin.trackmate.detection.SpotDetectorFactory;
+import fiji.plugin.trackmate.features.SpotFeatureCalculator;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Detects spots in a movie that is not resident in memory, in a single pass
+ * over its frames.
+ * <p>
+ * Frames are loaded one by one from a {@link FrameSource} by a loader thread,
+ * and processed by worker threads. Each worker runs the detector, the initial
+ * filtering on quality and the spot feature calculation on a frame while it is
+ * loaded, so that the pixels are never read twice. The number of frames
+ * loaded at any time is bounded by the number of frames in flight, so the
+ * peak memory does not depend on the movie length.
+ * <p>
+ * This replaces the detection, initial filtering and spot feature calculation
+ * steps of {@link fiji.plugin.trackmate.TrackMate}. The crop fields, the
+ * detector factory and settings, the initial filter value and the spot
+ * analyzers are read from the {@link Settings}. Its <code>imp</code> field is
+ * not used. As after the regular detection, all the spots are invisible when
+ * this algorithm returns: the spot filtering step
+ * ({@link fiji.plugin.trackmate.TrackMate#execSpotFiltering(boolean)}) must be
+ * run next.
+ * <p>
+ * The loader and the frame workers block on the frame queue, so they run in
+ * their own threads. Detectors run their multi-threaded parts on the executor
+ * service, if one is set, and the workers stop when it is cancelled.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class StreamingDetection extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[StreamingDetection] ";
+
+	/** Marks the end of the frame queue. */
+	private static final LoadedFrame POISON = new LoadedFrame( -1, null );
+
+	private final Model model;
+
+	private final Settings settings;
+
+	private final FrameSource source;
+
+	private final int framesInFlight;
+
+	private ExecutorService service;
+
+	/**
+	 * Creates a new streaming detection.
+	 *
+	 * @param model
+	 *            the model to store the spots in. Its spots are replaced.
+	 * @param settings
+	 *            the settings to read the detection configuration from.
+	 * @param source
+	 *            the source to load frames from.
+	 * @param framesInFlight
+	 *            the maximal number of frames loaded at the same time.
+	 */
+	public StreamingDetection( final Model model, final Settings settings, final FrameSource source, final int framesInFlight )
+	{
+		this.model = model;
+		this.settings = settings;
+		this.source = source;
+		this.framesInFlight = framesInFlight;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == model )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Model object is null.";
+			return false;
+		}
+		if ( null == settings )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Settings object is null.";
+			return false;
+		}
+		if ( null == source )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Frame source is null.";
+			return false;
+		}
+		if ( null == settings.detectorFactory )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Detector factory is null.";
+			return false;
+		}
+		if ( null == settings.detectorSettings )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Detector settings is null.";
+			return false;
+		}
+		if ( framesInFlight < 1 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The number of frames in flight must be at least 1, was " + framesInFlight + ".";
+			return false;
+		}
+		if ( settings.tstart < 0 || settings.tend >= source.getNFrames() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Frame interval [" + settings.tstart + ", " + settings.tend + "] is out of the source range [0, " + ( source.getNFrames() - 1 ) + "].";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		final Logger logger = model.getLogger();
+
+		final SpotCollection spots = new SpotCollection();
+		spots.setNumThreads( numThreads );
+		spots.setExecutorService( service );
+		// Spot analyzers take the spots from the model.
+		model.setSpots( spots, false );
+		final SpotFeatureCalculator calculator = new SpotFeatureCalculator( model, settings );
+		calculator.declareFeatures();
+
+		final int numFrames = settings.tend - settings.tstart + 1;
+		final int nWorkers = Math.max( 1, Math.min( numThreads, Math.min( framesInFlight, numFrames ) ) );
+		final int threadsPerFrame = Math.max( 1, numThreads / nWorkers );
+
+		final Semaphore slots = new Semaphore( framesInFlight );
+		final BlockingQueue< LoadedFrame > queue = new LinkedBlockingQueue< LoadedFrame >();
+		// Does not create threads: it submits to the shared pool.
+		final ExecutorService executorService = null == service ? new ComputePool( numThreads ) : service;
+		final AtomicBoolean ok = new AtomicBoolean( true );
+		final AtomicInteger spotFound = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+
+		final Thread[] threads = new Thread[ 1 + nWorkers ];
+		threads[ 0 ] = new Thread( "TrackMate frame loading thread" )
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for ( int frame = settings.tstart; frame <= settings.tend && ok.get(); frame++ )
+					{
+						slots.acquire();
+						final ImgPlus< ? > img = source.getFrame( frame );
+						queue.add( new LoadedFrame( frame, img ) );
+					}
+				}
+				catch ( final IOException e )
+				{
+					fail( ok, e.getMessage() );
+				}
+				catch ( final InterruptedException e )
+				{
+					fail( ok, "Frame loading interrupted." );
+				}
+				finally
+				{
+					for ( int i = 0; i < nWorkers; i++ )
+					{
+						queue.add( POISON );
+					}
+				}
+			}
+		};
+
+		for ( int i = 0; i < nWorkers; i++ )
+		{
+			threads[ 1 + i ] = new Thread( "TrackMate streaming detection thread " + ( 1 + i ) + "/" + nWorkers )
+			{
+				@Override
+				public void run()
+				{
+					while ( true )
+					{
+						final LoadedFrame loaded;
+						try
+						{
+							loaded = queue.take();
+						}
+						catch ( final InterruptedException e )
+						{
+							fail( ok, "Detection workers interrupted." );
+							return;
+						}
+						if ( loaded == POISON )
+						{
+							return;
+						}
+
+						try
+						{
+							if ( ComputePool.isCancelled( executorService ) )
+							{
+								fail( ok, "Detection cancelled." );
+							}
+							else if ( ok.get() )
+							{
+								final int n = processFrame( loaded.img, loaded.frame, spots, calculator, threadsPerFrame, executorService, ok );
+								if ( n >= 0 )
+								{
+									spotFound.addAndGet( n );
+									logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
+								}
+							}
+						}
+						finally
+						{
+							slots.release();
+						}
+					}
+				}
+			};
+		}
+
+		logger.setStatus( "Streaming detection..." );
+		logger.setProgress( 0 );
+		try
+		{
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+		finally
+		{
+			if ( executorService != service )
+			{
+				executorService.shutdownNow();
+			}
+		}
+
+		model.setSpots( spots, true );
+		if ( ok.get() )
+		{
+			logger.log( "Found " + spotFound.get() + " spots.\n" );
+		}
+		else
+		{
+			logger.error( "Detection failed after " + progress.get() + " frames:\n" + errorMessage );
+			logger.log( "Found " + spotFound.get() + " spots prior failure.\n" );
+		}
+		logger.setProgress( 1 );
+		logger.setStatus( "" );
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return ok.get();
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	/**
+	 * Detects spots in a frame, filters them, stores them and computes their
+	 * features.
+	 *
+	 * @return the number of spots found, or <code>-1</code> if the detection
+	 *         failed.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private int processFrame( final ImgPlus img, final int frame, final SpotCollection spots, final SpotFeatureCalculator calculator, final int threadsPerFrame, final ExecutorService executorService, final AtomicBoolean ok )
+	{
+		/*
+		 * Detection. The factory is shared by all workers, and stores the
+		 * image it operates on, so we must get the detector in one go.
+		 */
+
+		final SpotDetectorFactory factory = settings.detectorFactory;
+		final Interval interval = TMUtils.getInterval( img, settings );
+		final SpotDetector< ? > detector;
+		synchronized ( factory )
+		{
+			if ( !factory.setTarget( img, settings.detectorSettings ) )
+			{
+				fail( ok, factory.getErrorMessage() );
+				return -1;
+			}
+			detector = factory.getDetector( interval, frame );
+		}
+		if ( detector instanceof MultiThreaded )
+		{
+			( ( MultiThreaded ) detector ).setNumThreads( threadsPerFrame );
+		}
+		if ( detector instanceof ExecutorServiceAware )
+		{
+			( ( ExecutorServiceAware ) detector ).setExecutorService( executorService );
+		}
+		if ( !detector.checkInput() || !detector.process() )
+		{
+			fail( ok, detector.getErrorMessage() );
+			return -1;
+		}
+		final List< Spot > spotsThisFrame = detector.getResult();
+
+		/*
+		 * Special case: if we have a single column image, then the detectors
+		 * internally dealt with a single line image. We need to permute back
+		 * the X & Y coordinates if it's the case.
+		 */
+		if ( img.dimension( 0 ) < 2 && TMUtils.findZAxisIndex( img ) < 0 )
+		{
+			for ( final Spot spot : spotsThisFrame )
+			{
+				spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
+				spot.putFeature( Spot.POSITION_X, 0d );
+			}
+		}
+
+		/*
+		 * Prune with the ROI and the initial filter.
+		 */
+
+		final double[] calibration = TMUtils.getSpatialCalibration( img );
+		final double qualityThreshold = null == settings.initialSpotFilterValue ? Double.NEGATIVE_INFINITY : settings.initialSpotFilterValue.doubleValue();
+		final List< Spot > prunedSpots = new ArrayList< Spot >( spotsThisFrame.size() );
+		for ( final Spot spot : spotsThisFrame )
+		{
+			if ( null != settings.polygon && !settings.polygon.contains( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ], spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) )
+			{
+				continue;
+			}
+			if ( Double.compare( spot.getFeature( Spot.QUALITY_INDEX ), qualityThreshold ) < 0 )
+			{
+				continue;
+			}
+			// FRAME will be set upon adding to SpotCollection.
+			spot.putFeature( Spot.POSITION_T, frame * settings.dt );
+			prunedSpots.add( spot );
+		}
+
+		/*
+		 * Store and compute features while the frame is loaded.
+		 */
+
+		spots.put( frame, prunedSpots );
+		calculator.computeSpotFeatures( img, frame );
+		return prunedSpots.size();
+	}
+
+	private synchronized void fail( final AtomicBoolean ok, final String message )
+	{
+		if ( ok.getAndSet( false ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + message;
+		}
+	}
+
+	private static final class LoadedFrame
+	{
+		private final int frame;
+
+		@SuppressWarnings( "rawtypes" )
+		private final ImgPlus img;
+
+		@SuppressWarnings( "rawtypes" )
+		private LoadedFrame( final int frame, final ImgPlus img )
+		{
+			this.frame = frame;
+			this.img = img;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package fiji.plugin.trackmate.detection.stream;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.imagej.ImgPlus;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * A {@link FrameSource} that reads each frame from a TIFF file in a folder.
+ * Files are sorted by name, and each file must contain exactly one frame,
+ * possibly with several Z slices and channels.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+@SuppressWarnings( "rawtypes" )
+public class TiffFolderFrameSource implements FrameSource
+{
+
+	private static final FilenameFilter TIFF_FILTER = new FilenameFilter()
+	{
+		@Override
+		public boolean accept( final File dir, final String name )
+		{
+			final String lc = name.toLowerCase();
+			return lc.endsWith( ".tif" ) || lc.endsWith( ".tiff" );
+		}
+	};
+
+	private final File[] files;
+
+	/**
+	 * Creates a frame source for the TIFF files of the specified folder.
+	 *
+	 * @param folder
+	 *            the folder to read frames from.
+	 * @throws IOException
+	 *             if the folder cannot be listed.
+	 */
+	public TiffFolderFrameSource( final File folder ) throws IOException
+	{
+		final File[] list = folder.listFiles( TIFF_FILTER );
+		if ( null == list ) { throw new IOException( "Cannot list the content of " + folder ); }
+		Arrays.sort( list );
+		this.files = list;
+	}
+
+	@Override
+	public int getNFrames()
+	{
+		return files.length;
+	}
+
+	@Override
+	public ImgPlus getFrame( final int frame ) throws IOException
+	{
+		final ImagePlus imp = IJ.openImage( files[ frame ].getAbsolutePath() );
+		if ( null == imp ) { throw new IOException( "Could not open frame " + frame + " from " + files[ frame ] ); }
+		if ( imp.getNFrames() > 1 ) { throw new IOException( "File " + files[ frame ] + " contains " + imp.getNFrames() + " frames. Expected 1." ); }
+		return TMUtils.rawWraps( imp );
+	}
+
+}
@@ -0,0 +1,537 @@
+package fiji.plugin.trackmate.detection.util;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DetectionUtils;
+import fiji.plugin.trackmate.util.ComputePool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Finds the local maxima of a filtered image and returns them as spots, with
+ * as few intermediate objects as possible.
+ * <p>
+ * The search interval is split in slabs along its last dimension, which are
+ * scanned in parallel. The quality threshold is tested first, so that the
+ * neighborhood of a pixel is only read if it is above the threshold. The
+ * maxima found are stored as primitive coordinates, optionally reduced to the
+ * ones with the largest quality, then refined in place by a quadratic fit.
+ * Only the maxima that survive are created as {@link Spot}s.
+ * <p>
+ * A pixel is a maximum if its value is not smaller than the threshold and if
+ * none of its neighbors has a strictly larger value, as for
+ * <code>LocalExtrema.MaximumCheck</code>. Neighbors out of the source image
+ * are mirrored. Sub-pixel localization follows
+ * <code>SubpixelLocalization</code>: the maximum of the quadratic fit is
+ * sought around the pixel, moving to the neighbor pixel when it is more than
+ * half a pixel away, with at most {@link DetectionUtils#SUBPIXEL_MAX_NUM_MOVES}
+ * fits and without leaving the source image. Maxima for which the fit does not
+ * converge are kept at their pixel position.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class LocalMaximaFinder
+{
+
+	/**
+	 * How much the half-pixel limit is relaxed at each move of the sub-pixel
+	 * localization, to prevent oscillations between two pixels. A float, as
+	 * in <code>SubpixelLocalization</code>.
+	 */
+	private static final float MAXIMA_TOLERANCE = 0.01f;
+
+	/** Number of slabs per thread, to balance the load. */
+	private static final int SLABS_PER_THREAD = 4;
+
+	private LocalMaximaFinder()
+	{}
+
+	/**
+	 * Finds the local maxima of the specified image above the specified
+	 * threshold that lie in the specified search interval.
+	 *
+	 * @param source
+	 *            the filtered image. Neighbors and sub-pixel localization can
+	 *            read all of it.
+	 * @param searchInterval
+	 *            the interval to search for maxima in, included in the
+	 *            source.
+	 * @param threshold
+	 *            the minimal value of maxima.
+	 * @param calibration
+	 *            the pixel sizes, to convert positions to spot coordinates.
+	 * @param radius
+	 *            the radius of the spots created.
+	 * @param doSubPixelLocalization
+	 *            whether to refine the position of maxima.
+	 * @param maxNumSpots
+	 *            if strictly positive, only the maxima with the largest values,
+	 *            up to this number, are returned. Maxima with equal values are
+	 *            kept in scan order.
+	 * @param numThreads
+	 *            the number of tasks to split the work in.
+	 * @param service
+	 *            the executor service to run the tasks on, not shut down by
+	 *            this method. If <code>null</code>, new threads are created.
+	 * @return a new list of spots.
+	 */
+	public static List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final Interval searchInterval, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int maxNumSpots, final int numThreads, final ExecutorService service )
+	{
+		final int n = source.numDimensions();
+		final RandomAccessible< FloatType > extended = Views.extendMirrorSingle( source );
+		// Neighbors of the search interval, and the moves of refinement.
+		final long margin = 1 + ( doSubPixelLocalization ? DetectionUtils.SUBPIXEL_MAX_NUM_MOVES + 1 : 0 );
+		final Interval accessInterval = Intervals.expand( searchInterval, margin );
+
+		/*
+		 * Scan slabs for maxima.
+		 */
+
+		final int lastDim = n - 1;
+		final long length = searchInterval.dimension( lastDim );
+		final int nSlabs = ( int ) Math.max( 1, Math.min( length, ( long ) numThreads * SLABS_PER_THREAD ) );
+		final Peaks[] slabPeaks = new Peaks[ nSlabs ];
+		final float t = ( float ) threshold;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Runnable scanner = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final RandomAccess< FloatType > ra = extended.randomAccess( accessInterval );
+				final RandomAccess< FloatType > nra = extended.randomAccess( accessInterval );
+				final long[] min = new long[ n ];
+				final long[] max = new long[ n ];
+				final long[] position = new long[ n ];
+				for ( int i = ai.getAndIncrement(); i < nSlabs; i = ai.getAndIncrement() )
+				{
+					searchInterval.min( min );
+					searchInterval.max( max );
+					min[ lastDim ] = searchInterval.min( lastDim ) + i * length / nSlabs;
+					max[ lastDim ] = searchInterval.min( lastDim ) + ( i + 1 ) * length / nSlabs - 1;
+					slabPeaks[ i ] = scan( ra, nra, min, max, position, t );
+				}
+			}
+		};
+		if ( !run( scanner, nSlabs, numThreads, service, "LocalMaximaFinder scan thread" ) ) { return Collections.emptyList(); }
+
+		final Peaks peaks = Peaks.concatenate( slabPeaks, n );
+		if ( maxNumSpots > 0 )
+		{
+			peaks.retainLargest( maxNumSpots );
+		}
+		if ( peaks.size == 0 ) { return Collections.emptyList(); }
+
+		/*
+		 * Refine in place.
+		 */
+
+		final double[] coords = new double[ peaks.size * n ];
+		for ( int i = 0; i < coords.length; i++ )
+		{
+			coords[ i ] = peaks.positions[ i ];
+		}
+		if ( doSubPixelLocalization )
+		{
+			final int nChunks = Math.max( 1, Math.min( peaks.size, numThreads * SLABS_PER_THREAD ) );
+			final AtomicInteger aj = new AtomicInteger( 0 );
+			final Runnable refiner = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< FloatType > ra = extended.randomAccess( accessInterval );
+					final Fit fit = new Fit( source );
+					for ( int j = aj.getAndIncrement(); j < nChunks; j = aj.getAndIncrement() )
+					{
+						final int from = ( int ) ( ( long ) j * peaks.size / nChunks );
+						final int to = ( int ) ( ( long ) ( j + 1 ) * peaks.size / nChunks );
+						for ( int p = from; p < to; p++ )
+						{
+							fit.refine( ra, peaks.positions, coords, p * n );
+						}
+					}
+				}
+			};
+			if ( !run( refiner, nChunks, numThreads, service, "LocalMaximaFinder refine thread" ) ) { return Collections.emptyList(); }
+		}
+
+		/*
+		 * Create spots.
+		 */
+
+		final List< Spot > spots = new ArrayList< Spot >( peaks.size );
+		for ( int p = 0; p < peaks.size; p++ )
+		{
+			final int o = p * n;
+			final double x = coords[ o ] * calibration[ 0 ];
+			final double y = n > 1 ? coords[ o + 1 ] * calibration[ 1 ] : 0d;
+			final double z = n > 2 ? coords[ o + 2 ] * calibration[ 2 ] : 0d;
+			spots.add( new Spot( x, y, z, radius, peaks.values[ p ] ) );
+		}
+		return spots;
+	}
+
+	/**
+	 * Scans the specified interval in raster order for maxima.
+	 */
+	private static Peaks scan( final RandomAccess< FloatType > ra, final RandomAccess< FloatType > nra, final long[] min, final long[] max, final long[] position, final float threshold )
+	{
+		final int n = min.length;
+		final Peaks peaks = new Peaks( n );
+		if ( max[ n - 1 ] < min[ n - 1 ] ) { return peaks; }
+
+		System.arraycopy( min, 0, position, 0, n );
+		while ( true )
+		{
+			ra.setPosition( position );
+			for ( long x = min[ 0 ]; x <= max[ 0 ]; x++ )
+			{
+				final float value = ra.get().get();
+				// Same comparisons as FloatType.compareTo().
+				if ( !( value < threshold ) )
+				{
+					position[ 0 ] = x;
+					if ( isMaximum( nra, position, value ) )
+					{
+						peaks.add( position, value );
+					}
+				}
+				ra.fwd( 0 );
+			}
+
+			// Next line.
+			int d = 1;
+			for ( ; d < n; d++ )
+			{
+				if ( position[ d ] < max[ d ] )
+				{
+					position[ d ]++;
+					break;
+				}
+				position[ d ] = min[ d ];
+			}
+			if ( d == n )
+			{
+				break;
+			}
+			position[ 0 ] = min[ 0 ];
+		}
+		return peaks;
+	}
+
+	/**
+	 * Returns <code>true</code> if none of the neighbors of the specified
+	 * position has a value strictly larger than the specified one.
+	 */
+	private static boolean isMaximum( final RandomAccess< FloatType > nra, final long[] position, final float value )
+	{
+		final int n = position.length;
+		int nNeighbors = 1;
+		for ( int d = 0; d < n; d++ )
+		{
+			nNeighbors *= 3;
+		}
+		for ( int k = 0; k < nNeighbors; k++ )
+		{
+			// Skip the center.
+			if ( 2 * k + 1 == nNeighbors )
+			{
+				continue;
+			}
+			int index = k;
+			for ( int d = 0; d < n; d++ )
+			{
+				nra.setPosition( position[ d ] + index % 3 - 1, d );
+				index /= 3;
+			}
+			if ( nra.get().get() > value ) { return false; }
+		}
+		return true;
+	}
+
+	private static boolean run( final Runnable worker, final int nItems, final int numThreads, final ExecutorService service, final String name )
+	{
+		final int nTasks = Math.max( 1, Math.min( numThreads, nItems ) );
+		if ( nTasks == 1 )
+		{
+			worker.run();
+			return true;
+		}
+		try
+		{
+			return ComputePool.runAll( service, worker, nTasks, name );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Maxima stored as primitive arrays: their pixel position and value.
+	 */
+	private static final class Peaks
+	{
+
+		private final int n;
+
+		private long[] positions;
+
+		private float[] values;
+
+		private int size;
+
+		private Peaks( final int n )
+		{
+			this.n = n;
+			this.positions = new long[ 16 * n ];
+			this.values = new float[ 16 ];
+		}
+
+		private void add( final long[] position, final float value )
+		{
+			if ( size == values.length )
+			{
+				values = Arrays.copyOf( values, 2 * size );
+				positions = Arrays.copyOf( positions, 2 * size * n );
+			}
+			System.arraycopy( position, 0, positions, size * n, n );
+			values[ size++ ] = value;
+		}
+
+		/**
+		 * Keeps only the specified number of peaks with the largest values,
+		 * in their current order.
+		 */
+		private void retainLargest( final int maxSize )
+		{
+			if ( size <= maxSize ) { return; }
+			final float[] sorted = Arrays.copyOf( values, size );
+			Arrays.sort( sorted );
+			final float cutoff = sorted[ size - maxSize ];
+			// Peaks at the cutoff value that can be kept.
+			int nAtCutoff = maxSize;
+			for ( int p = 0; p < size; p++ )
+			{
+				if ( values[ p ] > cutoff )
+				{
+					nAtCutoff--;
+				}
+			}
+
+			int kept = 0;
+			for ( int p = 0; p < size; p++ )
+			{
+				final float value = values[ p ];
+				if ( value > cutoff || ( value == cutoff && nAtCutoff-- > 0 ) )
+				{
+					values[ kept ] = value;
+					System.arraycopy( positions, p * n, positions, kept * n, n );
+					kept++;
+				}
+			}
+			size = kept;
+		}
+
+		private static Peaks concatenate( final Peaks[] parts, final int n )
+		{
+			final Peaks all = new Peaks( n );
+			int size = 0;
+			for ( final Peaks part : parts )
+			{
+				size += part.size;
+			}
+			all.values = new float[ Math.max( 16, size ) ];
+			all.positions = new long[ all.values.length * n ];
+			for ( final Peaks part : parts )
+			{
+				System.arraycopy( part.values, 0, all.values, all.size, part.size );
+				System.arraycopy( part.positions, 0, all.positions, all.size * n, part.size * n );
+				all.size += part.size;
+			}
+			return all;
+		}
+	}
+
+	/**
+	 * Quadratic fit of the image around a pixel, with buffers reused from one
+	 * peak to the next.
+	 */
+	private static final class Fit
+	{
+
+		private final int n;
+
+		private final long[] current;
+
+		private final double[] gradient;
+
+		private final double[][] hessian;
+
+		private final double[] offset;
+
+		private final Interval validInterval;
+
+		private Fit( final Interval validInterval )
+		{
+			this.n = validInterval.numDimensions();
+			this.validInterval = validInterval;
+			this.current = new long[ n ];
+			this.gradient = new double[ n ];
+			this.hessian = new double[ n ][ n + 1 ];
+			this.offset = new double[ n ];
+		}
+
+		/**
+		 * Refines the position of the peak whose pixel position starts at the
+		 * specified index in the positions array, and writes the refined
+		 * position in the coordinates array at the same index. Leaves the
+		 * coordinates untouched if the fit does not converge or moves out of
+		 * the valid interval.
+		 */
+		private void refine( final RandomAccess< FloatType > ra, final long[] positions, final double[] coords, final int o )
+		{
+			System.arraycopy( positions, o, current, 0, n );
+			int numMoves = 0;
+			while ( true )
+			{
+				if ( !isValid() || !fit( ra ) ) { return; }
+
+				final double limit = 0.5 + numMoves * MAXIMA_TOLERANCE;
+				boolean stable = true;
+				for ( int d = 0; d < n; d++ )
+				{
+					if ( offset[ d ] > limit )
+					{
+						current[ d ]++;
+						stable = false;
+					}
+					else if ( offset[ d ] < -limit )
+					{
+						current[ d ]--;
+						stable = false;
+					}
+				}
+
+				if ( stable )
+				{
+					for ( int d = 0; d < n; d++ )
+					{
+						coords[ o + d ] = current[ d ] + offset[ d ];
+					}
+					return;
+				}
+				if ( ++numMoves >= DetectionUtils.SUBPIXEL_MAX_NUM_MOVES ) { return; }
+			}
+		}
+
+		/**
+		 * Returns <code>true</code> if the current position is in the valid
+		 * interval, as checked by <code>SubpixelLocalization</code> before
+		 * each fit.
+		 */
+		private boolean isValid()
+		{
+			for ( int d = 0; d < n; d++ )
+			{
+				if ( current[ d ] < validInterval.min( d ) || current[ d ] > validInterval.max( d ) ) { return false; }
+			}
+			return true;
+		}
+
+		/**
+		 * Computes the offset to the extremum of the quadratic fit around the
+		 * current position. Returns <code>false</code> if the Hessian matrix
+		 * is singular.
+		 */
+		private boolean fit( final RandomAccess< FloatType > ra )
+		{
+			ra.setPosition( current );
+			final double center = ra.get().getRealDouble();
+			for ( int d = 0; d < n; d++ )
+			{
+				ra.setPosition( current[ d ] + 1, d );
+				final double plus = ra.get().getRealDouble();
+				ra.setPosition( current[ d ] - 1, d );
+				final double minus = ra.get().getRealDouble();
+				ra.setPosition( current[ d ], d );
+				gradient[ d ] = ( plus - minus ) / 2d;
+				hessian[ d ][ d ] = plus - 2d * center + minus;
+
+				for ( int e = 0; e < d; e++ )
+				{
+					ra.setPosition( current[ d ] + 1, d );
+					ra.setPosition( current[ e ] + 1, e );
+					final double pp = ra.get().getRealDouble();
+					ra.setPosition( current[ e ] - 1, e );
+					final double pm = ra.get().getRealDouble();
+					ra.setPosition( current[ d ] - 1, d );
+					final double mm = ra.get().getRealDouble();
+					ra.setPosition( current[ e ] + 1, e );
+					final double mp = ra.get().getRealDouble();
+					ra.setPosition( current[ d ], d );
+					ra.setPosition( current[ e ], e );
+					hessian[ d ][ e ] = ( pp - pm - mp + mm ) / 4d;
+					hessian[ e ][ d ] = hessian[ d ][ e ];
+				}
+			}
+
+			// Solve hessian * offset = -gradient, with partial pivoting.
+			for ( int d = 0; d < n; d++ )
+			{
+				hessian[ d ][ n ] = -gradient[ d ];
+			}
+			for ( int c = 0; c < n; c++ )
+			{
+				int pivot = c;
+				for ( int r = c + 1; r < n; r++ )
+				{
+					if ( Math.abs( hessian[ r ][ c ] ) > Math.abs( hessian[ pivot ][ c ] ) )
+					{
+						pivot = r;
+					}
+				}
+				if ( hessian[ pivot ][ c ] == 0d ) { return false; }
+				final double[] tmp = hessian[ c ];
+				hessian[ c ] = hessian[ pivot ];
+				hessian[ pivot ] = tmp;
+				for ( int r = c + 1; r < n; r++ )
+				{
+					final double factor = hessian[ r ][ c ] / hessian[ c ][ c ];
+					for ( int k = c; k <= n; k++ )
+					{
+						hessian[ r ][ k ] -= factor * hessian[ c ][ k ];
+					}
+				}
+			}
+			for ( int c = n - 1; c >= 0; c-- )
+			{
+				double sum = hessian[ c ][ n ];
+				for ( int k = c + 1; k < n; k++ )
+				{
+					sum -= hessian[ c ][ k ] * offset[ k ];
+				}
+				offset[ c ] = sum / hessian[ c ][ c ];
+			}
+			return true;
+		}
+	}
+}
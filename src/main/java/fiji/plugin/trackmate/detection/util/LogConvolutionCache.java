@@ -0,0 +1,214 @@
+package fiji.plugin.trackmate.detection.util;
+
+import fiji.plugin.trackmate.detection.DetectionUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * A cache for the FFT convolutions with a LoG kernel, shared by the detectors
+ * that process the frames of the same movie.
+ * <p>
+ * All the frames of a movie have the same size, and are processed with the
+ * same radius and calibration. So the LoG kernel and its padded Fourier
+ * transform can be computed once and reused. This cache keeps the
+ * {@link FFTConvolution} instances, which hold the kernel FFT, in pools keyed
+ * by radius, calibration and image dimensions. An instance is used by only one
+ * caller at a time, so there are as many instances in a pool as there are
+ * frames processed simultaneously.
+ * <p>
+ * The semi-automatic tracker detects in neighborhoods whose size changes as
+ * they are merged, so several keys are in use at the same time. The pools of
+ * the most recently used keys are kept, up to the cache capacity, and the
+ * least recently used one is dropped beyond. The cache therefore does not
+ * grow when the detection is re-run with other parameters.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class LogConvolutionCache
+{
+
+	/** The default maximal number of pools kept. */
+	public static final int DEFAULT_CAPACITY = 8;
+
+	/** Pools in access order, least recently used first. */
+	private final LinkedHashMap< Key, ConcurrentLinkedQueue< FFTConvolution< FloatType > > > pools;
+
+	/**
+	 * Creates a new cache that keeps the pools of the
+	 * {@link #DEFAULT_CAPACITY} most recently used keys.
+	 */
+	public LogConvolutionCache()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Creates a new cache that keeps the pools of the specified number of most
+	 * recently used keys.
+	 *
+	 * @param capacity
+	 *            the maximal number of pools kept, at least 1.
+	 */
+	public LogConvolutionCache( final int capacity )
+	{
+		if ( capacity < 1 ) { throw new IllegalArgumentException( "Cache capacity must be at least 1, was " + capacity + "." ); }
+		this.pools = new LinkedHashMap< Key, ConcurrentLinkedQueue< FFTConvolution< FloatType > > >( 2 * capacity, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Key, ConcurrentLinkedQueue< FFTConvolution< FloatType > > > eldest )
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Convolves in place the specified image with a LoG kernel tuned for
+	 * blobs of the specified radius.
+	 *
+	 * @param img
+	 *            the image to convolve. Must not have singleton dimensions.
+	 * @param radius
+	 *            the blob radius, in image units.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @param service
+	 *            the executor service to run the FFTs on.
+	 */
+	public void convolve( final Img< FloatType > img, final double radius, final double[] calibration, final ExecutorService service )
+	{
+		final long[] dims = new long[ img.numDimensions() ];
+		img.dimensions( dims );
+		final Key key = new Key( radius, calibration, dims );
+
+		final ConcurrentLinkedQueue< FFTConvolution< FloatType > > pool = getPool( key );
+
+		FFTConvolution< FloatType > fftconv = pool.poll();
+		if ( null == fftconv )
+		{
+			final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, dims.length, calibration );
+			fftconv = new FFTConvolution< FloatType >( img, kernel );
+			// We do not need the image FFT after convolution, so we can work in it.
+			fftconv.setKeepImgFFT( false );
+		}
+		else
+		{
+			// Only the image changes. The kernel FFT is kept.
+			fftconv.setImg( img );
+			fftconv.setOutput( img );
+		}
+
+		fftconv.setExecutorService( service );
+		try
+		{
+			fftconv.convolve();
+		}
+		finally
+		{
+			pool.offer( fftconv );
+		}
+	}
+
+	/**
+	 * Empties this cache.
+	 */
+	public void clear()
+	{
+		synchronized ( pools )
+		{
+			pools.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of {@link FFTConvolution} instances in the pools of
+	 * this cache, not counting the ones in use.
+	 */
+	int numInstances()
+	{
+		synchronized ( pools )
+		{
+			int n = 0;
+			for ( final ConcurrentLinkedQueue< FFTConvolution< FloatType > > pool : pools.values() )
+			{
+				n += pool.size();
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Returns the number of keys whose pool is kept by this cache.
+	 */
+	int numPools()
+	{
+		synchronized ( pools )
+		{
+			return pools.size();
+		}
+	}
+
+	/**
+	 * Returns the pool for the specified key, creating it if needed. An
+	 * evicted pool is not reused, but the instances in use in it complete
+	 * normally.
+	 */
+	private ConcurrentLinkedQueue< FFTConvolution< FloatType > > getPool( final Key key )
+	{
+		synchronized ( pools )
+		{
+			ConcurrentLinkedQueue< FFTConvolution< FloatType > > pool = pools.get( key );
+			if ( null == pool )
+			{
+				pool = new ConcurrentLinkedQueue< FFTConvolution< FloatType > >();
+				pools.put( key, pool );
+			}
+			return pool;
+		}
+	}
+
+	private static final class Key
+	{
+		private final double radius;
+
+		private final double[] calibration;
+
+		private final long[] dims;
+
+		private final int hash;
+
+		private Key( final double radius, final double[] calibration, final long[] dims )
+		{
+			this.radius = radius;
+			// Only the calibration of the image dimensions is used.
+			this.calibration = Arrays.copyOf( calibration, dims.length );
+			this.dims = dims;
+			this.hash = 31 * ( 31 * Double.valueOf( radius ).hashCode() + Arrays.hashCode( this.calibration ) ) + Arrays.hashCode( dims );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Key ) )
+				return false;
+			final Key o = ( Key ) obj;
+			return Double.compare( radius, o.radius ) == 0 && Arrays.equals( calibration, o.calibration ) && Arrays.equals( dims, o.dims );
+		}
+	}
+}
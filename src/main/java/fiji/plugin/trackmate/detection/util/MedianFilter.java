@@ -1,39 +1,88 @@
 package fiji.plugin.trackmate.detection.util;
 
-import java.util.Arrays;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
-import net.imglib2.algorithm.neighborhood.RectangleShape.NeighborhoodsAccessible;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 
-public class MedianFilter< T extends RealType< T > & NativeType< T >> extends BenchmarkAlgorithm implements OutputAlgorithm< Img< T >>
+/**
+ * A median filter over a square, cubic or hypercubic window of the specified
+ * radius, in all the dimensions of the source.
+ * <p>
+ * Neighbors outside the source are ignored, so the window is clipped at the
+ * image borders, and when the window holds an even number of values, the
+ * lower median is used. The result has the same type as the source, and the
+ * same dimensions, with its origin at 0.
+ * <p>
+ * The image is split in tiles that are processed in parallel. Each tile is
+ * copied, with a halo of the size of the radius, to a buffer, where values are
+ * stored as integer keys that sort like them. The borders of the image are
+ * dealt with when filling the buffer and when computing the window of each
+ * row, never for individual neighbors. Then:
+ * <ul>
+ * <li>3x3 and 3x3x3 windows that fit in the image are reduced with fixed
+ * sequences of min / max operations;
+ * <li>for larger radii, integer types with at most 2<sup>16</sup> values are
+ * filtered with a histogram of the window that slides along X;
+ * <li>other windows are gathered and the median selected in place.
+ * </ul>
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class MedianFilter< T extends RealType< T > & NativeType< T >> extends BenchmarkAlgorithm implements OutputAlgorithm< Img< T >>, MultiThreaded, ExecutorServiceAware
 {
+
+	/** Size of the tiles along Y. Tiles span the whole image along X. */
+	private static final int TILE_SIZE_Y = 64;
+
+	/** Size of the tiles along Z and the next dimensions. */
+	private static final int TILE_SIZE_Z = 16;
+
+	/**
+	 * Integer types with at most this number of values are filtered with
+	 * histograms when the radius is larger than 1.
+	 */
+	private static final int MAX_HISTOGRAM_BINS = 1 << 16;
+
 	private final RandomAccessibleInterval< T > source;
 
 	private Img< T > output;
 
 	private final int radius;
 
+	private int numThreads;
+
+	private ExecutorService service;
+
 	public MedianFilter( final RandomAccessibleInterval< T > source, final int radius )
 	{
 		this.source = source;
 		this.radius = radius;
+		setNumThreads();
 	}
 
 	@Override
 	public boolean checkInput()
 	{
+		if ( radius < 1 )
+		{
+			errorMessage = "Radius must be at least 1, was " + radius + ".";
+			return false;
+		}
 		return true;
 	}
 
@@ -45,32 +94,108 @@ public class MedianFilter< T extends RealType< T > & NativeType< T >> extends Be
 		final T type = source.randomAccess().get();
 		final ImgFactory< T > factory = Util.getArrayOrCellImgFactory( source, type );
 		this.output = factory.create( source, type );
-		final float[] values = new float[ 9 ];
 
-		final Cursor< T > outCursor = output.cursor();
-		final RectangleShape shape = new RectangleShape( radius, false );
-		final NeighborhoodsAccessible< T > neighborhoods = shape.neighborhoodsRandomAccessible( source );
-		final RandomAccess< Neighborhood< T >> ran = neighborhoods.randomAccess( output );
+		final int n = source.numDimensions();
+		final long[] min = new long[ n ];
+		source.min( min );
+		final long[] dims = new long[ n ];
+		source.dimensions( dims );
 
-		while ( outCursor.hasNext() )
+		final boolean useHistogram = radius > 1 && type instanceof IntegerType && type.getMaxValue() - type.getMinValue() < MAX_HISTOGRAM_BINS;
+		final double typeMin = type.getMinValue();
+		final int nBins = useHistogram ? ( int ) ( type.getMaxValue() - type.getMinValue() ) + 1 : 0;
+
+		final long[] tileSize = new long[ n ];
+		final long[] nTilesAlong = new long[ n ];
+		long nTilesTotal = 1;
+		for ( int d = 0; d < n; d++ )
 		{
-			outCursor.fwd();
-			ran.setPosition( outCursor );
-			final Neighborhood< T > neighborhood = ran.get();
+			tileSize[ d ] = d == 0 ? dims[ 0 ] : ( d == 1 ? TILE_SIZE_Y : TILE_SIZE_Z );
+			nTilesAlong[ d ] = ( dims[ d ] + tileSize[ d ] - 1 ) / tileSize[ d ];
+			nTilesTotal *= nTilesAlong[ d ];
+		}
+		final int nTiles = ( int ) nTilesTotal;
 
-			int index = 0;
-			final Cursor< T > nc = neighborhood.cursor();
-			while ( nc.hasNext() )
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
 			{
-				nc.fwd();
-				if ( !Intervals.contains( source, nc ) )
-					continue;
+				final TileFilter tileFilter = new TileFilter( dims, useHistogram, nBins );
+				final long[] tileMin = new long[ n ];
+				final long[] tileMax = new long[ n ];
+				final long[] bufferMin = new long[ n ];
+				final long[] bufferMax = new long[ n ];
+				for ( int t = ai.getAndIncrement(); t < nTiles; t = ai.getAndIncrement() )
+				{
+					if ( ComputePool.isCancelled( service ) ) { return; }
+
+					// Tile and tile + halo bounds, in source coordinates.
+					long index = t;
+					for ( int d = 0; d < n; d++ )
+					{
+						final long td = index % nTilesAlong[ d ];
+						index /= nTilesAlong[ d ];
+						tileMin[ d ] = td * tileSize[ d ];
+						tileMax[ d ] = Math.min( dims[ d ], tileMin[ d ] + tileSize[ d ] ) - 1;
+						bufferMin[ d ] = Math.max( 0, tileMin[ d ] - radius );
+						bufferMax[ d ] = Math.min( dims[ d ] - 1, tileMax[ d ] + radius );
+					}
+
+					final int[] buffer = tileFilter.buffer( bufferMin, bufferMax );
+					int i = 0;
+					final Cursor< T > in = Views.flatIterable( Views.interval( source, offset( bufferMin, min ), offset( bufferMax, min ) ) ).cursor();
+					if ( useHistogram )
+					{
+						while ( in.hasNext() )
+						{
+							buffer[ i++ ] = ( int ) ( in.next().getRealDouble() - typeMin );
+						}
+					}
+					else
+					{
+						while ( in.hasNext() )
+						{
+							buffer[ i++ ] = toKey( in.next().getRealFloat() );
+						}
+					}
 
-				values[ index++ ] = nc.get().getRealFloat();
+					final int[] keys = tileFilter.filter( tileMin, tileMax, bufferMin, bufferMax );
+
+					i = 0;
+					final Cursor< T > out = Views.flatIterable( Views.interval( output, tileMin, tileMax ) ).cursor();
+					if ( useHistogram )
+					{
+						while ( out.hasNext() )
+						{
+							out.next().setReal( keys[ i++ ] + typeMin );
+						}
+					}
+					else
+					{
+						while ( out.hasNext() )
+						{
+							out.next().setReal( fromKey( keys[ i++ ] ) );
+						}
+					}
+				}
 			}
+		};
 
-			Arrays.sort( values, 0, index );
-			outCursor.get().setReal( values[ ( index - 1 ) / 2 ] );
+		try
+		{
+			if ( !ComputePool.runAll( service, worker, Math.max( 1, Math.min( numThreads, nTiles ) ), "MedianFilter thread" ) )
+			{
+				errorMessage = "Median filtering was cancelled.";
+				return false;
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errorMessage = "Median filtering was interrupted.";
+			return false;
 		}
 
 		this.processingTime = System.currentTimeMillis() - start;
@@ -82,4 +207,483 @@ public class MedianFilter< T extends RealType< T > & NativeType< T >> extends Be
 	{
 		return output;
 	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	/*
+	 * STATIC UTILS
+	 */
+
+	private static long[] offset( final long[] position, final long[] min )
+	{
+		final long[] offset = new long[ position.length ];
+		for ( int d = 0; d < offset.length; d++ )
+		{
+			offset[ d ] = position[ d ] + min[ d ];
+		}
+		return offset;
+	}
+
+	/**
+	 * Returns an integer that sorts like the specified float does with
+	 * {@link Float#compare(float, float)}.
+	 */
+	static int toKey( final float value )
+	{
+		final int bits = Float.floatToIntBits( value );
+		return bits ^ ( ( bits >> 31 ) & 0x7fffffff );
+	}
+
+	static float fromKey( final int key )
+	{
+		return Float.intBitsToFloat( key ^ ( ( key >> 31 ) & 0x7fffffff ) );
+	}
+
+	/**
+	 * Puts the smallest of the two values at the first index.
+	 */
+	private static void sort2( final int[] v, final int i, final int j )
+	{
+		final int a = v[ i ];
+		final int b = v[ j ];
+		v[ i ] = Math.min( a, b );
+		v[ j ] = Math.max( a, b );
+	}
+
+	/**
+	 * Returns the median of the first 9 values, which are reordered. Paeth's
+	 * selection network, 19 compare-exchanges.
+	 */
+	static int median9( final int[] v )
+	{
+		sort2( v, 1, 2 );
+		sort2( v, 4, 5 );
+		sort2( v, 7, 8 );
+		sort2( v, 0, 1 );
+		sort2( v, 3, 4 );
+		sort2( v, 6, 7 );
+		sort2( v, 1, 2 );
+		sort2( v, 4, 5 );
+		sort2( v, 7, 8 );
+		sort2( v, 0, 3 );
+		sort2( v, 5, 8 );
+		sort2( v, 4, 7 );
+		sort2( v, 3, 6 );
+		sort2( v, 1, 4 );
+		sort2( v, 2, 5 );
+		sort2( v, 4, 7 );
+		sort2( v, 4, 2 );
+		sort2( v, 6, 4 );
+		sort2( v, 4, 2 );
+		return v[ 4 ];
+	}
+
+	/**
+	 * Returns the median of the first 27 values, which are reordered.
+	 * Forgetful selection: neither the minimum nor the maximum of 15 values
+	 * out of 27 can be the median, so they are dropped and replaced by one of
+	 * the remaining values, until 3 values are left.
+	 */
+	static int median27( final int[] v )
+	{
+		int lo = 0;
+		int hi = 14;
+		for ( int next = 15; next <= 27; next++ )
+		{
+			for ( int i = lo + 1; i <= hi; i++ )
+			{
+				sort2( v, lo, i );
+			}
+			for ( int i = lo + 1; i < hi; i++ )
+			{
+				sort2( v, i, hi );
+			}
+			if ( next == 27 )
+			{
+				break;
+			}
+			lo++;
+			v[ hi ] = v[ next ];
+		}
+		return v[ lo + 1 ];
+	}
+
+	/**
+	 * Returns the <code>k</code>th smallest of the first <code>n</code>
+	 * values, which are reordered. Wirth's selection algorithm.
+	 */
+	static int select( final int[] v, final int n, final int k )
+	{
+		int lo = 0;
+		int hi = n - 1;
+		while ( lo < hi )
+		{
+			final int pivot = v[ k ];
+			int i = lo;
+			int j = hi;
+			do
+			{
+				while ( v[ i ] < pivot )
+				{
+					i++;
+				}
+				while ( pivot < v[ j ] )
+				{
+					j--;
+				}
+				if ( i <= j )
+				{
+					final int tmp = v[ i ];
+					v[ i ] = v[ j ];
+					v[ j ] = tmp;
+					i++;
+					j--;
+				}
+			}
+			while ( i <= j );
+			if ( j < k )
+			{
+				lo = i;
+			}
+			if ( k < i )
+			{
+				hi = j;
+			}
+		}
+		return v[ k ];
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Filters the tiles of one worker. Holds the buffers, that are reused from
+	 * one tile to the next.
+	 */
+	private final class TileFilter
+	{
+
+		private final long[] dims;
+
+		private final int n;
+
+		private final boolean useHistogram;
+
+		private int[] buffer = new int[ 0 ];
+
+		private int[] keys = new int[ 0 ];
+
+		private final int[] window;
+
+		private final int[] rowOffsets;
+
+		private final int[] histogram;
+
+		private final int[] stride;
+
+		private final int[] position;
+
+		private final int[] windowPosition;
+
+		private final int[] windowMin;
+
+		private final int[] windowMax;
+
+		/** Current bin of the sliding median, and number of values below. */
+		private int medianBin = 0;
+
+		private int below = 0;
+
+		private TileFilter( final long[] dims, final boolean useHistogram, final int nBins )
+		{
+			this.dims = dims;
+			this.n = dims.length;
+			this.useHistogram = useHistogram;
+			int windowSize = 1;
+			for ( int d = 1; d < n; d++ )
+			{
+				windowSize *= 2 * radius + 1;
+			}
+			this.rowOffsets = new int[ windowSize ];
+			this.window = new int[ Math.max( 27, windowSize * ( 2 * radius + 1 ) ) ];
+			this.histogram = useHistogram ? new int[ nBins ] : null;
+			this.stride = new int[ n ];
+			this.position = new int[ n ];
+			this.windowPosition = new int[ n ];
+			this.windowMin = new int[ n ];
+			this.windowMax = new int[ n ];
+		}
+
+		/**
+		 * Returns a buffer large enough for the specified bounds.
+		 */
+		private int[] buffer( final long[] bufferMin, final long[] bufferMax )
+		{
+			long size = 1;
+			for ( int d = 0; d < n; d++ )
+			{
+				size *= bufferMax[ d ] - bufferMin[ d ] + 1;
+			}
+			if ( buffer.length < size )
+			{
+				buffer = new int[ ( int ) size ];
+			}
+			return buffer;
+		}
+
+		/**
+		 * Filters the tile, whose values and halo are in the buffer, and
+		 * returns the keys of the median values in flat iteration order.
+		 */
+		private int[] filter( final long[] tileMin, final long[] tileMax, final long[] bufferMin, final long[] bufferMax )
+		{
+			final int width = ( int ) dims[ 0 ];
+			long size = 1;
+			stride[ 0 ] = 1;
+			for ( int d = 0; d < n; d++ )
+			{
+				size *= tileMax[ d ] - tileMin[ d ] + 1;
+				if ( d > 0 )
+				{
+					stride[ d ] = stride[ d - 1 ] * ( int ) ( bufferMax[ d - 1 ] - bufferMin[ d - 1 ] + 1 );
+				}
+			}
+			if ( keys.length < size )
+			{
+				keys = new int[ ( int ) size ];
+			}
+
+			final int fullRows = rowOffsets.length;
+			for ( int d = 1; d < n; d++ )
+			{
+				position[ d ] = ( int ) tileMin[ d ];
+			}
+			int o = 0;
+			while ( true )
+			{
+				// The rows of the window, clipped to the image.
+				final int nRows = windowRows( bufferMin, bufferMax );
+				if ( useHistogram )
+				{
+					filterRowHistogram( nRows, width, o );
+				}
+				else if ( radius == 1 && nRows == fullRows && ( n == 2 || n == 3 ) )
+				{
+					filterRowNetwork( nRows, width, o );
+				}
+				else
+				{
+					for ( int x = 0; x < width; x++ )
+					{
+						keys[ o + x ] = gatherAndSelect( nRows, x, width );
+					}
+				}
+				o += width;
+
+				// Next row.
+				int d = 1;
+				while ( d < n )
+				{
+					position[ d ]++;
+					if ( position[ d ] <= tileMax[ d ] )
+					{
+						break;
+					}
+					position[ d ] = ( int ) tileMin[ d ];
+					d++;
+				}
+				if ( d >= n )
+				{
+					break;
+				}
+			}
+			return keys;
+		}
+
+		/**
+		 * Stores the buffer offsets of the rows of the window around the
+		 * current row, and returns their number.
+		 */
+		private int windowRows( final long[] bufferMin, final long[] bufferMax )
+		{
+			for ( int d = 1; d < n; d++ )
+			{
+				windowMin[ d ] = ( int ) Math.max( bufferMin[ d ], position[ d ] - radius );
+				windowMax[ d ] = ( int ) Math.min( bufferMax[ d ], position[ d ] + radius );
+				windowPosition[ d ] = windowMin[ d ];
+			}
+			int nRows = 0;
+			while ( true )
+			{
+				int offset = 0;
+				for ( int d = 1; d < n; d++ )
+				{
+					offset += ( windowPosition[ d ] - ( int ) bufferMin[ d ] ) * stride[ d ];
+				}
+				rowOffsets[ nRows++ ] = offset;
+
+				int d = 1;
+				while ( d < n )
+				{
+					windowPosition[ d ]++;
+					if ( windowPosition[ d ] <= windowMax[ d ] )
+					{
+						break;
+					}
+					windowPosition[ d ] = windowMin[ d ];
+					d++;
+				}
+				if ( d >= n )
+				{
+					break;
+				}
+			}
+			return nRows;
+		}
+
+		private int gatherAndSelect( final int nRows, final int x, final int width )
+		{
+			final int xmin = Math.max( 0, x - radius );
+			final int xmax = Math.min( width - 1, x + radius );
+			int count = 0;
+			for ( int r = 0; r < nRows; r++ )
+			{
+				final int offset = rowOffsets[ r ];
+				for ( int xi = xmin; xi <= xmax; xi++ )
+				{
+					window[ count++ ] = buffer[ offset + xi ];
+				}
+			}
+			return select( window, count, ( count - 1 ) / 2 );
+		}
+
+		private void filterRowNetwork( final int nRows, final int width, final int o )
+		{
+			if ( width < 3 )
+			{
+				for ( int x = 0; x < width; x++ )
+				{
+					keys[ o + x ] = gatherAndSelect( nRows, x, width );
+				}
+				return;
+			}
+			keys[ o ] = gatherAndSelect( nRows, 0, width );
+			for ( int x = 1; x < width - 1; x++ )
+			{
+				int count = 0;
+				for ( int r = 0; r < nRows; r++ )
+				{
+					final int offset = rowOffsets[ r ] + x;
+					window[ count++ ] = buffer[ offset - 1 ];
+					window[ count++ ] = buffer[ offset ];
+					window[ count++ ] = buffer[ offset + 1 ];
+				}
+				keys[ o + x ] = n == 2 ? median9( window ) : median27( window );
+			}
+			keys[ o + width - 1 ] = gatherAndSelect( nRows, width - 1, width );
+		}
+
+		private void filterRowHistogram( final int nRows, final int width, final int o )
+		{
+			int count = 0;
+			for ( int xi = 0; xi <= Math.min( width - 1, radius ); xi++ )
+			{
+				for ( int r = 0; r < nRows; r++ )
+				{
+					add( buffer[ rowOffsets[ r ] + xi ] );
+					count++;
+				}
+			}
+			for ( int x = 0; x < width; x++ )
+			{
+				keys[ o + x ] = median( ( count - 1 ) / 2 );
+				final int leaving = x - radius;
+				if ( leaving >= 0 )
+				{
+					for ( int r = 0; r < nRows; r++ )
+					{
+						remove( buffer[ rowOffsets[ r ] + leaving ] );
+						count--;
+					}
+				}
+				final int entering = x + radius + 1;
+				if ( entering < width )
+				{
+					for ( int r = 0; r < nRows; r++ )
+					{
+						add( buffer[ rowOffsets[ r ] + entering ] );
+						count++;
+					}
+				}
+			}
+			// Empty the histogram for the next row.
+			for ( int xi = Math.max( 0, width - radius ); xi < width; xi++ )
+			{
+				for ( int r = 0; r < nRows; r++ )
+				{
+					remove( buffer[ rowOffsets[ r ] + xi ] );
+				}
+			}
+		}
+
+		private void add( final int bin )
+		{
+			histogram[ bin ]++;
+			if ( bin < medianBin )
+			{
+				below++;
+			}
+		}
+
+		private void remove( final int bin )
+		{
+			histogram[ bin ]--;
+			if ( bin < medianBin )
+			{
+				below--;
+			}
+		}
+
+		/**
+		 * Moves the median bin until it holds the value of the specified rank
+		 * and returns it.
+		 */
+		private int median( final int rank )
+		{
+			while ( below > rank )
+			{
+				medianBin--;
+				below -= histogram[ medianBin ];
+			}
+			while ( below + histogram[ medianBin ] <= rank )
+			{
+				below += histogram[ medianBin ];
+				medianBin++;
+			}
+			return medianBin;
+		}
+	}
 }
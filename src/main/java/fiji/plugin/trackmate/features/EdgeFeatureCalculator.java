@@ -5,10 +5,13 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -21,7 +24,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  * @author Jean-Yves Tinevez - 2013
  *
  */
-public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[EdgeFeatureCalculator] ";
@@ -30,6 +33,8 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	private final Model model;
 
+	private ExecutorService service;
+
 	public EdgeFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -77,11 +82,11 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 		}
 
 		// Do it.
-		computeEdgeFeaturesAgent( model.getTrackModel().edgeSet(), settings.getEdgeAnalyzers(), true );
+		final boolean ok = computeEdgeFeaturesAgent( model.getTrackModel().edgeSet(), settings.getEdgeAnalyzers(), true );
 
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
-		return true;
+		return ok;
 	}
 
 	/**
@@ -93,18 +98,19 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 	 * @param doLogIt
 	 *            if <code>true</code>, the logger of the {@link #model} will be
 	 *            notified of the calculation.
+	 * @return <code>false</code> if the calculation was cancelled.
 	 */
-	public void computeEdgesFeatures( final Collection< DefaultWeightedEdge > edges, final boolean doLogIt )
+	public boolean computeEdgesFeatures( final Collection< DefaultWeightedEdge > edges, final boolean doLogIt )
 	{
 		final List< EdgeAnalyzer > spotFeatureAnalyzers = settings.getEdgeAnalyzers();
-		computeEdgeFeaturesAgent( edges, spotFeatureAnalyzers, doLogIt );
+		return computeEdgeFeaturesAgent( edges, spotFeatureAnalyzers, doLogIt );
 	}
 
 	/*
 	 * PRIVATE METHODS
 	 */
 
-	private void computeEdgeFeaturesAgent( final Collection< DefaultWeightedEdge > edges, final List< EdgeAnalyzer > analyzers, final boolean doLogIt )
+	private boolean computeEdgeFeaturesAgent( final Collection< DefaultWeightedEdge > edges, final List< EdgeAnalyzer > analyzers, final boolean doLogIt )
 	{
 		final Logger logger = model.getLogger();
 		if ( doLogIt )
@@ -119,11 +125,30 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 				continue;
 			}
 			analyzer.setNumThreads( numThreads );
-			analyzer.process( edges, model );
+			if ( analyzer instanceof ExecutorServiceAware )
+			{
+				( ( ExecutorServiceAware ) analyzer ).setExecutorService( service );
+			}
+			try
+			{
+				analyzer.process( edges, model );
+			}
+			catch ( final CancellationException e )
+			{
+				errorMessage = BASE_ERROR_MSG + e.getMessage();
+				return false;
+			}
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
 
 		}
+		return true;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
 	}
 
 }
@@ -0,0 +1,483 @@
+package fiji.plugin.trackmate.features;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index that applies a list of {@link FeatureFilter}s to a fixed set of
+ * objects, and updates the result incrementally when the filters change.
+ * <p>
+ * Objects are identified by their ordinal, from 0 to {@link #size()} - 1. For
+ * each feature a filter is set on, the index builds, on first use, a column
+ * made of the feature values sorted in ascending order, along with the
+ * ordinal of the object each value belongs to. The objects that a filter
+ * rejects are then a contiguous range of this column, delimited by a single
+ * cut position. When a threshold is moved, only the objects lying between the
+ * old and the new cut change of state for this filter. For each object, the
+ * index stores the number of filters that reject it, so that the AND of all
+ * filters is also updated only for these objects. The number of visible
+ * objects is maintained along the way.
+ * <p>
+ * Values are compared with {@link Double#compare(double, double)}: an object
+ * is rejected by a filter set above a threshold if its value is strictly lower
+ * than the threshold, and rejected by a filter set below a threshold if its
+ * value is strictly larger. Objects that have no value for a feature, because
+ * the array returned by {@link #collect(String)} is <code>null</code> or too
+ * short, are never rejected by filters set on this feature.
+ * <p>
+ * Concrete implementations specify how feature values are collected. The
+ * feature values must not change while the index is in use; if they do, a new
+ * index must be created. All public methods are synchronized, so that an index
+ * can be shared by the UI and processing threads.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public abstract class FeatureFilterIndex
+{
+
+	/** Below this size, ranges are sorted by insertion. */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private final int size;
+
+	/** The sorted feature columns built so far. */
+	private final Map< String, Column > columns = new HashMap< String, Column >();
+
+	/** The filters currently applied, in the order they were specified. */
+	private final List< Cut > cuts = new ArrayList< Cut >();
+
+	/** For each object, the number of current filters that reject it. */
+	private final int[] rejections;
+
+	/** The objects that pass all the current filters. */
+	private final BitSet visible;
+
+	private int nVisible;
+
+	/*
+	 * Book-keeping of the objects that changed of state during an update.
+	 */
+
+	private final BitSet touched;
+
+	private final BitSet flipped;
+
+	private int[] touchedList = new int[ 16 ];
+
+	private int nTouched;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates an index over the specified number of objects. Initially, no
+	 * filter is set and all the objects are visible.
+	 *
+	 * @param size
+	 *            the number of objects to index.
+	 */
+	protected FeatureFilterIndex( final int size )
+	{
+		this.size = size;
+		this.rejections = new int[ size ];
+		this.visible = new BitSet( size );
+		this.touched = new BitSet( size );
+		this.flipped = new BitSet( size );
+		visible.set( 0, size );
+		this.nVisible = size;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the values of the specified feature for all the objects of this
+	 * index, indexed by object ordinal. Called once per feature, the first time
+	 * a filter is set on it. The returned array is not modified.
+	 *
+	 * @param feature
+	 *            the feature to collect.
+	 * @return the values, or <code>null</code> if the feature is unknown.
+	 */
+	protected abstract double[] collect( String feature );
+
+	/**
+	 * Applies the specified filters, and returns the ordinals of the objects
+	 * whose visibility changed compared to the previous call. A filter is
+	 * matched to the filter at the same position in the previous call: if they
+	 * are set on the same feature and in the same direction, only the
+	 * threshold is moved.
+	 *
+	 * @param filters
+	 *            the filters to apply, AND-chained. Can be empty, in which case
+	 *            all the objects are visible.
+	 * @return a new array containing the ordinals of the objects whose
+	 *         visibility changed, in no particular order.
+	 */
+	public synchronized int[] update( final Collection< FeatureFilter > filters )
+	{
+		final Iterator< FeatureFilter > it = filters.iterator();
+		final int nCuts = Math.max( cuts.size(), filters.size() );
+		for ( int i = 0; i < nCuts; i++ )
+		{
+			final Cut cut = i < cuts.size() ? cuts.get( i ) : null;
+			final FeatureFilter filter = it.hasNext() ? it.next() : null;
+
+			if ( null != cut && null != filter && cut.feature.equals( filter.feature ) && cut.isAbove == filter.isAbove )
+			{
+				moveCut( cut, filter.value.doubleValue() );
+				continue;
+			}
+			if ( null != cut )
+			{
+				removeCut( cut );
+			}
+			if ( null != filter )
+			{
+				final Cut newCut = addCut( filter );
+				if ( i < cuts.size() )
+				{
+					cuts.set( i, newCut );
+				}
+				else
+				{
+					cuts.add( newCut );
+				}
+			}
+		}
+		while ( cuts.size() > filters.size() )
+		{
+			cuts.remove( cuts.size() - 1 );
+		}
+
+		// Collect the objects whose state changed an odd number of times.
+		int nChanged = 0;
+		final int[] changed = new int[ nTouched ];
+		for ( int i = 0; i < nTouched; i++ )
+		{
+			final int ordinal = touchedList[ i ];
+			if ( flipped.get( ordinal ) )
+			{
+				changed[ nChanged++ ] = ordinal;
+			}
+			touched.clear( ordinal );
+			flipped.clear( ordinal );
+		}
+		nTouched = 0;
+		if ( nChanged == changed.length ) { return changed; }
+		final int[] out = new int[ nChanged ];
+		System.arraycopy( changed, 0, out, 0, nChanged );
+		return out;
+	}
+
+	/**
+	 * Returns whether the object with the specified ordinal passes all the
+	 * current filters.
+	 *
+	 * @param ordinal
+	 *            the object ordinal.
+	 * @return <code>true</code> if the object is visible.
+	 */
+	public synchronized boolean isVisible( final int ordinal )
+	{
+		return visible.get( ordinal );
+	}
+
+	/**
+	 * Returns the number of objects that pass all the current filters.
+	 *
+	 * @return the number of visible objects.
+	 */
+	public synchronized int getNVisible()
+	{
+		return nVisible;
+	}
+
+	/**
+	 * Returns the number of objects in this index.
+	 *
+	 * @return the number of objects.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private Cut addCut( final FeatureFilter filter )
+	{
+		final Column column = getColumn( filter.feature );
+		final double threshold = filter.value.doubleValue();
+		final Cut cut = new Cut( filter.feature, filter.isAbove, column, position( column, threshold, filter.isAbove ) );
+		if ( cut.isAbove )
+		{
+			reject( column, 0, cut.position );
+		}
+		else
+		{
+			reject( column, cut.position, column.length() );
+		}
+		return cut;
+	}
+
+	private void removeCut( final Cut cut )
+	{
+		if ( cut.isAbove )
+		{
+			accept( cut.column, 0, cut.position );
+		}
+		else
+		{
+			accept( cut.column, cut.position, cut.column.length() );
+		}
+	}
+
+	private void moveCut( final Cut cut, final double threshold )
+	{
+		final int from = cut.position;
+		final int to = position( cut.column, threshold, cut.isAbove );
+		if ( to == from ) { return; }
+		// For filters set above, the rejected range is before the cut.
+		if ( to > from == cut.isAbove )
+		{
+			reject( cut.column, Math.min( from, to ), Math.max( from, to ) );
+		}
+		else
+		{
+			accept( cut.column, Math.min( from, to ), Math.max( from, to ) );
+		}
+		cut.position = to;
+	}
+
+	private void reject( final Column column, final int from, final int to )
+	{
+		final int[] ordinals = column.ordinals;
+		for ( int i = from; i < to; i++ )
+		{
+			final int ordinal = ordinals[ i ];
+			if ( rejections[ ordinal ]++ == 0 )
+			{
+				visible.clear( ordinal );
+				nVisible--;
+				flip( ordinal );
+			}
+		}
+	}
+
+	private void accept( final Column column, final int from, final int to )
+	{
+		final int[] ordinals = column.ordinals;
+		for ( int i = from; i < to; i++ )
+		{
+			final int ordinal = ordinals[ i ];
+			if ( --rejections[ ordinal ] == 0 )
+			{
+				visible.set( ordinal );
+				nVisible++;
+				flip( ordinal );
+			}
+		}
+	}
+
+	private void flip( final int ordinal )
+	{
+		flipped.flip( ordinal );
+		if ( touched.get( ordinal ) ) { return; }
+		touched.set( ordinal );
+		if ( nTouched == touchedList.length )
+		{
+			final int[] tmp = new int[ 2 * touchedList.length ];
+			System.arraycopy( touchedList, 0, tmp, 0, nTouched );
+			touchedList = tmp;
+		}
+		touchedList[ nTouched++ ] = ordinal;
+	}
+
+	/**
+	 * Returns the cut position of a filter in the specified column. For
+	 * filters set above the threshold, this is the position of the first value
+	 * not lower than the threshold. For filters set below the threshold, this
+	 * is the position of the first value larger than the threshold.
+	 */
+	private static int position( final Column column, final double threshold, final boolean isAbove )
+	{
+		final double[] values = column.values;
+		int low = 0;
+		int high = values.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			final int c = Double.compare( values[ mid ], threshold );
+			if ( c < 0 || c == 0 && !isAbove )
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private Column getColumn( final String feature )
+	{
+		Column column = columns.get( feature );
+		if ( null == column )
+		{
+			final double[] source = collect( feature );
+			final int n = null == source ? 0 : Math.min( source.length, size );
+			final double[] values = new double[ n ];
+			final int[] ordinals = new int[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				values[ i ] = source[ i ];
+				ordinals[ i ] = i;
+			}
+			sort( values, ordinals, 0, n );
+			column = new Column( values, ordinals );
+			columns.put( feature, column );
+		}
+		return column;
+	}
+
+	/**
+	 * Sorts the specified range of the values array in ascending order, as
+	 * specified by {@link Double#compare(double, double)}, and applies the same
+	 * permutation to the ordinals array.
+	 */
+	private static void sort( final double[] values, final int[] ordinals, final int from, final int to )
+	{
+		int low = from;
+		int high = to;
+		while ( high - low > INSERTION_SORT_THRESHOLD )
+		{
+			// Median of three.
+			final int mid = ( low + high ) >>> 1;
+			if ( Double.compare( values[ mid ], values[ low ] ) < 0 )
+				swap( values, ordinals, mid, low );
+			if ( Double.compare( values[ high - 1 ], values[ low ] ) < 0 )
+				swap( values, ordinals, high - 1, low );
+			if ( Double.compare( values[ high - 1 ], values[ mid ] ) < 0 )
+				swap( values, ordinals, high - 1, mid );
+			final double pivot = values[ mid ];
+
+			// Hoare partition. Stops on values equal to the pivot, so that
+			// ranges of identical values are split evenly.
+			int i = low - 1;
+			int j = high;
+			while ( true )
+			{
+				do
+				{
+					i++;
+				}
+				while ( Double.compare( values[ i ], pivot ) < 0 );
+				do
+				{
+					j--;
+				}
+				while ( Double.compare( values[ j ], pivot ) > 0 );
+				if ( i >= j )
+					break;
+				swap( values, ordinals, i, j );
+			}
+
+			// Recurse on the smaller part, loop on the larger one.
+			if ( j + 1 - low < high - j - 1 )
+			{
+				sort( values, ordinals, low, j + 1 );
+				low = j + 1;
+			}
+			else
+			{
+				sort( values, ordinals, j + 1, high );
+				high = j + 1;
+			}
+		}
+
+		for ( int i = low + 1; i < high; i++ )
+		{
+			final double v = values[ i ];
+			final int o = ordinals[ i ];
+			int j = i - 1;
+			while ( j >= low && Double.compare( values[ j ], v ) > 0 )
+			{
+				values[ j + 1 ] = values[ j ];
+				ordinals[ j + 1 ] = ordinals[ j ];
+				j--;
+			}
+			values[ j + 1 ] = v;
+			ordinals[ j + 1 ] = o;
+		}
+	}
+
+	private static void swap( final double[] values, final int[] ordinals, final int i, final int j )
+	{
+		final double v = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = v;
+		final int o = ordinals[ i ];
+		ordinals[ i ] = ordinals[ j ];
+		ordinals[ j ] = o;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The values of a feature sorted in ascending order, with the ordinal of
+	 * the object each value belongs to.
+	 */
+	private static final class Column
+	{
+		private final double[] values;
+
+		private final int[] ordinals;
+
+		private Column( final double[] values, final int[] ordinals )
+		{
+			this.values = values;
+			this.ordinals = ordinals;
+		}
+
+		private int length()
+		{
+			return values.length;
+		}
+	}
+
+	/**
+	 * A filter applied to this index, represented by its cut position in the
+	 * sorted column of its feature.
+	 */
+	private static final class Cut
+	{
+		private final String feature;
+
+		private final boolean isAbove;
+
+		private final Column column;
+
+		private int position;
+
+		private Cut( final String feature, final boolean isAbove, final Column column, final int position )
+		{
+			this.feature = feature;
+			this.isAbove = isAbove;
+			this.column = column;
+			this.position = position;
+		}
+	}
+}
@@ -47,6 +47,11 @@ public class ModelFeatureUpdater implements ModelChangeListener {
 	 */
 	@Override
 	public void modelChanged(ModelChangeEvent event) {
+		if (event.getEventID() == ModelChangeEvent.TRACKS_COMPUTED) {
+			// Track IDs are not valid anymore.
+			trackFeatureCalculator.clearAccumulators();
+			return;
+		}
 		if (event.getEventID() != ModelChangeEvent.MODEL_MODIFIED) {
 			return;
 		}
@@ -74,8 +79,8 @@ public class ModelFeatureUpdater implements ModelChangeListener {
 		// Update edge features
 		edgeFeatureCalculator.computeEdgesFeatures(edges, false);
 		
-		// Update track features
-		trackFeatureCalculator.computeTrackFeatures(event.getTrackUpdated(), false);
+		// Update track features, from the changes when analyzers can
+		trackFeatureCalculator.computeTrackFeatures(event, false);
 	}
 	
 	/**
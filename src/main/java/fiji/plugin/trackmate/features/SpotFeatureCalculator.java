@@ -6,18 +6,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imagej.ImgPlus;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.spot.FusedSpotAnalyzerFactory;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 import fiji.plugin.trackmate.util.TMUtils;
 
 /**
@@ -27,7 +30,7 @@ import fiji.plugin.trackmate.util.TMUtils;
  * @author Jean-Yves Tinevez - 2013
  * 
  */
-public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[SpotFeatureCalculator] ";
@@ -36,6 +39,8 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	private final Model model;
 
+	private ExecutorService service;
+
 	public SpotFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -76,6 +81,26 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 		final long start = System.currentTimeMillis();
 
 		// Declare what you do.
+		declareFeatures();
+
+		// Do it.
+		if ( !computeSpotFeaturesAgent( model.getSpots(), settings.getSpotAnalyzerFactories(), true ) )
+		{
+			errorMessage = BASE_ERROR_MSG + "Calculation cancelled.";
+			return false;
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Declares the spot features configured in the {@link Settings} in the
+	 * feature model.
+	 */
+	public void declareFeatures()
+	{
 		for ( final SpotAnalyzerFactory< ? > factory : settings.getSpotAnalyzerFactories() )
 		{
 			final Collection< String > features = factory.getFeatures();
@@ -85,13 +110,31 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 			final Map< String, Boolean > isIntFeature = factory.getIsIntFeature();
 			model.getFeatureModel().declareSpotFeatures( features, featureNames, featureShortNames, featureDimensions, isIntFeature );
 		}
+	}
 
-		// Do it.
-		computeSpotFeaturesAgent( model.getSpots(), settings.getSpotAnalyzerFactories(), true );
-
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-		return true;
+	/**
+	 * Calculates the spot features configured in the {@link Settings} for the
+	 * spots of the model in the specified frame, using the specified image.
+	 * <p>
+	 * This is used when the source image is not resident in memory, to
+	 * compute the features while the frame image is loaded. The features must
+	 * have been declared with {@link #declareFeatures()}.
+	 *
+	 * @param img
+	 *            the image of the frame, with all the axes of the source image
+	 *            but time.
+	 * @param frame
+	 *            the frame the spots are taken from.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public void computeSpotFeatures( final ImgPlus img, final int frame )
+	{
+		final int targetChannel = getTargetChannel();
+		for ( final SpotAnalyzerFactory< ? > factory : FusedSpotAnalyzerFactory.fuse( settings.getSpotAnalyzerFactories() ) )
+		{
+			final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( model, img, frame, targetChannel );
+			analyzer.process();
+		}
 	}
 
 	/**
@@ -108,11 +151,15 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 	/**
 	 * The method in charge of computing spot features with the given
 	 * {@link SpotAnalyzer}s, for the given {@link SpotCollection}.
+	 * <p>
+	 * The analyzers that iterate over the same spot neighborhood are fused, so
+	 * that pixels are read only once per spot.
 	 * 
 	 * @param toCompute
 	 * @param analyzers
+	 * @return <code>false</code> if the calculation was cancelled.
 	 */
-	private void computeSpotFeaturesAgent( final SpotCollection toCompute, final List< SpotAnalyzerFactory< ? >> analyzerFactories, final boolean doLogIt )
+	private boolean computeSpotFeaturesAgent( final SpotCollection toCompute, final List< SpotAnalyzerFactory< ? >> factories, final boolean doLogIt )
 	{
 
 		final Logger logger;
@@ -127,7 +174,7 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 		// Can't compute any spot feature without an image to compute on.
 		if ( settings.imp == null )
-			return;
+			return true;
 
 		// Do it.
 		final List< Integer > frameSet = new ArrayList< Integer >( toCompute.keySet() );
@@ -135,58 +182,77 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 		final AtomicInteger ai = new AtomicInteger( 0 );
 		final AtomicInteger progress = new AtomicInteger( 0 );
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 
-		int tc = 0;
-		if ( settings != null && settings.detectorSettings != null )
-		{
-			// Try to extract it from detector settings target channel
-			final Map< String, Object > ds = settings.detectorSettings;
-			final Object obj = ds.get( KEY_TARGET_CHANNEL );
-			if ( null != obj && obj instanceof Integer )
-			{
-				tc = ( ( Integer ) obj ) - 1;
-			}
-		}
-		final int targetChannel = tc;
+		final int targetChannel = getTargetChannel();
+		final List< SpotAnalyzerFactory< ? >> analyzerFactories = FusedSpotAnalyzerFactory.fuse( factories );
 
 		@SuppressWarnings( "rawtypes" )
 		final ImgPlus img = TMUtils.rawWraps( settings.imp );
 
-		// Prepare the thread array
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		final ExecutorService es = service;
+		final Runnable worker = new Runnable()
 		{
-
-			threads[ ithread ] = new Thread( "TrackMate spot feature calculating thread " + ( 1 + ithread ) + "/" + threads.length )
+			@Override
+			public void run()
 			{
 
-				@Override
-				public void run()
+				for ( int index = ai.getAndIncrement(); index < numFrames; index = ai.getAndIncrement() )
 				{
+					if ( ComputePool.isCancelled( es ) )
+						return;
 
-					for ( int index = ai.getAndIncrement(); index < numFrames; index = ai.getAndIncrement() )
+					final int frame = frameSet.get( index );
+					for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
 					{
+						@SuppressWarnings( "unchecked" )
+						final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( model, img, frame, targetChannel );
+						analyzer.process();
+					}
 
-						final int frame = frameSet.get( index );
-						for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
-						{
-							@SuppressWarnings( "unchecked" )
-							final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( model, img, frame, targetChannel );
-							analyzer.process();
-						}
-
-						logger.setProgress( progress.incrementAndGet() / ( float ) numFrames );
-					} // Finished looping over frames
-				}
-			};
-		}
+					logger.setProgress( progress.incrementAndGet() / ( float ) numFrames );
+				} // Finished looping over frames
+			}
+		};
 		logger.setStatus( "Calculating " + toCompute.getNSpots( false ) + " spots features..." );
 		logger.setProgress( 0 );
 
-		SimpleMultiThreading.startAndJoin( threads );
+		boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackMate spot feature calculating thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			ok = false;
+		}
+		// Analyzers write in the spots of the model.
+		model.getSpots().featuresChanged();
 
 		logger.setProgress( 1 );
 		logger.setStatus( "" );
+		return ok;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	private int getTargetChannel()
+	{
+		int tc = 0;
+		if ( settings != null && settings.detectorSettings != null )
+		{
+			// Try to extract it from detector settings target channel
+			final Map< String, Object > ds = settings.detectorSettings;
+			final Object obj = ds.get( KEY_TARGET_CHANNEL );
+			if ( null != obj && obj instanceof Integer )
+			{
+				tc = ( ( Integer ) obj ) - 1;
+			}
+		}
+		return tc;
 	}
 
 }
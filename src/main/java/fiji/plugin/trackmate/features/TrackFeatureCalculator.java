@@ -3,12 +3,18 @@ package fiji.plugin.trackmate.features;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.track.IncrementalTrackAnalyzer;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -19,7 +25,7 @@ import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
  * @author Jean-Yves Tinevez - 2013
  *
  */
-public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[TrackFeatureCalculator] ";
@@ -28,6 +34,8 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	private final Model model;
 
+	private ExecutorService service;
+
 	public TrackFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -74,32 +82,130 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 			model.getFeatureModel().declareTrackFeatures( features, featureNames, featureShortNames, featureDimensions, isIntFeature );
 		}
 
+		// Accumulators kept for manual editing are stale now.
+		clearAccumulators();
+
 		// Do it.
-		computeTrackFeaturesAgent( model.getTrackModel().trackIDs( false ), settings.getTrackAnalyzers(), true );
+		final boolean ok = computeTrackFeaturesAgent( model.getTrackModel().trackIDs( false ), settings.getTrackAnalyzers(), true );
 
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
-		return true;
+		return ok;
 	}
 
 	/**
 	 * Calculates all the track features configured in the {@link Settings}
 	 * object for the specified tracks.
+	 *
+	 * @return <code>false</code> if the calculation was cancelled.
 	 */
-	public void computeTrackFeatures( final Collection< Integer > trackIDs, final boolean doLogIt )
+	public boolean computeTrackFeatures( final Collection< Integer > trackIDs, final boolean doLogIt )
 	{
 		final List< TrackAnalyzer > trackFeatureAnalyzers = settings.getTrackAnalyzers();
-		computeTrackFeaturesAgent( trackIDs, trackFeatureAnalyzers, doLogIt );
+		return computeTrackFeaturesAgent( trackIDs, trackFeatureAnalyzers, doLogIt );
+	}
+
+	/**
+	 * Updates the track features configured in the {@link Settings} object
+	 * for the tracks modified by the specified
+	 * {@link ModelChangeEvent#MODEL_MODIFIED} event.
+	 * <p>
+	 * {@link IncrementalTrackAnalyzer}s update the features from the edges and
+	 * spots listed in the event, and only recompute whole tracks when they
+	 * cannot. Other analyzers recompute the tracks listed in
+	 * {@link ModelChangeEvent#getTrackUpdated()}.
+	 *
+	 * @return <code>false</code> if the calculation was cancelled.
+	 */
+	public boolean computeTrackFeatures( final ModelChangeEvent event, final boolean doLogIt )
+	{
+		final Logger logger = model.getLogger();
+		if ( doLogIt )
+		{
+			logger.log( "Updating track features:\n", Logger.BLUE_COLOR );
+		}
+
+		final List< TrackAnalyzer > others = new ArrayList< TrackAnalyzer >();
+		for ( final TrackAnalyzer analyzer : settings.getTrackAnalyzers() )
+		{
+			if ( analyzer.isManualFeature() )
+			{
+				continue;
+			}
+			if ( !( analyzer instanceof IncrementalTrackAnalyzer ) || !analyzer.isLocal() )
+			{
+				others.add( analyzer );
+				continue;
+			}
+
+			final Collection< Integer > toRecompute = ( ( IncrementalTrackAnalyzer ) analyzer ).processChanges( event, model );
+			long processingTime = analyzer.getProcessingTime();
+			if ( !toRecompute.isEmpty() )
+			{
+				configure( analyzer );
+				if ( !process( analyzer, toRecompute ) ) { return false; }
+				processingTime += analyzer.getProcessingTime();
+			}
+
+			if ( doLogIt )
+				logger.log( "  - " + analyzer.getName() + " in " + processingTime + " ms.\n" );
+		}
+
+		if ( !others.isEmpty() ) { return computeTrackFeaturesAgent( event.getTrackUpdated(), others, doLogIt ); }
+		return true;
+	}
+
+	/**
+	 * Discards the accumulators kept by the {@link IncrementalTrackAnalyzer}s
+	 * configured in the {@link Settings} object. Must be called when the
+	 * tracks of the model are replaced.
+	 */
+	public void clearAccumulators()
+	{
+		for ( final TrackAnalyzer analyzer : settings.getTrackAnalyzers() )
+		{
+			if ( analyzer instanceof IncrementalTrackAnalyzer )
+			{
+				( ( IncrementalTrackAnalyzer ) analyzer ).clearAccumulators();
+			}
+		}
 	}
 
 	/*
 	 * PRIVATE METHODS
 	 */
 
+	private void configure( final TrackAnalyzer analyzer )
+	{
+		analyzer.setNumThreads( numThreads );
+		if ( analyzer instanceof ExecutorServiceAware )
+		{
+			( ( ExecutorServiceAware ) analyzer ).setExecutorService( service );
+		}
+	}
+
+	/**
+	 * Runs the specified analyzer on the specified tracks. Returns
+	 * <code>false</code> and sets the error message if it was cancelled.
+	 */
+	private boolean process( final TrackAnalyzer analyzer, final Collection< Integer > trackIDs )
+	{
+		try
+		{
+			analyzer.process( trackIDs, model );
+			return true;
+		}
+		catch ( final CancellationException e )
+		{
+			errorMessage = BASE_ERROR_MSG + e.getMessage();
+			return false;
+		}
+	}
+
 	/**
 	 * Calculate all features for the tracks with the given IDs.
 	 */
-	private void computeTrackFeaturesAgent( final Collection< Integer > trackIDs, final List< TrackAnalyzer > analyzers, final boolean doLogIt )
+	private boolean computeTrackFeaturesAgent( final Collection< Integer > trackIDs, final List< TrackAnalyzer > analyzers, final boolean doLogIt )
 	{
 		final Logger logger = model.getLogger();
 		if ( doLogIt )
@@ -115,19 +221,21 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 				continue;
 			}
 
-			analyzer.setNumThreads( numThreads );
-			if ( analyzer.isLocal() )
-			{
-				analyzer.process( trackIDs, model );
-			}
-			else
-			{
-				analyzer.process( model.getTrackModel().trackIDs( false ), model );
-			}
+			configure( analyzer );
+			final Collection< Integer > toCompute = analyzer.isLocal() ? trackIDs : model.getTrackModel().trackIDs( false );
+			if ( !process( analyzer, toCompute ) ) { return false; }
 
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
 
 		}
+		return true;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
 	}
+
 }
@@ -32,6 +32,8 @@ public interface EdgeAnalyzer extends Benchmark, FeatureAnalyzer, MultiThreaded
 	 *            the collection of edges whose features are to be calculated.
 	 * @param model
 	 *            the {@link Model} they belong to.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the executor service the analyzer runs on was cancelled.
 	 */
 	public void process( final Collection< DefaultWeightedEdge > edges, Model model );
 
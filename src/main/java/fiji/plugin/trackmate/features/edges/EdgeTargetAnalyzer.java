@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,17 +13,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTargetAnalyzer implements EdgeAnalyzer, MultiThreaded
+public class EdgeTargetAnalyzer implements EdgeAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	public static final String KEY = "Edge target";
@@ -73,6 +76,8 @@ public class EdgeTargetAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	private long processingTime;
 
+	private ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -98,34 +103,40 @@ public class EdgeTargetAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< DefaultWeightedEdge >( edges.size(), false, edges );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "EdgeTargetAnalyzer thread " + i )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				DefaultWeightedEdge edge;
+				while ( !ComputePool.isCancelled( service ) && ( edge = queue.poll() ) != null )
 				{
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-						// Edge weight
-						featureModel.putEdgeFeature( edge, EDGE_COST, model.getTrackModel().getEdgeWeight( edge ) );
-						// Source & target name & ID
-						final Spot source = model.getTrackModel().getEdgeSource( edge );
-						featureModel.putEdgeFeature( edge, SPOT_SOURCE_ID, Double.valueOf( source.ID() ) );
-						final Spot target = model.getTrackModel().getEdgeTarget( edge );
-						featureModel.putEdgeFeature( edge, SPOT_TARGET_ID, Double.valueOf( target.ID() ) );
-					}
-
+					// Edge weight
+					featureModel.putEdgeFeature( edge, EDGE_COST, model.getTrackModel().getEdgeWeight( edge ) );
+					// Source & target name & ID
+					final Spot source = model.getTrackModel().getEdgeSource( edge );
+					featureModel.putEdgeFeature( edge, SPOT_SOURCE_ID, Double.valueOf( source.ID() ) );
+					final Spot target = model.getTrackModel().getEdgeTarget( edge );
+					featureModel.putEdgeFeature( edge, SPOT_TARGET_ID, Double.valueOf( target.ID() ) );
 				}
-			};
-		}
+
+			}
+		};
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "EdgeTargetAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
 	}
 
 	@Override
@@ -153,6 +164,12 @@ public class EdgeTargetAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
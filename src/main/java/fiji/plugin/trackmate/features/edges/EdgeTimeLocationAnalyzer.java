@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,17 +13,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
+public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	public static final String KEY = "Edge mean location";
@@ -79,6 +82,8 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	private long processingTime;
 
+	private ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -104,40 +109,46 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< DefaultWeightedEdge >( edges.size(), false, edges );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "EdgeTimeLocationAnalyzer thread " + i )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				DefaultWeightedEdge edge;
+				while ( !ComputePool.isCancelled( service ) && ( edge = queue.poll() ) != null )
 				{
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-
-						final Spot source = model.getTrackModel().getEdgeSource( edge );
-						final Spot target = model.getTrackModel().getEdgeTarget( edge );
 
-						final double x = 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) );
-						final double y = 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) );
-						final double z = 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) );
-						final double t = 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) );
+					final Spot source = model.getTrackModel().getEdgeSource( edge );
+					final Spot target = model.getTrackModel().getEdgeTarget( edge );
 
-						featureModel.putEdgeFeature( edge, TIME, t );
-						featureModel.putEdgeFeature( edge, X_LOCATION, x );
-						featureModel.putEdgeFeature( edge, Y_LOCATION, y );
-						featureModel.putEdgeFeature( edge, Z_LOCATION, z );
-					}
+					final double x = 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) );
+					final double y = 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) );
+					final double z = 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) );
+					final double t = 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) );
 
+					featureModel.putEdgeFeature( edge, TIME, t );
+					featureModel.putEdgeFeature( edge, X_LOCATION, x );
+					featureModel.putEdgeFeature( edge, Y_LOCATION, y );
+					featureModel.putEdgeFeature( edge, Z_LOCATION, z );
 				}
-			};
-		}
+
+			}
+		};
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "EdgeTimeLocationAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
 	}
 
 	@Override
@@ -165,6 +176,12 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -0,0 +1,237 @@
+package fiji.plugin.trackmate.features.spot;
+
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.MAX_INTENSITY;
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.MEAN_INTENSITY;
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.MEDIAN_INTENSITY;
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.MIN_INTENSITY;
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.STANDARD_DEVIATION;
+import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.TOTAL_INTENSITY;
+
+import java.util.Iterator;
+
+import net.imagej.ImgPlus;
+import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpotNeighborhood;
+import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+
+/**
+ * A spot analyzer that computes the features of the
+ * {@link SpotIntensityAnalyzer}, the {@link SpotContrastAnalyzer} and the
+ * {@link SpotContrastAndSNRAnalyzer} in a single pass over the neighborhood
+ * of each spot.
+ * <p>
+ * The feature values are the same as the ones of the separate analyzers. The
+ * median is found by selection in a scratch buffer reused across spots,
+ * rather than by sorting a new array for each spot.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class FusedSpotAnalyzer< T extends RealType< T >> extends IndependentSpotFeatureAnalyzer< T >
+{
+
+	private final boolean doIntensity;
+
+	private final boolean doContrast;
+
+	private final boolean doSNR;
+
+	/** Pixel values of the current spot, reused across spots. */
+	private double[] buffer = new double[ 0 ];
+
+	/**
+	 * Creates a fused analyzer.
+	 *
+	 * @param img
+	 *            the image to compute features on.
+	 * @param spots
+	 *            the spots to compute features for.
+	 * @param doIntensity
+	 *            if <code>true</code>, the features of the
+	 *            {@link SpotIntensityAnalyzer} are stored.
+	 * @param doContrast
+	 *            if <code>true</code>, the feature of the
+	 *            {@link SpotContrastAnalyzer} is stored.
+	 * @param doSNR
+	 *            if <code>true</code>, the features of the
+	 *            {@link SpotContrastAndSNRAnalyzer} are stored.
+	 */
+	public FusedSpotAnalyzer( final ImgPlus< T > img, final Iterator< Spot > spots, final boolean doIntensity, final boolean doContrast, final boolean doSNR )
+	{
+		super( img, spots );
+		this.doIntensity = doIntensity;
+		this.doContrast = doContrast;
+		this.doSNR = doSNR;
+	}
+
+	@Override
+	public final void process( final Spot spot )
+	{
+		final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
+		final int npixels = ( int ) neighborhood.size();
+		if ( buffer.length < npixels )
+		{
+			buffer = new double[ npixels ];
+		}
+
+		final double radius = spot.getFeature( Spot.RADIUS );
+		final double radius2 = radius * radius;
+		final double contrastInnerRadius2 = radius2 * ( 1 - SpotContrastAnalyzer.RAD_PERCENTAGE ) * ( 1 - SpotContrastAnalyzer.RAD_PERCENTAGE );
+		final boolean doRings = doContrast || doSNR;
+
+		// Moments, as in SpotIntensityAnalyzer.
+		double sum = 0;
+		double mean = 0;
+		double M2 = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+
+		// Rings.
+		long innerRingVolume = 0;
+		double innerTotalIntensity = 0;
+		long outerRingVolume = 0;
+		double outerTotalIntensity = 0;
+		double outerTotalIntensityFloat = 0;
+
+		int n = 0;
+		final SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double val = cursor.get().getRealDouble();
+
+			buffer[ n ] = val;
+			sum += val;
+			if ( val < min )
+			{
+				min = val;
+			}
+			if ( val > max )
+			{
+				max = val;
+			}
+
+			final int n1 = n;
+			n++;
+			final double delta = val - mean;
+			final double delta_n = delta / n;
+			mean = mean + delta_n;
+			M2 = M2 + delta * delta_n * n1;
+
+			if ( doRings )
+			{
+				final double dist2 = cursor.getDistanceSquared();
+				if ( dist2 > radius2 )
+				{
+					outerRingVolume++;
+					outerTotalIntensity += val;
+					// SpotContrastAndSNRAnalyzer sums float values.
+					outerTotalIntensityFloat += ( float ) val;
+				}
+				else if ( dist2 > contrastInnerRadius2 )
+				{
+					innerRingVolume++;
+					innerTotalIntensity += val;
+				}
+			}
+		}
+
+		mean = sum / npixels;
+		final double std = Math.sqrt( M2 / ( npixels - 1 ) );
+
+		if ( doIntensity )
+		{
+			spot.putFeature( MEDIAN_INTENSITY, select( buffer, npixels, npixels / 2 ) );
+			spot.putFeature( MIN_INTENSITY, min );
+			spot.putFeature( MAX_INTENSITY, max );
+			spot.putFeature( MEAN_INTENSITY, mean );
+			spot.putFeature( STANDARD_DEVIATION, std );
+			spot.putFeature( TOTAL_INTENSITY, sum );
+		}
+
+		// Both write the CONTRAST feature. The SNR analyzer value wins.
+		if ( doContrast )
+		{
+			final double innerMeanIntensity = innerTotalIntensity / innerRingVolume;
+			final double outerMeanIntensity = outerTotalIntensity / outerRingVolume;
+			spot.putFeature( SpotContrastAnalyzerFactory.KEY, Math.abs( innerMeanIntensity - outerMeanIntensity ) );
+		}
+
+		if ( doSNR )
+		{
+			final double meanOut = outerTotalIntensityFloat / outerRingVolume;
+			spot.putFeature( SpotContrastAndSNRAnalyzerFactory.CONTRAST, ( mean - meanOut ) / ( mean + meanOut ) );
+			spot.putFeature( SpotContrastAndSNRAnalyzerFactory.SNR, ( mean - meanOut ) / std );
+		}
+	}
+
+	/**
+	 * Returns the <code>k</code>th smallest of the first <code>n</code> values
+	 * of the specified array, which is reordered in the process. This is the
+	 * value found at index <code>k</code> after sorting.
+	 */
+	static final double select( final double[] values, final int n, final int k )
+	{
+		int left = 0;
+		int right = n - 1;
+		while ( right > left )
+		{
+			// Median of three as pivot.
+			final int mid = ( left + right ) >>> 1;
+			if ( values[ mid ] < values[ left ] )
+			{
+				swap( values, left, mid );
+			}
+			if ( values[ right ] < values[ left ] )
+			{
+				swap( values, left, right );
+			}
+			if ( values[ right ] < values[ mid ] )
+			{
+				swap( values, mid, right );
+			}
+			final double pivot = values[ mid ];
+
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( values[ i ] < pivot )
+				{
+					i++;
+				}
+				while ( values[ j ] > pivot )
+				{
+					j--;
+				}
+				if ( i <= j )
+				{
+					swap( values, i, j );
+					i++;
+					j--;
+				}
+			}
+
+			if ( k <= j )
+			{
+				right = j;
+			}
+			else if ( k >= i )
+			{
+				left = i;
+			}
+			else
+			{
+				return values[ k ];
+			}
+		}
+		return values[ k ];
+	}
+
+	private static final void swap( final double[] values, final int i, final int j )
+	{
+		final double tmp = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = tmp;
+	}
+}
@@ -0,0 +1,203 @@
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import net.imagej.ImgPlus;
+import net.imglib2.meta.view.HyperSliceImgPlus;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A factory for {@link FusedSpotAnalyzer}s, that stands for the
+ * {@link SpotIntensityAnalyzerFactory}, the {@link SpotContrastAnalyzerFactory}
+ * and the {@link SpotContrastAndSNRAnalyzerFactory} found in a list of
+ * factories.
+ * <p>
+ * This is not a plugin: it is not meant to be selected by the user, but built
+ * by {@link #fuse(List)} when spot features are computed.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class FusedSpotAnalyzerFactory< T extends RealType< T > & NativeType< T >> implements SpotAnalyzerFactory< T >
+{
+
+	public static final String KEY = "Fused spot neighborhood analyzer";
+
+	private final boolean doIntensity;
+
+	private final boolean doContrast;
+
+	private final boolean doSNR;
+
+	private final List< String > features = new ArrayList< String >();
+
+	private final Map< String, String > featureNames = new HashMap< String, String >();
+
+	private final Map< String, String > featureShortNames = new HashMap< String, String >();
+
+	private final Map< String, Dimension > featureDimensions = new HashMap< String, Dimension >();
+
+	private final Map< String, Boolean > isInt = new HashMap< String, Boolean >();
+
+	public FusedSpotAnalyzerFactory( final boolean doIntensity, final boolean doContrast, final boolean doSNR )
+	{
+		this.doIntensity = doIntensity;
+		this.doContrast = doContrast;
+		this.doSNR = doSNR;
+		if ( doIntensity )
+		{
+			add( new SpotIntensityAnalyzerFactory< T >() );
+		}
+		if ( doContrast )
+		{
+			add( new SpotContrastAnalyzerFactory< T >() );
+		}
+		if ( doSNR )
+		{
+			add( new SpotContrastAndSNRAnalyzerFactory< T >() );
+		}
+	}
+
+	/**
+	 * Returns a list of factories that computes the same features as the
+	 * specified one, where the factories whose analyzers can be fused are
+	 * replaced by a single {@link FusedSpotAnalyzerFactory}, put in place of
+	 * the first of them. The order of the other factories is left unchanged.
+	 *
+	 * @param factories
+	 *            the factories to fuse.
+	 * @return a new list.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public static List< SpotAnalyzerFactory< ? >> fuse( final List< SpotAnalyzerFactory< ? >> factories )
+	{
+		boolean doIntensity = false;
+		boolean doContrast = false;
+		boolean doSNR = false;
+		int firstIndex = -1;
+		final List< SpotAnalyzerFactory< ? >> others = new ArrayList< SpotAnalyzerFactory< ? >>( factories.size() );
+		for ( final SpotAnalyzerFactory< ? > factory : factories )
+		{
+			if ( factory instanceof SpotIntensityAnalyzerFactory )
+			{
+				doIntensity = true;
+			}
+			else if ( factory instanceof SpotContrastAnalyzerFactory && !doSNR )
+			{
+				/*
+				 * This analyzer and the SNR one both write the CONTRAST
+				 * feature. If it comes after the SNR one, it must run after
+				 * it, so it is not fused.
+				 */
+				doContrast = true;
+			}
+			else if ( factory instanceof SpotContrastAndSNRAnalyzerFactory )
+			{
+				doSNR = true;
+			}
+			else
+			{
+				others.add( factory );
+				continue;
+			}
+			if ( firstIndex < 0 )
+			{
+				firstIndex = others.size();
+			}
+		}
+
+		if ( firstIndex < 0 )
+		{
+			return others;
+		}
+		others.add( firstIndex, new FusedSpotAnalyzerFactory( doIntensity, doContrast, doSNR ) );
+		return others;
+	}
+
+	private void add( final SpotAnalyzerFactory< T > factory )
+	{
+		features.addAll( factory.getFeatures() );
+		featureNames.putAll( factory.getFeatureNames() );
+		featureShortNames.putAll( factory.getFeatureShortNames() );
+		featureDimensions.putAll( factory.getFeatureDimensions() );
+		isInt.putAll( factory.getIsIntFeature() );
+	}
+
+	@Override
+	public FusedSpotAnalyzer< T > getAnalyzer( final Model model, final ImgPlus< T > img, final int frame, final int channel )
+	{
+		final ImgPlus< T > imgC = HyperSliceImgPlus.fixChannelAxis( img, channel );
+		final ImgPlus< T > imgCT = HyperSliceImgPlus.fixTimeAxis( imgC, frame );
+		final Iterator< Spot > spots = model.getSpots().iterator( frame, false );
+		return new FusedSpotAnalyzer< T >( imgCT, spots, doIntensity, doContrast, doSNR );
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return features;
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return featureShortNames;
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return featureNames;
+	}
+
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return featureDimensions;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return isInt;
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+}
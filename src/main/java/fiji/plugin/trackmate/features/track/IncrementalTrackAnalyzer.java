@@ -0,0 +1,53 @@
+package fiji.plugin.trackmate.features.track;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+
+import java.util.Collection;
+
+/**
+ * Interface for the local {@link TrackAnalyzer}s that can update track
+ * features from the changes listed in a {@link ModelChangeEvent}, instead of
+ * walking the modified tracks again.
+ * <p>
+ * Such analyzers keep, for each track, accumulators (counts, sums, sorted
+ * values...) of what its edges and spots contribute to its features. When the
+ * model is edited, the contributions of the removed or modified edges and
+ * spots are withdrawn from the accumulators, and the contributions of the new
+ * ones are added, so that the cost of an update is proportional to the size of
+ * the change rather than to the size of the tracks. Tracks that cannot be
+ * updated this way, for instance because their accumulators were never built,
+ * are handed back to the caller, that must recompute them with
+ * {@link #process(Collection, Model)}, which also rebuilds their accumulators.
+ * <p>
+ * Accumulators are only maintained after the first call to
+ * {@link #processChanges(ModelChangeEvent, Model)}, so that analyzers that
+ * are not used to follow manual editing do not pay for them.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public interface IncrementalTrackAnalyzer extends TrackAnalyzer
+{
+
+	/**
+	 * Updates the features of the tracks listed in
+	 * {@link ModelChangeEvent#getTrackUpdated()} from the edges and spots
+	 * listed in the specified {@link ModelChangeEvent#MODEL_MODIFIED} event.
+	 *
+	 * @param event
+	 *            the event that describes the changes.
+	 * @param model
+	 *            the {@link Model} the event was fired by.
+	 * @return the IDs of the tracks whose features could not be updated, and
+	 *         must be recomputed with {@link #process(Collection, Model)}.
+	 */
+	public Collection< Integer > processChanges( final ModelChangeEvent event, final Model model );
+
+	/**
+	 * Discards the accumulators of this analyzer, and stops maintaining them
+	 * until the next call to
+	 * {@link #processChanges(ModelChangeEvent, Model)}.
+	 */
+	public void clearAccumulators();
+
+}
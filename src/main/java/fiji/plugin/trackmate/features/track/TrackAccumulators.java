@@ -0,0 +1,396 @@
+package fiji.plugin.trackmate.features.track;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Per-track accumulators of the values contributed by the elements (edges or
+ * spots) of tracks, for {@link IncrementalTrackAnalyzer}s.
+ * <p>
+ * Each element contributes one value to the accumulator of the track it
+ * belongs to. This class remembers the value and the track of each element,
+ * so that the contribution can be withdrawn when the element is removed,
+ * modified or moved to another track, without walking the track again.
+ * <p>
+ * Accumulators are only maintained once {@link #enable(Model)} has been
+ * called, that is: when the model is being edited. This class is
+ * thread-safe.
+ *
+ * @param <K>
+ *            the type of the elements that contribute values.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class TrackAccumulators< K >
+{
+
+	private final Map< Integer, Accumulator > accumulators = new HashMap< Integer, Accumulator >();
+
+	private final IdentityHashMap< K, Contribution > contributions = new IdentityHashMap< K, Contribution >();
+
+	private Model model;
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Starts maintaining accumulators for the specified model. If they were
+	 * maintained for another model, they are discarded first.
+	 */
+	public synchronized void enable( final Model model )
+	{
+		if ( this.model != model )
+		{
+			clear();
+			this.model = model;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if accumulators are maintained for the
+	 * specified model.
+	 */
+	public synchronized boolean isEnabled( final Model model )
+	{
+		return null != model && this.model == model;
+	}
+
+	/**
+	 * Discards all the accumulators and stops maintaining them.
+	 */
+	public synchronized void clear()
+	{
+		accumulators.clear();
+		contributions.clear();
+		model = null;
+	}
+
+	/**
+	 * Returns the accumulator of the specified track, or <code>null</code> if
+	 * no element contributes to it.
+	 */
+	public synchronized Accumulator get( final Integer trackID )
+	{
+		return accumulators.get( trackID );
+	}
+
+	/**
+	 * Sets the value contributed by the specified element to the accumulator
+	 * of the specified track. Its previous contribution, to this track or to
+	 * another one, is withdrawn.
+	 */
+	public synchronized void put( final Integer trackID, final K element, final double value )
+	{
+		remove( element );
+		Accumulator accumulator = accumulators.get( trackID );
+		if ( null == accumulator )
+		{
+			accumulator = new Accumulator();
+			accumulators.put( trackID, accumulator );
+		}
+		accumulator.add( value );
+		contributions.put( element, new Contribution( trackID, accumulator, value ) );
+	}
+
+	/**
+	 * Withdraws the contribution of the specified element. Does nothing if it
+	 * contributes to no track.
+	 */
+	public synchronized void remove( final K element )
+	{
+		final Contribution contribution = contributions.remove( element );
+		if ( null == contribution ) { return; }
+		final Accumulator accumulator = contribution.accumulator;
+		accumulator.remove( contribution.value );
+		if ( accumulator.size() == 0 && accumulators.get( contribution.trackID ) == accumulator )
+		{
+			accumulators.remove( contribution.trackID );
+		}
+	}
+
+	/**
+	 * Replaces the accumulator of the specified track by a new one built from
+	 * the specified elements and values, that must be all the elements of the
+	 * track. Their contributions to other tracks, if any, are withdrawn.
+	 *
+	 * @return the new accumulator.
+	 */
+	public synchronized Accumulator set( final Integer trackID, final List< K > elements, final double[] values )
+	{
+		// The old accumulator is discarded, no need to withdraw from it.
+		final Accumulator old = accumulators.remove( trackID );
+		for ( final K element : elements )
+		{
+			final Contribution contribution = contributions.get( element );
+			if ( null != contribution && contribution.accumulator != old )
+			{
+				remove( element );
+			}
+		}
+
+		final Accumulator accumulator = new Accumulator( values, elements.size() );
+		accumulators.put( trackID, accumulator );
+		for ( int i = 0; i < elements.size(); i++ )
+		{
+			contributions.put( elements.get( i ), new Contribution( trackID, accumulator, values[ i ] ) );
+		}
+		return accumulator;
+	}
+
+	/*
+	 * STATIC UTILS
+	 */
+
+	/**
+	 * Returns the edges whose contribution might have changed with the
+	 * specified event: the edges it added, removed or modified, and the edges
+	 * that moved to another track.
+	 */
+	public static Set< DefaultWeightedEdge > changedEdges( final ModelChangeEvent event )
+	{
+		final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >( event.getEdges() );
+		edges.addAll( event.getEdgesRelabelled() );
+		return edges;
+	}
+
+	/**
+	 * Returns the spots whose contribution might have changed with the
+	 * specified event: the spots it lists, and the source and target of the
+	 * edges whose contribution might have changed.
+	 */
+	public static Set< Spot > changedSpots( final ModelChangeEvent event, final Model model )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< Spot > spots = new HashSet< Spot >( event.getSpots() );
+		for ( final DefaultWeightedEdge edge : changedEdges( event ) )
+		{
+			// Also works for removed edges.
+			spots.add( trackModel.getEdgeSource( edge ) );
+			spots.add( trackModel.getEdgeTarget( edge ) );
+		}
+		return spots;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Contribution
+	{
+
+		private final Integer trackID;
+
+		/**
+		 * The accumulator the value was added to. Might have been replaced
+		 * since in the map, in which case withdrawing from it is harmless.
+		 */
+		private final Accumulator accumulator;
+
+		private final double value;
+
+		private Contribution( final Integer trackID, final Accumulator accumulator, final double value )
+		{
+			this.trackID = trackID;
+			this.accumulator = accumulator;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A multiset of values, kept sorted, along with their sum and sum of
+	 * squares. The count, extrema, median, mean and variance of the values are
+	 * available in constant time. Adding or removing a value costs a binary
+	 * search and an array copy.
+	 */
+	public static final class Accumulator
+	{
+
+		private double[] values;
+
+		private int n;
+
+		/**
+		 * Sums are computed on values shifted by the first value, to limit
+		 * cancellation errors in the variance.
+		 */
+		private double shift = Double.NaN;
+
+		private double sum;
+
+		private double sumSq;
+
+		/** Number of NaN or infinite values, not included in the sums. */
+		private int nNonFinite;
+
+		public Accumulator()
+		{
+			this.values = new double[ 8 ];
+		}
+
+		/**
+		 * Creates an accumulator from the first <code>n</code> specified
+		 * values. The array is copied.
+		 */
+		public Accumulator( final double[] values, final int n )
+		{
+			this.values = Arrays.copyOf( values, Math.max( 8, n ) );
+			this.n = n;
+			Arrays.sort( this.values, 0, n );
+			for ( int i = 0; i < n; i++ )
+			{
+				accumulate( this.values[ i ], 1d );
+			}
+		}
+
+		public void add( final double value )
+		{
+			int index = Arrays.binarySearch( values, 0, n, value );
+			if ( index < 0 )
+			{
+				index = -index - 1;
+			}
+			if ( n == values.length )
+			{
+				values = Arrays.copyOf( values, 2 * n );
+			}
+			System.arraycopy( values, index, values, index + 1, n - index );
+			values[ index ] = value;
+			n++;
+			accumulate( value, 1d );
+		}
+
+		/**
+		 * Removes one occurrence of the specified value. Does nothing if it is
+		 * not present.
+		 */
+		public void remove( final double value )
+		{
+			final int index = Arrays.binarySearch( values, 0, n, value );
+			if ( index < 0 ) { return; }
+			System.arraycopy( values, index + 1, values, index, n - index - 1 );
+			n--;
+			if ( n == 0 )
+			{
+				shift = Double.NaN;
+				sum = 0d;
+				sumSq = 0d;
+				nNonFinite = 0;
+			}
+			else
+			{
+				accumulate( value, -1d );
+			}
+		}
+
+		public int size()
+		{
+			return n;
+		}
+
+		public double min()
+		{
+			return values[ 0 ];
+		}
+
+		public double max()
+		{
+			return values[ n - 1 ];
+		}
+
+		/**
+		 * Returns the value at index <code>n/2</code> of the sorted values.
+		 */
+		public double median()
+		{
+			return values[ n / 2 ];
+		}
+
+		public double mean()
+		{
+			if ( nNonFinite > 0 )
+			{
+				double s = 0d;
+				for ( int i = 0; i < n; i++ )
+				{
+					s += values[ i ];
+				}
+				return s / n;
+			}
+			return shift + sum / n;
+		}
+
+		/**
+		 * Returns the unbiased variance of the values, <code>NaN</code> if
+		 * there are less than 2 values.
+		 */
+		public double variance()
+		{
+			if ( nNonFinite > 0 || n < 2 ) { return Double.NaN; }
+			return Math.max( 0d, sumSq - sum * sum / n ) / ( n - 1 );
+		}
+
+		/**
+		 * Returns the number of values equal to the specified one.
+		 */
+		public int count( final double value )
+		{
+			return countLessThan( Math.nextUp( value ) ) - countLessThan( value );
+		}
+
+		/**
+		 * Returns the number of values strictly larger than the specified one.
+		 */
+		public int countGreaterThan( final double value )
+		{
+			return n - countLessThan( Math.nextUp( value ) );
+		}
+
+		private int countLessThan( final double value )
+		{
+			int low = 0;
+			int high = n;
+			while ( low < high )
+			{
+				final int mid = ( low + high ) >>> 1;
+				if ( values[ mid ] < value )
+				{
+					low = mid + 1;
+				}
+				else
+				{
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private void accumulate( final double value, final double sign )
+		{
+			if ( Double.isNaN( value ) || Double.isInfinite( value ) )
+			{
+				nNonFinite += ( int ) sign;
+				return;
+			}
+			if ( Double.isNaN( shift ) )
+			{
+				shift = value;
+			}
+			final double d = value - shift;
+			sum += sign * d;
+			sumSq += sign * d * d;
+		}
+	}
+}
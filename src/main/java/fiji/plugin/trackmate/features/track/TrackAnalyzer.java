@@ -45,6 +45,8 @@ public interface TrackAnalyzer extends Benchmark, FeatureAnalyzer, MultiThreaded
 	 * @param model
 	 *            the {@link Model} from which actual tracks are to be
 	 *            retrieved.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the executor service the analyzer runs on was cancelled.
 	 */
 	public void process( final Collection< Integer > trackIDs, final Model model );
 
@@ -2,7 +2,12 @@ package fiji.plugin.trackmate.features.track;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.track.TrackAccumulators.Accumulator;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,17 +17,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
+public class TrackBranchingAnalyzer implements IncrementalTrackAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	/*
@@ -90,10 +96,30 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 		IS_INT.put( NUMBER_COMPLEX, Boolean.TRUE );
 	}
 
+	/*
+	 * Branching types of spots.
+	 */
+
+	private static final double NONE = 0d;
+
+	private static final double SPLIT = 1d;
+
+	private static final double MERGE = 2d;
+
+	private static final double COMPLEX = 3d;
+
 	private int numThreads;
 
 	private long processingTime;
 
+	private ExecutorService service;
+
+	/** The branching type of the spots of each track. */
+	private final TrackAccumulators< Spot > spotAccumulators = new TrackAccumulators< Spot >();
+
+	/** The gap length of the edges of each track. */
+	private final TrackAccumulators< DefaultWeightedEdge > edgeAccumulators = new TrackAccumulators< DefaultWeightedEdge >();
+
 	public TrackBranchingAnalyzer()
 	{
 		setNumThreads();
@@ -112,107 +138,199 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 		if ( trackIDs.isEmpty() ) { return; }
 
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
+		final TrackModel tm = model.getTrackModel();
+		final boolean accumulate = spotAccumulators.isEnabled( model );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "TrackBranchingAnalyzer thread " + i )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				Integer trackID;
+				while ( !ComputePool.isCancelled( service ) && ( trackID = queue.poll() ) != null )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
-					{
 
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
-						int nmerges = 0;
-						int nsplits = 0;
-						int ncomplex = 0;
-						for ( final Spot spot : track )
-						{
-							final Set< DefaultWeightedEdge > edges = model.getTrackModel().edgesOf( spot );
-
-							// get neighbors
-							final Set< Spot > neighbors = new HashSet< Spot >();
-							for ( final DefaultWeightedEdge edge : edges )
-							{
-								neighbors.add( model.getTrackModel().getEdgeSource( edge ) );
-								neighbors.add( model.getTrackModel().getEdgeTarget( edge ) );
-							}
-							neighbors.remove( spot );
-
-							// inspect neighbors relative time position
-							int earlier = 0;
-							int later = 0;
-							for ( final Spot neighbor : neighbors )
-							{
-								if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
-								{
-									earlier++; // neighbor is before in time
-								}
-								else
-								{
-									later++;
-								}
-							}
-
-							// Test for classical spot
-							if ( earlier == 1 && later == 1 )
-							{
-								continue;
-							}
-
-							// classify spot
-							if ( earlier <= 1 && later > 1 )
-							{
-								nsplits++;
-							}
-							else if ( later <= 1 && earlier > 1 )
-							{
-								nmerges++;
-							}
-							else if ( later > 1 && earlier > 1 )
-							{
-								ncomplex++;
-							}
-						}
-
-						int ngaps = 0, longestgap = 0;
-						for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
-						{
-							final Spot source = model.getTrackModel().getEdgeSource( edge );
-							final Spot target = model.getTrackModel().getEdgeTarget( edge );
-							int gaplength = (int)Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
-							if ( gaplength > 0 )
-							{
-								ngaps++;
-								if ( longestgap < gaplength )
-								{
-									longestgap = gaplength;
-								}
-							}
-						}
-
-						// Put feature data
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
-						model.getFeatureModel().putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
-						model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( track.size() ) );
+					final List< Spot > spots = new ArrayList< Spot >( tm.trackSpots( trackID ) );
+					final double[] types = new double[ spots.size() ];
+					for ( int i = 0; i < types.length; i++ )
+					{
+						types[ i ] = branchingType( spots.get( i ), tm );
+					}
 
+					final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( tm.trackEdges( trackID ) );
+					final double[] gaps = new double[ edges.size() ];
+					for ( int i = 0; i < gaps.length; i++ )
+					{
+						gaps[ i ] = gapLength( edges.get( i ), tm );
 					}
 
+					final Accumulator spotAccumulator;
+					final Accumulator edgeAccumulator;
+					if ( accumulate )
+					{
+						spotAccumulator = spotAccumulators.set( trackID, spots, types );
+						edgeAccumulator = edgeAccumulators.set( trackID, edges, gaps );
+					}
+					else
+					{
+						spotAccumulator = new Accumulator( types, types.length );
+						edgeAccumulator = new Accumulator( gaps, gaps.length );
+					}
+					putFeatures( trackID, spotAccumulator, edgeAccumulator, model );
 				}
-			};
+
+			}
+		};
+
+		final long start = System.currentTimeMillis();
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackBranchingAnalyzer thread" );
 		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
+	}
 
+	@Override
+	public Collection< Integer > processChanges( final ModelChangeEvent event, final Model model )
+	{
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		spotAccumulators.enable( model );
+		edgeAccumulators.enable( model );
+		final TrackModel tm = model.getTrackModel();
+
+		for ( final DefaultWeightedEdge edge : TrackAccumulators.changedEdges( event ) )
+		{
+			final Integer trackID = tm.trackIDOf( edge );
+			if ( null == trackID )
+			{
+				edgeAccumulators.remove( edge );
+			}
+			else
+			{
+				edgeAccumulators.put( trackID, edge, gapLength( edge, tm ) );
+			}
+		}
+
+		// The branching type of a spot only changes with its edges.
+		for ( final Spot spot : TrackAccumulators.changedSpots( event, model ) )
+		{
+			final Integer trackID = tm.trackIDOf( spot );
+			if ( null == trackID )
+			{
+				spotAccumulators.remove( spot );
+			}
+			else
+			{
+				spotAccumulators.put( trackID, spot, branchingType( spot, tm ) );
+			}
+		}
+
+		final Set< Integer > toRecompute = new HashSet< Integer >();
+		for ( final Integer trackID : event.getTrackUpdated() )
+		{
+			final Set< Spot > track = tm.trackSpots( trackID );
+			if ( null == track )
+			{
+				continue;
+			}
+			final Accumulator spotAccumulator = spotAccumulators.get( trackID );
+			final Accumulator edgeAccumulator = edgeAccumulators.get( trackID );
+			if ( null == spotAccumulator || spotAccumulator.size() != track.size() || null == edgeAccumulator || edgeAccumulator.size() != tm.trackEdges( trackID ).size() )
+			{
+				// Never seen this track before.
+				toRecompute.add( trackID );
+				continue;
+			}
+			putFeatures( trackID, spotAccumulator, edgeAccumulator, model );
+		}
+
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		return toRecompute;
+	}
+
+	@Override
+	public void clearAccumulators()
+	{
+		spotAccumulators.clear();
+		edgeAccumulators.clear();
+	}
+
+	/**
+	 * Returns the branching type of the specified spot: {@link #SPLIT},
+	 * {@link #MERGE}, {@link #COMPLEX} or {@link #NONE}.
+	 */
+	private static final double branchingType( final Spot spot, final TrackModel tm )
+	{
+		final Set< DefaultWeightedEdge > edges = tm.edgesOf( spot );
+
+		// get neighbors
+		final Set< Spot > neighbors = new HashSet< Spot >();
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			neighbors.add( tm.getEdgeSource( edge ) );
+			neighbors.add( tm.getEdgeTarget( edge ) );
+		}
+		neighbors.remove( spot );
+
+		// inspect neighbors relative time position
+		int earlier = 0;
+		int later = 0;
+		for ( final Spot neighbor : neighbors )
+		{
+			if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
+			{
+				earlier++; // neighbor is before in time
+			}
+			else
+			{
+				later++;
+			}
+		}
+
+		// Test for classical spot
+		if ( earlier == 1 && later == 1 ) { return NONE; }
+
+		// classify spot
+		if ( earlier <= 1 && later > 1 )
+		{
+			return SPLIT;
+		}
+		else if ( later <= 1 && earlier > 1 )
+		{
+			return MERGE;
+		}
+		else if ( later > 1 && earlier > 1 ) { return COMPLEX; }
+		return NONE;
+	}
+
+	private static final double gapLength( final DefaultWeightedEdge edge, final TrackModel tm )
+	{
+		final Spot source = tm.getEdgeSource( edge );
+		final Spot target = tm.getEdgeTarget( edge );
+		return ( int ) Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
+	}
+
+	private static final void putFeatures( final Integer trackID, final Accumulator spotAccumulator, final Accumulator edgeAccumulator, final Model model )
+	{
+		final int ngaps = edgeAccumulator.countGreaterThan( 0d );
+		final int longestgap = ngaps > 0 ? ( int ) edgeAccumulator.max() : 0;
+
+		// Put feature data
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
+		model.getFeatureModel().putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( spotAccumulator.count( SPLIT ) ) );
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( spotAccumulator.count( MERGE ) ) );
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( spotAccumulator.count( COMPLEX ) ) );
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( spotAccumulator.size() ) );
 	}
 
 	@Override
@@ -234,6 +352,12 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,16 +14,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
+public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	public static final String KEY = "Track duration";
@@ -76,6 +79,8 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	private long processingTime;
 
+	private ExecutorService service;
+
 	public TrackDurationAnalyzer()
 	{
 		setNumThreads();
@@ -96,54 +101,60 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 		final FeatureModel fm = model.getFeatureModel();
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "TrackDurationAnalyzer thread " + i )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				Integer trackID;
+				while ( !ComputePool.isCancelled( service ) && ( trackID = queue.poll() ) != null )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
-					{
 
-						// I love brute force.
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-						double minT = Double.POSITIVE_INFINITY;
-						double maxT = Double.NEGATIVE_INFINITY;
-						Double t;
-						Spot startSpot = null;
-						Spot endSpot = null;
-						for ( final Spot spot : track )
+					// I love brute force.
+					final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+					double minT = Double.POSITIVE_INFINITY;
+					double maxT = Double.NEGATIVE_INFINITY;
+					Double t;
+					Spot startSpot = null;
+					Spot endSpot = null;
+					for ( final Spot spot : track )
+					{
+						t = spot.getFeature( Spot.POSITION_T );
+						if ( t < minT )
+						{
+							minT = t;
+							startSpot = spot;
+						}
+						if ( t > maxT )
 						{
-							t = spot.getFeature( Spot.POSITION_T );
-							if ( t < minT )
-							{
-								minT = t;
-								startSpot = spot;
-							}
-							if ( t > maxT )
-							{
-								maxT = t;
-								endSpot = spot;
-							}
+							maxT = t;
+							endSpot = spot;
 						}
+					}
 
-						fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
-						fm.putTrackFeature( trackID, TRACK_START, minT );
-						fm.putTrackFeature( trackID, TRACK_STOP, maxT );
-						fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+					fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
+					fm.putTrackFeature( trackID, TRACK_START, minT );
+					fm.putTrackFeature( trackID, TRACK_STOP, maxT );
+					fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
 
-					}
 				}
-			};
-		}
+			}
+		};
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackDurationAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
 	}
 
 	@Override
@@ -165,6 +176,12 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,17 +14,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackLocationAnalyzer implements TrackAnalyzer, MultiThreaded, Benchmark
+public class TrackLocationAnalyzer implements TrackAnalyzer, MultiThreaded, Benchmark, ExecutorServiceAware
 {
 
 	/*
@@ -73,6 +76,8 @@ public class TrackLocationAnalyzer implements TrackAnalyzer, MultiThreaded, Benc
 
 	private long processingTime;
 
+	private ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -97,49 +102,55 @@ public class TrackLocationAnalyzer implements TrackAnalyzer, MultiThreaded, Benc
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 		final FeatureModel fm = model.getFeatureModel();
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "TrackLocationAnalyzer thread " + i )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				Integer trackID;
+				while ( !ComputePool.isCancelled( service ) && ( trackID = queue.poll() ) != null )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
-					{
-
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-
-						double x = 0;
-						double y = 0;
-						double z = 0;
 
-						for ( final Spot spot : track )
-						{
-							x += spot.getFeature( Spot.POSITION_X );
-							y += spot.getFeature( Spot.POSITION_Y );
-							z += spot.getFeature( Spot.POSITION_Z );
-						}
-						final int nspots = track.size();
-						x /= nspots;
-						y /= nspots;
-						z /= nspots;
+					final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
 
-						fm.putTrackFeature( trackID, X_LOCATION, x );
-						fm.putTrackFeature( trackID, Y_LOCATION, y );
-						fm.putTrackFeature( trackID, Z_LOCATION, z );
+					double x = 0;
+					double y = 0;
+					double z = 0;
 
+					for ( final Spot spot : track )
+					{
+						x += spot.getFeature( Spot.POSITION_X );
+						y += spot.getFeature( Spot.POSITION_Y );
+						z += spot.getFeature( Spot.POSITION_Z );
 					}
+					final int nspots = track.size();
+					x /= nspots;
+					y /= nspots;
+					z /= nspots;
+
+					fm.putTrackFeature( trackID, X_LOCATION, x );
+					fm.putTrackFeature( trackID, Y_LOCATION, y );
+					fm.putTrackFeature( trackID, Z_LOCATION, z );
 
 				}
-			};
-		}
+
+			}
+		};
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackLocationAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
 	}
 
 	@Override
@@ -161,6 +172,12 @@ public class TrackLocationAnalyzer implements TrackAnalyzer, MultiThreaded, Benc
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -3,28 +3,34 @@ package fiji.plugin.trackmate.features.track;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.track.TrackAccumulators.Accumulator;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
-import net.imglib2.util.Util;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer, MultiThreaded, Benchmark
+public class TrackSpeedStatisticsAnalyzer implements IncrementalTrackAnalyzer, MultiThreaded, Benchmark, ExecutorServiceAware
 {
 
 	/*
@@ -102,6 +108,11 @@ public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer, MultiThreade
 
 	private long processingTime;
 
+	private ExecutorService service;
+
+	/** The speeds of the edges of each track. */
+	private final TrackAccumulators< DefaultWeightedEdge > accumulators = new TrackAccumulators< DefaultWeightedEdge >();
+
 	public TrackSpeedStatisticsAnalyzer()
 	{
 		setNumThreads();
@@ -125,99 +136,119 @@ public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer, MultiThreade
 
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel tm = model.getTrackModel();
+		final boolean accumulate = accumulators.isEnabled( model );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "TrackSpeedStatisticsAnalyzer thread " + i )
-			{
 
-				@Override
-				public void run()
+			@Override
+			public void run()
+			{
+				Integer trackID;
+				while ( !ComputePool.isCancelled( service ) && ( trackID = queue.poll() ) != null )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
+					final List< DefaultWeightedEdge > track = new ArrayList< DefaultWeightedEdge >( tm.trackEdges( trackID ) );
+					final double[] velocities = new double[ track.size() ];
+					for ( int i = 0; i < velocities.length; i++ )
 					{
-
-						final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-
-						double sum = 0;
-						double mean = 0;
-						double M2 = 0;
-						// double M3 = 0;
-						// double M4 = 0;
-						double delta, delta_n;
-						// double delta_n2;
-						double term1;
-						int n1;
-
-						// Others
-						Double val;
-						final double[] velocities = new double[ track.size() ];
-						int n = 0;
-
-						for ( final DefaultWeightedEdge edge : track )
-						{
-							final Spot source = model.getTrackModel().getEdgeSource( edge );
-							final Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-							// Edge velocity
-							final Double d2 = source.squareDistanceTo( target );
-							final Double dt = source.diffTo( target, Spot.POSITION_T );
-							if ( d2 == null || dt == null )
-								continue;
-							val = Math.sqrt( d2 ) / Math.abs( dt );
-
-							// For median, min and max
-							velocities[ n ] = val;
-							// For variance and mean
-							sum += val;
-
-							// For kurtosis
-							n1 = n;
-							n++;
-							delta = val - mean;
-							delta_n = delta / n;
-							// delta_n2 = delta_n * delta_n;
-							term1 = delta * delta_n * n1;
-							mean = mean + delta_n;
-							// M4 = M4 + term1 * delta_n2 * (n*n - 3*n + 3) + 6
-							// * delta_n2 * M2 - 4 * delta_n * M3;
-							// M3 = M3 + term1 * delta_n * (n - 2) - 3 * delta_n
-							// * M2;
-							M2 = M2 + term1;
-						}
-
-						Util.quicksort( velocities, 0, track.size() - 1 );
-						final double median = velocities[ track.size() / 2 ];
-						final double min = velocities[ 0 ];
-						final double max = velocities[ track.size() - 1 ];
-						mean = sum / track.size();
-						final double variance = M2 / ( track.size() - 1 );
-						// double kurtosis = (n*M4) / (M2*M2) - 3;
-						// double skewness = Math.sqrt(n) * M3 / Math.pow(M2,
-						// 3/2.0) ;
-
-						fm.putTrackFeature( trackID, TRACK_MEDIAN_SPEED, median );
-						fm.putTrackFeature( trackID, TRACK_MIN_SPEED, min );
-						fm.putTrackFeature( trackID, TRACK_MAX_SPEED, max );
-						fm.putTrackFeature( trackID, TRACK_MEAN_SPEED, mean );
-						fm.putTrackFeature( trackID, TRACK_STD_SPEED, Math.sqrt( variance ) );
-						// fm.putTrackFeature(index, TRACK_SPEED_KURTOSIS,
-						// kurtosis);
-						// fm.putTrackFeature(index, TRACK_SPEED_SKEWNESS,
-						// skewness);
-
+						velocities[ i ] = velocity( track.get( i ), tm );
 					}
 
+					final Accumulator accumulator;
+					if ( accumulate )
+					{
+						accumulator = accumulators.set( trackID, track, velocities );
+					}
+					else
+					{
+						accumulator = new Accumulator( velocities, velocities.length );
+					}
+					putFeatures( trackID, accumulator, fm );
 				}
-			};
+
+			}
+		};
+
+		final long start = System.currentTimeMillis();
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackSpeedStatisticsAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
 		}
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
+	}
 
+	@Override
+	public Collection< Integer > processChanges( final ModelChangeEvent event, final Model model )
+	{
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		accumulators.enable( model );
+		final TrackModel tm = model.getTrackModel();
+
+		for ( final DefaultWeightedEdge edge : TrackAccumulators.changedEdges( event ) )
+		{
+			final Integer trackID = tm.trackIDOf( edge );
+			if ( null == trackID )
+			{
+				accumulators.remove( edge );
+			}
+			else
+			{
+				accumulators.put( trackID, edge, velocity( edge, tm ) );
+			}
+		}
+
+		final Set< Integer > toRecompute = new HashSet< Integer >();
+		for ( final Integer trackID : event.getTrackUpdated() )
+		{
+			final Set< DefaultWeightedEdge > track = tm.trackEdges( trackID );
+			if ( null == track )
+			{
+				continue;
+			}
+			final Accumulator accumulator = accumulators.get( trackID );
+			if ( null == accumulator || accumulator.size() != track.size() )
+			{
+				// Never seen this track before.
+				toRecompute.add( trackID );
+				continue;
+			}
+			putFeatures( trackID, accumulator, model.getFeatureModel() );
+		}
+
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		return toRecompute;
+	}
+
+	@Override
+	public void clearAccumulators()
+	{
+		accumulators.clear();
+	}
+
+	private static final double velocity( final DefaultWeightedEdge edge, final TrackModel tm )
+	{
+		final Spot source = tm.getEdgeSource( edge );
+		final Spot target = tm.getEdgeTarget( edge );
+		return Math.sqrt( source.squareDistanceTo( target ) ) / Math.abs( source.diffTo( target, Spot.POSITION_T ) );
+	}
+
+	private static final void putFeatures( final Integer trackID, final Accumulator accumulator, final FeatureModel fm )
+	{
+		fm.putTrackFeature( trackID, TRACK_MEDIAN_SPEED, accumulator.median() );
+		fm.putTrackFeature( trackID, TRACK_MIN_SPEED, accumulator.min() );
+		fm.putTrackFeature( trackID, TRACK_MAX_SPEED, accumulator.max() );
+		fm.putTrackFeature( trackID, TRACK_MEAN_SPEED, accumulator.mean() );
+		fm.putTrackFeature( trackID, TRACK_STD_SPEED, Math.sqrt( accumulator.variance() ) );
 	}
 
 	@Override
@@ -239,6 +270,12 @@ public class TrackSpeedStatisticsAnalyzer implements TrackAnalyzer, MultiThreade
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,18 +14,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.util.Util;
 
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer, MultiThreaded, Benchmark
+public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer, MultiThreaded, Benchmark, ExecutorServiceAware
 {
 
 	/*
@@ -88,6 +91,8 @@ public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer, MultiThre
 
 	private long processingTime;
 
+	private ExecutorService service;
+
 	public TrackSpotQualityFeatureAnalyzer()
 	{
 		setNumThreads();
@@ -112,62 +117,68 @@ public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer, MultiThre
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 		final FeatureModel fm = model.getFeatureModel();
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ i ] = new Thread( "TrackSpotFeatureAnalyzer thread " + i )
-			{
 
-				@Override
-				public void run()
+			@Override
+			public void run()
+			{
+				Integer trackID;
+				while ( !ComputePool.isCancelled( service ) && ( trackID = queue.poll() ) != null )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
-					{
-
-						final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
 
-						double sum = 0, sum2 = 0;
+					final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
 
-						// Others
-						final double[] qualities = new double[ track.size() ];
-						int n = 0;
+					double sum = 0, sum2 = 0;
 
-						for ( final Spot spot : track )
-						{
-							final double val = spot.getFeature( Spot.QUALITY );
+					// Others
+					final double[] qualities = new double[ track.size() ];
+					int n = 0;
 
-							// For median, min and max
-							qualities[ n++ ] = val;
-							// For variance and mean
-							sum += val;
-							sum2 += val * val;
-						}
+					for ( final Spot spot : track )
+					{
+						final double val = spot.getFeature( Spot.QUALITY );
 
-						Util.quicksort( qualities, 0, track.size() - 1 );
-						final double median = qualities[ track.size() / 2 ];
-						final double min = qualities[ 0 ];
-						final double max = qualities[ track.size() - 1 ];
-						final double mean = sum / track.size();
-						final double mean2 = sum2 / track.size();
-						final double variance = mean2 - mean * mean;
+						// For median, min and max
+						qualities[ n++ ] = val;
+						// For variance and mean
+						sum += val;
+						sum2 += val * val;
+					}
 
-						fm.putTrackFeature( trackID, TRACK_MEDIAN_QUALITY, median );
-						fm.putTrackFeature( trackID, TRACK_MIN_QUALITY, min );
-						fm.putTrackFeature( trackID, TRACK_MAX_QUALITY, max );
-						fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, mean );
-						fm.putTrackFeature( trackID, TRACK_STD_QUALITY, Math.sqrt( variance ) );
+					Util.quicksort( qualities, 0, track.size() - 1 );
+					final double median = qualities[ track.size() / 2 ];
+					final double min = qualities[ 0 ];
+					final double max = qualities[ track.size() - 1 ];
+					final double mean = sum / track.size();
+					final double mean2 = sum2 / track.size();
+					final double variance = mean2 - mean * mean;
 
-					}
+					fm.putTrackFeature( trackID, TRACK_MEDIAN_QUALITY, median );
+					fm.putTrackFeature( trackID, TRACK_MIN_QUALITY, min );
+					fm.putTrackFeature( trackID, TRACK_MAX_QUALITY, max );
+					fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, mean );
+					fm.putTrackFeature( trackID, TRACK_STD_QUALITY, Math.sqrt( variance ) );
 
 				}
-			};
-		}
+
+			}
+		};
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		final boolean ok;
+		try
+		{
+			ok = ComputePool.runAll( service, worker, numThreads, "TrackSpotFeatureAnalyzer thread" );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException( KEY + " was interrupted." );
+		}
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
+		if ( !ok ) { throw new CancellationException( KEY + " was cancelled." ); }
 	}
 
 	@Override
@@ -189,6 +200,12 @@ public class TrackSpotQualityFeatureAnalyzer implements TrackAnalyzer, MultiThre
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -0,0 +1,1050 @@
+package fiji.plugin.trackmate.graph;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.Graph;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.WeightedGraph;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * A simple undirected weighted graph that stores its content in primitive
+ * arrays rather than in maps of objects, to lower the memory footprint and the
+ * garbage generated by large track graphs.
+ * <p>
+ * Vertices and edges are given an integer slot. Edge sources, targets and
+ * weights are stored in columns indexed by the edge slot. The edges of each
+ * vertex are stored in a compressed sparse row (CSR) layout, plus a small
+ * per-vertex overflow list that receives the edges added since the last
+ * compaction. The CSR layout is rebuilt when the overflow lists and the holes
+ * left by removed edges grow too large.
+ * <p>
+ * This graph behaves like a {@link org.jgrapht.graph.SimpleWeightedGraph}: no
+ * loops and no multiple edges are allowed. It can be wrapped in a
+ * {@link org.jgrapht.graph.ListenableUndirectedGraph} and given to the jgrapht
+ * algorithms and iterators. Edge instances are preserved: an edge added with
+ * {@link #addEdge(Object, Object, DefaultWeightedEdge)} is stored as is, and
+ * can be used afterwards to query the graph. The sets returned by this graph
+ * are unmodifiable live views, that fail fast if the graph is modified while
+ * they are iterated.
+ * <p>
+ * Unlike the jgrapht graphs, the source, target and weight of an edge are not
+ * stored in the edge itself. So that listeners can still query them after the
+ * edge has been removed, the removed edges are remembered until
+ * {@link #releaseRemovedEdges()} is called.
+ *
+ * @param <V>
+ *            the type of the vertices.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class CompactWeightedGraph< V > extends AbstractGraph< V, DefaultWeightedEdge > implements UndirectedGraph< V, DefaultWeightedEdge >, WeightedGraph< V, DefaultWeightedEdge >
+{
+
+	/**
+	 * Number of pending adjacency entries (overflow entries and holes) under
+	 * which the CSR layout is never rebuilt.
+	 */
+	private static final int MIN_PENDING = 1024;
+
+	/**
+	 * The CSR layout is rebuilt when the pending adjacency entries exceed the
+	 * number of edges divided by this ratio.
+	 */
+	private static final int PENDING_RATIO = 4;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/*
+	 * VERTICES
+	 */
+
+	private Object[] vertices;
+
+	private int[] degrees;
+
+	private int[][] overflows;
+
+	private int[] overflowSizes;
+
+	/** Number of vertex slots ever used. */
+	private int vertexSlots;
+
+	private final IntStack freeVertexSlots = new IntStack();
+
+	private int vertexCount;
+
+	private final SlotTable vertexTable = new SlotTable( false );
+
+	/*
+	 * EDGES
+	 */
+
+	private DefaultWeightedEdge[] edges;
+
+	private int[] sources;
+
+	private int[] targets;
+
+	private double[] weights;
+
+	/** Number of edge slots ever used. */
+	private int edgeSlots;
+
+	private final IntStack freeEdgeSlots = new IntStack();
+
+	private int edgeCount;
+
+	/** Slots of the edges that were not created by this graph. */
+	private final SlotTable edgeTable = new SlotTable( true );
+
+	private final Map< DefaultWeightedEdge, RemovedEdge > removedEdges = new IdentityHashMap< DefaultWeightedEdge, RemovedEdge >();
+
+	/*
+	 * ADJACENCY
+	 */
+
+	/** Number of vertex slots covered by the CSR layout. */
+	private int csrVertices;
+
+	private int[] csrOffsets;
+
+	/** Edge slots, per vertex. Removed edges leave a <code>-1</code> hole. */
+	private int[] csrEdges;
+
+	/** Number of overflow entries plus number of holes in the CSR layout. */
+	private int pending;
+
+	private int modCount;
+
+	private final EdgeFactory< V, DefaultWeightedEdge > edgeFactory = new EdgeFactory< V, DefaultWeightedEdge >()
+	{
+		@Override
+		public DefaultWeightedEdge createEdge( final V sourceVertex, final V targetVertex )
+		{
+			return new CompactEdge( CompactWeightedGraph.this );
+		}
+	};
+
+	private final Set< V > vertexSet = new VertexSet();
+
+	private final Set< DefaultWeightedEdge > edgeSet = new EdgeSet();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new empty graph.
+	 */
+	public CompactWeightedGraph()
+	{
+		this( INITIAL_CAPACITY, INITIAL_CAPACITY );
+	}
+
+	/**
+	 * Creates a new graph with the vertices and edges of the specified simple
+	 * graph. The edge instances and weights are copied, and the vertex and edge
+	 * orders are preserved.
+	 *
+	 * @param graph
+	 *            the graph to copy. Must not contain loops or multiple edges.
+	 */
+	public CompactWeightedGraph( final Graph< V, DefaultWeightedEdge > graph )
+	{
+		this( graph.vertexSet().size(), graph.edgeSet().size() );
+		for ( final V vertex : graph.vertexSet() )
+		{
+			addVertex( vertex );
+		}
+		// Fill the edge columns only, and build the adjacency in one pass.
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			final int source = vertexTable.get( graph.getEdgeSource( edge ) );
+			final int target = vertexTable.get( graph.getEdgeTarget( edge ) );
+			if ( source == target ) { throw new IllegalArgumentException( "loops not allowed" ); }
+			final int slot = newEdgeSlot();
+			edges[ slot ] = edge;
+			sources[ slot ] = source;
+			targets[ slot ] = target;
+			weights[ slot ] = graph.getEdgeWeight( edge );
+			register( edge, slot );
+			degrees[ source ]++;
+			degrees[ target ]++;
+			edgeCount++;
+		}
+		compact();
+	}
+
+	private CompactWeightedGraph( final int vertexCapacity, final int edgeCapacity )
+	{
+		final int nv = Math.max( INITIAL_CAPACITY, vertexCapacity );
+		vertices = new Object[ nv ];
+		degrees = new int[ nv ];
+		overflows = new int[ nv ][];
+		overflowSizes = new int[ nv ];
+
+		final int ne = Math.max( INITIAL_CAPACITY, edgeCapacity );
+		edges = new DefaultWeightedEdge[ ne ];
+		sources = new int[ ne ];
+		targets = new int[ ne ];
+		weights = new double[ ne ];
+
+		csrOffsets = new int[ 1 ];
+		csrEdges = new int[ 0 ];
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Rebuilds the CSR layout of the adjacency, so that it contains all the
+	 * edges of this graph and no holes. This is done automatically when
+	 * needed.
+	 */
+	public void compact()
+	{
+		final int[] offsets = new int[ vertexSlots + 1 ];
+		for ( int e = 0; e < edgeSlots; e++ )
+		{
+			if ( null != edges[ e ] )
+			{
+				offsets[ sources[ e ] + 1 ]++;
+				offsets[ targets[ e ] + 1 ]++;
+			}
+		}
+		for ( int v = 0; v < vertexSlots; v++ )
+		{
+			offsets[ v + 1 ] += offsets[ v ];
+		}
+		final int[] adjacency = new int[ offsets[ vertexSlots ] ];
+		final int[] fill = new int[ vertexSlots ];
+		System.arraycopy( offsets, 0, fill, 0, vertexSlots );
+		for ( int e = 0; e < edgeSlots; e++ )
+		{
+			if ( null != edges[ e ] )
+			{
+				adjacency[ fill[ sources[ e ] ]++ ] = e;
+				adjacency[ fill[ targets[ e ] ]++ ] = e;
+			}
+		}
+
+		csrVertices = vertexSlots;
+		csrOffsets = offsets;
+		csrEdges = adjacency;
+		for ( int v = 0; v < vertexSlots; v++ )
+		{
+			overflows[ v ] = null;
+			overflowSizes[ v ] = 0;
+		}
+		pending = 0;
+		modCount++;
+	}
+
+	/**
+	 * Forgets the edges removed from this graph so far. After this call, the
+	 * source, target and weight of these edges cannot be queried anymore.
+	 */
+	public void releaseRemovedEdges()
+	{
+		removedEdges.clear();
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > getAllEdges( final V sourceVertex, final V targetVertex )
+	{
+		final int source = vertexTable.get( sourceVertex );
+		final int target = vertexTable.get( targetVertex );
+		if ( source < 0 || target < 0 ) { return null; }
+		final int edge = findEdge( source, target );
+		if ( edge < 0 ) { return Collections.< DefaultWeightedEdge >emptySet(); }
+		return Collections.singleton( edges[ edge ] );
+	}
+
+	@Override
+	public DefaultWeightedEdge getEdge( final V sourceVertex, final V targetVertex )
+	{
+		final int source = vertexTable.get( sourceVertex );
+		final int target = vertexTable.get( targetVertex );
+		if ( source < 0 || target < 0 ) { return null; }
+		final int edge = findEdge( source, target );
+		return edge < 0 ? null : edges[ edge ];
+	}
+
+	@Override
+	public EdgeFactory< V, DefaultWeightedEdge > getEdgeFactory()
+	{
+		return edgeFactory;
+	}
+
+	@Override
+	public DefaultWeightedEdge addEdge( final V sourceVertex, final V targetVertex )
+	{
+		assertVertexExist( sourceVertex );
+		assertVertexExist( targetVertex );
+		final int source = vertexTable.get( sourceVertex );
+		final int target = vertexTable.get( targetVertex );
+		if ( source == target ) { throw new IllegalArgumentException( "loops not allowed" ); }
+		if ( findEdge( source, target ) >= 0 ) { return null; }
+
+		final DefaultWeightedEdge edge = edgeFactory.createEdge( sourceVertex, targetVertex );
+		link( source, target, edge, WeightedGraph.DEFAULT_EDGE_WEIGHT );
+		return edge;
+	}
+
+	@Override
+	public boolean addEdge( final V sourceVertex, final V targetVertex, final DefaultWeightedEdge e )
+	{
+		if ( null == e ) { throw new NullPointerException(); }
+		if ( containsEdge( e ) ) { return false; }
+		assertVertexExist( sourceVertex );
+		assertVertexExist( targetVertex );
+		final int source = vertexTable.get( sourceVertex );
+		final int target = vertexTable.get( targetVertex );
+		if ( source == target ) { throw new IllegalArgumentException( "loops not allowed" ); }
+		if ( findEdge( source, target ) >= 0 ) { return false; }
+
+		link( source, target, e, WeightedGraph.DEFAULT_EDGE_WEIGHT );
+		return true;
+	}
+
+	@Override
+	public boolean addVertex( final V v )
+	{
+		if ( null == v ) { throw new NullPointerException(); }
+		if ( vertexTable.get( v ) >= 0 ) { return false; }
+
+		final int slot = newVertexSlot();
+		vertices[ slot ] = v;
+		vertexTable.put( v, slot );
+		vertexCount++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean containsEdge( final DefaultWeightedEdge e )
+	{
+		return edgeSlot( e ) >= 0;
+	}
+
+	@Override
+	public boolean containsVertex( final V v )
+	{
+		return vertexTable.get( v ) >= 0;
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > edgeSet()
+	{
+		return edgeSet;
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > edgesOf( final V vertex )
+	{
+		assertVertexExist( vertex );
+		return new EdgesOf( vertexTable.get( vertex ) );
+	}
+
+	@Override
+	public int degreeOf( final V vertex )
+	{
+		assertVertexExist( vertex );
+		return degrees[ vertexTable.get( vertex ) ];
+	}
+
+	@Override
+	public DefaultWeightedEdge removeEdge( final V sourceVertex, final V targetVertex )
+	{
+		final DefaultWeightedEdge edge = getEdge( sourceVertex, targetVertex );
+		if ( null != edge )
+		{
+			removeEdge( edge );
+		}
+		return edge;
+	}
+
+	@Override
+	public boolean removeEdge( final DefaultWeightedEdge e )
+	{
+		final int slot = edgeSlot( e );
+		if ( slot < 0 ) { return false; }
+
+		final int source = sources[ slot ];
+		final int target = targets[ slot ];
+		unlink( source, slot );
+		unlink( target, slot );
+		degrees[ source ]--;
+		degrees[ target ]--;
+		removedEdges.put( e, new RemovedEdge( vertices[ source ], vertices[ target ], weights[ slot ] ) );
+
+		unregister( e );
+		edges[ slot ] = null;
+		freeEdgeSlots.push( slot );
+		edgeCount--;
+		modCount++;
+		compactIfNeeded();
+		return true;
+	}
+
+	@Override
+	public boolean removeVertex( final V v )
+	{
+		final int slot = vertexTable.get( v );
+		if ( slot < 0 ) { return false; }
+
+		while ( degrees[ slot ] > 0 )
+		{
+			removeEdge( edges[ anyEdge( slot ) ] );
+		}
+		vertexTable.remove( v );
+		vertices[ slot ] = null;
+		overflows[ slot ] = null;
+		freeVertexSlots.push( slot );
+		vertexCount--;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public Set< V > vertexSet()
+	{
+		return vertexSet;
+	}
+
+	@Override
+	public V getEdgeSource( final DefaultWeightedEdge e )
+	{
+		final int slot = edgeSlot( e );
+		if ( slot >= 0 ) { return vertex( sources[ slot ] ); }
+		final RemovedEdge removed = removedEdges.get( e );
+		return null == removed ? null : this.< V >cast( removed.source );
+	}
+
+	@Override
+	public V getEdgeTarget( final DefaultWeightedEdge e )
+	{
+		final int slot = edgeSlot( e );
+		if ( slot >= 0 ) { return vertex( targets[ slot ] ); }
+		final RemovedEdge removed = removedEdges.get( e );
+		return null == removed ? null : this.< V >cast( removed.target );
+	}
+
+	@Override
+	public double getEdgeWeight( final DefaultWeightedEdge e )
+	{
+		final int slot = edgeSlot( e );
+		if ( slot >= 0 ) { return weights[ slot ]; }
+		final RemovedEdge removed = removedEdges.get( e );
+		return null == removed ? WeightedGraph.DEFAULT_EDGE_WEIGHT : removed.weight;
+	}
+
+	@Override
+	public void setEdgeWeight( final DefaultWeightedEdge e, final double weight )
+	{
+		final int slot = edgeSlot( e );
+		if ( slot < 0 ) { throw new IllegalArgumentException( "no such edge in graph" ); }
+		weights[ slot ] = weight;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	@SuppressWarnings( "unchecked" )
+	private < T > T cast( final Object o )
+	{
+		return ( T ) o;
+	}
+
+	private V vertex( final int slot )
+	{
+		return cast( vertices[ slot ] );
+	}
+
+	private int edgeSlot( final Object e )
+	{
+		if ( e instanceof CompactEdge )
+		{
+			final CompactEdge ce = ( CompactEdge ) e;
+			if ( ce.owner == this ) { return ce.slot; }
+		}
+		return edgeTable.get( e );
+	}
+
+	private void register( final DefaultWeightedEdge e, final int slot )
+	{
+		if ( e instanceof CompactEdge && ( ( CompactEdge ) e ).owner == this )
+		{
+			( ( CompactEdge ) e ).slot = slot;
+		}
+		else
+		{
+			edgeTable.put( e, slot );
+		}
+	}
+
+	private void unregister( final DefaultWeightedEdge e )
+	{
+		if ( e instanceof CompactEdge && ( ( CompactEdge ) e ).owner == this )
+		{
+			( ( CompactEdge ) e ).slot = -1;
+		}
+		else
+		{
+			edgeTable.remove( e );
+		}
+	}
+
+	private int newVertexSlot()
+	{
+		if ( !freeVertexSlots.isEmpty() ) { return freeVertexSlots.pop(); }
+		if ( vertexSlots == vertices.length )
+		{
+			final int n = 2 * vertices.length;
+			vertices = copyOf( vertices, n );
+			degrees = copyOf( degrees, n );
+			final int[][] o = new int[ n ][];
+			System.arraycopy( overflows, 0, o, 0, vertexSlots );
+			overflows = o;
+			overflowSizes = copyOf( overflowSizes, n );
+		}
+		return vertexSlots++;
+	}
+
+	private int newEdgeSlot()
+	{
+		if ( !freeEdgeSlots.isEmpty() ) { return freeEdgeSlots.pop(); }
+		if ( edgeSlots == edges.length )
+		{
+			final int n = 2 * edges.length;
+			final DefaultWeightedEdge[] e = new DefaultWeightedEdge[ n ];
+			System.arraycopy( edges, 0, e, 0, edgeSlots );
+			edges = e;
+			sources = copyOf( sources, n );
+			targets = copyOf( targets, n );
+			final double[] w = new double[ n ];
+			System.arraycopy( weights, 0, w, 0, edgeSlots );
+			weights = w;
+		}
+		return edgeSlots++;
+	}
+
+	private void link( final int source, final int target, final DefaultWeightedEdge e, final double weight )
+	{
+		final int slot = newEdgeSlot();
+		edges[ slot ] = e;
+		sources[ slot ] = source;
+		targets[ slot ] = target;
+		weights[ slot ] = weight;
+		register( e, slot );
+		if ( !removedEdges.isEmpty() )
+		{
+			removedEdges.remove( e );
+		}
+
+		appendOverflow( source, slot );
+		appendOverflow( target, slot );
+		degrees[ source ]++;
+		degrees[ target ]++;
+		edgeCount++;
+		modCount++;
+		compactIfNeeded();
+	}
+
+	private void appendOverflow( final int v, final int edge )
+	{
+		int[] overflow = overflows[ v ];
+		final int size = overflowSizes[ v ];
+		if ( null == overflow )
+		{
+			overflow = new int[ 2 ];
+			overflows[ v ] = overflow;
+		}
+		else if ( size == overflow.length )
+		{
+			overflow = copyOf( overflow, 2 * size );
+			overflows[ v ] = overflow;
+		}
+		overflow[ size ] = edge;
+		overflowSizes[ v ] = size + 1;
+		pending++;
+	}
+
+	private void unlink( final int v, final int edge )
+	{
+		if ( v < csrVertices )
+		{
+			for ( int i = csrOffsets[ v ]; i < csrOffsets[ v + 1 ]; i++ )
+			{
+				if ( csrEdges[ i ] == edge )
+				{
+					csrEdges[ i ] = -1;
+					pending++;
+					return;
+				}
+			}
+		}
+		final int[] overflow = overflows[ v ];
+		final int size = overflowSizes[ v ];
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( overflow[ i ] == edge )
+			{
+				// Shift to keep the insertion order.
+				System.arraycopy( overflow, i + 1, overflow, i, size - i - 1 );
+				overflowSizes[ v ] = size - 1;
+				pending--;
+				return;
+			}
+		}
+	}
+
+	private void compactIfNeeded()
+	{
+		if ( pending > MIN_PENDING && pending > edgeCount / PENDING_RATIO )
+		{
+			compact();
+		}
+	}
+
+	/**
+	 * Returns the slot of the edge between the vertices with the specified
+	 * slots, or <code>-1</code> if there is none.
+	 */
+	private int findEdge( final int v, final int w )
+	{
+		if ( v == w ) { return -1; }
+		// Scan the vertex with the fewest edges.
+		final int a = degrees[ v ] <= degrees[ w ] ? v : w;
+		final int b = a == v ? w : v;
+		if ( a < csrVertices )
+		{
+			for ( int i = csrOffsets[ a ]; i < csrOffsets[ a + 1 ]; i++ )
+			{
+				final int e = csrEdges[ i ];
+				if ( e >= 0 && ( sources[ e ] == b || targets[ e ] == b ) ) { return e; }
+			}
+		}
+		final int[] overflow = overflows[ a ];
+		for ( int i = 0; i < overflowSizes[ a ]; i++ )
+		{
+			final int e = overflow[ i ];
+			if ( sources[ e ] == b || targets[ e ] == b ) { return e; }
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the slot of one edge of the vertex with the specified slot, or
+	 * <code>-1</code> if it has none.
+	 */
+	private int anyEdge( final int v )
+	{
+		if ( overflowSizes[ v ] > 0 ) { return overflows[ v ][ overflowSizes[ v ] - 1 ]; }
+		if ( v < csrVertices )
+		{
+			for ( int i = csrOffsets[ v ]; i < csrOffsets[ v + 1 ]; i++ )
+			{
+				if ( csrEdges[ i ] >= 0 ) { return csrEdges[ i ]; }
+			}
+		}
+		return -1;
+	}
+
+	private String edgeToString( final DefaultWeightedEdge e )
+	{
+		return "(" + getEdgeSource( e ) + " : " + getEdgeTarget( e ) + ")";
+	}
+
+	private static int[] copyOf( final int[] array, final int length )
+	{
+		final int[] copy = new int[ length ];
+		System.arraycopy( array, 0, copy, 0, Math.min( array.length, length ) );
+		return copy;
+	}
+
+	private static Object[] copyOf( final Object[] array, final int length )
+	{
+		final Object[] copy = new Object[ length ];
+		System.arraycopy( array, 0, copy, 0, Math.min( array.length, length ) );
+		return copy;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The edges created by this graph. They know their slot, so that they do
+	 * not have to be stored in the edge table.
+	 */
+	private static final class CompactEdge extends DefaultWeightedEdge
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private transient CompactWeightedGraph< ? > owner;
+
+		private int slot = -1;
+
+		private CompactEdge( final CompactWeightedGraph< ? > owner )
+		{
+			this.owner = owner;
+		}
+
+		@Override
+		public String toString()
+		{
+			return null == owner ? super.toString() : owner.edgeToString( this );
+		}
+	}
+
+	/**
+	 * What is remembered of a removed edge.
+	 */
+	private static final class RemovedEdge
+	{
+		private final Object source;
+
+		private final Object target;
+
+		private final double weight;
+
+		private RemovedEdge( final Object source, final Object target, final double weight )
+		{
+			this.source = source;
+			this.target = target;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Maps objects to slots, with open addressing and linear probing. Keys are
+	 * compared by identity or by equality.
+	 */
+	private static final class SlotTable
+	{
+
+		private final boolean identity;
+
+		private Object[] keys = new Object[ INITIAL_CAPACITY ];
+
+		private int[] values = new int[ INITIAL_CAPACITY ];
+
+		private int size;
+
+		private SlotTable( final boolean identity )
+		{
+			this.identity = identity;
+		}
+
+		private int index( final Object key, final int mask )
+		{
+			final int h = ( identity ? System.identityHashCode( key ) : key.hashCode() ) * 0x9E3779B9;
+			return ( h ^ ( h >>> 16 ) ) & mask;
+		}
+
+		private boolean matches( final Object a, final Object b )
+		{
+			return a == b || ( !identity && a.equals( b ) );
+		}
+
+		private int get( final Object key )
+		{
+			if ( null == key || size == 0 ) { return -1; }
+			final int mask = keys.length - 1;
+			for ( int i = index( key, mask ); null != keys[ i ]; i = ( i + 1 ) & mask )
+			{
+				if ( matches( key, keys[ i ] ) ) { return values[ i ]; }
+			}
+			return -1;
+		}
+
+		private void put( final Object key, final int value )
+		{
+			if ( 2 * ( size + 1 ) > keys.length )
+			{
+				final Object[] oldKeys = keys;
+				final int[] oldValues = values;
+				keys = new Object[ 2 * oldKeys.length ];
+				values = new int[ 2 * oldKeys.length ];
+				size = 0;
+				for ( int i = 0; i < oldKeys.length; i++ )
+				{
+					if ( null != oldKeys[ i ] )
+					{
+						put( oldKeys[ i ], oldValues[ i ] );
+					}
+				}
+			}
+			final int mask = keys.length - 1;
+			int i = index( key, mask );
+			while ( null != keys[ i ] )
+			{
+				if ( matches( key, keys[ i ] ) )
+				{
+					values[ i ] = value;
+					return;
+				}
+				i = ( i + 1 ) & mask;
+			}
+			keys[ i ] = key;
+			values[ i ] = value;
+			size++;
+		}
+
+		private void remove( final Object key )
+		{
+			if ( null == key || size == 0 ) { return; }
+			final int mask = keys.length - 1;
+			int i = index( key, mask );
+			while ( !matches( key, keys[ i ] ) )
+			{
+				if ( null == keys[ i ] ) { return; }
+				i = ( i + 1 ) & mask;
+			}
+			keys[ i ] = null;
+			size--;
+
+			// Shift back the following entries of the cluster.
+			for ( int j = ( i + 1 ) & mask; null != keys[ j ]; j = ( j + 1 ) & mask )
+			{
+				final int h = index( keys[ j ], mask );
+				final boolean stays = i <= j ? ( i < h && h <= j ) : ( i < h || h <= j );
+				if ( !stays )
+				{
+					keys[ i ] = keys[ j ];
+					values[ i ] = values[ j ];
+					keys[ j ] = null;
+					i = j;
+				}
+			}
+		}
+	}
+
+	private static final class IntStack
+	{
+
+		private int[] elements = new int[ INITIAL_CAPACITY ];
+
+		private int size;
+
+		private boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		private void push( final int element )
+		{
+			if ( size == elements.length )
+			{
+				elements = copyOf( elements, 2 * size );
+			}
+			elements[ size++ ] = element;
+		}
+
+		private int pop()
+		{
+			return elements[ --size ];
+		}
+	}
+
+	/**
+	 * Iterates over the non-empty slots of a column, failing fast on
+	 * modification.
+	 */
+	private abstract class SlotIterator< T > implements Iterator< T >
+	{
+
+		private final int expectedModCount = modCount;
+
+		private final int slots;
+
+		private int next = -1;
+
+		private SlotIterator( final int slots )
+		{
+			this.slots = slots;
+			advance();
+		}
+
+		protected abstract Object get( int slot );
+
+		private void advance()
+		{
+			do
+			{
+				next++;
+			}
+			while ( next < slots && null == get( next ) );
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < slots;
+		}
+
+		@Override
+		public T next()
+		{
+			if ( modCount != expectedModCount ) { throw new ConcurrentModificationException(); }
+			if ( next >= slots ) { throw new NoSuchElementException(); }
+			final T element = cast( get( next ) );
+			advance();
+			return element;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final class VertexSet extends AbstractSet< V >
+	{
+		@Override
+		public Iterator< V > iterator()
+		{
+			return new SlotIterator< V >( vertexSlots )
+			{
+				@Override
+				protected Object get( final int slot )
+				{
+					return vertices[ slot ];
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return vertexCount;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return vertexTable.get( o ) >= 0;
+		}
+	}
+
+	private final class EdgeSet extends AbstractSet< DefaultWeightedEdge >
+	{
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new SlotIterator< DefaultWeightedEdge >( edgeSlots )
+			{
+				@Override
+				protected Object get( final int slot )
+				{
+					return edges[ slot ];
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return edgeCount;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return edgeSlot( o ) >= 0;
+		}
+	}
+
+	/**
+	 * The edges of one vertex: its CSR range, then its overflow list.
+	 */
+	private final class EdgesOf extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		private final int vertex;
+
+		private EdgesOf( final int vertex )
+		{
+			this.vertex = vertex;
+		}
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new Iterator< DefaultWeightedEdge >()
+			{
+
+				private final int expectedModCount = modCount;
+
+				private int csrPosition = vertex < csrVertices ? csrOffsets[ vertex ] : 0;
+
+				private final int csrEnd = vertex < csrVertices ? csrOffsets[ vertex + 1 ] : 0;
+
+				private int overflowPosition = 0;
+
+				private int next = advance();
+
+				private int advance()
+				{
+					while ( csrPosition < csrEnd )
+					{
+						final int e = csrEdges[ csrPosition++ ];
+						if ( e >= 0 ) { return e; }
+					}
+					if ( overflowPosition < overflowSizes[ vertex ] ) { return overflows[ vertex ][ overflowPosition++ ]; }
+					return -1;
+				}
+
+				@Override
+				public boolean hasNext()
+				{
+					return next >= 0;
+				}
+
+				@Override
+				public DefaultWeightedEdge next()
+				{
+					if ( modCount != expectedModCount ) { throw new ConcurrentModificationException(); }
+					if ( next < 0 ) { throw new NoSuchElementException(); }
+					final DefaultWeightedEdge edge = edges[ next ];
+					next = advance();
+					return edge;
+				}
+
+				@Override
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return degrees[ vertex ];
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			final int e = edgeSlot( o );
+			return e >= 0 && ( sources[ e ] == vertex || targets[ e ] == vertex );
+		}
+	}
+}
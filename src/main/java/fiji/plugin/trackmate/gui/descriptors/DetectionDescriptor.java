@@ -119,6 +119,7 @@ public class DetectionDescriptor implements WizardPanelDescriptor
 		final Thread thread = motherThread;
 		if ( thread != null )
 		{
+			trackmate.cancel();
 			thread.interrupt();
 			try
 			{
@@ -154,6 +155,7 @@ public class DetectionDescriptor implements WizardPanelDescriptor
 			final Thread thread = motherThread;
 			if ( thread != null )
 			{
+				trackmate.cancel();
 				thread.interrupt();
 				try
 				{
@@ -4,6 +4,7 @@ import static fiji.plugin.trackmate.gui.TrackMateWizard.BIG_FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureFilterIndex;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
 import fiji.plugin.trackmate.gui.panels.ActionListenablePanel;
 import fiji.plugin.trackmate.gui.panels.FilterPanel;
@@ -93,6 +94,12 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 	 */
 	private final Map< String, double[] > featureValues;
 
+	/**
+	 * The index used to count the objects passing the filters, rebuilt when
+	 * the feature values are refreshed.
+	 */
+	private FeatureFilterIndex filterIndex;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -174,6 +181,25 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 				throw new IllegalArgumentException( "Don't know what to do with category: " + category );
 			}
 		}
+
+		int nobjects = 0;
+		for ( final double[] values : featureValues.values() )
+		{ // bulletproof against unspecified features, which are signaled by
+			// empty arrays
+			if ( values.length > 0 )
+			{
+				nobjects = values.length;
+				break;
+			}
+		}
+		filterIndex = new FeatureFilterIndex( nobjects )
+		{
+			@Override
+			protected double[] collect( final String feature )
+			{
+				return featureValues.get( feature );
+			}
+		};
 	}
 
 	/**
@@ -359,19 +385,8 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 
 	private void updateInfoText()
 	{
-		String info = "";
-		int nobjects = 0;
-
-		for ( final double[] values : featureValues.values() )
-		{ // bulletproof against unspecified features, which are signaled by
-			// empty arrays
-			if ( values.length > 0 )
-			{
-				nobjects = values.length;
-				break;
-			}
-		}
-
+		final String info;
+		final int nobjects = filterIndex.size();
 		if ( nobjects == 0 )
 		{
 			info = "No objects.";
@@ -382,39 +397,8 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 		}
 		else
 		{
-			int nselected = 0;
-			double val;
-			for ( int i = 0; i < nobjects; i++ )
-			{
-				boolean ok = true;
-				for ( final FeatureFilter filter : featureFilters )
-				{
-					final double[] values = featureValues.get( filter.feature );
-					if ( i >= values.length || values.length == 0 )
-					{ // bulletproof
-						continue;
-					}
-					val = values[ i ];
-					if ( filter.isAbove )
-					{
-						if ( val < filter.value )
-						{
-							ok = false;
-							break;
-						}
-					}
-					else
-					{
-						if ( val > filter.value )
-						{
-							ok = false;
-							break;
-						}
-					}
-				}
-				if ( ok )
-					nselected++;
-			}
+			filterIndex.update( featureFilters );
+			final int nselected = filterIndex.getNVisible();
 			info = "Keep " + nselected + " " + categories.get( 0 ) + " out of  " + nobjects + ".";
 		}
 		jLabelInfo.setText( info );
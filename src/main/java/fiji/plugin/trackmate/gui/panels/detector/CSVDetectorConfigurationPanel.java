@@ -7,6 +7,10 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_YCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ZCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ACOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ICOLUMN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FILE_PATTERN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FRAME_COLUMN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_FILE_PATTERN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_FRAME_COLUMN;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.BIG_FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
@@ -82,6 +86,14 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 
 	protected JTextField jTextFieldIcolumn;
 
+	protected JLabel jLabelFilePattern;
+
+	protected JTextField jTextFieldFilePattern;
+
+	protected JLabel jLabelFrameColumn;
+
+	protected JTextField jTextFieldFrameColumn;
+
 	/** The HTML text that will be displayed as a help. */
 	protected JLabel lblSegmentInChannel;
 
@@ -150,6 +162,8 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 		final int zcolumn = NumberParser.parseInteger( jTextFieldZcolumn.getText() );
 		final int acolumn = NumberParser.parseInteger( jTextFieldAcolumn.getText() );
 		final int icolumn = NumberParser.parseInteger( jTextFieldIcolumn.getText() );
+		final String filePattern = jTextFieldFilePattern.getText().trim();
+		final int frameColumn = NumberParser.parseInteger( jTextFieldFrameColumn.getText() );
                 final String folder = infoFolder.getText();
 		settings.put( KEY_TARGET_CHANNEL, targetChannel );
 		settings.put( KEY_XCOLUMN, xcolumn );
@@ -158,6 +172,8 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 		settings.put( KEY_ACOLUMN, acolumn );
 		settings.put( KEY_ICOLUMN, icolumn );
                 settings.put( KEY_FOLDER, folder );
+		settings.put( KEY_FILE_PATTERN, filePattern );
+		settings.put( KEY_FRAME_COLUMN, frameColumn );
 		return settings;
 	}
 
@@ -171,6 +187,11 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 		jTextFieldAcolumn.setText( "" + settings.get( KEY_ACOLUMN ) );
 		jTextFieldIcolumn.setText( "" + settings.get( KEY_ICOLUMN ) );
                 infoFolder.setText( "" + settings.get( KEY_FOLDER ));
+		// Absent from settings saved before they were introduced.
+		final Object filePattern = settings.get( KEY_FILE_PATTERN );
+		jTextFieldFilePattern.setText( null == filePattern ? DEFAULT_FILE_PATTERN : "" + filePattern );
+		final Object frameColumn = settings.get( KEY_FRAME_COLUMN );
+		jTextFieldFrameColumn.setText( "" + ( null == frameColumn ? DEFAULT_FRAME_COLUMN : frameColumn ) );
 	}
 
 	/**
@@ -195,7 +216,7 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 	{
 		try
 		{
-			this.setPreferredSize( new java.awt.Dimension( 300, 461 ) );
+			this.setPreferredSize( new java.awt.Dimension( 300, 521 ) );
 			layout = new SpringLayout();
 			setLayout( layout );
 			{
@@ -326,10 +347,49 @@ public class CSVDetectorConfigurationPanel extends ConfigurationPanel
 				this.add( jTextFieldIcolumn );
 				jTextFieldIcolumn.setFont( FONT );
 			}
+/* File name pattern */
+			{
+				jLabelFilePattern = new JLabel();
+				layout.putConstraint( SpringLayout.NORTH, jLabelFilePattern, 10, SpringLayout.SOUTH, jLabelIcolumn );
+				layout.putConstraint( SpringLayout.WEST, jLabelFilePattern, 16, SpringLayout.WEST, this );
+				this.add( jLabelFilePattern );
+				jLabelFilePattern.setText( "File name:" );
+				jLabelFilePattern.setToolTipText( "<html>One file per frame: a pattern such as frame_%03d.csv, <br>or empty for frame_N.csv. With a frame column: the single file.</html>" );
+				jLabelFilePattern.setFont( FONT );
+			}
+			{
+				jTextFieldFilePattern = new JTextField();
+				layout.putConstraint( SpringLayout.NORTH, jTextFieldFilePattern, 10, SpringLayout.SOUTH, jTextFieldIcolumn );
+				layout.putConstraint( SpringLayout.WEST, jTextFieldFilePattern, 16, SpringLayout.EAST, jLabelFilePattern );
+				jTextFieldFilePattern.setColumns( 12 );
+				jTextFieldFilePattern.setText( DEFAULT_FILE_PATTERN );
+				this.add( jTextFieldFilePattern );
+				jTextFieldFilePattern.setFont( FONT );
+			}
+/* Frame column */
+			{
+				jLabelFrameColumn = new JLabel();
+				layout.putConstraint( SpringLayout.NORTH, jLabelFrameColumn, 10, SpringLayout.SOUTH, jLabelFilePattern );
+				layout.putConstraint( SpringLayout.WEST, jLabelFrameColumn, 16, SpringLayout.WEST, this );
+				this.add( jLabelFrameColumn );
+				jLabelFrameColumn.setText( "Frame column:" );
+				jLabelFrameColumn.setToolTipText( "<html>The column of the frame in a single file, <br>or -1 for one file per frame.</html>" );
+				jLabelFrameColumn.setFont( FONT );
+			}
+			{
+				jTextFieldFrameColumn = new JNumericTextField();
+				layout.putConstraint( SpringLayout.NORTH, jTextFieldFrameColumn, 10, SpringLayout.SOUTH, jTextFieldFilePattern );
+				layout.putConstraint( SpringLayout.WEST, jTextFieldFrameColumn, 16, SpringLayout.EAST, jLabelFrameColumn );
+				jTextFieldFrameColumn.setHorizontalAlignment( SwingConstants.CENTER );
+				jTextFieldFrameColumn.setColumns( 5 );
+				jTextFieldFrameColumn.setText( "" + DEFAULT_FRAME_COLUMN );
+				this.add( jTextFieldFrameColumn );
+				jTextFieldFrameColumn.setFont( FONT );
+			}
 /* Folder */
 			{
 				infoFolder = new JTextField();
-				layout.putConstraint( SpringLayout.NORTH, infoFolder, 10, SpringLayout.SOUTH, jLabelIcolumn );
+				layout.putConstraint( SpringLayout.NORTH, infoFolder, 10, SpringLayout.SOUTH, jLabelFrameColumn );
 				layout.putConstraint( SpringLayout.WEST, infoFolder, 16, SpringLayout.WEST, this );
 				layout.putConstraint( SpringLayout.EAST, infoFolder, 241, SpringLayout.WEST, this );
 				this.add( infoFolder );
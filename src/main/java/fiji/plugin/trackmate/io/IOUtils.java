@@ -12,6 +12,9 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ZCOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ACOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_ICOLUMN;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FOLDER;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FILE_PATTERN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_FRAME_COLUMN;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_CONVOLUTION_METHOD;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.TRACKMATE_ICON;
 import fiji.plugin.trackmate.Logger;
 import fiji.util.NumberParser;
@@ -485,6 +488,22 @@ public class IOUtils {
 	{
 		return writeAttribute( settings, element, KEY_FOLDER, String.class, errorHolder );
 	}
+
+	public static final boolean writeFilePattern( final Map< String, Object > settings, final Element element, final StringBuilder errorHolder )
+	{
+		return writeAttribute( settings, element, KEY_FILE_PATTERN, String.class, errorHolder );
+	}
+
+	public static final boolean writeFrameColumn( final Map< String, Object > settings, final Element element, final StringBuilder errorHolder )
+	{
+		return writeAttribute( settings, element, KEY_FRAME_COLUMN, Integer.class, errorHolder );
+	}
+
+	public static final boolean writeConvolutionMethod( final Map< String, Object > settings, final Element element, final StringBuilder errorHolder )
+	{
+		return writeAttribute( settings, element, KEY_CONVOLUTION_METHOD, String.class, errorHolder );
+	}
+
 	/**
 	 * Add a parameter attribute to the given element, taken from the given
 	 * settings map. Basic checks are made to ensure that the parameter value
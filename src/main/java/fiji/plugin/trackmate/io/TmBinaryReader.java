@@ -0,0 +1,547 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryWriter.HEADER_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.MISSING_BITS;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.UTF8;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.VERSION;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgrapht.alg.ConnectivityInspector;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+/**
+ * A reader for the TrackMate binary file format written by the
+ * {@link TmBinaryWriter}.
+ * <p>
+ * The settings, log and GUI state are read from the embedded XML document,
+ * like the {@link TmXmlReader} does. The spots and tracks of the model are
+ * read from memory-mapped binary blocks: feature values are copied in bulk
+ * from the file, without parsing.
+ * <p>
+ * The model can be partially loaded, by restricting the frames and the spot
+ * features to load before calling {@link #getModel()}. Edges that link a spot
+ * outside the loaded frames are not loaded, and a track cut this way is split
+ * into its connected components. The first component keeps the track ID and
+ * name, the others get new ones. The features of a cut track are not loaded,
+ * since they are not valid anymore.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class TmBinaryReader extends TmXmlReader
+{
+
+	/**
+	 * The size of the windows mapped in memory when reading blocks, in bytes.
+	 */
+	private static final long WINDOW_SIZE = 1l << 28;
+
+	private int minFrame = Integer.MIN_VALUE;
+
+	private int maxFrame = Integer.MAX_VALUE;
+
+	private Collection< String > spotFeatures = null;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Initialize this reader to read the binary file given in argument.
+	 */
+	public TmBinaryReader( final File file )
+	{
+		super( file );
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if the specified file starts like a TrackMate
+	 * binary file.
+	 *
+	 * @param file
+	 *            the file to test.
+	 * @return <code>true</code> if the file can be read by this reader.
+	 */
+	public static boolean isBinaryFile( final File file )
+	{
+		try
+		{
+			final FileInputStream is = new FileInputStream( file );
+			try
+			{
+				final byte[] bytes = new byte[ 4 ];
+				int n = 0;
+				while ( n < bytes.length )
+				{
+					final int read = is.read( bytes, n, bytes.length - n );
+					if ( read < 0 ) { return false; }
+					n += read;
+				}
+				return ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).getInt() == MAGIC;
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Restricts the spots loaded by {@link #getModel()} to the specified
+	 * frames.
+	 *
+	 * @param minFrame
+	 *            the first frame to load, inclusive.
+	 * @param maxFrame
+	 *            the last frame to load, inclusive.
+	 */
+	public void setFrameInterval( final int minFrame, final int maxFrame )
+	{
+		this.minFrame = minFrame;
+		this.maxFrame = maxFrame;
+	}
+
+	/**
+	 * Restricts the spot features loaded by {@link #getModel()} to the
+	 * specified ones. The features of {@link Spot#FEATURES}, that every spot
+	 * has, are always loaded.
+	 *
+	 * @param spotFeatures
+	 *            the spot features to load. If <code>null</code>, all the
+	 *            spot features are loaded.
+	 */
+	public void setSpotFeatures( final Collection< String > spotFeatures )
+	{
+		this.spotFeatures = spotFeatures;
+	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Returns a stream over the XML document embedded in the binary file.
+	 */
+	@Override
+	protected InputStream openDocument() throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try
+		{
+			final MappedFile in = new MappedFile( raf.getChannel() );
+			final ByteBuffer header = readHeader( in );
+			final long xmlOffset = header.getLong( 8 );
+			final long xmlLength = header.getLong( 16 );
+			final byte[] bytes = new byte[ toInt( xmlLength ) ];
+			in.get( xmlOffset, xmlLength ).get( bytes );
+			return new ByteArrayInputStream( bytes );
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the spots and tracks from the memory-mapped binary blocks.
+	 */
+	@Override
+	protected void readModelContent( final Model model ) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try
+		{
+			final MappedFile in = new MappedFile( raf.getChannel() );
+			final ByteBuffer header = readHeader( in );
+
+			final ByteBuffer spotTable = in.get( header.getLong( 24 ), header.getLong( 32 ) );
+			model.setSpots( readSpots( in, spotTable ), false );
+
+			final ByteBuffer trackTable = in.get( header.getLong( 40 ), header.getLong( 48 ) );
+			readTracks( in, trackTable, model );
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private ByteBuffer readHeader( final MappedFile in ) throws IOException
+	{
+		if ( in.size() < HEADER_SIZE ) { throw new IOException( file.getName() + " is not a TrackMate binary file." ); }
+		final ByteBuffer header = in.get( 0, HEADER_SIZE );
+		if ( header.getInt( 0 ) != MAGIC ) { throw new IOException( file.getName() + " is not a TrackMate binary file." ); }
+		final int version = header.getInt( 4 );
+		if ( version > VERSION ) { throw new IOException( "Unsupported TrackMate binary file version: " + version + "." ); }
+		return header;
+	}
+
+	/**
+	 * Reads the frame blocks listed in the specified spot table, and builds
+	 * the spot cache.
+	 */
+	private SpotCollection readSpots( final MappedFile in, final ByteBuffer table ) throws IOException
+	{
+		// Columns, and the slots they are loaded in. -1 if not loaded.
+		final int nColumns = table.getInt();
+		final int[] slots = new int[ nColumns ];
+		for ( int c = 0; c < nColumns; c++ )
+		{
+			final String feature = readString( table );
+			final boolean load = null == spotFeatures || spotFeatures.contains( feature ) || Spot.FEATURES.contains( feature );
+			slots[ c ] = load ? Spot.featureIndex( feature ) : -1;
+		}
+
+		final int nFrames = table.getInt();
+		final int[] frames = new int[ nFrames ];
+		final int[] nSpots = new int[ nFrames ];
+		final long[] offsets = new long[ nFrames ];
+		final long[] lengths = new long[ nFrames ];
+		int nTotal = 0;
+		for ( int f = 0; f < nFrames; f++ )
+		{
+			frames[ f ] = table.getInt();
+			nSpots[ f ] = table.getInt();
+			offsets[ f ] = table.getLong();
+			lengths[ f ] = table.getLong();
+			if ( frames[ f ] >= minFrame && frames[ f ] <= maxFrame )
+			{
+				nTotal += nSpots[ f ];
+			}
+		}
+
+		cache = new ConcurrentHashMap< Integer, Spot >( nTotal );
+		final Map< Integer, Set< Spot >> content = new HashMap< Integer, Set< Spot >>( nFrames );
+		int[] ids = new int[ 0 ];
+		long[] bits = new long[ 0 ];
+		for ( int f = 0; f < nFrames; f++ )
+		{
+			if ( frames[ f ] < minFrame || frames[ f ] > maxFrame )
+			{
+				continue;
+			}
+
+			final int n = nSpots[ f ];
+			if ( ids.length < n )
+			{
+				ids = new int[ n ];
+				bits = new long[ n ];
+			}
+
+			final ByteBuffer block = in.get( offsets[ f ], lengths[ f ] );
+			block.asIntBuffer().get( ids, 0, n );
+			final Spot[] spots = new Spot[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				spots[ i ] = new Spot( ids[ i ] );
+			}
+
+			for ( int c = 0; c < nColumns; c++ )
+			{
+				final int slot = slots[ c ];
+				if ( slot < 0 )
+				{
+					continue;
+				}
+				block.position( 4 * n + 8 * n * c );
+				block.asLongBuffer().get( bits, 0, n );
+				for ( int i = 0; i < n; i++ )
+				{
+					if ( bits[ i ] != MISSING_BITS )
+					{
+						spots[ i ].putFeature( slot, Double.longBitsToDouble( bits[ i ] ) );
+					}
+				}
+			}
+
+			block.position( 4 * n + 8 * n * nColumns );
+			final Set< Spot > spotSet = new HashSet< Spot >( n );
+			for ( int i = 0; i < n; i++ )
+			{
+				final Spot spot = spots[ i ];
+				final String name = readString( block );
+				spot.setName( null == name ? "ID" + spot.ID() : name );
+				spotSet.add( spot );
+				cache.put( spot.ID(), spot );
+			}
+			content.put( frames[ f ], spotSet );
+		}
+		return SpotCollection.fromMap( content );
+	}
+
+	/**
+	 * Reads the track blocks listed in the specified track table into the
+	 * specified model.
+	 */
+	private void readTracks( final MappedFile in, final ByteBuffer table, final Model model ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final boolean partial = minFrame != Integer.MIN_VALUE || maxFrame != Integer.MAX_VALUE;
+
+		final String[] trackFeatures = new String[ table.getInt() ];
+		for ( int i = 0; i < trackFeatures.length; i++ )
+		{
+			trackFeatures[ i ] = readString( table );
+		}
+		final String[] edgeFeatures = new String[ table.getInt() ];
+		for ( int i = 0; i < edgeFeatures.length; i++ )
+		{
+			edgeFeatures[ i ] = readString( table );
+		}
+
+		final int nTracks = table.getInt();
+		final long[] offsets = new long[ nTracks ];
+		final long[] lengths = new long[ nTracks ];
+		int nextID = 0;
+		for ( int t = 0; t < nTracks; t++ )
+		{
+			nextID = Math.max( nextID, table.getInt() + 1 );
+			offsets[ t ] = table.getLong();
+			lengths[ t ] = table.getLong();
+		}
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final Map< Integer, Set< Spot >> trackSpots = new HashMap< Integer, Set< Spot >>( nTracks );
+		final Map< Integer, Set< DefaultWeightedEdge >> trackEdges = new HashMap< Integer, Set< DefaultWeightedEdge >>( nTracks );
+		final Map< Integer, Boolean > trackVisibility = new HashMap< Integer, Boolean >( nTracks );
+		final Map< Integer, String > trackNames = new HashMap< Integer, String >( nTracks );
+
+		final long[] trackValues = new long[ trackFeatures.length ];
+		int[] sources = new int[ 0 ];
+		int[] targets = new int[ 0 ];
+		long[] values = new long[ 0 ];
+		DefaultWeightedEdge[] edges = new DefaultWeightedEdge[ 0 ];
+		for ( int t = 0; t < nTracks; t++ )
+		{
+			final ByteBuffer block = in.get( offsets[ t ], lengths[ t ] );
+			final int trackID = block.getInt();
+			final boolean visible = block.get() != 0;
+			final String name = readString( block );
+			block.asLongBuffer().get( trackValues );
+			block.position( block.position() + 8 * trackValues.length );
+
+			final int nEdges = block.getInt();
+			if ( sources.length < nEdges )
+			{
+				sources = new int[ nEdges ];
+				targets = new int[ nEdges ];
+				values = new long[ nEdges ];
+				edges = new DefaultWeightedEdge[ nEdges ];
+			}
+			block.asIntBuffer().get( sources, 0, nEdges );
+			block.position( block.position() + 4 * nEdges );
+			block.asIntBuffer().get( targets, 0, nEdges );
+			block.position( block.position() + 4 * nEdges );
+			block.asLongBuffer().get( values, 0, nEdges );
+			block.position( block.position() + 8 * nEdges );
+
+			// Edges.
+			final Set< Spot > spots = new HashSet< Spot >();
+			final Set< DefaultWeightedEdge > edgeSet = new HashSet< DefaultWeightedEdge >( nEdges );
+			boolean cut = false;
+			for ( int e = 0; e < nEdges; e++ )
+			{
+				edges[ e ] = null;
+				final Spot source = cache.get( sources[ e ] );
+				final Spot target = cache.get( targets[ e ] );
+				if ( null == source || null == target )
+				{
+					if ( !partial )
+					{
+						logger.error( "Unknown spot ID: " + ( null == source ? sources[ e ] : targets[ e ] ) + "\n" );
+						ok = false;
+					}
+					cut = true;
+					continue;
+				}
+				graph.addVertex( source );
+				graph.addVertex( target );
+				final DefaultWeightedEdge edge = graph.addEdge( source, target );
+				if ( null == edge )
+				{
+					logger.error( "Bad edge found for track " + trackID + "\n" );
+					ok = false;
+					continue;
+				}
+				graph.setEdgeWeight( edge, Double.longBitsToDouble( values[ e ] ) );
+				edges[ e ] = edge;
+				edgeSet.add( edge );
+				spots.add( source );
+				spots.add( target );
+			}
+
+			// Edge features.
+			for ( int c = 0; c < edgeFeatures.length; c++ )
+			{
+				block.asLongBuffer().get( values, 0, nEdges );
+				block.position( block.position() + 8 * nEdges );
+				for ( int e = 0; e < nEdges; e++ )
+				{
+					if ( null != edges[ e ] && values[ e ] != MISSING_BITS )
+					{
+						fm.putEdgeFeature( edges[ e ], edgeFeatures[ c ], Double.longBitsToDouble( values[ e ] ) );
+					}
+				}
+			}
+
+			if ( edgeSet.isEmpty() )
+			{
+				continue;
+			}
+
+			if ( !cut )
+			{
+				trackSpots.put( trackID, spots );
+				trackEdges.put( trackID, edgeSet );
+				trackVisibility.put( trackID, Boolean.valueOf( visible ) );
+				trackNames.put( trackID, name );
+				for ( int c = 0; c < trackFeatures.length; c++ )
+				{
+					if ( trackValues[ c ] != MISSING_BITS )
+					{
+						fm.putTrackFeature( trackID, trackFeatures[ c ], Double.longBitsToDouble( trackValues[ c ] ) );
+					}
+				}
+				continue;
+			}
+
+			// Cut track: split it into its connected components.
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > subgraph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+			for ( final Spot spot : spots )
+			{
+				subgraph.addVertex( spot );
+			}
+			for ( final DefaultWeightedEdge edge : edgeSet )
+			{
+				subgraph.addEdge( graph.getEdgeSource( edge ), graph.getEdgeTarget( edge ) );
+			}
+			final List< Set< Spot >> components = new ConnectivityInspector< Spot, DefaultWeightedEdge >( subgraph ).connectedSets();
+			final Map< Spot, Integer > componentIDs = new HashMap< Spot, Integer >( spots.size() );
+			final List< Integer > ids = new ArrayList< Integer >( components.size() );
+			for ( int i = 0; i < components.size(); i++ )
+			{
+				final Integer id = i == 0 ? Integer.valueOf( trackID ) : Integer.valueOf( nextID++ );
+				ids.add( id );
+				for ( final Spot spot : components.get( i ) )
+				{
+					componentIDs.put( spot, id );
+				}
+				trackSpots.put( id, components.get( i ) );
+				trackEdges.put( id, new HashSet< DefaultWeightedEdge >() );
+				trackVisibility.put( id, Boolean.valueOf( visible ) );
+				trackNames.put( id, i == 0 ? name : "Track_" + id );
+			}
+			for ( final DefaultWeightedEdge edge : edgeSet )
+			{
+				trackEdges.get( componentIDs.get( graph.getEdgeSource( edge ) ) ).add( edge );
+			}
+		}
+
+		model.getTrackModel().from( graph, trackSpots, trackEdges, trackVisibility, trackNames );
+	}
+
+	/**
+	 * Reads a string, or returns <code>null</code> if its byte count is
+	 * negative.
+	 */
+	private static String readString( final ByteBuffer buffer )
+	{
+		final int length = buffer.getInt();
+		if ( length < 0 ) { return null; }
+		final byte[] bytes = new byte[ length ];
+		buffer.get( bytes );
+		return new String( bytes, UTF8 );
+	}
+
+	private static int toInt( final long length ) throws IOException
+	{
+		if ( length > Integer.MAX_VALUE ) { throw new IOException( "Block too large to be mapped: " + length + " bytes." ); }
+		return ( int ) length;
+	}
+
+	/**
+	 * Gives access to the blocks of a file through windows mapped in memory.
+	 * Blocks read in file order share the same window until they reach its
+	 * end.
+	 */
+	private static final class MappedFile
+	{
+		private final FileChannel channel;
+
+		private final long size;
+
+		private MappedByteBuffer window;
+
+		private long windowStart;
+
+		private long windowEnd;
+
+		private MappedFile( final FileChannel channel ) throws IOException
+		{
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		private long size()
+		{
+			return size;
+		}
+
+		/**
+		 * Returns a little-endian buffer over the specified block of the file.
+		 */
+		private ByteBuffer get( final long offset, final long length ) throws IOException
+		{
+			toInt( length );
+			if ( offset < 0 || offset + length > size ) { throw new IOException( "Block out of the file bounds: " + offset + " + " + length + " bytes." ); }
+			if ( null == window || offset < windowStart || offset + length > windowEnd )
+			{
+				final long mapLength = Math.min( size - offset, Math.max( length, WINDOW_SIZE ) );
+				window = channel.map( MapMode.READ_ONLY, offset, mapLength );
+				windowStart = offset;
+				windowEnd = offset + mapLength;
+			}
+			final ByteBuffer buffer = window.duplicate();
+			final int start = ( int ) ( offset - windowStart );
+			buffer.limit( start + ( int ) length );
+			buffer.position( start );
+			return buffer.slice().order( ByteOrder.LITTLE_ENDIAN );
+		}
+	}
+}
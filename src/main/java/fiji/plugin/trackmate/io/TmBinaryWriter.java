@@ -0,0 +1,465 @@
+package fiji.plugin.trackmate.io;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * A writer for the TrackMate binary file format.
+ * <p>
+ * The settings, log, GUI state and feature declarations are written as an
+ * embedded XML document, exactly as the {@link TmXmlWriter} does, but without
+ * the spots and tracks of the model. These are written as little-endian
+ * binary blocks that can be memory-mapped and loaded without parsing a single
+ * decimal string:
+ *
+ * <pre>
+ * header       int magic, int version,
+ *              long xml offset, long xml length,
+ *              long spot table offset, long spot table length,
+ *              long track table offset, long track table length.
+ * xml          the embedded XML document, UTF-8.
+ * frame blocks one per frame, for N spots:
+ *              int[N] spot IDs,
+ *              long[N] value bits, for each spot feature column,
+ *              N names.
+ * spot table   int number of columns, and their feature keys,
+ *              int number of frames, and for each frame:
+ *              int frame, int N, long block offset, long block length.
+ * track blocks one per track, for E edges:
+ *              int track ID, byte visibility, name,
+ *              long value bits, for each track feature column,
+ *              int E, int[E] source spot IDs, int[E] target spot IDs,
+ *              long[E] weight bits,
+ *              long[E] value bits, for each edge feature column.
+ * track table  int number of track feature columns, and their keys,
+ *              int number of edge feature columns, and their keys,
+ *              int number of tracks, and for each track:
+ *              int track ID, long block offset, long block length.
+ * </pre>
+ *
+ * Strings are written as an <code>int</code> byte count followed by their
+ * UTF-8 bytes. A spot name equal to the default name is written as a count of
+ * <code>-1</code>. A missing feature value is written as the
+ * {@link #MISSING_BITS} bit pattern.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class TmBinaryWriter extends TmXmlWriter
+{
+
+	/** The first four bytes of a TrackMate binary file. */
+	public static final int MAGIC = 0x424d4d54;
+
+	/** The version of the binary layout written by this writer. */
+	public static final int VERSION = 1;
+
+	/**
+	 * The bit pattern written in place of a missing feature value. It is a NaN
+	 * value that is never produced by arithmetic operations.
+	 */
+	public static final long MISSING_BITS = 0x7ff4dead0000beefL;
+
+	/** The size of the header, in bytes. */
+	static final int HEADER_SIZE = 64;
+
+	static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private Model model;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter( final File file )
+	{
+		super( file );
+	}
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter( final File file, final Logger logger )
+	{
+		super( file, logger );
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	@Override
+	public void appendModel( final Model model )
+	{
+		super.appendModel( model );
+		this.model = model;
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException
+	{
+		logger.log( "  Writing to file.\n" );
+
+		// Embedded XML, without the model content.
+		final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		final Writer xmlWriter = new OutputStreamWriter( xml, UTF8 );
+		write( xmlWriter );
+		xmlWriter.close();
+
+		final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try
+		{
+			raf.setLength( 0 );
+			final FileChannel channel = raf.getChannel();
+			final ChannelOutput out = new ChannelOutput( channel, HEADER_SIZE );
+
+			final long xmlOffset = out.position();
+			out.putBytes( xml.toByteArray() );
+			final long xmlLength = out.position() - xmlOffset;
+
+			long spotTableOffset = out.position();
+			long spotTableLength = 0;
+			long trackTableOffset = out.position();
+			long trackTableLength = 0;
+			if ( null != model )
+			{
+				spotTableOffset = writeSpots( out, model );
+				spotTableLength = out.position() - spotTableOffset;
+				trackTableOffset = writeTracks( out, model );
+				trackTableLength = out.position() - trackTableOffset;
+			}
+			out.flush();
+
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+			header.putInt( MAGIC );
+			header.putInt( VERSION );
+			header.putLong( xmlOffset );
+			header.putLong( xmlLength );
+			header.putLong( spotTableOffset );
+			header.putLong( spotTableLength );
+			header.putLong( trackTableOffset );
+			header.putLong( trackTableLength );
+			header.clear();
+			while ( header.hasRemaining() )
+			{
+				channel.write( header, header.position() );
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Does nothing: the model content is written in binary blocks after the
+	 * embedded XML document.
+	 */
+	@Override
+	protected void writeModelContent( final XMLStreamWriter writer, final Model model, final int depth )
+	{}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Writes the frame blocks then the spot table.
+	 *
+	 * @return the offset of the spot table.
+	 */
+	private long writeSpots( final ChannelOutput out, final Model model ) throws IOException
+	{
+		final SpotCollection spots = model.getSpots();
+
+		// Columns: the feature slots used by at least one spot.
+		final int nSlots = Spot.featureCount();
+		final boolean[] used = new boolean[ nSlots ];
+		for ( final Spot spot : spots.iterable( false ) )
+		{
+			for ( int i = 0; i < nSlots; i++ )
+			{
+				used[ i ] = used[ i ] || spot.hasFeature( i );
+			}
+		}
+		final List< Integer > columns = new ArrayList< Integer >( nSlots );
+		for ( int i = 0; i < nSlots; i++ )
+		{
+			if ( used[ i ] )
+			{
+				columns.add( Integer.valueOf( i ) );
+			}
+		}
+
+		final int nFrames = spots.keySet().size();
+		final int[] frames = new int[ nFrames ];
+		final int[] nSpots = new int[ nFrames ];
+		final long[] offsets = new long[ nFrames ];
+		final long[] lengths = new long[ nFrames ];
+		int f = 0;
+		for ( final Integer frame : spots.keySet() )
+		{
+			final List< Spot > frameSpots = new ArrayList< Spot >( spots.getNSpots( frame, false ) );
+			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
+			{
+				frameSpots.add( it.next() );
+			}
+
+			frames[ f ] = frame.intValue();
+			nSpots[ f ] = frameSpots.size();
+			offsets[ f ] = out.position();
+
+			for ( final Spot spot : frameSpots )
+			{
+				out.putInt( spot.ID() );
+			}
+			for ( final Integer column : columns )
+			{
+				final int slot = column.intValue();
+				for ( final Spot spot : frameSpots )
+				{
+					out.putLong( spot.hasFeature( slot ) ? Double.doubleToRawLongBits( spot.getFeature( slot ) ) : MISSING_BITS );
+				}
+			}
+			for ( final Spot spot : frameSpots )
+			{
+				final String name = spot.getName();
+				if ( null == name || name.equals( "ID" + spot.ID() ) )
+				{
+					out.putInt( -1 );
+				}
+				else
+				{
+					out.putString( name );
+				}
+			}
+
+			lengths[ f ] = out.position() - offsets[ f ];
+			f++;
+		}
+
+		final long tableOffset = out.position();
+		out.putInt( columns.size() );
+		for ( final Integer column : columns )
+		{
+			out.putString( Spot.featureKey( column.intValue() ) );
+		}
+		out.putInt( nFrames );
+		for ( int i = 0; i < nFrames; i++ )
+		{
+			out.putInt( frames[ i ] );
+			out.putInt( nSpots[ i ] );
+			out.putLong( offsets[ i ] );
+			out.putLong( lengths[ i ] );
+		}
+		logger.log( "  Added " + spots.getNSpots( false ) + " spots.\n" );
+		return tableOffset;
+	}
+
+	/**
+	 * Writes the track blocks then the track table.
+	 *
+	 * @return the offset of the track table.
+	 */
+	private long writeTracks( final ChannelOutput out, final Model model ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel trackModel = model.getTrackModel();
+		final List< String > trackFeatures = new ArrayList< String >( fm.getTrackFeatures() );
+		final List< String > edgeFeatures = new ArrayList< String >( fm.getEdgeFeatures() );
+
+		final Set< Integer > trackIDs = trackModel.trackIDs( false );
+		final List< Integer > written = new ArrayList< Integer >( trackIDs.size() );
+		final long[] offsets = new long[ trackIDs.size() ];
+		final long[] lengths = new long[ trackIDs.size() ];
+		for ( final Integer trackID : trackIDs )
+		{
+			final Set< DefaultWeightedEdge > track = trackModel.trackEdges( trackID );
+			if ( track.size() == 0 )
+			{
+				// Same as for XML: tracks without edges are not written.
+				continue;
+			}
+
+			final int t = written.size();
+			written.add( trackID );
+			offsets[ t ] = out.position();
+
+			out.putInt( trackID.intValue() );
+			out.putByte( trackModel.isVisible( trackID ) ? ( byte ) 1 : ( byte ) 0 );
+			out.putString( trackModel.name( trackID ) );
+			for ( final String feature : trackFeatures )
+			{
+				final Double val = fm.getTrackFeature( trackID, feature );
+				out.putLong( null == val ? MISSING_BITS : Double.doubleToRawLongBits( val.doubleValue() ) );
+			}
+
+			final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( track );
+			out.putInt( edges.size() );
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				out.putInt( trackModel.getEdgeSource( edge ).ID() );
+			}
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				out.putInt( trackModel.getEdgeTarget( edge ).ID() );
+			}
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				out.putLong( Double.doubleToRawLongBits( trackModel.getEdgeWeight( edge ) ) );
+			}
+			for ( final String feature : edgeFeatures )
+			{
+				for ( final DefaultWeightedEdge edge : edges )
+				{
+					final Double val = fm.getEdgeFeature( edge, feature );
+					out.putLong( null == val ? MISSING_BITS : Double.doubleToRawLongBits( val.doubleValue() ) );
+				}
+			}
+
+			lengths[ t ] = out.position() - offsets[ t ];
+		}
+
+		final long tableOffset = out.position();
+		out.putInt( trackFeatures.size() );
+		for ( final String feature : trackFeatures )
+		{
+			out.putString( feature );
+		}
+		out.putInt( edgeFeatures.size() );
+		for ( final String feature : edgeFeatures )
+		{
+			out.putString( feature );
+		}
+		out.putInt( written.size() );
+		for ( int t = 0; t < written.size(); t++ )
+		{
+			out.putInt( written.get( t ).intValue() );
+			out.putLong( offsets[ t ] );
+			out.putLong( lengths[ t ] );
+		}
+		logger.log( "  Added tracks.\n" );
+		return tableOffset;
+	}
+
+	/**
+	 * Little-endian buffered output to a file channel, that keeps track of the
+	 * position in the file.
+	 */
+	private static final class ChannelOutput
+	{
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+		/** Position in the file of the first byte of the buffer. */
+		private long flushed;
+
+		private ChannelOutput( final FileChannel channel, final long start )
+		{
+			this.channel = channel;
+			this.flushed = start;
+		}
+
+		private long position()
+		{
+			return flushed + buffer.position();
+		}
+
+		private void putByte( final byte val ) throws IOException
+		{
+			ensure( 1 );
+			buffer.put( val );
+		}
+
+		private void putInt( final int val ) throws IOException
+		{
+			ensure( 4 );
+			buffer.putInt( val );
+		}
+
+		private void putLong( final long val ) throws IOException
+		{
+			ensure( 8 );
+			buffer.putLong( val );
+		}
+
+		private void putString( final String str ) throws IOException
+		{
+			final byte[] bytes = str.getBytes( UTF8 );
+			putInt( bytes.length );
+			putBytes( bytes );
+		}
+
+		private void putBytes( final byte[] bytes ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < bytes.length )
+			{
+				if ( !buffer.hasRemaining() )
+				{
+					flush();
+				}
+				final int n = Math.min( buffer.remaining(), bytes.length - offset );
+				buffer.put( bytes, offset, n );
+				offset += n;
+			}
+		}
+
+		private void ensure( final int n ) throws IOException
+		{
+			if ( buffer.remaining() < n )
+			{
+				flush();
+			}
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while ( buffer.hasRemaining() )
+			{
+				flushed += channel.write( buffer, flushed );
+			}
+			buffer.clear();
+		}
+	}
+}
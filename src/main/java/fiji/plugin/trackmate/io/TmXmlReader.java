@@ -102,8 +102,11 @@ import fiji.plugin.trackmate.visualization.ViewFactory;
 import ij.IJ;
 import ij.ImagePlus;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -114,14 +117,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.jdom2.Attribute;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jdom2.DataConversionException;
 import org.jdom2.Document;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.SimpleDirectedWeightedGraph;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
 public class TmXmlReader
@@ -165,14 +169,13 @@ public class TmXmlReader
 	public TmXmlReader( final File file )
 	{
 		this.file = file;
-		final SAXBuilder sb = new SAXBuilder();
 		Element r = null;
 		try
 		{
-			document = sb.build( file );
-			r = document.getRootElement();
+			r = readDocument( openDocument() );
+			document = new Document( r );
 		}
-		catch ( final JDOMException e )
+		catch ( final XMLStreamException e )
 		{
 			ok = false;
 			logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
@@ -315,35 +318,21 @@ public class TmXmlReader
 		// Feature declarations
 		readFeatureDeclarations( modelElement, model );
 
-		// Spots
-		final SpotCollection spots = getSpots( modelElement );
-		model.setSpots( spots, false );
-
-		// Tracks
-		if ( !readTracks( modelElement, model ) )
+		// Spots, tracks and track features.
+		try
 		{
-			ok = false;
+			readModelContent( model );
 		}
-
-		// Track features
-
-		try
+		catch ( final XMLStreamException e )
 		{
-			final Map< Integer, Map< String, Double >> savedFeatureMap = readTrackFeatures( modelElement );
-			for ( final Integer savedKey : savedFeatureMap.keySet() )
-			{
-
-				final Map< String, Double > savedFeatures = savedFeatureMap.get( savedKey );
-				for ( final String feature : savedFeatures.keySet() )
-				{
-					model.getFeatureModel().putTrackFeature( savedKey, feature, savedFeatures.get( feature ) );
-				}
-			}
+			logger.error( "Problem parsing the model in " + file.getName() + ".\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n' );
+			ok = false;
 		}
-		catch ( final RuntimeException re )
+		catch ( final IOException e )
 		{
-			logger.error( "Problem populating track features:\n" );
-			logger.error( re.getMessage() );
+			logger.error( "Problem reading the model in " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n' );
 			ok = false;
 		}
 
@@ -363,6 +352,39 @@ public class TmXmlReader
 		return new Model();
 	}
 
+	/**
+	 * Hook for subclassers:<br>
+	 * Opens the stream the XML document is read from. This is called once, at
+	 * construction, and the stream is closed after reading.
+	 *
+	 * @return a new {@link InputStream}.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	protected InputStream openDocument() throws IOException
+	{
+		return new BufferedInputStream( new FileInputStream( file ) );
+	}
+
+	/**
+	 * Hook for subclassers:<br>
+	 * Reads the spots, the tracks, the filtered tracks and the track features
+	 * of the file into the specified model. The model units and feature
+	 * declarations are already set when this method is called. By default,
+	 * they are streamed from the model element of the XML file.
+	 *
+	 * @param model
+	 *            the model to populate.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 * @throws XMLStreamException
+	 *             if the file cannot be parsed.
+	 */
+	protected void readModelContent( final Model model ) throws IOException, XMLStreamException
+	{
+		streamModelContent( model );
+	}
+
 	/**
 	 * Reads the settings element of the file, and sets the fields of the
 	 * specified {@link Settings} object according to the xml file content. The
@@ -502,74 +524,6 @@ public class TmXmlReader
 		return IJ.openImage( imageFile.getAbsolutePath() );
 	}
 
-	/**
-	 * Returns a map of the saved track features, as they appear in the file
-	 */
-	private Map< Integer, Map< String, Double >> readTrackFeatures( final Element modelElement )
-	{
-
-		final HashMap< Integer, Map< String, Double >> featureMap = new HashMap< Integer, Map< String, Double >>();
-
-		final Element allTracksElement = modelElement.getChild( TRACK_COLLECTION_ELEMENT_KEY );
-		if ( null == allTracksElement )
-		{
-			logger.error( "Cannot find the track collection in file.\n" );
-			ok = false;
-			return null;
-		}
-
-		// Load tracks
-		final List< Element > trackElements = allTracksElement.getChildren( TRACK_ELEMENT_KEY );
-		for ( final Element trackElement : trackElements )
-		{
-
-			int trackID = -1;
-			try
-			{
-				trackID = trackElement.getAttribute( TrackIndexAnalyzer.TRACK_ID ).getIntValue();
-			}
-			catch ( final DataConversionException e1 )
-			{
-				logger.error( "Found a track with invalid trackID for " + trackElement + ". Skipping.\n" );
-				ok = false;
-				continue;
-			}
-
-			final HashMap< String, Double > trackMap = new HashMap< String, Double >();
-
-			final List< Attribute > attributes = trackElement.getAttributes();
-			for ( final Attribute attribute : attributes )
-			{
-
-				final String attName = attribute.getName();
-				if ( attName.equals( TRACK_NAME_ATTRIBUTE_NAME ) )
-				{ // Skip trackID attribute
-					continue;
-				}
-
-				Double attVal = Double.NaN;
-				try
-				{
-					attVal = attribute.getDoubleValue();
-				}
-				catch ( final DataConversionException e )
-				{
-					logger.error( "Track " + trackID + ": Cannot read the feature " + attName + " value. Skipping.\n" );
-					ok = false;
-					continue;
-				}
-
-				trackMap.put( attName, attVal );
-
-			}
-
-			featureMap.put( trackID, trackMap );
-		}
-
-		return featureMap;
-
-	}
-
 	/**
 	 * Return the initial filter value on quality stored in this file. Return
 	 * <code>null</code> if the initial threshold data cannot be found in the
@@ -796,68 +750,6 @@ public class TmXmlReader
 		settings.trackerFactory = factory;
 	}
 
-	/**
-	 * Read the list of all spots stored in this file.
-	 * <p>
-	 * Internally, this methods also builds the cache field, which will be
-	 * required by the following methods:
-	 * <ul>
-	 * <li> {@link #readTracks()}
-	 * <li> {@link #readTrackEdges(SimpleDirectedWeightedGraph)}
-	 * <li> {@link #readTrackSpots(SimpleDirectedWeightedGraph)}
-	 * </ul>
-	 * It is therefore sensible to call this method first, just after
-	 * {@link #parse()}ing the file. If not called, this method will be called
-	 * anyway by the other methods to build the cache.
-	 * 
-	 * @param modelElement
-	 *            the {@link Element} in which the model content was written.
-	 * @return a new {@link SpotCollection}.
-	 */
-	private SpotCollection getSpots( final Element modelElement )
-	{
-		// Root element for collection
-		final Element spotCollection = modelElement.getChild( SPOT_COLLECTION_ELEMENT_KEY );
-
-		// Retrieve children elements for each frame
-		final List< Element > frameContent = spotCollection.getChildren( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
-
-		// Determine total number of spots
-		int nspots = readIntAttribute( spotCollection, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, Logger.VOID_LOGGER );
-		if ( nspots == 0 )
-		{
-			// Could not find it or read it. Determine it by quick sweeping
-			// through children element
-			for ( final Element currentFrameContent : frameContent )
-			{
-				nspots += currentFrameContent.getChildren( SPOT_ELEMENT_KEY ).size();
-			}
-		}
-
-		// Instantiate cache
-		cache = new ConcurrentHashMap< Integer, Spot >( nspots );
-
-		// Load collection and build cache
-		int currentFrame = 0;
-		final Map< Integer, Set< Spot >> content = new HashMap< Integer, Set< Spot >>( frameContent.size() );
-		for ( final Element currentFrameContent : frameContent )
-		{
-
-			currentFrame = readIntAttribute( currentFrameContent, FRAME_ATTRIBUTE_NAME, logger );
-			final List< Element > spotContent = currentFrameContent.getChildren( SPOT_ELEMENT_KEY );
-			final Set< Spot > spotSet = new HashSet< Spot >( spotContent.size() );
-			for ( final Element spotElement : spotContent )
-			{
-				final Spot spot = createSpotFrom( spotElement );
-				spotSet.add( spot );
-				cache.put( spot.ID(), spot );
-			}
-			content.put( currentFrame, spotSet );
-		}
-		final SpotCollection allSpots = SpotCollection.fromMap( content );
-		return allSpots;
-	}
-
 	/**
 	 * Load the tracks, the track features and the ID of the filtered tracks
 	 * into the model specified. The track collection element is expected to be
@@ -1073,33 +965,6 @@ public class TmXmlReader
 		return filteredTrackIndices;
 	}
 
-	private Spot createSpotFrom( final Element spotEl )
-	{
-		final int ID = readIntAttribute( spotEl, SPOT_ID_ATTRIBUTE_NAME, logger );
-		final Spot spot = new Spot( ID );
-
-		final List< Attribute > atts = spotEl.getAttributes();
-		atts.remove( SPOT_ID_ATTRIBUTE_NAME );
-
-		String name = spotEl.getAttributeValue( SPOT_NAME_ATTRIBUTE_NAME );
-		if ( null == name || name.equals( "" ) )
-		{
-			name = "ID" + ID;
-		}
-		spot.setName( name );
-		atts.remove( SPOT_NAME_ATTRIBUTE_NAME );
-
-		for ( final Attribute att : atts )
-		{
-			if ( att.getName().equals( SPOT_NAME_ATTRIBUTE_NAME ) || att.getName().equals( SPOT_ID_ATTRIBUTE_NAME ) )
-			{
-				continue;
-			}
-			spot.putFeature( att.getName(), Double.valueOf( att.getValue() ) );
-		}
-		return spot;
-	}
-
 	private void readFeatureDeclarations( final Element modelElement, final Model model )
 	{
 
@@ -1380,4 +1245,542 @@ public class TmXmlReader
 		isIntFeature.put( feature, Boolean.valueOf( isInt ) );
 	}
 
+	/*
+	 * STREAMING METHODS
+	 */
+
+	/**
+	 * Streams the spots, the tracks and the filtered tracks of the model
+	 * element of the file into the specified model. They are not kept in the
+	 * document built at construction, and are read straight from the file
+	 * here, without building any intermediate XML tree.
+	 */
+	private void streamModelContent( final Model model ) throws IOException, XMLStreamException
+	{
+		final InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+		try
+		{
+			final XMLStreamReader reader = createXMLStreamReader( is );
+			try
+			{
+				// Root element.
+				reader.nextTag();
+				while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+				{
+					if ( MODEL_ELEMENT_KEY.equals( reader.getLocalName() ) )
+					{
+						streamModelElement( reader, model );
+					}
+					else
+					{
+						skipElement( reader );
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private void streamModelElement( final XMLStreamReader reader, final Model model ) throws XMLStreamException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		SpotCollection spots = null;
+		TrackContent tracks = null;
+		Set< Integer > filteredTrackIDs = null;
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			final String name = reader.getLocalName();
+			if ( SPOT_COLLECTION_ELEMENT_KEY.equals( name ) )
+			{
+				spots = streamSpots( reader );
+			}
+			else if ( TRACK_COLLECTION_ELEMENT_KEY.equals( name ) )
+			{
+				if ( null == spots )
+				{
+					logger.error( "Found the track collection before the spot collection in file.\n" );
+					ok = false;
+					skipElement( reader );
+					continue;
+				}
+				tracks = streamTracks( reader, fm );
+			}
+			else if ( FILTERED_TRACK_ELEMENT_KEY.equals( name ) )
+			{
+				filteredTrackIDs = streamFilteredTrackIDs( reader );
+			}
+			else
+			{
+				skipElement( reader );
+			}
+		}
+
+		// Spots
+		if ( null == spots )
+		{
+			logger.error( "Could not find the spot collection in file.\n" );
+			ok = false;
+			return;
+		}
+		model.setSpots( spots, false );
+
+		// Tracks
+		if ( null == tracks )
+		{
+			logger.error( "Cannot find the track collection in file.\n" );
+			ok = false;
+			return;
+		}
+		if ( !tracks.ok )
+		{
+			ok = false;
+		}
+		else
+		{
+			if ( null == filteredTrackIDs )
+			{
+				logger.error( "Could not find the filtered track IDs in file.\n" );
+				ok = false;
+				filteredTrackIDs = new HashSet< Integer >();
+			}
+
+			// Visibility.
+			final Map< Integer, Boolean > visibility = new HashMap< Integer, Boolean >( tracks.edges.size() );
+			for ( final Integer id : tracks.edges.keySet() )
+			{
+				visibility.put( id, Boolean.FALSE );
+			}
+			for ( final Integer id : filteredTrackIDs )
+			{
+				if ( !tracks.edges.containsKey( id ) )
+				{
+					logger.error( "Invalid filtered track index: " + id + ". Track ID does not exist.\n" );
+					ok = false;
+				}
+				else
+				{
+					visibility.put( id, Boolean.TRUE );
+				}
+			}
+
+			model.getTrackModel().from( tracks.graph, tracks.vertices, tracks.edges, visibility, tracks.names );
+		}
+
+		// Track features
+		for ( final Integer trackID : tracks.features.keySet() )
+		{
+			final Map< String, Double > savedFeatures = tracks.features.get( trackID );
+			for ( final String feature : savedFeatures.keySet() )
+			{
+				fm.putTrackFeature( trackID, feature, savedFeatures.get( feature ) );
+			}
+		}
+	}
+
+	/**
+	 * Reads the spot collection element the specified reader is positioned
+	 * on, and builds the spot cache.
+	 */
+	private SpotCollection streamSpots( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final int nspots = intAttribute( reader, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, Logger.VOID_LOGGER, 0 );
+		cache = new ConcurrentHashMap< Integer, Spot >( nspots );
+
+		final Map< Integer, Set< Spot >> content = new HashMap< Integer, Set< Spot >>();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( !SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				skipElement( reader );
+				continue;
+			}
+
+			final int frame = intAttribute( reader, FRAME_ATTRIBUTE_NAME, logger, 0 );
+			final Set< Spot > spotSet = new HashSet< Spot >();
+			while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+			{
+				if ( SPOT_ELEMENT_KEY.equals( reader.getLocalName() ) )
+				{
+					final Spot spot = createSpotFrom( reader );
+					spotSet.add( spot );
+					cache.put( spot.ID(), spot );
+				}
+				skipElement( reader );
+			}
+			content.put( frame, spotSet );
+		}
+		return SpotCollection.fromMap( content );
+	}
+
+	private Spot createSpotFrom( final XMLStreamReader reader )
+	{
+		final int ID = intAttribute( reader, SPOT_ID_ATTRIBUTE_NAME, logger, 0 );
+		final Spot spot = new Spot( ID );
+
+		String name = null;
+		final int nAttributes = reader.getAttributeCount();
+		for ( int i = 0; i < nAttributes; i++ )
+		{
+			final String att = reader.getAttributeLocalName( i );
+			if ( att.equals( SPOT_ID_ATTRIBUTE_NAME ) )
+			{
+				continue;
+			}
+			if ( att.equals( SPOT_NAME_ATTRIBUTE_NAME ) )
+			{
+				name = reader.getAttributeValue( i );
+				continue;
+			}
+			spot.putFeature( Spot.featureIndex( att ), Double.parseDouble( reader.getAttributeValue( i ) ) );
+		}
+
+		if ( null == name || name.equals( "" ) )
+		{
+			name = "ID" + ID;
+		}
+		spot.setName( name );
+		return spot;
+	}
+
+	/**
+	 * Reads the track collection element the specified reader is positioned
+	 * on. Edge features are stored in the specified feature model as they are
+	 * read.
+	 */
+	private TrackContent streamTracks( final XMLStreamReader reader, final FeatureModel fm ) throws XMLStreamException
+	{
+		final TrackContent content = new TrackContent();
+		final Map< String, Boolean > edgeFeatureIsInt = fm.getEdgeFeatureIsInt();
+
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( !TRACK_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				skipElement( reader );
+				continue;
+			}
+
+			// Get track ID as it is saved on disk
+			final int trackID = intAttribute( reader, TrackIndexAnalyzer.TRACK_ID, logger, 0 );
+			String trackName = reader.getAttributeValue( null, TRACK_NAME_ATTRIBUTE_NAME );
+			if ( null == trackName )
+			{
+				trackName = "Unnamed";
+			}
+
+			// Track features
+			final Map< String, Double > trackFeatures = new HashMap< String, Double >();
+			final int nAttributes = reader.getAttributeCount();
+			for ( int i = 0; i < nAttributes; i++ )
+			{
+				final String attName = reader.getAttributeLocalName( i );
+				if ( attName.equals( TRACK_NAME_ATTRIBUTE_NAME ) )
+				{
+					continue;
+				}
+				try
+				{
+					trackFeatures.put( attName, parseDouble( reader.getAttributeValue( i ) ) );
+				}
+				catch ( final NumberFormatException e )
+				{
+					logger.error( "Track " + trackID + ": Cannot read the feature " + attName + " value. Skipping.\n" );
+					ok = false;
+				}
+			}
+			content.features.put( trackID, trackFeatures );
+
+			// Iterate over edges & spots
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+			final Set< Spot > spots = new HashSet< Spot >();
+			while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+			{
+				if ( content.ok && TRACK_EDGE_ELEMENT_KEY.equals( reader.getLocalName() ) )
+				{
+					content.ok = readEdge( reader, trackID, content.graph, spots, edges, fm, edgeFeatureIsInt );
+				}
+				skipElement( reader );
+			}
+
+			content.vertices.put( trackID, spots );
+			content.edges.put( trackID, edges );
+			content.names.put( trackID, trackName );
+		}
+		return content;
+	}
+
+	/**
+	 * Reads the edge element the specified reader is positioned on, and adds
+	 * it to the specified graph.
+	 *
+	 * @return <code>false</code> if the edge is invalid.
+	 */
+	private boolean readEdge( final XMLStreamReader reader, final int trackID, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Set< Spot > spots, final Set< DefaultWeightedEdge > edges, final FeatureModel fm, final Map< String, Boolean > edgeFeatureIsInt )
+	{
+		// Get source and target ID for this edge
+		final int sourceID = intAttribute( reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, logger, 0 );
+		final int targetID = intAttribute( reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, logger, 0 );
+
+		// Get matching spots from the cache
+		final Spot sourceSpot = cache.get( sourceID );
+		final Spot targetSpot = cache.get( targetID );
+
+		// Get weight
+		double weight = 0;
+		if ( null != reader.getAttributeValue( null, EdgeTargetAnalyzer.EDGE_COST ) )
+		{
+			weight = doubleAttribute( reader, EdgeTargetAnalyzer.EDGE_COST, logger );
+		}
+
+		// Error check
+		if ( null == sourceSpot )
+		{
+			logger.error( "Unknown spot ID: " + sourceID + "\n" );
+			return false;
+		}
+		if ( null == targetSpot )
+		{
+			logger.error( "Unknown spot ID: " + targetID + "\n" );
+			return false;
+		}
+		if ( sourceSpot.equals( targetSpot ) )
+		{
+			logger.error( "Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n" );
+			return false;
+		}
+
+		spots.add( sourceSpot );
+		spots.add( targetSpot );
+
+		// Add spots to graph and build edge
+		graph.addVertex( sourceSpot );
+		graph.addVertex( targetSpot );
+		final DefaultWeightedEdge edge = graph.addEdge( sourceSpot, targetSpot );
+		if ( edge == null )
+		{
+			logger.error( "Bad edge found for track " + trackID + "\n" );
+			return false;
+		}
+		graph.setEdgeWeight( edge, weight );
+
+		// Put edge features
+		final int nAttributes = reader.getAttributeCount();
+		for ( int i = 0; i < nAttributes; i++ )
+		{
+			final String feature = reader.getAttributeLocalName( i );
+			final Boolean isInt = edgeFeatureIsInt.get( feature );
+			if ( null == isInt )
+			{
+				// Not a declared edge feature.
+				continue;
+			}
+			final double val;
+			if ( isInt.booleanValue() )
+			{
+				val = intAttribute( reader, feature, logger, 0 );
+			}
+			else
+			{
+				val = doubleAttribute( reader, feature, logger );
+			}
+			fm.putEdgeFeature( edge, feature, val );
+		}
+
+		edges.add( edge );
+		return true;
+	}
+
+	/**
+	 * Reads the IDs of the filtered tracks in the element the specified reader
+	 * is positioned on.
+	 */
+	private Set< Integer > streamFilteredTrackIDs( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Set< Integer > filteredTrackIDs = new HashSet< Integer >();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( TRACK_ID_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				filteredTrackIDs.add( intAttribute( reader, TrackIndexAnalyzer.TRACK_ID, logger, 0 ) );
+			}
+			skipElement( reader );
+		}
+		return filteredTrackIDs;
+	}
+
+	/**
+	 * Reads the specified stream into a document, leaving out the content of
+	 * the spot collection, track collection and filtered tracks elements of
+	 * the model element. They are streamed by {@link #getModel()}. The stream
+	 * is closed when this method returns.
+	 */
+	private static Element readDocument( final InputStream is ) throws IOException, XMLStreamException
+	{
+		try
+		{
+			final XMLStreamReader reader = createXMLStreamReader( is );
+			try
+			{
+				reader.nextTag();
+				return readElement( reader, true, false );
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static Element readElement( final XMLStreamReader reader, final boolean isRoot, final boolean isModel ) throws XMLStreamException
+	{
+		final Element element = new Element( reader.getLocalName() );
+		readAttributes( reader, element );
+		while ( true )
+		{
+			switch ( reader.next() )
+			{
+			case XMLStreamConstants.START_ELEMENT:
+			{
+				final String name = reader.getLocalName();
+				if ( isModel && ( SPOT_COLLECTION_ELEMENT_KEY.equals( name ) || TRACK_COLLECTION_ELEMENT_KEY.equals( name ) || FILTERED_TRACK_ELEMENT_KEY.equals( name ) ) )
+				{
+					// Keep an empty element, the content is streamed.
+					final Element child = new Element( name );
+					readAttributes( reader, child );
+					element.addContent( child );
+					skipElement( reader );
+				}
+				else
+				{
+					element.addContent( readElement( reader, false, isRoot && MODEL_ELEMENT_KEY.equals( name ) ) );
+				}
+				break;
+			}
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				element.addContent( reader.getText() );
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return element;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static void readAttributes( final XMLStreamReader reader, final Element element )
+	{
+		final int nAttributes = reader.getAttributeCount();
+		for ( int i = 0; i < nAttributes; i++ )
+		{
+			element.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+		}
+	}
+
+	/**
+	 * Moves the specified reader, positioned on a start element, to its
+	 * matching end element.
+	 */
+	private static void skipElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+		while ( depth > 0 )
+		{
+			final int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT )
+			{
+				depth++;
+			}
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+			{
+				depth--;
+			}
+		}
+	}
+
+	private static XMLStreamReader createXMLStreamReader( final InputStream is ) throws XMLStreamException
+	{
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+		return factory.createXMLStreamReader( is );
+	}
+
+	private static int intAttribute( final XMLStreamReader reader, final String name, final Logger logger, final int defaultValue )
+	{
+		final String str = reader.getAttributeValue( null, name );
+		if ( null == str )
+		{
+			logger.error( "Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+		try
+		{
+			return Integer.parseInt( str.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			logger.error( "Cannot read the attribute " + name + " of the element " + reader.getLocalName() + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+	}
+
+	private static double doubleAttribute( final XMLStreamReader reader, final String name, final Logger logger )
+	{
+		final String str = reader.getAttributeValue( null, name );
+		if ( null == str )
+		{
+			logger.error( "Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value.\n" );
+			return 0;
+		}
+		try
+		{
+			return parseDouble( str );
+		}
+		catch ( final NumberFormatException e )
+		{
+			logger.error( "Cannot read the attribute " + name + " of the element " + reader.getLocalName() + ", substituting default value.\n" );
+			return 0;
+		}
+	}
+
+	/**
+	 * Parses a double the way JDOM does for attribute values.
+	 */
+	private static double parseDouble( final String str )
+	{
+		final String s = str.trim();
+		if ( "INF".equals( s ) ) { return Double.POSITIVE_INFINITY; }
+		if ( "-INF".equals( s ) ) { return Double.NEGATIVE_INFINITY; }
+		return Double.parseDouble( s );
+	}
+
+	/**
+	 * The tracks read from a file, before they are passed to the model.
+	 */
+	private static final class TrackContent
+	{
+		private final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+
+		private final Map< Integer, Set< Spot >> vertices = new HashMap< Integer, Set< Spot >>();
+
+		private final Map< Integer, Set< DefaultWeightedEdge >> edges = new HashMap< Integer, Set< DefaultWeightedEdge >>();
+
+		private final Map< Integer, String > names = new HashMap< Integer, String >();
+
+		private final Map< Integer, Map< String, Double >> features = new HashMap< Integer, Map< String, Double >>();
+
+		private boolean ok = true;
+	}
 }
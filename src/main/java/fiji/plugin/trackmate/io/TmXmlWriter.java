@@ -89,28 +89,49 @@ import fiji.plugin.trackmate.providers.DetectorProvider;
 import fiji.plugin.trackmate.providers.TrackerProvider;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.jdom2.Attribute;
-import org.jdom2.Document;
+import org.jdom2.Content;
 import org.jdom2.Element;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
+import org.jdom2.Text;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
+/**
+ * Writes TrackMate XML files.
+ * <p>
+ * The settings, log and GUI state are small, and are appended to the
+ * document as JDOM elements. The spots, tracks and filtered tracks of the
+ * model are not: they are written directly from the model to the output
+ * stream, frame by frame and track by track, when the document is written.
+ * This way, writing a large model does not require building its whole XML
+ * tree in memory.
+ */
 public class TmXmlWriter
 {
 
+	private static final String INDENT = "  ";
+
+	private static final String LINE_SEPARATOR = "\n";
+
 	/*
 	 * FIELD
 	 */
@@ -119,7 +140,13 @@ public class TmXmlWriter
 
 	protected final Logger logger;
 
-	private final File file;
+	protected final File file;
+
+	/**
+	 * The models whose content is written when the document is written, keyed
+	 * by the model element that stands for them in the document.
+	 */
+	private final Map< Element, Model > models = new IdentityHashMap< Element, Model >();
 
 	/*
 	 * CONSTRUCTORS
@@ -163,33 +190,25 @@ public class TmXmlWriter
 	 */
 	public void writeToFile() throws FileNotFoundException, IOException
 	{
-		FileOutputStream fos = null;
+		logger.log( "  Writing to file.\n" );
+		final Writer writer = new OutputStreamWriter( new BufferedOutputStream( new FileOutputStream( file ) ), "UTF-8" );
 		try
 		{
-			logger.log( "  Writing to file.\n" );
-			fos = new FileOutputStream( file );
-			final Document document = new Document( root );
-			final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
-			outputter.output( document, fos );
+			write( writer );
 		}
 		finally
 		{
-			if ( null != fos )
-			{
-				fos.close();
-			}
+			writer.close();
 		}
 	}
 
 	@Override
 	public String toString()
 	{
-		final Document document = new Document( root );
-		final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
 		final StringWriter writer = new StringWriter();
 		try
 		{
-			outputter.output( document, writer );
+			write( writer );
 		}
 		catch ( final IOException e )
 		{
@@ -214,14 +233,9 @@ public class TmXmlWriter
 		final Element featureDeclarationElement = echoFeaturesDeclaration( model );
 		modelElement.addContent( featureDeclarationElement );
 
-		final Element spotElement = echoSpots( model );
-		modelElement.addContent( spotElement );
-
-		final Element trackElement = echoTracks( model );
-		modelElement.addContent( trackElement );
-
-		final Element filteredTrackElement = echoFilteredTracks( model );
-		modelElement.addContent( filteredTrackElement );
+		// Spots and tracks are written straight from the model.
+		prepareTracks( model );
+		models.put( modelElement, model );
 
 		root.addContent( modelElement );
 	}
@@ -375,18 +389,16 @@ public class TmXmlWriter
 		return el;
 	}
 
-	private Element echoTracks( final Model model )
+	/**
+	 * Some numerical features are REQUIRED to be able to save to XML. Namely:
+	 * the track ID feature for track and the edge spot source and spot target
+	 * for edges. If the model does not provide these features already, we
+	 * must recompute them. The test to check whether they are here or not is
+	 * a bit lame: we simply ask if the first track or edge has them, adn
+	 * extrapolate to the whole model.
+	 */
+	private void prepareTracks( final Model model )
 	{
-
-		/*
-		 * Some numerical features are REQUIRED to be able to save to XML.
-		 * Namely: the track ID feature for track and the edge spot source and
-		 * spot target for edges. If the model does not provide these features
-		 * already, we must recompute them. The test to check whether they are
-		 * here or not is a bit lame: we simply ask if the first track or edge
-		 * has them, adn extrapolate to the whole model.
-		 */
-
 		// Track & edges required features
 		if ( model.getTrackModel().nTracks( false ) > 0 )
 		{
@@ -418,99 +430,80 @@ public class TmXmlWriter
 				}
 			}
 		}
+	}
 
-		final Element allTracksElement = new Element( TRACK_COLLECTION_ELEMENT_KEY );
+	private void writeTracks( final XMLStreamWriter writer, final Model model, final int depth ) throws XMLStreamException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		startElement( writer, TRACK_COLLECTION_ELEMENT_KEY, depth );
 
 		// Prepare track features for writing: we separate ints from doubles
-		final List< String > trackFeatures = new ArrayList< String >( model.getFeatureModel().getTrackFeatures() );
+		final List< String > trackFeatures = new ArrayList< String >( fm.getTrackFeatures() );
+		final Map< String, Boolean > trackFeatureIsInt = fm.getTrackFeatureIsInt();
 
 		// Same thing for edge features
-		final List< String > edgeFeatures = new ArrayList< String >( model.getFeatureModel().getEdgeFeatures() );
-
-		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(false);
-		for (final int trackID : trackIDs) {
-			final Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
+		final List< String > edgeFeatures = new ArrayList< String >( fm.getEdgeFeatures() );
+		final Map< String, Boolean > edgeFeatureIsInt = fm.getEdgeFeatureIsInt();
 
-			final Element trackElement = new Element(TRACK_ELEMENT_KEY);
-			trackElement.setAttribute(TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name(trackID));
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		for ( final int trackID : trackIDs )
+		{
+			final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
+			if ( track.size() == 0 )
+			{
+				/*
+				 * Special case: the track has only one spot in it, therefore no
+				 * edge. It just should not be, since the model never returns a
+				 * track with less than one edge. So we skip writing it.
+				 */
+				continue;
+			}
 
+			startElement( writer, TRACK_ELEMENT_KEY, depth + 1 );
+			writer.writeAttribute( TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name( trackID ) );
 			for ( final String feature : trackFeatures )
 			{
-				final Double val = model.getFeatureModel().getTrackFeature(trackID, feature);
+				final Double val = fm.getTrackFeature( trackID, feature );
 				if ( null == val )
 				{
 					// Skip missing features.
 					continue;
 				}
-				String str;
-				if ( model.getFeatureModel().getTrackFeatureIsInt().get( feature ).booleanValue() )
-				{
-					str = "" + val.intValue();
-				}
-				else
-				{
-					str = val.toString();
-				}
-				trackElement.setAttribute( feature, str );
+				writer.writeAttribute( feature, toString( val.doubleValue(), trackFeatureIsInt.get( feature ).booleanValue() ) );
 			}
 
 			// Echo edges
-			if ( track.size() == 0 )
-			{
-				/*
-				 * Special case: the track has only one spot in it, therefore no
-				 * edge. It just should not be, since the model never returns a
-				 * track with less than one edge. So we skip writing it.
-				 */
-				continue;
-
-			}
-			else
+			for ( final DefaultWeightedEdge edge : track )
 			{
-				for ( final DefaultWeightedEdge edge : track )
+				emptyElement( writer, TRACK_EDGE_ELEMENT_KEY, depth + 2 );
+				for ( final String feature : edgeFeatures )
 				{
-					final Element edgeElement = new Element(TRACK_EDGE_ELEMENT_KEY);
-					for ( final String feature : edgeFeatures )
+					final Double val = fm.getEdgeFeature( edge, feature );
+					if ( null == val )
 					{
-						final Double val = model.getFeatureModel().getEdgeFeature(edge, feature);
-						if ( null == val )
-						{
-							// Skip missing features.
-							continue;
-						}
-						String str;
-						if ( model.getFeatureModel().getEdgeFeatureIsInt().get( feature ).booleanValue() )
-						{
-							str = "" + val.intValue();
-						}
-						else
-						{
-							str = val.toString();
-						}
-						edgeElement.setAttribute( feature, str );
+						// Skip missing features.
+						continue;
 					}
-
-					trackElement.addContent( edgeElement );
+					writer.writeAttribute( feature, toString( val.doubleValue(), edgeFeatureIsInt.get( feature ).booleanValue() ) );
 				}
 			}
-			allTracksElement.addContent( trackElement );
+			endElement( writer, depth + 1 );
 		}
+		endElement( writer, depth );
 		logger.log( "  Added tracks.\n" );
-		return allTracksElement;
 	}
 
-	private Element echoFilteredTracks( final Model model )
+	private void writeFilteredTracks( final XMLStreamWriter writer, final Model model, final int depth ) throws XMLStreamException
 	{
-		final Element filteredTracksElement = new Element( FILTERED_TRACK_ELEMENT_KEY );
+		startElement( writer, FILTERED_TRACK_ELEMENT_KEY, depth );
 		final Set< Integer > filteredTrackKeys = model.getTrackModel().trackIDs( true );
 		for ( final int trackID : filteredTrackKeys )
 		{
-			final Element trackIDElement = new Element( TRACK_ID_ELEMENT_KEY );
-			trackIDElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, "" + trackID );
-			filteredTracksElement.addContent( trackIDElement );
+			emptyElement( writer, TRACK_ID_ELEMENT_KEY, depth + 1 );
+			writer.writeAttribute( TrackIndexAnalyzer.TRACK_ID, "" + trackID );
 		}
+		endElement( writer, depth );
 		logger.log( "  Added filtered tracks.\n" );
-		return filteredTracksElement;
 	}
 
 	protected Element echoImageInfo( final Settings settings )
@@ -530,29 +523,51 @@ public class TmXmlWriter
 		return imEl;
 	}
 
-	private Element echoSpots( final Model model )
+	private void writeSpots( final XMLStreamWriter writer, final Model model, final int depth ) throws XMLStreamException
 	{
 		final SpotCollection spots = model.getSpots();
 
-		final Element spotCollectionElement = new Element( SPOT_COLLECTION_ELEMENT_KEY );
+		// Whether each spot feature slot is an integer feature.
+		final Map< String, Boolean > isIntMap = model.getFeatureModel().getSpotFeatureIsInt();
+		final int nSlots = Spot.featureCount();
+		final String[] keys = new String[ nSlots ];
+		final boolean[] isInt = new boolean[ nSlots ];
+		for ( int i = 0; i < nSlots; i++ )
+		{
+			keys[ i ] = Spot.featureKey( i );
+			final Boolean b = isIntMap.get( keys[ i ] );
+			isInt[ i ] = null != b && b.booleanValue();
+		}
+
+		startElement( writer, SPOT_COLLECTION_ELEMENT_KEY, depth );
 		// Store total number of spots
-		spotCollectionElement.setAttribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
+		writer.writeAttribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
 
 		for ( final int frame : spots.keySet() )
 		{
+			startElement( writer, SPOT_FRAME_COLLECTION_ELEMENT_KEY, depth + 1 );
+			writer.writeAttribute( FRAME_ATTRIBUTE_NAME, "" + frame );
 
-			final Element frameSpotsElement = new Element( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
-			frameSpotsElement.setAttribute( FRAME_ATTRIBUTE_NAME, "" + frame );
-
-			for (final Iterator<Spot> it = spots.iterator(frame, false); it.hasNext();)
+			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
 			{
-				final Element spotElement = marshalSpot( it.next(), model.getFeatureModel() );
-				frameSpotsElement.addContent(spotElement);
+				final Spot spot = it.next();
+				emptyElement( writer, SPOT_ELEMENT_KEY, depth + 2 );
+				writer.writeAttribute( SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID() );
+				writer.writeAttribute( SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
+				for ( int i = 0; i < nSlots; i++ )
+				{
+					if ( !spot.hasFeature( i ) )
+					{
+						// Skip missing features.
+						continue;
+					}
+					writer.writeAttribute( keys[ i ], toString( spot.getFeature( i ), isInt[ i ] ) );
+				}
 			}
-			spotCollectionElement.addContent( frameSpotsElement );
+			endElement( writer, depth + 1 );
 		}
+		endElement( writer, depth );
 		logger.log( "  Added " + spots.getNSpots( false ) + " spots.\n" );
-		return spotCollectionElement;
 	}
 
 	private Element echoFeaturesDeclaration( final Model model )
@@ -702,44 +717,144 @@ public class TmXmlWriter
 	}
 
 	/*
-	 * STATIC METHODS
+	 * WRITING METHODS
+	 */
+
+	/**
+	 * Writes the document, streaming the content of the appended models.
+	 *
+	 * @param out
+	 *            the writer to write to. It is not closed by this method.
+	 * @throws IOException
+	 *             if an error occurs when writing.
 	 */
+	protected void write( final Writer out ) throws IOException
+	{
+		try
+		{
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter( out );
+			writer.writeStartDocument( "UTF-8", "1.0" );
+			writeElement( writer, root, 0 );
+			writer.writeCharacters( LINE_SEPARATOR );
+			writer.writeEndDocument();
+			writer.flush();
+			writer.close();
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( e );
+		}
+	}
 
-	private static final Element marshalSpot( final Spot spot, final FeatureModel fm )
+	private void writeElement( final XMLStreamWriter writer, final Element element, final int depth ) throws XMLStreamException
 	{
-		final Collection<Attribute> attributes = new ArrayList<Attribute>();
-		final Attribute IDattribute = new Attribute(SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID());
-		attributes.add(IDattribute);
-		final Attribute nameAttribute = new Attribute(SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
-		attributes.add(nameAttribute);
-		Double val;
-		Attribute featureAttribute;
-
-		for ( final String feature : spot.getFeatures().keySet() )
+		final Model model = models.get( element );
+		final List< Element > children = element.getChildren();
+		final String text = element.getTextTrim();
+		if ( null == model && children.isEmpty() && text.isEmpty() )
 		{
-			val = spot.getFeature( feature );
-			if ( null == val )
-			{
-				// Skip missing features.
-				continue;
-			}
+			emptyElement( writer, element.getName(), depth );
+			writeAttributes( writer, element );
+			return;
+		}
 
-			final String str;
-			if ( fm.getSpotFeatureIsInt().get( feature ).booleanValue() )
+		startElement( writer, element.getName(), depth );
+		writeAttributes( writer, element );
+		if ( children.isEmpty() && null == model )
+		{
+			writer.writeCharacters( text );
+			writer.writeEndElement();
+			return;
+		}
+
+		for ( final Content content : element.getContent() )
+		{
+			if ( content instanceof Element )
 			{
-				str = "" + val.intValue();
+				writeElement( writer, ( Element ) content, depth + 1 );
 			}
-			else
+			else if ( content instanceof Text && !( ( Text ) content ).getTextTrim().isEmpty() )
 			{
-				str = val.toString();
+				writer.writeCharacters( LINE_SEPARATOR );
+				writer.writeCharacters( ( ( Text ) content ).getTextTrim() );
 			}
-			featureAttribute = new Attribute(feature, str);
-			attributes.add(featureAttribute);
 		}
+		if ( null != model )
+		{
+			writeModelContent( writer, model, depth + 1 );
+		}
+		endElement( writer, depth );
+	}
 
-		final Element spotElement = new Element( SPOT_ELEMENT_KEY );
-		spotElement.setAttributes( attributes );
-		return spotElement;
+	/**
+	 * Hook for subclassers:<br>
+	 * Writes the spots, tracks and filtered tracks of the specified model,
+	 * inside its model element. They are written as XML elements by default.
+	 *
+	 * @param writer
+	 *            the writer, positioned in the model element.
+	 * @param model
+	 *            the model to write.
+	 * @param depth
+	 *            the indentation depth of the model element children.
+	 * @throws XMLStreamException
+	 *             if an error occurs when writing.
+	 */
+	protected void writeModelContent( final XMLStreamWriter writer, final Model model, final int depth ) throws XMLStreamException
+	{
+		writeSpots( writer, model, depth );
+		writeTracks( writer, model, depth );
+		writeFilteredTracks( writer, model, depth );
+	}
+
+	private static final void writeAttributes( final XMLStreamWriter writer, final Element element ) throws XMLStreamException
+	{
+		for ( final Attribute attribute : element.getAttributes() )
+		{
+			writer.writeAttribute( attribute.getName(), attribute.getValue() );
+		}
+	}
+
+	private static final void startElement( final XMLStreamWriter writer, final String name, final int depth ) throws XMLStreamException
+	{
+		indent( writer, depth );
+		writer.writeStartElement( name );
+	}
+
+	private static final void emptyElement( final XMLStreamWriter writer, final String name, final int depth ) throws XMLStreamException
+	{
+		indent( writer, depth );
+		writer.writeEmptyElement( name );
+	}
+
+	private static final void endElement( final XMLStreamWriter writer, final int depth ) throws XMLStreamException
+	{
+		indent( writer, depth );
+		writer.writeEndElement();
+	}
+
+	private static final void indent( final XMLStreamWriter writer, final int depth ) throws XMLStreamException
+	{
+		final StringBuilder str = new StringBuilder( LINE_SEPARATOR.length() + depth * INDENT.length() );
+		str.append( LINE_SEPARATOR );
+		for ( int i = 0; i < depth; i++ )
+		{
+			str.append( INDENT );
+		}
+		writer.writeCharacters( str.toString() );
+	}
+
+	/**
+	 * Formats a feature value as it has always been written in TrackMate
+	 * files.
+	 */
+	private static final String toString( final double val, final boolean isInt )
+	{
+		if ( isInt )
+		{
+			return "" + ( int ) val;
+		}
+		return Double.toString( val );
 	}
 
 }
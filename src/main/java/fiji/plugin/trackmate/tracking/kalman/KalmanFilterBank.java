@@ -0,0 +1,429 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import fiji.plugin.trackmate.util.ComputePool;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A collection of constant-velocity Kalman filters, stored in primitive
+ * arrays and processed in bulk.
+ * <p>
+ * Each filter is equivalent to a {@link CVMKalmanFilter} built with the noise
+ * parameters of this bank. With the evolution, measurement and noise matrices
+ * of this motion model, the 6×6 state covariance only couples the position
+ * and velocity of the same axis, and is the same for the 3 axes. It is
+ * therefore fully described by 3 numbers per filter: the position variance,
+ * the position-velocity covariance and the velocity variance. The prediction
+ * and update steps are written out for these 3 numbers, run in place, and do
+ * not allocate.
+ * <p>
+ * Filters are addressed by their slot, between 0 and {@link #size()}. Slots
+ * are stable until {@link #prune(int)} is called, which compacts the bank.
+ * Each filter carries a tag, typically the last object it was associated
+ * with.
+ * <p>
+ * A typical time step reads: {@link #predictAll()}, then
+ * {@link #setMeasurement(int, double, double, double)} for the filters that
+ * found a measurement, then {@link #updateAll()}, which counts an occlusion
+ * for the others, and finally {@link #prune(int)}.
+ *
+ * @param <T>
+ *            the type of the tags.
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class KalmanFilterBank< T >
+{
+
+	/** Number of filters processed by a task. */
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** Process noise variance on position. */
+	private final double qp;
+
+	/** Process noise variance on velocity. */
+	private final double qv;
+
+	/** Measurement noise variance on position. */
+	private final double r;
+
+	private int size = 0;
+
+	/** Current state, 6 per filter: <code>x, y, z, vx, vy, vz</code>. */
+	private double[] state;
+
+	/** Predicted position, 3 per filter. */
+	private double[] prediction;
+
+	/**
+	 * State covariance, 3 per filter: position variance, position-velocity
+	 * covariance and velocity variance, identical for all axes.
+	 */
+	private double[] covariance;
+
+	/** Measured position, 3 per filter. */
+	private double[] measurement;
+
+	private boolean[] measured;
+
+	private int[] nOcclusions;
+
+	private Object[] tags;
+
+	private ExecutorService service;
+
+	private int numThreads = 1;
+
+	/**
+	 * Creates an empty bank of Kalman filters sharing the specified noise
+	 * parameters.
+	 *
+	 * @param positionProcessStd
+	 *            the std of the noise affecting the position evolution.
+	 * @param velocityProcessStd
+	 *            the std of the noise affecting the velocity evolution, in
+	 *            <code>length/frame</code> units.
+	 * @param positionMeasurementStd
+	 *            the std of the noise affecting the position measurement.
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	public KalmanFilterBank( final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.qp = positionProcessStd * positionProcessStd;
+		this.qv = velocityProcessStd * velocityProcessStd;
+		this.r = positionMeasurementStd * positionMeasurementStd;
+		allocate( INITIAL_CAPACITY );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the executor service the bulk steps run on when there are enough
+	 * filters to split them across several tasks. If <code>null</code>, they
+	 * run in the calling thread.
+	 *
+	 * @param service
+	 *            the executor service.
+	 * @param numThreads
+	 *            the number of tasks to split the bulk steps in.
+	 */
+	public void setExecutorService( final ExecutorService service, final int numThreads )
+	{
+		this.service = service;
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/**
+	 * Adds a new filter with the specified initial state.
+	 *
+	 * @param X0
+	 *            initial state, <code>x0, y0, z0, vx0, vy0, vz0</code> with
+	 *            velocity in <code>length/frame</code> units.
+	 * @param initStateCovariance
+	 *            the initial state covariance.
+	 * @param tag
+	 *            the tag of the new filter.
+	 * @return the slot of the new filter.
+	 */
+	public int add( final double[] X0, final double initStateCovariance, final T tag )
+	{
+		if ( size == tags.length )
+		{
+			grow( 2 * tags.length );
+		}
+		final int i = size++;
+		System.arraycopy( X0, 0, state, 6 * i, 6 );
+		System.arraycopy( X0, 0, prediction, 3 * i, 3 );
+		covariance[ 3 * i ] = initStateCovariance;
+		covariance[ 3 * i + 1 ] = 0d;
+		covariance[ 3 * i + 2 ] = initStateCovariance;
+		measured[ i ] = false;
+		nOcclusions[ i ] = 0;
+		tags[ i ] = tag;
+		return i;
+	}
+
+	/**
+	 * Returns the number of filters in this bank.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public T getTag( final int slot )
+	{
+		return ( T ) tags[ slot ];
+	}
+
+	public void setTag( final int slot, final T tag )
+	{
+		tags[ slot ] = tag;
+	}
+
+	/**
+	 * Returns the predicted position of a filter, as computed by the last call
+	 * to {@link #predictAll()}.
+	 *
+	 * @param slot
+	 *            the filter slot.
+	 * @param d
+	 *            the dimension, 0 to 2.
+	 */
+	public double getPredictedPosition( final int slot, final int d )
+	{
+		return prediction[ 3 * slot + d ];
+	}
+
+	/**
+	 * Returns a component of the current state of a filter.
+	 *
+	 * @param slot
+	 *            the filter slot.
+	 * @param d
+	 *            the state component, 0 to 5:
+	 *            <code>x, y, z, vx, vy, vz</code>.
+	 */
+	public double getState( final int slot, final int d )
+	{
+		return state[ 6 * slot + d ];
+	}
+
+	/**
+	 * @see CVMKalmanFilter#getPositionError()
+	 */
+	public double getPositionError( final int slot )
+	{
+		return Math.sqrt( covariance[ 3 * slot ] );
+	}
+
+	/**
+	 * @see CVMKalmanFilter#getVelocityError()
+	 */
+	public double getVelocityError( final int slot )
+	{
+		return Math.sqrt( covariance[ 3 * slot + 2 ] );
+	}
+
+	/**
+	 * @see CVMKalmanFilter#getNOcclusion()
+	 */
+	public int getNOcclusion( final int slot )
+	{
+		return nOcclusions[ slot ];
+	}
+
+	/**
+	 * Sets the position measured for a filter at this time step. Filters
+	 * without measurement when {@link #updateAll()} is called are considered
+	 * occluded.
+	 */
+	public void setMeasurement( final int slot, final double x, final double y, final double z )
+	{
+		measurement[ 3 * slot ] = x;
+		measurement[ 3 * slot + 1 ] = y;
+		measurement[ 3 * slot + 2 ] = z;
+		measured[ slot ] = true;
+	}
+
+	/**
+	 * Runs the prediction step of all the filters.
+	 *
+	 * @return <code>false</code> if the executor service was cancelled.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @see CVMKalmanFilter#predict()
+	 */
+	public boolean predictAll() throws InterruptedException
+	{
+		return run( true );
+	}
+
+	/**
+	 * Runs the update step of all the filters, with the measurements set since
+	 * the last call. Filters without measurement take their prediction as new
+	 * state and count one more occlusion. Measurements are then cleared.
+	 *
+	 * @return <code>false</code> if the executor service was cancelled.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @see CVMKalmanFilter#update(double[])
+	 */
+	public boolean updateAll() throws InterruptedException
+	{
+		return run( false );
+	}
+
+	/**
+	 * Removes the filters that had more than the specified number of
+	 * occlusions. The bank is compacted: the slots of the remaining filters
+	 * may change.
+	 *
+	 * @param maxOcclusions
+	 *            the maximal number of occlusions a filter may have had.
+	 * @return the number of filters removed.
+	 */
+	public int prune( final int maxOcclusions )
+	{
+		final int before = size;
+		int i = 0;
+		while ( i < size )
+		{
+			if ( nOcclusions[ i ] > maxOcclusions )
+			{
+				move( --size, i );
+				tags[ size ] = null;
+			}
+			else
+			{
+				i++;
+			}
+		}
+		return before - size;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private boolean run( final boolean predict ) throws InterruptedException
+	{
+		final int nChunks = ( size + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+		if ( nChunks <= 1 || numThreads <= 1 )
+		{
+			if ( predict )
+			{
+				predict( 0, size );
+			}
+			else
+			{
+				update( 0, size );
+			}
+			return true;
+		}
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for ( int chunk = ai.getAndIncrement(); chunk < nChunks; chunk = ai.getAndIncrement() )
+				{
+					final int from = chunk * CHUNK_SIZE;
+					final int to = Math.min( size, from + CHUNK_SIZE );
+					if ( predict )
+					{
+						predict( from, to );
+					}
+					else
+					{
+						update( from, to );
+					}
+				}
+			}
+		};
+		return ComputePool.runAll( service, worker, Math.min( numThreads, nChunks ), "Kalman filter thread" );
+	}
+
+	private void predict( final int from, final int to )
+	{
+		for ( int i = from; i < to; i++ )
+		{
+			final int s = 6 * i;
+			final int p = 3 * i;
+			// X = A.X
+			prediction[ p ] = state[ s ] + state[ s + 3 ];
+			prediction[ p + 1 ] = state[ s + 1 ] + state[ s + 4 ];
+			prediction[ p + 2 ] = state[ s + 2 ] + state[ s + 5 ];
+			// P = A.P.A' + Q
+			final double a = covariance[ p ];
+			final double b = covariance[ p + 1 ];
+			final double c = covariance[ p + 2 ];
+			covariance[ p ] = a + 2d * b + c + qp;
+			covariance[ p + 1 ] = b + c;
+			covariance[ p + 2 ] = c + qv;
+		}
+	}
+
+	private void update( final int from, final int to )
+	{
+		for ( int i = from; i < to; i++ )
+		{
+			final int s = 6 * i;
+			final int p = 3 * i;
+			if ( !measured[ i ] )
+			{
+				// Occlusion: the prediction becomes the state.
+				nOcclusions[ i ]++;
+				state[ s ] = prediction[ p ];
+				state[ s + 1 ] = prediction[ p + 1 ];
+				state[ s + 2 ] = prediction[ p + 2 ];
+				continue;
+			}
+			measured[ i ] = false;
+
+			final double a = covariance[ p ];
+			final double b = covariance[ p + 1 ];
+			final double c = covariance[ p + 2 ];
+			// Innovation covariance and gains, the same for all axes.
+			final double S = a + r;
+			final double kp = a / S;
+			final double kv = b / S;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double innovation = measurement[ p + d ] - prediction[ p + d ];
+				state[ s + d ] = prediction[ p + d ] + kp * innovation;
+				state[ s + 3 + d ] += kv * innovation;
+			}
+			// P = (I - K.H).P
+			covariance[ p ] = a * r / S;
+			covariance[ p + 1 ] = b * r / S;
+			covariance[ p + 2 ] = c - b * b / S;
+		}
+	}
+
+	/**
+	 * Copies the filter at slot <code>from</code> to slot <code>to</code>.
+	 */
+	private void move( final int from, final int to )
+	{
+		if ( from == to ) { return; }
+		System.arraycopy( state, 6 * from, state, 6 * to, 6 );
+		System.arraycopy( prediction, 3 * from, prediction, 3 * to, 3 );
+		System.arraycopy( covariance, 3 * from, covariance, 3 * to, 3 );
+		System.arraycopy( measurement, 3 * from, measurement, 3 * to, 3 );
+		measured[ to ] = measured[ from ];
+		nOcclusions[ to ] = nOcclusions[ from ];
+		tags[ to ] = tags[ from ];
+	}
+
+	private void allocate( final int capacity )
+	{
+		state = new double[ 6 * capacity ];
+		prediction = new double[ 3 * capacity ];
+		covariance = new double[ 3 * capacity ];
+		measurement = new double[ 3 * capacity ];
+		measured = new boolean[ capacity ];
+		nOcclusions = new int[ capacity ];
+		tags = new Object[ capacity ];
+	}
+
+	private void grow( final int capacity )
+	{
+		state = Arrays.copyOf( state, 6 * capacity );
+		prediction = Arrays.copyOf( prediction, 3 * capacity );
+		covariance = Arrays.copyOf( covariance, 3 * capacity );
+		measurement = Arrays.copyOf( measurement, 3 * capacity );
+		measured = Arrays.copyOf( measured, capacity );
+		nOcclusions = Arrays.copyOf( nOcclusions, capacity );
+		tags = Arrays.copyOf( tags, capacity );
+	}
+}
@@ -2,14 +2,14 @@ package fiji.plugin.trackmate.tracking.kalman;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.concurrent.ExecutorService;
 
-import net.imglib2.RealPoint;
+import net.imglib2.RealLocalizable;
 import net.imglib2.algorithm.Benchmark;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -20,11 +20,14 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.DistanceBoundedCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
-public class KalmanTracker implements SpotTracker, Benchmark
+public class KalmanTracker implements SpotTracker, Benchmark, ExecutorServiceAware
 {
 
 	private static final double ALTERNATIVE_COST_FACTOR = 1.05d;
@@ -53,6 +56,10 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 	private long processingTime;
 
+	private ExecutorService service;
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -152,158 +159,174 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		meanSpotRadius /= orphanSpots.size();
 		final double positionMeasurementStd = meanSpotRadius / 10d;
 
-		// The master map that contains the currently active KFs.
-		final Map< CVMKalmanFilter, Spot > kalmanFiltersMap = new HashMap< CVMKalmanFilter, Spot >( orphanSpots.size() );
+		// The bank that contains the currently active KFs, tagged with the
+		// last spot of their track.
+		final KalmanFilterBank< Spot > kalmanFilters = new KalmanFilterBank< Spot >( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		kalmanFilters.setExecutorService( service, numThreads );
+
+		// Handles on the KF predictions, reused from frame to frame.
+		final List< Prediction > predictionPool = new ArrayList< Prediction >();
+		final CostFunction< Prediction, Spot > costFunction = new PredictionToSpotCostFunction( kalmanFilters );
 
 		/*
 		 * Then loop over time, starting from second frame.
 		 */
 		int p = 1;
-		for ( int frame = secondFrame; frame <= keySet.last(); frame++ )
+		try
 		{
-			p++;
-
-			// Use the spot in the next frame has measurements.
-			final List< Spot > measurements = generateSpotList( spots, frame );
-
-			// Predict for all Kalman filters, and use it to generate linking
-			// candidates.
-			final Map< ComparableRealPoint, CVMKalmanFilter > predictionMap = new HashMap< ComparableRealPoint, CVMKalmanFilter >( kalmanFiltersMap.size() );
-			for ( final CVMKalmanFilter kf : kalmanFiltersMap.keySet() )
+			for ( int frame = secondFrame; frame <= keySet.last(); frame++ )
 			{
-				final double[] X = kf.predict();
-				final ComparableRealPoint point = new ComparableRealPoint( X );
-				predictionMap.put( new ComparableRealPoint( X ), kf );
-
-				if ( savePredictions )
+				p++;
+				if ( ComputePool.isCancelled( service ) )
 				{
-					final Spot pred = toSpot( point );
-					final Spot s = kalmanFiltersMap.get( kf );
-					pred.setName( "Pred_" + s.getName() );
-					pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
-					predictionsCollection.add( pred, frame );
+					errorMessage = BASE_ERROR_MSG + "Tracking cancelled.";
+					return false;
 				}
-			}
-			final List< ComparableRealPoint > predictions = new ArrayList< ComparableRealPoint >( predictionMap.keySet() );
 
-			// The KF for which we could not find a measurement in the target
-			// frame. Is updated later.
-			final Collection< CVMKalmanFilter > childlessKFs = new HashSet< CVMKalmanFilter >( kalmanFiltersMap.keySet() );
-
-			// Find the global (in space) optimum for associating a prediction
-			// to a measurement.
-
-			if ( !predictions.isEmpty() && !measurements.isEmpty() )
-			{
-				// Only link measurements to predictions if we have predictions.
+				// Use the spot in the next frame has measurements.
+				final List< Spot > measurements = generateSpotList( spots, frame );
 
-				final JaqamanLinkingCostMatrixCreator< ComparableRealPoint, Spot > crm = new JaqamanLinkingCostMatrixCreator< ComparableRealPoint, Spot >( predictions, measurements, CF, maxCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
-				final JaqamanLinker< ComparableRealPoint, Spot > linker = new JaqamanLinker< ComparableRealPoint, Spot >( crm );
-				if ( !linker.checkInput() || !linker.process() )
+				// Predict for all Kalman filters, and use it to generate
+				// linking candidates.
+				if ( !kalmanFilters.predictAll() )
 				{
-					errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
+					errorMessage = BASE_ERROR_MSG + "Tracking cancelled.";
 					return false;
 				}
-				final Map< ComparableRealPoint, Spot > agnts = linker.getResult();
-				final Map< ComparableRealPoint, Double > costs = linker.getAssignmentCosts();
-
-				// Deal with found links.
-				orphanSpots = new HashSet< Spot >( measurements );
-				for ( final ComparableRealPoint cm : agnts.keySet() )
+				final int nFilters = kalmanFilters.size();
+				while ( predictionPool.size() < nFilters )
 				{
-					final CVMKalmanFilter kf = predictionMap.get( cm );
-
-					// Create links for found match.
-					final Spot source = kalmanFiltersMap.get( kf );
-					final Spot target = agnts.get( cm );
-
-					graph.addVertex( source );
-					graph.addVertex( target );
-					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = costs.get( cm );
-					graph.setEdgeWeight( edge, cost );
-
-					// Update Kalman filter
-					kf.update( toMeasurement( target ) );
+					predictionPool.add( new Prediction( kalmanFilters, predictionPool.size() ) );
+				}
+				final List< Prediction > predictions = predictionPool.subList( 0, nFilters );
 
-					// Update Kalman track spot
-					kalmanFiltersMap.put( kf, target );
+				if ( savePredictions )
+				{
+					for ( int i = 0; i < nFilters; i++ )
+					{
+						final Spot pred = new Spot( kalmanFilters.getPredictedPosition( i, 0 ), kalmanFilters.getPredictedPosition( i, 1 ), kalmanFilters.getPredictedPosition( i, 2 ), 2d, -1d );
+						final Spot s = kalmanFilters.getTag( i );
+						pred.setName( "Pred_" + s.getName() );
+						pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
+						predictionsCollection.add( pred, frame );
+					}
+				}
 
-					// Remove from orphan set
-					orphanSpots.remove( target );
+				// Find the global (in space) optimum for associating a
+				// prediction to a measurement.
 
-					// Remove from childless KF set
-					childlessKFs.remove( kf );
+				orphanSpots = new HashSet< Spot >( measurements );
+				if ( !predictions.isEmpty() && !measurements.isEmpty() )
+				{
+					// Only link measurements to predictions if we have
+					// predictions.
+
+					final JaqamanLinkingCostMatrixCreator< Prediction, Spot > crm = new JaqamanLinkingCostMatrixCreator< Prediction, Spot >( predictions, measurements, costFunction, maxCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
+					final JaqamanLinker< Prediction, Spot > linker = new JaqamanLinker< Prediction, Spot >( crm );
+					if ( !linker.checkInput() || !linker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
+						return false;
+					}
+					final Map< Prediction, Spot > agnts = linker.getResult();
+					final Map< Prediction, Double > costs = linker.getAssignmentCosts();
+
+					// Deal with found links.
+					for ( final Prediction cm : agnts.keySet() )
+					{
+						final int slot = cm.slot;
+
+						// Create links for found match.
+						final Spot source = kalmanFilters.getTag( slot );
+						final Spot target = agnts.get( cm );
+
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						final double cost = costs.get( cm );
+						graph.setEdgeWeight( edge, cost );
+
+						// Measurement for the Kalman filter
+						kalmanFilters.setMeasurement( slot, target.getDoublePosition( 0 ), target.getDoublePosition( 1 ), target.getDoublePosition( 2 ) );
+
+						// Update Kalman track spot
+						kalmanFilters.setTag( slot, target );
+
+						// Remove from orphan set
+						orphanSpots.remove( target );
+					}
 				}
-			}
 
-			/*
-			 * Deal with orphans from the previous frame. (We deal with orphans
-			 * from previous frame only now because we want to link in priority
-			 * target spots to predictions. Nucleating new KF from nearest
-			 * neighbor only comes second.
-			 */
-			if ( !previousOrphanSpots.isEmpty() && !orphanSpots.isEmpty() )
-			{
 				/*
-				 * We now deal with orphans of the previous frame. We try to
-				 * find them a target from the list of spots that are not
-				 * already part of a link created via KF. That is: the orphan
-				 * spots of this frame.
+				 * Update all KFs. The ones that did not find a measurement in
+				 * the target frame are considered occluded. We can bridge a
+				 * limited number of gaps. If too much, they die. If not, they
+				 * will use their predicted state next time.
 				 */
-
-				final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( previousOrphanSpots, orphanSpots, nucleatingCostFunction, maxInitialCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
-				final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker< Spot, Spot >( ic );
-				if ( !newLinker.checkInput() || !newLinker.process() )
+				if ( !kalmanFilters.updateAll() )
 				{
-					errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
+					errorMessage = BASE_ERROR_MSG + "Tracking cancelled.";
 					return false;
 				}
-				final Map< Spot, Spot > newAssignments = newLinker.getResult();
-				final Map< Spot, Double > assignmentCosts = newLinker.getAssignmentCosts();
+				kalmanFilters.prune( maxFrameGap );
 
-				// Build links and new KFs from these links.
-				for ( final Spot source : newAssignments.keySet() )
+				/*
+				 * Deal with orphans from the previous frame. (We deal with
+				 * orphans from previous frame only now because we want to link
+				 * in priority target spots to predictions. Nucleating new KF
+				 * from nearest neighbor only comes second.
+				 */
+				if ( !previousOrphanSpots.isEmpty() && !orphanSpots.isEmpty() )
 				{
-					final Spot target = newAssignments.get( source );
-
-					// Remove from orphan collection.
-					orphanSpots.remove( target );
-
-					// Derive initial state and create Kalman filter.
-					final double[] XP = estimateInitialState( source, target );
-					final CVMKalmanFilter kt = new CVMKalmanFilter( XP, Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
-					// We trust the initial state a lot.
-
-					// Store filter and source
-					kalmanFiltersMap.put( kt, target );
-
-					// Add edge to the graph.
-					graph.addVertex( source );
-					graph.addVertex( target );
-					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = assignmentCosts.get( source );
-					graph.setEdgeWeight( edge, cost );
+					/*
+					 * We now deal with orphans of the previous frame. We try to
+					 * find them a target from the list of spots that are not
+					 * already part of a link created via KF. That is: the
+					 * orphan spots of this frame.
+					 */
+
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( previousOrphanSpots, orphanSpots, nucleatingCostFunction, maxInitialCost, ALTERNATIVE_COST_FACTOR, PERCENTILE );
+					final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker< Spot, Spot >( ic );
+					if ( !newLinker.checkInput() || !newLinker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
+						return false;
+					}
+					final Map< Spot, Spot > newAssignments = newLinker.getResult();
+					final Map< Spot, Double > assignmentCosts = newLinker.getAssignmentCosts();
+
+					// Build links and new KFs from these links.
+					for ( final Spot source : newAssignments.keySet() )
+					{
+						final Spot target = newAssignments.get( source );
+
+						// Remove from orphan collection.
+						orphanSpots.remove( target );
+
+						// Derive initial state and create Kalman filter. We
+						// trust the initial state a lot. Store filter and
+						// source.
+						final double[] XP = estimateInitialState( source, target );
+						kalmanFilters.add( XP, Double.MIN_NORMAL, target );
+
+						// Add edge to the graph.
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						final double cost = assignmentCosts.get( source );
+						graph.setEdgeWeight( edge, cost );
+					}
 				}
-			}
-			previousOrphanSpots = orphanSpots;
+				previousOrphanSpots = orphanSpots;
 
-			// Deal with childless KFs.
-			for ( final CVMKalmanFilter kf : childlessKFs )
-			{
-				// Echo we missed a measurement
-				kf.update( null );
-
-				// We can bridge a limited number of gaps. If too much, we die.
-				// If not, we will use predicted state next time.
-				if ( kf.getNOcclusion() > maxFrameGap )
-				{
-					kalmanFiltersMap.remove( kf );
-				}
+				final double progress = ( double ) p / keySet.size();
+				logger.setProgress( progress );
 			}
-
-			final double progress = ( double ) p / keySet.size();
-			logger.setProgress( progress );
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MSG + "Tracking interrupted.";
+			return false;
 		}
 
 		if ( savePredictions )
@@ -348,16 +371,26 @@ public class KalmanTracker implements SpotTracker, Benchmark
 
 	@Override
 	public void setNumThreads()
-	{}
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	@Override
 	public void setNumThreads( final int numThreads )
-	{}
+	{
+		this.numThreads = numThreads;
+	}
 
 	@Override
 	public int getNumThreads()
 	{
-		return 1;
+		return numThreads;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
 	}
 
 	@Override
@@ -373,20 +406,6 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		this.logger = logger;
 	}
 
-	private static final double[] toMeasurement( final Spot spot )
-	{
-		final double[] d = new double[] {
-				spot.getDoublePosition( 0 ), spot.getDoublePosition( 1 ), spot.getDoublePosition( 2 )
-		};
-		return d;
-	}
-
-	private static final Spot toSpot( final ComparableRealPoint X )
-	{
-		final Spot spot = new Spot( X, 2d, -1d );
-		return spot;
-	}
-
 	private static final double[] estimateInitialState( final Spot first, final Spot second )
 	{
 		final double[] xp = new double[] { second.getDoublePosition( 0 ), second.getDoublePosition( 1 ), second.getDoublePosition( 2 ),
@@ -404,47 +423,97 @@ public class KalmanTracker implements SpotTracker, Benchmark
 		return list;
 	}
 
-	private static final class ComparableRealPoint extends RealPoint implements Comparable< ComparableRealPoint >
+	/**
+	 * A handle on the predicted position of the KF at a given slot of the
+	 * bank. Handles are reused from frame to frame, so that the linker can
+	 * be fed with the predictions without allocating new objects.
+	 */
+	private static final class Prediction implements RealLocalizable, Comparable< Prediction >
 	{
-		public ComparableRealPoint( final double[] A )
+		private final KalmanFilterBank< Spot > bank;
+
+		private final int slot;
+
+		public Prediction( final KalmanFilterBank< Spot > bank, final int slot )
 		{
-			// Wrap array.
-			super( A, false );
+			this.bank = bank;
+			this.slot = slot;
 		}
 
-		/**
-		 * Sort based on X, Y, Z
-		 */
 		@Override
-		public int compareTo( final ComparableRealPoint o )
+		public int numDimensions()
 		{
-			int i = 0;
-			while ( i < n )
+			return 3;
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < 3; d++ )
+			{
+				position[ d ] = getFloatPosition( d );
+			}
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			for ( int d = 0; d < 3; d++ )
 			{
-				if ( getDoublePosition( i ) != o.getDoublePosition( i ) ) { return ( int ) Math.signum( getDoublePosition( i ) - o.getDoublePosition( i ) ); }
-				i++;
+				position[ d ] = getDoublePosition( d );
 			}
-			return hashCode() - o.hashCode();
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return ( float ) getDoublePosition( d );
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return bank.getPredictedPosition( slot, d );
+		}
+
+		/**
+		 * Sort based on slot.
+		 */
+		@Override
+		public int compareTo( final Prediction o )
+		{
+			return slot < o.slot ? -1 : ( slot == o.slot ? 0 : 1 );
 		}
 	}
 
 	/**
-	 * Cost function that returns the square distance between a KF state and a
-	 * spots.
+	 * Cost function that returns the square distance between a KF prediction
+	 * and a spot.
 	 */
-	private static final CostFunction< ComparableRealPoint, Spot > CF = new CostFunction< ComparableRealPoint, Spot >()
-			{
+	private static final class PredictionToSpotCostFunction implements DistanceBoundedCostFunction< Prediction, Spot >
+	{
+
+		private final KalmanFilterBank< Spot > bank;
+
+		public PredictionToSpotCostFunction( final KalmanFilterBank< Spot > bank )
+		{
+			this.bank = bank;
+		}
 
 		@Override
-		public double linkingCost( final ComparableRealPoint state, final Spot spot )
+		public double linkingCost( final Prediction state, final Spot spot )
 		{
-			final double dx = state.getDoublePosition( 0 ) - spot.getDoublePosition( 0 );
-			final double dy = state.getDoublePosition( 1 ) - spot.getDoublePosition( 1 );
-			final double dz = state.getDoublePosition( 2 ) - spot.getDoublePosition( 2 );
+			final double dx = bank.getPredictedPosition( state.slot, 0 ) - spot.getDoublePosition( 0 );
+			final double dy = bank.getPredictedPosition( state.slot, 1 ) - spot.getDoublePosition( 1 );
+			final double dz = bank.getPredictedPosition( state.slot, 2 ) - spot.getDoublePosition( 2 );
 			return dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL;
 			// So that it's never 0
 		}
-			};
-
 
+		@Override
+		public double maxDistance( final double costThreshold )
+		{
+			return Math.sqrt( costThreshold );
+		}
+	}
 }
@@ -7,6 +7,8 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 import fiji.plugin.trackmate.util.TMUtils;
 
 import java.util.ArrayList;
@@ -14,17 +16,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.KDTree;
 import net.imglib2.RealPoint;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	implements SpotTracker {
+public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	implements SpotTracker, ExecutorServiceAware {
 
 	/*
 	 * FIELDS
@@ -38,6 +40,8 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 
 	protected SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
 
+	protected ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -72,84 +76,89 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 		final double maxDistSquare = maxLinkingDistance  * maxLinkingDistance;
 
 		final TreeSet<Integer> frames = new TreeSet<Integer>(spots.keySet());
-		final Thread[] threads = new Thread[numThreads];
 
-		// Prepare the thread array
+		// Prepare the worker
 		final AtomicInteger ai = new AtomicInteger(frames.first());
 		final AtomicInteger progress = new AtomicInteger(0);
-		for (int ithread = 0; ithread < threads.length; ithread++) {
-
-			threads[ithread] = new Thread("Nearest neighbor tracker thread "+(1+ithread)+"/"+threads.length) {
-
-				@Override
-				public void run() {
+		final Runnable worker = new Runnable() {
 
-					for (int i = ai.getAndIncrement(); i < frames.last(); i = ai.getAndIncrement()) {
+			@Override
+			public void run() {
 
-						// Build frame pair
-						final int sourceFrame = i;
-						final int targetFrame = frames.higher(i);
+				for (int i = ai.getAndIncrement(); i < frames.last(); i = ai.getAndIncrement()) {
+					if (ComputePool.isCancelled(service)) {
+						return;
+					}
 
-						final int nTargetSpots = spots.getNSpots(targetFrame, true);
-						if (nTargetSpots < 1) {
-							continue;
-						}
+					// Build frame pair
+					final int sourceFrame = i;
+					final int targetFrame = frames.higher(i);
 
-						final List<RealPoint> targetCoords = new ArrayList<RealPoint>(nTargetSpots);
-						final List<FlagNode<Spot>> targetNodes = new ArrayList<FlagNode<Spot>>(nTargetSpots);
-						final Iterator<Spot> targetIt = spots.iterator(targetFrame, true);
-						while (targetIt.hasNext()) {
-							final double[] coords = new double[3];
-							final Spot spot = targetIt.next();
-							TMUtils.localize(spot, coords);
-							targetCoords.add(new RealPoint(coords));
-							targetNodes.add(new FlagNode<Spot>(spot));
-						}
+					final int nTargetSpots = spots.getNSpots(targetFrame, true);
+					if (nTargetSpots < 1) {
+						continue;
+					}
 
+					final List<RealPoint> targetCoords = new ArrayList<RealPoint>(nTargetSpots);
+					final List<FlagNode<Spot>> targetNodes = new ArrayList<FlagNode<Spot>>(nTargetSpots);
+					final Iterator<Spot> targetIt = spots.iterator(targetFrame, true);
+					while (targetIt.hasNext()) {
+						final double[] coords = new double[3];
+						final Spot spot = targetIt.next();
+						TMUtils.localize(spot, coords);
+						targetCoords.add(new RealPoint(coords));
+						targetNodes.add(new FlagNode<Spot>(spot));
+					}
 
-						final KDTree<FlagNode<Spot>> tree = new KDTree<FlagNode<Spot>>(targetNodes, targetCoords);
-						final NearestNeighborFlagSearchOnKDTree<Spot> search = new NearestNeighborFlagSearchOnKDTree<Spot>(tree);
 
-						// For each spot in the source frame, find its nearest neighbor in the target frame
-						final Iterator<Spot> sourceIt = spots.iterator(sourceFrame, true);
-						while (sourceIt.hasNext()) {
-							final Spot source = sourceIt.next();
-							final double[] coords = new double[3];
-							TMUtils.localize(source, coords);
-							final RealPoint sourceCoords = new RealPoint(coords);
-							search.search(sourceCoords);
+					final KDTree<FlagNode<Spot>> tree = new KDTree<FlagNode<Spot>>(targetNodes, targetCoords);
+					final NearestNeighborFlagSearchOnKDTree<Spot> search = new NearestNeighborFlagSearchOnKDTree<Spot>(tree);
 
-							final double squareDist = search.getSquareDistance();
-							final FlagNode<Spot> targetNode = search.getSampler().get();
+					// For each spot in the source frame, find its nearest neighbor in the target frame
+					final Iterator<Spot> sourceIt = spots.iterator(sourceFrame, true);
+					while (sourceIt.hasNext()) {
+						final Spot source = sourceIt.next();
+						final double[] coords = new double[3];
+						TMUtils.localize(source, coords);
+						final RealPoint sourceCoords = new RealPoint(coords);
+						search.search(sourceCoords);
 
-							if (squareDist > maxDistSquare) {
-								// The closest we could find is too far. We skip this source spot and do not create a link
-								continue;
-							}
+						final double squareDist = search.getSquareDistance();
+						final FlagNode<Spot> targetNode = search.getSampler().get();
 
-							// Everything is ok. This mode is free and below max dist. We create a link
-							// and mark this node as assigned.
+						if (squareDist > maxDistSquare) {
+							// The closest we could find is too far. We skip this source spot and do not create a link
+							continue;
+						}
 
-							targetNode.setVisited(true);
-							synchronized (graph) {
-								final DefaultWeightedEdge edge = graph.addEdge(source, targetNode.getValue());
-								graph.setEdgeWeight(edge, squareDist);
-							}
+						// Everything is ok. This mode is free and below max dist. We create a link
+						// and mark this node as assigned.
 
+						targetNode.setVisited(true);
+						synchronized (graph) {
+							final DefaultWeightedEdge edge = graph.addEdge(source, targetNode.getValue());
+							graph.setEdgeWeight(edge, squareDist);
 						}
-						logger.setProgress(progress.incrementAndGet() / (float)frames.size() );
 
 					}
-				}
-			};
-
+					logger.setProgress(progress.incrementAndGet() / (float)frames.size() );
 
-		}
+				}
+			}
+		};
 
 		logger.setStatus("Tracking...");
 		logger.setProgress(0);
 
-		SimpleMultiThreading.startAndJoin(threads);
+		try {
+			if (!ComputePool.runAll(service, worker, numThreads, "Nearest neighbor tracker thread")) {
+				errorMessage = "Tracking cancelled.";
+				return false;
+			}
+		} catch (final InterruptedException e) {
+			errorMessage = "Tracking interrupted.";
+			return false;
+		}
 
 		logger.setProgress(1);
 		logger.setStatus("");
@@ -184,4 +193,9 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 	public void setLogger(final Logger logger) {
 		this.logger = logger;
 	}
+
+	@Override
+	public void setExecutorService(final ExecutorService service) {
+		this.service = service;
+	}
 }
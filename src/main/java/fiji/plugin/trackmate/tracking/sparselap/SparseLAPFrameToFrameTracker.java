@@ -15,21 +15,23 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostF
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, ExecutorServiceAware
 {
 	private final static String BASE_ERROR_MESSAGE = "[SparseLAPFrameToFrameTracker] ";
 
@@ -41,6 +43,8 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 
 	private final Map< String, Object > settings;
 
+	private ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -148,91 +152,99 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Instantiate graph
 		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
 
-		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-
-		// Prepare the thread array
+		// Prepare the workers
 		final AtomicInteger ai = new AtomicInteger( 0 );
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final AtomicBoolean ok = new AtomicBoolean( true );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		final Runnable worker = new Runnable()
 		{
-			threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + " thread " + ( 1 + ithread ) + "/" + threads.length )
+			@Override
+			public void run()
 			{
-				@Override
-				public void run()
+				for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement() )
 				{
-					for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement() )
+					if ( !ok.get() || ComputePool.isCancelled( service ) )
 					{
-						if ( !ok.get() )
-						{
-							break;
-						}
+						break;
+					}
 
-						// Get frame pairs
-						final int frame0 = framePairs.get( i )[ 0 ];
-						final int frame1 = framePairs.get( i )[ 1 ];
+					// Get frame pairs
+					final int frame0 = framePairs.get( i )[ 0 ];
+					final int frame1 = framePairs.get( i )[ 1 ];
 
-						// Get spots - we have to create a list from each
-						// content.
-						final List< Spot > sources = new ArrayList< Spot >( spots.getNSpots( frame0, true ) );
-						for ( final Iterator< Spot > iterator = spots.iterator( frame0, true ); iterator.hasNext(); )
-						{
-							sources.add( iterator.next() );
-						}
+					// Get spots - we have to create a list from each
+					// content.
+					final List< Spot > sources = new ArrayList< Spot >( spots.getNSpots( frame0, true ) );
+					for ( final Iterator< Spot > iterator = spots.iterator( frame0, true ); iterator.hasNext(); )
+					{
+						sources.add( iterator.next() );
+					}
 
-						final List< Spot > targets = new ArrayList< Spot >( spots.getNSpots( frame1, true ) );
-						for ( final Iterator< Spot > iterator = spots.iterator( frame1, true ); iterator.hasNext(); )
-						{
-							targets.add( iterator.next() );
-						}
+					final List< Spot > targets = new ArrayList< Spot >( spots.getNSpots( frame1, true ) );
+					for ( final Iterator< Spot > iterator = spots.iterator( frame1, true ); iterator.hasNext(); )
+					{
+						targets.add( iterator.next() );
+					}
 
-						if ( sources.isEmpty() || targets.isEmpty() )
-						{
-							continue;
-						}
+					if ( sources.isEmpty() || targets.isEmpty() )
+					{
+						continue;
+					}
 
-						/*
-						 * Run the linker.
-						 */
+					/*
+					 * Run the linker.
+					 */
 
-						final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
-						final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
-						if ( !linker.checkInput() || !linker.process() )
-						{
-							errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
-							ok.set( false );
-							return;
-						}
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+					final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
+					// Frame pairs are already processed in parallel.
+					linker.setNumThreads( 1 );
+					if ( !linker.checkInput() || !linker.process() )
+					{
+						errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
+						ok.set( false );
+						return;
+					}
 
-						/*
-						 * Update graph.
-						 */
+					/*
+					 * Update graph.
+					 */
 
-						synchronized ( graph )
+					synchronized ( graph )
+					{
+						final Map< Spot, Double > costs = linker.getAssignmentCosts();
+						final Map< Spot, Spot > assignment = linker.getResult();
+						for ( final Spot source : assignment.keySet() )
 						{
-							final Map< Spot, Double > costs = linker.getAssignmentCosts();
-							final Map< Spot, Spot > assignment = linker.getResult();
-							for ( final Spot source : assignment.keySet() )
-							{
-								final double cost = costs.get( source );
-								final Spot target = assignment.get( source );
-								graph.addVertex( source );
-								graph.addVertex( target );
-								final DefaultWeightedEdge edge = graph.addEdge( source, target );
-								graph.setEdgeWeight( edge, cost );
-							}
+							final double cost = costs.get( source );
+							final Spot target = assignment.get( source );
+							graph.addVertex( source );
+							graph.addVertex( target );
+							final DefaultWeightedEdge edge = graph.addEdge( source, target );
+							graph.setEdgeWeight( edge, cost );
 						}
+					}
 
-						logger.setProgress( progress.incrementAndGet() / framePairs.size() );
+					logger.setProgress( progress.incrementAndGet() / framePairs.size() );
 
-					}
 				}
-			};
-		}
+			}
+		};
 
 		logger.setStatus( "Frame to frame linking..." );
-		SimpleMultiThreading.startAndJoin( threads );
+		try
+		{
+			if ( !ComputePool.runAll( service, worker, numThreads, BASE_ERROR_MESSAGE + " thread" ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Linking cancelled.";
+				ok.set( false );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Linking interrupted.";
+			ok.set( false );
+		}
 		logger.setProgress( 1d );
 		logger.setStatus( "" );
 
@@ -248,6 +260,12 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		this.logger = logger;
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
 	{
 		if ( null == settings )
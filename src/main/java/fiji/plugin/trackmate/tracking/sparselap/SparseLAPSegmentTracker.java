@@ -14,8 +14,10 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanSegmentCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.Benchmark;
 
@@ -54,7 +56,7 @@ import org.jgrapht.graph.SimpleWeightedGraph;
  * The class itself uses a sparse version of the cost matrix and a solver that
  * can exploit it. Therefore it is optimized for memory usage rather than speed.
  */
-public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
+public class SparseLAPSegmentTracker implements SpotTracker, Benchmark, ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[SparseLAPSegmentTracker] ";
@@ -71,6 +73,8 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 
 	private int numThreads;
 
+	private ExecutorService service;
+
 	public SparseLAPSegmentTracker( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< String, Object > settings )
 	{
 		this.graph = graph;
@@ -125,8 +129,12 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 		logger.setProgress( 0d );
 		logger.setStatus( "Creating the segment linking cost matrix..." );
 		final JaqamanSegmentCostMatrixCreator costMatrixCreator = new JaqamanSegmentCostMatrixCreator( graph, settings );
+		costMatrixCreator.setNumThreads( numThreads );
+		costMatrixCreator.setExecutorService( service );
 		final SlaveLogger jlLogger = new SlaveLogger( logger, 0, 0.9 );
 		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( costMatrixCreator, jlLogger );
+		linker.setNumThreads( numThreads );
+		linker.setExecutorService( service );
 		if ( !linker.checkInput() || !linker.process() )
 		{
 			errorMessage = linker.getErrorMessage();
@@ -221,4 +229,10 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 	{
 		return numThreads;
 	}
+
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
 }
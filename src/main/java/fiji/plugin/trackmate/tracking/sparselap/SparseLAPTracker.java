@@ -23,18 +23,20 @@ import fiji.plugin.trackmate.Logger.SlaveLogger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, ExecutorServiceAware
 {
 	private final static String BASE_ERROR_MESSAGE = "[SparseLAPTracker] ";
 
@@ -46,6 +48,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 	private final Map< String, Object > settings;
 
+	private ExecutorService service;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -136,6 +140,7 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 		final SparseLAPFrameToFrameTracker frameToFrameLinker = new SparseLAPFrameToFrameTracker( spots, ftfSettings );
 		frameToFrameLinker.setNumThreads( numThreads );
+		frameToFrameLinker.setExecutorService( service );
 		final SlaveLogger ftfLogger = new SlaveLogger( logger, 0, 0.5 );
 		frameToFrameLinker.setLogger( ftfLogger );
 
@@ -173,6 +178,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		// Solve.
 		final SparseLAPSegmentTracker segmentLinker = new SparseLAPSegmentTracker( graph, slSettings );
 		final SlaveLogger slLogger = new SlaveLogger( logger, 0.5, 0.5 );
+		segmentLinker.setNumThreads( numThreads );
+		segmentLinker.setExecutorService( service );
 		segmentLinker.setLogger( slLogger );
 
 		if ( !segmentLinker.checkInput() || !segmentLinker.process() )
@@ -196,6 +203,12 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		this.logger = logger;
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
 	{
 		if ( null == settings )
@@ -0,0 +1,44 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Interface for cost functions whose cost can only be below a threshold if the
+ * source and the target are close enough in space.
+ * <p>
+ * Cost matrix creators can exploit this property to only score candidate
+ * pairs that are within the distance returned by
+ * {@link #maxDistance(double)}, instead of scoring all possible pairs. For the
+ * pruning to be exact, implementations must guarantee that for any source
+ * <code>s</code> and target <code>t</code>:
+ *
+ * <pre>
+ * linkingCost( s, t ) &lt; threshold &rArr; distance( s, t ) &le; maxDistance( threshold )
+ * </pre>
+ *
+ * where the distance is the Euclidean distance measured over the first 3
+ * dimensions of the source and target positions.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ *
+ * @param <K>
+ *            the type of the sources.
+ * @param <J>
+ *            the type of the targets.
+ */
+public interface DistanceBoundedCostFunction< K extends RealLocalizable, J extends RealLocalizable > extends CostFunction< K, J >
+{
+
+	/**
+	 * Returns the largest distance between a source and a target for which
+	 * the linking cost can be strictly lower than the specified threshold.
+	 *
+	 * @param costThreshold
+	 *            the cost threshold.
+	 * @return the maximal distance, in the units of the object positions. Can
+	 *         be {@link Double#POSITIVE_INFINITY} if no bound can be given for
+	 *         this threshold.
+	 */
+	public double maxDistance( double costThreshold );
+
+}
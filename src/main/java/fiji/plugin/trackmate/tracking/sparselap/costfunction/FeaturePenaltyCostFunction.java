@@ -34,11 +34,23 @@ import java.util.Map;
 public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 {
 
-	private final Map< String, Double > featurePenalties;
+	/** The spot feature slots of the penalized features. */
+	private final int[] featureIndices;
+
+	/** The penalty factors, in the same order that the feature slots. */
+	private final double[] factors;
 
 	public FeaturePenaltyCostFunction( final Map< String, Double > featurePenalties )
 	{
-		this.featurePenalties = featurePenalties;
+		this.featureIndices = new int[ featurePenalties.size() ];
+		this.factors = new double[ featurePenalties.size() ];
+		int index = 0;
+		for ( final String feature : featurePenalties.keySet() )
+		{
+			featureIndices[ index ] = Spot.featureIndex( feature );
+			factors[ index ] = featurePenalties.get( feature ).doubleValue();
+			index++;
+		}
 	}
 
 	@Override
@@ -47,15 +59,16 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 		final double d2 = source.squareDistanceTo( target );
 
 		double penalty = 1;
-		for ( final String feature : featurePenalties.keySet() )
+		for ( int i = 0; i < featureIndices.length; i++ )
 		{
-			final double ndiff = source.normalizeDiffTo( target, feature );
+			final double a = source.getFeature( featureIndices[ i ] );
+			final double b = target.getFeature( featureIndices[ i ] );
+			final double ndiff = ( a == -b ) ? 0d : Math.abs( a - b ) / ( ( a + b ) / 2 );
 			if ( Double.isNaN( ndiff ) )
 			{
 				continue;
 			}
-			final double factor = featurePenalties.get( feature );
-			penalty += factor * 1.5 * ndiff;
+			penalty += factors[ i ] * 1.5 * ndiff;
 		}
 
 		return d2 * penalty * penalty;
@@ -9,7 +9,7 @@ import fiji.plugin.trackmate.Spot;
  * @author Jean-Yves Tinevez - 2014
  * 
  */
-public class SquareDistCostFunction implements CostFunction< Spot, Spot >
+public class SquareDistCostFunction implements DistanceBoundedCostFunction< Spot, Spot >
 {
 
 	@Override
@@ -18,4 +18,10 @@ public class SquareDistCostFunction implements CostFunction< Spot, Spot >
 		return source.squareDistanceTo( target );
 	}
 
+	@Override
+	public double maxDistance( final double costThreshold )
+	{
+		return Math.sqrt( costThreshold );
+	}
+
 }
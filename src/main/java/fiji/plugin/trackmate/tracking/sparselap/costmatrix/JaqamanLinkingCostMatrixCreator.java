@@ -1,16 +1,27 @@
 package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import net.imglib2.RealLocalizable;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.DistanceBoundedCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
 /**
  * A {@link CostMatrixCreator} that can generate a cost matrix from a list of
  * sources, a list of targets and a {@link CostFunction} that can generate a
  * cost for any combination.
+ * <p>
+ * If the cost function is a {@link DistanceBoundedCostFunction}, the targets
+ * are first bucketed in a uniform spatial grid whose cells are sized by the
+ * maximal distance allowed by the cost threshold, and each source is only
+ * scored against the targets of the neighboring cells. Since the cost
+ * function guarantees that pairs farther apart cannot have a cost below the
+ * threshold, the resulting cost matrix is identical to the one obtained by
+ * scoring all pairs.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -81,17 +92,25 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		final List< J > accTargets = new ArrayList< J >();
 		final ResizableDoubleArray costs = new ResizableDoubleArray();
 
-		for ( final K source : sources )
+		final double maxDistance = ( costFunction instanceof DistanceBoundedCostFunction ) ? ( ( DistanceBoundedCostFunction< ?, ? > ) costFunction ).maxDistance( costThreshold ) : Double.POSITIVE_INFINITY;
+		if ( maxDistance >= 0 && !Double.isInfinite( maxDistance ) && !Double.isNaN( maxDistance ) )
 		{
-			for ( final J target : targets )
+			generateCandidatesInGrid( maxDistance, accSources, accTargets, costs );
+		}
+		else
+		{
+			for ( final K source : sources )
 			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
+				for ( final J target : targets )
 				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
+
+					final double cost = costFunction.linkingCost( source, target );
+					if ( cost < costThreshold )
+					{
+						accSources.add( source );
+						accTargets.add( target );
+						costs.add( cost );
+					}
 				}
 			}
 		}
@@ -134,6 +153,166 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		return true;
 	}
 
+	/**
+	 * Scores each source against the targets found within the specified
+	 * distance, using a uniform grid over the targets. Accepted pairs are
+	 * appended in the same order as the all-pairs loop would produce them.
+	 */
+	private void generateCandidatesInGrid( final double maxDistance, final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< J > targetList = new ArrayList< J >();
+		for ( final J target : targets )
+		{
+			targetList.add( target );
+		}
+		final int nTargets = targetList.size();
+
+		// Guard against round-off errors in the distance bound.
+		final double radius = maxDistance * ( 1d + 1e-9 ) + Double.MIN_NORMAL;
+
+		// Target positions and bounding box.
+		final double[][] pos = new double[ 3 ][ nTargets ];
+		final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for ( int j = 0; j < nTargets; j++ )
+		{
+			final RealLocalizable target = ( RealLocalizable ) targetList.get( j );
+			final int nd = Math.min( 3, target.numDimensions() );
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double x = target.getDoublePosition( d );
+				pos[ d ][ j ] = x;
+				if ( x < min[ d ] )
+					min[ d ] = x;
+				if ( x > max[ d ] )
+					max[ d ] = x;
+			}
+			for ( int d = nd; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], 0d );
+				max[ d ] = Math.max( max[ d ], 0d );
+			}
+		}
+
+		/*
+		 * Cell size: the search radius, unless it would create too many cells
+		 * for the number of targets.
+		 */
+		double cellSize = Math.max( radius, Double.MIN_NORMAL );
+		while ( numCells( min, max, cellSize ) > 8d * nTargets + 1 )
+		{
+			cellSize *= 2;
+		}
+		final int[] dims = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			dims[ d ] = 1 + ( int ) Math.floor( ( max[ d ] - min[ d ] ) / cellSize );
+		}
+
+		// Counting sort of targets into cells, keeping their original order.
+		final int nCells = dims[ 0 ] * dims[ 1 ] * dims[ 2 ];
+		final int[] cellStart = new int[ nCells + 1 ];
+		final int[] cellOf = new int[ nTargets ];
+		for ( int j = 0; j < nTargets; j++ )
+		{
+			int cell = 0;
+			for ( int d = 2; d >= 0; d-- )
+			{
+				final int i = Math.min( dims[ d ] - 1, ( int ) Math.floor( ( pos[ d ][ j ] - min[ d ] ) / cellSize ) );
+				cell = cell * dims[ d ] + i;
+			}
+			cellOf[ j ] = cell;
+			cellStart[ cell + 1 ]++;
+		}
+		for ( int c = 0; c < nCells; c++ )
+		{
+			cellStart[ c + 1 ] += cellStart[ c ];
+		}
+		final int[] sorted = new int[ nTargets ];
+		final int[] fill = Arrays.copyOf( cellStart, nCells );
+		for ( int j = 0; j < nTargets; j++ )
+		{
+			sorted[ fill[ cellOf[ j ] ]++ ] = j;
+		}
+
+		// Score each source against its neighborhood.
+		final double[] sp = new double[ 3 ];
+		final int[] lo = new int[ 3 ];
+		final int[] hi = new int[ 3 ];
+		int[] candidates = new int[ 16 ];
+		for ( final K source : sources )
+		{
+			final RealLocalizable rl = ( RealLocalizable ) source;
+			final int nd = Math.min( 3, rl.numDimensions() );
+			for ( int d = 0; d < 3; d++ )
+			{
+				sp[ d ] = d < nd ? rl.getDoublePosition( d ) : 0d;
+			}
+
+			boolean outside = false;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final int l = ( int ) Math.floor( ( sp[ d ] - radius - min[ d ] ) / cellSize );
+				final int h = ( int ) Math.floor( ( sp[ d ] + radius - min[ d ] ) / cellSize );
+				if ( h < 0 || l >= dims[ d ] )
+				{
+					outside = true;
+					break;
+				}
+				lo[ d ] = Math.max( 0, l );
+				hi[ d ] = Math.min( dims[ d ] - 1, h );
+			}
+			if ( outside )
+			{
+				continue;
+			}
+
+			int nCandidates = 0;
+			for ( int z = lo[ 2 ]; z <= hi[ 2 ]; z++ )
+			{
+				for ( int y = lo[ 1 ]; y <= hi[ 1 ]; y++ )
+				{
+					for ( int x = lo[ 0 ]; x <= hi[ 0 ]; x++ )
+					{
+						final int cell = x + dims[ 0 ] * ( y + dims[ 1 ] * z );
+						for ( int k = cellStart[ cell ]; k < cellStart[ cell + 1 ]; k++ )
+						{
+							if ( nCandidates == candidates.length )
+							{
+								candidates = Arrays.copyOf( candidates, 2 * nCandidates );
+							}
+							candidates[ nCandidates++ ] = sorted[ k ];
+						}
+					}
+				}
+			}
+
+			// Restore the target order of the all-pairs loop.
+			Arrays.sort( candidates, 0, nCandidates );
+			for ( int k = 0; k < nCandidates; k++ )
+			{
+				final J target = targetList.get( candidates[ k ] );
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
+	private static final double numCells( final double[] min, final double[] max, final double cellSize )
+	{
+		double n = 1;
+		for ( int d = 0; d < 3; d++ )
+		{
+			n *= 1 + Math.floor( ( max[ d ] - min[ d ] ) / cellSize );
+		}
+		return n;
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
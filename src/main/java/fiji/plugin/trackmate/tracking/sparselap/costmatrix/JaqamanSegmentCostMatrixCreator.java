@@ -20,14 +20,14 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import net.imglib2.algorithm.MultiThreaded;
 
@@ -52,7 +52,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  * @author Jean-Yves Tinevez - 2014
  * 
  */
-public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot, Spot >, MultiThreaded
+public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot, Spot >, MultiThreaded, ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[JaqamanSegmentCostMatrixCreator] ";
@@ -75,6 +75,8 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 	private int numThreads;
 
+	private ExecutorService service;
+
 	/**
 	 * Instantiates a cost matrix creator for the top-left quadrant of the
 	 * segment linking cost matrix.
@@ -197,10 +199,10 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		 * (gap-closing) then the segment middles (merging).
 		 */
 
-		final ExecutorService executorGCM = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > gcmTasks = new ArrayList< Runnable >();
 		for ( final Spot source : segmentEnds )
 		{
-			executorGCM.submit( new Runnable()
+			gcmTasks.add( new Runnable()
 			{
 				@Override
 				public void run()
@@ -274,26 +276,17 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 				}
 			} );
 		}
-		executorGCM.shutdown();
-		try
-		{
-			executorGCM.awaitTermination( 1, TimeUnit.DAYS );
-		}
-		catch ( final InterruptedException e )
-		{
-			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
-			return false;
-		}
+		if ( !execute( gcmTasks ) ) { return false; }
 
 		/*
 		 * Iterate over middle points targeting segment starts - SPLITTING
 		 */
 		if ( allowSplitting )
 		{
-			final ExecutorService executorS = Executors.newFixedThreadPool( numThreads );
+			final List< Runnable > sTasks = new ArrayList< Runnable >();
 			for ( final Spot source : allMiddles )
 			{
-				executorS.submit( new Runnable()
+				sTasks.add( new Runnable()
 				{
 					@Override
 					public void run()
@@ -327,15 +320,7 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 				}
 						);
 			}
-			executorS.shutdown();
-			try
-			{
-				executorS.awaitTermination( 1, TimeUnit.DAYS );
-			}
-			catch ( final InterruptedException e )
-			{
-				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
-			}
+			if ( !execute( sTasks ) ) { return false; }
 		}
 		linkCosts.trimToSize();
 
@@ -493,4 +478,43 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return numThreads;
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	/**
+	 * Runs the specified tasks on the executor service, or on the shared
+	 * compute pool if none was set, and waits for them to complete.
+	 *
+	 * @return <code>false</code> if the tasks were interrupted or cancelled.
+	 */
+	private boolean execute( final List< Runnable > tasks )
+	{
+		// Does not create threads: it submits to the shared pool.
+		final ExecutorService executors = null == service ? new ComputePool( numThreads ) : service;
+		try
+		{
+			if ( !ComputePool.invokeAll( executors, tasks ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Cost matrix creation cancelled.";
+				return false;
+			}
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+		finally
+		{
+			if ( executors != service )
+			{
+				executors.shutdown();
+			}
+		}
+	}
+
 }
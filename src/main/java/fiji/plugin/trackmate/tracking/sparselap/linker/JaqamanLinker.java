@@ -3,22 +3,37 @@ package fiji.plugin.trackmate.tracking.sparselap.linker;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
+import fiji.plugin.trackmate.util.ComputePool;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
-import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
  * <i>et al.</i>, Nature Methods, <b>2008</b>.
- * 
+ * <p>
+ * The sources and targets that can be linked together form in practice many
+ * small independent clusters. The cost matrix is split along these connected
+ * components, which are then solved separately, in parallel if this linker is
+ * given more than one thread. The solution has the same total cost as the
+ * solution of the whole matrix.
+ *
  * @author Jean-Yves Tinevez - 2014
  * 
  * @param <K>
@@ -26,7 +41,7 @@ import net.imglib2.util.Util;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, ExecutorServiceAware
 {
 	private Map< K, J > assignments;
 
@@ -36,6 +51,8 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	private ExecutorService service;
+
 	/**
 	 * Creates a new linker for the two specified object lists.
 	 * 
@@ -64,6 +81,16 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		this( costMatrixCreator, Logger.VOID_LOGGER );
 	}
 
+	/**
+	 * Sets the executor service the components of the cost matrix are solved
+	 * on. If <code>null</code>, they are solved on the shared compute pool.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
 	/**
 	 * Returns the resulting assignments from this algorithm.
 	 * <p>
@@ -130,7 +157,7 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		}
 
 		/*
-		 * Complement the cost matrix with alternative no linking cost matrix.
+		 * Alternative costs.
 		 */
 
 		logger.setStatus( "Completing the cost matrix..." );
@@ -138,75 +165,128 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		final int nCols = tl.getNCols();
 		final int nRows = tl.getNRows();
 
-		/*
-		 * Top right
-		 */
-
-		final double[] cctr = new double[ nRows ];
-		final int[] kktr = new int[ nRows ];
+		final double[] sourceAltCosts = new double[ nRows ];
 		for ( int i = 0; i < nRows; i++ )
 		{
-			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+			sourceAltCosts[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
 		}
-		final int[] numbertr = new int[ nRows ];
-		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
-
-		/*
-		 * Bottom left
-		 */
-		final double[] ccbl = new double[ nCols ];
-		final int[] kkbl = new int[ nCols ];
-		for ( int i = 0; i < kkbl.length; i++ )
+		final double[] targetAltCosts = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
 		{
-			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
+			targetAltCosts[ j ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) );
 		}
-		final int[] numberbl = new int[ nCols ];
-		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
 
 		/*
-		 * Bottom right.
-		 * 
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
+		 * Alt. cost for the bottom right block is the overall min of
+		 * alternative costs. This deviate or extend a bit the u-track code. It
+		 * is computed over the whole problem so that splitting it in
+		 * components does not change it.
 		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
-		final SparseCostMatrix br = tl.transpose();
-		br.fillWith( minCost );
+		final double minCost = Math.min( Util.min( targetAltCosts ), Util.min( sourceAltCosts ) );
 
 		/*
-		 * Stitch them together
+		 * Split the problem in independent components.
 		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+
+		final List< Component > components = findComponents( tl );
 		logger.setProgress( 0.6 );
 
 		/*
-		 * Solve the full cost matrix.
+		 * Solve each component.
 		 */
+
 		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
-		if ( !solver.checkInput() || !solver.process() )
+		final int[] rowAssignment = new int[ nRows ];
+		Arrays.fill( rowAssignment, -1 );
+		if ( numThreads > 1 && components.size() > 1 )
 		{
-			errorMessage = solver.getErrorMessage();
-			return false;
+			// Does not create threads: it submits to the shared pool.
+			final ExecutorService executors = null == service ? new ComputePool( Math.min( numThreads, components.size() ) ) : service;
+			final List< Future< int[] > > futures = new ArrayList< Future< int[] > >( components.size() );
+			try
+			{
+				for ( final Component component : components )
+				{
+					futures.add( executors.submit( new Callable< int[] >()
+					{
+						@Override
+						public int[] call() throws Exception
+						{
+							return component.solve( tl, sourceAltCosts, targetAltCosts, minCost );
+						}
+					} ) );
+				}
+				for ( int c = 0; c < components.size(); c++ )
+				{
+					if ( ComputePool.isCancelled( executors ) )
+					{
+						errorMessage = "Solving the cost matrix was cancelled.";
+						return false;
+					}
+					final int[] assgn = futures.get( c ).get();
+					if ( null == assgn )
+					{
+						errorMessage = components.get( c ).errorMessage;
+						return false;
+					}
+					components.get( c ).storeAssignment( assgn, rowAssignment );
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				errorMessage = "Interrupted while solving the cost matrix.";
+				return false;
+			}
+			catch ( final ExecutionException e )
+			{
+				errorMessage = "Problem while solving the cost matrix: " + e.getCause().getMessage();
+				return false;
+			}
+			catch ( final RejectedExecutionException e )
+			{
+				errorMessage = "Solving the cost matrix was cancelled.";
+				return false;
+			}
+			finally
+			{
+				// Components not solved yet when we return early.
+				for ( final Future< int[] > future : futures )
+				{
+					future.cancel( true );
+				}
+				if ( executors != service )
+				{
+					executors.shutdownNow();
+				}
+			}
+		}
+		else
+		{
+			for ( final Component component : components )
+			{
+				final int[] assgn = component.solve( tl, sourceAltCosts, targetAltCosts, minCost );
+				if ( null == assgn )
+				{
+					errorMessage = component.errorMessage;
+					return false;
+				}
+				component.storeAssignment( assgn, rowAssignment );
+			}
 		}
 
-		final int[] assgn = solver.getResult();
 		assignments = new HashMap< K, J >();
 		costs = new HashMap< K, Double >();
-		for ( int i = 0; i < assgn.length; i++ )
+		for ( int i = 0; i < nRows; i++ )
 		{
-			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			final int j = rowAssignment[ i ];
+			if ( j >= 0 )
 			{
 				final K source = matrixRows.get( i );
 				final J target = matrixCols.get( j );
 				assignments.put( source, target );
 
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
+				final double cost = tl.get( i, j, Double.POSITIVE_INFINITY );
 				costs.put( source, Double.valueOf( cost ) );
 			}
 		}
@@ -219,6 +299,278 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		return true;
 	}
 
+	/**
+	 * Splits the linking block of the cost matrix in its connected components.
+	 * <p>
+	 * Two sources are in the same component if they share a target they can
+	 * link to, and conversely. Since alternative costs only relate an object to
+	 * itself, and since the bottom-right block is the transpose of the linking
+	 * block, the full Jaqaman cost matrix is block-diagonal over these
+	 * components, and each of them can be solved independently.
+	 * <p>
+	 * Components are returned sorted by decreasing number of non-infinite
+	 * costs, so that the largest ones are started first when solving in
+	 * parallel.
+	 *
+	 * @param tl
+	 *            the linking block of the cost matrix.
+	 * @return a new list of components.
+	 */
+	private static List< Component > findComponents( final SparseCostMatrix tl )
+	{
+		final int nRows = tl.nRows;
+		final int nCols = tl.nCols;
+
+		// Union-find over rows then columns.
+		final int[] parent = new int[ nRows + nCols ];
+		for ( int i = 0; i < parent.length; i++ )
+		{
+			parent[ i ] = i;
+		}
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = tl.start[ i ]; k < tl.start[ i ] + tl.number[ i ]; k++ )
+			{
+				final int ri = find( parent, i );
+				final int rj = find( parent, nRows + tl.kk[ k ] );
+				if ( ri != rj )
+				{
+					parent[ Math.max( ri, rj ) ] = Math.min( ri, rj );
+				}
+			}
+		}
+
+		// Label components and count their rows, columns and costs.
+		final int[] label = new int[ nRows + nCols ];
+		Arrays.fill( label, -1 );
+		int nComponents = 0;
+		for ( int i = 0; i < parent.length; i++ )
+		{
+			final int root = find( parent, i );
+			if ( label[ root ] < 0 )
+			{
+				label[ root ] = nComponents++;
+			}
+			label[ i ] = label[ root ];
+		}
+		final int[] rowCounts = new int[ nComponents ];
+		final int[] colCounts = new int[ nComponents ];
+		final int[] cardinalities = new int[ nComponents ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			rowCounts[ label[ i ] ]++;
+			cardinalities[ label[ i ] ] += tl.number[ i ];
+		}
+		for ( int j = 0; j < nCols; j++ )
+		{
+			colCounts[ label[ nRows + j ] ]++;
+		}
+
+		// Fill them. Rows and columns are kept in ascending order.
+		final Component[] array = new Component[ nComponents ];
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			array[ c ] = new Component( rowCounts[ c ], colCounts[ c ], cardinalities[ c ] );
+		}
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final Component component = array[ label[ i ] ];
+			component.rows[ component.nRowsAdded++ ] = i;
+		}
+		final int[] localCol = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final Component component = array[ label[ nRows + j ] ];
+			localCol[ j ] = component.nColsAdded;
+			component.cols[ component.nColsAdded++ ] = j;
+		}
+		for ( final Component component : array )
+		{
+			component.localCols = localCol;
+		}
+
+		final List< Component > components = new ArrayList< Component >( nComponents );
+		for ( final Component component : array )
+		{
+			if ( component.cardinality > 0 )
+			{
+				components.add( component );
+			}
+		}
+		Collections.sort( components, BY_DECREASING_CARDINALITY );
+		return components;
+	}
+
+	private static int find( final int[] parent, final int i )
+	{
+		int root = i;
+		while ( parent[ root ] != root )
+		{
+			root = parent[ root ];
+		}
+		// Path compression.
+		int node = i;
+		while ( parent[ node ] != root )
+		{
+			final int next = parent[ node ];
+			parent[ node ] = root;
+			node = next;
+		}
+		return root;
+	}
+
+	private static final Comparator< Component > BY_DECREASING_CARDINALITY = new Comparator< Component >()
+	{
+		@Override
+		public int compare( final Component o1, final Component o2 )
+		{
+			return o2.cardinality < o1.cardinality ? -1 : ( o2.cardinality == o1.cardinality ? 0 : 1 );
+		}
+	};
+
+	/**
+	 * A connected component of the linking block of the cost matrix, and the
+	 * means to solve it as an independent LAP.
+	 */
+	private static final class Component
+	{
+
+		/** The rows of this component, in the linking block, in ascending order. */
+		private final int[] rows;
+
+		/** The columns of this component, in the linking block, in ascending order. */
+		private final int[] cols;
+
+		/** The number of non-infinite costs in this component. */
+		private final int cardinality;
+
+		/**
+		 * Maps a column of the linking block to its index in its own
+		 * component. Shared by all components.
+		 */
+		private int[] localCols;
+
+		private int nRowsAdded = 0;
+
+		private int nColsAdded = 0;
+
+		private String errorMessage;
+
+		private Component( final int nRows, final int nCols, final int cardinality )
+		{
+			this.rows = new int[ nRows ];
+			this.cols = new int[ nCols ];
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * Builds the full Jaqaman cost matrix of this component and solves it.
+		 *
+		 * @return the assignment of the component rows to the component
+		 *         columns, with <code>-1</code> for rows that are not linked,
+		 *         or <code>null</code> if the solver failed.
+		 */
+		private int[] solve( final SparseCostMatrix tl, final double[] sourceAltCosts, final double[] targetAltCosts, final double minCost )
+		{
+			final int nRows = rows.length;
+			final int nCols = cols.length;
+
+			/*
+			 * Top left: the linking costs restricted to this component.
+			 */
+
+			final double[] cctl = new double[ cardinality ];
+			final int[] kktl = new int[ cardinality ];
+			final int[] numbertl = new int[ nRows ];
+			int index = 0;
+			for ( int i = 0; i < nRows; i++ )
+			{
+				final int row = rows[ i ];
+				final int n = tl.number[ row ];
+				final int start = tl.start[ row ];
+				System.arraycopy( tl.cc, start, cctl, index, n );
+				for ( int k = 0; k < n; k++ )
+				{
+					kktl[ index + k ] = localCols[ tl.kk[ start + k ] ];
+				}
+				numbertl[ i ] = n;
+				index += n;
+			}
+			final SparseCostMatrix ltl = new SparseCostMatrix( cctl, kktl, numbertl, nCols );
+
+			/*
+			 * Top right
+			 */
+
+			final double[] cctr = new double[ nRows ];
+			final int[] kktr = new int[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+			{
+				kktr[ i ] = i;
+				cctr[ i ] = sourceAltCosts[ rows[ i ] ];
+			}
+			final int[] numbertr = new int[ nRows ];
+			Arrays.fill( numbertr, 1 );
+			final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+
+			/*
+			 * Bottom left
+			 */
+
+			final double[] ccbl = new double[ nCols ];
+			final int[] kkbl = new int[ nCols ];
+			for ( int j = 0; j < nCols; j++ )
+			{
+				kkbl[ j ] = j;
+				ccbl[ j ] = targetAltCosts[ cols[ j ] ];
+			}
+			final int[] numberbl = new int[ nCols ];
+			Arrays.fill( numberbl, 1 );
+			final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+
+			/*
+			 * Bottom right.
+			 */
+
+			final SparseCostMatrix br = ltl.transpose();
+			br.fillWith( minCost );
+
+			/*
+			 * Stitch them together and solve.
+			 */
+
+			final SparseCostMatrix full = ( ltl.hcat( tr ) ).vcat( bl.hcat( br ) );
+			final LAPJV solver = new LAPJV( full );
+			if ( !solver.checkInput() || !solver.process() )
+			{
+				errorMessage = solver.getErrorMessage();
+				return null;
+			}
+
+			final int[] assgn = solver.getResult();
+			final int[] rowAssignment = new int[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+			{
+				final int j = assgn[ i ];
+				rowAssignment[ i ] = j < nCols ? j : -1;
+			}
+			return rowAssignment;
+		}
+
+		/**
+		 * Copies the assignment of this component, as returned by
+		 * {@link #solve(SparseCostMatrix, double[], double[], double)}, in
+		 * the assignment of the whole linking block.
+		 */
+		private void storeAssignment( final int[] assgn, final int[] rowAssignment )
+		{
+			for ( int i = 0; i < rows.length; i++ )
+			{
+				rowAssignment[ rows[ i ] ] = assgn[ i ] < 0 ? -1 : cols[ assgn[ i ] ];
+			}
+		}
+	}
+
 	public String resultToString()
 	{
 		if ( null == assignments ) { return "Not solved yet. Process the algorithm prior to calling this method."; }
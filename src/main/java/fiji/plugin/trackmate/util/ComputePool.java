@@ -0,0 +1,462 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * The executor service all the multi-threaded stages of a TrackMate session
+ * run on.
+ * <p>
+ * The compute pools of all the sessions of a JVM submit their tasks to a
+ * single work-stealing {@link ForkJoinPool}, whose parallelism is the global
+ * thread budget (see {@link #setThreadBudget(int)}). Sessions running at the
+ * same time therefore share this budget instead of each creating as many
+ * threads as there are cores. The shared pool is created once, and is never
+ * shut down by a session.
+ * <p>
+ * Futures returned by this executor are {@link ForkJoinTask}s. A task that
+ * waits on the futures of the tasks it submitted itself helps executing them,
+ * so nested parallelism, e.g. detectors splitting a frame over several tasks
+ * while frames are processed in parallel, does not need more threads.
+ * <p>
+ * Cancellation is cooperative. After {@link #cancel()}, tasks that have not
+ * started yet are skipped, new tasks are rejected, and running tasks can poll
+ * {@link #isCancelled(ExecutorService)} to stop early. A cancelled compute
+ * pool cannot be reused.
+ * <p>
+ * The number of threads of a compute pool is the number of tasks components
+ * should split their work in. It is capped by the thread budget.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class ComputePool extends AbstractExecutorService implements MultiThreaded
+{
+
+	/**
+	 * The system property that sets the initial thread budget. Defaults to
+	 * the number of available processors.
+	 */
+	public static final String THREAD_BUDGET_PROPERTY = "trackmate.threads";
+
+	private static int threadBudget = Math.max( 1, Integer.getInteger( THREAD_BUDGET_PROPERTY, Runtime.getRuntime().availableProcessors() ).intValue() );
+
+	private static ForkJoinPool sharedPool;
+
+	private int numThreads;
+
+	private volatile boolean shutdown = false;
+
+	private volatile boolean cancelled = false;
+
+	/** Number of tasks submitted and not completed yet. */
+	private final AtomicInteger pending = new AtomicInteger( 0 );
+
+	private final Object lock = new Object();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public ComputePool( final int numThreads )
+	{
+		setNumThreads( numThreads );
+	}
+
+	public ComputePool()
+	{
+		setNumThreads();
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Returns the global thread budget, that is the maximal number of threads
+	 * all TrackMate sessions of this JVM compute on at the same time.
+	 *
+	 * @return the thread budget.
+	 */
+	public static synchronized int getThreadBudget()
+	{
+		return threadBudget;
+	}
+
+	/**
+	 * Sets the global thread budget. Tasks already running finish on the
+	 * threads they were given; new tasks use the new budget.
+	 *
+	 * @param budget
+	 *            the maximal number of threads, at least 1.
+	 */
+	public static synchronized void setThreadBudget( final int budget )
+	{
+		if ( budget < 1 ) { throw new IllegalArgumentException( "Thread budget must be at least 1, was " + budget + "." ); }
+		if ( budget == threadBudget ) { return; }
+		threadBudget = budget;
+		if ( null != sharedPool )
+		{
+			sharedPool.shutdown();
+			sharedPool = null;
+		}
+	}
+
+	private static synchronized ForkJoinPool sharedPool()
+	{
+		if ( null == sharedPool )
+		{
+			sharedPool = new ForkJoinPool( threadBudget );
+		}
+		return sharedPool;
+	}
+
+	/**
+	 * Runs the specified worker in the specified number of concurrent tasks,
+	 * and waits for all of them to complete. Workers typically poll a shared
+	 * queue or counter until it is exhausted.
+	 * <p>
+	 * If the executor service is <code>null</code>, the tasks are run in new
+	 * threads, as {@link SimpleMultiThreading} does.
+	 *
+	 * @param service
+	 *            the executor service to run the tasks on. May be
+	 *            <code>null</code>.
+	 * @param worker
+	 *            the worker to run.
+	 * @param nTasks
+	 *            the number of tasks to run the worker in.
+	 * @param name
+	 *            the base name of the threads, if threads have to be created.
+	 * @return <code>false</code> if the executor service was cancelled before
+	 *         all tasks completed, <code>true</code> otherwise.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting.
+	 */
+	public static boolean runAll( final ExecutorService service, final Runnable worker, final int nTasks, final String name ) throws InterruptedException
+	{
+		final int n = Math.max( 1, nTasks );
+		if ( null == service )
+		{
+			final Thread[] threads = SimpleMultiThreading.newThreads( n );
+			for ( int i = 0; i < threads.length; i++ )
+			{
+				threads[ i ] = new Thread( worker, name + " " + ( 1 + i ) + "/" + n );
+			}
+			SimpleMultiThreading.startAndJoin( threads );
+			return true;
+		}
+
+		final List< Runnable > tasks = new ArrayList< Runnable >( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			tasks.add( worker );
+		}
+		return invokeAll( service, tasks );
+	}
+
+	/**
+	 * Runs the specified tasks on the specified executor service and waits
+	 * for all of them to complete. Exceptions thrown by the tasks are
+	 * rethrown, once all tasks are done.
+	 *
+	 * @param service
+	 *            the executor service to run the tasks on.
+	 * @param tasks
+	 *            the tasks to run.
+	 * @return <code>false</code> if the executor service was cancelled before
+	 *         all tasks completed, <code>true</code> otherwise.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting.
+	 */
+	public static boolean invokeAll( final ExecutorService service, final Collection< ? extends Runnable > tasks ) throws InterruptedException
+	{
+		final List< Future< ? > > futures = new ArrayList< Future< ? > >( tasks.size() );
+		try
+		{
+			for ( final Runnable task : tasks )
+			{
+				futures.add( service.submit( task ) );
+			}
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			if ( !service.isShutdown() ) { throw e; }
+		}
+
+		boolean ok = futures.size() == tasks.size();
+		Throwable failure = null;
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final CancellationException e )
+			{
+				ok = false;
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( e.getCause() instanceof CancellationException )
+				{
+					ok = false;
+				}
+				else if ( null == failure )
+				{
+					failure = e.getCause();
+				}
+			}
+		}
+
+		if ( failure instanceof RuntimeException ) { throw ( RuntimeException ) failure; }
+		if ( failure instanceof Error ) { throw ( Error ) failure; }
+		if ( null != failure ) { throw new RuntimeException( failure ); }
+		return ok && !isCancelled( service );
+	}
+
+	/**
+	 * Returns whether the specified executor service is a compute pool that
+	 * was cancelled. Long-running tasks poll this to stop early.
+	 *
+	 * @param service
+	 *            the executor service. May be <code>null</code>.
+	 * @return <code>true</code> if the tasks run on this executor service
+	 *         should stop.
+	 */
+	public static boolean isCancelled( final ExecutorService service )
+	{
+		return service instanceof ComputePool && ( ( ComputePool ) service ).isCancelled();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Cancels all the tasks of this compute pool. Tasks not started yet are
+	 * skipped, and new tasks are rejected. Running tasks are not interrupted,
+	 * but can poll {@link #isCancelled(ExecutorService)} to stop early.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		shutdown = true;
+	}
+
+	/**
+	 * Returns whether this compute pool was cancelled.
+	 *
+	 * @return <code>true</code> if {@link #cancel()} was called.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	@Override
+	public < T > Future< T > submit( final Callable< T > task )
+	{
+		if ( shutdown ) { throw new RejectedExecutionException( "Compute pool is shut down." ); }
+		pending.incrementAndGet();
+		final ForkJoinTask< T > fjt = ForkJoinTask.adapt( new Guarded< T >( task ) );
+		try
+		{
+			final ForkJoinPool pool = sharedPool();
+			final Thread current = Thread.currentThread();
+			if ( current instanceof ForkJoinWorkerThread && ( ( ForkJoinWorkerThread ) current ).getPool() == pool )
+			{
+				// Nested task: push it on the queue of this worker.
+				fjt.fork();
+			}
+			else
+			{
+				pool.execute( fjt );
+			}
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			done();
+			throw e;
+		}
+		return fjt;
+	}
+
+	@Override
+	public Future< ? > submit( final Runnable task )
+	{
+		return submit( Executors.callable( task ) );
+	}
+
+	@Override
+	public < T > Future< T > submit( final Runnable task, final T result )
+	{
+		return submit( Executors.callable( task, result ) );
+	}
+
+	@Override
+	public void execute( final Runnable command )
+	{
+		submit( command );
+	}
+
+	/**
+	 * Submits all tasks before waiting on any of them, so that a caller
+	 * running on the shared pool helps executing them.
+	 */
+	@Override
+	public < T > List< Future< T >> invokeAll( final Collection< ? extends Callable< T >> tasks ) throws InterruptedException
+	{
+		final List< Future< T >> futures = new ArrayList< Future< T >>( tasks.size() );
+		for ( final Callable< T > task : tasks )
+		{
+			futures.add( submit( task ) );
+		}
+		for ( final Future< T > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final CancellationException e )
+			{
+				// Reported through the future.
+			}
+			catch ( final ExecutionException e )
+			{
+				// Reported through the future.
+			}
+		}
+		return futures;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		shutdown = true;
+	}
+
+	@Override
+	public List< Runnable > shutdownNow()
+	{
+		cancel();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return shutdown && pending.get() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination( final long timeout, final TimeUnit unit ) throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		synchronized ( lock )
+		{
+			while ( !isTerminated() )
+			{
+				final long left = deadline - System.nanoTime();
+				if ( left <= 0 ) { return false; }
+				TimeUnit.NANOSECONDS.timedWait( lock, left );
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return Math.min( numThreads, getThreadBudget() );
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ComputePool[threads=" + getNumThreads() + ", budget=" + getThreadBudget() + ", pending=" + pending.get() + ( cancelled ? ", cancelled" : shutdown ? ", shut down" : "" ) + "]";
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void done()
+	{
+		if ( pending.decrementAndGet() == 0 && shutdown )
+		{
+			synchronized ( lock )
+			{
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * Skips the task if the compute pool was cancelled before it started, and
+	 * keeps track of the pending tasks.
+	 */
+	private final class Guarded< T > implements Callable< T >
+	{
+
+		private final Callable< T > task;
+
+		public Guarded( final Callable< T > task )
+		{
+			this.task = task;
+		}
+
+		@Override
+		public T call() throws Exception
+		{
+			try
+			{
+				if ( cancelled ) { throw new CancellationException( "Compute pool cancelled." ); }
+				return task.call();
+			}
+			finally
+			{
+				done();
+			}
+		}
+	}
+}
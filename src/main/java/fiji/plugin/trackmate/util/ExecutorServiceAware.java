@@ -0,0 +1,32 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Interface for algorithms that can run their multi-threaded parts on an
+ * {@link ExecutorService} provided by the caller, instead of creating their
+ * own.
+ * <p>
+ * The caller owns the executor service and is responsible for shutting it
+ * down. If no executor service is set, the algorithm creates its own threads
+ * and disposes of them when it is done.
+ * <p>
+ * Within a TrackMate session, the executor service is the session
+ * {@link ComputePool}, so that all stages share the same thread budget and
+ * can be cancelled together.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public interface ExecutorServiceAware
+{
+
+	/**
+	 * Sets the executor service to use.
+	 *
+	 * @param service
+	 *            the executor service. If <code>null</code>, the algorithm
+	 *            will create and dispose its own threads.
+	 */
+	public void setExecutorService( ExecutorService service );
+
+}
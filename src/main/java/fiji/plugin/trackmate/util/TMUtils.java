@@ -1,5 +1,6 @@
 package fiji.plugin.trackmate.util;
 
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import ij.ImagePlus;
 
 import java.text.SimpleDateFormat;
@@ -19,10 +20,13 @@ import net.imagej.ImgPlus;
 import net.imagej.ImgPlusMetadata;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 
@@ -109,6 +113,90 @@ public class TMUtils
 		return raw;
 	}
 
+	/**
+	 * Returns the interval to operate on in the specified source image, as
+	 * configured by the crop fields and the target channel of the specified
+	 * settings.
+	 * <p>
+	 * The interval does <b>not</b> have a dimension for time, so that it can
+	 * be used on a hyperslice of the source image at a given frame. It does
+	 * have a dimension for the channel if the source image has one, but
+	 * reduced to the target channel.
+	 *
+	 * @param img
+	 *            the source image, possibly with a time and channel axis.
+	 * @param settings
+	 *            the settings to read the crop and target channel from.
+	 * @return a new interval.
+	 */
+	public static final Interval getInterval( final ImgPlus< ? > img, final Settings settings )
+	{
+		final long[] max = new long[ img.numDimensions() ];
+		final long[] min = new long[ img.numDimensions() ];
+
+		// X
+		final int xindex = TMUtils.findXAxisIndex( img );
+		if ( xindex >= 0 )
+		{
+			min[ xindex ] = settings.xstart;
+			max[ xindex ] = settings.xend;
+		}
+		// Y
+		final int yindex = TMUtils.findYAxisIndex( img );
+		if ( yindex >= 0 )
+		{
+			min[ yindex ] = settings.ystart;
+			max[ yindex ] = settings.yend;
+		}
+		// Z, we MIGHT have it
+		final int zindex = TMUtils.findZAxisIndex( img );
+		if ( zindex >= 0 )
+		{
+			min[ zindex ] = settings.zstart;
+			max[ zindex ] = settings.zend;
+		}
+		// CHANNEL, we might have it
+		final int cindex = TMUtils.findCAxisIndex( img );
+		if ( cindex >= 0 )
+		{
+			min[ cindex ] = ( Integer ) settings.detectorSettings.get( KEY_TARGET_CHANNEL ) - 1;
+			max[ cindex ] = min[ cindex ];
+		}
+		// TIME, we might have it, but anyway we leave the start & end
+		// management to the caller.
+		final int tindex = TMUtils.findTAxisIndex( img );
+
+		/*
+		 * We want to exclude time (if we have it) from out interval and source,
+		 * so that we can provide the detector instance with a hyperslice that
+		 * does NOT have time as a dimension.
+		 */
+		final long[] intervalMin;
+		final long[] intervalMax;
+		if ( tindex >= 0 )
+		{
+			intervalMin = new long[ min.length - 1 ];
+			intervalMax = new long[ min.length - 1 ];
+			int nindex = -1;
+			for ( int d = 0; d < min.length; d++ )
+			{
+				if ( d == tindex )
+				{
+					continue;
+				}
+				nindex++;
+				intervalMin[ nindex ] = Math.max( 0l, min[ d ] );
+				intervalMax[ nindex ] = Math.min( img.max( d ), max[ d ] );
+			}
+		}
+		else
+		{
+			intervalMin = min;
+			intervalMax = max;
+		}
+		return new FinalInterval( intervalMin, intervalMax );
+	}
+
 	/**
 	 * Check that the given map has all some keys. Two String collection allows
 	 * specifying that some keys are mandatory, other are optional.
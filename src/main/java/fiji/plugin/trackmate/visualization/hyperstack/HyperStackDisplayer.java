@@ -108,6 +108,7 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 		if ( DEBUG )
 			System.out.println( "[HyperStackDisplayer] Received model changed event ID: " + event.getEventID() + " from " + event.getSource() );
 		boolean redoOverlay = false;
+		trackOverlay.invalidate( event );
 
 		switch ( event.getEventID() )
 		{
@@ -123,7 +124,8 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 			break;
 
 		case ModelChangeEvent.SPOTS_FILTERED:
-			redoOverlay = true;
+			// Repaint only if the visibility of some spots changed.
+			redoOverlay = !event.getSpots().isEmpty();
 			break;
 
 		case ModelChangeEvent.SPOTS_COMPUTED:
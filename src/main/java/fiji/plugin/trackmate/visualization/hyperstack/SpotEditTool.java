@@ -34,6 +34,7 @@ import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.detection.semiauto.SemiAutoTracker;
+import fiji.plugin.trackmate.util.ComputePool;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.tool.AbstractTool;
 import fiji.tool.ToolWithOptions;
@@ -95,6 +96,9 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 
 	private SpotEditToolConfigPanel configPanel;
 
+	/** The compute pool the semi-automatic tracking runs on. */
+	private ComputePool computePool;
+
 	/**
 	 * The last {@link ImagePlus} on which an action happened.
 	 */
@@ -427,6 +431,7 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 		editedSpot.putFeature( Spot.POSITION_X, x );
 		editedSpot.putFeature( Spot.POSITION_Y, y );
 		editedSpot.putFeature( Spot.POSITION_Z, z );
+		displayer.trackOverlay.invalidate( editedSpot );
 		displayer.imp.updateAndDraw();
 		updateStatusBar( editedSpot, imp.getCalibration().getUnits() );
 	}
@@ -454,6 +459,7 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 		quickEditedSpot.putFeature( Spot.POSITION_X, x );
 		quickEditedSpot.putFeature( Spot.POSITION_Y, y );
 		quickEditedSpot.putFeature( Spot.POSITION_Z, z );
+		displayer.trackOverlay.invalidate( quickEditedSpot );
 		displayer.imp.updateAndDraw();
 
 	}
@@ -996,6 +1002,19 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 	 * PRIVATE METHODS
 	 */
 
+	/**
+	 * Returns the compute pool of this tool. It is created on the first call,
+	 * and a new one is created if the previous one was cancelled.
+	 */
+	private synchronized ComputePool getComputePool()
+	{
+		if ( null == computePool || computePool.isShutdown() )
+		{
+			computePool = new ComputePool( 4 );
+		}
+		return computePool;
+	}
+
 	private void updateStatusBar( final Spot spot, final String units )
 	{
 		if ( null == spot )
@@ -1014,10 +1033,12 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 
 	void semiAutoTracking( final Model model, final SelectionModel selectionModel, final ImagePlus imp )
 	{
+		final ComputePool pool = getComputePool();
 		@SuppressWarnings( "rawtypes" )
 		final SemiAutoTracker autotracker = new SemiAutoTracker( model, selectionModel, imp, logger );
 		autotracker.setParameters( params.qualityThreshold, params.distanceTolerance, params.nFrames );
-		autotracker.setNumThreads( 4 );
+		autotracker.setNumThreads( pool.getNumThreads() );
+		autotracker.setExecutorService( pool );
 		new Thread( "TrackMate semi-automated tracking thread" )
 		{
 			@Override
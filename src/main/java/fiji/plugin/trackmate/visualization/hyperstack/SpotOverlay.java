@@ -121,7 +121,7 @@ public class SpotOverlay extends Roi
 			final Color color = colorGenerator.color( spot );
 			g2d.setColor( color );
 
-			final double z = spot.getFeature( Spot.POSITION_Z ).doubleValue();
+			final double z = spot.getFeature( Spot.POSITION_Z_INDEX );
 			if ( doLimitDrawingDepth && Math.abs( z - zslice ) > drawingDepth )
 			{
 				continue;
@@ -141,7 +141,7 @@ public class SpotOverlay extends Roi
 				{
 					continue;
 				}
-				final int sFrame = spot.getFeature( Spot.FRAME ).intValue();
+				final int sFrame = ( int ) spot.getFeature( Spot.FRAME_INDEX );
 				if ( DEBUG )
 				{
 					System.out.println( "[SpotOverlay] For spot " + spot + " in selection, found frame " + sFrame );
@@ -195,12 +195,12 @@ public class SpotOverlay extends Roi
 
 	protected void drawSpot( final Graphics2D g2d, final Spot spot, final double zslice, final int xcorner, final int ycorner, final double magnification )
 	{
-		final double x = spot.getFeature( Spot.POSITION_X );
-		final double y = spot.getFeature( Spot.POSITION_Y );
-		final double z = spot.getFeature( Spot.POSITION_Z );
+		final double x = spot.getFeature( Spot.POSITION_X_INDEX );
+		final double y = spot.getFeature( Spot.POSITION_Y_INDEX );
+		final double z = spot.getFeature( Spot.POSITION_Z_INDEX );
 		final double dz2 = ( z - zslice ) * ( z - zslice );
 		final double radiusRatio = ( Double ) displaySettings.get( TrackMateModelView.KEY_SPOT_RADIUS_RATIO );
-		final double radius = spot.getFeature( Spot.RADIUS ) * radiusRatio;
+		final double radius = spot.getFeature( Spot.RADIUS_INDEX ) * radiusRatio;
 		// In pixel units
 		final double xp = x / calibration[ 0 ] + 0.5f;
 		final double yp = y / calibration[ 1 ] + 0.5f; // so that spot centers
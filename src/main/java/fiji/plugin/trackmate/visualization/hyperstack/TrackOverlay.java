@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.visualization.hyperstack;
 
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
@@ -17,7 +18,9 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -26,6 +29,12 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 
 /**
  * The overlay class in charge of drawing the tracks on the hyperstack window.
+ * <p>
+ * The edges of each track are cached sorted by frame, along with the track
+ * bounding box, so that a repaint only visits the tracks that overlap the
+ * canvas and the edges that fall in the displayed time window. The cache is
+ * invalidated per track by the displayer, through the
+ * <code>invalidate</code> methods.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> 2010 - 2011
  */
@@ -43,6 +52,12 @@ public class TrackOverlay extends Roi
 
 	private TrackColorGenerator colorGenerator;
 
+	/**
+	 * Cached geometry of the tracks, built when a track is first drawn and
+	 * forgotten when it changes.
+	 */
+	private final Map< Integer, TrackGeometry > geometries = new HashMap< Integer, TrackGeometry >();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -65,6 +80,79 @@ public class TrackOverlay extends Roi
 		this.highlight = edges;
 	}
 
+	/**
+	 * Forgets the cached geometry of the tracks affected by the specified
+	 * event, so that it is rebuilt when they are next drawn.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	public synchronized void invalidate( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			final Set< Integer > tracksUpdated = event.getTrackUpdated();
+			if ( null != tracksUpdated )
+			{
+				for ( final Integer trackID : tracksUpdated )
+				{
+					geometries.remove( trackID );
+				}
+			}
+			final Set< DefaultWeightedEdge > edges = event.getEdges();
+			if ( null != edges )
+			{
+				for ( final DefaultWeightedEdge edge : edges )
+				{
+					final Integer trackID = model.getTrackModel().trackIDOf( edge );
+					if ( null != trackID )
+					{
+						geometries.remove( trackID );
+					}
+				}
+			}
+			// Forget tracks that do not exist anymore.
+			if ( geometries.size() > model.getTrackModel().nTracks( false ) )
+			{
+				geometries.keySet().retainAll( model.getTrackModel().unsortedTrackIDs( false ) );
+			}
+			break;
+		}
+
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			geometries.clear();
+			break;
+		}
+	}
+
+	/**
+	 * Forgets the cached geometry of the track the specified spot belongs to.
+	 * To be called when a spot is moved without the model firing an event,
+	 * for instance while it is being dragged.
+	 *
+	 * @param spot
+	 *            the spot that moved.
+	 */
+	public synchronized void invalidate( final Spot spot )
+	{
+		final Integer trackID = model.getTrackModel().trackIDOf( spot );
+		if ( null != trackID )
+		{
+			geometries.remove( trackID );
+		}
+	}
+
+	/**
+	 * Forgets the cached geometry of all tracks.
+	 */
+	public synchronized void invalidate()
+	{
+		geometries.clear();
+	}
+
 	@Override
 	public final synchronized void drawOverlay( final Graphics g )
 	{
@@ -80,6 +168,16 @@ public class TrackOverlay extends Roi
 		final double drawingDepth = ( Double ) displaySettings.get( TrackMateModelView.KEY_DRAWING_DEPTH );
 		final double zslice = ( imp.getSlice() - 1 ) * calibration[ 2 ];
 
+		/*
+		 * The part of the image visible in the canvas, in physical units, with
+		 * a margin for the stroke width.
+		 */
+		final double margin = 2d / magnification;
+		final double xmin = ( xcorner - 0.5d - margin ) * calibration[ 0 ];
+		final double ymin = ( ycorner - 0.5d - margin ) * calibration[ 1 ];
+		final double xmax = ( xcorner - 0.5d + margin + ic.getWidth() / magnification ) * calibration[ 0 ];
+		final double ymax = ( ycorner - 0.5d + margin + ic.getHeight() / magnification ) * calibration[ 1 ];
+
 		final Graphics2D g2d = ( Graphics2D ) g;
 		// Save graphic device original settings
 		final AffineTransform originalTransform = g2d.getTransform();
@@ -109,8 +207,8 @@ public class TrackOverlay extends Roi
 			g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER ) );
 
 		// Determine bounds for limited view modes
-		int minT = 0;
-		int maxT = 0;
+		int minT = Integer.MIN_VALUE;
+		int maxT = Integer.MAX_VALUE;
 		switch ( trackDisplayMode )
 		{
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
@@ -130,114 +228,90 @@ public class TrackOverlay extends Roi
 			break;
 		}
 
-		float transparency;
+		// Fading and depth limitation depend on the display mode.
+		final boolean fade;
+		final boolean limitDepth;
 		switch ( trackDisplayMode )
 		{
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE:
-		{
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					target = model.getTrackModel().getEdgeTarget( edge );
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+			fade = true;
+			limitDepth = false;
 			break;
-		}
 
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
-		{
-
 			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
+			fade = false;
+			limitDepth = doLimitDrawingDepth;
+			break;
 
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					target = model.getTrackModel().getEdgeTarget( edge );
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
+		default:
+			fade = false;
+			limitDepth = doLimitDrawingDepth;
 			break;
 		}
+		final double zmin = zslice - drawingDepth;
+		final double zmax = zslice + drawingDepth;
 
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+		for ( final Integer trackID : filteredTrackKeys )
 		{
-
-			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
-
-			for ( final Integer trackID : filteredTrackKeys )
+			final TrackGeometry geometry = geometryOf( trackID );
+			if ( geometry.size == 0 )
+				continue;
+
+			// Cull whole tracks on time, viewport and depth.
+			if ( geometry.maxFrame < minT || geometry.minFrame >= maxT )
+				continue;
+			if ( geometry.maxX < xmin || geometry.minX > xmax || geometry.maxY < ymin || geometry.minY > ymax )
+				continue;
+			if ( limitDepth && ( geometry.maxZ < zmin || geometry.minZ > zmax ) )
+				continue;
+
+			colorGenerator.setCurrentTrackID( trackID );
+			for ( int i = geometry.firstEdgeFrom( minT ); i < geometry.size; i++ )
 			{
-				colorGenerator.setCurrentTrackID( trackID );
-				final Set< DefaultWeightedEdge > track;
-				synchronized ( model )
+				final int sourceFrame = geometry.frames[ i ];
+				if ( sourceFrame >= maxT )
+					break;
+
+				final DefaultWeightedEdge edge = geometry.edges[ i ];
+				if ( highlight.contains( edge ) )
+					continue;
+
+				source = geometry.sources[ i ];
+				target = geometry.targets[ i ];
+
+				final double xs = source.getFeature( Spot.POSITION_X_INDEX );
+				final double xt = target.getFeature( Spot.POSITION_X_INDEX );
+				if ( ( xs < xmin && xt < xmin ) || ( xs > xmax && xt > xmax ) )
+					continue;
+				final double ys = source.getFeature( Spot.POSITION_Y_INDEX );
+				final double yt = target.getFeature( Spot.POSITION_Y_INDEX );
+				if ( ( ys < ymin && yt < ymin ) || ( ys > ymax && yt > ymax ) )
+					continue;
+				if ( limitDepth )
 				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
+					final double zs = source.getFeature( Spot.POSITION_Z_INDEX );
+					final double zt = target.getFeature( Spot.POSITION_Z_INDEX );
+					if ( Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
 						continue;
+				}
 
-					transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
-					target = model.getTrackModel().getEdgeTarget( edge );
-					g2d.setColor( colorGenerator.color( edge ) );
+				g2d.setColor( colorGenerator.color( edge ) );
+				if ( fade )
+				{
+					final float transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
 					drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
 				}
+				else
+				{
+					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
+				}
 			}
-			break;
-
-		}
-
 		}
 
 		// Restore graphic device original settings
@@ -255,10 +329,10 @@ public class TrackOverlay extends Roi
 	protected void drawEdge( final Graphics2D g2d, final Spot source, final Spot target, final int xcorner, final int ycorner, final double magnification, final float transparency )
 	{
 		// Find x & y in physical coordinates
-		final double x0i = source.getFeature( Spot.POSITION_X );
-		final double y0i = source.getFeature( Spot.POSITION_Y );
-		final double x1i = target.getFeature( Spot.POSITION_X );
-		final double y1i = target.getFeature( Spot.POSITION_Y );
+		final double x0i = source.getFeature( Spot.POSITION_X_INDEX );
+		final double y0i = source.getFeature( Spot.POSITION_Y_INDEX );
+		final double x1i = target.getFeature( Spot.POSITION_X_INDEX );
+		final double y1i = target.getFeature( Spot.POSITION_Y_INDEX );
 		// In pixel units
 		final double x0p = x0i / calibration[ 0 ] + 0.5f;
 		final double y0p = y0i / calibration[ 1 ] + 0.5f;
@@ -283,10 +357,10 @@ public class TrackOverlay extends Roi
 	protected void drawEdge( final Graphics2D g2d, final Spot source, final Spot target, final int xcorner, final int ycorner, final double magnification )
 	{
 		// Find x & y in physical coordinates
-		final double x0i = source.getFeature( Spot.POSITION_X );
-		final double y0i = source.getFeature( Spot.POSITION_Y );
-		final double x1i = target.getFeature( Spot.POSITION_X );
-		final double y1i = target.getFeature( Spot.POSITION_Y );
+		final double x0i = source.getFeature( Spot.POSITION_X_INDEX );
+		final double y0i = source.getFeature( Spot.POSITION_Y_INDEX );
+		final double x1i = target.getFeature( Spot.POSITION_X_INDEX );
+		final double y1i = target.getFeature( Spot.POSITION_Y_INDEX );
 		// In pixel units
 		final double x0p = x0i / calibration[ 0 ] + 0.5f;
 		final double y0p = y0i / calibration[ 1 ] + 0.5f;
@@ -315,4 +389,143 @@ public class TrackOverlay extends Roi
 		this.colorGenerator = colorGenerator;
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private TrackGeometry geometryOf( final Integer trackID )
+	{
+		TrackGeometry geometry = geometries.get( trackID );
+		if ( null == geometry )
+		{
+			synchronized ( model )
+			{
+				geometry = new TrackGeometry( model, trackID );
+			}
+			geometries.put( trackID, geometry );
+		}
+		return geometry;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The edges of one track sorted by the frame of their source, and the
+	 * bounding box and frame range of the track. Spot positions are read
+	 * from the spots at draw time, so that edges follow spots being edited.
+	 */
+	private static final class TrackGeometry
+	{
+
+		private final int size;
+
+		private final DefaultWeightedEdge[] edges;
+
+		private final Spot[] sources;
+
+		private final Spot[] targets;
+
+		private final int[] frames;
+
+		private int minFrame = Integer.MAX_VALUE;
+
+		private int maxFrame = Integer.MIN_VALUE;
+
+		private double minX = Double.POSITIVE_INFINITY;
+
+		private double maxX = Double.NEGATIVE_INFINITY;
+
+		private double minY = Double.POSITIVE_INFINITY;
+
+		private double maxY = Double.NEGATIVE_INFINITY;
+
+		private double minZ = Double.POSITIVE_INFINITY;
+
+		private double maxZ = Double.NEGATIVE_INFINITY;
+
+		private TrackGeometry( final Model model, final Integer trackID )
+		{
+			final Set< DefaultWeightedEdge > trackEdges = model.getTrackModel().trackEdges( trackID );
+			if ( null == trackEdges )
+			{
+				size = 0;
+				edges = new DefaultWeightedEdge[ 0 ];
+				sources = new Spot[ 0 ];
+				targets = new Spot[ 0 ];
+				frames = new int[ 0 ];
+				return;
+			}
+
+			size = trackEdges.size();
+			final DefaultWeightedEdge[] unsorted = trackEdges.toArray( new DefaultWeightedEdge[ size ] );
+
+			// Sort on source frame, packed with the edge index in one long.
+			final long[] keys = new long[ size ];
+			for ( int i = 0; i < size; i++ )
+			{
+				final Spot source = model.getTrackModel().getEdgeSource( unsorted[ i ] );
+				final int frame = ( int ) source.getFeature( Spot.FRAME_INDEX );
+				keys[ i ] = ( ( long ) frame << 32 ) | i;
+			}
+			Arrays.sort( keys );
+
+			edges = new DefaultWeightedEdge[ size ];
+			sources = new Spot[ size ];
+			targets = new Spot[ size ];
+			frames = new int[ size ];
+			for ( int i = 0; i < size; i++ )
+			{
+				final DefaultWeightedEdge edge = unsorted[ ( int ) ( keys[ i ] & 0xffffffffl ) ];
+				edges[ i ] = edge;
+				sources[ i ] = model.getTrackModel().getEdgeSource( edge );
+				targets[ i ] = model.getTrackModel().getEdgeTarget( edge );
+				frames[ i ] = ( int ) ( keys[ i ] >> 32 );
+				include( sources[ i ] );
+				include( targets[ i ] );
+			}
+			if ( size > 0 )
+			{
+				minFrame = frames[ 0 ];
+				maxFrame = frames[ size - 1 ];
+			}
+		}
+
+		private void include( final Spot spot )
+		{
+			final double x = spot.getFeature( Spot.POSITION_X_INDEX );
+			final double y = spot.getFeature( Spot.POSITION_Y_INDEX );
+			final double z = spot.getFeature( Spot.POSITION_Z_INDEX );
+			minX = Math.min( minX, x );
+			maxX = Math.max( maxX, x );
+			minY = Math.min( minY, y );
+			maxY = Math.max( maxY, y );
+			minZ = Math.min( minZ, z );
+			maxZ = Math.max( maxZ, z );
+		}
+
+		/**
+		 * Returns the index of the first edge whose source frame is not
+		 * smaller than the specified frame.
+		 */
+		private int firstEdgeFrom( final int frame )
+		{
+			int low = 0;
+			int high = size;
+			while ( low < high )
+			{
+				final int mid = ( low + high ) >>> 1;
+				if ( frames[ mid ] < frame )
+				{
+					low = mid + 1;
+				}
+				else
+				{
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
 }
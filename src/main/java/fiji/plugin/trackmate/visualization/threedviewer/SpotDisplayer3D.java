@@ -94,15 +94,14 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			break;
 
 		case ModelChangeEvent.SPOTS_FILTERED:
-			for ( final int frame : blobs.keySet() )
+			// Only update the spots whose visibility changed.
+			for ( final Spot spot : event.getSpots() )
 			{
-				final SpotGroupNode< Spot > frameBlobs = blobs.get( frame );
-				for ( final Iterator< Spot > it = model.getSpots().iterator( frame, false ); it.hasNext(); )
-				{
-					final Spot spot = it.next();
-					final boolean visible = spot.getFeature( SpotCollection.VISIBLITY ).compareTo( SpotCollection.ZERO ) > 0;
-					frameBlobs.setVisible( spot, visible );
-				}
+				final SpotGroupNode< Spot > frameBlobs = blobs.get( spot.getFeature( Spot.FRAME ).intValue() );
+				if ( null == frameBlobs )
+					continue;
+				final boolean visible = spot.getFeature( Spot.VISIBILITY_INDEX ) > 0d;
+				frameBlobs.setVisible( spot, visible );
 			}
 			break;
 
@@ -254,9 +253,11 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 			}
 
 			/*
-			 * Deal with edges
+			 * Deal with edges. All the edges are stored in one primitive, so
+			 * we rebuild it once whatever the number of edges modified.
 			 */
 
+			boolean rebuildTracks = false;
 			for ( final DefaultWeightedEdge edge : event.getEdges() )
 			{
 				final int edgeFlag = event.getEdgeFlag( edge );
@@ -266,17 +267,7 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				case ModelChangeEvent.FLAG_EDGE_MODIFIED:
 				case ModelChangeEvent.FLAG_EDGE_REMOVED:
 				{
-					if ( null == trackNode )
-					{
-						trackContent = makeTrackContent();
-						universe.removeContent( TRACK_CONTENT_NAME );
-						universe.addContent( trackContent );
-					}
-					else
-					{
-						trackNode.makeMeshes();
-						updateTrackColors();
-					}
+					rebuildTracks = true;
 					break;
 				}
 
@@ -286,6 +277,20 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 				}
 				}
 			}
+			if ( rebuildTracks )
+			{
+				if ( null == trackNode )
+				{
+					trackContent = makeTrackContent();
+					universe.removeContent( TRACK_CONTENT_NAME );
+					universe.addContent( trackContent );
+				}
+				else
+				{
+					trackNode.makeMeshes();
+					updateTrackColors();
+				}
+			}
 			break;
 		}
 
@@ -512,11 +517,13 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 		for ( final int frame : blobs.keySet() )
 		{
 			final SpotGroupNode< Spot > spotGroup = blobs.get( frame );
+			final Map< Spot, Color3f > spotColors = new HashMap< Spot, Color3f >( model.getSpots().getNSpots( frame, false ) );
 			for ( final Iterator< Spot > iterator = model.getSpots().iterator( frame, false ); iterator.hasNext(); )
 			{
 				final Spot spot = iterator.next();
-				spotGroup.setColor( spot, new Color3f( spotColorGenerator.color( spot ) ) );
+				spotColors.put( spot, new Color3f( spotColorGenerator.color( spot ) ) );
 			}
+			spotGroup.setColors( spotColors );
 		}
 	}
 
@@ -524,15 +531,16 @@ public class SpotDisplayer3D extends AbstractTrackMateModelView
 	{
 		final TrackColorGenerator colorGenerator = ( TrackColorGenerator ) displaySettings.get( KEY_TRACK_COLORING );
 
+		final Map< DefaultWeightedEdge, Color > edgeColors = new HashMap< DefaultWeightedEdge, Color >();
 		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
 		{
 			colorGenerator.setCurrentTrackID( trackID );
 			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
 			{
-				final Color color = colorGenerator.color( edge );
-				trackNode.setColor( edge, color );
+				edgeColors.put( edge, colorGenerator.color( edge ) );
 			}
 		}
+		trackNode.setColors( edgeColors );
 	}
 
 	private void highlightSpots( final Collection< Spot > spots )
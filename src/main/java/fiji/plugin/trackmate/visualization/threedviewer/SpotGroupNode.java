@@ -1,11 +1,11 @@
 package fiji.plugin.trackmate.visualization.threedviewer;
 
 import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
-import customnode.CustomTriangleMesh;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import ij3d.ContentNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
@@ -15,25 +15,64 @@ import javax.media.j3d.Appearance;
 import javax.media.j3d.BranchGroup;
 import javax.media.j3d.ColoringAttributes;
 import javax.media.j3d.Font3D;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.IndexedTriangleArray;
 import javax.media.j3d.LineAttributes;
+import javax.media.j3d.Material;
 import javax.media.j3d.OrientedShape3D;
-import javax.media.j3d.Switch;
+import javax.media.j3d.PolygonAttributes;
+import javax.media.j3d.Shape3D;
 import javax.media.j3d.Text3D;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
+import javax.media.j3d.TransparencyAttributes;
 import javax.media.j3d.View;
 import javax.vecmath.Color3f;
 import javax.vecmath.Color4f;
 import javax.vecmath.Point3d;
-import javax.vecmath.Point3f;
 import javax.vecmath.Point4d;
 import javax.vecmath.Tuple3d;
 import javax.vecmath.Vector3d;
 
+/**
+ * A {@link ContentNode} that displays a group of spots as spheres, typically
+ * the spots of one frame.
+ * <p>
+ * All the spheres of the group are stored in a single
+ * {@link IndexedTriangleArray} with per-vertex colors, built from a unit sphere
+ * tessellation shared by all the groups. The resolution of this tessellation
+ * decreases with the number of spots in the group. Each spot owns a slot of
+ * vertices in the array, which is rewritten in place when its color,
+ * transparency, position or visibility changes. Hidden spots are collapsed to
+ * their center. Labels are only created while they are shown.
+ */
 public class SpotGroupNode<K> extends ContentNode {
 
-	private static final int DEFAULT_MERIDIAN_NUMBER = 12;
-	private static final int DEFAULT_PARALLEL_NUMBER = 12;
+	/**
+	 * Maximal number of spots in a group for each level of detail, but the
+	 * last one.
+	 */
+	private static final int[] LOD_MAX_SPOTS = new int[] { 5000, 50000 };
+
+	/**
+	 * Number of meridians and parallels of the spheres for each level of
+	 * detail.
+	 */
+	private static final int[] LOD_RESOLUTIONS = new int[] { 12, 8, 6 };
+
+	/**
+	 * The unit spheres for each level of detail. We put them in a static field
+	 * so that they are shared amongst all instances.
+	 */
+	private static final Sphere[] SPHERES = new Sphere[LOD_RESOLUTIONS.length];
+	static {
+		for (int i = 0; i < LOD_RESOLUTIONS.length; i++) {
+			SPHERES[i] = new Sphere(LOD_RESOLUTIONS[i], LOD_RESOLUTIONS[i]);
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 16;
 
 	/**
 	 * The font size
@@ -48,14 +87,6 @@ public class SpotGroupNode<K> extends ContentNode {
 		textAp.setColoringAttributes(new ColoringAttributes(color3, ColoringAttributes.FASTEST));
 	}
 
-	/**
-	 * Holder (cache) for the coordinates of the mesh of a globe of radius 1,
-	 * centered at (0, 0, 0), that will be used to generate all spheres in this
-	 * group. We put it in a static field so that it is shared amongst all
-	 * instances.
-	 */
-	private static final float[][][] globe = generateGlobe(DEFAULT_MERIDIAN_NUMBER, DEFAULT_PARALLEL_NUMBER);
-
 	/**
 	 * Hold the center and radius position of all spots.
 	 */
@@ -65,36 +96,55 @@ public class SpotGroupNode<K> extends ContentNode {
 	 */
 	protected Map<K, Color4f> colors;
 	/**
-	 * Hold the mesh of each spot.
-	 */
-	protected HashMap<K, CustomTriangleMesh> meshes;
-	/**
-	 * Hold the text of each spot.
+	 * Hold the label of each visible spot, when labels are shown.
 	 */
-	protected Map<K, TransformGroup> texts;
-
+	protected Map<K, BranchGroup> texts;
 	/**
-	 * Switch used for spot display.
-	 */
-	protected Switch spotSwitch;
-	/**
-	 * Switch used for spot names display.
-	 */
-	protected  Switch textSwitch;
-	/**
-	 * Boolean set that controls the visibility of each spot.
+	 * Boolean set that controls the visibility of each spot, by slot.
 	 */
 	protected BitSet switchMask;
 	/**
-	 * Map that links the spot keys to their indices in the Switch.
-	 * @see #spotSwitch
+	 * Map that links the spot keys to their slot in the geometry.
 	 */
 	protected HashMap<K, Integer> indices;
+	/**
+	 * The spot keys, by slot.
+	 */
+	private final List<K> keys = new ArrayList<K>();
 	/**
 	 * If true, the text label will be displayed next to the balls.
 	 */
 	private boolean showLabels = false;
 
+	/** The unit sphere used for this group. */
+	private Sphere sphere;
+	/** Number of slots in the geometry. */
+	private int capacity;
+	private float[] coordinates;
+	private float[] normals;
+	private float[] vertexColors;
+	private IndexedTriangleArray geometry;
+	/** Number of spots with a non-zero transparency. */
+	private int nTransparent = 0;
+
+	private final Shape3D shape = new Shape3D();
+	private final Material material = new Material();
+	private final TransparencyAttributes transparencyAttributes = new TransparencyAttributes(TransparencyAttributes.NONE, 0f);
+	/** Parent of the labels. */
+	private final BranchGroup textGroup = new BranchGroup();
+	{
+		shape.setCapability(Shape3D.ALLOW_GEOMETRY_WRITE);
+		material.setCapability(Material.ALLOW_COMPONENT_WRITE);
+		transparencyAttributes.setCapability(TransparencyAttributes.ALLOW_MODE_WRITE);
+		final Appearance appearance = new Appearance();
+		appearance.setMaterial(material);
+		appearance.setTransparencyAttributes(transparencyAttributes);
+		appearance.setPolygonAttributes(new PolygonAttributes(PolygonAttributes.POLYGON_FILL, PolygonAttributes.CULL_BACK, 0f));
+		shape.setAppearance(appearance);
+		textGroup.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
+		textGroup.setCapability(BranchGroup.ALLOW_CHILDREN_EXTEND);
+	}
+
 
 
 	/**
@@ -112,18 +162,6 @@ public class SpotGroupNode<K> extends ContentNode {
 	public SpotGroupNode(final Map<K, Point4d>  centers, final Map<K, Color4f> colors) {
 		this.centers = new HashMap<K, Point4d>(centers);
 		this.colors = new HashMap<K, Color4f>(colors);
-		//
-		this.spotSwitch = new Switch(Switch.CHILD_MASK);
-		spotSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		spotSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		spotSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		//
-		this.textSwitch = new Switch(Switch.CHILD_MASK);
-		textSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		textSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		textSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		//
-		this.switchMask = new BitSet();
 		makeMeshes();
 	}
 
@@ -144,17 +182,6 @@ public class SpotGroupNode<K> extends ContentNode {
 		for(final K key : centers.keySet()) {
 			colors.put(key, new Color4f(color.x, color.y, color.z, 0));
 		}
-		this.spotSwitch = new Switch(Switch.CHILD_MASK);
-		spotSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		spotSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		spotSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		//
-		this.textSwitch = new Switch(Switch.CHILD_MASK);
-		textSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		textSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		textSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		//
-		this.switchMask = new BitSet();
 		makeMeshes();
 	}
 
@@ -193,200 +220,250 @@ public class SpotGroupNode<K> extends ContentNode {
 
 
 	/**
-	 * Re-create the {@link #meshes} field with spot meshes, from the fields {@link #centers} and {@link #colors}.
+	 * Re-create the geometry holding all the spheres, from the fields {@link #centers} and {@link #colors}.
 	 * <p>
-	 * This resets the {@link #spotSwitch} and the {@link #switchMask} fields with new values.
+	 * This resets the {@link #switchMask} field and makes all spots visible.
 	 */
 	protected void makeMeshes() {
-		meshes = new HashMap<K, CustomTriangleMesh>(centers.size());
-		texts = new HashMap<K, TransformGroup>(centers.size());
 		indices = new HashMap<K, Integer>(centers.size());
-		spotSwitch.removeAllChildren();
-		textSwitch.removeAllChildren();
-		int index = 0;
-
+		texts = new HashMap<K, BranchGroup>();
+		keys.clear();
+		nTransparent = 0;
 		for (final K key : centers.keySet()) {
-			final Point4d center = centers.get(key);
-			final Color4f color = colors.get(key);
-
-			// Create mesh for the ball
-			final List<Point3f> points = createSphere(center.x, center.y, center.z, center.w);
-			final CustomTriangleMesh node = new CustomTriangleMesh(points, new Color3f(color.x, color.y, color.z), color.w);
-			// Add it to the switch. We keep an index of the position it is added to for later retrieval by key
-			meshes.put(key, node);
-			final BranchGroup bg = new BranchGroup();
-			bg.setCapability(BranchGroup.ALLOW_DETACH);
-			bg.addChild(node);
-			spotSwitch.addChild(bg); // at index
-			indices.put(key, index); // store index for key
-			index++;
-
-			// Deal with the text
-			final Transform3D translation = new Transform3D();
-			translation.rotX(Math.PI);
-			translation.setTranslation(new Vector3d(center.x + 1.5f*center.w, center.y, center.z));
-			final TransformGroup tg = new TransformGroup(translation);
-
-			final OrientedShape3D textShape = new OrientedShape3D();
-			textShape.setAlignmentMode(OrientedShape3D.ROTATE_NONE);
-
-			final Text3D textGeom = new Text3D(font3D, key.toString());
-
-			textGeom.setAlignment(Text3D.ALIGN_FIRST);
-			textShape.addGeometry(textGeom);
-			textShape.setAppearance(textAp);
-
-			tg.addChild(textShape);
-			texts.put(key, tg);
-
-			final BranchGroup bg2 = new BranchGroup();
-			bg2.addChild(tg);
-			bg2.setCapability(BranchGroup.ALLOW_DETACH);
-			textSwitch.addChild(bg2);
-
+			indices.put(key, keys.size());
+			keys.add(key);
+			if (colors.get(key).w > 0)
+				nTransparent++;
 		}
-		switchMask = new BitSet(centers.size());
-		switchMask.set(0, centers.size(), true);
-		spotSwitch.setChildMask(switchMask);
-		if (showLabels) {
-			textSwitch.setChildMask(switchMask);
-		} else {
-			textSwitch.setChildMask(new BitSet(centers.size()));
+		switchMask = new BitSet(keys.size());
+		switchMask.set(0, keys.size(), true);
+
+		// Pick the sphere resolution from the number of spots.
+		int lod = 0;
+		while (lod < LOD_MAX_SPOTS.length && keys.size() > LOD_MAX_SPOTS[lod])
+			lod++;
+		sphere = SPHERES[lod];
+
+		capacity = Math.max(INITIAL_CAPACITY, keys.size());
+		coordinates = new float[3 * sphere.nVertices * capacity];
+		normals = new float[3 * sphere.nVertices * capacity];
+		vertexColors = new float[4 * sphere.nVertices * capacity];
+		for (int slot = 0; slot < keys.size(); slot++) {
+			writeCoordinates(slot);
+			writeColor(slot);
+		}
+		for (int slot = 0; slot < capacity; slot++) {
+			writeNormals(slot);
 		}
+		makeGeometry();
+		updateTransparencyMode();
+
+		textGroup.removeAllChildren();
+		if (showLabels)
+			makeLabels();
 		removeAllChildren();
-		addChild(spotSwitch);
-		addChild(textSwitch);
+		addChild(shape);
+		addChild(textGroup);
 	}
 
 	public void add(final K key, final Point4d center, final Color4f color) {
-
-		// Sphere
-		final List<Point3f> points = createSphere(center.x, center.y, center.z, center.w);
-		final CustomTriangleMesh node = new CustomTriangleMesh(points, new Color3f(color.x, color.y, color.z), color.w);
-		final BranchGroup bg1 = new BranchGroup();
-		bg1.setCapability(BranchGroup.ALLOW_DETACH);
-		bg1.addChild(node);
-		spotSwitch.addChild(bg1);
-
-		// Text
-		final Text3D textGeom = new Text3D(font3D, key.toString());
-		textGeom.setAlignment(Text3D.ALIGN_FIRST);
-
-		final OrientedShape3D textShape = new OrientedShape3D();
-		textShape.setAlignmentMode(OrientedShape3D.ROTATE_NONE);
-		textShape.addGeometry(textGeom);
-		textShape.setAppearance(textAp);
-
-		final Transform3D translation = new Transform3D();
-		translation.rotX(Math.PI);
-		translation.setTranslation(new Vector3d(center.x + 1.5f * center.w, center.y, center.z));
-		final TransformGroup tg = new TransformGroup(translation);
-		tg.addChild(textShape);
-		final BranchGroup bg2 = new BranchGroup();
-		bg2.setCapability(BranchGroup.ALLOW_DETACH);
-		bg2.addChild(tg);
-		textSwitch.addChild(bg2);
-
-		final int index = centers.size();
-		indices.put(key, index);
-		final BitSet bitSet = new BitSet(switchMask.length());
-		for (int i = 0; i < switchMask.length(); i++) {
-			bitSet.set(i, switchMask.get(i));
-		}
-		bitSet.set(switchMask.length(), true);
-		switchMask = bitSet;
-		spotSwitch.setChildMask(switchMask);
-		if (showLabels) {
-			textSwitch.setChildMask(switchMask);
-		} else {
-			textSwitch.setChildMask(new BitSet(centers.size()));
+		if (indices.containsKey(key))
+			remove(key);
+
+		final int slot = keys.size();
+		if (slot == capacity)
+			grow();
+		keys.add(key);
+		indices.put(key, slot);
+		centers.put(key, center);
+		colors.put(key, color);
+		switchMask.set(slot, true);
+		if (color.w > 0) {
+			nTransparent++;
+			updateTransparencyMode();
 		}
 
-		texts.put(key, tg);
-		meshes.put(key, node);
-		colors.put(key, color);
-		centers.put(key, center);
+		writeCoordinates(slot);
+		writeColor(slot);
+		uploadCoordinates(slot);
+		uploadColor(slot);
+		geometry.setValidIndexCount(keys.size() * sphere.nIndices);
+
+		if (showLabels)
+			addLabel(key);
 	}
 
 	public void remove(final K key) {
 		// Remove from generic holders
-		final int index = indices.remove(key);
+		final Integer index = indices.remove(key);
+		if (null == index)
+			return;
 		centers.remove(key);
-		colors.remove(key);
+		final Color4f color = colors.remove(key);
+		if (color.w > 0) {
+			nTransparent--;
+			updateTransparencyMode();
+		}
+		removeLabel(key);
+
+		// Move the last spot to the freed slot
+		final int slot = index.intValue();
+		final int last = keys.size() - 1;
+		if (slot != last) {
+			final K lastKey = keys.get(last);
+			keys.set(slot, lastKey);
+			indices.put(lastKey, slot);
+			switchMask.set(slot, switchMask.get(last));
+			final int nv = sphere.nVertices;
+			System.arraycopy(coordinates, 3 * nv * last, coordinates, 3 * nv * slot, 3 * nv);
+			System.arraycopy(vertexColors, 4 * nv * last, vertexColors, 4 * nv * slot, 4 * nv);
+			uploadCoordinates(slot);
+			uploadColor(slot);
+		}
+		keys.remove(last);
+		switchMask.clear(last);
+		geometry.setValidIndexCount(keys.size() * sphere.nIndices);
+	}
 
-		// Remove spot from scene
-		final CustomTriangleMesh mesh = meshes.remove(key);
-		spotSwitch.removeChild(mesh.getParent());
+	/**
+	 * Create the geometry holding {@link #capacity} spheres from the vertex
+	 * arrays, and set it to the shape.
+	 */
+	private void makeGeometry() {
+		final int nv = sphere.nVertices;
+		final int ni = sphere.nIndices;
+		geometry = new IndexedTriangleArray(capacity * nv, GeometryArray.COORDINATES | GeometryArray.NORMALS
+				| GeometryArray.COLOR_4 | GeometryArray.USE_COORD_INDEX_ONLY, capacity * ni);
+		geometry.setCapability(GeometryArray.ALLOW_COORDINATE_WRITE);
+		geometry.setCapability(GeometryArray.ALLOW_COLOR_WRITE);
+		geometry.setCapability(GeometryArray.ALLOW_NORMAL_WRITE);
+		geometry.setCapability(IndexedGeometryArray.ALLOW_COUNT_WRITE);
+
+		final int[] vertexIndices = new int[capacity * ni];
+		for (int slot = 0; slot < capacity; slot++) {
+			for (int i = 0; i < ni; i++) {
+				vertexIndices[slot * ni + i] = slot * nv + sphere.indices[i];
+			}
+		}
+		geometry.setCoordinateIndices(0, vertexIndices);
+		geometry.setCoordinates(0, coordinates);
+		geometry.setNormals(0, normals);
+		geometry.setColors(0, vertexColors);
+		geometry.setValidIndexCount(keys.size() * ni);
+		shape.setGeometry(geometry);
+	}
 
-		// Remove text from scene
-		final TransformGroup tg = texts.remove(key);
-		textSwitch.removeChild(tg.getParent());
+	/**
+	 * Double the number of slots in the geometry.
+	 */
+	private void grow() {
+		final int nv = sphere.nVertices;
+		final int oldCapacity = capacity;
+		capacity = 2 * capacity;
+		coordinates = Arrays.copyOf(coordinates, 3 * nv * capacity);
+		normals = Arrays.copyOf(normals, 3 * nv * capacity);
+		vertexColors = Arrays.copyOf(vertexColors, 4 * nv * capacity);
+		for (int slot = oldCapacity; slot < capacity; slot++) {
+			writeNormals(slot);
+		}
+		makeGeometry();
+	}
 
-		// Rebuild visibility mask
-		final BitSet bitSet = new BitSet(switchMask.length());
-		for (int i = 0; i < index; i++) {
-			bitSet.set(i, switchMask.get(i));
+	/**
+	 * Write the vertex coordinates of the sphere in the specified slot. Hidden
+	 * spots are collapsed to their center.
+	 */
+	private void writeCoordinates(final int slot) {
+		final Point4d center = centers.get(keys.get(slot));
+		final double r = switchMask.get(slot) ? center.w : 0d;
+		final float[] unit = sphere.vertices;
+		final int offset = 3 * sphere.nVertices * slot;
+		for (int i = 0; i < sphere.nVertices; i++) {
+			coordinates[offset + 3 * i] = (float) (unit[3 * i] * r + center.x);
+			coordinates[offset + 3 * i + 1] = (float) (unit[3 * i + 1] * r + center.y);
+			coordinates[offset + 3 * i + 2] = (float) (unit[3 * i + 2] * r + center.z);
 		}
-		for (int i = index + 1; i < switchMask.length(); i++) {
-			bitSet.set(i - 1, switchMask.get(i));
+	}
+
+	private void writeNormals(final int slot) {
+		System.arraycopy(sphere.vertices, 0, normals, 3 * sphere.nVertices * slot, 3 * sphere.nVertices);
+	}
+
+	/**
+	 * Write the vertex colors of the sphere in the specified slot. The alpha
+	 * component is the opacity of the spot.
+	 */
+	private void writeColor(final int slot) {
+		final Color4f color = colors.get(keys.get(slot));
+		final float alpha = 1f - color.w;
+		final int offset = 4 * sphere.nVertices * slot;
+		for (int i = 0; i < sphere.nVertices; i++) {
+			vertexColors[offset + 4 * i] = color.x;
+			vertexColors[offset + 4 * i + 1] = color.y;
+			vertexColors[offset + 4 * i + 2] = color.z;
+			vertexColors[offset + 4 * i + 3] = alpha;
 		}
-		switchMask = bitSet;
+	}
 
-		// Pass new visibility mask
-		spotSwitch.setChildMask(bitSet);
-		if (showLabels) {
-			textSwitch.setChildMask(bitSet);
-		} else {
-			textSwitch.setChildMask(new BitSet(centers.size()));
+	private void uploadCoordinates(final int slot) {
+		final int nv = sphere.nVertices;
+		geometry.setCoordinates(slot * nv, coordinates, slot * nv, nv);
+	}
+
+	private void uploadColor(final int slot) {
+		final int nv = sphere.nVertices;
+		geometry.setColors(slot * nv, vertexColors, slot * nv, nv);
+	}
+
+	/**
+	 * Only blend the spheres if at least one spot is transparent.
+	 */
+	private void updateTransparencyMode() {
+		transparencyAttributes.setTransparencyMode(nTransparent > 0 ? TransparencyAttributes.BLENDED : TransparencyAttributes.NONE);
+	}
+
+	private void makeLabels() {
+		for (int slot = switchMask.nextSetBit(0); slot >= 0 && slot < keys.size(); slot = switchMask.nextSetBit(slot + 1)) {
+			addLabel(keys.get(slot));
 		}
 	}
 
+	private void addLabel(final K key) {
+		final Point4d center = centers.get(key);
+		final Transform3D translation = new Transform3D();
+		translation.rotX(Math.PI);
+		translation.setTranslation(new Vector3d(center.x + 1.5f * center.w, center.y, center.z));
+		final TransformGroup tg = new TransformGroup(translation);
+
+		final OrientedShape3D textShape = new OrientedShape3D();
+		textShape.setAlignmentMode(OrientedShape3D.ROTATE_NONE);
+		final Text3D textGeom = new Text3D(font3D, key.toString());
+		textGeom.setAlignment(Text3D.ALIGN_FIRST);
+		textShape.addGeometry(textGeom);
+		textShape.setAppearance(textAp);
+		tg.addChild(textShape);
+
+		final BranchGroup bg = new BranchGroup();
+		bg.setCapability(BranchGroup.ALLOW_DETACH);
+		bg.addChild(tg);
+		textGroup.addChild(bg);
+		texts.put(key, bg);
+	}
+
+	private void removeLabel(final K key) {
+		final BranchGroup bg = texts.remove(key);
+		if (null != bg)
+			bg.detach();
+	}
+
 	/**
-	 * Create the list of points of the mesh of sphere, centered on (x, y, z) of radius r, based on
-	 * the {@link #globe} cache calculated by {@link #generateGlobe()}.
-	 * <p>
-	 * Will throw a NPE if {@link #generateGlobe()} is not called before.
-	 */
-	private List<Point3f> createSphere(final double x, final double y, final double z, final double r) {
-
-		// Create triangular faces and add them to the list
-		final ArrayList<Point3f> list = new ArrayList<Point3f>();
-		for (int j=0; j<globe.length-1; j++) { // the parallels
-			for (int k=0; k<globe[0].length -1; k++) { // meridian points
-				if(j != globe.length-2) {
-
-					// Half quadrant (a triangle)
-					list.add(new Point3f(
-							(float) (globe[j+1][k+1][0] * r + x),
-							(float) (globe[j+1][k+1][1] * r + y),
-							(float) (globe[j+1][k+1][2] * r + z)));
-					list.add(new Point3f(
-							(float) (globe[j][k][0] * r + x),
-							(float) (globe[j][k][1] * r + y),
-							(float) (globe[j][k][2] * r + z)));
-					list.add(new Point3f(
-							(float) (globe[j+1][k][0] * r + x),
-							(float) (globe[j+1][k][1] * r + y),
-							(float) (globe[j+1][k][2] * r + z)));
-				}
-				if(j != 0) {
-					// The other half quadrant
-					list.add(new Point3f(
-							(float) (globe[j][k][0] * r + x),
-							(float) (globe[j][k][1] * r + y),
-							(float) (globe[j][k][2] * r + z)));
-					list.add(new Point3f(
-							(float) (globe[j+1][k+1][0] * r + x),
-							(float) (globe[j+1][k+1][1] * r + y),
-							(float) (globe[j+1][k+1][2] * r + z)));
-					list.add(new Point3f(
-							(float) (globe[j][k+1][0] * r + x),
-							(float) (globe[j][k+1][1] * r + y),
-							(float) (globe[j][k+1][2] * r + z)));
-				}
-			}
+	 * Move the label of the spot <code>key</code>, if it is shown.
+	 */
+	private void updateLabel(final K key) {
+		if (null != texts.get(key)) {
+			removeLabel(key);
+			addLabel(key);
 		}
-		return list;
 	}
 
 
@@ -399,7 +476,7 @@ public class SpotGroupNode<K> extends ContentNode {
 	 * are set to invisible.
 	 */
 	public void setVisible(final Iterable<K> toShow) {
-		switchMask = new BitSet(meshes.size());
+		switchMask = new BitSet(keys.size());
 		Integer index;
 		for(final K key : toShow) {
 			index = indices.get(key);
@@ -407,24 +484,31 @@ public class SpotGroupNode<K> extends ContentNode {
 				continue;
 			switchMask.set(index);
 		}
-		spotSwitch.setChildMask(switchMask);
+		for (int slot = 0; slot < keys.size(); slot++)
+			writeCoordinates(slot);
+		geometry.setCoordinates(0, coordinates);
+		if (showLabels) {
+			setShowLabels(true);
+		}
 	}
 
 	public void setShowLabels(final boolean showLabels) {
 		this.showLabels = showLabels;
-		if (showLabels) {
-			textSwitch.setChildMask(switchMask);
-		} else {
-			textSwitch.setChildMask(new BitSet(centers.size()));
-		}
+		textGroup.removeAllChildren();
+		texts.clear();
+		if (showLabels)
+			makeLabels();
 	}
 
 	/**
 	 * Set the visibility of all spots.
 	 */
 	public void setVisible(final boolean visible) {
-		switchMask.set(0, switchMask.size()-1, visible);
-		spotSwitch.setChildMask(switchMask);
+		switchMask.set(0, keys.size(), visible);
+		for (int slot = 0; slot < keys.size(); slot++)
+			writeCoordinates(slot);
+		geometry.setCoordinates(0, coordinates);
+		setShowLabels(showLabels);
 	}
 
 	/**
@@ -432,31 +516,62 @@ public class SpotGroupNode<K> extends ContentNode {
 	 */
 	public void setVisible(final K key, final boolean visible) {
 		final Integer index = indices.get(key);
-		if (null == index)
+		if (null == index || switchMask.get(index) == visible)
 			return;
 		switchMask.set(index, visible);
-		spotSwitch.setChildMask(switchMask);
+		writeCoordinates(index);
+		uploadCoordinates(index);
+		if (showLabels) {
+			if (visible)
+				addLabel(key);
+			else
+				removeLabel(key);
+		}
 	}
 
 	/**
 	 * Set the color of all spots.
 	 */
 	public void setColor(final Color3f color) {
-		for (final CustomTriangleMesh mesh : meshes.values())
-			mesh.setColor(color);
+		for (final Color4f c : colors.values()) {
+			c.x = color.x;
+			c.y = color.y;
+			c.z = color.z;
+		}
+		for (int slot = 0; slot < keys.size(); slot++)
+			writeColor(slot);
+		geometry.setColors(0, vertexColors);
+	}
+
+	/**
+	 * Set the color of several spots at once. Their transparency is unchanged.
+	 */
+	public void setColors(final Map<K, Color3f> newColors) {
+		for (final K key : newColors.keySet()) {
+			final Integer index = indices.get(key);
+			if (null == index)
+				continue;
+			final Color3f color = newColors.get(key);
+			colors.get(key).x = color.x;
+			colors.get(key).y = color.y;
+			colors.get(key).z = color.z;
+			writeColor(index);
+		}
+		geometry.setColors(0, vertexColors);
 	}
 
 	/**
 	 * Set the color of the spot <code>key</code>. Its transparency is unchanged.
 	 */
 	public void setColor(final K key, final Color3f color) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		mesh.setColor(color);
 		colors.get(key).x = color.x;
 		colors.get(key).y = color.y;
 		colors.get(key).z = color.z;
+		writeColor(index);
+		uploadColor(index);
 	}
 
 	public Color4f getColor(final K key) {
@@ -472,38 +587,49 @@ public class SpotGroupNode<K> extends ContentNode {
 	 * field of the {@link Color4f} argument.
 	 */
 	public void setColor(final K key, final Color4f color) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		mesh.setColor(new Color3f(color.x, color.y, color.z));
-		mesh.setTransparency(color.w);
-		colors.put(key, new Color4f(color));
+		final Color4f previous = colors.put(key, new Color4f(color));
+		updateTransparencyCount(previous.w, color.w);
+		writeColor(index);
+		uploadColor(index);
 	}
 
 	/**
 	 * Set the transparency of the spot <code>key</code>. Its color is unchanged.
 	 */
 	public void setTransparency(final K key, final float transparency) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		mesh.setTransparency(transparency);
+		updateTransparencyCount(colors.get(key).w, transparency);
 		colors.get(key).w = transparency;
+		writeColor(index);
+		uploadColor(index);
+	}
+
+	private void updateTransparencyCount(final float previous, final float transparency) {
+		if (previous > 0 == transparency > 0)
+			return;
+		nTransparent += transparency > 0 ? 1 : -1;
+		updateTransparencyMode();
 	}
 
 	/**
-	 * Move the spot <code>key</code> center to the position given by the {@link Point3f}.
+	 * Move the spot <code>key</code> center to the position given by the {@link Point3d}.
 	 * Its radius is unchanged.
 	 */
 	public void setCenter(final K key, final Point3d center) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		final double r = centers.get(key).w;
-		mesh.setMesh(createSphere(center.x, center.y, center.z, r));
 		centers.get(key).x = center.x;
 		centers.get(key).y = center.y;
 		centers.get(key).z = center.z;
+		writeCoordinates(index);
+		uploadCoordinates(index);
+		updateLabel(key);
 	}
 
 	/**
@@ -512,24 +638,26 @@ public class SpotGroupNode<K> extends ContentNode {
 	 * Its radius is set by the <code>w</code> field.
 	 */
 	public void setCenter(final K key, final Point4d center) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		mesh.setMesh(createSphere(center.x, center.y, center.z, center.w));
 		centers.put(key, new Point4d(center));
+		writeCoordinates(index);
+		uploadCoordinates(index);
+		updateLabel(key);
 	}
 
 	/**
 	 * Change the radius of the spot <code>key</code>. Its position is unchanged.
 	 */
 	public void setRadius(final K key, final double radius) {
-		final CustomTriangleMesh mesh = meshes.get(key);
-		if (null == mesh)
+		final Integer index = indices.get(key);
+		if (null == index)
 			return;
-		final Point4d center = centers.get(key);
-		final List<Point3f> newmesh = createSphere(center.x, center.y, center.z, radius);
-		mesh.setMesh(newmesh);
-		center.w = radius;
+		centers.get(key).w = radius;
+		writeCoordinates(index);
+		uploadCoordinates(index);
+		updateLabel(key);
 	}
 
 	/*
@@ -538,20 +666,23 @@ public class SpotGroupNode<K> extends ContentNode {
 
 	@Override
 	public void colorUpdated(final Color3f color) {
-		for(final CustomTriangleMesh mesh : meshes.values())
-			mesh.setColor(color);
+		setColor(color);
 	}
 
 	@Override
 	public void transparencyUpdated(final float transparency) {
-		for(final CustomTriangleMesh mesh : meshes.values())
-			mesh.setTransparency(transparency);
+		for (final Color4f c : colors.values())
+			c.w = transparency;
+		nTransparent = transparency > 0 ? keys.size() : 0;
+		updateTransparencyMode();
+		for (int slot = 0; slot < keys.size(); slot++)
+			writeColor(slot);
+		geometry.setColors(0, vertexColors);
 	}
 
 	@Override
 	public void shadeUpdated(final boolean shaded) {
-		for (final CustomTriangleMesh mesh : meshes.values())
-			 mesh.setShaded(shaded);
+		material.setLightingEnable(shaded);
 	}
 
 	@Override
@@ -610,10 +741,10 @@ public class SpotGroupNode<K> extends ContentNode {
 
 	@Override
 	public float getVolume() {
-		float volume = 0;
-		for (final CustomTriangleMesh mesh : meshes.values())
-			volume += mesh.getVolume();
-		return volume;
+		double volume = 0;
+		for (final Point4d center : centers.values())
+			volume += 4d / 3d * Math.PI * center.w * center.w * center.w;
+		return (float) volume;
 	}
 
 
@@ -637,63 +768,82 @@ public class SpotGroupNode<K> extends ContentNode {
 	public void clearDisplayedData() {}
 
 
+	/*
+	 * INNER CLASSES
+	 */
+
 	/**
-	 * Generate a globe of radius 1.0 that can be used for any Ball. First dimension is Z,
-	 * then comes a double array x,y. Minimal accepted meridians and parallels is 3.
-	 * <p>
-	 * Taken from Albert and Bene's MeshMaker, simply changed the primitives from double to float.
-	 */
-	private static float[][][] generateGlobe(int meridians, int parallels) {
-		if (meridians < 3) meridians = 3;
-		if (parallels < 3) parallels = 3;
-		/* to do: 2 loops:
-		-first loop makes horizontal circle using meridian points.
-		-second loop scales it appropriately and makes parallels.
-		Both loops are common for all balls and so should be done just once.
-		Then this globe can be properly translocated and resized for each ball.
-		*/
-		// a circle of radius 1
-		float angle_increase = (float) (2*Math.PI / meridians);
-		float temp_angle = 0;
-		final float[][] xy_points = new float[meridians+1][2];    //plus 1 to repeat last point
-		xy_points[0][0] = 1;     // first point
-		xy_points[0][1] = 0;
-		for (int m=1; m<meridians; m++) {
-			temp_angle = angle_increase*m;
-			xy_points[m][0] = (float) Math.cos(temp_angle);
-			xy_points[m][1] = (float) Math.sin(temp_angle);
-		}
-		xy_points[xy_points.length-1][0] = 1; // last point
-		xy_points[xy_points.length-1][1] = 0;
-
-		// Build parallels from circle
-		angle_increase = (float) (Math.PI / parallels);   // = 180 / parallels in radians
-		final float[][][] xyz = new float[parallels+1][xy_points.length][3];
-		for (int p=1; p<xyz.length-1; p++) {
-			final float radius = (float) Math.sin(angle_increase*p);
-			final float Z = (float) Math.cos(angle_increase*p);
-			for (int mm=0; mm<xyz[0].length-1; mm++) {
-				//scaling circle to appropriate radius, and positioning the Z
-				xyz[p][mm][0] = xy_points[mm][0] * radius;
-				xyz[p][mm][1] = xy_points[mm][1] * radius;
-				xyz[p][mm][2] = Z;
+	 * A sphere of radius 1 centered at (0, 0, 0), made of parallels and
+	 * meridians, with shared vertices. The vertices are also the normals.
+	 */
+	private static final class Sphere {
+
+		private final int nVertices;
+		private final int nIndices;
+		/** Vertex coordinates, 3 per vertex. */
+		private final float[] vertices;
+		/** Vertex indices, 3 per triangle, counter-clockwise seen from outside. */
+		private final int[] indices;
+
+		private Sphere(final int meridians, final int parallels) {
+			// North pole, then parallels from north to south, then south pole.
+			nVertices = 2 + (parallels - 1) * meridians;
+			vertices = new float[3 * nVertices];
+			vertices[2] = 1f;
+			for (int p = 1; p < parallels; p++) {
+				final double theta = Math.PI * p / parallels;
+				for (int m = 0; m < meridians; m++) {
+					final double phi = 2 * Math.PI * m / meridians;
+					final int v = 1 + (p - 1) * meridians + m;
+					vertices[3 * v] = (float) (Math.sin(theta) * Math.cos(phi));
+					vertices[3 * v + 1] = (float) (Math.sin(theta) * Math.sin(phi));
+					vertices[3 * v + 2] = (float) Math.cos(theta);
+				}
+			}
+			vertices[3 * (nVertices - 1) + 2] = -1f;
+
+			nIndices = 3 * meridians * (2 * parallels - 2);
+			indices = new int[nIndices];
+			int i = 0;
+			for (int m = 0; m < meridians; m++) {
+				final int m1 = (m + 1) % meridians;
+				// North cap
+				i = addTriangle(i, 0, 1 + m, 1 + m1);
+				// Bands
+				for (int p = 1; p < parallels - 1; p++) {
+					final int a = 1 + (p - 1) * meridians + m;
+					final int b = 1 + (p - 1) * meridians + m1;
+					final int c = 1 + p * meridians + m;
+					final int d = 1 + p * meridians + m1;
+					i = addTriangle(i, a, c, b);
+					i = addTriangle(i, b, c, d);
+				}
+				// South cap
+				final int a = 1 + (parallels - 2) * meridians + m;
+				final int b = 1 + (parallels - 2) * meridians + m1;
+				i = addTriangle(i, nVertices - 1, b, a);
 			}
-			xyz[p][xyz[0].length-1][0] = xyz[p][0][0];  //last one equals first one
-			xyz[p][xyz[0].length-1][1] = xyz[p][0][1];
-			xyz[p][xyz[0].length-1][2] = xyz[p][0][2];
 		}
 
-		// south and north poles
-		for (int ns=0; ns<xyz[0].length; ns++) {
-			xyz[0][ns][0] = 0;	//south pole
-			xyz[0][ns][1] = 0;
-			xyz[0][ns][2] = 1;
-			xyz[xyz.length-1][ns][0] = 0;    //north pole
-			xyz[xyz.length-1][ns][1] = 0;
-			xyz[xyz.length-1][ns][2] = -1;
+		/**
+		 * Store a triangle, oriented so that it faces outwards.
+		 */
+		private int addTriangle(final int i, final int a, final int b, final int c) {
+			final float[] v = vertices;
+			final float ux = v[3 * b] - v[3 * a];
+			final float uy = v[3 * b + 1] - v[3 * a + 1];
+			final float uz = v[3 * b + 2] - v[3 * a + 2];
+			final float wx = v[3 * c] - v[3 * a];
+			final float wy = v[3 * c + 1] - v[3 * a + 1];
+			final float wz = v[3 * c + 2] - v[3 * a + 2];
+			final float nx = uy * wz - uz * wy;
+			final float ny = uz * wx - ux * wz;
+			final float nz = ux * wy - uy * wx;
+			final float dot = nx * (v[3 * a] + v[3 * b] + v[3 * c]) + ny * (v[3 * a + 1] + v[3 * b + 1] + v[3 * c + 1]) + nz * (v[3 * a + 2] + v[3 * b + 2] + v[3 * c + 2]);
+			indices[i] = a;
+			indices[i + 1] = dot >= 0 ? b : c;
+			indices[i + 2] = dot >= 0 ? c : b;
+			return i + 3;
 		}
-
-		return xyz;
 	}
-
 }
@@ -2,14 +2,12 @@ package fiji.plugin.trackmate.visualization.threedviewer;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import ij3d.ContentNode;
 import ij3d.TimelapseListener;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -22,62 +20,58 @@ import javax.media.j3d.LineArray;
 import javax.media.j3d.LineAttributes;
 import javax.media.j3d.RenderingAttributes;
 import javax.media.j3d.Shape3D;
-import javax.media.j3d.Switch;
 import javax.media.j3d.TransparencyAttributes;
 import javax.media.j3d.View;
 import javax.vecmath.Color3f;
-import javax.vecmath.Color4f;
 import javax.vecmath.Point3d;
 import javax.vecmath.Tuple3d;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
+/**
+ * A {@link ContentNode} that displays all the tracks of a model.
+ * <p>
+ * The edges of all tracks are stored in a single {@link LineArray}, sorted by
+ * the frame of their source spot, so that the edges of one frame form a
+ * contiguous range of vertices. The time window of the local display modes,
+ * as well as the track visibility, are rendered through the alpha component of
+ * the vertex colors: edges with an alpha below the alpha test value are not
+ * drawn. When the current time-point changes, only the ranges of the frames
+ * whose alpha changed are rewritten.
+ */
 public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 
 	/** The model, needed to retrieve connectivity. */
 	private final Model model;
 
-	/** Hold the color and transparency of all spots for a given track. */
-	private final HashMap<Integer,Color> colors = new HashMap<Integer, Color>();
-
 	private int displayDepth = TrackMateModelView.DEFAULT_TRACK_DISPLAY_DEPTH;
 	private int displayMode = TrackMateModelView.DEFAULT_TRACK_DISPLAY_MODE;
 
 	private int currentTimePoint = 0;
 
+	/** The edges, sorted by the frame of their source. */
+	private DefaultWeightedEdge[] edges;
+	/** Maps each edge to its index in {@link #edges}. */
+	private Map<DefaultWeightedEdge, Integer> edgeIndices;
+	/** For each edge, the index of its track in {@link #trackVisible}. */
+	private int[] edgeTracks;
+	/** Maps track IDs to their index in {@link #trackVisible}. */
+	private Map<Integer, Integer> trackIndices;
+	/** Visibility of each track. */
+	private boolean[] trackVisible;
+	/** The distinct frames of the edge sources, in increasing order. */
+	private int[] frames;
 	/**
-	 * Reference for each frame, then for each track, the line primitive indices of edges
-	 * present in that track and in that frame. <p>
-	 * For instance
-	 * <pre>
-	 *  frameIndices.get(2).get(3) = { 5, 10 }
-	 * </pre>
-	 * indicates that in the frame number 2, the track number 3 has 2 edges, that
-	 * are represented in the {@link LineArray} primitive by points with indices 5 and 10.
-	 */
-	private HashMap<Integer, HashMap<Integer, ArrayList<Integer> > > frameIndices;
-	/**
-	 * Dictionary referencing the line vertices corresponding to each edge, for each track.
-	 */
-	private Map<Integer, HashMap<DefaultWeightedEdge, Integer>> edgeIndices;
-
-	/**
-	 * Primitives: one {@link LineArray} per track.
-	 */
-	private Map<Integer, LineArray> lines;
-	/**
-	 * Switch used for display. Is the only child of this {@link ContentNode}.
-	 */
-	private Switch trackSwitch;
-	/**
-	 * Boolean set that controls the visibility of each tracks.
+	 * Index of the first edge of each frame in {@link #edges}, plus the number
+	 * of edges as last element.
 	 */
-	private BitSet switchMask;
-	/**
-	 * Maps track IDs to their index in the switch mask.
-	 */
-	private HashMap<Integer, Integer> switchMaskIndex;
-
+	private int[] frameStarts;
+	/** The alpha currently applied to the edges of each frame. */
+	private float[] frameAlphas;
+	/** The vertex colors, 4 per vertex and 2 vertices per edge. */
+	private float[] colors;
+	/** The primitive holding all edges. <code>null</code> if there is none. */
+	private LineArray line;
 
 	/*
 	 * CONSTRUCTOR
@@ -88,7 +82,6 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 		setCapability(ALLOW_CHILDREN_WRITE);
 		setCapability(ALLOW_CHILDREN_EXTEND);
 		makeMeshes();
-		setTrackVisible(model.getTrackModel().trackIDs(true));
 	}
 
 	/*
@@ -100,231 +93,87 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 	 * all other tracks to false.
 	 */
 	public void setTrackVisible(final Collection<Integer> trackIDs) {
-		switchMask.set(0, model.getTrackModel().nTracks(false), false);
+		Arrays.fill(trackVisible, false);
 		for (final Integer trackID : trackIDs) {
-			final int trackIndex = switchMaskIndex.get(trackID).intValue();
-			switchMask.set(trackIndex, true);
+			final Integer trackIndex = trackIndices.get(trackID);
+			if (null != trackIndex)
+				trackVisible[trackIndex.intValue()] = true;
 		}
-		trackSwitch.setChildMask(switchMask);
+		Arrays.fill(frameAlphas, Float.NaN);
+		refresh();
 	}
 
 	public void setTrackDisplayMode(final int mode) {
 		this.displayMode = mode;
-		if (displayMode == TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE) {
-			final Color4f color = new Color4f();
-			for (final Integer trackID : lines.keySet()) {
-				final LineArray line = lines.get(trackID);
-
-				for (int i = 0; i < line.getVertexCount(); i++) {
-					line.getColor(i, color);
-					color.w = 1f;
-					line.setColor(i, color);
-				}
-			}
-		}
+		refresh();
 	}
 
 	public void setTrackDisplayDepth(final int displayDepth) {
 		this.displayDepth = displayDepth;
 	}
 
+	/**
+	 * Updates the alpha of the edges of the frames that entered or left the
+	 * display window.
+	 */
 	void refresh() {
-		// Holder for passing values
-		final Color4f color = new Color4f();
-		switch (displayMode) {
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE: {
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = Math.abs(frame - currentTimePoint);
-				if (frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = Math.abs(frame - currentTimePoint);
-				if (frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = currentTimePoint - frame;
-				if (frameDist <= 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = currentTimePoint - frame;
-				if (frameDist <= 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = frame - currentTimePoint;
-				if (frameDist < 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f - (float) frameDist / displayDepth;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
-			}
-			break;
-		}
+		if (null == line)
+			return;
 
-		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK: {
-			float tp;
-			int frameDist;
-			for (final int frame : frameIndices.keySet()) {
-				frameDist = frame - currentTimePoint;
-				if (frameDist < 0 || frameDist > displayDepth)
-					tp = 0f;
-				else
-					tp = 1f;
-
-				for (final Integer trackID : lines.keySet()) {
-					final LineArray line = lines.get(trackID);
-					if (null == line) {
-						continue;
-					}
-					for (final Integer index : frameIndices.get(frame).get(trackID)) {
-						line.getColor(index, color);
-						color.w = tp;
-						line.setColor(index, color);
-						line.setColor(index+1, color);
-					}
-				}
+		int firstChanged = Integer.MAX_VALUE;
+		int lastChanged = -1;
+		for (int f = 0; f < frames.length; f++) {
+			final float alpha = frameAlpha(frames[f]);
+			if (alpha == frameAlphas[f])
+				continue;
+			frameAlphas[f] = alpha;
+			for (int e = frameStarts[f]; e < frameStarts[f + 1]; e++) {
+				final float a = trackVisible[edgeTracks[e]] ? alpha : 0f;
+				colors[8 * e + 3] = a;
+				colors[8 * e + 7] = a;
 			}
-			break;
-		}
+			firstChanged = Math.min(firstChanged, frameStarts[f]);
+			lastChanged = frameStarts[f + 1];
 		}
-
+		if (lastChanged > firstChanged)
+			line.setColors(2 * firstChanged, colors, 2 * firstChanged, 2 * (lastChanged - firstChanged));
 	}
 
 	/**
 	 * Sets the color of the given edge mesh.
 	 */
 	public void setColor(final DefaultWeightedEdge edge, final Color color) {
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf(edge);
-
-		// Set color of corresponding line primitive
-		final Color4f color4 = new Color4f();
-		final int index = edgeIndices.get(trackID).get(edge);
-		final LineArray line = lines.get(trackID);
-		if (null == line) {
+		final Integer index = edgeIndices.get(edge);
+		if (null == index)
 			return;
+		writeColor(index.intValue(), color);
+		line.setColors(2 * index.intValue(), colors, 2 * index.intValue(), 2);
+	}
+
+	/**
+	 * Sets the color of several edges at once.
+	 */
+	public void setColors(final Map<DefaultWeightedEdge, Color> edgeColors) {
+		if (null == line)
+			return;
+		for (final DefaultWeightedEdge edge : edgeColors.keySet()) {
+			final Integer index = edgeIndices.get(edge);
+			if (null == index)
+				continue;
+			writeColor(index.intValue(), edgeColors.get(edge));
 		}
-		line.getColor(index, color4);
-		final float[] val = color.getRGBColorComponents(null);
-		color4.x = val[0];
-		color4.y = val[1];
-		color4.z = val[2];
-		line.setColor(index, color4);
-		line.setColor(index+1, color4);
+		line.setColors(0, colors);
 	}
 
 	/**
 	 * Returns the color of the specified edge mesh.
 	 */
 	public Color getColor(final DefaultWeightedEdge edge) {
-		// First, find to what track it belongs to
-		final int trackID = model.getTrackModel().trackIDOf(edge);
-		// Retrieve color from index
-		final Color4f color = new Color4f();
-		final int index = edgeIndices.get(trackID).get(edge);
-		final LineArray line = lines.get(trackID);
-		if (null == line) {
+		final Integer index = edgeIndices.get(edge);
+		if (null == index)
 			return null;
-		}
-		line.getColor(index, color);
-		return color.get();
+		final int i = 8 * index.intValue();
+		return new Color(colors[i], colors[i + 1], colors[i + 2], Math.max(0f, Math.min(1f, colors[i + 3])));
 	}
 
 
@@ -342,35 +191,153 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 	 * PRIVATE METHODS
 	 */
 
+	/**
+	 * Returns the alpha of the edges whose source is in the specified frame,
+	 * for the current display mode and time-point.
+	 */
+	private float frameAlpha(final int frame) {
+		final int frameDist;
+		switch (displayMode) {
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
+			frameDist = Math.abs(frame - currentTimePoint);
+			if (frameDist > displayDepth)
+				return 0f;
+			break;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
+			frameDist = currentTimePoint - frame;
+			if (frameDist <= 0 || frameDist > displayDepth)
+				return 0f;
+			break;
+
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
+			frameDist = frame - currentTimePoint;
+			if (frameDist < 0 || frameDist > displayDepth)
+				return 0f;
+			break;
+
+		default:
+			return 1f;
+		}
+
+		switch (displayMode) {
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
+		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
+			return 1f - (float) frameDist / displayDepth;
+		default:
+			return 1f;
+		}
+	}
+
+	private void writeColor(final int index, final Color color) {
+		final float[] val = color.getRGBColorComponents(null);
+		for (int v = 0; v < 2; v++) {
+			final int i = 8 * index + 4 * v;
+			colors[i] = val[0];
+			colors[i + 1] = val[1];
+			colors[i + 2] = val[2];
+		}
+	}
+
 	protected void makeMeshes() {
 
-		this.trackSwitch = new Switch(Switch.CHILD_MASK);
-		trackSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		trackSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
-		trackSwitch.setCapability(Switch.ALLOW_CHILDREN_EXTEND);
-		this.switchMask = new BitSet();
-
-		// All edges of ALL tracks
-		final int ntracks = model.getTrackModel().nTracks(false);
-
-		// Instantiate refs fields
-		final int nframes = model.getSpots().keySet().size();
-		frameIndices = new HashMap<Integer, HashMap<Integer, ArrayList<Integer>>>(nframes, 1); // optimum
-		for (final int frameIndex : model.getSpots().keySet()) {
-			frameIndices.put(frameIndex, new HashMap<Integer, ArrayList<Integer>>(ntracks));
-			for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-				frameIndices.get(frameIndex).put(trackID, new ArrayList<Integer>());
+		// Index tracks
+		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(false);
+		trackIndices = new HashMap<Integer, Integer>(trackIDs.size());
+		trackVisible = new boolean[trackIDs.size()];
+		int nEdges = 0;
+		for (final Integer trackID : trackIDs) {
+			final int trackIndex = trackIndices.size();
+			trackIndices.put(trackID, trackIndex);
+			trackVisible[trackIndex] = model.getTrackModel().isVisible(trackID);
+			nEdges += model.getTrackModel().trackEdges(trackID).size();
+		}
+
+		// Sort edges by source frame, packed with their index in one long.
+		final DefaultWeightedEdge[] unsorted = new DefaultWeightedEdge[nEdges];
+		final int[] unsortedTracks = new int[nEdges];
+		final long[] keys = new long[nEdges];
+		int e = 0;
+		for (final Integer trackID : trackIDs) {
+			final int trackIndex = trackIndices.get(trackID);
+			for (final DefaultWeightedEdge edge : model.getTrackModel().trackEdges(trackID)) {
+				final Spot source = model.getTrackModel().getEdgeSource(edge);
+				final int frame = (int) source.getFeature(Spot.FRAME_INDEX);
+				unsorted[e] = edge;
+				unsortedTracks[e] = trackIndex;
+				keys[e] = ((long) frame << 32) | e;
+				e++;
 			}
 		}
-		edgeIndices = new HashMap<Integer, HashMap<DefaultWeightedEdge,Integer>>(ntracks);
-		for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-			final int nedges = model.getTrackModel().trackEdges(trackID).size();
-			edgeIndices.put(trackID, new HashMap<DefaultWeightedEdge, Integer>(nedges, 1));
+		Arrays.sort(keys);
+
+		edges = new DefaultWeightedEdge[nEdges];
+		edgeTracks = new int[nEdges];
+		edgeIndices = new HashMap<DefaultWeightedEdge, Integer>(nEdges);
+		final float[] coordinates = new float[6 * nEdges];
+		colors = new float[8 * nEdges];
+		final float[] defaultColor = TrackMateModelView.DEFAULT_SPOT_COLOR.getRGBColorComponents(null);
+		int nFrames = 0;
+		final int[] edgeFrames = new int[nEdges];
+		for (int i = 0; i < nEdges; i++) {
+			final int k = (int) (keys[i] & 0xffffffffl);
+			final DefaultWeightedEdge edge = unsorted[k];
+			edges[i] = edge;
+			edgeTracks[i] = unsortedTracks[k];
+			edgeIndices.put(edge, i);
+			edgeFrames[i] = (int) (keys[i] >> 32);
+			if (i == 0 || edgeFrames[i] != edgeFrames[i - 1])
+				nFrames++;
+
+			// Add coords and colors of each vertex
+			final Spot source = model.getTrackModel().getEdgeSource(edge);
+			final Spot target = model.getTrackModel().getEdgeTarget(edge);
+			for (int d = 0; d < 3; d++) {
+				coordinates[6 * i + d] = (float) source.getFeature(Spot.POSITION_FEATURE_INDICES[d]);
+				coordinates[6 * i + 3 + d] = (float) target.getFeature(Spot.POSITION_FEATURE_INDICES[d]);
+			}
+			for (int v = 0; v < 2; v++) {
+				colors[8 * i + 4 * v] = defaultColor[0];
+				colors[8 * i + 4 * v + 1] = defaultColor[1];
+				colors[8 * i + 4 * v + 2] = defaultColor[2];
+				colors[8 * i + 4 * v + 3] = 1f;
+			}
 		}
-		lines = new HashMap<Integer, LineArray>(ntracks);
 
-		// Holder for coordinates (array ref will not be used, just its elements)
-		double[] coordinates = new double[3];
+		// Frame ranges
+		frames = new int[nFrames];
+		frameStarts = new int[nFrames + 1];
+		int f = -1;
+		for (int i = 0; i < nEdges; i++) {
+			if (i == 0 || edgeFrames[i] != edgeFrames[i - 1]) {
+				f++;
+				frames[f] = edgeFrames[i];
+				frameStarts[f] = i;
+			}
+		}
+		frameStarts[nFrames] = nEdges;
+		frameAlphas = new float[nFrames];
+		Arrays.fill(frameAlphas, Float.NaN);
+
+		removeAllChildren();
+		final BranchGroup branchGroup = new BranchGroup();
+		branchGroup.setCapability(BranchGroup.ALLOW_DETACH);
+		if (nEdges == 0) {
+			line = null;
+			addChild(branchGroup);
+			return;
+		}
+
+		// One line object to display all edges of all tracks
+		line = new LineArray(2 * nEdges, LineArray.COORDINATES | LineArray.COLOR_4);
+		line.setCapability(LineArray.ALLOW_COLOR_WRITE);
+		line.setCoordinates(0, coordinates);
+		line.setColors(0, colors);
 
 		// Common line appearance
 		final Appearance appearance = new Appearance();
@@ -383,68 +350,9 @@ public class TrackDisplayNode extends ContentNode implements TimelapseListener {
 		renderingAtts.setAlphaTestValue(0.3f);
 		appearance.setRenderingAttributes(renderingAtts);
 
-		// Iterate over each track
-		switchMaskIndex = new HashMap<Integer, Integer>(ntracks);
-		int trackIndex = 0;
-		for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-			switchMaskIndex.put(trackID, trackIndex++);
-
-			final Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
-
-			// One line object to display all edges of one track
-			final LineArray line = new LineArray(2 * track.size(), LineArray.COORDINATES | LineArray.COLOR_4);
-			line.setCapability(LineArray.ALLOW_COLOR_WRITE);
-
-			// Color
-			Color trackColor = colors.get(trackID);
-			if (null == trackColor) {
-				trackColor = TrackMateModelView.DEFAULT_SPOT_COLOR;
-			}
-			final Color4f color = new Color4f(trackColor);
-			color.w = 1f; // opaque edge for now
-
-			// Iterate over track edge
-			int edgeIndex = 0;
-			for (final DefaultWeightedEdge edge : track) {
-				// Find source and target
-				final Spot target = model.getTrackModel().getEdgeTarget(edge);
-				final Spot source = model.getTrackModel().getEdgeSource(edge);
-
-				// Add coords and colors of each vertex
-				coordinates = new double[3];
-				TMUtils.localize(source, coordinates);
-				line.setCoordinate(edgeIndex, coordinates);
-				line.setColor(edgeIndex, color);
-				edgeIndex++;
-				coordinates = new double[3];
-				TMUtils.localize(target, coordinates);
-				line.setCoordinate(edgeIndex, coordinates);
-				line.setColor(edgeIndex, color);
-				edgeIndex++;
-
-				// Keep refs
-				edgeIndices.get(trackID).put(edge, edgeIndex-2);
-				final int frame = source.getFeature(Spot.FRAME).intValue();
-				frameIndices.get(frame).get(trackID).add(edgeIndex-2);
-
-			} // Finished building this track's line
-
-			// Add primitive to the switch and to the ref list
-			lines.put(trackID, line);
-			trackSwitch.addChild(new Shape3D(line, appearance));
-
-		} // Finish iterating over tracks
-
-		// Add main switch to this content
-		switchMask = new BitSet(ntracks);
-		switchMask.set(0, ntracks, true); // all visible
-		trackSwitch.setChildMask(switchMask);
-
-		removeAllChildren();
-		final BranchGroup branchGroup = new BranchGroup();
-		branchGroup.setCapability(BranchGroup.ALLOW_DETACH);
-		branchGroup.addChild(trackSwitch);
+		branchGroup.addChild(new Shape3D(line, appearance));
 		addChild(branchGroup);
+		refresh();
 	}
 
 
@@ -1,9 +1,9 @@
 package fiji.plugin.trackmate.visualization.trackscheme;
 
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
@@ -12,9 +12,9 @@ import javax.imageio.ImageIO;
 import net.imagej.ImgPlus;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.view.Views;
 
 import com.mxgraph.util.mxBase64;
@@ -46,6 +46,29 @@ public class SpotIconGrabber< T extends RealType< T >>
 	 * thanks to the calibration stored in the {@link ImgPlus}.
 	 */
 	public String getImageString( final Spot spot )
+	{
+		final BufferedImage image = getImage( spot );
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try
+		{
+			ImageIO.write( image, "png", bos );
+			return mxBase64.encodeToString( bos.toByteArray(), false );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return "";
+		}
+	}
+
+	/**
+	 * Returns an 8-bit thumbnail of the specified spot, cropped from the image
+	 * given at construction. Pixel values are read directly from the image and
+	 * scaled to the display range, as ImageJ would do for a fresh image: from
+	 * 0 to 255 for 8-bit images, and from the min to the max of the crop for
+	 * other types.
+	 */
+	public BufferedImage getImage( final Spot spot )
 	{
 		// Get crop coordinates
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
@@ -53,10 +76,9 @@ public class SpotIconGrabber< T extends RealType< T >>
 																// REQUIRED!
 		final long x = Math.round( ( spot.getFeature( Spot.POSITION_X ) - radius ) / calibration[ 0 ] );
 		final long y = Math.round( ( spot.getFeature( Spot.POSITION_Y ) - radius ) / calibration[ 1 ] );
-		final long width = Math.max( 1, Math.round( 2 * radius / calibration[ 0 ] ) );
-		final long height = Math.max( 1, Math.round( 2 * radius / calibration[ 1 ] ) );
+		final int width = ( int ) Math.max( 1, Math.round( 2 * radius / calibration[ 0 ] ) );
+		final int height = ( int ) Math.max( 1, Math.round( 2 * radius / calibration[ 1 ] ) );
 
-		// Copy cropped view
 		long slice = 0;
 		if ( img.numDimensions() > 2 )
 		{
@@ -71,26 +93,52 @@ public class SpotIconGrabber< T extends RealType< T >>
 			}
 		}
 
-		final Img< T > crop = grabImage( x, y, slice, width, height );
-
-		// Convert to ImagePlus
-		final ImagePlus imp = ImageJFunctions.wrap( crop, crop.toString() );
-		final ImageProcessor ip = imp.getProcessor();
-		ip.resetMinAndMax();
-
-		// Convert to base64
-		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		final BufferedImage img = ip.getBufferedImage();
-		try
+		// Read the crop, out of bounds pixels being 0.
+		final T zeroType = img.firstElement().createVariable();
+		zeroType.setZero();
+		final OutOfBoundsConstantValueFactory< T, ImgPlus< T >> oobf = new OutOfBoundsConstantValueFactory< T, ImgPlus< T >>( zeroType );
+		final RandomAccess< T > ra = Views.extend( img, oobf ).randomAccess();
+		if ( img.numDimensions() > 2 )
 		{
-			ImageIO.write( img, "png", bos );
-			return mxBase64.encodeToString( bos.toByteArray(), false );
+			ra.setPosition( slice, 2 );
 		}
-		catch ( final IOException e )
+		final double[] values = new double[ width * height ];
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for ( int j = 0; j < height; j++ )
 		{
-			e.printStackTrace();
-			return "";
+			ra.setPosition( j + y, 1 );
+			for ( int i = 0; i < width; i++ )
+			{
+				ra.setPosition( i + x, 0 );
+				final double val = ra.get().getRealDouble();
+				values[ i + j * width ] = val;
+				if ( val < min )
+				{
+					min = val;
+				}
+				if ( val > max )
+				{
+					max = val;
+				}
+			}
+		}
+		if ( zeroType instanceof UnsignedByteType )
+		{
+			min = 0d;
+			max = 255d;
+		}
+
+		// Scale to 8-bit.
+		final BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_BYTE_GRAY );
+		final byte[] pixels = ( ( DataBufferByte ) image.getRaster().getDataBuffer() ).getData();
+		final double scale = max > min ? 256d / ( max - min + 1d ) : 0d;
+		for ( int k = 0; k < values.length; k++ )
+		{
+			final int val = ( int ) ( ( values[ k ] - min ) * scale + 0.5d );
+			pixels[ k ] = ( byte ) Math.max( 0, Math.min( 255, val ) );
 		}
+		return image;
 	}
 
 	public final Img< T > grabImage( final long x, final long y, final long slice, final long width, final long height )
@@ -2,56 +2,487 @@ package fiji.plugin.trackmate.visualization.trackscheme;
 
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
 
 import net.imagej.ImgPlus;
 import net.imglib2.meta.view.HyperSliceImgPlus;
+import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
 import fiji.plugin.trackmate.util.TMUtils;
 
-public class SpotImageUpdater {
-	
-	private Integer previousFrame;
-	private SpotIconGrabber<?> grabber;
+/**
+ * Generates and caches the thumbnails of spots displayed in TrackScheme.
+ * <p>
+ * Thumbnails are stored as base64-encoded PNG strings, which is what the
+ * TrackScheme cell styles and its SVG export use. They are kept in a cache
+ * bounded by size, from which the least recently used entries are evicted.
+ * An entry is keyed by the spot ID and is only valid for the position, radius
+ * and frame the spot had when it was generated, so an edited spot gets a new
+ * thumbnail without invalidating the others.
+ * <p>
+ * Thumbnails can be fetched synchronously with {@link #getImageString(Spot)},
+ * or requested with {@link #request(Collection, boolean)}. Requested
+ * thumbnails are generated in parallel in the background, and are delivered
+ * in small batches to the {@link ThumbnailListener} on the event dispatch
+ * thread, so that the display fills in progressively. The background thread
+ * stops when it has nothing to do, and for good after {@link #shutdown()}.
+ *
+ * @author Jean-Yves Tinevez - 2014
+ */
+public class SpotImageUpdater
+{
+
+	/** Default size of the thumbnail cache, in bytes. */
+	public static final long DEFAULT_CACHE_SIZE = 64l * 1024l * 1024l;
+
+	/** Number of thumbnails generated and delivered at once. */
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * Time after which the background thread stops when it has nothing to do,
+	 * in seconds.
+	 */
+	private static final long IDLE_TIMEOUT = 5l;
+
+	/** Estimated memory used by one entry, not counting its string. */
+	private static final long ENTRY_OVERHEAD = 96l;
+
 	private final Settings settings;
 
-	public SpotImageUpdater(final Settings settings) {
+	private final long maxCacheSize;
+
+	/** The cache, in access order. */
+	private final LinkedHashMap< Integer, Thumbnail > cache = new LinkedHashMap< Integer, Thumbnail >( 16, 0.75f, true );
+
+	private long cacheSize = 0;
+
+	/** The spots waiting for a thumbnail, in priority order. */
+	private final LinkedBlockingDeque< Spot > queue = new LinkedBlockingDeque< Spot >();
+
+	private final ComputePool pool = new ComputePool( Runtime.getRuntime().availableProcessors() );
+
+	private Thread worker;
+
+	private ThumbnailListener listener;
+
+	private Logger logger = Logger.DEFAULT_LOGGER;
+
+	private boolean isShutdown = false;
+
+	/** Grabber used by the synchronous path. */
+	private final FrameGrabber grabber = new FrameGrabber();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public SpotImageUpdater( final Settings settings, final long maxCacheSize )
+	{
 		this.settings = settings;
-		this.previousFrame = -1;
-	}
-
-	/**
-	 * @return the image string of the given spot, based on the raw images contained in the given model.
-	 * For performance, the image at target frame is stored for subsequent calls of this method. 
-	 * So it is a good idea to group calls to this method for spots that belong to the
-	 * same frame.
-	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public String getImageString(final Spot spot) {
-
-		Integer frame = spot.getFeature(Spot.FRAME).intValue();
-		if (null == frame)
-			return "";
-		if (frame == previousFrame) {
-			// Keep the same image than in memory
-		} else {
-			ImgPlus img = TMUtils.rawWraps(settings.imp);
-			int targetChannel = 0;
-			if (settings != null && settings.detectorSettings != null) {
-				// Try to extract it from detector settings target channel
-				Map<String, Object> ds = settings.detectorSettings;
-				Object obj = ds.get(KEY_TARGET_CHANNEL);
-				if (null != obj && obj instanceof Integer) {
-					targetChannel = ((Integer) obj) - 1;
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	public SpotImageUpdater( final Settings settings )
+	{
+		this( settings, DEFAULT_CACHE_SIZE );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * @return the image string of the given spot, based on the raw images
+	 *         contained in the given model. The string is taken from the cache
+	 *         if possible, and generated in the calling thread otherwise. For
+	 *         performance, the image at target frame is stored for subsequent
+	 *         calls of this method. So it is a good idea to group calls to
+	 *         this method for spots that belong to the same frame.
+	 */
+	public String getImageString( final Spot spot )
+	{
+		final String cached = getCachedImageString( spot );
+		if ( null != cached ) { return cached; }
+
+		final String str;
+		synchronized ( grabber )
+		{
+			str = grabber.getImageString( spot );
+		}
+		store( spot, str );
+		return str;
+	}
+
+	/**
+	 * Returns the image string of the given spot if it is in the cache and
+	 * still valid, or <code>null</code> otherwise.
+	 */
+	public synchronized String getCachedImageString( final Spot spot )
+	{
+		final Thumbnail thumbnail = cache.get( Integer.valueOf( spot.ID() ) );
+		if ( null == thumbnail || !thumbnail.isValidFor( spot ) ) { return null; }
+		return thumbnail.str;
+	}
+
+	/**
+	 * Removes the thumbnail of the given spot from the cache.
+	 */
+	public synchronized void invalidate( final Spot spot )
+	{
+		final Thumbnail thumbnail = cache.remove( Integer.valueOf( spot.ID() ) );
+		if ( null != thumbnail )
+		{
+			cacheSize -= thumbnail.size();
+		}
+	}
+
+	/**
+	 * Sets the listener notified of the thumbnails generated in the
+	 * background.
+	 */
+	public void setThumbnailListener( final ThumbnailListener listener )
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the logger to which errors met in the background are reported.
+	 */
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/**
+	 * Requests thumbnails for the given spots, to be generated in the
+	 * background and delivered to the {@link ThumbnailListener}. Spots are
+	 * processed in the order of the collection.
+	 *
+	 * @param spots
+	 *            the spots to generate a thumbnail for.
+	 * @param first
+	 *            if <code>true</code>, the spots are processed before the ones
+	 *            already waiting, e.g. because they are currently visible.
+	 */
+	public void request( final Collection< Spot > spots, final boolean first )
+	{
+		if ( first )
+		{
+			final List< Spot > list = new ArrayList< Spot >( spots );
+			for ( int i = list.size() - 1; i >= 0; i-- )
+			{
+				queue.addFirst( list.get( i ) );
+			}
+		}
+		else
+		{
+			queue.addAll( spots );
+		}
+		startWorker();
+	}
+
+	/**
+	 * Discards all the pending thumbnail requests.
+	 */
+	public void cancel()
+	{
+		queue.clear();
+	}
+
+	/**
+	 * Discards all the pending thumbnail requests and stops the background
+	 * threads. Later requests are ignored. The cache and the synchronous path
+	 * remain usable.
+	 */
+	public synchronized void shutdown()
+	{
+		isShutdown = true;
+		queue.clear();
+		if ( null != worker )
+		{
+			worker.interrupt();
+			worker = null;
+		}
+		pool.shutdownNow();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private synchronized void store( final Spot spot, final String str )
+	{
+		final Thumbnail thumbnail = new Thumbnail( spot, str );
+		final Thumbnail previous = cache.put( Integer.valueOf( spot.ID() ), thumbnail );
+		if ( null != previous )
+		{
+			cacheSize -= previous.size();
+		}
+		cacheSize += thumbnail.size();
+
+		final Iterator< Thumbnail > it = cache.values().iterator();
+		while ( cacheSize > maxCacheSize && it.hasNext() )
+		{
+			final Thumbnail eldest = it.next();
+			if ( eldest == thumbnail )
+			{
+				break;
+			}
+			cacheSize -= eldest.size();
+			it.remove();
+		}
+	}
+
+	private synchronized void startWorker()
+	{
+		if ( null != worker || isShutdown ) { return; }
+		worker = new Thread( "TrackScheme thumbnails" )
+		{
+			@Override
+			public void run()
+			{
+				processQueue();
+			}
+		};
+		worker.setDaemon( true );
+		worker.start();
+	}
+
+	/**
+	 * Stops the worker if there is nothing left to do.
+	 *
+	 * @return <code>true</code> if the worker must stop.
+	 */
+	private synchronized boolean stopWorkerIfIdle()
+	{
+		if ( !queue.isEmpty() && !isShutdown ) { return false; }
+		worker = null;
+		return true;
+	}
+
+	private void processQueue()
+	{
+		final List< Spot > batch = new ArrayList< Spot >( BATCH_SIZE );
+		while ( true )
+		{
+			try
+			{
+				final Spot head = queue.poll( IDLE_TIMEOUT, TimeUnit.SECONDS );
+				if ( null == head )
+				{
+					if ( stopWorkerIfIdle() ) { return; }
+					continue;
+				}
+				batch.clear();
+				batch.add( head );
+				queue.drainTo( batch, BATCH_SIZE - 1 );
+				if ( !processBatch( batch ) && stopWorkerIfIdle() ) { return; }
+			}
+			catch ( final InterruptedException e )
+			{
+				synchronized ( this )
+				{
+					if ( worker == Thread.currentThread() )
+					{
+						worker = null;
+					}
 				}
-			} // TODO: be more flexible about that
-			ImgPlus<?> imgCT = HyperSliceImgPlus.fixTimeAxis( 
-					HyperSliceImgPlus.fixChannelAxis(img, targetChannel), 
-					frame);
-			grabber = new SpotIconGrabber(imgCT);
-			previousFrame = frame;
-		}
-		return grabber.getImageString(spot);			
+				return;
+			}
+			catch ( final RuntimeException e )
+			{
+				logger.error( "Could not generate spot thumbnails:\n" + e + '\n' );
+			}
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the batch could not be completed because
+	 *         this updater was shut down.
+	 */
+	private boolean processBatch( final List< Spot > batch ) throws InterruptedException
+	{
+		// Skip spots already done, and group the others per frame.
+		final List< Spot > todo = new ArrayList< Spot >( batch.size() );
+		final Map< Spot, String > results = new LinkedHashMap< Spot, String >( batch.size() );
+		for ( final Spot spot : batch )
+		{
+			final String cached = getCachedImageString( spot );
+			if ( null != cached )
+			{
+				results.put( spot, cached );
+			}
+			else
+			{
+				todo.add( spot );
+			}
+		}
+		final Spot[] spots = todo.toArray( new Spot[ todo.size() ] );
+		Arrays.sort( spots, FRAME_COMPARATOR );
+
+		final String[] strs = new String[ spots.length ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Runnable task = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final FrameGrabber localGrabber = new FrameGrabber();
+				for ( int i = ai.getAndIncrement(); i < spots.length && !pool.isCancelled(); i = ai.getAndIncrement() )
+				{
+					strs[ i ] = localGrabber.getImageString( spots[ i ] );
+				}
+			}
+		};
+		final int nTasks = Math.max( 1, Math.min( pool.getNumThreads(), spots.length / 4 ) );
+		if ( !ComputePool.runAll( pool, task, nTasks, "TrackScheme thumbnails" ) ) { return false; }
+
+		for ( int i = 0; i < spots.length; i++ )
+		{
+			if ( null == strs[ i ] )
+			{
+				continue;
+			}
+			store( spots[ i ], strs[ i ] );
+			results.put( spots[ i ], strs[ i ] );
+		}
+
+		final ThumbnailListener l = listener;
+		if ( null != l && !results.isEmpty() )
+		{
+			SwingUtilities.invokeLater( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					l.thumbnailsReady( results );
+				}
+			} );
+		}
+		return true;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Interface for the classes that display the thumbnails generated in the
+	 * background.
+	 */
+	public static interface ThumbnailListener
+	{
+		/**
+		 * Called on the event dispatch thread with a batch of thumbnails.
+		 *
+		 * @param thumbnails
+		 *            the image strings of the spots.
+		 */
+		public void thumbnailsReady( Map< Spot, String > thumbnails );
+	}
+
+	private static final Comparator< Spot > FRAME_COMPARATOR = new Comparator< Spot >()
+	{
+		@Override
+		public int compare( final Spot o1, final Spot o2 )
+		{
+			return Double.compare( o1.getFeature( Spot.FRAME_INDEX ), o2.getFeature( Spot.FRAME_INDEX ) );
+		}
+	};
+
+	/**
+	 * A cache entry, with the spot properties it was generated for.
+	 */
+	private static final class Thumbnail
+	{
+
+		private final double x;
+
+		private final double y;
+
+		private final double z;
+
+		private final double radius;
+
+		private final double frame;
+
+		private final String str;
+
+		private Thumbnail( final Spot spot, final String str )
+		{
+			this.x = spot.getFeature( Spot.POSITION_X_INDEX );
+			this.y = spot.getFeature( Spot.POSITION_Y_INDEX );
+			this.z = spot.getFeature( Spot.POSITION_Z_INDEX );
+			this.radius = spot.getFeature( Spot.RADIUS_INDEX );
+			this.frame = spot.getFeature( Spot.FRAME_INDEX );
+			this.str = str;
+		}
+
+		private boolean isValidFor( final Spot spot )
+		{
+			return x == spot.getFeature( Spot.POSITION_X_INDEX )
+					&& y == spot.getFeature( Spot.POSITION_Y_INDEX )
+					&& z == spot.getFeature( Spot.POSITION_Z_INDEX )
+					&& radius == spot.getFeature( Spot.RADIUS_INDEX )
+					&& frame == spot.getFeature( Spot.FRAME_INDEX );
+		}
+
+		private long size()
+		{
+			return ENTRY_OVERHEAD + 2l * str.length();
+		}
+	}
+
+	/**
+	 * Grabs thumbnails from the target channel of the image, keeping the view
+	 * on the last frame used.
+	 */
+	private final class FrameGrabber
+	{
+
+		private int previousFrame = -1;
+
+		private SpotIconGrabber< ? > frameGrabber;
+
+		@SuppressWarnings( { "rawtypes", "unchecked" } )
+		private String getImageString( final Spot spot )
+		{
+			final Double f = spot.getFeature( Spot.FRAME );
+			if ( null == f ) { return ""; }
+			final int frame = f.intValue();
+			if ( frame != previousFrame || null == frameGrabber )
+			{
+				final ImgPlus img = TMUtils.rawWraps( settings.imp );
+				int targetChannel = 0;
+				if ( settings != null && settings.detectorSettings != null )
+				{
+					// Try to extract it from detector settings target channel
+					final Map< String, Object > ds = settings.detectorSettings;
+					final Object obj = ds.get( KEY_TARGET_CHANNEL );
+					if ( null != obj && obj instanceof Integer )
+					{
+						targetChannel = ( ( Integer ) obj ) - 1;
+					}
+				} // TODO: be more flexible about that
+				final ImgPlus< ? > imgCT = HyperSliceImgPlus.fixTimeAxis( HyperSliceImgPlus.fixChannelAxis( img, targetChannel ), frame );
+				frameGrabber = new SpotIconGrabber( imgCT );
+				previousFrame = frame;
+			}
+			return frameGrabber.getImageString( spot );
+		}
 	}
 }
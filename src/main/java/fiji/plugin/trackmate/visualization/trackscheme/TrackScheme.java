@@ -11,6 +11,7 @@ import com.mxgraph.util.mxEventObject;
 import com.mxgraph.util.mxEventSource.mxIEventListener;
 import com.mxgraph.util.mxRectangle;
 import com.mxgraph.util.mxStyleUtils;
+import com.mxgraph.view.mxCellState;
 import com.mxgraph.view.mxGraphSelectionModel;
 
 import fiji.plugin.trackmate.Model;
@@ -28,14 +29,17 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -173,7 +177,17 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 	public void setSpotImageUpdater( final SpotImageUpdater spotImageUpdater )
 	{
+		if ( null != this.spotImageUpdater )
+		{
+			this.spotImageUpdater.cancel();
+			this.spotImageUpdater.setThumbnailListener( null );
+		}
 		this.spotImageUpdater = spotImageUpdater;
+		if ( null != spotImageUpdater )
+		{
+			spotImageUpdater.setLogger( gui.logger );
+			spotImageUpdater.setThumbnailListener( new ThumbnailSetter() );
+		}
 	}
 
 	public SelectionModel getSelectionModel()
@@ -296,10 +310,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 			// Update cell look
 			if ( spotImageUpdater != null && doThumbnailCapture )
 			{
-				String style = cell.getStyle();
-				final String imageStr = spotImageUpdater.getImageString( spot );
-				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-				graph.getModel().setStyle( cell, style );
+				updateThumbnail( cell, spot, true );
 			}
 		}
 		finally
@@ -333,8 +344,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 		// Set its style
 		if ( null != spotImageUpdater && doThumbnailCapture )
 		{
-			final String imageStr = spotImageUpdater.getImageString( spot );
-			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr );
+			updateThumbnail( cellAdded, spot, false );
 		}
 		return cellAdded;
 	}
@@ -613,6 +623,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 						final mxICell cell = graph.getCellFor( spot );
 						cellsToRemove.add( cell );
+						if ( null != spotImageUpdater )
+						{
+							spotImageUpdater.invalidate( spot );
+						}
 
 					}
 				}
@@ -1031,6 +1045,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 			public void windowClosing( final WindowEvent e )
 			{
 				model.removeModelChangeListener( TrackScheme.this );
+				if ( null != spotImageUpdater )
+				{
+					spotImageUpdater.shutdown();
+				}
 			}
 		} );
 		gui.setLocationByPlatform( true );
@@ -1041,6 +1059,37 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 * INNER CLASSES
 	 */
 
+	/**
+	 * Sets the thumbnails generated in the background to the style of their
+	 * spot cell.
+	 */
+	private class ThumbnailSetter implements SpotImageUpdater.ThumbnailListener
+	{
+
+		@Override
+		public void thumbnailsReady( final Map< Spot, String > thumbnails )
+		{
+			graph.getModel().beginUpdate();
+			try
+			{
+				for ( final Spot spot : thumbnails.keySet() )
+				{
+					final mxICell cell = graph.getCellFor( spot );
+					if ( null == cell )
+					{
+						continue;
+					}
+					final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, "data:image/base64," + thumbnails.get( spot ) );
+					graph.getModel().setStyle( cell, style );
+				}
+			}
+			finally
+			{
+				graph.getModel().endUpdate();
+			}
+		}
+	}
+
 	private class CellRemovalListener implements mxIEventListener
 	{
 
@@ -1226,8 +1275,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 	}
 
 	/**
-	 * Captures and stores the thumbnail image that will be displayed in each
-	 * spot cell, when using styles that can display images.
+	 * Requests the thumbnail image that will be displayed in each spot cell,
+	 * when using styles that can display images. Thumbnails are generated in
+	 * the background, starting with the cells currently visible, and are set
+	 * to the cells as they arrive.
 	 */
 	private void createThumbnails()
 	{
@@ -1247,39 +1298,51 @@ public class TrackScheme extends AbstractTrackMateModelView
 				spotPerFrame.get( frame ).add( spot );
 			}
 		}
-		// Set spot image to cell style
+		// Request spot images, the visible ones first
 		if ( null != spotImageUpdater )
 		{
-			gui.logger.setStatus( "Collecting spot thumbnails." );
-			int index = 0;
-			try
+			final Rectangle viewRect = gui.graphComponent.getViewport().getViewRect();
+			final List< Spot > visible = new ArrayList< Spot >();
+			final List< Spot > hidden = new ArrayList< Spot >();
+			for ( final Integer frame : frames )
 			{
-				graph.getModel().beginUpdate();
-
-				// Iterate per frame
-				for ( final Integer frame : frames )
+				for ( final Spot spot : spotPerFrame.get( frame ) )
 				{
-					for ( final Spot spot : spotPerFrame.get( frame ) )
+					final mxCellState state = graph.getView().getState( graph.getCellFor( spot ) );
+					if ( null != state && state.getRectangle().intersects( viewRect ) )
 					{
-
-						final mxICell cell = graph.getCellFor( spot );
-						final String imageStr = spotImageUpdater.getImageString( spot );
-						String style = cell.getStyle();
-						style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-						graph.getModel().setStyle( cell, style );
-
+						visible.add( spot );
+					}
+					else
+					{
+						hidden.add( spot );
 					}
-					gui.logger.setProgress( ( double ) index++ / frames.size() );
 				}
 			}
-			finally
-			{
-				graph.getModel().endUpdate();
-				gui.logger.setProgress( 0d );
-				gui.logger.setStatus( "" );
-				thumbnailCaptured = true; // After that they will be kept in
-				// synch thanks to #modelChanged
-			}
+			spotImageUpdater.cancel();
+			spotImageUpdater.request( visible, true );
+			spotImageUpdater.request( hidden, false );
+			thumbnailCaptured = true; // After that they will be kept in
+			// synch thanks to #modelChanged
+		}
+	}
+
+	/**
+	 * Sets the thumbnail of the specified cell from the cache, or requests it
+	 * if it is not there. In that case the cell is updated when the thumbnail
+	 * is ready.
+	 */
+	private void updateThumbnail( final mxICell cell, final Spot spot, final boolean first )
+	{
+		final String imageStr = spotImageUpdater.getCachedImageString( spot );
+		if ( null != imageStr )
+		{
+			final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
+			graph.getModel().setStyle( cell, style );
+		}
+		else
+		{
+			spotImageUpdater.request( Collections.singleton( spot ), first );
 		}
 	}
 
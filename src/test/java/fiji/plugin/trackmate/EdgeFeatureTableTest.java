@@ -0,0 +1,119 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+public class EdgeFeatureTableTest
+{
+
+	private static final String FEATURE_A = "A";
+
+	private static final String FEATURE_B = "B";
+
+	@Test
+	public void testPutGet()
+	{
+		final EdgeFeatureTable table = new EdgeFeatureTable();
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			final DefaultWeightedEdge edge = new DefaultWeightedEdge();
+			edges.add( edge );
+			table.put( edge, FEATURE_A, i );
+			if ( i % 2 == 0 )
+			{
+				table.put( edge, FEATURE_B, -i );
+			}
+		}
+		assertEquals( 1000, table.size() );
+
+		for ( int i = 0; i < edges.size(); i++ )
+		{
+			final DefaultWeightedEdge edge = edges.get( i );
+			assertEquals( i, table.get( edge, FEATURE_A ).doubleValue(), 0d );
+			if ( i % 2 == 0 )
+			{
+				assertEquals( -i, table.get( edge, FEATURE_B ).doubleValue(), 0d );
+			}
+			else
+			{
+				assertNull( table.get( edge, FEATURE_B ) );
+				assertTrue( Double.isNaN( table.getDouble( edge, FEATURE_B ) ) );
+			}
+		}
+		assertNull( table.get( new DefaultWeightedEdge(), FEATURE_A ) );
+		assertNull( table.get( edges.get( 0 ), "UNKNOWN" ) );
+
+		// A NaN value is a value.
+		table.put( edges.get( 1 ), FEATURE_B, Double.NaN );
+		assertTrue( Double.isNaN( table.get( edges.get( 1 ), FEATURE_B ).doubleValue() ) );
+	}
+
+	@Test
+	public void testRemoveRecyclesRows()
+	{
+		final EdgeFeatureTable table = new EdgeFeatureTable();
+		final DefaultWeightedEdge e1 = new DefaultWeightedEdge();
+		final DefaultWeightedEdge e2 = new DefaultWeightedEdge();
+		table.put( e1, FEATURE_A, 1d );
+		table.put( e1, FEATURE_B, 10d );
+		table.put( e2, FEATURE_A, 2d );
+
+		table.remove( e1 );
+		assertEquals( 1, table.size() );
+		assertNull( table.get( e1, FEATURE_A ) );
+
+		// The new edge reuses the row of e1, but not its values.
+		final DefaultWeightedEdge e3 = new DefaultWeightedEdge();
+		table.put( e3, FEATURE_A, 3d );
+		assertNull( table.get( e3, FEATURE_B ) );
+		assertEquals( 3d, table.get( e3, FEATURE_A ).doubleValue(), 0d );
+		assertEquals( 2d, table.get( e2, FEATURE_A ).doubleValue(), 0d );
+		assertEquals( 2, table.toMap().size() );
+
+		table.clear();
+		assertEquals( 0, table.size() );
+		assertNull( table.get( e2, FEATURE_A ) );
+	}
+
+	@Test
+	public void testModelForgetsRemovedEdges()
+	{
+		final Model model = new Model();
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot s2 = new Spot( 1d, 0d, 0d, 1d, -1d );
+		final DefaultWeightedEdge edge;
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			edge = model.addEdge( s1, s2, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		model.getFeatureModel().putEdgeFeature( edge, FEATURE_A, 5d );
+		assertEquals( 5d, model.getFeatureModel().getEdgeFeature( edge, FEATURE_A ).doubleValue(), 0d );
+
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( edge );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertNull( model.getFeatureModel().getEdgeFeature( edge, FEATURE_A ) );
+	}
+}
@@ -10,10 +10,13 @@ import fiji.plugin.trackmate.features.FeatureFilter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -70,6 +73,20 @@ public class SpotCollectionTest
 
 	}
 
+	@Test
+	public void testFilterAfterCrop()
+	{
+		final List< FeatureFilter > filters = Collections.singletonList( new FeatureFilter( Spot.QUALITY, 2d, false ) );
+		sc.filter( filters );
+		sc.crop();
+		assertEquals( 0, sc.getNSpots( true ) );
+
+		// crop() made the spots invisible behind the back of the filter index.
+		final List< Spot > changed = sc.filter( filters );
+		assertEquals( 3 * N_FRAMES, changed.size() );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+	}
+
 	@Test
 	public void testAdd()
 	{
@@ -368,6 +385,54 @@ public class SpotCollectionTest
 		assertEquals( "We should have iterated over " + ( N_MARKED_PER_FRAME * N_FRAMES ) + " marked spots, but have iterated over " + iteratedOver + ".", N_MARKED_PER_FRAME * N_FRAMES, iteratedOver );
 	}
 
+	@Test
+	public void testFiltersIncremental()
+	{
+		final List< FeatureFilter > filters = new ArrayList< FeatureFilter >();
+		filters.add( new FeatureFilter( Spot.QUALITY, 2d, false ) );
+		filters.add( new FeatureFilter( Spot.FRAME, 91d, true ) );
+		List< Spot > changed = sc.filter( filters );
+		assertEquals( 3 * 5, changed.size() );
+		assertEquals( 3 * 5, sc.getNSpots( true ) );
+
+		// Move the quality threshold: 2 more spots in each of the 5 frames.
+		filters.set( 0, new FeatureFilter( Spot.QUALITY, 4d, false ) );
+		changed = sc.filter( filters );
+		assertEquals( 2 * 5, changed.size() );
+		for ( final Spot spot : changed )
+		{
+			assertTrue( isVisible( spot ) );
+			assertTrue( spot.getFeature( Spot.QUALITY ) > 2d );
+		}
+		assertEquals( 5 * 5, sc.getNSpots( true ) );
+
+		// Move it back.
+		filters.set( 0, new FeatureFilter( Spot.QUALITY, 2d, false ) );
+		changed = sc.filter( filters );
+		assertEquals( 2 * 5, changed.size() );
+		for ( final Spot spot : changed )
+		{
+			assertFalse( isVisible( spot ) );
+		}
+		assertEquals( 3 * 5, sc.getNSpots( true ) );
+
+		// Same filters: nothing changes.
+		assertTrue( sc.filter( filters ).isEmpty() );
+
+		// Remove the frame filter.
+		filters.remove( 1 );
+		changed = sc.filter( filters );
+		assertEquals( 3 * ( N_FRAMES - 5 ), changed.size() );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+
+		// Adding a spot invalidates the index.
+		sc.add( new Spot( 0d, 0d, 0d, 1d, 50d ), frames.get( 0 ) );
+		assertEquals( 3 * N_FRAMES + 1, sc.getNSpots( true ) );
+		changed = sc.filter( filters );
+		assertEquals( 1, changed.size() );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+	}
+
 	@Test
 	public void testIteratorFrame()
 	{
@@ -504,6 +569,131 @@ public class SpotCollectionTest
 		assertArrayEquals( frames.toArray( new Integer[] {} ), sc.keySet().toArray( new Integer[] {} ) );
 	}
 
+	@Test
+	public void testSearch()
+	{
+		for ( final Spot spot : sc.iterable( false ) )
+		{
+			assertEquals( spot, sc.search( spot.ID() ) );
+		}
+		final Spot spot = new Spot( 1d, 1d, 1d, 1d, 1d );
+		assertNull( sc.search( spot.ID() ) );
+		sc.add( spot, 1 );
+		assertEquals( spot, sc.search( spot.ID() ) );
+		sc.remove( spot, 1 );
+		assertNull( sc.search( spot.ID() ) );
+	}
+
+	@Test
+	public void testSpatialQueriesMatchLinearScan()
+	{
+		final Random ran = new Random( 42l );
+		final SpotCollection collection = new SpotCollection();
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 2000; i++ )
+		{
+			// Frame 0 is 2D, frame 1 is 3D.
+			final int frame = i % 2;
+			final double z = frame == 0 ? 0d : 50 * ran.nextDouble();
+			final Spot spot = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), z, 0.5 + 2 * ran.nextDouble(), ran.nextDouble() );
+			collection.add( spot, frame );
+			spots.add( spot );
+		}
+		collection.filter( new FeatureFilter( Spot.QUALITY, 0.5, true ) );
+
+		for ( int q = 0; q < 200; q++ )
+		{
+			final int frame = q % 2;
+			final Spot location = new Spot( 120 * ran.nextDouble() - 10, 120 * ran.nextDouble() - 10, frame == 0 ? 0d : 50 * ran.nextDouble(), 1d, 1d );
+			assertQueriesMatch( collection, location, frame );
+
+			// Edit the collection between queries.
+			if ( q % 10 == 0 )
+			{
+				final Spot added = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), frame == 0 ? 0d : 50 * ran.nextDouble(), 1d, 1d );
+				collection.add( added, frame );
+				final Spot removed = collection.iterator( frame, false ).next();
+				collection.remove( removed, frame );
+			}
+			if ( q % 25 == 0 )
+			{
+				final Spot moved = collection.iterator( frame, false ).next();
+				moved.putFeature( Spot.POSITION_X, Double.valueOf( 100 * ran.nextDouble() ) );
+			}
+		}
+	}
+
+	@Test
+	public void testMovingSharedSpot()
+	{
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 50; i++ )
+		{
+			final Spot spot = new Spot( i, 0d, 0d, 0.4d, 1d );
+			spot.putFeature( Spot.FRAME, 0d );
+			spots.add( spot );
+		}
+		// Both collections index the same spot instances.
+		final SpotCollection first = SpotCollection.fromCollection( spots );
+		final SpotCollection second = SpotCollection.fromCollection( spots );
+		final Spot location = new Spot( 200d, 0d, 0d, 1d, 1d );
+		assertEquals( spots.get( 49 ), first.getClosestSpot( location, 0, false ) );
+		assertEquals( spots.get( 49 ), second.getClosestSpot( location, 0, false ) );
+
+		final Spot moved = spots.get( 0 );
+		moved.putFeature( Spot.POSITION_X, 300d );
+		assertEquals( moved, first.getClosestSpot( location, 0, false ) );
+		assertEquals( moved, second.getClosestSpot( location, 0, false ) );
+
+		moved.putFeature( Spot.RADIUS, 150d );
+		assertEquals( moved, first.getSpotAt( new Spot( 151d, 0d, 0d, 1d, 1d ), 0, false ) );
+		assertEquals( moved, second.getSpotAt( new Spot( 151d, 0d, 0d, 1d, 1d ), 0, false ) );
+	}
+
+	private static void assertQueriesMatch( final SpotCollection collection, final Spot location, final int frame )
+	{
+		for ( final boolean visibleOnly : new boolean[] { false, true } )
+		{
+			// Linear scan.
+			final List< Spot > all = new ArrayList< Spot >();
+			for ( final Spot s : collection.iterable( frame, visibleOnly ) )
+			{
+				all.add( s );
+			}
+			Collections.sort( all, new Comparator< Spot >()
+			{
+				@Override
+				public int compare( final Spot o1, final Spot o2 )
+				{
+					return Double.compare( o1.squareDistanceTo( location ), o2.squareDistanceTo( location ) );
+				}
+			} );
+			Spot expectedAt = null;
+			for ( final Spot s : all )
+			{
+				final double r = s.getFeature( Spot.RADIUS );
+				if ( s.squareDistanceTo( location ) < r * r )
+				{
+					expectedAt = s;
+					break;
+				}
+			}
+			final Set< Spot > expectedWithin = new HashSet< Spot >();
+			for ( final Spot s : all )
+			{
+				if ( s.squareDistanceTo( location ) <= 25d )
+				{
+					expectedWithin.add( s );
+				}
+			}
+
+			assertEquals( all.get( 0 ), collection.getClosestSpot( location, frame, visibleOnly ) );
+			assertEquals( expectedAt, collection.getSpotAt( location, frame, visibleOnly ) );
+			assertEquals( all.subList( 0, 17 ), collection.getNClosestSpots( location, frame, 17, visibleOnly ) );
+			assertEquals( expectedWithin, new HashSet< Spot >( collection.getSpotsWithin( location, frame, 5d, visibleOnly ) ) );
+		}
+	}
+
 	private static final boolean isVisible( final Spot spot )
 	{
 		return spot.getFeature( SpotCollection.VISIBLITY ).compareTo( SpotCollection.ZERO ) > 0;
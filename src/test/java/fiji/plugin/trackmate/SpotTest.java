@@ -0,0 +1,84 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpotTest
+{
+
+	@Test
+	public void testStringAndIndexAccessorsAgree()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d );
+		assertEquals( 1d, spot.getFeature( Spot.POSITION_X ), 0d );
+		assertEquals( 1d, spot.getFeature( Spot.POSITION_X_INDEX ), 0d );
+		assertEquals( 4d, spot.getFeature( Spot.RADIUS_INDEX ), 0d );
+		assertEquals( 5d, spot.getFeature( Spot.QUALITY_INDEX ), 0d );
+
+		final int index = Spot.featureIndex( "SPOT_TEST_FEATURE" );
+		assertEquals( index, Spot.featureIndex( "SPOT_TEST_FEATURE" ) );
+		assertEquals( "SPOT_TEST_FEATURE", Spot.featureKey( index ) );
+
+		spot.putFeature( index, 12d );
+		assertEquals( 12d, spot.getFeature( "SPOT_TEST_FEATURE" ), 0d );
+		spot.putFeature( "SPOT_TEST_FEATURE", Double.valueOf( 13d ) );
+		assertEquals( 13d, spot.getFeature( index ), 0d );
+	}
+
+	@Test
+	public void testMissingFeatures()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d );
+		assertNull( spot.getFeature( "SPOT_TEST_NEVER_SET" ) );
+		final int index = Spot.featureIndex( "SPOT_TEST_NEVER_SET" );
+		assertFalse( spot.hasFeature( index ) );
+		assertTrue( Double.isNaN( spot.getFeature( index ) ) );
+		assertNull( spot.getFeature( "SPOT_TEST_NEVER_SET" ) );
+
+		// NaN values are stored and returned as NaN.
+		spot.putFeature( index, Double.NaN );
+		assertTrue( spot.hasFeature( index ) );
+		assertTrue( Double.isNaN( spot.getFeature( "SPOT_TEST_NEVER_SET" ) ) );
+	}
+
+	@Test
+	public void testFeatureMapView()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d );
+		final Map< String, Double > view = spot.getFeatures();
+		assertEquals( 5, view.size() );
+
+		final Map< String, Double > expected = new HashMap< String, Double >();
+		expected.put( Spot.POSITION_X, 1d );
+		expected.put( Spot.POSITION_Y, 2d );
+		expected.put( Spot.POSITION_Z, 3d );
+		expected.put( Spot.RADIUS, 4d );
+		expected.put( Spot.QUALITY, 5d );
+		assertEquals( expected, new HashMap< String, Double >( view ) );
+
+		// Writing through the view alters the spot.
+		view.put( "SPOT_TEST_VIEW", 6d );
+		assertEquals( 6d, spot.getFeature( "SPOT_TEST_VIEW" ), 0d );
+		assertEquals( 6, spot.getFeatures().size() );
+
+		view.remove( "SPOT_TEST_VIEW" );
+		assertNull( spot.getFeature( "SPOT_TEST_VIEW" ) );
+		assertFalse( spot.getFeatures().containsKey( "SPOT_TEST_VIEW" ) );
+	}
+
+	@Test
+	public void testSquareDistance()
+	{
+		final Spot s1 = new Spot( 1d, 2d, 3d, 1d, 1d );
+		final Spot s2 = new Spot( 2d, 4d, 6d, 1d, 1d );
+		assertEquals( 1d + 4d + 9d, s1.squareDistanceTo( s2 ), 0d );
+		assertEquals( s1.squareDistanceTo( s2 ), s2.squareDistanceTo( s1 ), 0d );
+	}
+}
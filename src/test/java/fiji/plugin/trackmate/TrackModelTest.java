@@ -1,10 +1,13 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -253,4 +256,144 @@ public class TrackModelTest
 		assertTrue( model.isVisible( id ) );
 	}
 
+	@Test
+	public void testRandomEdits()
+	{
+		final Random ran = new Random( 3l );
+		final TrackModel model = new TrackModel();
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 200; i++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( spot );
+			if ( !spots.isEmpty() )
+			{
+				// Build a lineage tree.
+				model.addEdge( spots.get( ran.nextInt( spots.size() ) ), spot, 1 );
+			}
+			spots.add( spot );
+		}
+		checkComponents( model );
+
+		for ( int round = 0; round < 500; round++ )
+		{
+			final int action = ran.nextInt( 10 );
+			if ( action < 4 )
+			{
+				// Link two spots, possibly closing a cycle.
+				final Spot source = spots.get( ran.nextInt( spots.size() ) );
+				final Spot target = spots.get( ran.nextInt( spots.size() ) );
+				if ( source != target && !model.containsEdge( source, target ) )
+				{
+					model.addEdge( source, target, 1 );
+				}
+			}
+			else if ( action < 8 )
+			{
+				// Unlink.
+				final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( model.edgeSet() );
+				if ( !edges.isEmpty() )
+				{
+					model.removeEdge( edges.get( ran.nextInt( edges.size() ) ) );
+				}
+			}
+			else
+			{
+				// Replace a spot.
+				model.removeSpot( spots.remove( ran.nextInt( spots.size() ) ) );
+				final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+				model.addSpot( spot );
+				spots.add( spot );
+			}
+			checkComponents( model );
+		}
+	}
+
+	@Test
+	public void testTrackIDsCache()
+	{
+		final TrackModel model = new TrackModel();
+		for ( int i = 0; i < N_TRACKS; i++ )
+		{
+			final Spot source = new Spot( 0d, 0d, 0d, 1d, -1d );
+			final Spot target = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( source );
+			model.addSpot( target );
+			model.addEdge( source, target, 1 );
+		}
+		final Integer first = model.trackIDs( false ).iterator().next();
+		assertEquals( N_TRACKS, model.trackIDs( true ).size() );
+
+		// Renaming reorders.
+		model.setName( first, "ZZZ" );
+		final Iterator< Integer > it = model.trackIDs( false ).iterator();
+		Integer last = null;
+		while ( it.hasNext() )
+		{
+			last = it.next();
+		}
+		assertEquals( first, last );
+
+		// Hiding is reflected.
+		model.setVisibility( first, false );
+		assertEquals( N_TRACKS - 1, model.trackIDs( true ).size() );
+		assertEquals( N_TRACKS - 1, model.nTracks( true ) );
+		assertTrue( !model.trackIDs( true ).contains( first ) );
+		assertEquals( N_TRACKS, model.trackIDs( false ).size() );
+	}
+
+	/**
+	 * Compares the tracks of the model to the connected components computed
+	 * from scratch.
+	 */
+	private static void checkComponents( final TrackModel model )
+	{
+		final Set< Spot > seen = new HashSet< Spot >();
+		int nTracks = 0;
+		for ( final Spot start : model.vertexSet() )
+		{
+			if ( !seen.add( start ) )
+			{
+				continue;
+			}
+			final Set< Spot > vertices = new HashSet< Spot >();
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+			final ArrayDeque< Spot > queue = new ArrayDeque< Spot >();
+			vertices.add( start );
+			queue.add( start );
+			while ( !queue.isEmpty() )
+			{
+				final Spot v = queue.poll();
+				for ( final DefaultWeightedEdge edge : model.edgesOf( v ) )
+				{
+					edges.add( edge );
+					final Spot source = model.getEdgeSource( edge );
+					final Spot w = source == v ? model.getEdgeTarget( edge ) : source;
+					if ( vertices.add( w ) )
+					{
+						queue.add( w );
+						seen.add( w );
+					}
+				}
+			}
+
+			final Integer id = model.trackIDOf( start );
+			if ( edges.isEmpty() )
+			{
+				assertNull( id );
+				continue;
+			}
+			nTracks++;
+			assertEquals( vertices, model.trackSpots( id ) );
+			assertEquals( edges, model.trackEdges( id ) );
+			// Each edge is iterated once.
+			assertEquals( edges.size(), new ArrayList< DefaultWeightedEdge >( model.trackEdges( id ) ).size() );
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				assertEquals( id, model.trackIDOf( edge ) );
+			}
+		}
+		assertEquals( nTracks, model.nTracks( false ) );
+		assertEquals( nTracks, model.trackIDs( false ).size() );
+	}
 }
@@ -0,0 +1,425 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+public class CSVSpotReaderTest
+{
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.25, 2 };
+
+	private static final int N_FRAMES = 5;
+
+	private static final String HEADER = "FRAME,X,Y,Z,AREA,QUALITY";
+
+	/** Small enough for chunks to start in the middle of lines and frame runs. */
+	private static final long[] CHUNK_SIZES = new long[] { 1, 3, 7, 17, 64, 1000 };
+
+	/*
+	 * NUMBER PARSING
+	 */
+
+	@Test
+	public void testParseDoubleBoundaries()
+	{
+		final List< String > values = new ArrayList< String >();
+		for ( final String sign : new String[] { "", "-", "+" } )
+		{
+			for ( final String number : new String[] {
+					// Mantissa around 2^53.
+					"9007199254740991", "9007199254740992", "9007199254740993", "9007199254740994",
+					"900719925474099.1", "90071992547409.93", "0.9007199254740993",
+					"123456789012345678", "1234567890123456789", "12345678901234567890",
+					"1.23456789012345678901234567890",
+					// Exponents around the exact powers of ten.
+					"1e22", "1e23", "1e-22", "1e-23", "4.5e22", "4.5e-22", "45e21", "45e-23", "1.5e+22",
+					"9007199254740991e22", "9007199254740991e-22", "9007199254740993e-22",
+					"1E5", "1e0", "1e-0", "1e99999", "1e-99999", "1e308", "1e309", "4.9e-324",
+					// Leading and trailing zeros.
+					"000123", "000.000123", "0.1", "00", "0", "0.0", "0e10", "0e-400", "1.000000000000000000000", "10000000000000000000000",
+					"0.00000000000000000000001", "100e-2", "0000000000000000000000000001",
+					// Special values.
+					"NaN", "Infinity",
+					// Truncated numbers.
+					"1.", ".5", "5.e3" } )
+			{
+				values.add( sign + number );
+			}
+		}
+		for ( final String value : values )
+		{
+			assertParsedLikeJava( value );
+			assertParsedLikeJava( "  " + value + "\t" );
+		}
+	}
+
+	@Test
+	public void testParseDoubleRandom()
+	{
+		final Random ran = new Random( 1l );
+		for ( int i = 0; i < 100000; i++ )
+		{
+			final double value;
+			switch ( i % 3 )
+			{
+			case 0:
+				value = ran.nextDouble() * Math.pow( 10, ran.nextInt( 50 ) - 25 );
+				break;
+			case 1:
+				value = Double.longBitsToDouble( ran.nextLong() );
+				break;
+			default:
+				value = ( ran.nextInt( 2000000 ) - 1000000 ) / 1000d;
+				break;
+			}
+			assertParsedLikeJava( Double.toString( value ) );
+			assertParsedLikeJava( String.format( Locale.US, "%.6f", value ) );
+			assertParsedLikeJava( String.format( Locale.US, "%.12e", value ) );
+		}
+	}
+
+	@Test
+	public void testParseDoubleInvalid()
+	{
+		for ( final String value : new String[] { "", " ", "-", "+", ".", "e5", "1e", "1e+", "--1", "1.2.3", "1,5", "abc", "1 2" } )
+		{
+			try
+			{
+				CSVSpotReader.parseDouble( wrap( value ), 0, value.length() );
+				fail( "Parsed invalid number '" + value + "'." );
+			}
+			catch ( final NumberFormatException nfe )
+			{}
+		}
+	}
+
+	/*
+	 * FILE NAMES
+	 */
+
+	@Test
+	public void testDefaultFilePattern()
+	{
+		for ( final long nFrames : new long[] { 1, 2, 9, 10, 11, 99, 100, 101, 999, 1000, 1001, 9999, 10000, 10001, 99999, 100000, 100001, 1000000 } )
+		{
+			final String pattern = CSVSpotReader.defaultFilePattern( nFrames );
+			for ( final long frame : new long[] { 0, 1, 9, 10, 99, 100, 999, 1000, 9999, 10000, 99999, 100000, 999999 } )
+			{
+				if ( frame >= nFrames )
+				{
+					continue;
+				}
+				assertEquals( "For frame " + frame + " of " + nFrames + ".", legacyName( frame, nFrames ), String.format( Locale.US, pattern, frame ) );
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyPatternGivesLegacyFiles()
+	{
+		final CSVSpotReader reader = new CSVSpotReader( "folder", "", -1, 0, 1, 2, 3, 4, CALIBRATION, 250 );
+		assertEquals( new File( "folder", "frame_007.csv" ), reader.getFile( 7 ) );
+		assertEquals( new File( "folder", "frame_249.csv" ), reader.getFile( 249 ) );
+	}
+
+	/*
+	 * READING
+	 */
+
+	@Test
+	public void testReadOneFilePerFrame() throws IOException
+	{
+		final File folder = createFolder();
+		try
+		{
+			final Random ran = new Random( 2l );
+			final Map< Integer, List< double[] >> rows = new HashMap< Integer, List< double[] >>();
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+			{
+				final List< double[] > list = new ArrayList< double[] >();
+				final StringBuilder str = new StringBuilder( "X,Y,Z,AREA,QUALITY\n" );
+				for ( int i = 0; i < 20; i++ )
+				{
+					final double[] row = randomRow( ran, frame );
+					list.add( row );
+					str.append( row[ 1 ] + "," + row[ 2 ] + "," + row[ 3 ] + "," + row[ 4 ] + "," + row[ 5 ] + "\n" );
+				}
+				rows.put( Integer.valueOf( frame ), list );
+				write( new File( folder, String.format( Locale.US, "frame_%d.csv", frame ) ), str.toString() );
+			}
+
+			final CSVSpotReader reader = new CSVSpotReader( folder.getPath(), "", -1, 0, 1, 2, 3, 4, CALIBRATION, N_FRAMES );
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+			{
+				assertSpots( rows.get( Integer.valueOf( frame ) ), reader.read( frame, null, 1 ) );
+			}
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	/**
+	 * Frame runs of random lengths, some frames split in several runs, with
+	 * blank lines and no newline at the end, indexed with chunks that cut the
+	 * runs and the lines anywhere.
+	 */
+	@Test
+	public void testSingleFileIndexAcrossChunks() throws IOException
+	{
+		final File folder = createFolder();
+		try
+		{
+			final Random ran = new Random( 3l );
+			final Map< Integer, List< double[] >> rows = new HashMap< Integer, List< double[] >>();
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+			{
+				rows.put( Integer.valueOf( frame ), new ArrayList< double[] >() );
+			}
+			final StringBuilder str = new StringBuilder( HEADER + "\n" );
+			for ( int run = 0; run < 30; run++ )
+			{
+				// Frame 3 is left empty.
+				int frame = ran.nextInt( N_FRAMES - 1 );
+				if ( frame == 3 )
+				{
+					frame = N_FRAMES - 1;
+				}
+				final int length = 1 + ran.nextInt( 6 );
+				for ( int i = 0; i < length; i++ )
+				{
+					final double[] row = randomRow( ran, frame );
+					rows.get( Integer.valueOf( frame ) ).add( row );
+					str.append( frame + "," + row[ 1 ] + "," + row[ 2 ] + "," + row[ 3 ] + "," + row[ 4 ] + "," + row[ 5 ] + "\n" );
+					if ( ran.nextInt( 10 ) == 0 )
+					{
+						str.append( ran.nextBoolean() ? "\n" : " \t \n" );
+					}
+				}
+			}
+			str.setLength( str.length() - 1 );
+			final File file = new File( folder, "spots.csv" );
+			write( file, str.toString() );
+
+			final ExecutorService service = new ComputePool( 4 );
+			try
+			{
+				for ( final long chunkSize : CHUNK_SIZES )
+				{
+					for ( final ExecutorService es : new ExecutorService[] { null, service } )
+					{
+						final CSVSpotReader reader = new CSVSpotReader( folder.getPath(), file.getName(), 0, 1, 2, 3, 4, 5, CALIBRATION, N_FRAMES );
+						reader.setIndexChunkSize( chunkSize );
+						for ( int frame = 0; frame < N_FRAMES; frame++ )
+						{
+							assertSpots( rows.get( Integer.valueOf( frame ) ), reader.read( frame, es, 4 ) );
+						}
+						assertTrue( reader.read( N_FRAMES, es, 4 ).isEmpty() );
+					}
+				}
+			}
+			finally
+			{
+				service.shutdown();
+			}
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	/*
+	 * ERROR MESSAGES
+	 */
+
+	@Test
+	public void testErrorLineOneFilePerFrame() throws IOException
+	{
+		final File folder = createFolder();
+		try
+		{
+			// Line 5, after a blank line.
+			write( new File( folder, "frame_0.csv" ), "X,Y,Z,AREA,QUALITY\n1,2,3,4,5\n1,2,3,4,5\n\n1,2,oops,4,5\n1,2,3,4,5\n" );
+			// Line 3, too short.
+			write( new File( folder, "frame_1.csv" ), "X,Y,Z,AREA,QUALITY\n1,2,3,4,5\n1,2,3\n" );
+			final CSVSpotReader reader = new CSVSpotReader( folder.getPath(), "", -1, 0, 1, 2, 3, 4, CALIBRATION, 2 );
+			assertReadFails( reader, 0, "frame_0.csv at line 5", "'oops'" );
+			assertReadFails( reader, 1, "frame_1.csv at line 3", "found 3" );
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testErrorLineSingleFile() throws IOException
+	{
+		final File folder = createFolder();
+		try
+		{
+			final StringBuilder badValue = new StringBuilder( HEADER + "\n" );
+			final StringBuilder badFrame = new StringBuilder( HEADER + "\n" );
+			for ( int line = 2; line <= 60; line++ )
+			{
+				final int frame = line / 7;
+				badValue.append( frame + ",1," + ( line == 41 ? "1.2.3" : "2" ) + ",3,4,5\n" );
+				badFrame.append( ( line == 33 ? "2.5" : Integer.toString( frame ) ) + ",1,2,3,4,5\n" );
+			}
+			write( new File( folder, "value.csv" ), badValue.toString() );
+			write( new File( folder, "frame.csv" ), badFrame.toString() );
+
+			for ( final long chunkSize : CHUNK_SIZES )
+			{
+				// Found when parsing the spots of the frame.
+				final CSVSpotReader valueReader = new CSVSpotReader( folder.getPath(), "value.csv", 0, 1, 2, 3, 4, 5, CALIBRATION, N_FRAMES );
+				valueReader.setIndexChunkSize( chunkSize );
+				assertEquals( 7, valueReader.read( 2, null, 3 ).size() );
+				assertReadFails( valueReader, 41 / 7, "value.csv at line 41", "'1.2.3'" );
+
+				// Found when indexing.
+				final CSVSpotReader frameReader = new CSVSpotReader( folder.getPath(), "frame.csv", 0, 1, 2, 3, 4, 5, CALIBRATION, N_FRAMES );
+				frameReader.setIndexChunkSize( chunkSize );
+				assertReadFails( frameReader, 0, "frame.csv at line 33", "2.5" );
+			}
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static void assertParsedLikeJava( final String value )
+	{
+		final double expected = Double.parseDouble( value );
+		// Not at the start of the buffer, and with bytes around.
+		final ByteBuffer buffer = wrap( "12," + value + ",34" );
+		final double actual = CSVSpotReader.parseDouble( buffer, 3, 3 + value.length() );
+		assertEquals( "Parsing '" + value + "'.", Double.doubleToLongBits( expected ), Double.doubleToLongBits( actual ) );
+	}
+
+	private static ByteBuffer wrap( final String str )
+	{
+		return ByteBuffer.wrap( str.getBytes( StandardCharsets.ISO_8859_1 ) );
+	}
+
+	/**
+	 * The file names the CSV detector used before it accepted a pattern.
+	 */
+	private static String legacyName( final long frame, final long dimT )
+	{
+		String digits = Long.toString( frame );
+		if ( dimT <= 100000 )
+		{
+			long limit = 10;
+			while ( limit < dimT )
+			{
+				limit *= 10;
+			}
+			final int width = Long.toString( limit ).length() - 1;
+			while ( digits.length() < width )
+			{
+				digits = "0" + digits;
+			}
+		}
+		return "frame_" + digits + ".csv";
+	}
+
+	/**
+	 * A row as frame, x, y, z, area and quality.
+	 */
+	private static double[] randomRow( final Random ran, final int frame )
+	{
+		return new double[] { frame, ran.nextDouble() * 100, ran.nextInt( 1000 ) / 8d, ran.nextDouble() * 10, 1 + ran.nextDouble() * 50, ran.nextGaussian() };
+	}
+
+	private static void assertSpots( final List< double[] > rows, final List< Spot > spots )
+	{
+		assertEquals( rows.size(), spots.size() );
+		for ( int i = 0; i < rows.size(); i++ )
+		{
+			final double[] row = rows.get( i );
+			final Spot spot = spots.get( i );
+			assertEquals( row[ 1 ] * CALIBRATION[ 0 ], spot.getFeature( Spot.POSITION_X ).doubleValue(), 0d );
+			assertEquals( row[ 2 ] * CALIBRATION[ 1 ], spot.getFeature( Spot.POSITION_Y ).doubleValue(), 0d );
+			assertEquals( row[ 3 ] * CALIBRATION[ 2 ], spot.getFeature( Spot.POSITION_Z ).doubleValue(), 0d );
+			assertEquals( Math.sqrt( row[ 4 ] / Math.PI ) * CALIBRATION[ 0 ], spot.getFeature( Spot.RADIUS ).doubleValue(), 0d );
+			assertEquals( row[ 5 ], spot.getFeature( Spot.QUALITY ).doubleValue(), 0d );
+		}
+	}
+
+	private static void assertReadFails( final CSVSpotReader reader, final int frame, final String... expected )
+	{
+		try
+		{
+			reader.read( frame, null, 1 );
+			fail( "Reading frame " + frame + " did not fail." );
+		}
+		catch ( final IOException e )
+		{
+			for ( final String str : expected )
+			{
+				assertTrue( "Message '" + e.getMessage() + "' does not contain '" + str + "'.", e.getMessage().contains( str ) );
+			}
+		}
+	}
+
+	private static File createFolder() throws IOException
+	{
+		final File folder = File.createTempFile( "TrackMate", "CSV" );
+		folder.delete();
+		folder.mkdir();
+		return folder;
+	}
+
+	private static void write( final File file, final String str ) throws IOException
+	{
+		final OutputStream out = new FileOutputStream( file );
+		try
+		{
+			out.write( str.getBytes( StandardCharsets.ISO_8859_1 ) );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void delete( final File folder )
+	{
+		final File[] files = folder.listFiles();
+		if ( null != files )
+		{
+			for ( final File file : files )
+			{
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+}
@@ -0,0 +1,119 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.util.ComputePool;
+
+public class DetectionUtilsTest
+{
+
+	/** Maximal difference between the two methods, relative to the range. */
+	private static final double TOLERANCE = 1e-4;
+
+	@Test
+	public void testSeparableLoGSameAsFFT2D() throws IncompatibleTypeException
+	{
+		final Random ran = new Random( 1l );
+		final Img< FloatType > img = randomImage( ran, 57, 40 );
+		compare( img, 2d, new double[] { 1d, 1d } );
+		compare( img, 1.5, new double[] { 0.3, 0.2 } );
+	}
+
+	@Test
+	public void testSeparableLoGSameAsFFT3D() throws IncompatibleTypeException
+	{
+		final Random ran = new Random( 2l );
+		final Img< FloatType > img = randomImage( ran, 31, 24, 17 );
+		compare( img, 2d, new double[] { 1d, 1d, 1d } );
+		compare( img, 1.2, new double[] { 0.2, 0.2, 0.5 } );
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	/**
+	 * Compares the separable convolution with the FFT convolution with the
+	 * full kernel, on one and on several threads.
+	 */
+	private static void compare( final Img< FloatType > img, final double radius, final double[] calibration ) throws IncompatibleTypeException
+	{
+		final Img< FloatType > expected = img.copy();
+		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, img.numDimensions(), calibration );
+		final ExecutorService fftService = new ComputePool( 1 );
+		try
+		{
+			final FFTConvolution< FloatType > fftconv = new FFTConvolution< FloatType >( expected, kernel );
+			fftconv.setExecutorService( fftService );
+			fftconv.convolve();
+		}
+		finally
+		{
+			fftService.shutdown();
+		}
+
+		double max = 0d;
+		for ( final FloatType pixel : expected )
+		{
+			max = Math.max( max, Math.abs( pixel.getRealDouble() ) );
+		}
+		assertTrue( max > 0d );
+
+		for ( final int numThreads : new int[] { 1, 3 } )
+		{
+			final ExecutorService service = new ComputePool( numThreads );
+			try
+			{
+				assertSame( expected, DetectionUtils.convolveLoGSeparable( img, radius, calibration, service ), TOLERANCE * max );
+			}
+			finally
+			{
+				service.shutdown();
+			}
+		}
+	}
+
+	private static void assertSame( final Img< FloatType > expected, final Img< FloatType > actual, final double tolerance )
+	{
+		final int n = expected.numDimensions();
+		for ( int d = 0; d < n; d++ )
+		{
+			assertEquals( expected.dimension( d ), actual.dimension( d ) );
+		}
+		final long[] position = new long[ n ];
+		final RandomAccess< FloatType > ra = actual.randomAccess();
+		final Cursor< FloatType > cursor = expected.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( position );
+			ra.setPosition( position );
+			assertEquals( "At " + Arrays.toString( position ) + ".", cursor.get().getRealDouble(), ra.get().getRealDouble(), tolerance );
+		}
+	}
+
+	private static Img< FloatType > randomImage( final Random ran, final long... dims )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( 100f * ran.nextFloat() );
+		}
+		return img;
+	}
+}
@@ -0,0 +1,200 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+
+public class LogDetectorTest
+{
+
+	private static final double RADIUS = 1d;
+
+	private static final double THRESHOLD = 2d;
+
+	private static final double AMPLITUDE = 100d;
+
+	/** Tiles are convolved with FFTs of another size than the whole frame. */
+	private static final double LOG_TOLERANCE = 1e-3;
+
+	private static final double[] CALIBRATION_2D = new double[] { 0.25, 0.25 };
+
+	private static final double[] CALIBRATION_3D = new double[] { 0.25, 0.25, 0.5 };
+
+	private static final int TILE_SIZE_2D = 16;
+
+	private static final int TILE_SIZE_3D = 12;
+
+	/**
+	 * Blob centers in pixels, on or next to the seams of 16 pixel tiles.
+	 */
+	private static final double[][] BLOBS_2D = new double[][] {
+			{ 16, 10 },
+			{ 31.5, 30 },
+			{ 48, 52 },
+			{ 10, 47.5 },
+			{ 52, 16.2 } };
+
+	/**
+	 * Blob centers in pixels, on or next to the seams of 12 pixel tiles.
+	 */
+	private static final double[][] BLOBS_3D = new double[][] {
+			{ 12, 12, 12 },
+			{ 24.5, 36, 11.5 },
+			{ 36, 20, 6 },
+			{ 8, 36, 18 } };
+
+	@Test
+	public void testDogTiledSameAsWhole2D()
+	{
+		final Img< FloatType > img = createImage( BLOBS_2D, CALIBRATION_2D, 64, 64 );
+		for ( final boolean median : new boolean[] { false, true } )
+		{
+			final List< Spot > whole = detect( new DogDetector< FloatType >( img, img, CALIBRATION_2D, RADIUS, THRESHOLD, true, median ), 0, null );
+			assertEquals( BLOBS_2D.length, whole.size() );
+			assertSameSpots( whole, detect( new DogDetector< FloatType >( img, img, CALIBRATION_2D, RADIUS, THRESHOLD, true, median ), TILE_SIZE_2D, null ), 0d );
+			assertSameSpots( whole, detect( new DogDetector< FloatType >( img, img, CALIBRATION_2D, RADIUS, THRESHOLD, true, median ), TILE_SIZE_2D, new ComputePool( 4 ) ), 0d );
+		}
+	}
+
+	@Test
+	public void testDogTiledSameAsWhole3D()
+	{
+		final Img< FloatType > img = createImage( BLOBS_3D, CALIBRATION_3D, 48, 48, 24 );
+		final List< Spot > whole = detect( new DogDetector< FloatType >( img, img, CALIBRATION_3D, RADIUS, THRESHOLD, true, false ), 0, null );
+		assertEquals( BLOBS_3D.length, whole.size() );
+		assertSameSpots( whole, detect( new DogDetector< FloatType >( img, img, CALIBRATION_3D, RADIUS, THRESHOLD, true, false ), TILE_SIZE_3D, new ComputePool( 4 ) ), 0d );
+	}
+
+	@Test
+	public void testLogTiledSameAsWhole2D()
+	{
+		final Img< FloatType > img = createImage( BLOBS_2D, CALIBRATION_2D, 64, 64 );
+		for ( final String method : new String[] { DetectorKeys.CONVOLUTION_FFT, DetectorKeys.CONVOLUTION_SEPARABLE } )
+		{
+			for ( final boolean median : new boolean[] { false, true } )
+			{
+				final List< Spot > whole = detect( createLogDetector( img, CALIBRATION_2D, median, method ), 0, null );
+				assertEquals( BLOBS_2D.length, whole.size() );
+				assertSameSpots( whole, detect( createLogDetector( img, CALIBRATION_2D, median, method ), TILE_SIZE_2D, null ), LOG_TOLERANCE );
+				assertSameSpots( whole, detect( createLogDetector( img, CALIBRATION_2D, median, method ), TILE_SIZE_2D, new ComputePool( 4 ) ), LOG_TOLERANCE );
+			}
+		}
+	}
+
+	@Test
+	public void testLogTiledSameAsWhole3D()
+	{
+		final Img< FloatType > img = createImage( BLOBS_3D, CALIBRATION_3D, 48, 48, 24 );
+		for ( final String method : new String[] { DetectorKeys.CONVOLUTION_FFT, DetectorKeys.CONVOLUTION_SEPARABLE } )
+		{
+			final List< Spot > whole = detect( createLogDetector( img, CALIBRATION_3D, false, method ), 0, null );
+			assertEquals( BLOBS_3D.length, whole.size() );
+			assertSameSpots( whole, detect( createLogDetector( img, CALIBRATION_3D, false, method ), TILE_SIZE_3D, new ComputePool( 4 ) ), LOG_TOLERANCE );
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static LogDetector< FloatType > createLogDetector( final Img< FloatType > img, final double[] calibration, final boolean median, final String method )
+	{
+		final LogDetector< FloatType > detector = new LogDetector< FloatType >( img, img, calibration, RADIUS, THRESHOLD, true, median );
+		detector.setConvolutionMethod( method );
+		return detector;
+	}
+
+	/**
+	 * Runs the detector with the specified tile size, 0 to process the whole
+	 * frame at once, and shuts the service down.
+	 */
+	private static List< Spot > detect( final LogDetector< FloatType > detector, final long tileSize, final ComputePool service )
+	{
+		try
+		{
+			detector.setNumThreads( 4 );
+			detector.setTileSize( tileSize );
+			detector.setExecutorService( service );
+			assertTrue( detector.getErrorMessage(), detector.checkInput() && detector.process() );
+			return detector.getResult();
+		}
+		finally
+		{
+			if ( null != service )
+			{
+				service.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Gaussian blobs of the detector radius.
+	 */
+	private static Img< FloatType > createImage( final double[][] blobs, final double[] calibration, final long... dims )
+	{
+		final int n = dims.length;
+		final double sigma = RADIUS / Math.sqrt( n );
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		final Cursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double value = 0d;
+			for ( final double[] blob : blobs )
+			{
+				double r2 = 0d;
+				for ( int d = 0; d < n; d++ )
+				{
+					final double dx = ( cursor.getDoublePosition( d ) - blob[ d ] ) * calibration[ d ];
+					r2 += dx * dx;
+				}
+				value += AMPLITUDE * Math.exp( -r2 / ( 2 * sigma * sigma ) );
+			}
+			cursor.get().setReal( value );
+		}
+		return img;
+	}
+
+	/**
+	 * Matches each expected spot with the nearest actual spot.
+	 */
+	private static void assertSameSpots( final List< Spot > expected, final List< Spot > actual, final double tolerance )
+	{
+		assertEquals( expected.size(), actual.size() );
+		final List< Spot > unmatched = new ArrayList< Spot >( actual );
+		for ( final Spot e : expected )
+		{
+			Spot match = null;
+			double best = Double.POSITIVE_INFINITY;
+			for ( final Spot candidate : unmatched )
+			{
+				final double d2 = e.squareDistanceTo( candidate );
+				if ( d2 < best )
+				{
+					best = d2;
+					match = candidate;
+				}
+			}
+			assertTrue( "No spot found for " + e + ".", null != match );
+			for ( final String feature : new String[] { Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z } )
+			{
+				assertEquals( feature + " of " + e + ".", e.getFeature( feature ).doubleValue(), match.getFeature( feature ).doubleValue(), tolerance );
+			}
+			final double quality = e.getFeature( Spot.QUALITY ).doubleValue();
+			assertEquals( "Quality of " + e + ".", quality, match.getFeature( Spot.QUALITY ).doubleValue(), tolerance * Math.abs( quality ) );
+			unmatched.remove( match );
+		}
+	}
+}
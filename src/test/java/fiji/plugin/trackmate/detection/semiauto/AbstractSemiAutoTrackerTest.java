@@ -0,0 +1,240 @@
+package fiji.plugin.trackmate.detection.semiauto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ComputePool;
+
+public class AbstractSemiAutoTrackerTest
+{
+
+	private static final int N_FRAMES = 8;
+
+	private static final double RADIUS = 2d;
+
+	private static final double SIGMA = 1.5;
+
+	private static final double QUALITY_THRESHOLD = 0.5;
+
+	/**
+	 * Large enough for the neighborhoods to hold the whole LoG kernel around
+	 * the blobs, so that merged and single neighborhoods give the same
+	 * filtered values.
+	 */
+	private static final double DISTANCE_TOLERANCE = 3d;
+
+	private static final double TOLERANCE = 1e-3;
+
+	/**
+	 * Blobs as x, y, vx, vy and amplitude. The first two are close enough for
+	 * their neighborhoods to be merged, but further apart than the distance
+	 * tolerance.
+	 */
+	private static final double[][] BLOBS = new double[][] {
+			{ 12, 12, 1, 0.5, 100 },
+			{ 22, 12, 1, 0.5, 80 },
+			{ 44, 44, -0.5, 1, 120 },
+			{ 14, 48, 0.7, -0.6, 90 } };
+
+	/**
+	 * Seeds as x, y. The last two seeds are on the same blob and claim the
+	 * same successors.
+	 */
+	private static final double[][] SEEDS = new double[][] {
+			{ 12, 12 },
+			{ 22, 12 },
+			{ 44, 44 },
+			{ 14, 48 },
+			{ 44.5, 44.3 } };
+
+	@Test
+	public void testSameTracksAsSequential()
+	{
+		final Img< FloatType > img = createImage();
+
+		// All seeds at once, merged neighborhoods and claimed successors.
+		final Model batchModel = new Model();
+		final List< Spot > batchSeeds = addSeeds( batchModel );
+		final TestTracker batch = new TestTracker( batchModel, img );
+		final ComputePool service = new ComputePool( 4 );
+		try
+		{
+			batch.setNumThreads( 4 );
+			batch.setExecutorService( service );
+			batch.processSpots( batchSeeds );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		// One seed after the other.
+		final Model sequentialModel = new Model();
+		final List< Spot > sequentialSeeds = addSeeds( sequentialModel );
+		final TestTracker sequential = new TestTracker( sequentialModel, img );
+		sequential.setNumThreads( 1 );
+		for ( final Spot seed : sequentialSeeds )
+		{
+			sequential.processSpot( seed );
+		}
+
+		assertEquals( sequentialModel.getSpots().getNSpots( false ), batchModel.getSpots().getNSpots( false ) );
+		assertEquals( sequentialModel.getTrackModel().edgeSet().size(), batchModel.getTrackModel().edgeSet().size() );
+		for ( int i = 0; i < SEEDS.length; i++ )
+		{
+			final List< Spot > expected = follow( sequentialModel, sequentialSeeds.get( i ) );
+			final List< Spot > actual = follow( batchModel, batchSeeds.get( i ) );
+			assertEquals( N_FRAMES, expected.size() );
+			assertEquals( expected.size(), actual.size() );
+			for ( int j = 0; j < expected.size(); j++ )
+			{
+				final Spot e = expected.get( j );
+				final Spot a = actual.get( j );
+				assertEquals( e.getFeature( Spot.FRAME ), a.getFeature( Spot.FRAME ) );
+				assertEquals( e.getFeature( Spot.POSITION_X ), a.getFeature( Spot.POSITION_X ), TOLERANCE );
+				assertEquals( e.getFeature( Spot.POSITION_Y ), a.getFeature( Spot.POSITION_Y ), TOLERANCE );
+			}
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static Img< FloatType > createImage()
+	{
+		final Img< FloatType > img = ArrayImgs.floats( 64, 64, N_FRAMES );
+		final Cursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double x = cursor.getDoublePosition( 0 );
+			final double y = cursor.getDoublePosition( 1 );
+			final int t = cursor.getIntPosition( 2 );
+			double value = 0d;
+			for ( final double[] blob : BLOBS )
+			{
+				final double dx = x - blob[ 0 ] - t * blob[ 2 ];
+				final double dy = y - blob[ 1 ] - t * blob[ 3 ];
+				value += blob[ 4 ] * Math.exp( -( dx * dx + dy * dy ) / ( 2 * SIGMA * SIGMA ) );
+			}
+			cursor.get().setReal( value );
+		}
+		return img;
+	}
+
+	private static List< Spot > addSeeds( final Model model )
+	{
+		final List< Spot > seeds = new ArrayList< Spot >( SEEDS.length );
+		model.beginUpdate();
+		try
+		{
+			for ( final double[] xy : SEEDS )
+			{
+				final Spot seed = new Spot( xy[ 0 ], xy[ 1 ], 0d, RADIUS, 1d );
+				model.addSpotTo( seed, 0 );
+				seeds.add( seed );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return seeds;
+	}
+
+	/**
+	 * Returns the spots linked forward in time from the specified one.
+	 */
+	private static List< Spot > follow( final Model model, final Spot start )
+	{
+		final List< Spot > spots = new ArrayList< Spot >();
+		Spot current = start;
+		while ( null != current )
+		{
+			spots.add( current );
+			final int frame = current.getFeature( Spot.FRAME ).intValue();
+			Spot next = null;
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().edgesOf( current ) )
+			{
+				Spot other = model.getTrackModel().getEdgeTarget( edge );
+				if ( other == current )
+				{
+					other = model.getTrackModel().getEdgeSource( edge );
+				}
+				if ( other.getFeature( Spot.FRAME ).intValue() > frame )
+				{
+					next = other;
+				}
+			}
+			current = next;
+		}
+		return spots;
+	}
+
+	/**
+	 * Tracks in the frames of a 2D + T image, with one source view per frame.
+	 */
+	private static final class TestTracker extends AbstractSemiAutoTracker< FloatType >
+	{
+
+		private final Img< FloatType > img;
+
+		private final Map< Integer, RandomAccessible< FloatType > > frames = new HashMap< Integer, RandomAccessible< FloatType > >();
+
+		private TestTracker( final Model model, final Img< FloatType > img )
+		{
+			super( model, new SelectionModel( model ), Logger.VOID_LOGGER );
+			this.img = img;
+			for ( int t = 0; t < img.dimension( 2 ); t++ )
+			{
+				frames.put( Integer.valueOf( t ), Views.hyperSlice( img, 2, t ) );
+			}
+			setParameters( QUALITY_THRESHOLD, DISTANCE_TOLERANCE, 0 );
+		}
+
+		@Override
+		protected void exposeSpot( final Spot newSpot, final Spot previousSpot )
+		{}
+
+		@Override
+		protected SearchRegion< FloatType > getNeighborhood( final Spot spot, final int frame )
+		{
+			if ( frame >= img.dimension( 2 ) ) { return null; }
+
+			final double radius = spot.getFeature( Spot.RADIUS );
+			final long r = ( long ) Math.ceil( Math.max( NEIGHBORHOOD_FACTOR, distanceTolerance + 1 ) * radius );
+			final long x = Math.round( spot.getFeature( Spot.POSITION_X ) );
+			final long y = Math.round( spot.getFeature( Spot.POSITION_Y ) );
+			final long[] min = new long[] { Math.max( 0, x - r ), Math.max( 0, y - r ) };
+			final long[] max = new long[] { Math.min( img.max( 0 ), x + r ), Math.min( img.max( 1 ), y + r ) };
+
+			final SearchRegion< FloatType > region = new SearchRegion< FloatType >();
+			region.source = frames.get( Integer.valueOf( frame ) );
+			region.interval = new FinalInterval( min, max );
+			region.calibration = new double[] { 1d, 1d };
+			region.transform = new AffineTransform3D();
+			return region;
+		}
+	}
+}
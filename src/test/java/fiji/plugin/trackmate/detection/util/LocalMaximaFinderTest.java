@@ -0,0 +1,218 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.localextrema.LocalExtrema;
+import net.imglib2.algorithm.localextrema.LocalExtrema.LocalNeighborhoodCheck;
+import net.imglib2.algorithm.localextrema.RefinedPeak;
+import net.imglib2.algorithm.localextrema.SubpixelLocalization;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DetectionUtils;
+import fiji.plugin.trackmate.util.ComputePool;
+
+public class LocalMaximaFinderTest
+{
+
+	private static final double THRESHOLD = 0.5;
+
+	private static final double TOLERANCE = 1e-6;
+
+	private static final int N_IMAGES = 20;
+
+	@Test
+	public void testSameAsLocalExtrema2D()
+	{
+		final Random ran = new Random( 1l );
+		for ( int i = 0; i < N_IMAGES; i++ )
+		{
+			final Img< FloatType > img = randomImage( ran, 24 + ran.nextInt( 16 ), 16 + ran.nextInt( 16 ) );
+			compareAll( img, ran );
+		}
+	}
+
+	@Test
+	public void testSameAsLocalExtrema3D()
+	{
+		final Random ran = new Random( 2l );
+		for ( int i = 0; i < N_IMAGES; i++ )
+		{
+			final Img< FloatType > img = randomImage( ran, 12 + ran.nextInt( 8 ), 10 + ran.nextInt( 8 ), 6 + ran.nextInt( 6 ) );
+			compareAll( img, ran );
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static void compareAll( final Img< FloatType > img, final Random ran )
+	{
+		final ExecutorService service = new ComputePool( 3 );
+		try
+		{
+			compare( img, img, true, 1, null );
+			compare( img, img, false, 1, null );
+			compare( img, img, true, 3, service );
+
+			// A search interval inside the image, as for tiles.
+			final int n = img.numDimensions();
+			final long[] min = new long[ n ];
+			final long[] max = new long[ n ];
+			for ( int d = 0; d < n; d++ )
+			{
+				min[ d ] = ran.nextInt( ( int ) img.dimension( d ) / 2 );
+				max[ d ] = min[ d ] + ran.nextInt( ( int ) ( img.dimension( d ) - min[ d ] ) );
+			}
+			compare( img, new FinalInterval( min, max ), true, 2, service );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Compares the finder with LocalExtrema and SubpixelLocalization
+	 * configured as TrackMate used to configure them.
+	 */
+	private static void compare( final Img< FloatType > img, final Interval searchInterval, final boolean doSubPixelLocalization, final int numThreads, final ExecutorService service )
+	{
+		final int n = img.numDimensions();
+		final double[] calibration = new double[ n ];
+		for ( int d = 0; d < n; d++ )
+		{
+			calibration[ d ] = 0.5 + d;
+		}
+
+		final List< Spot > actual = LocalMaximaFinder.findLocalMaxima( img, searchInterval, THRESHOLD, calibration, 1d, doSubPixelLocalization, 0, numThreads, service );
+
+		final FloatType val = new FloatType();
+		val.setReal( THRESHOLD );
+		final LocalNeighborhoodCheck< Point, FloatType > check = new LocalExtrema.MaximumCheck< FloatType >( val );
+		final IntervalView< FloatType > withBorder = Views.interval( Views.extendMirrorSingle( img ), Intervals.expand( img, 1 ) );
+		final IntervalView< FloatType > searched = Views.interval( Views.extendMirrorSingle( img ), Intervals.expand( searchInterval, 1 ) );
+		final ExecutorService es = Executors.newSingleThreadExecutor();
+		final List< Point > peaks;
+		try
+		{
+			peaks = LocalExtrema.findLocalExtrema( searched, check, es );
+		}
+		finally
+		{
+			es.shutdown();
+		}
+		assertEquals( peaks.size(), actual.size() );
+
+		final List< double[] > expected = new ArrayList< double[] >( peaks.size() );
+		final RandomAccess< FloatType > ra = img.randomAccess();
+		for ( final Point peak : peaks )
+		{
+			final double[] position = new double[ n ];
+			if ( doSubPixelLocalization )
+			{
+				final SubpixelLocalization< Point, FloatType > spl = new SubpixelLocalization< Point, FloatType >( n );
+				spl.setNumThreads( 1 );
+				spl.setReturnInvalidPeaks( true );
+				spl.setCanMoveOutside( true );
+				spl.setAllowMaximaTolerance( true );
+				spl.setMaxNumMoves( DetectionUtils.SUBPIXEL_MAX_NUM_MOVES );
+				final List< RefinedPeak< Point >> refined = spl.process( Collections.singletonList( peak ), withBorder, img );
+				refined.get( 0 ).localize( position );
+			}
+			else
+			{
+				peak.localize( position );
+			}
+			ra.setPosition( peak );
+			final double[] spot = new double[ 4 ];
+			for ( int d = 0; d < n; d++ )
+			{
+				spot[ d ] = position[ d ] * calibration[ d ];
+			}
+			spot[ 3 ] = ra.get().getRealDouble();
+			expected.add( spot );
+		}
+
+		final List< Spot > unmatched = new ArrayList< Spot >( actual );
+		for ( final double[] spot : expected )
+		{
+			Spot match = null;
+			for ( final Spot candidate : unmatched )
+			{
+				if ( spot[ 3 ] == candidate.getFeature( Spot.QUALITY ).doubleValue()
+						&& Math.abs( spot[ 0 ] - candidate.getFeature( Spot.POSITION_X ) ) < TOLERANCE
+						&& Math.abs( spot[ 1 ] - candidate.getFeature( Spot.POSITION_Y ) ) < TOLERANCE
+						&& Math.abs( spot[ 2 ] - candidate.getFeature( Spot.POSITION_Z ) ) < TOLERANCE )
+				{
+					match = candidate;
+					break;
+				}
+			}
+			assertTrue( "No maximum found at " + spot[ 0 ] + ", " + spot[ 1 ] + ", " + spot[ 2 ] + ".", null != match );
+			unmatched.remove( match );
+		}
+	}
+
+	/**
+	 * Uniform noise, with plateaus of 2 pixels per dimension above the noise,
+	 * some of them touching the image borders.
+	 */
+	private static Img< FloatType > randomImage( final Random ran, final long... dims )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( ran.nextFloat() );
+		}
+
+		final int n = dims.length;
+		final RandomAccess< FloatType > ra = img.randomAccess();
+		final long[] corner = new long[ n ];
+		for ( int p = 0; p < 6; p++ )
+		{
+			for ( int d = 0; d < n; d++ )
+			{
+				// Every other plateau against a border.
+				if ( p % 2 == 0 && d == p / 2 % n )
+				{
+					corner[ d ] = ran.nextBoolean() ? 0 : dims[ d ] - 2;
+				}
+				else
+				{
+					corner[ d ] = ran.nextInt( ( int ) dims[ d ] - 1 );
+				}
+			}
+			final float value = 1f + ran.nextFloat();
+			for ( int k = 0; k < 1 << n; k++ )
+			{
+				for ( int d = 0; d < n; d++ )
+				{
+					ra.setPosition( corner[ d ] + ( ( k >> d ) & 1 ), d );
+				}
+				ra.get().set( value );
+			}
+		}
+		return img;
+	}
+}
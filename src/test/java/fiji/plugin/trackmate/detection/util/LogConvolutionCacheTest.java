@@ -0,0 +1,145 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.detection.DetectionUtils;
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.LogDetector;
+import fiji.plugin.trackmate.util.ComputePool;
+
+public class LogConvolutionCacheTest
+{
+
+	private static final double RADIUS = 2d;
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 1d };
+
+	private static final int N_CALLS = 5;
+
+	private static final double TOLERANCE = 1e-5;
+
+	@Test
+	public void testSameKeyReusesConvolution()
+	{
+		final Random ran = new Random( 1l );
+		final LogConvolutionCache cache = new LogConvolutionCache();
+		final ExecutorService service = new ComputePool( 2 );
+		try
+		{
+			for ( int i = 0; i < N_CALLS; i++ )
+			{
+				// A new image each time, as for the frames of a movie.
+				final Img< FloatType > img = randomImage( ran, 40, 32 );
+				final Img< FloatType > expected = convolve( img, RADIUS, CALIBRATION, service );
+				cache.convolve( img, RADIUS, CALIBRATION, service );
+				assertSame( expected, img );
+				assertEquals( 1, cache.numPools() );
+				assertEquals( 1, cache.numInstances() );
+			}
+
+			// The calibration of the missing dimensions is not part of the key.
+			cache.convolve( randomImage( ran, 40, 32 ), RADIUS, new double[] { 0.5, 0.5, 2d }, service );
+			assertEquals( 1, cache.numPools() );
+			assertEquals( 1, cache.numInstances() );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void testCacheDoesNotGrow()
+	{
+		final Random ran = new Random( 2l );
+		final LogConvolutionCache cache = new LogConvolutionCache( 2 );
+		final ExecutorService service = new ComputePool( 2 );
+		try
+		{
+			for ( int i = 0; i < N_CALLS; i++ )
+			{
+				cache.convolve( randomImage( ran, 40, 32 + i ), RADIUS, CALIBRATION, service );
+				assertEquals( Math.min( 2, i + 1 ), cache.numPools() );
+				assertEquals( Math.min( 2, i + 1 ), cache.numInstances() );
+			}
+			cache.clear();
+			assertEquals( 0, cache.numPools() );
+			assertEquals( 0, cache.numInstances() );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Detectors of successive frames sharing a cache, as the detector
+	 * factories do, compute the kernel FFT once.
+	 */
+	@Test
+	public void testDetectorsShareCache()
+	{
+		final Random ran = new Random( 3l );
+		final LogConvolutionCache cache = new LogConvolutionCache();
+		for ( int i = 0; i < N_CALLS; i++ )
+		{
+			final Img< FloatType > img = randomImage( ran, 40, 32 );
+			final LogDetector< FloatType > detector = new LogDetector< FloatType >( img, img, CALIBRATION, RADIUS, 0d, true, false );
+			detector.setNumThreads( 1 );
+			detector.setConvolutionMethod( DetectorKeys.CONVOLUTION_FFT );
+			detector.setConvolutionCache( cache );
+			assertTrue( detector.getErrorMessage(), detector.checkInput() && detector.process() );
+			assertEquals( 1, cache.numPools() );
+			assertEquals( 1, cache.numInstances() );
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	/**
+	 * Convolves a copy of the specified image with a new FFT convolution.
+	 */
+	private static Img< FloatType > convolve( final Img< FloatType > img, final double radius, final double[] calibration, final ExecutorService service )
+	{
+		final Img< FloatType > copy = img.copy();
+		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, img.numDimensions(), calibration );
+		final FFTConvolution< FloatType > fftconv = new FFTConvolution< FloatType >( copy, kernel );
+		fftconv.setExecutorService( service );
+		fftconv.convolve();
+		return copy;
+	}
+
+	private static void assertSame( final Img< FloatType > expected, final Img< FloatType > actual )
+	{
+		final Cursor< FloatType > ce = expected.cursor();
+		final Cursor< FloatType > ca = actual.cursor();
+		while ( ce.hasNext() )
+		{
+			assertEquals( ce.next().getRealDouble(), ca.next().getRealDouble(), TOLERANCE );
+		}
+	}
+
+	private static Img< FloatType > randomImage( final Random ran, final long... dims )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( ran.nextFloat() );
+		}
+		return img;
+	}
+}
@@ -0,0 +1,197 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+public class MedianFilterTest
+{
+
+	private static final float[] SPECIAL_VALUES = new float[] { Float.NaN, -0f, 0f, -1f, 1f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY };
+
+	/**
+	 * 3x3 windows: sorting network inside, selection on the borders. Taller
+	 * than a tile.
+	 */
+	@Test
+	public void test2D()
+	{
+		final Random ran = new Random( 1l );
+		final Img< FloatType > img = ArrayImgs.floats( 37, 150 );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( ran.nextFloat() );
+		}
+		compare( img, 1 );
+	}
+
+	/**
+	 * Images smaller than the window, in some or all dimensions.
+	 */
+	@Test
+	public void testClippedBorders()
+	{
+		final Random ran = new Random( 2l );
+		final long[][] allDims = new long[][] { { 1, 7 }, { 2, 5 }, { 7, 1 }, { 3, 3 }, { 2, 2, 2 }, { 5, 1, 4 }, { 4, 4, 30 } };
+		for ( final long[] dims : allDims )
+		{
+			final Img< FloatType > img = ArrayImgs.floats( dims );
+			for ( final FloatType pixel : img )
+			{
+				// Few distinct values, to have ties.
+				pixel.set( ran.nextInt( 5 ) );
+			}
+			for ( int radius = 1; radius <= 4; radius++ )
+			{
+				compare( img, radius );
+			}
+		}
+	}
+
+	/**
+	 * 3x3x3 windows: forgetful selection inside, selection on the borders.
+	 * Deeper than a tile.
+	 */
+	@Test
+	public void test3D()
+	{
+		final Random ran = new Random( 3l );
+		final Img< FloatType > img = ArrayImgs.floats( 19, 17, 35 );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( ( float ) ran.nextGaussian() );
+		}
+		compare( img, 1 );
+	}
+
+	/**
+	 * Radius larger than 1 on integer types: sliding histogram.
+	 */
+	@Test
+	public void testHistogram()
+	{
+		final Random ran = new Random( 4l );
+
+		final Img< UnsignedShortType > shorts = ArrayImgs.unsignedShorts( 41, 70 );
+		for ( final UnsignedShortType pixel : shorts )
+		{
+			pixel.set( ran.nextInt( 1 << 16 ) );
+		}
+		compare( shorts, 2 );
+		compare( shorts, 5 );
+
+		final Img< ShortType > signed = ArrayImgs.shorts( 23, 20 );
+		for ( final ShortType pixel : signed )
+		{
+			pixel.set( ( short ) ( ran.nextInt( 1 << 16 ) - ( 1 << 15 ) ) );
+		}
+		compare( signed, 3 );
+
+		final Img< UnsignedByteType > bytes = ArrayImgs.unsignedBytes( 13, 11, 20 );
+		for ( final UnsignedByteType pixel : bytes )
+		{
+			// Few distinct values, to have ties.
+			pixel.set( ran.nextInt( 4 ) * 60 );
+		}
+		compare( bytes, 2 );
+	}
+
+	/**
+	 * NaN is larger than all values and -0 smaller than 0, as for
+	 * {@link Float#compare(float, float)}.
+	 */
+	@Test
+	public void testNaNAndNegativeZero()
+	{
+		final Random ran = new Random( 5l );
+		final long[][] allDims = new long[][] { { 30, 20 }, { 9, 8, 7 } };
+		for ( final long[] dims : allDims )
+		{
+			final Img< FloatType > img = ArrayImgs.floats( dims );
+			for ( final FloatType pixel : img )
+			{
+				pixel.set( SPECIAL_VALUES[ ran.nextInt( SPECIAL_VALUES.length ) ] );
+			}
+			compare( img, 1 );
+			compare( img, 2 );
+		}
+	}
+
+	@Test
+	public void testKeysSortLikeFloats()
+	{
+		for ( final float a : SPECIAL_VALUES )
+		{
+			assertEquals( Float.floatToIntBits( a ), Float.floatToIntBits( MedianFilter.fromKey( MedianFilter.toKey( a ) ) ) );
+			for ( final float b : SPECIAL_VALUES )
+			{
+				assertEquals( Integer.signum( Float.compare( a, b ) ), Integer.signum( Integer.compare( MedianFilter.toKey( a ), MedianFilter.toKey( b ) ) ) );
+			}
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static < T extends RealType< T > & NativeType< T >> void compare( final Img< T > img, final int radius )
+	{
+		final MedianFilter< T > filter = new MedianFilter< T >( img, radius );
+		filter.setNumThreads( 3 );
+		assertTrue( filter.getErrorMessage(), filter.checkInput() && filter.process() );
+		final Img< T > result = filter.getResult();
+
+		final int n = img.numDimensions();
+		final long[] position = new long[ n ];
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		final RandomAccess< T > ra = result.randomAccess();
+		final Cursor< T > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( position );
+			for ( int d = 0; d < n; d++ )
+			{
+				min[ d ] = Math.max( 0, position[ d ] - radius );
+				max[ d ] = Math.min( img.max( d ), position[ d ] + radius );
+			}
+			final float expected = naiveMedian( Views.interval( img, min, max ) );
+			ra.setPosition( position );
+			final float actual = ra.get().getRealFloat();
+			assertEquals( "At " + Arrays.toString( position ) + " with radius " + radius + ".", Float.floatToIntBits( expected ), Float.floatToIntBits( actual ) );
+		}
+	}
+
+	/**
+	 * The lower median of the values, sorted.
+	 */
+	private static < T extends RealType< T >> float naiveMedian( final IntervalView< T > window )
+	{
+		final float[] values = new float[ ( int ) window.size() ];
+		int i = 0;
+		for ( final T pixel : window )
+		{
+			values[ i++ ] = pixel.getRealFloat();
+		}
+		Arrays.sort( values );
+		return values[ ( values.length - 1 ) / 2 ];
+	}
+}
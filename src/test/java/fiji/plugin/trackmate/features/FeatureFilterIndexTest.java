@@ -0,0 +1,157 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FeatureFilterIndexTest
+{
+
+	private static final int N_OBJECTS = 5000;
+
+	private static final String[] FEATURES = new String[] { "A", "B", "C" };
+
+	@Test
+	public void testAgainstBruteForce()
+	{
+		final Random ran = new Random( 1l );
+		final Map< String, double[] > values = new HashMap< String, double[] >();
+		for ( final String feature : FEATURES )
+		{
+			final double[] arr = new double[ N_OBJECTS ];
+			for ( int i = 0; i < arr.length; i++ )
+			{
+				// Few distinct values, to test ties, and a few NaNs.
+				arr[ i ] = ran.nextInt( 50 ) == 0 ? Double.NaN : ran.nextInt( 100 );
+			}
+			values.put( feature, arr );
+		}
+		// A feature with values for only part of the objects.
+		values.put( "D", new double[] { 1d, 2d, 3d } );
+
+		final FeatureFilterIndex index = new FeatureFilterIndex( N_OBJECTS )
+		{
+			@Override
+			protected double[] collect( final String feature )
+			{
+				return values.get( feature );
+			}
+		};
+
+		boolean[] previous = bruteForce( values, new ArrayList< FeatureFilter >() );
+		List< FeatureFilter > filters = new ArrayList< FeatureFilter >();
+		for ( int round = 0; round < 200; round++ )
+		{
+			filters = mutate( filters, ran );
+			final int[] changed = index.update( filters );
+			final boolean[] expected = bruteForce( values, filters );
+
+			int nVisible = 0;
+			for ( int i = 0; i < N_OBJECTS; i++ )
+			{
+				assertEquals( "Object " + i + " after applying " + filters, expected[ i ], index.isVisible( i ) );
+				if ( expected[ i ] )
+					nVisible++;
+			}
+			assertEquals( nVisible, index.getNVisible() );
+
+			final List< Integer > expectedChanges = new ArrayList< Integer >();
+			for ( int i = 0; i < N_OBJECTS; i++ )
+			{
+				if ( expected[ i ] != previous[ i ] )
+					expectedChanges.add( Integer.valueOf( i ) );
+			}
+			final int[] expectedChanged = new int[ expectedChanges.size() ];
+			for ( int i = 0; i < expectedChanged.length; i++ )
+			{
+				expectedChanged[ i ] = expectedChanges.get( i ).intValue();
+			}
+			Arrays.sort( changed );
+			assertArrayEquals( expectedChanged, changed );
+			previous = expected;
+		}
+	}
+
+	@Test
+	public void testNoFilter()
+	{
+		final FeatureFilterIndex index = new FeatureFilterIndex( 10 )
+		{
+			@Override
+			protected double[] collect( final String feature )
+			{
+				return null;
+			}
+		};
+		assertEquals( 10, index.getNVisible() );
+		assertEquals( 0, index.update( Arrays.asList( new FeatureFilter( "UNKNOWN", 1d, true ) ) ).length );
+		assertEquals( 10, index.getNVisible() );
+	}
+
+	/**
+	 * Mimics user interaction: move a threshold, add, remove or replace a
+	 * filter.
+	 */
+	private static List< FeatureFilter > mutate( final List< FeatureFilter > filters, final Random ran )
+	{
+		final List< FeatureFilter > out = new ArrayList< FeatureFilter >( filters );
+		final int action = ran.nextInt( 10 );
+		if ( out.isEmpty() || action == 0 )
+		{
+			out.add( randomFilter( ran ) );
+		}
+		else if ( action == 1 )
+		{
+			out.remove( out.size() - 1 );
+		}
+		else if ( action == 2 )
+		{
+			out.set( ran.nextInt( out.size() ), randomFilter( ran ) );
+		}
+		else
+		{
+			final int i = ran.nextInt( out.size() );
+			final FeatureFilter old = out.get( i );
+			final double threshold = Math.max( -5d, Math.min( 105d, old.value.doubleValue() + ran.nextInt( 21 ) - 10 ) );
+			out.set( i, new FeatureFilter( old.feature, threshold, old.isAbove ) );
+		}
+		return out;
+	}
+
+	private static FeatureFilter randomFilter( final Random ran )
+	{
+		final String feature = ran.nextInt( 8 ) == 0 ? "D" : FEATURES[ ran.nextInt( FEATURES.length ) ];
+		return new FeatureFilter( feature, ( double ) ran.nextInt( 100 ), ran.nextBoolean() );
+	}
+
+	private static boolean[] bruteForce( final Map< String, double[] > values, final List< FeatureFilter > filters )
+	{
+		final boolean[] visible = new boolean[ N_OBJECTS ];
+		for ( int i = 0; i < N_OBJECTS; i++ )
+		{
+			boolean ok = true;
+			for ( final FeatureFilter filter : filters )
+			{
+				final double[] arr = values.get( filter.feature );
+				if ( i >= arr.length )
+					continue;
+				final int comparison = Double.compare( arr[ i ], filter.value.doubleValue() );
+				if ( filter.isAbove && comparison < 0 || !filter.isAbove && comparison > 0 )
+				{
+					ok = false;
+					break;
+				}
+			}
+			visible[ i ] = ok;
+		}
+		return visible;
+	}
+}
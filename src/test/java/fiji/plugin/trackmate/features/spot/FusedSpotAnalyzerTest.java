@@ -0,0 +1,104 @@
+package fiji.plugin.trackmate.features.spot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class FusedSpotAnalyzerTest
+{
+
+	private static final String[] FEATURES = new String[] {
+			SpotIntensityAnalyzerFactory.MEAN_INTENSITY,
+			SpotIntensityAnalyzerFactory.MEDIAN_INTENSITY,
+			SpotIntensityAnalyzerFactory.MIN_INTENSITY,
+			SpotIntensityAnalyzerFactory.MAX_INTENSITY,
+			SpotIntensityAnalyzerFactory.TOTAL_INTENSITY,
+			SpotIntensityAnalyzerFactory.STANDARD_DEVIATION,
+			SpotContrastAndSNRAnalyzerFactory.CONTRAST,
+			SpotContrastAndSNRAnalyzerFactory.SNR };
+
+	@Test
+	public void testSelectMatchesSort()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 1000; t++ )
+		{
+			final int n = 1 + ran.nextInt( 200 );
+			final double[] values = new double[ n + 5 ];
+			for ( int i = 0; i < values.length; i++ )
+			{
+				// Few distinct values, to have ties.
+				values[ i ] = ran.nextInt( 20 );
+			}
+			final double[] sorted = Arrays.copyOf( values, n );
+			Arrays.sort( sorted );
+			final int k = ran.nextInt( n );
+			assertEquals( sorted[ k ], FusedSpotAnalyzer.select( values, n, k ), 0d );
+		}
+	}
+
+	@Test
+	public void testSameFeaturesAsSeparateAnalyzers()
+	{
+		final Random ran = new Random( 2l );
+
+		final Img< UnsignedShortType > img2D = ArrayImgs.unsignedShorts( 64, 48 );
+		fill( img2D, ran );
+		final ImgPlus< UnsignedShortType > imgPlus2D = new ImgPlus< UnsignedShortType >( img2D, "2D", new AxisType[] { Axes.X, Axes.Y }, new double[] { 0.5, 0.5 } );
+		compare( imgPlus2D, ran, false );
+
+		final Img< UnsignedShortType > img3D = ArrayImgs.unsignedShorts( 32, 32, 16 );
+		fill( img3D, ran );
+		final ImgPlus< UnsignedShortType > imgPlus3D = new ImgPlus< UnsignedShortType >( img3D, "3D", new AxisType[] { Axes.X, Axes.Y, Axes.Z }, new double[] { 0.5, 0.5, 1d } );
+		compare( imgPlus3D, ran, true );
+	}
+
+	private static void compare( final ImgPlus< UnsignedShortType > img, final Random ran, final boolean is3D )
+	{
+		final List< Spot > expected = new ArrayList< Spot >();
+		final List< Spot > actual = new ArrayList< Spot >();
+		for ( int i = 0; i < 50; i++ )
+		{
+			final double x = ran.nextDouble() * img.dimension( 0 ) * 0.5;
+			final double y = ran.nextDouble() * img.dimension( 1 ) * 0.5;
+			final double z = is3D ? ran.nextDouble() * img.dimension( 2 ) : 0d;
+			final double radius = 1d + 2 * ran.nextDouble();
+			expected.add( new Spot( x, y, z, radius, -1d ) );
+			actual.add( new Spot( x, y, z, radius, -1d ) );
+		}
+
+		new SpotIntensityAnalyzer< UnsignedShortType >( img, expected.iterator() ).process();
+		new SpotContrastAndSNRAnalyzer< UnsignedShortType >( img, expected.iterator() ).process();
+		new FusedSpotAnalyzer< UnsignedShortType >( img, actual.iterator(), true, false, true ).process();
+
+		for ( int i = 0; i < expected.size(); i++ )
+		{
+			for ( final String feature : FEATURES )
+			{
+				assertEquals( feature, expected.get( i ).getFeature( feature ), actual.get( i ).getFeature( feature ), 0d );
+			}
+		}
+	}
+
+	private static void fill( final Img< UnsignedShortType > img, final Random ran )
+	{
+		for ( final UnsignedShortType pixel : img )
+		{
+			pixel.set( ran.nextInt( 4096 ) );
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalTrackAnalyzerTest
+{
+
+	private static final int N_TRACKS = 8;
+
+	private static final int DEPTH = 20;
+
+	private Model model;
+
+	private Random ran;
+
+	@Before
+	public void setUp()
+	{
+		ran = new Random( 3l );
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					final Spot spot = newSpot( j );
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						model.addEdge( previous, spot, 1 );
+					}
+					// A few branches.
+					if ( j % 7 == 3 && null != previous )
+					{
+						final Spot branch = newSpot( j );
+						model.addSpotTo( branch, j );
+						model.addEdge( previous, branch, 1 );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	/**
+	 * Features updated from the changes must be the same as features
+	 * recomputed from scratch, whatever the edit.
+	 */
+	@Test
+	public void testSameAsFullRecomputation()
+	{
+		final List< IncrementalTrackAnalyzer > analyzers = new ArrayList< IncrementalTrackAnalyzer >();
+		analyzers.add( new TrackSpeedStatisticsAnalyzer() );
+		analyzers.add( new TrackBranchingAnalyzer() );
+		for ( final IncrementalTrackAnalyzer analyzer : analyzers )
+		{
+			analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		}
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				for ( final IncrementalTrackAnalyzer analyzer : analyzers )
+				{
+					final Collection< Integer > toRecompute = analyzer.processChanges( event, model );
+					analyzer.process( toRecompute, model );
+				}
+			}
+		} );
+
+		for ( int i = 0; i < 300; i++ )
+		{
+			model.beginUpdate();
+			try
+			{
+				randomEdit();
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+
+			final Map< String, Double > incremental = collectFeatures( analyzers );
+			final List< IncrementalTrackAnalyzer > fresh = new ArrayList< IncrementalTrackAnalyzer >();
+			fresh.add( new TrackSpeedStatisticsAnalyzer() );
+			fresh.add( new TrackBranchingAnalyzer() );
+			for ( final IncrementalTrackAnalyzer analyzer : fresh )
+			{
+				analyzer.process( model.getTrackModel().trackIDs( false ), model );
+			}
+			final Map< String, Double > expected = collectFeatures( fresh );
+
+			assertEquals( expected.keySet(), incremental.keySet() );
+			for ( final String key : expected.keySet() )
+			{
+				assertEquals( key + " after edit " + i, expected.get( key ).doubleValue(), incremental.get( key ).doubleValue(), 1e-9 );
+			}
+		}
+	}
+
+	/**
+	 * Once a track has been seen, extending it must not require walking it
+	 * again.
+	 */
+	@Test
+	public void testNoRecomputationOfKnownTracks()
+	{
+		final TrackSpeedStatisticsAnalyzer analyzer = new TrackSpeedStatisticsAnalyzer();
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		final List< Collection< Integer >> returned = new ArrayList< Collection< Integer >>();
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				final Collection< Integer > toRecompute = analyzer.processChanges( event, model );
+				analyzer.process( toRecompute, model );
+				returned.add( toRecompute );
+			}
+		} );
+
+		final Integer trackID = model.getTrackModel().trackIDs( false ).iterator().next();
+		for ( int i = 0; i < 5; i++ )
+		{
+			final Spot last = lastSpot( trackID );
+			model.beginUpdate();
+			try
+			{
+				final int frame = last.getFeature( Spot.FRAME ).intValue() + 1;
+				final Spot spot = newSpot( frame );
+				model.addSpotTo( spot, frame );
+				model.addEdge( last, spot, 1 );
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+		}
+
+		// The first edit builds the accumulators, the next ones use them.
+		assertEquals( 5, returned.size() );
+		assertEquals( 1, returned.get( 0 ).size() );
+		for ( int i = 1; i < returned.size(); i++ )
+		{
+			assertTrue( returned.get( i ).isEmpty() );
+		}
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private Spot newSpot( final int frame )
+	{
+		final Spot spot = new Spot( 100d * ran.nextDouble(), 100d * ran.nextDouble(), 0d, 1d, -1d );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		return spot;
+	}
+
+	private Spot lastSpot( final Integer trackID )
+	{
+		Spot last = null;
+		for ( final Spot spot : model.getTrackModel().trackSpots( trackID ) )
+		{
+			if ( null == last || spot.diffTo( last, Spot.FRAME ) > 0 )
+			{
+				last = spot;
+			}
+		}
+		return last;
+	}
+
+	private void randomEdit()
+	{
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+		{
+			spots.add( spot );
+		}
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( model.getTrackModel().edgeSet() );
+
+		final int nOps = 1 + ran.nextInt( 3 );
+		for ( int op = 0; op < nOps; op++ )
+		{
+			switch ( ran.nextInt( 5 ) )
+			{
+			case 0:
+			{
+				// Link two spots, possibly merging two tracks.
+				final Spot source = spots.get( ran.nextInt( spots.size() ) );
+				final Spot target = spots.get( ran.nextInt( spots.size() ) );
+				if ( source != target && isInModel( source ) && isInModel( target ) && null == model.getTrackModel().getEdge( source, target ) )
+				{
+					model.addEdge( source, target, 1 );
+				}
+				break;
+			}
+			case 1:
+			{
+				// Remove a link, possibly splitting a track.
+				if ( edges.isEmpty() )
+				{
+					break;
+				}
+				final DefaultWeightedEdge edge = edges.get( ran.nextInt( edges.size() ) );
+				if ( model.getTrackModel().edgeSet().contains( edge ) )
+				{
+					model.removeEdge( edge );
+				}
+				break;
+			}
+			case 2:
+			{
+				// Remove a spot.
+				final Spot spot = spots.get( ran.nextInt( spots.size() ) );
+				if ( isInModel( spot ) )
+				{
+					model.removeSpot( spot );
+				}
+				break;
+			}
+			case 3:
+			{
+				// Move a spot.
+				final Spot spot = spots.get( ran.nextInt( spots.size() ) );
+				if ( isInModel( spot ) )
+				{
+					spot.putFeature( Spot.POSITION_X, Double.valueOf( 100d * ran.nextDouble() ) );
+					model.updateFeatures( spot );
+				}
+				break;
+			}
+			default:
+			{
+				// Extend a track with a new spot.
+				final Spot spot = spots.get( ran.nextInt( spots.size() ) );
+				if ( isInModel( spot ) )
+				{
+					final int frame = spot.getFeature( Spot.FRAME ).intValue() + 1 + ran.nextInt( 2 );
+					final Spot child = newSpot( frame );
+					model.addSpotTo( child, frame );
+					model.addEdge( spot, child, 1 );
+				}
+				break;
+			}
+			}
+		}
+	}
+
+	private boolean isInModel( final Spot spot )
+	{
+		final Set< Spot > found = new HashSet< Spot >();
+		for ( final Spot s : model.getSpots().iterable( spot.getFeature( Spot.FRAME ).intValue(), false ) )
+		{
+			found.add( s );
+		}
+		return found.contains( spot );
+	}
+
+	private Map< String, Double > collectFeatures( final List< IncrementalTrackAnalyzer > analyzers )
+	{
+		final Map< String, Double > features = new HashMap< String, Double >();
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			for ( final IncrementalTrackAnalyzer analyzer : analyzers )
+			{
+				for ( final String feature : analyzer.getFeatures() )
+				{
+					features.put( trackID + " " + feature, model.getFeatureModel().getTrackFeature( trackID, feature ) );
+				}
+			}
+		}
+		return features;
+	}
+}
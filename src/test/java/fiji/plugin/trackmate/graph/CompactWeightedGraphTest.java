@@ -0,0 +1,160 @@
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+public class CompactWeightedGraphTest
+{
+
+	private static final int N_VERTICES = 200;
+
+	private static final int N_OPERATIONS = 20000;
+
+	@Test
+	public void testCopyPreservesEdges()
+	{
+		final SimpleWeightedGraph< Integer, DefaultWeightedEdge > source = new SimpleWeightedGraph< Integer, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		for ( int i = 0; i < 10; i++ )
+		{
+			source.addVertex( Integer.valueOf( i ) );
+		}
+		for ( int i = 0; i < 9; i++ )
+		{
+			final DefaultWeightedEdge edge = source.addEdge( Integer.valueOf( i ), Integer.valueOf( i + 1 ) );
+			source.setEdgeWeight( edge, i );
+		}
+
+		final CompactWeightedGraph< Integer > graph = new CompactWeightedGraph< Integer >( source );
+		assertEquals( source.vertexSet(), graph.vertexSet() );
+		assertEquals( source.edgeSet(), graph.edgeSet() );
+		for ( final DefaultWeightedEdge edge : source.edgeSet() )
+		{
+			assertEquals( source.getEdgeSource( edge ), graph.getEdgeSource( edge ) );
+			assertEquals( source.getEdgeTarget( edge ), graph.getEdgeTarget( edge ) );
+			assertEquals( source.getEdgeWeight( edge ), graph.getEdgeWeight( edge ), 0d );
+			assertSame( edge, graph.getEdge( source.getEdgeTarget( edge ), source.getEdgeSource( edge ) ) );
+		}
+		assertEquals( new ArrayList< Integer >( source.vertexSet() ), new ArrayList< Integer >( graph.vertexSet() ) );
+		assertEquals( 2, graph.degreeOf( Integer.valueOf( 5 ) ) );
+		assertEquals( 1, graph.degreeOf( Integer.valueOf( 9 ) ) );
+	}
+
+	@Test
+	public void testSimpleGraph()
+	{
+		final CompactWeightedGraph< Integer > graph = new CompactWeightedGraph< Integer >();
+		final Integer a = Integer.valueOf( 1 );
+		final Integer b = Integer.valueOf( 2 );
+		assertTrue( graph.addVertex( a ) );
+		assertTrue( graph.addVertex( b ) );
+		assertFalse( graph.addVertex( a ) );
+
+		final DefaultWeightedEdge edge = graph.addEdge( a, b );
+		assertNotNull( edge );
+		assertNull( graph.addEdge( b, a ) );
+		assertFalse( graph.addEdge( a, b, new DefaultWeightedEdge() ) );
+		try
+		{
+			graph.addEdge( a, a );
+			assertTrue( "Loops must not be accepted.", false );
+		}
+		catch ( final IllegalArgumentException iae )
+		{}
+		assertEquals( "(1 : 2)", edge.toString() );
+	}
+
+	@Test
+	public void testRemovedEdgeCanBeQueried()
+	{
+		final CompactWeightedGraph< Integer > graph = new CompactWeightedGraph< Integer >();
+		final Integer a = Integer.valueOf( 1 );
+		final Integer b = Integer.valueOf( 2 );
+		graph.addVertex( a );
+		graph.addVertex( b );
+		final DefaultWeightedEdge edge = graph.addEdge( a, b );
+		graph.setEdgeWeight( edge, 3d );
+
+		assertTrue( graph.removeVertex( b ) );
+		assertFalse( graph.containsEdge( edge ) );
+		assertTrue( graph.edgesOf( a ).isEmpty() );
+		assertEquals( a, graph.getEdgeSource( edge ) );
+		assertEquals( b, graph.getEdgeTarget( edge ) );
+		assertEquals( 3d, graph.getEdgeWeight( edge ), 0d );
+
+		graph.releaseRemovedEdges();
+		assertNull( graph.getEdgeSource( edge ) );
+	}
+
+	/**
+	 * Applies the same random edits to a jgrapht graph and to a compact graph,
+	 * enough for the CSR layout to be rebuilt several times, and checks that
+	 * they stay identical.
+	 */
+	@Test
+	public void testRandomEdits()
+	{
+		final Random ran = new Random( 1l );
+		final SimpleWeightedGraph< Integer, DefaultWeightedEdge > reference = new SimpleWeightedGraph< Integer, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final CompactWeightedGraph< Integer > graph = new CompactWeightedGraph< Integer >();
+		for ( int i = 0; i < N_VERTICES; i++ )
+		{
+			reference.addVertex( Integer.valueOf( i ) );
+			graph.addVertex( Integer.valueOf( i ) );
+		}
+
+		for ( int i = 0; i < N_OPERATIONS; i++ )
+		{
+			final Integer u = Integer.valueOf( ran.nextInt( N_VERTICES ) );
+			final Integer v = Integer.valueOf( ran.nextInt( N_VERTICES ) );
+			final int operation = ran.nextInt( 10 );
+			if ( operation < 6 )
+			{
+				if ( u.equals( v ) || !reference.containsVertex( u ) || !reference.containsVertex( v ) )
+				{
+					continue;
+				}
+				final DefaultWeightedEdge edge = new DefaultWeightedEdge();
+				assertEquals( reference.addEdge( u, v, edge ), graph.addEdge( u, v, edge ) );
+			}
+			else if ( operation < 9 )
+			{
+				assertEquals( reference.removeEdge( u, v ), graph.removeEdge( u, v ) );
+			}
+			else
+			{
+				assertEquals( reference.removeVertex( u ), graph.removeVertex( u ) );
+				reference.addVertex( u );
+				graph.addVertex( u );
+			}
+		}
+
+		assertEquals( reference.vertexSet(), graph.vertexSet() );
+		assertEquals( reference.edgeSet(), graph.edgeSet() );
+		for ( final Integer vertex : reference.vertexSet() )
+		{
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >( graph.edgesOf( vertex ) );
+			assertEquals( reference.edgesOf( vertex ), edges );
+			assertEquals( reference.degreeOf( vertex ), graph.degreeOf( vertex ) );
+		}
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( reference.edgeSet() );
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			assertEquals( reference.getEdgeSource( edge ), graph.getEdgeSource( edge ) );
+			assertEquals( reference.getEdgeTarget( edge ), graph.getEdgeTarget( edge ) );
+		}
+	}
+}
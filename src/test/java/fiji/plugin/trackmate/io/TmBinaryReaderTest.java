@@ -0,0 +1,152 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TmBinaryReaderTest
+{
+
+	private static final int N_TRACKS = 3;
+
+	private static final int DEPTH = 6;
+
+	private static final String FEATURE = "MY_FEATURE";
+
+	private Model model;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					final Spot spot = new Spot( i, j, 0d, 1d, i + 0.1 * j );
+					if ( j % 2 == 0 )
+					{
+						spot.putFeature( FEATURE, Double.valueOf( -j ) );
+					}
+					if ( i == 0 && j == 0 )
+					{
+						spot.setName( "First" );
+					}
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						model.addEdge( previous, spot, 10 * i + j );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		file = File.createTempFile( "TrackMate", ".tmb" );
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter( file );
+		writer.appendModel( model );
+		writer.writeToFile();
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		assertTrue( TmBinaryReader.isBinaryFile( file ) );
+
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+
+		final Map< Integer, Spot > spots = new HashMap< Integer, Spot >();
+		for ( final Spot spot : loaded.getSpots().iterable( false ) )
+		{
+			spots.put( spot.ID(), spot );
+		}
+		assertEquals( model.getSpots().getNSpots( false ), spots.size() );
+		for ( final Spot expected : model.getSpots().iterable( false ) )
+		{
+			final Spot actual = spots.get( expected.ID() );
+			assertNotNull( actual );
+			assertEquals( expected.getName(), actual.getName() );
+			assertEquals( expected.getFeatures(), actual.getFeatures() );
+		}
+
+		assertEquals( N_TRACKS, loaded.getTrackModel().nTracks( false ) );
+		assertEquals( model.getTrackModel().edgeSet().size(), loaded.getTrackModel().edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : loaded.getTrackModel().edgeSet() )
+		{
+			final Spot source = loaded.getTrackModel().getEdgeSource( edge );
+			final Spot target = loaded.getTrackModel().getEdgeTarget( edge );
+			final DefaultWeightedEdge expected = model.getTrackModel().getEdge( findSpot( source.ID() ), findSpot( target.ID() ) );
+			assertNotNull( expected );
+			assertEquals( model.getTrackModel().getEdgeWeight( expected ), loaded.getTrackModel().getEdgeWeight( edge ), 0d );
+		}
+	}
+
+	@Test
+	public void testPartialLoad()
+	{
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		reader.setFrameInterval( 2, 4 );
+		reader.setSpotFeatures( Collections.< String > emptyList() );
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+
+		assertEquals( 3 * N_TRACKS, loaded.getSpots().getNSpots( false ) );
+		for ( final Spot spot : loaded.getSpots().iterable( false ) )
+		{
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			assertTrue( frame >= 2 && frame <= 4 );
+			assertNull( spot.getFeature( FEATURE ) );
+			assertEquals( findSpot( spot.ID() ).getFeature( Spot.POSITION_X ), spot.getFeature( Spot.POSITION_X ) );
+		}
+
+		assertEquals( N_TRACKS, loaded.getTrackModel().nTracks( false ) );
+		assertEquals( 2 * N_TRACKS, loaded.getTrackModel().edgeSet().size() );
+	}
+
+	@Test
+	public void testXmlFileIsNotBinary() throws IOException
+	{
+		final File xmlFile = File.createTempFile( "TrackMate", ".xml" );
+		xmlFile.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( xmlFile );
+		writer.appendModel( model );
+		writer.writeToFile();
+		assertFalse( TmBinaryReader.isBinaryFile( xmlFile ) );
+	}
+
+	private Spot findSpot( final int ID )
+	{
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+		{
+			if ( spot.ID() == ID ) { return spot; }
+		}
+		return null;
+	}
+}
@@ -0,0 +1,249 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TmXmlReaderTest
+{
+
+	private static final int N_TRACKS = 4;
+
+	private static final int DEPTH = 5;
+
+	private static final String SPOT_FEATURE = "MY_SPOT_FEATURE";
+
+	private static final String EDGE_FEATURE = "MY_EDGE_FEATURE";
+
+	/** Written by the JDOM writer, before the model was streamed with StAX. */
+	private static final String BASELINE_FILE = "BaselineModel.xml";
+
+	private Model model;
+
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		model.setPhysicalUnits( "micron", "sec" );
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareSpotFeatures( Collections.singletonList( SPOT_FEATURE ), Collections.singletonMap( SPOT_FEATURE, "My spot feature" ), Collections.singletonMap( SPOT_FEATURE, "Mine" ), Collections.singletonMap( SPOT_FEATURE, Dimension.INTENSITY ), Collections.singletonMap( SPOT_FEATURE, Boolean.FALSE ) );
+		fm.declareEdgeFeatures( EdgeTargetAnalyzer.FEATURES, EdgeTargetAnalyzer.FEATURE_NAMES, EdgeTargetAnalyzer.FEATURE_SHORT_NAMES, EdgeTargetAnalyzer.FEATURE_DIMENSIONS, EdgeTargetAnalyzer.IS_INT );
+		fm.declareEdgeFeatures( Collections.singletonList( EDGE_FEATURE ), Collections.singletonMap( EDGE_FEATURE, "My edge feature" ), Collections.singletonMap( EDGE_FEATURE, "Mine" ), Collections.singletonMap( EDGE_FEATURE, Dimension.VELOCITY ), Collections.singletonMap( EDGE_FEATURE, Boolean.FALSE ) );
+		fm.declareTrackFeatures( TrackIndexAnalyzer.FEATURES, TrackIndexAnalyzer.FEATURE_NAMES, TrackIndexAnalyzer.FEATURE_SHORT_NAMES, TrackIndexAnalyzer.FEATURE_DIMENSIONS, TrackIndexAnalyzer.IS_INT );
+
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					final Spot spot = new Spot( 10.1 * i, j / 3d, -0d, 1.5, i + 0.1 * j );
+					if ( j % 2 == 0 )
+					{
+						spot.putFeature( SPOT_FEATURE, Double.valueOf( Math.PI * j ) );
+					}
+					if ( j == 0 )
+					{
+						// Name with characters that must be escaped.
+						spot.setName( "Start <" + i + "> & \"end\"" );
+					}
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						final DefaultWeightedEdge edge = model.addEdge( previous, spot, 10 * i + j / 7d );
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, Double.valueOf( previous.ID() ) );
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, Double.valueOf( spot.ID() ) );
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST, Double.valueOf( 10 * i + j / 7d ) );
+						if ( j != 2 )
+						{
+							fm.putEdgeFeature( edge, EDGE_FEATURE, Double.valueOf( 1e-3 * i * j ) );
+						}
+					}
+					previous = spot;
+				}
+			}
+			// A spot in no track.
+			model.addSpotTo( new Spot( 1d, 2d, 3d, 4d, 5d, "Alone" ), 1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		int index = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			model.getTrackModel().setName( trackID, "Track #" + trackID );
+			fm.putTrackFeature( trackID, TrackIndexAnalyzer.TRACK_ID, Double.valueOf( trackID ) );
+			fm.putTrackFeature( trackID, TrackIndexAnalyzer.TRACK_INDEX, Double.valueOf( index++ ) );
+			if ( trackID % 2 == 1 )
+			{
+				model.setTrackVisibility( trackID, false );
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate", ".xml" );
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendModel( model );
+		writer.writeToFile();
+
+		final TmXmlReader reader = new TmXmlReader( file );
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertModelEquals( model, loaded );
+	}
+
+	@Test
+	public void testReadBaselineFile() throws URISyntaxException
+	{
+		final File file = new File( TmXmlReaderTest.class.getResource( BASELINE_FILE ).toURI() );
+		final TmXmlReader reader = new TmXmlReader( file );
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "micron", loaded.getSpaceUnits() );
+		assertEquals( "sec", loaded.getTimeUnits() );
+
+		// Spots.
+		final Map< Integer, Spot > spots = spotsByID( loaded );
+		assertEquals( 7, spots.size() );
+		assertEquals( 7, loaded.getSpots().getNSpots( false ) );
+		final Spot root = spots.get( 1000 );
+		assertEquals( "Root", root.getName() );
+		assertEquals( 12.5, root.getFeature( Spot.QUALITY ), 0d );
+		assertEquals( 20d, root.getFeature( Spot.POSITION_Y ), 0d );
+		assertEquals( 101.25, root.getFeature( "MEAN_INTENSITY" ), 0d );
+		final Spot lonely = spots.get( 1006 );
+		assertEquals( "Lonely", lonely.getName() );
+		assertEquals( 1e-4, lonely.getFeature( Spot.QUALITY ), 0d );
+		assertEquals( -3.75, lonely.getFeature( Spot.POSITION_X ), 0d );
+		assertEquals( 1, lonely.getFeature( Spot.FRAME ).intValue() );
+		assertNull( lonely.getFeature( "MEAN_INTENSITY" ) );
+		assertEquals( "ID1004", spots.get( 1004 ).getName() );
+		assertEquals( Dimension.INTENSITY, loaded.getFeatureModel().getSpotFeatureDimensions().get( "MEAN_INTENSITY" ) );
+
+		// Tracks.
+		assertEquals( 2, loaded.getTrackModel().nTracks( false ) );
+		assertEquals( 4, loaded.getTrackModel().edgeSet().size() );
+		assertEquals( "Dividing", loaded.getTrackModel().name( 0 ) );
+		assertEquals( "Track_1", loaded.getTrackModel().name( 1 ) );
+		assertEquals( Collections.singleton( Integer.valueOf( 0 ) ), loaded.getTrackModel().trackIDs( true ) );
+		assertEquals( 4, loaded.getTrackModel().trackSpots( 0 ).size() );
+		assertEquals( 1, loaded.getFeatureModel().getTrackFeature( 1, TrackIndexAnalyzer.TRACK_INDEX ).intValue() );
+
+		// Edges.
+		final FeatureModel fm = loaded.getFeatureModel();
+		final DefaultWeightedEdge division = loaded.getTrackModel().getEdge( spots.get( 1001 ), spots.get( 1003 ) );
+		assertNotNull( division );
+		assertEquals( 16d, loaded.getTrackModel().getEdgeWeight( division ), 0d );
+		assertEquals( 2d, fm.getEdgeFeature( division, "VELOCITY" ), 0d );
+		assertEquals( 1001, fm.getEdgeFeature( division, EdgeTargetAnalyzer.SPOT_SOURCE_ID ).intValue() );
+		final DefaultWeightedEdge other = loaded.getTrackModel().getEdge( spots.get( 1004 ), spots.get( 1005 ) );
+		assertNotNull( other );
+		assertEquals( 2d, fm.getEdgeFeature( other, EdgeTargetAnalyzer.EDGE_COST ), 0d );
+		assertNull( fm.getEdgeFeature( other, "VELOCITY" ) );
+		assertEquals( 0, loaded.getTrackModel().edgesOf( spots.get( 1006 ) ).size() );
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static void assertModelEquals( final Model expected, final Model actual )
+	{
+		assertEquals( expected.getSpaceUnits(), actual.getSpaceUnits() );
+		assertEquals( expected.getTimeUnits(), actual.getTimeUnits() );
+
+		// Spots and spot features.
+		final Map< Integer, Spot > expectedSpots = spotsByID( expected );
+		final Map< Integer, Spot > actualSpots = spotsByID( actual );
+		assertEquals( expectedSpots.keySet(), actualSpots.keySet() );
+		for ( final Spot spot : expectedSpots.values() )
+		{
+			final Spot other = actualSpots.get( spot.ID() );
+			assertEquals( spot.getName(), other.getName() );
+			assertEquals( spot.getFeatures(), other.getFeatures() );
+		}
+		for ( final Integer frame : expected.getSpots().keySet() )
+		{
+			assertEquals( expected.getSpots().getNSpots( frame, false ), actual.getSpots().getNSpots( frame, false ) );
+		}
+
+		// Edges and edge features.
+		final FeatureModel efm = expected.getFeatureModel();
+		final FeatureModel afm = actual.getFeatureModel();
+		assertEquals( new HashSet< String >( efm.getEdgeFeatures() ), new HashSet< String >( afm.getEdgeFeatures() ) );
+		assertEquals( expected.getTrackModel().edgeSet().size(), actual.getTrackModel().edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.getTrackModel().edgeSet() )
+		{
+			final Spot source = actualSpots.get( expected.getTrackModel().getEdgeSource( edge ).ID() );
+			final Spot target = actualSpots.get( expected.getTrackModel().getEdgeTarget( edge ).ID() );
+			final DefaultWeightedEdge other = actual.getTrackModel().getEdge( source, target );
+			assertNotNull( other );
+			assertEquals( expected.getTrackModel().getEdgeWeight( edge ), actual.getTrackModel().getEdgeWeight( other ), 0d );
+			for ( final String feature : efm.getEdgeFeatures() )
+			{
+				assertEquals( efm.getEdgeFeature( edge, feature ), afm.getEdgeFeature( other, feature ) );
+			}
+		}
+
+		// Tracks, track names and filtered tracks.
+		assertEquals( expected.getTrackModel().trackIDs( false ), actual.getTrackModel().trackIDs( false ) );
+		assertEquals( expected.getTrackModel().trackIDs( true ), actual.getTrackModel().trackIDs( true ) );
+		for ( final Integer trackID : expected.getTrackModel().trackIDs( false ) )
+		{
+			assertEquals( expected.getTrackModel().name( trackID ), actual.getTrackModel().name( trackID ) );
+			final Set< Integer > expectedIDs = new HashSet< Integer >();
+			for ( final Spot spot : expected.getTrackModel().trackSpots( trackID ) )
+			{
+				expectedIDs.add( spot.ID() );
+			}
+			final Set< Integer > actualIDs = new HashSet< Integer >();
+			for ( final Spot spot : actual.getTrackModel().trackSpots( trackID ) )
+			{
+				actualIDs.add( spot.ID() );
+			}
+			assertEquals( expectedIDs, actualIDs );
+			for ( final String feature : efm.getTrackFeatures() )
+			{
+				assertEquals( efm.getTrackFeature( trackID, feature ), afm.getTrackFeature( trackID, feature ) );
+			}
+		}
+	}
+
+	private static Map< Integer, Spot > spotsByID( final Model model )
+	{
+		final Map< Integer, Spot > spots = new HashMap< Integer, Spot >();
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+		{
+			spots.put( spot.ID(), spot );
+		}
+		return spots;
+	}
+}
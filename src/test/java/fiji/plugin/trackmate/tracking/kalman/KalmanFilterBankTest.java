@@ -0,0 +1,144 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KalmanFilterBankTest
+{
+
+	private static final double POSITION_PROCESS_STD = 2d;
+
+	private static final double VELOCITY_PROCESS_STD = 1.5d;
+
+	private static final double POSITION_MEASUREMENT_STD = 0.5d;
+
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * The bank must behave exactly like independent {@link CVMKalmanFilter}s,
+	 * including occlusions and pruning.
+	 */
+	@Test
+	public void testAgainstCVMKalmanFilter() throws InterruptedException
+	{
+		final Random ran = new Random( 7l );
+		final KalmanFilterBank< CVMKalmanFilter > bank = new KalmanFilterBank< CVMKalmanFilter >( POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD );
+		final int maxOcclusions = 2;
+
+		for ( int t = 0; t < 50; t++ )
+		{
+			// Nucleate a few filters.
+			final int nNew = ran.nextInt( 5 );
+			for ( int i = 0; i < nNew; i++ )
+			{
+				final double[] X0 = new double[ 6 ];
+				for ( int d = 0; d < X0.length; d++ )
+				{
+					X0[ d ] = 100d * ran.nextDouble();
+				}
+				final double initCov = t % 2 == 0 ? Double.MIN_NORMAL : 10d;
+				bank.add( X0, initCov, new CVMKalmanFilter( X0, initCov, POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD ) );
+			}
+
+			bank.predictAll();
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				final double[] expected = bank.getTag( i ).predict();
+				for ( int d = 0; d < 3; d++ )
+				{
+					assertEquals( expected[ d ], bank.getPredictedPosition( i, d ), TOLERANCE );
+				}
+			}
+
+			// Measure most of them.
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				if ( ran.nextInt( 4 ) == 0 )
+				{
+					bank.getTag( i ).update( null );
+					continue;
+				}
+				final double[] Xm = new double[ 3 ];
+				for ( int d = 0; d < 3; d++ )
+				{
+					Xm[ d ] = bank.getPredictedPosition( i, d ) + ran.nextGaussian();
+				}
+				bank.setMeasurement( i, Xm[ 0 ], Xm[ 1 ], Xm[ 2 ] );
+				bank.getTag( i ).update( Xm );
+			}
+			bank.updateAll();
+
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				final CVMKalmanFilter kf = bank.getTag( i );
+				assertEquals( kf.getNOcclusion(), bank.getNOcclusion( i ) );
+				assertEquals( kf.getPositionError(), bank.getPositionError( i ), TOLERANCE );
+				assertEquals( kf.getVelocityError(), bank.getVelocityError( i ), TOLERANCE );
+			}
+
+			// Pruning must keep exactly the filters with few occlusions.
+			final List< CVMKalmanFilter > kept = new ArrayList< CVMKalmanFilter >();
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				if ( bank.getTag( i ).getNOcclusion() <= maxOcclusions )
+				{
+					kept.add( bank.getTag( i ) );
+				}
+			}
+			bank.prune( maxOcclusions );
+			assertEquals( kept.size(), bank.size() );
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				assertEquals( true, kept.contains( bank.getTag( i ) ) );
+			}
+		}
+	}
+
+	/**
+	 * Parallel runs must give the same results as sequential ones.
+	 */
+	@Test
+	public void testMultiThreaded() throws InterruptedException
+	{
+		final int nFilters = 20000;
+		final KalmanFilterBank< Object > sequential = new KalmanFilterBank< Object >( POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD );
+		final KalmanFilterBank< Object > parallel = new KalmanFilterBank< Object >( POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD );
+		parallel.setExecutorService( null, 4 );
+
+		final Random ran = new Random( 1l );
+		for ( int i = 0; i < nFilters; i++ )
+		{
+			final double[] X0 = new double[] { ran.nextDouble(), ran.nextDouble(), ran.nextDouble(), 0.1d, 0d, -0.1d };
+			sequential.add( X0, 1d, null );
+			parallel.add( X0, 1d, null );
+		}
+
+		for ( int t = 0; t < 3; t++ )
+		{
+			assertEquals( true, sequential.predictAll() );
+			assertEquals( true, parallel.predictAll() );
+			for ( int i = 0; i < nFilters; i += 3 )
+			{
+				final double x = sequential.getPredictedPosition( i, 0 ) + 0.1d;
+				sequential.setMeasurement( i, x, 0d, 0d );
+				parallel.setMeasurement( i, x, 0d, 0d );
+			}
+			assertEquals( true, sequential.updateAll() );
+			assertEquals( true, parallel.updateAll() );
+		}
+
+		for ( int i = 0; i < nFilters; i++ )
+		{
+			for ( int d = 0; d < 6; d++ )
+			{
+				assertEquals( sequential.getState( i, d ), parallel.getState( i, d ), 0d );
+			}
+			assertEquals( sequential.getNOcclusion( i ), parallel.getNOcclusion( i ) );
+		}
+	}
+}
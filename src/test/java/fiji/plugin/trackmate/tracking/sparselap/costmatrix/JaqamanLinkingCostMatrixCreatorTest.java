@@ -0,0 +1,87 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JaqamanLinkingCostMatrixCreatorTest
+{
+
+	/**
+	 * Same costs as {@link SquareDistCostFunction}, but not declared as
+	 * distance-bounded, so that all pairs are scored.
+	 */
+	private static final CostFunction< Spot, Spot > ALL_PAIRS = new CostFunction< Spot, Spot >()
+	{
+		@Override
+		public double linkingCost( final Spot source, final Spot target )
+		{
+			return source.squareDistanceTo( target );
+		}
+	};
+
+	@Test
+	public void testGridMatchesAllPairs()
+	{
+		final Random ran = new Random( 1l );
+		for ( final boolean is3D : new boolean[] { false, true } )
+		{
+			for ( final double maxDist : new double[] { 0.5, 3d, 20d, 1000d } )
+			{
+				final List< Spot > sources = createSpots( ran, 300, is3D );
+				final List< Spot > targets = createSpots( ran, 350, is3D );
+				final double threshold = maxDist * maxDist;
+
+				final JaqamanLinkingCostMatrixCreator< Spot, Spot > expected = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, ALL_PAIRS, threshold, 1.05, 1d );
+				assertTrue( expected.checkInput() );
+				assertTrue( expected.process() );
+
+				final JaqamanLinkingCostMatrixCreator< Spot, Spot > actual = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, new SquareDistCostFunction(), threshold, 1.05, 1d );
+				assertTrue( actual.checkInput() );
+				assertTrue( actual.process() );
+
+				final SparseCostMatrix em = expected.getResult();
+				final SparseCostMatrix am = actual.getResult();
+				if ( null == em )
+				{
+					assertNull( am );
+					continue;
+				}
+				assertEquals( expected.getSourceList(), actual.getSourceList() );
+				assertEquals( expected.getTargetList(), actual.getTargetList() );
+				assertEquals( em.getNRows(), am.getNRows() );
+				assertEquals( em.getNCols(), am.getNCols() );
+				assertArrayEquals( em.getCosts(), am.getCosts(), 0d );
+				final double[][] efull = em.toFullMatrix();
+				final double[][] afull = am.toFullMatrix();
+				for ( int i = 0; i < efull.length; i++ )
+				{
+					assertArrayEquals( efull[ i ], afull[ i ], 0d );
+				}
+				assertEquals( expected.getAlternativeCostForSource( null ), actual.getAlternativeCostForSource( null ), 0d );
+			}
+		}
+	}
+
+	private static List< Spot > createSpots( final Random ran, final int n, final boolean is3D )
+	{
+		final List< Spot > spots = new ArrayList< Spot >( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final double z = is3D ? 50 * ran.nextDouble() : 0d;
+			spots.add( new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), z, 1d, 1d ) );
+		}
+		return spots;
+	}
+}
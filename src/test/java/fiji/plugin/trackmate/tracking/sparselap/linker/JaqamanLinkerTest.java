@@ -0,0 +1,137 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.imglib2.util.Util;
+
+import org.junit.Test;
+
+public class JaqamanLinkerTest
+{
+
+	private static final double MAX_DIST = 3d;
+
+	private static final double ALTERNATIVE_COST_FACTOR = 1.05;
+
+	@Test
+	public void testComponentsGiveSameSolution()
+	{
+		final Random ran = new Random( 5l );
+		final List< Spot > sources = new ArrayList< Spot >();
+		final List< Spot > targets = new ArrayList< Spot >();
+		// Many small clusters, with more or less sources than targets.
+		for ( int c = 0; c < 200; c++ )
+		{
+			final double cx = 1000 * ran.nextDouble();
+			final double cy = 1000 * ran.nextDouble();
+			final int ns = 1 + ran.nextInt( 5 );
+			final int nt = 1 + ran.nextInt( 5 );
+			for ( int i = 0; i < ns; i++ )
+			{
+				sources.add( new Spot( cx + 2 * ran.nextDouble(), cy + 2 * ran.nextDouble(), 0d, 1d, 1d ) );
+			}
+			for ( int i = 0; i < nt; i++ )
+			{
+				targets.add( new Spot( cx + 2 * ran.nextDouble(), cy + 2 * ran.nextDouble(), 0d, 1d, 1d ) );
+			}
+		}
+
+		final Map< Spot, Spot > expected = solveWhole( sources, targets );
+		final double expectedCost = totalCost( expected );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( newCreator( sources, targets ) );
+			linker.setNumThreads( numThreads );
+			assertTrue( linker.getErrorMessage(), linker.checkInput() && linker.process() );
+
+			final Map< Spot, Spot > actual = linker.getResult();
+			assertEquals( expected, actual );
+			assertEquals( expectedCost, totalCost( actual ), 1e-9 );
+			for ( final Spot source : actual.keySet() )
+			{
+				assertEquals( source.squareDistanceTo( actual.get( source ) ), linker.getAssignmentCosts().get( source ), 0d );
+			}
+		}
+	}
+
+	private static JaqamanLinkingCostMatrixCreator< Spot, Spot > newCreator( final List< Spot > sources, final List< Spot > targets )
+	{
+		return new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, new SquareDistCostFunction(), MAX_DIST * MAX_DIST, ALTERNATIVE_COST_FACTOR, 1d );
+	}
+
+	private static double totalCost( final Map< Spot, Spot > assignment )
+	{
+		double cost = 0;
+		for ( final Spot source : assignment.keySet() )
+		{
+			cost += source.squareDistanceTo( assignment.get( source ) );
+		}
+		return cost;
+	}
+
+	/**
+	 * Builds the whole Jaqaman cost matrix and solves it in one go.
+	 */
+	private static Map< Spot, Spot > solveWhole( final List< Spot > sources, final List< Spot > targets )
+	{
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = newCreator( sources, targets );
+		assertTrue( creator.checkInput() && creator.process() );
+		final SparseCostMatrix tl = creator.getResult();
+		final List< Spot > rows = creator.getSourceList();
+		final List< Spot > cols = creator.getTargetList();
+		final int nRows = tl.getNRows();
+		final int nCols = tl.getNCols();
+
+		final double[] cctr = new double[ nRows ];
+		final int[] kktr = new int[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			kktr[ i ] = i;
+			cctr[ i ] = creator.getAlternativeCostForSource( rows.get( i ) );
+		}
+		final int[] numbertr = new int[ nRows ];
+		Arrays.fill( numbertr, 1 );
+		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+
+		final double[] ccbl = new double[ nCols ];
+		final int[] kkbl = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			kkbl[ j ] = j;
+			ccbl[ j ] = creator.getAlternativeCostForTarget( cols.get( j ) );
+		}
+		final int[] numberbl = new int[ nCols ];
+		Arrays.fill( numberbl, 1 );
+		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+
+		final SparseCostMatrix br = tl.transpose();
+		br.fillWith( Math.min( Util.min( ccbl ), Util.min( cctr ) ) );
+
+		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+		final LAPJV solver = new LAPJV( full );
+		assertTrue( solver.checkInput() && solver.process() );
+
+		final int[] assgn = solver.getResult();
+		final Map< Spot, Spot > assignment = new HashMap< Spot, Spot >();
+		for ( int i = 0; i < nRows; i++ )
+		{
+			if ( assgn[ i ] < nCols )
+			{
+				assignment.put( rows.get( i ), cols.get( assgn[ i ] ) );
+			}
+		}
+		return assignment;
+	}
+}
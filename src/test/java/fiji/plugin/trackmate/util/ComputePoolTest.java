@@ -0,0 +1,136 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ComputePoolTest
+{
+
+	@Test
+	public void testRunAll() throws InterruptedException
+	{
+		final ComputePool pool = new ComputePool( 4 );
+		final AtomicInteger counter = new AtomicInteger( 0 );
+		final AtomicInteger runs = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runs.incrementAndGet();
+				while ( counter.getAndIncrement() < 1000 )
+				{}
+			}
+		};
+		assertTrue( ComputePool.runAll( pool, worker, 4, "Test thread" ) );
+		assertEquals( 4, runs.get() );
+		assertTrue( counter.get() > 1000 );
+
+		// Same without executor service.
+		runs.set( 0 );
+		assertTrue( ComputePool.runAll( null, worker, 3, "Test thread" ) );
+		assertEquals( 3, runs.get() );
+	}
+
+	@Test( timeout = 10000 )
+	public void testNestedWithSingleThread() throws Exception
+	{
+		final int budget = ComputePool.getThreadBudget();
+		ComputePool.setThreadBudget( 1 );
+		try
+		{
+			final ComputePool pool = new ComputePool( 4 );
+			final Future< Integer > outer = pool.submit( new Callable< Integer >()
+			{
+				@Override
+				public Integer call() throws Exception
+				{
+					final List< Future< Integer >> inner = new ArrayList< Future< Integer >>();
+					for ( int i = 0; i < 10; i++ )
+					{
+						final int val = i;
+						inner.add( pool.submit( new Callable< Integer >()
+						{
+							@Override
+							public Integer call()
+							{
+								return Integer.valueOf( val );
+							}
+						} ) );
+					}
+					int sum = 0;
+					for ( final Future< Integer > future : inner )
+					{
+						sum += future.get().intValue();
+					}
+					return Integer.valueOf( sum );
+				}
+			} );
+			assertEquals( 45, outer.get().intValue() );
+			assertEquals( 1, pool.getNumThreads() );
+		}
+		finally
+		{
+			ComputePool.setThreadBudget( budget );
+		}
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException
+	{
+		final ComputePool pool = new ComputePool( 2 );
+		pool.cancel();
+		assertTrue( pool.isCancelled() );
+		assertTrue( ComputePool.isCancelled( pool ) );
+		assertTrue( pool.isShutdown() );
+
+		final AtomicInteger runs = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runs.incrementAndGet();
+			}
+		};
+		assertFalse( ComputePool.runAll( pool, worker, 2, "Test thread" ) );
+		assertEquals( 0, runs.get() );
+
+		try
+		{
+			pool.submit( worker );
+			fail( "A cancelled compute pool should reject new tasks." );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			// Expected.
+		}
+		assertTrue( pool.awaitTermination( 1, TimeUnit.SECONDS ) );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testExceptionPropagation() throws InterruptedException
+	{
+		final ComputePool pool = new ComputePool( 2 );
+		ComputePool.runAll( pool, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				throw new IllegalStateException( "Failure in task." );
+			}
+		}, 2, "Test thread" );
+	}
+}